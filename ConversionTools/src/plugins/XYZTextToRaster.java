@@ -21,6 +21,7 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.utilities.AsciiNumberReader;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -162,7 +163,6 @@ public class XYZTextToRaster implements WhiteboxPlugin {
         double east, west, north, south;
         int i, j;
         int progress = 0;
-        String delimiter = " ";
         boolean firstLineHeader = false;
         String str1 = null;
         FileWriter fw = null;
@@ -212,59 +212,36 @@ public class XYZTextToRaster implements WhiteboxPlugin {
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
                     baseFileHeader, dataType, noData);
            
+            double[] fields = new double[3];
             for (i = 0; i < numPointFiles; i++) {
-                DataInputStream in = null;
-                BufferedReader br = null;
+                AsciiNumberReader reader = null;
                 try {
-                    // Open the file that is the first command line parameter
-                    FileInputStream fstream = new FileInputStream(pointFiles[i]);
-                    // Get the object of DataInputStream
-                    in = new DataInputStream(fstream);
-
-                    br = new BufferedReader(new InputStreamReader(in));
-
-                    String line;
-                    String[] str;
-                    j = 1;
-                    //Read File Line By Line
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
-                        }
-                        if ((j > 1 || !firstLineHeader) && (str.length >= 3)) {
-                            x = Double.parseDouble(str[0]);
-                            y = Double.parseDouble(str[1]);
-                            z = Double.parseDouble(str[2]);
+                    reader = new AsciiNumberReader(pointFiles[i]);
+                    if (firstLineHeader) {
+                        reader.readLine();
+                    }
+                    // Read the file line by line. Only the first three fields
+                    // of each line are used.
+                    while ((j = reader.readRecord(fields)) >= 0) {
+                        if (j >= 3) {
+                            x = fields[0];
+                            y = fields[1];
+                            z = fields[2];
                             
                             row = (int)(Math.floor((y - south) / resolutionY));
                             col = (int)(Math.floor((x - west) / resolutionX));
                             
                             output.setValue(row, col, z);
                         }
-                        j++;
                     }
-                    //Close the input stream
-                    in.close();
-                    br.close();
 
                 } catch (java.io.IOException e) {
                     myHost.showFeedback("An error has occurred during operation. See log file for details.");
                     myHost.logException("Error in " + getDescriptiveName(), e);
                 } finally {
                     try {
-                        if (in != null || br != null) {
-                            in.close();
-                            br.close();
+                        if (reader != null) {
+                            reader.close();
                         }
                     } catch (java.io.IOException ex) {
                     }
@@ -18,9 +18,12 @@ package plugins;
 
 
 import java.util.Date;
+import whitebox.algorithms.PatchLabeller;
+import whitebox.algorithms.PriorityFlood;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.Parallel;
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
  * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
@@ -29,16 +32,6 @@ public class Clump implements WhiteboxPlugin {
     
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    double noData = -32768;
-    WhiteboxRaster image;
-    WhiteboxRaster output;
-    double currentPatchNumber = 0;
-    double currentImageValue = 0;
-    int maxDepth = 1000;
-    int depth = 0;
-    int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-    int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-    int numScanCells = 8;
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name containing no spaces.
      * @return String containing plugin name.
@@ -170,9 +163,6 @@ public class Clump implements WhiteboxPlugin {
         String outputHeader = null;
         int row, col;
         float progress = 0;
-        double maxPatchValue = 0;
-        int x, y;
-        boolean blnFoundNeighbour;
         boolean blnIncludeDiagNeighbour = false;
         boolean blnTreatZerosAsBackground = false;
         int i;
@@ -189,10 +179,6 @@ public class Clump implements WhiteboxPlugin {
                 outputHeader = args[i];
             } else if (i == 2) {
                 blnIncludeDiagNeighbour = Boolean.parseBoolean(args[i]);
-                if (!blnIncludeDiagNeighbour) {
-                    dX = new int[]{0, 1, 0, -1};
-                    dY = new int[]{-1, 0, 1, 0};
-                }
             } else if (i == 3) {
                 blnTreatZerosAsBackground = Boolean.parseBoolean(args[i]);
             }
@@ -205,82 +191,32 @@ public class Clump implements WhiteboxPlugin {
         }
 
         try {
-            numScanCells = dY.length;
-        
-            image = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster image = new WhiteboxRaster(inputHeader, "r");
             int rows = image.getNumberRows();
             int cols = image.getNumberColumns();
-            noData = image.getNoDataValue();
-            
-            double initialValue = -1;
-            output = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, initialValue);
-            output.setDataScale(WhiteboxRaster.DataScale.CATEGORICAL);
-            output.setPreferredPalette("qual.pal");
+            double noData = image.getNoDataValue();
             
-            if (blnTreatZerosAsBackground) {
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        if (image.getValue(row, col) == 0) {
-                            output.setValue(row, col, 0);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress((int) progress);
-                }
-                if (output.getValue(0, 0) == -1) {
-                    output.setValue(0, 0, 1);
-                }
-            } else {
-                output.setValue(0, 0, 0);
+            // the grid values and labels are held in memory, which takes
+            // 12 bytes per cell.
+            long numCells = (long) rows * cols;
+            if (numCells > Integer.MAX_VALUE - 8
+                    || 12L * numCells > Runtime.getRuntime().maxMemory()) {
+                image.close();
+                showFeedback("The input raster is too large to be clumped in memory. "
+                        + "This tool needs about " + (12L * numCells / 1048576)
+                        + " MB of memory for this raster.");
+                return;
             }
             
-            double patchValue = 0;
-            double neighbourPatchValue = 0;
-            double newPatchValue = 0;
-            double imageValue = 0;
             int loopNum = 1;
             updateProgress("Loop " + loopNum + ":", 0);
+            double[] data = new double[(int) numCells];
+            i = 0;
             for (row = 0; row < rows; row++) {
+                double[] values = image.getRowValues(row);
                 for (col = 0; col < cols; col++) {
-                    imageValue = image.getValue(row, col);
-                    if (imageValue != noData) {
-                        patchValue = output.getValue(row, col);
-                        if (patchValue == initialValue) {
-                            // see if any neighbour has the same value in the input image
-                            blnFoundNeighbour = false;
-                            for (i = 0; i < numScanCells; i++) {
-                                x = col + dX[i];
-                                y = row + dY[i];
-                                neighbourPatchValue = output.getValue(y, x);
-                                if (neighbourPatchValue != initialValue 
-                                        && image.getValue(y, x) == imageValue) {
-                                    // cell is neighbouring a cell with the same value in image that
-                                    // has already been assigned a patch value
-                                    output.setValue(row, col, neighbourPatchValue);
-                                    newPatchValue = neighbourPatchValue;
-                                    blnFoundNeighbour = true;
-                                    break;
-                                }
-                            }
-                            if (!blnFoundNeighbour) {
-                                // no neighbouring cell has the same value in Image and has 
-                                // already been assigned a value. A new one is needed.
-                                maxPatchValue++;
-                                newPatchValue = maxPatchValue;
-                                output.setValue(row, col, newPatchValue);
-                            }
-                            
-                            // recursively scan all connected cells of equal value in Image
-                            depth = 0;
-                            ScanConnectedCells(row, col, imageValue, initialValue, newPatchValue);
-                        }
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
+                    data[i] = values[col];
+                    i++;
                 }
                 if (cancelOp) {
                     cancelOperation();
@@ -289,74 +225,51 @@ public class Clump implements WhiteboxPlugin {
                 progress = (float) (100f * row / (rows - 1));
                 updateProgress((int) progress);
             }
+            image.close();
             
-            // find all cells with neighbouring cells that have the same value in
-            // the input image but different patch values in the output image.
-            // Recursively scan them to change the larger patch ID to the lower value.
-            // Iterate this process until there are no further changes to the image.
-            boolean somethingDone;
-            double[] reclass = new double[(int) maxPatchValue + 1];
-            // this array is used to keep track of the eliminated patches.
-            do {
-                loopNum++;
-                updateProgress("Loop " + loopNum + ":", 0);
-                somethingDone = false;
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        imageValue = image.getValue(row, col);
-                        if (imageValue != noData) {
-                            patchValue = output.getValue(row, col);
-                            for (i = 0; i < numScanCells; i++) {
-                                x = col + dX[i];
-                                y = row + dY[i];
-                                neighbourPatchValue = output.getValue(y, x);
-                                if (neighbourPatchValue != patchValue 
-                                        && image.getValue(y, x) == imageValue) {
-                                    // The two patches are equivalent. Find the 
-                                    // lower valued cell and initiate a recursive
-                                    // scan from there.
-                                    somethingDone = true;
-                                    if (patchValue < neighbourPatchValue) {
-                                        reclass[(int)neighbourPatchValue] = -1;
-                                        output.setValue(y, x, patchValue);
-                                        ScanConnectedCells(y, x, imageValue, neighbourPatchValue, patchValue);
-                                    } else {
-                                        reclass[(int)patchValue] = -1;
-                                        output.setValue(row, col, neighbourPatchValue);
-                                        ScanConnectedCells(row, col, imageValue, patchValue, neighbourPatchValue);
-                                        patchValue = neighbourPatchValue;
-                                    }
-
-                                }
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress((int) progress);
-                }
-            } while (somethingDone);
-            
-            i = 0;
-            for (int a = 0; a < maxPatchValue + 1; a++) {
-                if (reclass[a] != -1) {
-                    reclass[a] = i;
-                    i++;
+            loopNum++;
+            updateProgress("Loop " + loopNum + ":", 0);
+            final int labelLoop = loopNum;
+            PatchLabeller labeller = new PatchLabeller(data, rows, cols, noData);
+            labeller.setIncludeDiagonalNeighbours(blnIncludeDiagNeighbour);
+            labeller.setTreatZerosAsBackground(blnTreatZerosAsBackground);
+            labeller.setProgressListener(new PriorityFlood.ProgressListener() {
+                @Override
+                public boolean progressMade(int percent) {
+                    updateProgress("Loop " + labelLoop + ":", percent);
+                    return !cancelOp;
                 }
+            });
+            int[] labels = new int[(int) numCells];
+            if (labeller.labelInParallel(labels, Parallel.getPluginProcessors()) < 0) {
+                cancelOperation();
+                return;
             }
+            data = null;
+            
+            // patches are numbered from zero unless zero is the background.
+            int offset = blnTreatZerosAsBackground ? 0 : 1;
             
             loopNum++;
             updateProgress("Loop " + loopNum + ":", 0);
+            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
+            output.setDataScale(WhiteboxRaster.DataScale.CATEGORICAL);
+            output.setPreferredPalette("qual.pal");
+            
+            double[] values = new double[cols];
+            i = 0;
             for (row = 0; row < rows; row++) {
                 for (col = 0; col < cols; col++) {
-                    patchValue = output.getValue(row, col);
-                    if (patchValue != noData) {
-                        output.setValue(row, col, reclass[(int)patchValue]);
+                    if (labels[i] == PatchLabeller.NODATA) {
+                        values[col] = noData;
+                    } else if (labels[i] == PatchLabeller.BACKGROUND) {
+                        values[col] = 0;
+                    } else {
+                        values[col] = labels[i] - offset;
                     }
+                    i++;
                 }
+                output.setRowValues(row, values);
                 if (cancelOp) {
                     cancelOperation();
                     return;
@@ -370,7 +283,6 @@ public class Clump implements WhiteboxPlugin {
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
             
-            image.close();
             output.close();
             
             // returning a header file string displays the image.
@@ -388,22 +300,4 @@ public class Clump implements WhiteboxPlugin {
             myHost.pluginComplete();
         }
     }
-    
-    private void ScanConnectedCells(int row, int col, double imageValue, double currentPatchValue, double newPatchValue) {
-        depth++;
-        int x, y;
-        if (depth < maxDepth) {
-            for (int c = 0; c < numScanCells; c++) {
-                x = col + dX[c];
-                y = row + dY[c];
-                if ((output.getValue(y, x) == currentPatchValue) && 
-                        (image.getValue(y, x) == imageValue)) {
-                    // cell should be assigned the new patch value and has the same value in Image
-                    output.setValue(y, x, newPatchValue);
-                    ScanConnectedCells(y, x, imageValue, currentPatchValue, newPatchValue);
-                }
-            }
-        }
-        depth--;
-    }
-}
\ No newline at end of file
+}
@@ -18,11 +18,11 @@ package plugins;
 
 import java.util.Arrays;
 import java.util.Date;
-import java.util.PriorityQueue;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
 import whitebox.structures.BooleanBitArray2D;
+import whitebox.structures.CellPriorityQueue;
 import whitebox.structures.NibbleArray2D;
 
 /**
@@ -208,7 +208,7 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
             double pathTerminalHeight;
             double outletHeight;
             int outletRow, outletCol, outletDist;
-            GridCell gc;
+            long cell;
             int[] dX = {1, 1, 1, 0, -1, -1, -1, 0};
             int[] dY = {-1, 0, 1, 1, 1, 0, -1, -1};
             int[] backLink = {5, 6, 7, 8, 1, 2, 3, 4};
@@ -273,7 +273,8 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
             BooleanBitArray2D pits = new BooleanBitArray2D(rows + 2, cols + 2);
             BooleanBitArray2D inQueue = new BooleanBitArray2D(rows + 2, cols + 2);
             NibbleArray2D flowdir = new NibbleArray2D(rows + 2, cols + 2);
-            PriorityQueue<GridCell> queue = new PriorityQueue<>((2 * rows + 2 * cols) * 2);
+            int stride = cols + 2;
+            CellPriorityQueue queue = new CellPriorityQueue((2 * rows + 2 * cols) * 2);
             
             // find the pit cells and initialize the grids
             oldProgress = -1;
@@ -305,7 +306,7 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
                         if (isPit) {
                             if (isEdgeCell) {
                                 //n = row * cols + col;
-                                queue.add(new GridCell(row + 1, col + 1, z)); //, n));
+                                queue.add(getPriority(row + 1, col + 1, z), (long) (row + 1) * stride + col + 1);
                                 inQueue.setValue(row + 1, col + 1, true);
                                 flowdir.setValue(row + 1, col + 1, 0);
                             } else {
@@ -359,9 +360,9 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
             if (!maxLengthOrDepthUsed) {
                 // Perform a complete breaching solution; there will be no filling
                 while (queue.isEmpty() == false) {
-                    gc = queue.poll();
-                    row = gc.row;
-                    col = gc.col;
+                    cell = queue.poll();
+                    row = (int) (cell / stride);
+                    col = (int) (cell % stride);
                     for (i = 0; i < 8; i++) {
                         rowN = row + dY[i];
                         colN = col + dX[i];
@@ -399,7 +400,7 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
                             }
                             numSolvedCells++;
                             //n = rowN * cols + colN;
-                            queue.add(new GridCell(rowN, colN, zN)); //, n));
+                            queue.add(getPriority(rowN, colN, zN), (long) rowN * stride + colN);
                             inQueue.setValue(rowN, colN, true);
                         }
                     }
@@ -420,9 +421,9 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
                 // be breached. Otherwise they will be removed during a subsequent
                 // filling operation.
                 while (queue.isEmpty() == false) {
-                    gc = queue.poll();
-                    row = gc.row;
-                    col = gc.col;
+                    cell = queue.poll();
+                    row = (int) (cell / stride);
+                    col = (int) (cell % stride);
                     
                     for (i = 0; i < 8; i++) {
                         rowN = row + dY[i];
@@ -497,7 +498,7 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
                             }
                             numSolvedCells++;
                             //n = rowN * cols + colN;
-                            queue.add(new GridCell(rowN, colN, zN)); //, n));
+                            queue.add(getPriority(rowN, colN, zN), (long) rowN * stride + colN);
                             inQueue.setValue(rowN, colN, true);
                         }
                     }
@@ -538,7 +539,7 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
 
                             if (isEdgeCell && isPit) {
                                 //n = row * cols + col;
-                                queue.add(new GridCell(row + 1, col + 1, z)); //, n));
+                                queue.add(getPriority(row + 1, col + 1, z), (long) (row + 1) * stride + col + 1);
                                 inQueue.setValue(row + 1, col + 1, true);
                                 numSolvedCells++;
                             }
@@ -561,10 +562,10 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
 
                 // now fill the DEM
                 while (queue.isEmpty() == false) {
-                    gc = queue.poll();
-                    row = gc.row;
-                    col = gc.col;
-                    z = output[row][col]; //gc.z;
+                    cell = queue.poll();
+                    row = (int) (cell / stride);
+                    col = (int) (cell % stride);
+                    z = output[row][col];
 
                     for (i = 0; i < 8; i++) {
                         rowN = row + dY[i];
@@ -578,7 +579,7 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
                             numSolvedCells++;
                             output[rowN][colN] = zN;
                             //n = rowN * cols + colN;
-                            queue.add(new GridCell(rowN, colN, zN)); //, n));
+                            queue.add(getPriority(rowN, colN, zN), (long) rowN * stride + colN);
                             inQueue.setValue(rowN, colN, true);
                         }
                     }
@@ -691,49 +692,12 @@ public class BreachDepressionsFast implements WhiteboxPlugin {
         }
     }
     
-    class GridCell implements Comparable<GridCell> {
-
-        public int row;
-        public int col;
-        //public double z;
-        public long priority;
-
-        public GridCell(int row, int col, double z) {
-            this.row = row;
-            this.col = col;
-            //this.priority = ((long)((z - minVal) * elevMultiplier)) * 100 + (row % 1000);
-            this.priority = (long)((long)(z * elevMultiplier) * 1000000 + (row % 1000) * 1000 + (col % 1000));
-//            this.priority = ((int)((z - minVal) * elevMultiplier)) * 100 + (row % 100);
-        }
-
-        @Override
-        public int compareTo(GridCell other) {
-            if (this.priority < other.priority) {
-                return -1;
-            } else {
-                return 1;
-            }
-            //return this.priority - other.priority;
-//            if (this.z < other.z) {
-//                return -1;
-//            } else if (this.z > other.z) {
-//                return 1;
-//            }
-            
-            /* in the event of tied elevations, there must be 
-             a unique priority assigned to each grid cell. The 
-             priority will be based on the cell index, which is 
-             a unique number assigned to the cell upon creation.
-             index = row * numColumns + column
-            */
-//            if (this.index < other.index) {
-//                return -1;
-//            } else if (this.index > other.index) {
-//                return 1;
-//            } else {
-//                return 0; // it's equal
-//            }
-        }
+    /* Cells are taken from the queue in order of their elevation, to a
+     * precision of 1 / elevMultiplier, and then of their position. The
+     * priority is a whole number below 2^53 and so is held exactly by a double.
+     */
+    private double getPriority(int row, int col, double z) {
+        return (double) ((long) (z * elevMultiplier) * 1000000 + (row % 1000) * 1000 + (col % 1000));
     }
     
     // this is only used for debugging the tool
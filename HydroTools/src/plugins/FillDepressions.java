@@ -16,8 +16,11 @@
  */
 package plugins;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.PriorityQueue;
+import whitebox.algorithms.PriorityFlood;
+import whitebox.algorithms.TiledPriorityFlood;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -29,6 +32,7 @@ import whitebox.interfaces.WhiteboxPluginHost;
  */
 public class FillDepressions implements WhiteboxPlugin {
 
+    private static final int DEFAULT_TILE_SIZE = 2048;
     private WhiteboxPluginHost myHost = null;
     private String[] args;
 
@@ -201,6 +205,11 @@ public class FillDepressions implements WhiteboxPlugin {
         inputHeader = args[0];
         outputHeader = args[1];
         SMALL_NUM = Double.parseDouble(args[2]);
+        int tileSize = 0;
+        if (args.length > 3 && !args[3].trim().isEmpty()
+                && !args[3].toLowerCase().contains("not specified")) {
+            tileSize = Integer.parseInt(args[3]);
+        }
          
         // check to see that the inputHeader and outputHeader are not null.
         if ((inputHeader == null) || (outputHeader == null)) {
@@ -212,125 +221,60 @@ public class FillDepressions implements WhiteboxPlugin {
         
         try {
             updateProgress("Initializing: ", -1);
-            int row_n, col_n;
             int row, col;
-            double z_n;
-            long k = 0;
-            GridCell gc = null;
-            double z;
-            int[] Dy = {-1, 0, 1, 1, 1, 0, -1, -1};
-            int[] Dx = {1, 1, 1, 0, -1, -1, -1, 0};
             int progress = 0;
             int oldProgress;
             
             WhiteboxRaster image = new WhiteboxRaster(inputHeader, "r");
             int rows = image.getNumberRows();
-            int rowsLessOne = rows - 1;
             int cols = image.getNumberColumns();
-            int numCells = 0;
             String preferredPalette = image.getPreferredPalette();
 
             double noData = image.getNoDataValue();
 
-            double[][] output = new double[rows][cols];
-            double[][] input = new double[rows + 2][cols + 2];
-            for (row = 0; row < rows + 2; row++) {
-                input[row][0] = noData;
-                input[row][cols + 1] = noData;
+            // a DEM that won't fit comfortably in memory, or in a single
+            // array, is filled in tiles. Tiles are filled flat, so this is
+            // only done automatically when no flat increment is requested.
+            long numCells = (long) rows * cols;
+            if (tileSize <= 0 && (numCells > Integer.MAX_VALUE - 8
+                    || 10L * numCells > Runtime.getRuntime().maxMemory() / 2)) {
+                if (SMALL_NUM > 0) {
+                    image.close();
+                    showFeedback("The DEM is too large to be filled in memory. "
+                            + "Set the flat increment value to zero, or enter a "
+                            + "tile size, to fill it flat one tile at a time.");
+                    return;
+                }
+                tileSize = DEFAULT_TILE_SIZE;
             }
-
-            for (col = 0; col < cols + 2; col++) {
-                input[0][col] = noData;
-                input[rows + 1][col] = noData;
+            if (tileSize > 0) {
+                image.close();
+                fillByTiles(inputHeader, outputHeader, preferredPalette, tileSize, SMALL_NUM);
+                return;
             }
 
+            double[] dem = new double[(int) numCells];
             double[] data;
             for (row = 0; row < rows; row++) {
                 data = image.getRowValues(row);
-                for (col = 0; col < cols; col++) {
-                    output[row][col] = -999;
-                    input[row + 1][col + 1] = data[col];
-                }
+                System.arraycopy(data, 0, dem, (int) ((long) row * cols), cols);
             }
             image.close();
 
-            // initialize and fill the priority queue.
-            updateProgress("Loop 1: ", -1);
-            
-            int numCellsTotal = rows * cols;
-            int numSolvedCells = 0;
-            
-            PriorityQueue<GridCell> queue = new PriorityQueue<>((2 * rows + 2 * cols) * 2);
-            oldProgress = -1;
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = input[row + 1][col + 1];
-                    if (z != noData) {
-                        numCells++;
-                        for (int i = 0; i < 8; i++) {
-                            row_n = row + Dy[i];
-                            col_n = col + Dx[i];
-                            z_n = input[row_n + 1][col_n + 1];
-                            if (z_n == noData) {
-                                // it's an edge cell.
-                                gc = new GridCell(row, col, z);
-                                queue.add(gc);
-                                output[row][col] = z;
-                                numCellsTotal++;
-                                break;
-                            }
-                        }
-                    } else {
-                        numSolvedCells++;
-                        //k++;
-                        output[row][col] = noData;
-                    }
-
-                }
-                progress = (int) (100f * row / rowsLessOne);
-                if (progress > oldProgress) {
-                    updateProgress(progress);
-                    oldProgress = progress;
-                    if (myHost.isRequestForOperationCancelSet()) {
-                        myHost.showFeedback("Operation cancelled");
-                        return;
-                    }
-                }
-            }
-
             // now fill!
-            updateProgress("Loop 2: ", 0);
-            oldProgress = (int) (100f * numSolvedCells / numCellsTotal);
-            do {
-                gc = queue.poll();
-                row = gc.row;
-                col = gc.col;
-                z = gc.z;
-                for (int i = 0; i < 8; i++) {
-                    row_n = row + Dy[i];
-                    col_n = col + Dx[i];
-                    z_n = input[row_n + 1][col_n + 1];
-                    if ((z_n != noData) && (output[row_n][col_n] == -999)) {
-                        if (z_n <= z) {
-                            z_n = z + SMALL_NUM;
-                        }
-                        output[row_n][col_n] = z_n;
-                        numSolvedCells++;
-                        gc = new GridCell(row_n, col_n, z_n);
-                        queue.add(gc);
-                    }
+            updateProgress("Filling: ", 0);
+            PriorityFlood flood = new PriorityFlood(dem, rows, cols, noData);
+            flood.setProgressListener(new PriorityFlood.ProgressListener() {
+                @Override
+                public boolean progressMade(int percent) {
+                    updateProgress(percent);
+                    return !myHost.isRequestForOperationCancelSet();
                 }
-                //k++;
-                progress = (int) (100f * numSolvedCells / numCellsTotal);
-                if ((progress - oldProgress) == 1) {
-                    updateProgress(progress);
-                    oldProgress = progress;
-                    if (myHost.isRequestForOperationCancelSet()) {
-                        myHost.showFeedback("Operation cancelled");
-                        return;
-                    }
-                }
-            } while (queue.isEmpty() == false);
+            });
+            if (!flood.fillDepressions(SMALL_NUM)) {
+                myHost.showFeedback("Operation cancelled");
+                return;
+            }
 
             updateProgress("Saving Data: ", 0);
             WhiteboxRaster outputFile = new WhiteboxRaster(outputHeader, "rw",
@@ -338,8 +282,9 @@ public class FillDepressions implements WhiteboxPlugin {
             outputFile.setPreferredPalette(preferredPalette);
             oldProgress = -1;
             for (row = 0; row < rows; row++) {
-                outputFile.setRowValues(row, output[row]);
-                progress = (int)(100f * row / rowsLessOne);
+                int start = (int) ((long) row * cols);
+                outputFile.setRowValues(row, Arrays.copyOfRange(dem, start, start + cols));
+                progress = (int)(100f * (row + 1) / rows);
                 if (progress > oldProgress) {
                     updateProgress(progress);
                     oldProgress = progress;
@@ -374,43 +319,46 @@ public class FillDepressions implements WhiteboxPlugin {
         }
     }
 
-    class GridCell implements Comparable<GridCell> {
-
-        public int row;
-        public int col;
-        public double z;
-
-        public GridCell(int Row, int Col, double Z) {
-            row = Row;
-            col = Col;
-            z = Z;
+    /**
+     * Fills the depressions of a DEM that is too large to be held in memory,
+     * one tile at a time. The depressions are filled flat.
+     */
+    private void fillByTiles(String inputHeader, String outputHeader,
+            String preferredPalette, int tileSize, double SMALL_NUM) throws IOException {
+        if (SMALL_NUM > 0) {
+            showFeedback("The DEM is filled in tiles, which fills depressions flat. "
+                    + "The flat increment value will not be applied.");
         }
-
-        @Override
-        public int compareTo(GridCell cell) {
-            final int BEFORE = -1;
-            final int EQUAL = 0;
-            final int AFTER = 1;
-
-            if (this.z < cell.z) {
-                return BEFORE;
-            } else if (this.z > cell.z) {
-                return AFTER;
-            }
-
-            if (this.row < cell.row) {
-                return BEFORE;
-            } else if (this.row > cell.row) {
-                return AFTER;
+        updateProgress("Filling: ", 0);
+        WhiteboxRaster image = WhiteboxRaster.openShared(inputHeader);
+        WhiteboxRaster outputFile = new WhiteboxRaster(outputHeader, "rw",
+                inputHeader, WhiteboxRaster.DataType.DOUBLE, -999);
+        outputFile.setPreferredPalette(preferredPalette);
+        outputFile.setTiledCache(true);
+
+        TiledPriorityFlood flood = new TiledPriorityFlood(image, outputFile, tileSize);
+        flood.setProgressListener(new PriorityFlood.ProgressListener() {
+            @Override
+            public boolean progressMade(int percent) {
+                updateProgress(percent);
+                return !myHost.isRequestForOperationCancelSet();
             }
+        });
+        boolean completed = flood.fillDepressions();
+        image.close();
+        if (!completed) {
+            outputFile.close();
+            myHost.showFeedback("Operation cancelled");
+            return;
+        }
 
-            if (this.col < cell.col) {
-                return BEFORE;
-            } else if (this.col > cell.col) {
-                return AFTER;
-            }
+        outputFile.addMetadataEntry("Created by the "
+                + getDescriptiveName() + " tool.");
+        outputFile.addMetadataEntry("Created on " + new Date());
+        outputFile.addMetadataEntry("Filled in tiles of " + tileSize + " x " + tileSize + " cells.");
+        outputFile.close();
 
-            return EQUAL;
-        }
+        // returning a header file string displays the image.
+        returnData(outputHeader);
     }
 }
@@ -17,9 +17,12 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.FlowAccumulator;
+import whitebox.algorithms.PriorityFlood;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.Parallel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -31,9 +34,6 @@ public class FlowAccumD8 implements WhiteboxPlugin {
     private WhiteboxPluginHost myHost = null;
     private String[] args;
 
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
-
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
      * containing no spaces.
@@ -194,21 +194,10 @@ public class FlowAccumD8 implements WhiteboxPlugin {
 
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        int progress = 0;
-        int oldProgress;
-        double slope;
-        double z, z2;
-        int i;
-        int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-        int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        double numInNeighbours;
-        boolean flag = false;
+        int row, col;
         boolean logTransform = false;
         String outputType = null;
         double gridRes;
-        double flowDir = 0;
 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -230,163 +219,84 @@ public class FlowAccumD8 implements WhiteboxPlugin {
             WhiteboxRaster pntr = new WhiteboxRaster(inputHeader, "r");
 
             int rows = pntr.getNumberRows();
-            int rowsLessOne = rows - 1;
             int cols = pntr.getNumberColumns();
             double noData = pntr.getNoDataValue();
             gridRes = pntr.getCellSizeX();
 
-            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
-                    inputHeader, WhiteboxRaster.DataType.FLOAT, 1);
-            output.setPreferredPalette("blueyellow.pal");
-            output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
-            output.setZUnits("dimensionless");
-
-            WhiteboxRaster tmpGrid = new WhiteboxRaster(outputHeader.replace(".dep",
-                    "_temp.dep"), "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
-            tmpGrid.isTemporaryFile = true;
-
+            // pack the flow pointer into one byte per cell and give each
+            // valid cell an initial accumulation of one.
             updateProgress("Loop 1 of 3:", 0);
-            oldProgress = -1;
+            byte[] directions = new byte[rows * cols];
+            double[] accum = new double[rows * cols];
+            double[] data;
+            int i = 0;
             for (row = 0; row < rows; row++) {
+                data = pntr.getRowValues(row);
                 for (col = 0; col < cols; col++) {
-                    if (pntr.getValue(row, col) != noData) {
-                        z = 0;
-                        for (i = 0; i < 8; i++) {
-                            if (pntr.getValue(row + dY[i], col + dX[i])
-                                    == inflowingVals[i]) {
-                                z++;
-                            }
-                        }
-                        tmpGrid.setValue(row, col, z);
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
+                    directions[i] = FlowAccumulator.D8Router.getDirection(data[col], noData);
+                    accum[i] = directions[i] == FlowAccumulator.D8Router.NODATA ? noData : 1;
+                    i++;
                 }
-                progress = (int) (100f * row / rowsLessOne);
-                if (progress > oldProgress) {
-                    updateProgress(progress);
-                    oldProgress = progress;
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
+                updateProgress((int) (100f * (row + 1) / rows));
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
                 }
             }
+            pntr.close();
 
             updateProgress("Loop 2 of 3:", 0);
-            oldProgress = -1;
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (tmpGrid.getValue(row, col) == 0) { //there are no 
-                        //remaining inflowing neighbours, send it's current 
-                        //flow accum val downslope
-                        tmpGrid.setValue(row, col, -1);
-                        flag = false;
-                        x = col;
-                        y = row;
-                        do {
-                            z = output.getValue(y, x); //z is the flow accum 
-                            //value to send to it's neighbour
-                            //find it's downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                i = (int) (Math.log(flowDir) / LnOf2);
-                                x += dX[i];
-                                y += dY[i];
-                                //update the output grids
-                                z2 = output.getValue(y, x);
-                                output.setValue(y, x, z2 + z);
-                                numInNeighbours = tmpGrid.getValue(y, x) - 1;
-                                tmpGrid.setValue(y, x, numInNeighbours);
-                                //see if you can progress further downslope
-                                if (numInNeighbours == 0) {
-                                    tmpGrid.setValue(y, x, -1);
-                                    flag = true;
-                                } else {
-                                    flag = false;
-                                }
-                            } else {
-                                flag = false;
-                            }
-                        } while (flag);
-                    }
-                }
-                progress = (int) (100f * row / rowsLessOne);
-                if (progress > oldProgress) {
-                    updateProgress(progress);
-                    oldProgress = progress;
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
+            FlowAccumulator accumulator = new FlowAccumulator(rows, cols,
+                    new FlowAccumulator.D8Router(directions, cols));
+            accumulator.setProgressListener(new PriorityFlood.ProgressListener() {
+                @Override
+                public boolean progressMade(int percent) {
+                    updateProgress(percent);
+                    return !cancelOp;
                 }
+            });
+            if (!accumulator.accumulateInParallel(accum, Parallel.getPluginProcessors())) {
+                cancelOperation();
+                return;
             }
 
             updateProgress("Loop 3 of 3:", 0);
-            oldProgress = -1;
+            double multiplier = 1;
             if (outputType.contains("specific") || outputType.contains("sca")) {
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        flowDir = pntr.getValue(row, col);
-                        if (flowDir != noData) {
-                            output.setValue(row, col,
-                                    output.getValue(row, col) * gridRes);
-                        }
-                    }
-                    progress = (int) (100f * row / rowsLessOne);
-                    if (progress > oldProgress) {
-                        updateProgress(progress);
-                        oldProgress = progress;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                    }
-                }
+                multiplier = gridRes;
             } else if (outputType.contains("total")) {
-                double gridCellArea = gridRes * gridRes;
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        flowDir = output.getValue(row, col);
-                        if (flowDir != noData) {
-                            output.setValue(row, col,
-                                    output.getValue(row, col) * gridCellArea);
-                        }
-                    }
-                    progress = (int) (100f * row / rowsLessOne);
-                    if (progress > oldProgress) {
-                        updateProgress(progress);
-                        oldProgress = progress;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                    }
-                }
-
+                multiplier = gridRes * gridRes;
             }
 
-            if (logTransform) {
-                oldProgress = -1;
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        flowDir = output.getValue(row, col);
-                        if (flowDir != noData) {
-                            output.setValue(row, col,
-                                    Math.log(output.getValue(row, col)));
-                        }
-                    }
-                    progress = (int) (100f * row / rowsLessOne);
-                    if (progress > oldProgress) {
-                        updateProgress(progress);
-                        oldProgress = progress;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
+            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
+                    inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
+            output.setPreferredPalette("blueyellow.pal");
+            output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
+            output.setZUnits("dimensionless");
+
+            data = new double[cols];
+            i = 0;
+            for (row = 0; row < rows; row++) {
+                for (col = 0; col < cols; col++) {
+                    if (accum[i] != noData) {
+                        data[col] = accum[i] * multiplier;
+                        if (logTransform) {
+                            data[col] = Math.log(data[col]);
                         }
+                    } else {
+                        data[col] = noData;
                     }
+                    i++;
+                }
+                output.setRowValues(row, data);
+                updateProgress((int) (100f * (row + 1) / rows));
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
                 }
-            } else {
+            }
+
+            if (!logTransform) {
                 output.setNonlinearity(0.2);
             }
 
@@ -394,8 +304,6 @@ public class FlowAccumD8 implements WhiteboxPlugin {
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
 
-            pntr.close();
-            tmpGrid.close();
             output.close();
 
             // returning a header file string displays the image.
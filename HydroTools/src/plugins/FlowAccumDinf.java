@@ -17,9 +17,12 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.FlowAccumulator;
+import whitebox.algorithms.PriorityFlood;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.Parallel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -30,9 +33,6 @@ public class FlowAccumDinf implements WhiteboxPlugin {
 
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    WhiteboxRaster pointer;
-    WhiteboxRaster output;
-    WhiteboxRaster tmpGrid;
     double noData = -32768;
     int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
     int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
@@ -42,8 +42,6 @@ public class FlowAccumDinf implements WhiteboxPlugin {
        5 4 3
     */
     double gridRes = 1;
-    double[] startFD = new double[]{180, 225, 270, 315, 0, 45, 90, 135};
-    double[] endFD = new double[]{270, 315, 360, 45, 90, 135, 180, 225};
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -202,16 +200,10 @@ public class FlowAccumDinf implements WhiteboxPlugin {
 
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
+        int row, col, i;
         float progress = 0;
-        double slope;
-        double z, z2;
-        int i, c;
-        double numInNeighbours;
-        boolean flag = false;
         boolean logTransform = false;
         String outputType = null;
-        double flowDir;
 
         try {
 
@@ -231,138 +223,119 @@ public class FlowAccumDinf implements WhiteboxPlugin {
                 return;
             }
 
-            pointer = new WhiteboxRaster(inputHeader, "r");
-            int rows = pointer.getNumberRows();
-            int cols = pointer.getNumberColumns();
+            WhiteboxRaster pointer = new WhiteboxRaster(inputHeader, "r");
+            final int rows = pointer.getNumberRows();
+            final int cols = pointer.getNumberColumns();
             noData = pointer.getNoDataValue();
             gridRes = pointer.getCellSizeX();
 
-            output = new WhiteboxRaster(outputHeader, "rw",
-                    inputHeader, WhiteboxRaster.DataType.FLOAT, 1);
-            output.setPreferredPalette("blueyellow.pal");
-            output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
-            output.setZUnits("dimensionless");
-
-            tmpGrid = new WhiteboxRaster(outputHeader.replace(".dep",
-                    "_temp.dep"), "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
-            tmpGrid.isTemporaryFile = true;
-
-            // Calculate the number of inflowing neighbours to each cell.
+            final double[] flowDirs = new double[rows * cols];
+            double[] accum = new double[rows * cols];
             int loopNum = 1;
             updateProgress("Loop " + loopNum + ":", 0);
+            i = 0;
             for (row = 0; row < rows; row++) {
+                double[] data = pointer.getRowValues(row);
                 for (col = 0; col < cols; col++) {
-                    flowDir = pointer.getValue(row, col);
-                    if (flowDir != noData) {
-                        i = 0;
-                        for (c = 0; c < 8; c++) {
-                            x = col + dX[c];
-                            y = row + dY[c];
-                            flowDir = pointer.getValue(y, x);
-                            if (flowDir >= 0 && flowDir <= 360) {
-                                if (c != 3) {
-                                    if (flowDir > startFD[c] && flowDir < endFD[c]) {
-                                        i++;
-                                    }
-                                } else {
-                                    if (flowDir > startFD[c] || flowDir < endFD[c]) {
-                                        i++;
-                                    }
-                                }
-                            }
-                        }
-                        tmpGrid.setValue(row, col, i);
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
+                    flowDirs[i] = data[col];
+                    accum[i] = data[col] != noData ? 1 : noData;
+                    i++;
                 }
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (100f * row / (rows - 1));
+                progress = (float) (100f * (row + 1) / rows);
                 updateProgress("Loop " + loopNum + ":", (int) progress);
             }
+            pointer.close();
 
-            boolean somethingDone;
-            do {
-                loopNum++;
-                updateProgress("Loop " + loopNum + ":", 0);
-                somethingDone = false;
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        if (tmpGrid.getValue(row, col) == 0) { //there are no 
-                            //remaining inflowing neighbours, send its current 
-                            //flow accum val downslope
-                            currentDepth = 0;
-                            somethingDone = true;
-                            DinfAccum(row, col);
+            // each cell drains to the two neighbours on either side of its 
+            // flow direction, in proportion to how close the direction is to 
+            // each of them.
+            FlowAccumulator accumulator = new FlowAccumulator(rows, cols,
+                    new FlowAccumulator.FlowRouter() {
+                        @Override
+                        public int route(int row, int col, double accumulation,
+                                int[] neighbours, double[] amounts) {
+                            double flowDir = flowDirs[row * cols + col];
+                            if (flowDir == noData) {
+                                return -1;
+                            }
+                            if (flowDir < 0 || flowDir > 360) {
+                                return 0;
+                            }
+                            int k = flowDir < 360 ? (int) (flowDir / 45) : 7;
+                            double proportion1 = (45 * (k + 1) - flowDir) / 45;
+                            double proportion2 = (flowDir - 45 * k) / 45;
+                            int n = 0;
+                            if (proportion1 > 0) {
+                                neighbours[n] = (k + 7) % 8;
+                                amounts[n] = accumulation * proportion1;
+                                n++;
+                            }
+                            if (proportion2 > 0) {
+                                neighbours[n] = k;
+                                amounts[n] = accumulation * proportion2;
+                                n++;
+                            }
+                            return n;
                         }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress("Loop " + loopNum + ":", (int) progress);
+                    });
+            loopNum++;
+            updateProgress("Loop " + loopNum + ":", 0);
+            final int accumLoop = loopNum;
+            accumulator.setProgressListener(new PriorityFlood.ProgressListener() {
+                @Override
+                public boolean progressMade(int percent) {
+                    updateProgress("Loop " + accumLoop + ":", percent);
+                    return !cancelOp;
                 }
-            } while (somethingDone);
+            });
+            if (!accumulator.accumulateInParallel(accum, Parallel.getPluginProcessors())) {
+                cancelOperation();
+                return;
+            }
 
             loopNum++;
             updateProgress("Loop " + loopNum + ":", 0);
+            double multiplier = 1;
             if (outputType.equals("specific catchment area (sca)")) {
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        z = pointer.getValue(row, col);
-                        if (z != noData) {
-                            output.setValue(row, col,
-                                    output.getValue(row, col) * gridRes);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress("Loop " + loopNum + ":", (int) progress);
-                }
+                multiplier = gridRes;
             } else if (outputType.equals("total catchment area")) {
-                double gridCellArea = gridRes * gridRes;
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        z = output.getValue(row, col);
-                        if (z != noData) {
-                            output.setValue(row, col,
-                                    output.getValue(row, col) * gridCellArea);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress("Loop " + loopNum + ":", (int) progress);
-                }
-
+                multiplier = gridRes * gridRes;
             }
 
-            if (logTransform) {
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        z = output.getValue(row, col);
-                        if (z != noData) {
-                            output.setValue(row, col,
-                                    Math.log(output.getValue(row, col)));
+            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
+                    inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
+            output.setPreferredPalette("blueyellow.pal");
+            output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
+            output.setZUnits("dimensionless");
+
+            double[] data = new double[cols];
+            i = 0;
+            for (row = 0; row < rows; row++) {
+                for (col = 0; col < cols; col++) {
+                    if (accum[i] != noData) {
+                        data[col] = accum[i] * multiplier;
+                        if (logTransform) {
+                            data[col] = Math.log(data[col]);
                         }
+                    } else {
+                        data[col] = noData;
                     }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress("Loop " + loopNum + ":", (int) progress);
+                    i++;
                 }
-            } else {
+                output.setRowValues(row, data);
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
+                }
+                progress = (float) (100f * (row + 1) / rows);
+                updateProgress("Loop " + loopNum + ":", (int) progress);
+            }
+
+            if (!logTransform) {
                 output.setNonlinearity(0.2);
             }
 
@@ -370,8 +343,6 @@ public class FlowAccumDinf implements WhiteboxPlugin {
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
 
-            pointer.close();
-            tmpGrid.close();
             output.close();
 
             // returning a header file string displays the image.
@@ -389,102 +360,4 @@ public class FlowAccumDinf implements WhiteboxPlugin {
             myHost.pluginComplete();
         }
     }
-
-    int currentDepth;
-    final int maxDepth = 1000;
-
-    private void DinfAccum(int row, int col) {
-        double flowAccumVal = output.getValue(row, col);
-        double flowDir = pointer.getValue(row, col);
-        double proportion1 = 0;
-        double proportion2 = 0;
-        int a1 = 0;
-        int b1 = 0;
-        int a2 = 0;
-        int b2 = 0;
-
-        currentDepth++;
-        if (currentDepth > maxDepth) {
-            return;
-        }
-
-        tmpGrid.setValue(row, col, -1); // this ensures that you don't process this cell a second time.
-
-        if (flowDir >= 0) {
-            // find which two cells receive flow and the proportion to each
-            if (flowDir >= 0 && flowDir < 45) {
-                proportion1 = (45 - flowDir) / 45;
-                a1 = col;
-                b1 = row - 1;
-                proportion2 = flowDir / 45;
-                a2 = col + 1;
-                b2 = row - 1;
-            } else if (flowDir >= 45 && flowDir < 90) {
-                proportion1 = (90 - flowDir) / 45;
-                a1 = col + 1;
-                b1 = row - 1;
-                proportion2 = (flowDir - 45) / 45;
-                a2 = col + 1;
-                b2 = row;
-            } else if (flowDir >= 90 && flowDir < 135) {
-                proportion1 = (135 - flowDir) / 45;
-                a1 = col + 1;
-                b1 = row;
-                proportion2 = (flowDir - 90) / 45;
-                a2 = col + 1;
-                b2 = row + 1;
-            } else if (flowDir >= 135 && flowDir < 180) {
-                proportion1 = (180 - flowDir) / 45;
-                a1 = col + 1;
-                b1 = row + 1;
-                proportion2 = (flowDir - 135) / 45;
-                a2 = col;
-                b2 = row + 1;
-            } else if (flowDir >= 180 && flowDir < 225) {
-                proportion1 = (225 - flowDir) / 45;
-                a1 = col;
-                b1 = row + 1;
-                proportion2 = (flowDir - 180) / 45;
-                a2 = col - 1;
-                b2 = row + 1;
-            } else if (flowDir >= 225 && flowDir < 270) {
-                proportion1 = (270 - flowDir) / 45;
-                a1 = col - 1;
-                b1 = row + 1;
-                proportion2 = (flowDir - 225) / 45;
-                a2 = col - 1;
-                b2 = row;
-            } else if (flowDir >= 270 && flowDir < 315) {
-                proportion1 = (315 - flowDir) / 45;
-                a1 = col - 1;
-                b1 = row;
-                proportion2 = (flowDir - 270) / 45;
-                a2 = col - 1;
-                b2 = row - 1;
-            } else if (flowDir >= 315 && flowDir <= 360) {
-                proportion1 = (360 - flowDir) / 45;
-                a1 = col - 1;
-                b1 = row - 1;
-                proportion2 = (flowDir - 315) / 45;
-                a2 = col;
-                b2 = row - 1;
-            }
-
-            if (proportion1 > 0 && output.getValue(b1, a1) != noData) {
-                output.incrementValue(b1, a1, flowAccumVal * proportion1);
-                tmpGrid.decrementValue(b1, a1);
-                if (tmpGrid.getValue(b1, a1) == 0) {
-                    DinfAccum(b1, a1);
-                }
-            }
-            if (proportion2 > 0 && output.getValue(b2, a2) != noData) {
-                output.incrementValue(b2, a2, flowAccumVal * proportion2);
-                tmpGrid.decrementValue(b2, a2);
-                if (tmpGrid.getValue(b2, a2) == 0) {
-                    DinfAccum(b2, a2);
-                }
-            }
-        }
-        currentDepth--;
-    }
 }
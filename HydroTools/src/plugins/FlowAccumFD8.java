@@ -17,9 +17,12 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.FlowAccumulator;
+import whitebox.algorithms.PriorityFlood;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.Parallel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -30,17 +33,12 @@ public class FlowAccumFD8 implements WhiteboxPlugin {
 
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    WhiteboxRaster DEM;
-    WhiteboxRaster output;
-    WhiteboxRaster tmpGrid;
     double threshold = 0;
     double noData = -32768;
     int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
     int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
     double power = 1;
     double gridRes;
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -199,13 +197,8 @@ public class FlowAccumFD8 implements WhiteboxPlugin {
 
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
+        int row, col, i;
         float progress = 0;
-        double slope;
-        double z, z2;
-        int i;
-        double numInNeighbours;
-        boolean flag = false;
         boolean logTransform = false;
         String outputType = null;
 
@@ -245,126 +238,140 @@ public class FlowAccumFD8 implements WhiteboxPlugin {
         }
 
         try {
-            DEM = new WhiteboxRaster(inputHeader, "r");
-            int rows = DEM.getNumberRows();
-            int cols = DEM.getNumberColumns();
+            WhiteboxRaster DEM = new WhiteboxRaster(inputHeader, "r");
+            final int rows = DEM.getNumberRows();
+            final int cols = DEM.getNumberColumns();
             noData = DEM.getNoDataValue();
             gridRes = DEM.getCellSizeX();
 
-            output = new WhiteboxRaster(outputHeader, "rw",
-                    inputHeader, WhiteboxRaster.DataType.FLOAT, 1);
-            output.setPreferredPalette("blueyellow.pal");
-            output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
-            output.setZUnits("dimensionless");
-
-            tmpGrid = new WhiteboxRaster(outputHeader.replace(".dep",
-                    "_temp.dep"), "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
-            tmpGrid.isTemporaryFile = true;
-
-            // Calculate the number of inflowing neighbours to each cell.
+            final double[] elevations = new double[rows * cols];
+            double[] accum = new double[rows * cols];
             int loopNum = 1;
             updateProgress("Loop " + loopNum + ":", 0);
+            i = 0;
             for (row = 0; row < rows; row++) {
+                double[] data = DEM.getRowValues(row);
                 for (col = 0; col < cols; col++) {
-                    z = DEM.getValue(row, col);
-                    if (z != noData) {
-                        numInNeighbours = 0;
-                        for (i = 0; i < 8; i++) {
-                            if (DEM.getValue(row + dY[i], col + dX[i]) > z) {
-                                numInNeighbours++;
-                            }
-                        }
-                        tmpGrid.setValue(row, col, numInNeighbours);
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
+                    elevations[i] = data[col];
+                    accum[i] = data[col] != noData ? 1 : noData;
+                    i++;
                 }
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (100f * row / (rows - 1));
+                progress = (float) (100f * (row + 1) / rows);
                 updateProgress("Loop " + loopNum + ":", (int) progress);
             }
+            DEM.close();
 
-            boolean somethingDone;
-            do {
-                loopNum++;
-                updateProgress("Loop " + loopNum + ":", 0);
-                somethingDone = false;
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        if (tmpGrid.getValue(row, col) == 0) { //there are no 
-                            //remaining inflowing neighbours, send it's current 
-                            //flow accum val downslope
-                            FD8Accum(row, col);
-                            somethingDone = true;
+            // each cell drains to all of its lower neighbours, in proportion 
+            // to the drop raised to the power, until its accumulation reaches
+            // the threshold, after which it drains only to the steepest one.
+            FlowAccumulator accumulator = new FlowAccumulator(rows, cols,
+                    new FlowAccumulator.FlowRouter() {
+                        @Override
+                        public int route(int row, int col, double accumulation,
+                                int[] neighbours, double[] amounts) {
+                            double z1 = elevations[row * cols + col];
+                            if (z1 == noData) {
+                                return -1;
+                            }
+                            int n = 0;
+                            for (int c = 0; c < 8; c++) {
+                                int a = col + dX[c];
+                                int b = row + dY[c];
+                                if (a >= 0 && a < cols && b >= 0 && b < rows) {
+                                    double z2 = elevations[b * cols + a];
+                                    if (z1 > z2 && z2 != noData) {
+                                        neighbours[n] = c;
+                                        amounts[n] = z1 - z2;
+                                        n++;
+                                    }
+                                }
+                            }
+                            if (threshold > accumulation || threshold == -9999) {
+                                double totalRelief = 0;
+                                for (int k = 0; k < n; k++) {
+                                    amounts[k] = Math.pow(amounts[k], power);
+                                    totalRelief += amounts[k];
+                                }
+                                for (int k = 0; k < n; k++) {
+                                    amounts[k] = accumulation * (amounts[k] / totalRelief);
+                                }
+                            } else { //use a D8 method
+                                double diagGridRes = gridRes * Math.sqrt(2);
+                                double maxSlope = -999999999;
+                                int steepest = -1;
+                                for (int k = 0; k < n; k++) {
+                                    double dist = neighbours[k] % 2 == 0 ? diagGridRes : gridRes;
+                                    double slope = amounts[k] / dist;
+                                    if (slope > maxSlope) {
+                                        maxSlope = slope;
+                                        steepest = k;
+                                    }
+                                }
+                                for (int k = 0; k < n; k++) {
+                                    amounts[k] = k == steepest ? accumulation : 0;
+                                }
+                            }
+                            return n;
                         }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress("Loop " + loopNum + ":", (int) progress);
+                    });
+            loopNum++;
+            updateProgress("Loop " + loopNum + ":", 0);
+            final int accumLoop = loopNum;
+            accumulator.setProgressListener(new PriorityFlood.ProgressListener() {
+                @Override
+                public boolean progressMade(int percent) {
+                    updateProgress("Loop " + accumLoop + ":", percent);
+                    return !cancelOp;
                 }
-            } while (somethingDone);
+            });
+            if (!accumulator.accumulateInParallel(accum, Parallel.getPluginProcessors())) {
+                cancelOperation();
+                return;
+            }
 
             loopNum++;
             updateProgress("Loop " + loopNum + ":", 0);
+            double multiplier = 1;
             if (outputType.equals("specific catchment area (sca)")) {
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        z = DEM.getValue(row, col);
-                        if (z != noData) {
-                            output.setValue(row, col,
-                                    output.getValue(row, col) * gridRes);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress("Loop " + loopNum + ":", (int) progress);
-                }
+                multiplier = gridRes;
             } else if (outputType.equals("total catchment area")) {
-                double gridCellArea = gridRes * gridRes;
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        z = output.getValue(row, col);
-                        if (z != noData) {
-                            output.setValue(row, col,
-                                    output.getValue(row, col) * gridCellArea);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress("Loop " + loopNum + ":", (int) progress);
-                }
-
+                multiplier = gridRes * gridRes;
             }
 
-            if (logTransform) {
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        z = output.getValue(row, col);
-                        if (z != noData) {
-                            output.setValue(row, col,
-                                    Math.log(output.getValue(row, col)));
+            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
+                    inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
+            output.setPreferredPalette("blueyellow.pal");
+            output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
+            output.setZUnits("dimensionless");
+
+            double[] data = new double[cols];
+            i = 0;
+            for (row = 0; row < rows; row++) {
+                for (col = 0; col < cols; col++) {
+                    if (accum[i] != noData) {
+                        data[col] = accum[i] * multiplier;
+                        if (logTransform) {
+                            data[col] = Math.log(data[col]);
                         }
+                    } else {
+                        data[col] = noData;
                     }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress("Loop " + loopNum + ":", (int) progress);
+                    i++;
+                }
+                output.setRowValues(row, data);
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
                 }
-            } else {
+                progress = (float) (100f * (row + 1) / rows);
+                updateProgress("Loop " + loopNum + ":", (int) progress);
+            }
+
+            if (!logTransform) {
                 output.setNonlinearity(0.2);
             }
 
@@ -372,8 +379,6 @@ public class FlowAccumFD8 implements WhiteboxPlugin {
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
 
-            DEM.close();
-            tmpGrid.close();
             output.close();
 
             // returning a header file string displays the image.
@@ -391,97 +396,4 @@ public class FlowAccumFD8 implements WhiteboxPlugin {
             myHost.pluginComplete();
         }
     }
-    int currentDepth;
-    final int maxDepth = 1000;
-
-    private void FD8Accum(int row, int col) {
-        double flowAccumVal = output.getValue(row, col);
-        double proportion = 0;
-        double totalRelief = 0;
-        int a, b;
-        byte c;
-        double z1 = DEM.getValue(row, col);
-        double z2;
-        double z;
-
-        currentDepth++;
-        if (currentDepth > maxDepth) {
-            return;
-        }
-
-        tmpGrid.setValue(row, col, -1);
-
-        if (threshold > flowAccumVal || threshold == -9999) {
-            for (c = 0; c < 8; c++) {
-                a = col + dX[c];
-                b = row + dY[c];
-                z2 = DEM.getValue(b, a);
-                if (z1 > z2 && z2 != noData) {
-                    totalRelief += Math.pow((z1 - z2), power);
-                }
-            }
-
-            for (c = 0; c < 8; c++) {
-                a = col + dX[c];
-                b = row + dY[c];
-                z2 = DEM.getValue(b, a);
-                if (z1 > z2 && z2 != noData) {
-                    proportion = Math.pow((z1 - z2), power) / totalRelief;
-                    z = output.getValue(b, a);
-                    output.setValue(b, a, z + flowAccumVal * proportion);
-                    tmpGrid.setValue(b, a, tmpGrid.getValue(b, a) - 1);
-                    if (tmpGrid.getValue(b, a) == 0) {
-                        FD8Accum(b, a);
-                    }
-                }
-            }
-        } else { //use a D8 method
-            //find the the steepest downslope neighbour
-            double slope;
-            double maxSlope = -999999999;
-            double diagGridRes = gridRes * Math.sqrt(2);
-            double dist = diagGridRes;
-            double flowDir = 255;
-
-            for (c = 0; c < 8; c++) {
-                a = col + dX[c];
-                b = row + dY[c];
-                z2 = DEM.getValue(b, a);
-                if (z1 > z2 && z2 != noData) {
-                    slope = (z1 - z2) / dist;
-                    if (slope > maxSlope) {
-                        maxSlope = slope;
-                        flowDir = c;
-                    }
-                }
-
-                if (dist == gridRes) {
-                    dist = diagGridRes;
-                } else {
-                    dist = gridRes;
-                }
-            }
-
-            for (c = 0; c < 8; c++) {
-                a = col + dX[c];
-                b = row + dY[c];
-                z2 = DEM.getValue(b, a);
-                if (z1 > z2 && z2 != noData) {
-                    if (c == flowDir) {
-                        proportion = 1;
-                    } else {
-                        proportion = 0;
-                    }
-                    output.setValue(b, a, output.getValue(b, a)
-                            + flowAccumVal * proportion);
-                    tmpGrid.setValue(b, a, tmpGrid.getValue(b, a) - 1);
-                    if (tmpGrid.getValue(b, a) == 0) {
-                        FD8Accum(b, a);
-                    }
-                }
-            }
-        }
-
-        currentDepth--;
-    }
-}
\ No newline at end of file
+}
@@ -16,10 +16,14 @@
  */
 package plugins;
 
+import java.util.Arrays;
 import java.util.Date;
+import whitebox.algorithms.FlowAccumulator;
+import whitebox.algorithms.PriorityFlood;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.Parallel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -30,8 +34,6 @@ public class MassFluxD8 implements WhiteboxPlugin {
     private WhiteboxPluginHost myHost = null;
     private String[] args;
     
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name containing no spaces.
      * @return String containing plugin name.
@@ -159,20 +161,9 @@ public class MassFluxD8 implements WhiteboxPlugin {
         amIActive = true;
         
         String pointerHeader, loadingHeader, efficiencyHeader, absorptionHeader, outputHeader;
-        int row, col, x, y;
+        int row, col, i;
         float progress = 0;
-        double slope;
-        double z, z2;
-        int i;
-        int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-        int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        double numInNeighbours;
-        boolean flag = false;
-        double gridRes;
-        double flowDir = 0;
         double efficiencyMultiplier = 1d;
-        double eff, absorp;
         
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -198,7 +189,6 @@ public class MassFluxD8 implements WhiteboxPlugin {
             int rows = pntr.getNumberRows();
             int cols = pntr.getNumberColumns();
             double noData = pntr.getNoDataValue();
-            gridRes = pntr.getCellSizeX();
             
             
             WhiteboxRaster loading = new WhiteboxRaster(loadingHeader, "r");
@@ -226,107 +216,91 @@ public class MassFluxD8 implements WhiteboxPlugin {
             double noDataAbsorption = absorption.getNoDataValue();
             
             double outputNoData = -32768.0;
-            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
-                    pointerHeader, WhiteboxRaster.DataType.FLOAT, 0);
-            output.setPreferredPalette("blueyellow.pal");
-            output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
-            output.setZUnits("dimensionless");
-            
-            WhiteboxRaster tmpGrid = new WhiteboxRaster(outputHeader.replace(".dep", 
-                    "_temp.dep"), "rw", pointerHeader, WhiteboxRaster.DataType.FLOAT, outputNoData);
-            tmpGrid.isTemporaryFile = true;
             
+            // a cell takes part in the flux only if all four inputs are valid.
             updateProgress("Loop 1 of 3:", 0);
+            final byte[] directions = new byte[rows * cols];
+            final double[] eff = new double[rows * cols];
+            final double[] absorp = new double[rows * cols];
+            double[] accum = new double[rows * cols];
+            double[] pntrData, loadingData, efficiencyData, absorptionData;
+            i = 0;
             for (row = 0; row < rows; row++) {
+                pntrData = pntr.getRowValues(row);
+                loadingData = loading.getRowValues(row);
+                efficiencyData = efficiency.getRowValues(row);
+                absorptionData = absorption.getRowValues(row);
                 for (col = 0; col < cols; col++) {
-                    if (pntr.getValue(row, col) != noData && 
-                            loading.getValue(row, col) != noDataLoading && 
-                            efficiency.getValue(row, col) != noDataEfficiency && 
-                            absorption.getValue(row, col) != noDataAbsorption) {
-                        z = 0;
-                        for (i = 0; i < 8; i++) {
-                            if (pntr.getValue(row + dY[i], col + dX[i]) ==
-                                    inflowingVals[i] &&
-                                loading.getValue(row + dY[i], col + dX[i]) != noDataLoading && 
-                                efficiency.getValue(row + dY[i], col + dX[i]) != noDataEfficiency && 
-                                absorption.getValue(row + dY[i], col + dX[i]) != noDataAbsorption) { 
-                                
-                                z++; 
-                            }
-                        }
-                        tmpGrid.setValue(row, col, z);
-                        output.setValue(row, col, loading.getValue(row, col));
+                    if (pntrData[col] != noData && 
+                            loadingData[col] != noDataLoading && 
+                            efficiencyData[col] != noDataEfficiency && 
+                            absorptionData[col] != noDataAbsorption) {
+                        directions[i] = FlowAccumulator.D8Router.getDirection(pntrData[col], noData);
+                        eff[i] = efficiencyData[col] * efficiencyMultiplier;
+                        absorp[i] = absorptionData[col];
+                        accum[i] = loadingData[col];
                     } else {
-                        output.setValue(row, col, outputNoData);
+                        directions[i] = FlowAccumulator.D8Router.NODATA;
+                        accum[i] = outputNoData;
                     }
+                    i++;
                 }
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 1 of 2:", (int) progress);
+                progress = (float) (100f * (row + 1) / rows);
+                updateProgress("Loop 1 of 3:", (int) progress);
             }
 
+            pntr.close();
             loading.close();
+            efficiency.close();
+            absorption.close();
             
-            updateProgress("Loop 2 of 2:", 0);
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (tmpGrid.getValue(row, col) == 0) { //there are no 
-                        //remaining inflowing neighbours, send it's current 
-                        //flow accum val downslope
-                        tmpGrid.setValue(row, col, -1);
-//                        flag = false;
-                        x = col;
-                        y = row;
-                        do {
-                            z = output.getValue(y, x); //z is the flow accum 
-                            eff = efficiency.getValue(y, x) * efficiencyMultiplier;
-                            absorp = absorption.getValue(y, x);
-                            //value to send to it's neighbour
-                            //find it's downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                i = (int) (Math.log(flowDir) / LnOf2);
-                                x += dX[i];
-                                y += dY[i];
-                                //update the output grids
-                                z2 = output.getValue(y, x);
-                                z = ((z - absorp) * eff);
-                                if (z < 0) { z = 0; }
-                                output.setValue(y, x, z2 + z);
-                                numInNeighbours = tmpGrid.getValue(y, x) - 1;
-                                tmpGrid.setValue(y, x, numInNeighbours);
-                                //see if you can progress further downslope
-                                if (numInNeighbours == 0) {
-                                    tmpGrid.setValue(y, x, -1);
-                                    flag = true;
-                                } else {
-                                    flag = false;
-                                }
-                            } else {
-                                flag = false;
-                            }
-                        } while (flag);
-                    }
+            updateProgress("Loop 2 of 3:", 0);
+            FlowAccumulator accumulator = new FlowAccumulator(rows, cols,
+                    new FlowAccumulator.D8Router(directions, cols) {
+                        @Override
+                        protected double getOutflow(int row, int col, double accumulation) {
+                            int i = row * columns + col;
+                            double z = (accumulation - absorp[i]) * eff[i];
+                            return z < 0 ? 0 : z;
+                        }
+                    });
+            accumulator.setProgressListener(new PriorityFlood.ProgressListener() {
+                @Override
+                public boolean progressMade(int percent) {
+                    updateProgress("Loop 2 of 3:", percent);
+                    return !cancelOp;
                 }
+            });
+            if (!accumulator.accumulateInParallel(accum, Parallel.getPluginProcessors())) {
+                cancelOperation();
+                return;
+            }
+            
+            updateProgress("Loop 3 of 3:", 0);
+            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
+                    pointerHeader, WhiteboxRaster.DataType.FLOAT, 0);
+            output.setPreferredPalette("blueyellow.pal");
+            output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
+            output.setZUnits("dimensionless");
+            
+            for (row = 0; row < rows; row++) {
+                output.setRowValues(row, Arrays.copyOfRange(accum, row * cols, (row + 1) * cols));
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 2 of 2:", (int) progress);
+                progress = (float) (100f * (row + 1) / rows);
+                updateProgress("Loop 3 of 3:", (int) progress);
             }
             
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
             
-            pntr.close();
-            efficiency.close();
-            absorption.close();
-            tmpGrid.close();
             output.close();
 
             // returning a header file string displays the image.
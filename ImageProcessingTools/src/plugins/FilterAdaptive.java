@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -157,17 +161,11 @@ public class FilterAdaptive implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
+        int row, col;
         double z;
-        float progress = 0;
         int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
-        double n;
-        double sum;
-        double sumOfTheSquares;
-        double average;
-        double stdDev;
         int dX[];
         int dY[];
         int midPointX;
@@ -177,7 +175,6 @@ public class FilterAdaptive implements WhiteboxPlugin {
         double[] filterShape;
         boolean reflectAtBorders = false;
         double threshold = 0;
-        double centreValue = 0;
     
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -209,10 +206,9 @@ public class FilterAdaptive implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -271,50 +267,61 @@ public class FilterAdaptive implements WhiteboxPlugin {
                 }
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    centreValue = inputFile.getValue(row, col);
-                    if (centreValue != noData) {
-                        n = 0;
-                        sum = 0;
-                        sumOfTheSquares = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            if ((x != midPointX) && (y != midPointY)) {
-                                z = inputFile.getValue(y, x);
-                                if (z != noData) {
-                                    n += filterShape[a];
-                                    sum += z * filterShape[a];
-                                    sumOfTheSquares += (z * filterShape[a]) * z;
+            final double thresholdValue = threshold;
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPointY, midPointX);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double centreValue = values[i];
+                        output[col] = noData;
+                        if (centreValue != noData) {
+                            double n = 0;
+                            double sum = 0;
+                            double sumOfTheSquares = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                int x = col + dX[a];
+                                int y = row + dY[a];
+                                if ((x != midPointX) && (y != midPointY)) {
+                                    double z = values[i + offsets[a]];
+                                    if (z != noData) {
+                                        n += filterShape[a];
+                                        sum += z * filterShape[a];
+                                        sumOfTheSquares += (z * filterShape[a]) * z;
+                                    }
                                 }
                             }
-                        }
-                        
-                        if (n > 2) {
-                            average = sum / n;
-                            stdDev = (sumOfTheSquares / n) - (average * average);
-                            if (stdDev > 0) {
-                                stdDev = Math.sqrt(stdDev);
-                            }
-                            
-                            if (Math.abs((centreValue - average) / stdDev) > threshold) {
-                                outputFile.setValue(row, col, average);
-                            } else {
-                                outputFile.setValue(row, col, centreValue);
+
+                            if (n > 2) {
+                                double average = sum / n;
+                                double stdDev = (sumOfTheSquares / n) - (average * average);
+                                if (stdDev > 0) {
+                                    stdDev = Math.sqrt(stdDev);
+                                }
+
+                                if (Math.abs((centreValue - average) / stdDev) > thresholdValue) {
+                                    output[col] = average;
+                                } else {
+                                    output[col] = centreValue;
+                                }
                             }
-                        }       
-                    } else {
-                        outputFile.setValue(row, col, noData);
+                        }
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -157,12 +161,8 @@ public class FilterConservativeSmoothing implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
+        int row, col;
         double z;
-        double minVal;
-        double maxVal;
-        double centreValue;
-        float progress = 0;
         int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
@@ -194,10 +194,9 @@ public class FilterConservativeSmoothing implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -259,46 +258,54 @@ public class FilterConservativeSmoothing implements WhiteboxPlugin {
             double largeVal = Double.MAX_VALUE;
             double smallVal = Double.MIN_VALUE;
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    centreValue = inputFile.getValue(row, col);
-                    if (centreValue != noData) {
-                        minVal = largeVal;
-                        maxVal = smallVal;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            z = inputFile.getValue(y, x);
-                            if (z != noData && filterShape[a] == 1) {
-                                if (x != col && y != row) {
-                                    if (z < minVal) {
-                                        minVal = z;
-                                    }
-                                    if (z > maxVal) {
-                                        maxVal = z;
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPointY, midPointX);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double centreValue = values[i];
+                        if (centreValue != noData) {
+                            double minVal = largeVal;
+                            double maxVal = smallVal;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double z = values[i + offsets[a]];
+                                if (z != noData && filterShape[a] == 1) {
+                                    if (dX[a] != 0 && dY[a] != 0) {
+                                        if (z < minVal) {
+                                            minVal = z;
+                                        }
+                                        if (z > maxVal) {
+                                            maxVal = z;
+                                        }
                                     }
                                 }
                             }
-                        }
-                        if (centreValue > maxVal) {
-                            outputFile.setValue(row,col, maxVal);
-                        } else if (centreValue < minVal) {
-                            outputFile.setValue(row,col, minVal);
+                            if (centreValue > maxVal) {
+                                output[col] = maxVal;
+                            } else if (centreValue < minVal) {
+                                output[col] = minVal;
+                            } else {
+                                output[col] = centreValue;
+                            }
                         } else {
-                            outputFile.setValue(row,col, centreValue);
+                            output[col] = noData;
                         }
-                               
-                    } else {
-                        outputFile.setValue(row, col, noData);
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
@@ -16,12 +16,15 @@
  */
 package plugins;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -159,10 +162,8 @@ public class FilterDiversity implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
+        int row, col;
         double z;
-        int value;
-        float progress = 0;
         int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
@@ -171,11 +172,9 @@ public class FilterDiversity implements WhiteboxPlugin {
         int midPointX;
         int midPointY;
         int numPixelsInFilter;
-        int dataSize;
         boolean filterRounded = false;
         double[] filterShape;
         boolean reflectAtBorders = false;
-        ArrayList<Double> data = new ArrayList<Double>();
     
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -205,10 +204,9 @@ public class FilterDiversity implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -267,43 +265,51 @@ public class FilterDiversity implements WhiteboxPlugin {
                 }
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        data.clear();
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            z = inputFile.getValue(y, x);
-                            if (z != noData && filterShape[a] == 1) {
-                                data.add(z);
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPointY, midPointX);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    double[] data = new double[numPixelsInFilter];
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        if (values[i] != noData) {
+                            int dataSize = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double z = values[i + offsets[a]];
+                                if (z != noData && filterShape[a] == 1) {
+                                    data[dataSize] = z;
+                                    dataSize++;
+                                }
                             }
-                        }
-                       
-                        Collections.sort(data);
-                        dataSize = data.size();
-                        z = data.get(0);
-                        value = 1;
-                        for (a = 1; a < dataSize; a++) {
-                            if (data.get(a) != z) {
-                                z = data.get(a);
-                                value++;
+                            Arrays.sort(data, 0, dataSize);
+                            double z = data[0];
+                            double value = 1;
+                            for (int a = 1; a < dataSize; a++) {
+                                if (data[a] != z) {
+                                    z = data[a];
+                                    value++;
+                                }
                             }
+
+                            output[col] = value;
+                        } else {
+                            output[col] = noData;
                         }
-                        
-                        outputFile.setValue(row, col, value);       
-                    } else {
-                        outputFile.setValue(row, col, noData);
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
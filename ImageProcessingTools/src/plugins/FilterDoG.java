@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -158,13 +162,9 @@ public class FilterDoG implements WhiteboxPlugin {
         String inputHeader = null;
         String outputHeader = null;
         int row, col, x, y;
-        double z;
-        float progress = 0;
         int a;
         int filterSize1 = 3;
         int filterSize2 = 3;
-        double n;
-        double sum;
         int[] dX1;
         int[] dX2;
         int[] dY1;
@@ -181,7 +181,6 @@ public class FilterDoG implements WhiteboxPlugin {
         double recipRoot2PiTimesSigma2;
         double twoSigmaSqr1;
         double twoSigmaSqr2;
-        double zN, zFinal_1, zFinal_2;
     
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -226,10 +225,9 @@ public class FilterDoG implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -317,49 +315,55 @@ public class FilterDoG implements WhiteboxPlugin {
             }
             
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        sum = 0;
-                        zFinal_1 = 0;
-                        for (a = 0; a < numPixelsInFilter1; a++) {
-                            x = col + dX1[a];
-                            y = row + dY1[a];
-                            zN = inputFile.getValue(y, x);
-                            if (zN != noData) {
-                                sum += weights1[a];
-                                zFinal_1 += weights1[a] * zN;
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, Math.max(filterSize1, filterSize2) / 2 + 1, Math.max(filterSize1, filterSize2) / 2 + 1);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets1 = window.getOffsets(dX1, dY1);
+                    int[] offsets2 = window.getOffsets(dX2, dY2);
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        if (values[i] != noData) {
+                            double sum = 0;
+                            double zFinal_1 = 0;
+                            for (int a = 0; a < numPixelsInFilter1; a++) {
+                                double zN = values[i + offsets1[a]];
+                                if (zN != noData) {
+                                    sum += weights1[a];
+                                    zFinal_1 += weights1[a] * zN;
+                                }
                             }
-                        }
-                        zFinal_1 = zFinal_1 / sum;
-                        
-                        sum = 0;
-                        zFinal_2 = 0;
-                        for (a = 0; a < numPixelsInFilter2; a++) {
-                            x = col + dX2[a];
-                            y = row + dY2[a];
-                            zN = inputFile.getValue(y, x);
-                            if (zN != noData) {
-                                sum += weights2[a];
-                                zFinal_2 += weights2[a] * zN;
+                            zFinal_1 = zFinal_1 / sum;
+
+                            sum = 0;
+                            double zFinal_2 = 0;
+                            for (int a = 0; a < numPixelsInFilter2; a++) {
+                                double zN = values[i + offsets2[a]];
+                                if (zN != noData) {
+                                    sum += weights2[a];
+                                    zFinal_2 += weights2[a] * zN;
+                                }
                             }
+                            zFinal_2 = zFinal_2 / sum;
+
+                            output[col] = zFinal_1 - zFinal_2;
+                        } else {
+                            output[col] = noData;
                         }
-                        zFinal_2 = zFinal_2 / sum;
-                        
-                        outputFile.setValue(row, col, zFinal_1 - zFinal_2);
-                        
-                    } else {
-                        outputFile.setValue(row, col, noData);
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
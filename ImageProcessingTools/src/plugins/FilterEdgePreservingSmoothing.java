@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -158,16 +162,11 @@ public class FilterEdgePreservingSmoothing implements WhiteboxPlugin {
         String inputHeader = null;
         String outputHeader = null;
         int row, col, x, y;
-        double z;
-        float progress = 0;
         int a;
         int filterSize = 3;
-        double n;
-        double sum;
         int[] dX;
         int[] dY;
         double[] weightsD;
-        double[] weightsI;
         int midPoint;
         int numPixelsInFilter;
         boolean reflectAtBorders = false;
@@ -177,7 +176,6 @@ public class FilterEdgePreservingSmoothing implements WhiteboxPlugin {
         double recipRoot2PiTimesSigmaI;
         double twoSigmaSqrD;
         double twoSigmaSqrI;
-        double zN, zFinal;
     
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -214,10 +212,9 @@ public class FilterEdgePreservingSmoothing implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -252,7 +249,6 @@ public class FilterEdgePreservingSmoothing implements WhiteboxPlugin {
             dX = new int[numPixelsInFilter];
             dY = new int[numPixelsInFilter];
             weightsD = new double[numPixelsInFilter];
-            weightsI = new double[numPixelsInFilter];
 
             //fill the filter DX and DY values and the distance-weights
             midPoint = (int)Math.floor(filterSize / 2) + 1;
@@ -269,45 +265,54 @@ public class FilterEdgePreservingSmoothing implements WhiteboxPlugin {
                 }
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        //fill WeightI with the appropriate intensity weights
-                        sum = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            zN = inputFile.getValue(y, x);
-                            if (zN != noData) {
-                                weight = recipRoot2PiTimesSigmaI * Math.exp(-1 * ((zN - z) * (zN - z)) / twoSigmaSqrI);
-                                weight = weightsD[a] * weight;
-                                weightsI[a] = weight;
-                                sum += weight;
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPoint, midPoint);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    double[] weightsI = new double[numPixelsInFilter];
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double z = values[i];
+                        if (z != noData) {
+                            //fill WeightI with the appropriate intensity weights
+                            double sum = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double zN = values[i + offsets[a]];
+                                if (zN != noData) {
+                                    double weight = recipRoot2PiTimesSigmaI * Math.exp(-1 * ((zN - z) * (zN - z)) / twoSigmaSqrI);
+                                    weight = weightsD[a] * weight;
+                                    weightsI[a] = weight;
+                                    sum += weight;
+                                }
                             }
-                        }
 
-                        zFinal = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            zN = inputFile.getValue(y, x);
-                            if (zN != noData) {
-                                zFinal += weightsI[a] * zN / sum;
+                            double zFinal = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double zN = values[i + offsets[a]];
+                                if (zN != noData) {
+                                    zFinal += weightsI[a] * zN / sum;
+                                }
                             }
+
+                            output[col] = zFinal;
+                        } else {
+                            output[col] = noData;
                         }
-                        outputFile.setValue(row, col, zFinal);
-                    } else {
-                        outputFile.setValue(row, col, noData);
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -157,17 +161,11 @@ public class FilterEmboss implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        double z;
-        float progress = 0;
-        int a;
-        double sum;
         int[] dX;
         int[] dY;
         double[] weights;
         int numPixelsInFilter;
         boolean reflectAtBorders = true;
-        double centreValue;
         String direction = "n";
     
         if (args.length <= 0) {
@@ -192,10 +190,9 @@ public class FilterEmboss implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -225,31 +222,39 @@ public class FilterEmboss implements WhiteboxPlugin {
             
             numPixelsInFilter = dX.length;
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    centreValue = inputFile.getValue(row, col);
-                    if (centreValue != noData) {
-                        sum = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            z = inputFile.getValue(y, x);
-                            if (z == noData) { z = centreValue; }
-                            sum += z * weights[a];
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, 1, 1);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double centreValue = values[i];
+                        if (centreValue != noData) {
+                            double sum = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double z = values[i + offsets[a]];
+                                if (z == noData) { z = centreValue; }
+                                sum += z * weights[a];
+                            }
+                            output[col] = sum;
+                        } else {
+                            output[col] = noData;
                         }
-                        outputFile.setValue(row, col, sum);
-
-                    } else {
-                        outputFile.setValue(row, col, noData);
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
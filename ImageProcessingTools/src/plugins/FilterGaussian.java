@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -158,12 +162,8 @@ public class FilterGaussian implements WhiteboxPlugin {
         String inputHeader = null;
         String outputHeader = null;
         int row, col, x, y;
-        double z;
-        float progress = 0;
         int a;
         int filterSize = 3;
-        double n;
-        double sum;
         int[] dX;
         int[] dY;
         double[] weights;
@@ -173,7 +173,6 @@ public class FilterGaussian implements WhiteboxPlugin {
         double sigmaD = 0;
         double recipRoot2PiTimesSigmaD;
         double twoSigmaSqrD;
-        double zN, zFinal;
     
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -205,10 +204,9 @@ public class FilterGaussian implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -256,33 +254,41 @@ public class FilterGaussian implements WhiteboxPlugin {
                 }
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        sum = 0;
-                        zFinal = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            zN = inputFile.getValue(y, x);
-                            if (zN != noData) {
-                                sum += weights[a];
-                                zFinal += weights[a] * zN;
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPoint, midPoint);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        if (values[i] != noData) {
+                            double sum = 0;
+                            double zFinal = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double zN = values[i + offsets[a]];
+                                if (zN != noData) {
+                                    sum += weights[a];
+                                    zFinal += weights[a] * zN;
+                                }
                             }
+                            output[col] = zFinal / sum;
+                        } else {
+                            output[col] = noData;
                         }
-                        outputFile.setValue(row, col, zFinal / sum);
-                    } else {
-                        outputFile.setValue(row, col, noData);
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
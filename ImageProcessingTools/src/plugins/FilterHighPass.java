@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -157,15 +161,11 @@ public class FilterHighPass implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        double z, val;
-        double[] N = new double[8];
-        float progress = 0;
+        int row, col;
+        double z;
         int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
-        double n;
-        double sum;
         int dX[];
         int dY[];
         int midPointX;
@@ -203,10 +203,9 @@ public class FilterHighPass implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -265,38 +264,47 @@ public class FilterHighPass implements WhiteboxPlugin {
                 }
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        n = 0;
-                        sum = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            val = inputFile.getValue(y, x);
-                            if (val != noData) {
-                                n += 1 * filterShape[a];
-                                sum += val * filterShape[a];
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPointY, midPointX);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double z = values[i];
+                        if (z != noData) {
+                            double n = 0;
+                            double sum = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double val = values[i + offsets[a]];
+                                if (val != noData) {
+                                    n += 1 * filterShape[a];
+                                    sum += val * filterShape[a];
+                                }
+                            }
+
+                            if (n > 0) {
+                                output[col] = z - (sum / n);
+                            } else {
+                                output[col] = noData;
                             }
-                        }
-                        
-                        if (n > 0) {
-                            outputFile.setValue(row,col, z - (sum / n));
                         } else {
-                            outputFile.setValue(row,col, noData);
-                        }       
-                    } else {
-                        outputFile.setValue(row, col, noData);
+                            output[col] = noData;
+                        }
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
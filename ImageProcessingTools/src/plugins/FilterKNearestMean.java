@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -157,25 +161,18 @@ public class FilterKNearestMean implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
+        int row, col;
         double z;
-        float progress = 0;
         int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
-        double n;
-        double sum;
-        double centreVal;
         int dX[];
         int dY[];
         int midPointX;
         int midPointY;
         int numPixelsInFilter;
         int k = 0;
-        int kMinusOne = 0;
-        int p = 0;
         double aLargeValue = Float.MAX_VALUE;
-        double currentNearestVal;
         boolean filterRounded = false;
         double[] filterShape;
         boolean reflectAtBorders = false;
@@ -206,8 +203,6 @@ public class FilterKNearestMean implements WhiteboxPlugin {
         if (k < 3 || k > filterSizeX * filterSizeY) {
             showFeedback("The k-value of the k-nearest mean filter is set inappropriately.");
         }
-        kMinusOne--;
-        double[] nearestVals = new double[k];
         
         // check to see that the inputHeader and outputHeader are not null.
         if ((inputHeader == null) || (outputHeader == null)) {
@@ -216,10 +211,9 @@ public class FilterKNearestMean implements WhiteboxPlugin {
         }
         
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -241,7 +235,6 @@ public class FilterKNearestMean implements WhiteboxPlugin {
 
             numPixelsInFilter = filterSizeX * filterSizeY;
             
-            double[][] absDiffVals = new double[2][numPixelsInFilter];
             
             dX = new int[numPixelsInFilter];
             dY = new int[numPixelsInFilter];
@@ -281,56 +274,67 @@ public class FilterKNearestMean implements WhiteboxPlugin {
                 }
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    centreVal = inputFile.getValue(row, col);
-                    if (centreVal != noData) {
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            z = inputFile.getValue(y, x);
-                            if (z != noData && filterShape[a] == 1) {
-                                absDiffVals[0][a] = (z - centreVal) * (z - centreVal);
-                                absDiffVals[1][a] = z;
-                            } else {
-                                absDiffVals[0][a] = noData;
-                            }
-                        }
-                        
-                        n = 0;
-                        sum = 0;
-                        for (int m = 0; m < k; m++) {
-                            p = -1;
-                            currentNearestVal = aLargeValue;
-                            for (a = 0; a < numPixelsInFilter; a++) {
-                                if (absDiffVals[0][a] != noData && absDiffVals[0][a] < currentNearestVal) {
-                                    p = a;
-                                    currentNearestVal = absDiffVals[0][a];
+            final int numNeighbours = k;
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPointY, midPointX);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    double[][] absDiffVals = new double[2][numPixelsInFilter];
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double centreVal = values[i];
+                        if (centreVal != noData) {
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double z = values[i + offsets[a]];
+                                if (z != noData && filterShape[a] == 1) {
+                                    absDiffVals[0][a] = (z - centreVal) * (z - centreVal);
+                                    absDiffVals[1][a] = z;
+                                } else {
+                                    absDiffVals[0][a] = noData;
                                 }
                             }
-                            if (p >= 0) {
-                                n++;
-                                sum += absDiffVals[1][p];
-                                absDiffVals[0][p] = noData;
+
+                            int n = 0;
+                            double sum = 0;
+                            for (int m = 0; m < numNeighbours; m++) {
+                                int p = -1;
+                                double currentNearestVal = aLargeValue;
+                                for (int a = 0; a < numPixelsInFilter; a++) {
+                                    if (absDiffVals[0][a] != noData && absDiffVals[0][a] < currentNearestVal) {
+                                        p = a;
+                                        currentNearestVal = absDiffVals[0][a];
+                                    }
+                                }
+                                if (p >= 0) {
+                                    n++;
+                                    sum += absDiffVals[1][p];
+                                    absDiffVals[0][p] = noData;
+                                }
                             }
-                        }
 
-                        if (n == k) {
-                            outputFile.setValue(row,col, sum / n);
+                            if (n == numNeighbours) {
+                                output[col] = sum / n;
+                            } else {
+                                output[col] = centreVal;
+                            }
                         } else {
-                            outputFile.setValue(row,col, centreVal);
-                        }       
-                    } else {
-                        outputFile.setValue(row, col, noData);
+                            output[col] = noData;
+                        }
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
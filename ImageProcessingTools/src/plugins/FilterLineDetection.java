@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -157,11 +161,6 @@ public class FilterLineDetection implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        double z;
-        float progress = 0;
-        int a;
-        double sum;
         int[] dX;
         int[] dY;
         double[] weights;
@@ -169,7 +168,6 @@ public class FilterLineDetection implements WhiteboxPlugin {
         boolean absValuesOnly = false;
         boolean reflectAtBorders = true;
         String direction = "vertical";
-        double centreValue;
     
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -206,10 +204,9 @@ public class FilterLineDetection implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -231,61 +228,41 @@ public class FilterLineDetection implements WhiteboxPlugin {
             
             numPixelsInFilter = dX.length;
             
-            if (absValuesOnly) {
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        centreValue = inputFile.getValue(row, col);
-                        if (centreValue != noData) {
-                            sum = 0;
-                            for (a = 0; a < numPixelsInFilter; a++) {
-                                x = col + dX[a];
-                                y = row + dY[a];
-                                z = inputFile.getValue(y, x);
-                                if (z == noData) { z = centreValue; }
-                                sum += z * weights[a];
-                            }
-                            if (sum < 0) { sum = -sum; }
-                            outputFile.setValue(row, col, sum);
-                            
-                        } else {
-                            outputFile.setValue(row, col, noData);
-                        }
-
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress((int) progress);
+            final boolean absolute = absValuesOnly;
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, 1, 1);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
                 }
-            } else {
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        centreValue = inputFile.getValue(row, col);
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double centreValue = values[i];
                         if (centreValue != noData) {
-                            sum = 0;
-                            for (a = 0; a < numPixelsInFilter; a++) {
-                                x = col + dX[a];
-                                y = row + dY[a];
-                                z = inputFile.getValue(y, x);
+                            double sum = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double z = values[i + offsets[a]];
                                 if (z == noData) { z = centreValue; }
                                 sum += z * weights[a];
                             }
-                            outputFile.setValue(row, col, sum);
-                            
+                            if (absolute && sum < 0) { sum = -sum; }
+                            output[col] = sum;
                         } else {
-                            outputFile.setValue(row, col, noData);
+                            output[col] = noData;
                         }
-
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
                     }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress((int) progress);
                 }
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
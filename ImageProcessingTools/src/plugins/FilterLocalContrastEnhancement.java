@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -187,17 +191,11 @@ public class FilterLocalContrastEnhancement implements WhiteboxPlugin {
 
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
+        int row, col;
         double z;
-        float progress = 0;
         int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
-        double n;
-        double sum;
-        double sumOfTheSquares;
-        double average;
-        double stdDev;
         int dX[];
         int dY[];
         int midPointX;
@@ -209,7 +207,6 @@ public class FilterLocalContrastEnhancement implements WhiteboxPlugin {
         double alpha;
         double globalMean;
         double predefinedStdDev;
-        double yij = 0;
 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -237,10 +234,9 @@ public class FilterLocalContrastEnhancement implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -298,49 +294,55 @@ public class FilterLocalContrastEnhancement implements WhiteboxPlugin {
                 }
             }
 
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        n = 0;
-                        sum = 0;
-                        sumOfTheSquares = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            z = inputFile.getValue(y, x);
-                            if (z != noData) {
-                                n += filterShape[a];
-                                sum += z * filterShape[a];
-                                sumOfTheSquares += (z * filterShape[a]) * z;
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPointY, midPointX);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double z = values[i];
+                        if (z != noData) {
+                            double n = 0;
+                            double sum = 0;
+                            double sumOfTheSquares = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                z = values[i + offsets[a]];
+                                if (z != noData) {
+                                    n += filterShape[a];
+                                    sum += z * filterShape[a];
+                                    sumOfTheSquares += (z * filterShape[a]) * z;
+                                }
                             }
-                        }
-                        if (n > 2) {
-                            average = sum / n;
-                            stdDev = (sumOfTheSquares / n) - (average * average);
-                            if (stdDev > 0) {
-                                stdDev = Math.sqrt(stdDev);
-                                if (alpha >= 0 && alpha <= 1) {
-                                    yij = (alpha * globalMean) + ((1 - alpha) * average) + (z - average) * (predefinedStdDev / (stdDev + 1));
-                                    outputFile.setValue(row, col, yij);
+
+                            output[col] = noData;
+                            if (n > 2) {
+                                double average = sum / n;
+                                double stdDev = (sumOfTheSquares / n) - (average * average);
+                                if (stdDev > 0) {
+                                    stdDev = Math.sqrt(stdDev);
+                                    if (alpha >= 0 && alpha <= 1) {
+                                        output[col] = (alpha * globalMean) + ((1 - alpha) * average) + (z - average) * (predefinedStdDev / (stdDev + 1));
+                                    }
                                 }
-                            } else {
-                                outputFile.setValue(row, col, noData);
                             }
                         } else {
-                            outputFile.setValue(row, col, noData);
+                            output[col] = noData;
                         }
-                    } else {
-                        outputFile.setValue(row, col, noData);
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
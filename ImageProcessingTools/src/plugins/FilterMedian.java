@@ -16,12 +16,16 @@
  */
 package plugins;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
+import whitebox.structures.SlidingHistogram;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -29,6 +33,7 @@ import whitebox.interfaces.WhiteboxPluginHost;
  */
 public class FilterMedian implements WhiteboxPlugin {
     
+    private static final int MAX_INTEGER_BINS = 1 << 20;
     private WhiteboxPluginHost myHost = null;
     private String[] args;
     /**
@@ -159,9 +164,8 @@ public class FilterMedian implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
+        int row, col;
         double z;
-        float progress = 0;
         int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
@@ -170,11 +174,10 @@ public class FilterMedian implements WhiteboxPlugin {
         int midPointX;
         int midPointY;
         int numPixelsInFilter;
-        int dataSize;
         boolean filterRounded = false;
         double[] filterShape;
         boolean reflectAtBorders = false;
-        ArrayList<Double> data = new ArrayList<Double>();
+        int numHistogramBins = -1;
     
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -194,6 +197,10 @@ public class FilterMedian implements WhiteboxPlugin {
                 filterRounded = Boolean.parseBoolean(args[i]);
             } else if (i == 5) {
                 reflectAtBorders = Boolean.parseBoolean(args[i]);
+            } else if (i == 6) {
+                if (!args[i].toLowerCase().contains("not specified")) {
+                    numHistogramBins = Integer.parseInt(args[i]);
+                }
             }
         }
 
@@ -204,10 +211,9 @@ public class FilterMedian implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -266,42 +272,106 @@ public class FilterMedian implements WhiteboxPlugin {
                 }
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        data.clear();
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            z = inputFile.getValue(y, x);
-                            if (z != noData && filterShape[a] == 1) {
-                                data.add(z);
+            // a sliding histogram is updated as the filter moves along each row,
+            // which is much faster than sorting the window for large filters.
+            // Integer data are binned exactly; decimal data are only binned,
+            // approximately, if the number of histogram bins has been specified.
+            final int[] rowHalfWidths = new int[filterSizeY];
+            for (row = 0; row < filterSizeY; row++) {
+                rowHalfWidths[row] = -1;
+                for (col = 0; col < filterSizeX; col++) {
+                    if (filterShape[row * filterSizeX + col] == 1) {
+                        rowHalfWidths[row] = Math.max(rowHalfWidths[row], Math.abs(col - midPointX));
+                    }
+                }
+            }
+            double minValue = inputFile.getMinimumValue();
+            double maxValue = inputFile.getMaximumValue();
+            int numBins = -1;
+            double binWidth = 1;
+            if (inputFile.getDataType() == WhiteboxRaster.DataType.INTEGER
+                    || inputFile.getDataType() == WhiteboxRaster.DataType.BYTE) {
+                numBins = SlidingHistogram.getNumberOfIntegerBins(minValue, maxValue);
+                minValue = Math.ceil(minValue);
+                if (numBins > MAX_INTEGER_BINS || numPixelsInFilter < Math.sqrt(numBins)) {
+                    numBins = -1;
+                }
+            } else if (numHistogramBins > 1 && maxValue > minValue) {
+                numBins = numHistogramBins;
+                binWidth = (maxValue - minValue) / (numBins - 1);
+            }
+            final boolean useHistogram = numBins > 0;
+            final int histogramBins = numBins;
+            final double histogramMinimum = minValue;
+            final double histogramBinWidth = binWidth;
+            // each worker thread reuses one histogram, which is emptied at the
+            // start of every row.
+            final ThreadLocal<SlidingHistogram> histograms = new ThreadLocal<SlidingHistogram>() {
+                @Override
+                protected SlidingHistogram initialValue() {
+                    return new SlidingHistogram(histogramMinimum, histogramBinWidth, histogramBins);
+                }
+            };
+
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPointY, midPointX);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int i = window.getIndex(row, 0);
+                    if (useHistogram) {
+                        SlidingHistogram histogram = histograms.get();
+                        histogram.clear();
+                        int stride = window.getStride();
+                        histogram.addWindow(values, i, stride, rowHalfWidths, noData);
+                        for (int col = 0; col < cols; col++, i++) {
+                            if (col > 0) {
+                                histogram.slideRight(values, i - 1, stride, rowHalfWidths, noData);
+                            }
+                            if (values[i] != noData) {
+                                output[col] = histogram.getMedian();
+                            } else {
+                                output[col] = noData;
                             }
                         }
-                       
-                        Collections.sort(data);
-                        dataSize = data.size();
-                        if (dataSize % 2 == 1) {
-                            z = data.get((dataSize + 1) / 2 - 1);
+                        return;
+                    }
+                    int[] offsets = window.getOffsets(dX, dY);
+                    double[] data = new double[numPixelsInFilter];
+                    for (int col = 0; col < cols; col++, i++) {
+                        if (values[i] != noData) {
+                            int dataSize = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double z = values[i + offsets[a]];
+                                if (z != noData && filterShape[a] == 1) {
+                                    data[dataSize] = z;
+                                    dataSize++;
+                                }
+                            }
+                            Arrays.sort(data, 0, dataSize);
+                            if (dataSize % 2 == 1) {
+                                output[col] = data[(dataSize + 1) / 2 - 1];
+                            } else {
+                                double lower = data[dataSize / 2 - 1];
+                                double upper = data[dataSize / 2];
+                                output[col] = (lower + upper) / 2.0;
+                            }
                         } else {
-                            double lower = data.get(dataSize / 2 - 1);
-                            double upper = data.get(dataSize / 2);
-                            z = (lower + upper) / 2.0;
+                            output[col] = noData;
                         }
-                        
-                        outputFile.setValue(row, col, z);       
-                    } else {
-                        outputFile.setValue(row, col, noData);
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
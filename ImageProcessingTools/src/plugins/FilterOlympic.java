@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -157,14 +161,11 @@ public class FilterOlympic implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        double z, min, max;
-        float progress = 0;
+        int row, col;
+        double z;
         int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
-        double n;
-        double sum;
         int dX[];
         int dY[];
         int midPointX;
@@ -202,10 +203,9 @@ public class FilterOlympic implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -264,42 +264,51 @@ public class FilterOlympic implements WhiteboxPlugin {
                 }
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        n = 0;
-                        sum = 0;
-                        min = z;
-                        max = z;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            z = inputFile.getValue(y, x);
-                            if (z != noData) {
-                                n += 1 * filterShape[a];
-                                sum += z * filterShape[a];
-                                if (z < min) { min = z; }
-                                if (z > max) { max = z; }
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPointY, midPointX);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double z = values[i];
+                        if (z != noData) {
+                            double n = 0;
+                            double sum = 0;
+                            double min = z;
+                            double max = z;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                z = values[i + offsets[a]];
+                                if (z != noData) {
+                                    n += 1 * filterShape[a];
+                                    sum += z * filterShape[a];
+                                    if (z < min) { min = z; }
+                                    if (z > max) { max = z; }
+                                }
+                            }
+
+                            if ((n - 2) > 0) {
+                                output[col] = (sum - min - max) / (n - 2);
+                            } else {
+                                output[col] = noData;
                             }
-                        }
-                        
-                        if ((n - 2) > 0) {
-                            outputFile.setValue(row,col, (sum - min - max) / (n - 2));
                         } else {
-                            outputFile.setValue(row,col, noData);
-                        }       
-                    } else {
-                        outputFile.setValue(row, col, noData);
+                            output[col] = noData;
+                        }
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
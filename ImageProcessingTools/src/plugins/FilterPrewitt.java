@@ -20,6 +20,10 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -157,13 +161,6 @@ public class FilterPrewitt implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        double z;
-        float progress = 0;
-        int a;
-        double slopeX;
-        double slopeY;
-        double val;
         int[] dX = {1, 1, 1, 0, -1, -1, -1, 0};
         int[] dY = {-1, 0, 1, 1, 1, 0, -1, -1};
         double[] maskX = {1, 1, 1, 0, -1, -1, -1, 0};
@@ -194,10 +191,9 @@ public class FilterPrewitt implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -206,37 +202,44 @@ public class FilterPrewitt implements WhiteboxPlugin {
             
             numPixelsInFilter = 8;
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        slopeX = 0;
-                        slopeY = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            val = inputFile.getValue(y, x);
-                            if (val == noData) {
-                                // replace it with z
-                                val = z;
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, 1, 1);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    int[] offsets = window.getOffsets(dX, dY);
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double z = values[i];
+                        if (z != noData) {
+                            double slopeX = 0;
+                            double slopeY = 0;
+                            for (int a = 0; a < numPixelsInFilter; a++) {
+                                double val = values[i + offsets[a]];
+                                if (val == noData) {
+                                    // replace it with z
+                                    val = z;
+                                }
+                                slopeX += val * maskX[a];
+                                slopeY += val * maskY[a];
                             }
-                            slopeX += val * maskX[a];
-                            slopeY += val * maskY[a];
+                            output[col] = Math.sqrt(slopeX * slopeX + slopeY * slopeY);
+                        } else {
+                            output[col] = noData;
                         }
-                        
-                        val = Math.sqrt(slopeX * slopeX + slopeY * slopeY);
-                        outputFile.setValue(row, col, val);       
-                    } else {
-                        outputFile.setValue(row, col, noData);
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
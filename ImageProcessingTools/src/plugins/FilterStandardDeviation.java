@@ -20,6 +20,11 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
+import whitebox.structures.IntegralImage;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -157,17 +162,11 @@ public class FilterStandardDeviation implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
+        int row, col;
         double z;
-        float progress = 0;
         int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
-        double n;
-        double sum;
-        double sumOfTheSquares;
-        double average;
-        double stdDev;
         int dX[];
         int dY[];
         int midPointX;
@@ -205,10 +204,9 @@ public class FilterStandardDeviation implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -267,45 +265,71 @@ public class FilterStandardDeviation implements WhiteboxPlugin {
                 }
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        n = 0;
-                        sum = 0;
-                        sumOfTheSquares = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            z = inputFile.getValue(y, x);
-                            if (z != noData) {
-                                n += filterShape[a];
-                                sum += z * filterShape[a];
-                                sumOfTheSquares += (z * filterShape[a]) * z;
+            // the half-width of each row of the filter; a rounded filter is
+            // summed one row at a time, a rectangular one in a single step.
+            final boolean rounded = filterRounded;
+            final int[] rowHalfWidths = new int[2 * midPointY + 1];
+            for (row = 0; row < rowHalfWidths.length; row++) {
+                rowHalfWidths[row] = -1;
+                for (col = 0; col < 2 * midPointX + 1; col++) {
+                    if (filterShape[row * (2 * midPointX + 1) + col] == 1) {
+                        rowHalfWidths[row] = Math.max(rowHalfWidths[row], Math.abs(col - midPointX));
+                    }
+                }
+            }
+
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPointY, midPointX);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    IntegralImage table = window.getIntegralImage();
+                    int r = row - window.getFirstRow();
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        if (values[i] != noData) {
+                            int c = col + midPointX;
+                            double n = 0;
+                            double sumOfSquaredDeviations;
+                            if (!rounded) {
+                                n = table.getCount(r - midPointY, c - midPointX, r + midPointY, c + midPointX);
+                                sumOfSquaredDeviations = table.getSumOfSquaredDeviations(r - midPointY, c - midPointX, r + midPointY, c + midPointX);
+                            } else {
+                                for (int k = 0; k < rowHalfWidths.length; k++) {
+                                    int w = rowHalfWidths[k];
+                                    if (w >= 0) {
+                                        int y = r + k - midPointY;
+                                        n += table.getCount(y, c - w, y, c + w);
+                                    }
+                                }
+                                sumOfSquaredDeviations = table.getSumOfSquaredDeviations(r, c, rowHalfWidths);
                             }
-                        }
-                        
-                        if (n > 2) {
-                            average = sum / n;
-                            stdDev = (sumOfTheSquares - (sum * sum) / n) / n; // eq. from Annabel Ness Evans page 92 //(sumOfTheSquares / n) - (average * average);
-                            if (stdDev > 0) {
-                                stdDev = Math.sqrt(stdDev);
+
+                            if (n > 2) {
+                                double stdDev = sumOfSquaredDeviations / n;
+                                if (stdDev > 0) {
+                                    stdDev = Math.sqrt(stdDev);
+                                }
+                                output[col] = stdDev;
+                            } else {
+                                output[col] = noData;
                             }
-                            outputFile.setValue(row, col, stdDev);
                         } else {
-                            outputFile.setValue(row, col, noData);
-                        }       
-                    } else {
-                        outputFile.setValue(row, col, noData);
+                            output[col] = noData;
+                        }
                     }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
@@ -20,6 +20,11 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
+import whitebox.structures.IntegralImage;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -157,10 +162,8 @@ public class FilterTotal implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
+        int row, col;
         double z;
-        double total;
-        float progress = 0;
         int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
@@ -201,10 +204,9 @@ public class FilterTotal implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster inputFile = WhiteboxRaster.openShared(inputHeader);
             inputFile.isReflectedAtEdges = reflectAtBorders;
 
-            int rows = inputFile.getNumberRows();
             int cols = inputFile.getNumberColumns();
             double noData = inputFile.getNoDataValue();
 
@@ -263,32 +265,59 @@ public class FilterTotal implements WhiteboxPlugin {
                 }
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        total = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            z = inputFile.getValue(y, x);
-                            if (z != noData && filterShape[a] == 1) {
-                                total += z;
-                            }
-                        }
-                        
-                        outputFile.setValue(row,col, total);       
-                    } else {
-                        outputFile.setValue(row, col, noData);
+            // the half-width of each row of the filter; a rounded filter is
+            // summed one row at a time, a rectangular one in a single step.
+            final boolean rounded = filterRounded;
+            final int[] rowHalfWidths = new int[2 * midPointY + 1];
+            for (row = 0; row < rowHalfWidths.length; row++) {
+                rowHalfWidths[row] = -1;
+                for (col = 0; col < 2 * midPointX + 1; col++) {
+                    if (filterShape[row * (2 * midPointX + 1) + col] == 1) {
+                        rowHalfWidths[row] = Math.max(rowHalfWidths[row], Math.abs(col - midPointX));
                     }
+                }
+            }
 
+            RowBandExecutor executor = new RowBandExecutor(inputFile, outputFile, midPointY, midPointX);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
                 }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] output) {
+                    double[] values = window.getData();
+                    IntegralImage table = window.getIntegralImage();
+                    int r = row - window.getFirstRow();
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        if (values[i] != noData) {
+                            int c = col + midPointX;
+                            double sum = 0;
+                            if (!rounded) {
+                                sum = table.getSum(r - midPointY, c - midPointX, r + midPointY, c + midPointX);
+                            } else {
+                                for (int k = 0; k < rowHalfWidths.length; k++) {
+                                    int w = rowHalfWidths[k];
+                                    if (w >= 0) {
+                                        int y = r + k - midPointY;
+                                        sum += table.getSum(y, c - w, y, c + w);
+                                    }
+                                }
+                            }
+                            output[col] = sum;
+                        } else {
+                            output[col] = noData;
+                        }
+                    }
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
@@ -21,6 +21,7 @@ import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.InteropPlugin;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.utilities.AsciiNumberWriter;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -165,10 +166,7 @@ public class ExportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
         OutputStream outStream = null;
         int progress = 0;
 
-        String str1 = null;
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        PrintWriter out = null;
+        AsciiNumberWriter writer = null;
         
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -215,76 +213,30 @@ public class ExportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 (new File(arcFile)).delete();
                 
                 // deal with the header data first
-                fw = new FileWriter(arcFile, false);
-                bw = new BufferedWriter(fw);
-                out = new PrintWriter(bw, true);
-                str1 = "NCOLS         " + String.valueOf(wbr.getNumberColumns());
-                out.println(str1);    
-                str1 = "NROWS         " + String.valueOf(wbr.getNumberRows());
-                out.println(str1);    
-                str1 = "XLLCORNER     " + String.valueOf(wbr.getWest());
-                out.println(str1);
-                str1 = "YLLCORNER     " + String.valueOf(wbr.getSouth());
-                out.println(str1);
-                str1 = "CELLSIZE      " + String.valueOf(
-                        (wbr.getCellSizeX() + wbr.getCellSizeY()) / 2);
-                out.println(str1);
-                str1 = "NODATA_VALUE  -9999";
-                out.println(str1);
+                writer = new AsciiNumberWriter(arcFile);
+                writer.writeLine("NCOLS         " + String.valueOf(wbr.getNumberColumns()));
+                writer.writeLine("NROWS         " + String.valueOf(wbr.getNumberRows()));
+                writer.writeLine("XLLCORNER     " + String.valueOf(wbr.getWest()));
+                writer.writeLine("YLLCORNER     " + String.valueOf(wbr.getSouth()));
+                writer.writeLine("CELLSIZE      " + String.valueOf(
+                        (wbr.getCellSizeX() + wbr.getCellSizeY()) / 2));
+                writer.writeLine("NODATA_VALUE  -9999");
                 
                 // copy the data file.
-                double[] data;
-                String line;
-                if (wbr.getDataType() == WhiteboxRaster.DataType.FLOAT ||
-                        wbr.getDataType() == WhiteboxRaster.DataType.DOUBLE) {
-                    for (row = 0; row < rows; row++) {
-                        data = wbr.getRowValues(row);
-                        line = "";
-                        str1 = "";
-                        for (col = 0; col < cols; col++) {
-                            if (col != 0) {
-                                str1 = " ";
-                            }
-                            if (data[col] != noData) {
-                                str1 += String.valueOf((float) data[col]);
-                            } else {
-                                str1 += "-9999";
-                            }
-                            line += str1;
-                        }
-                        out.println(line);
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress = (int) (100f * row / (rows - 1));
-                        updateProgress("Loop " + (i + 1) + " of " + numImages + ":", progress);
-                    }
-                } else {
-                    for (row = 0; row < rows; row++) {
-                        data = wbr.getRowValues(row);
-                        line = "";
-                        str1 = "";
-                        for (col = 0; col < cols; col++) {
-                            if (col != 0) {
-                                str1 = " ";
-                            }
-                            if (data[col] != noData) {
-                                str1 += String.valueOf((int)data[col]);
-                            } else {
-                                str1 += "-9999";
-                            }
-                            line += str1;
-                        }
-                        out.println(line);
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress = (int) (100f * row / (rows - 1));
-                        updateProgress(progress);
+                writer.setNoData(noData, "-9999");
+                writer.setWriteIntegers(wbr.getDataType() != WhiteboxRaster.DataType.FLOAT
+                        && wbr.getDataType() != WhiteboxRaster.DataType.DOUBLE);
+                for (row = 0; row < rows; row++) {
+                    writer.writeRow(wbr.getRowValues(row));
+                    if (cancelOp) {
+                        cancelOperation();
+                        return;
                     }
+                    progress = (int) (100f * row / (rows - 1));
+                    updateProgress(progress);
                 }
+                writer.close();
+                writer = null;
                 
                 wbr.close();
                 
@@ -300,9 +252,11 @@ public class ExportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
-            if (out != null || bw != null) {
-                out.flush();
-                out.close();
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                }
             }
 
             updateProgress("Progress: ", 0);
@@ -21,6 +21,7 @@ import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.InteropPlugin;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.utilities.AsciiNumberWriter;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -165,10 +166,7 @@ public class ExportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
         OutputStream outStream = null;
         int progress = 0;
 
-        String str1 = null;
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        PrintWriter out = null;
+        AsciiNumberWriter writer = null;
         
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -216,75 +214,29 @@ public class ExportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 (new File(grassFile)).delete();
                 
                 // deal with the header data first
-                fw = new FileWriter(grassFile, false);
-                bw = new BufferedWriter(fw);
-                out = new PrintWriter(bw, true);
-                str1 = "north: " + String.valueOf(wbr.getNorth());
-                out.println(str1);    
-                str1 = "south: " + String.valueOf(wbr.getSouth());
-                out.println(str1);    
-                str1 = "east: " + String.valueOf(wbr.getEast());
-                out.println(str1);    
-                str1 = "west: " + String.valueOf(wbr.getWest());
-                out.println(str1);    
-                str1 = "rows: " + String.valueOf(wbr.getNumberRows());
-                out.println(str1);    
-                str1 = "cols: " + String.valueOf(wbr.getNumberColumns());
-                out.println(str1);    
+                writer = new AsciiNumberWriter(grassFile);
+                writer.writeLine("north: " + String.valueOf(wbr.getNorth()));
+                writer.writeLine("south: " + String.valueOf(wbr.getSouth()));
+                writer.writeLine("east: " + String.valueOf(wbr.getEast()));
+                writer.writeLine("west: " + String.valueOf(wbr.getWest()));
+                writer.writeLine("rows: " + String.valueOf(wbr.getNumberRows()));
+                writer.writeLine("cols: " + String.valueOf(wbr.getNumberColumns()));
                 
                 // copy the data file.
-                double[] data = null;
-                String line = "";
-                if (wbr.getDataType() == WhiteboxRaster.DataType.FLOAT ||
-                        wbr.getDataType() == WhiteboxRaster.DataType.DOUBLE) {
-                    for (row = 0; row < rows; row++) {
-                        data = wbr.getRowValues(row);
-                        line = "";
-                        str1 = "";
-                        for (col = 0; col < cols; col++) {
-                            if (col != 0) {
-                                str1 = " ";
-                            }
-                            if (data[col] != noData) {
-                                str1 += String.valueOf((float) data[col]);
-                            } else {
-                                str1 += "-9999";
-                            }
-                            line += str1;
-                        }
-                        out.println(line);
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress = (int) (100f * row / (rows - 1));
-                        updateProgress(progress);
-                    }
-                } else {
-                    for (row = 0; row < rows; row++) {
-                        data = wbr.getRowValues(row);
-                        line = "";
-                        str1 = "";
-                        for (col = 0; col < cols; col++) {
-                            if (col != 0) {
-                                str1 = " ";
-                            }
-                            if (data[col] != noData) {
-                                str1 += String.valueOf((int)data[col]);
-                            } else {
-                                str1 += "-9999";
-                            }
-                            line += str1;
-                        }
-                        out.println(line);
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress = (int) (100f * row / (rows - 1));
-                        updateProgress(progress);
+                writer.setNoData(noData, "-9999");
+                writer.setWriteIntegers(wbr.getDataType() != WhiteboxRaster.DataType.FLOAT
+                        && wbr.getDataType() != WhiteboxRaster.DataType.DOUBLE);
+                for (row = 0; row < rows; row++) {
+                    writer.writeRow(wbr.getRowValues(row));
+                    if (cancelOp) {
+                        cancelOperation();
+                        return;
                     }
+                    progress = (int) (100f * row / (rows - 1));
+                    updateProgress(progress);
                 }
+                writer.close();
+                writer = null;
                 
                 wbr.close();
                 
@@ -300,9 +252,11 @@ public class ExportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
-            if (out != null || bw != null) {
-                out.flush();
-                out.close();
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                }
             }
 
             updateProgress("Progress: ", 0);
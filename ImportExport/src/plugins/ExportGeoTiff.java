@@ -17,29 +17,12 @@
 
 package plugins;
 
-import java.nio.ByteOrder;
-import java.io.*;
-import java.util.Date;
-import whitebox.geospatialfiles.GeoTiff;
+import java.io.File;
+import whitebox.geospatialfiles.GeoTiffWriter;
 import whitebox.geospatialfiles.WhiteboxRaster;
-import whitebox.geospatialfiles.WhiteboxRasterBase;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
 import whitebox.interfaces.InteropPlugin;
-//import org.geotools.gce.geotiff.*;
-//import org.geotools.coverage.grid.GridCoverage2D;
-//import org.geotools.coverage.grid.GridGeometry2D;
-//import org.geotools.coverage.grid.io.GridFormatFinder;
-//import org.geotools.coverage.grid.io.AbstractGridFormat;
-//import org.geotools.coverage.grid.io.GridCoverage2DReader;
-//import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
-//import org.geotools.coverage.grid.io.imageio.IIOMetadataDumper;
-//import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffIIOMetadataDecoder;
-//import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffIIOMetadataEncoder.TagSet;
-//import org.geotools.coverage.processing.CoverageProcessor;
-//import org.geotools.coverage.processing.Operations;
-//import org.geotools.gce.geotiff.GeoTiffReader;
-//import org.geotools.factory.Hints;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -80,7 +63,7 @@ public class ExportGeoTiff implements WhiteboxPlugin, InteropPlugin {
      */
     @Override
     public String getToolDescription() {
-        return "Exports a Whitebox raster to a GeoTIFF.";
+        return "Exports a Whitebox raster to a tiled, compressed GeoTIFF.";
     }
 
     /**
@@ -207,18 +190,14 @@ public class ExportGeoTiff implements WhiteboxPlugin, InteropPlugin {
 
         String inputFilesString = null;
         String whiteboxHeaderFile = null;
-        String whiteboxDataFile = null;
-        WhiteboxRaster output = null;
+        String geoTiffFile = null;
         int i = 0;
         String[] imageFiles;
         int numImages = 0;
-        double noData = -32768;
         int progress = 0;
-
-        String str1 = null;
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        PrintWriter out = null;
+        int compression = GeoTiffWriter.COMPRESSION_DEFLATE;
+        int numOverviews = 0;
+        GeoTiffWriter writer = null;
 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -226,6 +205,14 @@ public class ExportGeoTiff implements WhiteboxPlugin, InteropPlugin {
         }
 
         inputFilesString = args[0];
+        // the compression and number of overviews are optional
+        if (args.length > 1 && args[1] != null) {
+            if (args[1].toLowerCase().contains("none")) {
+                compression = GeoTiffWriter.COMPRESSION_NONE;
+            } else if (args[1].toLowerCase().contains("lzw")) {
+                compression = GeoTiffWriter.COMPRESSION_LZW;
+            }
+        }
 
         // check to see that the inputHeader and outputHeader are not null.
         if ((inputFilesString == null)) {
@@ -237,146 +224,70 @@ public class ExportGeoTiff implements WhiteboxPlugin, InteropPlugin {
         numImages = imageFiles.length;
 
         try {
-            String returnedHeader = "";
-            for (i = 0; i < numImages; i++) {
-                //int progress = (int) (100f * i / (numImages - 1));
-                if (numImages > 1) {
-                    updateProgress("Loop " + (i + 1) + " of " + numImages + ":", progress);
-                }
-                
-//                File file = new File("test.tiff");
-//    
-//                AbstractGridFormat format = GridFormatFinder.findFormat(file);
-//                GridCoverage2DReader reader = format.getReader(file);
-    
-//                try {
-//                GridCoverage2D coverage = reader.read(null);
-//                } catch (Exception e) {
-//                    
-//                }
-                
-                
-                
-//                File file = new File(imageFiles[i]);
-//
-//                GeoTiffReader reader = new GeoTiffReader(file, new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE));
-//GridCoverage2D coverage = reader.read(null);
-                
-                GeoTiff gt = new GeoTiff(imageFiles[i]);
-                gt.read();
-
-                int compressionType = gt.getCompressionType();
-                if (compressionType != 1) {
-                    showFeedback("GeoTiff import does not currently support compressed files.");
+            if (args.length > 2 && args[2] != null && !args[2].trim().isEmpty()) {
+                try {
+                    numOverviews = Integer.parseInt(args[2].trim());
+                } catch (NumberFormatException e) {
+                    showFeedback("The number of overviews must be a whole number.");
                     return;
                 }
+            }
 
-                boolean hasNoDataValue = gt.hasNoDataTag();
-                double nodata; // = -32768.0;
-                if (hasNoDataValue) {
-                    nodata = gt.getNoData();
-                } else {
-                    nodata = -32768;
-                }
-
-                int nRows = gt.getNumberRows();
-                int nCols = gt.getNumberColumns();
-
-                int dot = imageFiles[i].lastIndexOf(".");
-                String tiffExtension = imageFiles[i].substring(dot + 1); // either .tif or .tiff
-                whiteboxHeaderFile = imageFiles[i].replace(tiffExtension, "dep");
-                if (i == 0) {
-                    returnedHeader = whiteboxHeaderFile;
+            for (i = 0; i < numImages; i++) {
+                if (numImages > 1) {
+                    progress = (int) (100f * i / (numImages - 1));
+                    updateProgress("Loop " + (i + 1) + " of " + numImages + ":", progress);
                 }
-                whiteboxDataFile = imageFiles[i].replace(tiffExtension, "tas");
-
-                // see if they exist, and if so, delete them.
-                (new File(whiteboxHeaderFile)).delete();
-                (new File(whiteboxDataFile)).delete();
 
-                ByteOrder byteOrder = gt.getByteOrder();
-
-                WhiteboxRasterBase.DataScale myDataScale = WhiteboxRasterBase.DataScale.CONTINUOUS;
-                if (gt.getPhotometricInterpretation() == 2) {
-                    myDataScale = WhiteboxRasterBase.DataScale.RGB;
+                whiteboxHeaderFile = imageFiles[i];
+                // check to see if the file exists.
+                if (!((new File(whiteboxHeaderFile)).exists())) {
+                    showFeedback("Whitebox raster file does not exist.");
+                    break;
                 }
-                final WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, gt.getNorth(), gt.getSouth(), gt.getEast(),
-                        gt.getWest(), nRows, nCols, myDataScale,
-                        WhiteboxRasterBase.DataType.FLOAT, nodata, nodata);
-
-                wbr.setByteOrder(byteOrder.toString());
-
-                double z;
-                int oldProgress = -1;
-                for (int row = 0; row < nRows; row++) {
-                    for (int col = 0; col < nCols; col++) {
-                        z = gt.getValue(row, col);
-                        if (!hasNoDataValue && (z == -32768 || z == -Float.MAX_VALUE)) {
-                            nodata = z;
-                            hasNoDataValue = true;
-                            wbr.setNoDataValue(nodata);
-                        }
-                        //if (z != nodata) {
-                        wbr.setValue(row, col, z);
-                        //}
-                    }
-                    progress = (int) (100f * row / (nRows - 1));
-                    if (progress != oldProgress) {
-                        oldProgress = progress;
-                        updateProgress("Exporting GeoTiff file...", progress);
+                WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "r");
+                int rows = wbr.getNumberRows();
+                int cols = wbr.getNumberColumns();
+
+                int dot = whiteboxHeaderFile.lastIndexOf(".");
+                geoTiffFile = whiteboxHeaderFile.substring(0, dot + 1) + "tif";
+
+                writer = new GeoTiffWriter(geoTiffFile, rows, cols, wbr.getDataType(),
+                        wbr.getDataScale(), wbr.getNoDataValue());
+                writer.setCompression(compression);
+                writer.setNumberOfOverviews(numOverviews);
+                writer.setGeoreference(wbr.getNorth(), wbr.getWest(),
+                        wbr.getCellSizeX(), wbr.getCellSizeY());
+
+                for (int row = 0; row < rows; row++) {
+                    writer.writeRow(wbr.getRowValues(row));
+                    if (cancelOp) {
+                        writer.abort();
+                        wbr.close();
+                        cancelOperation();
+                        return;
                     }
+                    progress = (int) (100f * row / (rows - 1));
+                    updateProgress("Exporting GeoTiff file...", progress);
                 }
 
-//                WhiteboxRasterBase.DataScale myDataScale = WhiteboxRasterBase.DataScale.CONTINUOUS;
-//                if (gt.getPhotometricInterpretation() == 2) {
-//                    myDataScale = WhiteboxRasterBase.DataScale.RGB;
-//                }
-//                WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, gt.getNorth(), gt.getSouth(), gt.getEast(),
-//                        gt.getWest(), nRows, nCols, myDataScale,
-//                        WhiteboxRasterBase.DataType.FLOAT, gt.getNoData(), gt.getNoData());
-//
-//                wbr.setByteOrder(byteOrder.toString());
-//
-//                double z;
-//                for (int row = 0; row < nRows; row++) {
-//                    for (int col = 0; col < nCols; col++) {
-//                        z = gt.getValue(row, col);
-//                        wbr.setValue(row, col, z);
-//                    }
-//                    progress = (int) (100f * row / (nRows - 1));
-//                    updateProgress(progress);
-//                }
-                //wbr.flush();
-                wbr.addMetadataEntry("Created by the "
-                        + getDescriptiveName() + " tool.");
-                wbr.addMetadataEntry("Created on " + new Date());
-                String[] metaData = gt.showInfo();
-                for (int a = 0; a < metaData.length; a++) {
-                    wbr.addMetadataEntry(metaData[a]);
-                }
-                //wbr.writeHeaderFile();
+                updateProgress("Writing overviews...", 0);
+                writer.close();
+                writer = null;
                 wbr.close();
-
-                gt.close();
-
             }
 
-//            showFeedback("Operation complete");
-            if (!returnedHeader.isEmpty()) {
-                returnData(returnedHeader);
-            }
+            showFeedback("Operation complete!");
 
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
         } catch (Exception e) {
+            if (writer != null) {
+                writer.abort();
+            }
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
-            if (out != null || bw != null) {
-                out.flush();
-                out.close();
-            }
-
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
             amIActive = false;
@@ -21,6 +21,7 @@ import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.InteropPlugin;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.utilities.AsciiNumberWriter;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -165,10 +166,7 @@ public class ExportSurferAsciiGrid implements WhiteboxPlugin, InteropPlugin {
         OutputStream outStream = null;
         int progress = 0;
 
-        String str1 = null;
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        PrintWriter out = null;
+        AsciiNumberWriter writer = null;
         
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -216,80 +214,35 @@ public class ExportSurferAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 (new File(grassFile)).delete();
                 
                 // deal with the header data first
-                fw = new FileWriter(grassFile, false);
-                bw = new BufferedWriter(fw);
-                out = new PrintWriter(bw, true);
-                str1 = "DSAA";  // Surfer ASCII GRD ID
-                out.println(str1);    
-                str1 = String.valueOf(cols) + " " + String.valueOf(rows);
-                out.println(str1);
+                writer = new AsciiNumberWriter(grassFile);
+                writer.writeLine("DSAA");  // Surfer ASCII GRD ID
+                writer.writeLine(String.valueOf(cols) + " " + String.valueOf(rows));
                 
                 double xMin = Math.min(wbr.getEast(), wbr.getWest());
                 double xMax = Math.max(wbr.getEast(), wbr.getWest());
-                str1 = String.valueOf(xMin) + " " + String.valueOf(xMax);
-                out.println(str1);
+                writer.writeLine(String.valueOf(xMin) + " " + String.valueOf(xMax));
                 
                 double yMin = Math.min(wbr.getNorth(), wbr.getSouth());
                 double yMax = Math.max(wbr.getNorth(), wbr.getSouth());
-                str1 = String.valueOf(yMin) + " " + String.valueOf(yMax);
-                out.println(str1);
+                writer.writeLine(String.valueOf(yMin) + " " + String.valueOf(yMax));
                 
-                str1 = String.valueOf(0) + " " + String.valueOf(1);
-                out.println(str1);
+                writer.writeLine(String.valueOf(0) + " " + String.valueOf(1));
                 
                 // copy the data file.
-                double[] data = null;
-                String line = "";
-                if (wbr.getDataType() == WhiteboxRaster.DataType.FLOAT ||
-                        wbr.getDataType() == WhiteboxRaster.DataType.DOUBLE) {
-                    for (row = rows - 1; row >= 0; row--) {
-                        data = wbr.getRowValues(row);
-                        line = "";
-                        str1 = "";
-                        for (col = 0; col < cols; col++) {
-                            if (col != 0) {
-                                str1 = " ";
-                            }
-                            if (data[col] != noData) {
-                                str1 += String.valueOf((float) data[col]);
-                            } else {
-                                str1 += "-9999";
-                            }
-                            line += str1;
-                        }
-                        out.println(line);
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress = (int) (100f * (rows - 1 - row) / (rows - 1));
-                        updateProgress(progress);
-                    }
-                } else {
-                    for (row = rows - 1; row >= 0; row--) {
-                        data = wbr.getRowValues(row);
-                        line = "";
-                        str1 = "";
-                        for (col = 0; col < cols; col++) {
-                            if (col != 0) {
-                                str1 = " ";
-                            }
-                            if (data[col] != noData) {
-                                str1 += String.valueOf((int)data[col]);
-                            } else {
-                                str1 += "-9999";
-                            }
-                            line += str1;
-                        }
-                        out.println(line);
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress = (int) (100f * (rows - 1 - row) / (rows - 1));
-                        updateProgress(progress);
+                writer.setNoData(noData, "-9999");
+                writer.setWriteIntegers(wbr.getDataType() != WhiteboxRaster.DataType.FLOAT
+                        && wbr.getDataType() != WhiteboxRaster.DataType.DOUBLE);
+                for (row = rows - 1; row >= 0; row--) {
+                    writer.writeRow(wbr.getRowValues(row));
+                    if (cancelOp) {
+                        cancelOperation();
+                        return;
                     }
+                    progress = (int) (100f * (rows - 1 - row) / (rows - 1));
+                    updateProgress(progress);
                 }
+                writer.close();
+                writer = null;
                 
                 wbr.close();
                 
@@ -304,9 +257,11 @@ public class ExportSurferAsciiGrid implements WhiteboxPlugin, InteropPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
-            if (out != null || bw != null) {
-                out.flush();
-                out.close();
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                }
             }
 
             updateProgress("Progress: ", 0);
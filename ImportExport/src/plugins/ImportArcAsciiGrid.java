@@ -22,6 +22,7 @@ import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.InteropPlugin;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.utilities.AsciiNumberReader;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -206,16 +207,13 @@ public class ImportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
         double south = 0;
         double arcNoData = -9999;
         double whiteboxNoData = -32768d;
-        double z = 0;
-        String delimiter = " ";
 
         String str1 = null;
         FileWriter fw = null;
         BufferedWriter bw = null;
         PrintWriter out = null;
 
-        DataInputStream in = null;
-        BufferedReader br = null;
+        AsciiNumberReader reader = null;
 
         try {
 
@@ -256,177 +254,132 @@ public class ImportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 (new File(whiteboxHeaderFile)).delete();
                 (new File(whiteboxHeaderFile.replace(".dep", ".tas"))).delete();
 
-                FileInputStream fstream = new FileInputStream(arcFile);
+                reader = new AsciiNumberReader(arcFile);
                 rows = 0;
                 cols = 0;
 
-                // Get the object of DataInputStream
-                in = new DataInputStream(fstream);
-
-                br = new BufferedReader(new InputStreamReader(in));
-
-                if (arcFile != null) {
-                    String line;
-                    String[] str;
-                    //Read File Line By Line, getting the header data.
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
-                        }
-                        if (str[0].toLowerCase().contains("ncols")) {
-                            cols = Integer.parseInt(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("nrows")) {
-                            rows = Integer.parseInt(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("xllcenter")) {
-                            xllcenter = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("yllcenter")) {
-                            yllcenter = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("xllcorner")) {
-                            xllcorner = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("yllcorner")) {
-                            yllcorner = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("cellsize")) {
-                            cellsize = Double.parseDouble(str[str.length - 1]);
-                            //set the North, East, South, and West coodinates
-                            if (xllcorner != 0) {
-                                east = xllcorner + cols * cellsize;
-                                west = xllcorner;
-                                south = yllcorner;
-                                north = yllcorner + rows * cellsize;
-                            } else {
-                                east = xllcenter - (0.5 * cellsize) + cols * cellsize;
-                                west = xllcenter - (0.5 * cellsize);
-                                south = yllcenter - (0.5 * cellsize);
-                                north = yllcenter - (0.5 * cellsize) + rows * cellsize;
-                            }
-                        } else if (str[0].toLowerCase().contains("nodata")) {
-                            arcNoData = Double.parseDouble(str[str.length - 1]);
+                String line;
+                String[] str;
+                // Read the header lines, stopping at the first line of data.
+                while ((line = reader.peekLine()) != null) {
+                    str = line.trim().split("[\\s,]+");
+                    if (str[0].toLowerCase().contains("ncols")) {
+                        cols = Integer.parseInt(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("nrows")) {
+                        rows = Integer.parseInt(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("xllcenter")) {
+                        xllcenter = Double.parseDouble(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("yllcenter")) {
+                        yllcenter = Double.parseDouble(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("xllcorner")) {
+                        xllcorner = Double.parseDouble(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("yllcorner")) {
+                        yllcorner = Double.parseDouble(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("cellsize")) {
+                        cellsize = Double.parseDouble(str[str.length - 1]);
+                        //set the North, East, South, and West coodinates
+                        if (xllcorner != 0) {
+                            east = xllcorner + cols * cellsize;
+                            west = xllcorner;
+                            south = yllcorner;
+                            north = yllcorner + rows * cellsize;
                         } else {
-                            break;
+                            east = xllcenter - (0.5 * cellsize) + cols * cellsize;
+                            west = xllcenter - (0.5 * cellsize);
+                            south = yllcenter - (0.5 * cellsize);
+                            north = yllcenter - (0.5 * cellsize) + rows * cellsize;
                         }
-                    }
-
-                    // create the whitebox header file.
-                    fw = new FileWriter(whiteboxHeaderFile, false);
-                    bw = new BufferedWriter(fw);
-                    out = new PrintWriter(bw, true);
-
-                    str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
-                    out.println(str1);
-                    str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
-                    out.println(str1);
-                    str1 = "North:\t" + Double.toString(north);
-                    out.println(str1);
-                    str1 = "South:\t" + Double.toString(south);
-                    out.println(str1);
-                    str1 = "East:\t" + Double.toString(east);
-                    out.println(str1);
-                    str1 = "West:\t" + Double.toString(west);
-                    out.println(str1);
-                    str1 = "Cols:\t" + Integer.toString(cols);
-                    out.println(str1);
-                    str1 = "Rows:\t" + Integer.toString(rows);
-                    out.println(str1);
-                    str1 = "Data Type:\t" + "float";
-                    out.println(str1);
-                    str1 = "Z Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "XY Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Projection:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Data Scale:\tcontinuous";
-                    out.println(str1);
-                    str1 = "Preferred Palette:\t" + "spectrum.pal";
-                    out.println(str1);
-                    str1 = "NoData:\t-32768";
-                    out.println(str1);
-                    if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
-                        str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
+                    } else if (str[0].toLowerCase().contains("nodata")) {
+                        arcNoData = Double.parseDouble(str[str.length - 1]);
                     } else {
-                        str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                        break;
                     }
-                    out.println(str1);
-
-                    // Create the whitebox raster object.
-                    WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
-
-                    // Read File Line By Line, this time ingesting the data block
-                    // and outputing it to the whitebox raster object.
-                    delimiter = " ";
-                    row = 0;
-                    col = 0;
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
-                        }
-                        if (str[0].toLowerCase().contains("ncols")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("nrows")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("xllcenter")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("yllcenter")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("xllcorner")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("yllcorner")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("cellsize")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("nodata")) {
-                            // do nothing
-                        } else {
-                            // read the data
-                            for (i = 0; i < str.length; i++) {
-                                z = Double.parseDouble(str[i]);
-                                if (z != arcNoData) {
-                                    wbr.setValue(row, col, z);
-                                } else {
-                                    wbr.setValue(row, col, whiteboxNoData);
-                                }
-                                col++;
-                                if (col == cols) {
-                                    col = 0;
-                                    row++;
-                                }
-                            }
+                    reader.readLine();
+                }
+
+                // create the whitebox header file.
+                fw = new FileWriter(whiteboxHeaderFile, false);
+                bw = new BufferedWriter(fw);
+                out = new PrintWriter(bw, true);
+
+                str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
+                out.println(str1);
+                str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
+                out.println(str1);
+                str1 = "North:\t" + Double.toString(north);
+                out.println(str1);
+                str1 = "South:\t" + Double.toString(south);
+                out.println(str1);
+                str1 = "East:\t" + Double.toString(east);
+                out.println(str1);
+                str1 = "West:\t" + Double.toString(west);
+                out.println(str1);
+                str1 = "Cols:\t" + Integer.toString(cols);
+                out.println(str1);
+                str1 = "Rows:\t" + Integer.toString(rows);
+                out.println(str1);
+                str1 = "Data Type:\t" + "float";
+                out.println(str1);
+                str1 = "Z Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "XY Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "Projection:\t" + "not specified";
+                out.println(str1);
+                str1 = "Data Scale:\tcontinuous";
+                out.println(str1);
+                str1 = "Preferred Palette:\t" + "spectrum.pal";
+                out.println(str1);
+                str1 = "NoData:\t-32768";
+                out.println(str1);
+                if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
+                    str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
+                } else {
+                    str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                }
+                out.println(str1);
+
+                // Create the whitebox raster object.
+                WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
+
+                // Read the data block a row at a time. A row may span any
+                // number of lines.
+                double[] data = new double[cols];
+                boolean truncated = false;
+                for (row = 0; row < rows; row++) {
+                    int n = truncated ? 0 : reader.readValues(data, 0, cols);
+                    for (col = 0; col < cols; col++) {
+                        if (col >= n || data[col] == arcNoData) {
+                            data[col] = whiteboxNoData;
                         }
                     }
+                    wbr.setRowValues(row, data);
+                    // a file that ends early leaves the rest of the grid as nodata.
+                    if (n < cols) {
+                        truncated = true;
+                    }
+                    if (cancelOp) {
+                        wbr.close();
+                        cancelOperation();
+                        return;
+                    }
+                    progress = (int) (100f * row / (rows - 1));
+                    updateProgress(progress);
+                }
 
-                    //Close the input stream
-                    in.close();
-                    br.close();
+                reader.close();
+                reader = null;
 
-                    wbr.addMetadataEntry("Created by the "
-                            + getDescriptiveName() + " tool.");
-                    wbr.addMetadataEntry("Created on " + new Date());
-                    //wbr.findMinAndMaxVals();
-                    //wbr.writeHeaderFile();
-                    wbr.close();
+                wbr.addMetadataEntry("Created by the "
+                        + getDescriptiveName() + " tool.");
+                wbr.addMetadataEntry("Created on " + new Date());
+                wbr.close();
 
-                    returnData(whiteboxHeaderFile);
+                if (truncated) {
+                    showFeedback("The file " + arcFile + " ended before all of the grid "
+                            + "values were read. The missing cells have been set to nodata.");
                 }
+                returnData(whiteboxHeaderFile);
             }
 
         } catch (OutOfMemoryError oe) {
@@ -439,6 +392,12 @@ public class ImportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 out.flush();
                 out.close();
             }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
 
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
@@ -16,11 +16,8 @@
  */
 package plugins;
 
-import java.io.DataInputStream;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.Date;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
@@ -29,7 +26,7 @@ import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.InteropPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
 import whitebox.interfaces.WhiteboxPlugin;
-import whitebox.utilities.StringUtilities;
+import whitebox.utilities.AsciiNumberReader;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -199,8 +196,7 @@ public class ImportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
         BufferedWriter bw = null;
         PrintWriter out = null;
 
-        DataInputStream in = null;
-        BufferedReader br = null;
+        AsciiNumberReader reader = null;
 
         try {
             String inputFilesString = null;
@@ -218,8 +214,6 @@ public class ImportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
             double south = 0;
             double arcNoData = -9999;
             double whiteboxNoData = -32768d;
-            double z = 0;
-            String delimiter = " ";
 
             if (args.length <= 0) {
                 showFeedback("Plugin parameters have not been set.");
@@ -259,169 +253,123 @@ public class ImportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 (new File(whiteboxHeaderFile)).delete();
                 (new File(whiteboxHeaderFile.replace(".dep", ".tas"))).delete();
 
-                FileInputStream fstream = new FileInputStream(grassFile);
+                reader = new AsciiNumberReader(grassFile);
+                // cells that are marked with '*' are nodata
+                reader.setNonNumericValue(whiteboxNoData);
                 rows = 0;
                 cols = 0;
 
-                // Get the object of DataInputStream
-                in = new DataInputStream(fstream);
-
-                br = new BufferedReader(new InputStreamReader(in));
-
-                if (grassFile != null) {
-                    String line;
-                    String[] str;
-                    //Read File Line By Line, getting the header data.
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
-                        }
-                        if (str[0].toLowerCase().contains("north")) {
-                            north = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("south")) {
-                            south = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("east")) {
-                            east = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("west")) {
-                            west = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("rows")) {
-                            rows = Integer.parseInt(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("cols")) {
-                            cols = Integer.parseInt(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("nodata")) {
-                            arcNoData = Double.parseDouble(str[str.length - 1]);
-                        } else {
-                            break;
-                        }
-                    }
-
-                    // create the whitebox header file.
-                    fw = new FileWriter(whiteboxHeaderFile, false);
-                    bw = new BufferedWriter(fw);
-                    out = new PrintWriter(bw, true);
-
-                    str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
-                    out.println(str1);
-                    str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
-                    out.println(str1);
-                    str1 = "North:\t" + Double.toString(north);
-                    out.println(str1);
-                    str1 = "South:\t" + Double.toString(south);
-                    out.println(str1);
-                    str1 = "East:\t" + Double.toString(east);
-                    out.println(str1);
-                    str1 = "West:\t" + Double.toString(west);
-                    out.println(str1);
-                    str1 = "Cols:\t" + Integer.toString(cols);
-                    out.println(str1);
-                    str1 = "Rows:\t" + Integer.toString(rows);
-                    out.println(str1);
-                    str1 = "Data Type:\t" + "float";
-                    out.println(str1);
-                    str1 = "Z Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "XY Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Projection:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Data Scale:\tcontinuous";
-                    out.println(str1);
-                    str1 = "Preferred Palette:\t" + "spectrum.pal";
-                    out.println(str1);
-                    str1 = "NoData:\t" + whiteboxNoData;
-                    out.println(str1);
-                    if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
-                        str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
+                String line;
+                String[] str;
+                // Read the header lines, stopping at the first line of data.
+                while ((line = reader.peekLine()) != null) {
+                    str = line.trim().split("[\\s,]+");
+                    if (str[0].toLowerCase().contains("north")) {
+                        north = Double.parseDouble(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("south")) {
+                        south = Double.parseDouble(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("east")) {
+                        east = Double.parseDouble(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("west")) {
+                        west = Double.parseDouble(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("rows")) {
+                        rows = Integer.parseInt(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("cols")) {
+                        cols = Integer.parseInt(str[str.length - 1]);
+                    } else if (str[0].toLowerCase().contains("nodata")) {
+                        arcNoData = Double.parseDouble(str[str.length - 1]);
                     } else {
-                        str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                        break;
                     }
-                    out.println(str1);
-
-                    // Create the whitebox raster object.
-                    WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
-                    wbr.reinitialize(whiteboxNoData);
-
-                    // Read File Line By Line, this time ingesting the data block
-                    // and outputing it to the whitebox raster object.
-                    delimiter = " ";
-                    row = 0;
-                    col = 0;
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
-                        }
-                        if (str[0].toLowerCase().contains("north")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("south")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("east")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("west")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("rows")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("cols")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("nodata")) {
-                            // do nothing
-                        } else {
-                            // read the data
-                            for (i = 0; i < str.length; i++) {
-                                if (StringUtilities.isNumeric(str[i])) {
-                                    z = Double.parseDouble(str[i]);
-                                    if (z != arcNoData) {
-                                        wbr.setValue(row, col, z);
-                                    } else {
-                                        wbr.setValue(row, col, whiteboxNoData);
-                                    }
-                                } else {
-                                    wbr.setValue(row, col, whiteboxNoData);
-                                }
-                                col++;
-                                if (col == cols) {
-                                    col = 0;
-                                    row++;
-                                    progress = (int) (100f * row / (rows - 1));
-                                    updateProgress(progress);
-                                }
-
-                            }
+                    reader.readLine();
+                }
+
+                // create the whitebox header file.
+                fw = new FileWriter(whiteboxHeaderFile, false);
+                bw = new BufferedWriter(fw);
+                out = new PrintWriter(bw, true);
+
+                str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
+                out.println(str1);
+                str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
+                out.println(str1);
+                str1 = "North:\t" + Double.toString(north);
+                out.println(str1);
+                str1 = "South:\t" + Double.toString(south);
+                out.println(str1);
+                str1 = "East:\t" + Double.toString(east);
+                out.println(str1);
+                str1 = "West:\t" + Double.toString(west);
+                out.println(str1);
+                str1 = "Cols:\t" + Integer.toString(cols);
+                out.println(str1);
+                str1 = "Rows:\t" + Integer.toString(rows);
+                out.println(str1);
+                str1 = "Data Type:\t" + "float";
+                out.println(str1);
+                str1 = "Z Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "XY Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "Projection:\t" + "not specified";
+                out.println(str1);
+                str1 = "Data Scale:\tcontinuous";
+                out.println(str1);
+                str1 = "Preferred Palette:\t" + "spectrum.pal";
+                out.println(str1);
+                str1 = "NoData:\t" + whiteboxNoData;
+                out.println(str1);
+                if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
+                    str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
+                } else {
+                    str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                }
+                out.println(str1);
+
+                // Create the whitebox raster object.
+                WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
+                wbr.reinitialize(whiteboxNoData);
+
+                // Read the data block a row at a time. A row may span any
+                // number of lines.
+                double[] data = new double[cols];
+                boolean truncated = false;
+                for (row = 0; row < rows; row++) {
+                    int n = truncated ? 0 : reader.readValues(data, 0, cols);
+                    for (col = 0; col < cols; col++) {
+                        if (col >= n || data[col] == arcNoData) {
+                            data[col] = whiteboxNoData;
                         }
                     }
+                    wbr.setRowValues(row, data);
+                    // a file that ends early leaves the rest of the grid as nodata.
+                    if (n < cols) {
+                        truncated = true;
+                    }
+                    if (cancelOp) {
+                        wbr.close();
+                        cancelOperation();
+                        return;
+                    }
+                    progress = (int) (100f * row / (rows - 1));
+                    updateProgress(progress);
+                }
 
-                    //Close the input stream
-                    in.close();
-                    br.close();
+                reader.close();
+                reader = null;
 
-                    wbr.addMetadataEntry("Created by the "
-                            + getDescriptiveName() + " tool.");
-                    wbr.addMetadataEntry("Created on " + new Date());
-                    wbr.flush();
-                    wbr.findMinAndMaxVals();
-                    wbr.close();
+                wbr.addMetadataEntry("Created by the "
+                        + getDescriptiveName() + " tool.");
+                wbr.addMetadataEntry("Created on " + new Date());
+                wbr.flush();
+                wbr.findMinAndMaxVals();
+                wbr.close();
 
-                    returnData(whiteboxHeaderFile);
+                if (truncated) {
+                    showFeedback("The file " + grassFile + " ended before all of the grid "
+                            + "values were read. The missing cells have been set to nodata.");
                 }
+                returnData(whiteboxHeaderFile);
             }
 
         } catch (OutOfMemoryError oe) {
@@ -434,6 +382,12 @@ public class ImportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 out.flush();
                 out.close();
             }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
 
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
@@ -231,9 +231,9 @@ public class ImportGeoTiff implements WhiteboxPlugin, InteropPlugin {
                 GeoTiff gt = new GeoTiff(imageFiles[i]);
                 gt.read();
 
-                int compressionType = gt.getCompressionType();
-                if (compressionType != 1) {
-                    showFeedback("GeoTiff import does not currently support compressed files.");
+                if (!gt.isCompressionSupported()) {
+                    showFeedback("GeoTiff import does not currently support files with compression type "
+                            + gt.getCompressionType() + ".");
                     return;
                 }
 
@@ -249,12 +249,11 @@ public class ImportGeoTiff implements WhiteboxPlugin, InteropPlugin {
                 int nCols = gt.getNumberColumns();
 
                 int dot = imageFiles[i].lastIndexOf(".");
-                String tiffExtension = imageFiles[i].substring(dot + 1); // either .tif or .tiff
-                whiteboxHeaderFile = imageFiles[i].replace(tiffExtension, "dep");
+                whiteboxHeaderFile = imageFiles[i].substring(0, dot + 1) + "dep";
                 if (i == 0) {
                     returnedHeader = whiteboxHeaderFile;
                 }
-                whiteboxDataFile = imageFiles[i].replace(tiffExtension, "tas");
+                whiteboxDataFile = imageFiles[i].substring(0, dot + 1) + "tas";
 
                 // see if they exist, and if so, delete them.
                 (new File(whiteboxHeaderFile)).delete();
@@ -272,24 +271,40 @@ public class ImportGeoTiff implements WhiteboxPlugin, InteropPlugin {
 
                 wbr.setByteOrder(byteOrder.toString());
 
+                // read the image in bands of whole strips or tiles, each of
+                // which is decoded in parallel.
+                int blockHeight = gt.getBlockHeight();
+                long blocksPerBand = Math.max(1, Math.min(
+                        Runtime.getRuntime().availableProcessors(),
+                        (1L << 22) / Math.max(1L, (long) blockHeight * nCols)));
+                int bandHeight = (int) Math.min(nRows, blockHeight * blocksPerBand);
                 double z;
                 int oldProgress = -1;
-                for (int row = 0; row < nRows; row++) {
-                    for (int col = 0; col < nCols; col++) {
-                        z = gt.getValue(row, col);
-                        if (!hasNoDataValue && (z == -32768 || z == -Float.MAX_VALUE)) {
-                            nodata = z;
-                            hasNoDataValue = true;
-                            wbr.setNoDataValue(nodata);
+                for (int startRow = 0; startRow < nRows; startRow += bandHeight) {
+                    double[][] band = gt.readRows(startRow, Math.min(bandHeight, nRows - startRow));
+                    for (int r = 0; r < band.length; r++) {
+                        int row = startRow + r;
+                        double[] data = band[r];
+                        for (int col = 0; col < nCols; col++) {
+                            z = data[col];
+                            if (Double.isNaN(z)) {
+                                data[col] = nodata;
+                            } else if (!hasNoDataValue && (z == -32768 || z == -Float.MAX_VALUE)) {
+                                nodata = z;
+                                hasNoDataValue = true;
+                                wbr.setNoDataValue(nodata);
+                            }
+                        }
+                        wbr.setRowValues(row, data);
+                        progress = (int) (100f * row / (nRows - 1));
+                        if (progress != oldProgress) {
+                            oldProgress = progress;
+                            updateProgress("Importing GeoTiff file...", progress);
                         }
-                        //if (z != nodata) {
-                        wbr.setValue(row, col, z);
-                        //}
                     }
-                    progress = (int) (100f * row / (nRows - 1));
-                    if (progress != oldProgress) {
-                        oldProgress = progress;
-                        updateProgress("Importing GeoTiff file...", progress);
+                    if (cancelOp) {
+                        cancelOperation();
+                        return;
                     }
                 }
 
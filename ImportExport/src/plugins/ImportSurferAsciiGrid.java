@@ -16,11 +16,8 @@
  */
 package plugins;
 
-import java.io.DataInputStream;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.Date;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
@@ -29,6 +26,7 @@ import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.InteropPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
 import whitebox.interfaces.WhiteboxPlugin;
+import whitebox.utilities.AsciiNumberReader;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -176,16 +174,13 @@ public class ImportSurferAsciiGrid implements WhiteboxPlugin, InteropPlugin {
         double south = 0;
         double arcNoData = -9999;
         double whiteboxNoData = -32768d;
-        double z = 0;
-        String delimiter = " ";
 
         String str1 = null;
         FileWriter fw = null;
         BufferedWriter bw = null;
         PrintWriter out = null;
 
-        DataInputStream in = null;
-        BufferedReader br = null;
+        AsciiNumberReader reader = null;
 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -229,154 +224,117 @@ public class ImportSurferAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 (new File(whiteboxHeaderFile)).delete();
                 (new File(whiteboxHeaderFile.replace(".dep", ".tas"))).delete();
 
-                FileInputStream fstream = new FileInputStream(surferFile);
+                reader = new AsciiNumberReader(surferFile);
                 rows = 0;
                 cols = 0;
 
-                // Get the object of DataInputStream
-                in = new DataInputStream(fstream);
-
-                br = new BufferedReader(new InputStreamReader(in));
-
-                if (surferFile != null) {
-                    String line;
-                    String[] str;
-                    //Read File Line By Line, getting the header data.
-                    i = 1;
-                    while ((line = br.readLine()) != null && i < 5) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1 && i > 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
+                // The header is always five lines long; the last of them holds
+                // the minimum and maximum values, which aren't needed.
+                String line;
+                String[] str;
+                for (int a = 1; a <= 5 && (line = reader.readLine()) != null; a++) {
+                    str = line.trim().split("[\\s,]+");
+                    if (a == 1) {
+                        if (!(str[0].toLowerCase().equals("dsaa"))) {
+                            showFeedback("Warning: Surfer ASCII GRD ID value "
+                                    + "was not located. This file may be "
+                                    + "improperly structured.");
                         }
-                        if (i == 1) {
-                            if (!(str[0].toLowerCase().equals("dsaa"))) {
-                                showFeedback("Warning: Surfer ASCII GRD ID value "
-                                        + "was not located. This file may be "
-                                        + "improperly structured.");
-                            }
-                        } else if (i == 2) {
-                            cols = Integer.parseInt(str[0]);
-                            rows = Integer.parseInt(str[str.length - 1]);
-                        } else if (i == 3) {
-                            west = Double.parseDouble(str[0]);
-                            east = Double.parseDouble(str[str.length - 1]);
-                        } else if (i == 4) {
-                            south = Double.parseDouble(str[0]);
-                            north = Double.parseDouble(str[str.length - 1]);
-                        } else {
-                            break;
-                        }
-                        
-                        i++;
+                    } else if (a == 2) {
+                        cols = Integer.parseInt(str[0]);
+                        rows = Integer.parseInt(str[str.length - 1]);
+                    } else if (a == 3) {
+                        west = Double.parseDouble(str[0]);
+                        east = Double.parseDouble(str[str.length - 1]);
+                    } else if (a == 4) {
+                        south = Double.parseDouble(str[0]);
+                        north = Double.parseDouble(str[str.length - 1]);
                     }
+                }
 
-                    // create the whitebox header file.
-                    fw = new FileWriter(whiteboxHeaderFile, false);
-                    bw = new BufferedWriter(fw);
-                    out = new PrintWriter(bw, true);
-
-                    str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
-                    out.println(str1);
-                    str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
-                    out.println(str1);
-                    str1 = "North:\t" + Double.toString(north);
-                    out.println(str1);
-                    str1 = "South:\t" + Double.toString(south);
-                    out.println(str1);
-                    str1 = "East:\t" + Double.toString(east);
-                    out.println(str1);
-                    str1 = "West:\t" + Double.toString(west);
-                    out.println(str1);
-                    str1 = "Cols:\t" + Integer.toString(cols);
-                    out.println(str1);
-                    str1 = "Rows:\t" + Integer.toString(rows);
-                    out.println(str1);
-                    str1 = "Data Type:\t" + "float";
-                    out.println(str1);
-                    str1 = "Z Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "XY Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Projection:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Data Scale:\tcontinuous";
-                    out.println(str1);
-                    str1 = "Preferred Palette:\t" + "spectrum.pal";
-                    out.println(str1);
-                    str1 = "NoData:\t-32768";
-                    out.println(str1);
-                    if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
-                        str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
-                    } else {
-                        str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                // create the whitebox header file.
+                fw = new FileWriter(whiteboxHeaderFile, false);
+                bw = new BufferedWriter(fw);
+                out = new PrintWriter(bw, true);
+
+                str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
+                out.println(str1);
+                str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
+                out.println(str1);
+                str1 = "North:\t" + Double.toString(north);
+                out.println(str1);
+                str1 = "South:\t" + Double.toString(south);
+                out.println(str1);
+                str1 = "East:\t" + Double.toString(east);
+                out.println(str1);
+                str1 = "West:\t" + Double.toString(west);
+                out.println(str1);
+                str1 = "Cols:\t" + Integer.toString(cols);
+                out.println(str1);
+                str1 = "Rows:\t" + Integer.toString(rows);
+                out.println(str1);
+                str1 = "Data Type:\t" + "float";
+                out.println(str1);
+                str1 = "Z Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "XY Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "Projection:\t" + "not specified";
+                out.println(str1);
+                str1 = "Data Scale:\tcontinuous";
+                out.println(str1);
+                str1 = "Preferred Palette:\t" + "spectrum.pal";
+                out.println(str1);
+                str1 = "NoData:\t-32768";
+                out.println(str1);
+                if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
+                    str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
+                } else {
+                    str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                }
+                out.println(str1);
+
+                // Create the whitebox raster object.
+                WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
+
+                // Read the data block a row at a time, from the bottom row up.
+                // A row may span any number of lines.
+                double[] data = new double[cols];
+                boolean truncated = false;
+                for (row = rows - 1; row >= 0; row--) {
+                    int n = truncated ? 0 : reader.readValues(data, 0, cols);
+                    for (col = n; col < cols; col++) {
+                        data[col] = whiteboxNoData;
                     }
-                    out.println(str1);
-
-                    // Create the whitebox raster object.
-                    WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
-
-                    // Read File Line By Line, this time ingesting the data block
-                    // and outputing it to the whitebox raster object.
-                    delimiter = " ";
-                    row = rows - 1;
-                    col = 0;
-                    //int a = 5;
-                    while ((line = br.readLine()) != null) {
-                        //if (a > 4) {
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = "\t";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = " ";
-                                    str = line.split(delimiter);
-                                    if (str.length <= 1) {
-                                        delimiter = ",";
-                                        str = line.split(delimiter);
-                                    }
-                                }
-                            }
-
-                            // read the data
-                            for (i = 0; i < str.length; i++) {
-                                if (!str[i].trim().isEmpty()) {
-                                    z = Double.parseDouble(str[i]);
-                                    wbr.setValue(row, col, z);
-
-                                    col++;
-                                    if (col == cols) {
-                                        col = 0;
-                                        row--;
-                                    }
-                                }
-                            }
-                        //}
-                        //a++;
+                    wbr.setRowValues(row, data);
+                    // a file that ends early leaves the rest of the grid as nodata.
+                    if (n < cols) {
+                        truncated = true;
+                    }
+                    if (cancelOp) {
+                        wbr.close();
+                        cancelOperation();
+                        return;
                     }
+                    progress = (int) (100f * (rows - 1 - row) / (rows - 1));
+                    updateProgress(progress);
+                }
 
-                    //Close the input stream
-                    in.close();
-                    br.close();
+                reader.close();
+                reader = null;
 
-                    wbr.addMetadataEntry("Created by the "
-                    + getDescriptiveName() + " tool.");
-                    wbr.addMetadataEntry("Created on " + new Date());
-                    wbr.flush();
-                    wbr.findMinAndMaxVals();
-                    //wbr.writeHeaderFile();
-                    wbr.close();
+                wbr.addMetadataEntry("Created by the "
+                        + getDescriptiveName() + " tool.");
+                wbr.addMetadataEntry("Created on " + new Date());
+                wbr.flush();
+                wbr.findMinAndMaxVals();
+                wbr.close();
 
-                    returnData(whiteboxHeaderFile);
+                if (truncated) {
+                    showFeedback("The file " + surferFile + " ended before all of the grid "
+                            + "values were read. The missing cells have been set to nodata.");
                 }
+                returnData(whiteboxHeaderFile);
             }
 
         } catch (OutOfMemoryError oe) {
@@ -389,6 +347,12 @@ public class ImportSurferAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 out.flush();
                 out.close();
             }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
 
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
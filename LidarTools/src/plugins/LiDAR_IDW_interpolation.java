@@ -16,20 +16,15 @@
  */
 package plugins;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
 import java.util.Date;
-import java.util.List;
-import whitebox.geospatialfiles.LASReader;
-import whitebox.geospatialfiles.LASReader.PointRecColours;
-import whitebox.geospatialfiles.LASReader.PointRecord;
-import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.algorithms.LidarGridder;
+import whitebox.algorithms.PriorityFlood;
+import whitebox.geospatialfiles.LasPointFilter;
+import whitebox.geospatialfiles.LasTileCache;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.structures.KdTree;
-import whitebox.utilities.Parallel;
+import whitebox.parallel.Parallel;
+import whitebox.utilities.FileUtilities;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -198,10 +193,10 @@ public class LiDAR_IDW_interpolation implements WhiteboxPlugin {
     boolean[] classValuesToExclude;
     double resolution = 1;
     double maxDist = Double.POSITIVE_INFINITY;
-    int numCompletedFiles = 0;
     double weight;
     int numPointsToUse = 8;
     double maxAbsScanAngle = 999.0;
+    boolean createMosaic = false;
 
     @Override
     public void run() {
@@ -278,6 +273,9 @@ public class LiDAR_IDW_interpolation implements WhiteboxPlugin {
         //excludeHighPoint = Boolean.parseBoolean(args[16]);
         excludeModelKeyPoint = Boolean.parseBoolean(args[16]);
         excludeWater = Boolean.parseBoolean(args[17]);
+        if (args.length > 18) {
+            createMosaic = Boolean.parseBoolean(args[18]);
+        }
 
 
 
@@ -324,409 +322,40 @@ public class LiDAR_IDW_interpolation implements WhiteboxPlugin {
 
             pointFiles = inputFilesString.split(";");
 
-            if (maxDist < Double.POSITIVE_INFINITY) {
-                maxDist = maxDist * maxDist;
-            }
-
-            Parallel.For(0, pointFiles.length, 1, new Parallel.LoopBody<Integer>() {
-
+            LasPointFilter filter = new LasPointFilter(classValuesToExclude);
+            filter.setReturns(returnNumberToInterpolate);
+            filter.setValueType(whatToInterpolate);
+            filter.setMaxAbsScanAngle(maxAbsScanAngle);
+            LasTileCache tiles = new LasTileCache(pointFiles, filter);
+
+            LidarGridder gridder = new LidarGridder(tiles, new LidarGridder.IDW(weight,
+                    maxDist, filter.getValueType() == LasPointFilter.RGB), resolution);
+            gridder.addMetadataEntry("Created by the "
+                    + getDescriptiveName() + " tool.");
+            gridder.addMetadataEntry("Created on " + new Date());
+            gridder.setProgressListener(new PriorityFlood.ProgressListener() {
                 @Override
-                public void run(Integer j) {
-                    int row, col;
-                    int nrows, ncols;
-                    double x, y;
-                    double z = 0;
-                    int a, i;
-                    int progress = 0;
-                    int numPoints = 0;
-                    int numPointFiles = pointFiles.length;
-                    double north, south, east, west;
-                    String str1;
-                    PointRecord point;
-                    PointRecColours pointColours;
-                    double[] entry;
-                    double northing, easting;
-                    double noData = -32768;
-                    FileWriter fw = null;
-                    BufferedWriter bw = null;
-                    PrintWriter out = null;
-                    List<KdTree.Entry<InterpolationRecord>> results;
-                    double sumWeights;
-                    double dist;
-
-                    LASReader las = new LASReader(pointFiles[j]);
-
-                    long numPointsInFile = las.getNumPointRecords();
-                    // first count how many valid points there are.
-                    numPoints = 0;
-                    for (a = 0; a < numPointsInFile; a++) {
-                        point = las.getPointRecord(a);
-                        if (returnNumberToInterpolate.equals("all points")) {
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()])
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle) {
-                                numPoints++;
-                            }
-                        } else if (returnNumberToInterpolate.equals("first return")) {
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()]
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle)
-                                    && point.getReturnNumber() == 1) {
-                                numPoints++;
-                            }
-                        } else { // if (returnNumberToInterpolate.equals("last return")) {
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()])
-                                    && point.getReturnNumber() == point.getNumberOfReturns()
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle) {
-                                numPoints++;
-                            }
-                        }
-                    }
-
-                    // now read the valid points into the k-dimensional tree.
-                    double minX = Double.POSITIVE_INFINITY;
-                    double maxX = Double.NEGATIVE_INFINITY;
-                    double minY = Double.POSITIVE_INFINITY;
-                    double maxY = Double.NEGATIVE_INFINITY;
-
-                    KdTree<InterpolationRecord> pointsTree = new KdTree.SqrEuclid<>(2, new Integer(numPoints));
-
-                    // read the points in
-                    if (returnNumberToInterpolate.equals("all points")) {
-                        for (a = 0; a < numPointsInFile; a++) {
-                            point = las.getPointRecord(a);
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()])
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle) {
-                                x = point.getX();
-                                y = point.getY();
-                                if (whatToInterpolate.equals("z (elevation)")) {
-                                    z = point.getZ();
-                                } else if (whatToInterpolate.equals("intensity")) {
-                                    z = point.getIntensity();
-                                } else if (whatToInterpolate.equals("classification")) {
-                                    z = point.getClassification();
-                                } else if (whatToInterpolate.equals("scan angle")) {
-                                    z = point.getScanAngle();
-                                } else if (whatToInterpolate.equals("rgb data")) {
-                                    pointColours = las.getPointRecordColours(a);
-                                    z = (double) ((255 << 24) | (pointColours.getBlue()
-                                            << 16) | (pointColours.getGreen() << 8)
-                                            | pointColours.getRed());
-                                }
-
-                                entry = new double[]{y, x};
-                                pointsTree.addPoint(entry, new InterpolationRecord(z, point.getScanAngle()));
-
-                                if (x < minX) {
-                                    minX = x;
-                                }
-                                if (x > maxX) {
-                                    maxX = x;
-                                }
-                                if (y < minY) {
-                                    minY = y;
-                                }
-                                if (y > maxY) {
-                                    maxY = y;
-                                }
-                            }
-//                            progress = (int) (100d * (a + 1) / numPointsInFile);
-//                            if ((progress % 2) == 0) {
-//                                updateProgress("Reading point data:", progress);
-//                            }
-                        }
-                    } else if (returnNumberToInterpolate.equals("first return")) {
-                        for (a = 0; a < numPointsInFile; a++) {
-                            point = las.getPointRecord(a);
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()]
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle)
-                                    && point.getReturnNumber() == 1) {
-                                x = point.getX();
-                                y = point.getY();
-                                if (whatToInterpolate.equals("z (elevation)")) {
-                                    z = point.getZ();
-                                } else if (whatToInterpolate.equals("intensity")) {
-                                    z = point.getIntensity();
-                                } else if (whatToInterpolate.equals("classification")) {
-                                    z = point.getClassification();
-                                } else if (whatToInterpolate.equals("scan angle")) {
-                                    z = point.getScanAngle();
-                                } else if (whatToInterpolate.equals("rgb data")) {
-                                    pointColours = las.getPointRecordColours(a);
-                                    z = (double) ((255 << 24) | (pointColours.getBlue()
-                                            << 16) | (pointColours.getGreen() << 8)
-                                            | pointColours.getRed());
-                                }
-
-                                entry = new double[]{y, x};
-                                pointsTree.addPoint(entry, new InterpolationRecord(z, point.getScanAngle()));
-
-                                if (x < minX) {
-                                    minX = x;
-                                }
-                                if (x > maxX) {
-                                    maxX = x;
-                                }
-                                if (y < minY) {
-                                    minY = y;
-                                }
-                                if (y > maxY) {
-                                    maxY = y;
-                                }
-                            }
-                        }
-                    } else { // if (returnNumberToInterpolate.equals("last return")) {
-                        for (a = 0; a < numPointsInFile; a++) {
-                            point = las.getPointRecord(a);
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()])
-                                    && point.getReturnNumber() == point.getNumberOfReturns()
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle) {
-                                x = point.getX();
-                                y = point.getY();
-                                if (whatToInterpolate.equals("z (elevation)")) {
-                                    z = point.getZ();
-                                } else if (whatToInterpolate.equals("intensity")) {
-                                    z = point.getIntensity();
-                                } else if (whatToInterpolate.equals("classification")) {
-                                    z = point.getClassification();
-                                } else if (whatToInterpolate.equals("scan angle")) {
-                                    z = point.getScanAngle();
-                                } else if (whatToInterpolate.equals("rgb data")) {
-                                    pointColours = las.getPointRecordColours(a);
-                                    z = (double) ((255 << 24) | (pointColours.getBlue()
-                                            << 16) | (pointColours.getGreen() << 8)
-                                            | pointColours.getRed());
-                                }
-
-                                entry = new double[]{y, x};
-                                pointsTree.addPoint(entry, new InterpolationRecord(z, point.getScanAngle()));
-
-                                if (x < minX) {
-                                    minX = x;
-                                }
-                                if (x > maxX) {
-                                    maxX = x;
-                                }
-                                if (y < minY) {
-                                    minY = y;
-                                }
-                                if (y > maxY) {
-                                    maxY = y;
-                                }
-                            }
-                        }
-                    }
-
-                    String outputHeader = pointFiles[j].replace(".las", suffix + ".dep");
-
-                    // see if the output files already exist, and if so, delete them.
-                    if ((new File(outputHeader)).exists()) {
-                        (new File(outputHeader)).delete();
-                        (new File(outputHeader.replace(".dep", ".tas"))).delete();
-                    }
-
-                    // What are north, south, east, and west and how many rows and 
-                    // columns should there be?
-                    west = minX - 0.5 * resolution;
-                    north = maxY + 0.5 * resolution;
-                    nrows = (int) (Math.ceil((north - minY) / resolution));
-                    ncols = (int) (Math.ceil((maxX - west) / resolution));
-                    south = north - nrows * resolution;
-                    east = west + ncols * resolution;
-
-                    try {
-                        // create the whitebox header file.
-                        fw = new FileWriter(outputHeader, false);
-                        bw = new BufferedWriter(fw);
-                        out = new PrintWriter(bw, true);
-
-                        str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
-                        out.println(str1);
-                        str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
-                        out.println(str1);
-                        str1 = "North:\t" + Double.toString(north);
-                        out.println(str1);
-                        str1 = "South:\t" + Double.toString(south);
-                        out.println(str1);
-                        str1 = "East:\t" + Double.toString(east);
-                        out.println(str1);
-                        str1 = "West:\t" + Double.toString(west);
-                        out.println(str1);
-                        str1 = "Cols:\t" + Integer.toString(ncols);
-                        out.println(str1);
-                        str1 = "Rows:\t" + Integer.toString(nrows);
-                        out.println(str1);
-                        str1 = "Data Type:\t" + "float";
-                        out.println(str1);
-                        str1 = "Z Units:\t" + "not specified";
-                        out.println(str1);
-                        str1 = "XY Units:\t" + "not specified";
-                        out.println(str1);
-                        str1 = "Projection:\t" + "not specified";
-                        out.println(str1);
-                        if (!whatToInterpolate.equals("rgb data")) {
-                            str1 = "Data Scale:\tcontinuous";
-                        } else {
-                            str1 = "Data Scale:\trgb";
-                        }
-                        out.println(str1);
-                        if (whatToInterpolate.equals("rgb data")) {
-                            str1 = "Preferred Palette:\t" + "rgb.pal";
-                        } else if (whatToInterpolate.equals("intensity")) {
-                            str1 = "Preferred Palette:\t" + "grey.pal";
-                        } else {
-                            str1 = "Preferred Palette:\t" + "spectrum.pal";
-                        }
-                        out.println(str1);
-                        str1 = "NoData:\t" + noData;
-                        out.println(str1);
-                        if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
-                            str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
-                        } else {
-                            str1 = "Byte Order:\t" + "BIG_ENDIAN";
-                        }
-                        out.println(str1);
-
-                        out.close();
-
-                    } catch (Exception e) {
-                        showFeedback(e.getMessage());
-                        return;
-                    }
-
-                    // Create the whitebox raster object.
-                    WhiteboxRaster image = new WhiteboxRaster(outputHeader, "rw");
-                    
-                    
-                    double halfResolution = resolution / 2;
-                    if (!whatToInterpolate.equals("rgb data")) {
-                        for (row = 0; row < nrows; row++) {
-                            for (col = 0; col < ncols; col++) {
-                                easting = (col * resolution) + (west + halfResolution);
-                                northing = (north - halfResolution) - (row * resolution);
-                                entry = new double[]{northing, easting};
-                                results = pointsTree.neighborsWithinRange(entry, maxDist);
-                                double minScanAngle = Double.POSITIVE_INFINITY;
-                                double maxScanAngle = Double.NEGATIVE_INFINITY;
-                                double scanAngle;
-                                for (i = 0; i < results.size(); i++) {
-                                    scanAngle = results.get(i).value.scanAngle;
-                                    if (scanAngle > maxScanAngle) { maxScanAngle = scanAngle; }
-                                    if (scanAngle < minScanAngle) { minScanAngle = scanAngle; }
-                                }
-                                boolean[] scanAngleFilter = new boolean[results.size()];
-                                for (i = 0; i < results.size(); i++) {
-                                    scanAngle = results.get(i).value.scanAngle;
-                                    if ((scanAngle - minScanAngle) < 3) {
-                                        scanAngleFilter[i] = true;
-                                    }
-                                }
-                                
-                                sumWeights = 0;
-                                for (i = 0; i < results.size(); i++) {
-                                    if ((results.get(i).distance > 0) && (results.get(i).distance < maxDist) &&
-                                            scanAngleFilter[i]) {
-                                        dist = Math.pow(Math.sqrt(results.get(i).distance), weight);
-                                        sumWeights += 1 / dist;
-                                    } else if (results.get(i).distance == 0) {
-                                        break;
-                                    }
-                                }
-                                if (sumWeights > 0) {
-                                    z = 0;
-                                    for (i = 0; i < results.size(); i++) {
-                                        if ((results.get(i).distance > 0) && (results.get(i).distance < maxDist) &&
-                                                scanAngleFilter[i]) {
-                                            dist = 1 / Math.pow(Math.sqrt(results.get(i).distance), weight);
-                                            z += (dist * results.get(i).value.value) / sumWeights;
-                                        } else if (results.get(i).distance == 0) {
-                                            z = results.get(i).value.value;
-                                            break;
-                                        }
-                                    }
-                                    image.setValue(row, col, z);
-                                } else {
-                                    image.setValue(row, col, noData);
-                                }
-                            }
-                            if (cancelOp) {
-                                cancelOperation();
-                                return;
-                            }
-                        }
-                    } else { // rgb is being interpolated
-                        double r, g, b;
-                        double zR, zG, zB;
-                        double val;
-                        for (row = 0; row < nrows; row++) {
-                            for (col = 0; col < ncols; col++) {
-                                easting = (col * resolution) + (west + halfResolution);
-                                northing = (north - halfResolution) - (row * resolution);
-                                entry = new double[]{northing, easting};
-                                results = pointsTree.neighborsWithinRange(entry, maxDist);
-                                sumWeights = 0;
-                                for (i = 0; i < results.size(); i++) {
-                                    if ((results.get(i).distance > 0) && (results.get(i).distance < maxDist)) {
-                                        dist = Math.pow(Math.sqrt(results.get(i).distance), weight);
-                                        sumWeights += 1 / dist;
-                                    } else if (results.get(i).distance == 0) {
-                                        break;
-                                    }
-                                }
-                                if (sumWeights > 0) {
-                                    z = 0;
-                                    zR = 0;
-                                    zG = 0;
-                                    zB = 0;
-                                    for (i = 0; i < results.size(); i++) {
-                                        if ((results.get(i).distance > 0) && (results.get(i).distance < maxDist)) {
-                                            val = results.get(i).value.value;
-                                            r = (double) ((int) val & 0xFF);
-                                            g = (double) (((int) val >> 8) & 0xFF);
-                                            b = (double) (((int) val >> 16) & 0xFF);
-
-                                            dist = 1 / Math.pow(Math.sqrt(results.get(i).distance), weight);
-                                            zR += (dist * r) / sumWeights;
-                                            zG += (dist * g) / sumWeights;
-                                            zB += (dist * b) / sumWeights;
-                                        } else if (results.get(i).distance == 0) {
-                                            z = results.get(i).value.value;
-                                            break;
-                                        }
-                                    }
-                                    z = (double) ((255 << 24) | ((int) zB << 16) | ((int) zG << 8) | (int) zR);
-                                    image.setValue(row, col, z);
-                                } else {
-                                    image.setValue(row, col, noData);
-                                }
-                            }
-                            if (cancelOp) {
-                                cancelOperation();
-                                return;
-                            }
-//                            progress = (int) (100f * row / (nrows - 1));
-//                            updateProgress("Interpolating point data:", progress);
-                            
-                        }
-                    }
-                    image.addMetadataEntry("Created by the "
-                            + getDescriptiveName() + " tool.");
-                    image.addMetadataEntry("Created on " + new Date());
-
-                    image.close();
-                    
-                    numCompletedFiles++;
-                    progress = (int) (numCompletedFiles * 100d / numPointFiles);
-                    updateProgress("Loop " + numCompletedFiles + " of " + numPointFiles + ":", progress);
-
+                public boolean progressMade(int percent) {
+                    updateProgress("Interpolating point data:", percent);
+                    return !cancelOp;
                 }
             });
 
-            returnData(pointFiles[0].replace(".las", suffix + ".dep"));
+            String outputHeader;
+            boolean completed;
+            if (createMosaic) {
+                outputHeader = FileUtilities.replaceFileExtension(pointFiles[0], suffix + " mosaic.dep");
+                completed = gridder.gridMosaic(outputHeader, Parallel.getPluginProcessors());
+            } else {
+                outputHeader = FileUtilities.replaceFileExtension(pointFiles[0], suffix + ".dep");
+                completed = gridder.gridTiles(suffix, Parallel.getPluginProcessors());
+            }
+            if (!completed) {
+                cancelOperation();
+                return;
+            }
+
+            returnData(outputHeader);
 
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
@@ -741,26 +370,6 @@ public class LiDAR_IDW_interpolation implements WhiteboxPlugin {
         }
     }
     
-    private class InterpolationRecord {
-        
-        double value;
-        byte scanAngle;
-        
-        InterpolationRecord(double value, byte scanAngle) {
-            this.value = value;
-            this.scanAngle = (byte)Math.abs(scanAngle);
-        }
-        
-        double getValue() {
-            return value;
-        }
-        
-        byte getScanAngle() {
-            return scanAngle;
-        }
-        
-    }
-    
 //    // this is only used for debugging the tool
 //    public static void main(String[] args) {
 //        LiDAR_IDW_interpolation nn = new LiDAR_IDW_interpolation();
@@ -16,19 +16,15 @@
  */
 package plugins;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
 import java.util.Date;
-import java.util.List;
-import whitebox.geospatialfiles.LASReader;
-import whitebox.geospatialfiles.LASReader.PointRecColours;
-import whitebox.geospatialfiles.LASReader.PointRecord;
-import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.algorithms.LidarGridder;
+import whitebox.algorithms.PriorityFlood;
+import whitebox.geospatialfiles.LasPointFilter;
+import whitebox.geospatialfiles.LasTileCache;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.structures.KdTree;
+import whitebox.parallel.Parallel;
+import whitebox.utilities.FileUtilities;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -198,27 +194,7 @@ public class LiDAR_Max_interpolation implements WhiteboxPlugin {
         String inputFilesString = null;
         String[] pointFiles;
         String outputHeader = null;
-        int row, col;
-        int nrows, ncols;
-        double x, y;
-        double z = 0;
-        int a, i;
-        int progress = 0;
-        int numPoints = 0;
-        double maxValue;
-        double minX = Double.POSITIVE_INFINITY;
-        double maxX = Double.NEGATIVE_INFINITY;
-        double minY = Double.POSITIVE_INFINITY;
-        double maxY = Double.NEGATIVE_INFINITY;
-        double north, south, east, west;
         double resolution = 1;
-        String str1 = null;
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        PrintWriter out = null;
-        List<KdTree.Entry<Double>> results;
-        double noData = -32768;
-        double northing, easting;
         String whatToInterpolate = "";
         String returnNumberToInterpolate = "all points";
         String suffix = "";
@@ -256,6 +232,10 @@ public class LiDAR_Max_interpolation implements WhiteboxPlugin {
         //excludeHighPoint = Boolean.parseBoolean(args[14]);
         excludeModelKeyPoint = Boolean.parseBoolean(args[13]);
         excludeWater = Boolean.parseBoolean(args[14]);
+        boolean createMosaic = false;
+        if (args.length > 15) {
+            createMosaic = Boolean.parseBoolean(args[15]);
+        }
         
         
         
@@ -281,297 +261,40 @@ public class LiDAR_Max_interpolation implements WhiteboxPlugin {
             if (excludeWater) { classValuesToExclude[9] = true; }
             
             pointFiles = inputFilesString.split(";");
-            int numPointFiles = pointFiles.length;
-            long numPointsInFile = 0;
-                
-            PointRecord point;
-            PointRecColours pointColours;
-            double[] entry;
-            for (int j = 0; j < numPointFiles; j++) {
-                
-                LASReader las = new LASReader(pointFiles[j]);
-                
-                progress = (int)((j + 1) * 100d / numPointFiles);
-                updateProgress("Loop " + (j + 1) + " of " + numPointFiles + " Reading point data:", progress);
-                
-                numPointsInFile = las.getNumPointRecords();
-                // first count how many valid points there are.
-                numPoints = 0;
-                for (a = 0; a < numPointsInFile; a++) {
-                    point = las.getPointRecord(a);
-                    if (returnNumberToInterpolate.equals("all points")) {
-                        if (!point.isPointWithheld() && 
-                                !(classValuesToExclude[point.getClassification()])) {
-                            numPoints++;
-                        }
-                    } else if (returnNumberToInterpolate.equals("first return")) {
-                        if (!point.isPointWithheld() && 
-                                !(classValuesToExclude[point.getClassification()]) &&
-                                point.getReturnNumber() == 1) {
-                            numPoints++;
-                        }
-                    } else { // if (returnNumberToInterpolate.equals("last return")) {
-                        if (!point.isPointWithheld() && 
-                                !(classValuesToExclude[point.getClassification()]) &&
-                                point.getReturnNumber() == point.getNumberOfReturns()) {
-                            numPoints++;
-                        }
-                    }
-                }
-                
-                // now read the valid points into the k-dimensional tree.
-                
-                minX = Double.POSITIVE_INFINITY;
-                maxX = Double.NEGATIVE_INFINITY;
-                minY = Double.POSITIVE_INFINITY;
-                maxY = Double.NEGATIVE_INFINITY;
-        
-                KdTree<Double> pointsTree = new KdTree.SqrEuclid<Double>(2, new Integer(numPoints));
-            
-                
-                // read the points in
-                if (returnNumberToInterpolate.equals("all points")) {
-                    for (a = 0; a < numPointsInFile; a++) {
-                        point = las.getPointRecord(a);
-                        if (!point.isPointWithheld()
-                                && !(classValuesToExclude[point.getClassification()])) {
-                            x = point.getX();
-                            y = point.getY();
-                            if (whatToInterpolate.equals("z (elevation)")) {
-                                z = point.getZ();
-                            } else if (whatToInterpolate.equals("intensity")) {
-                                z = point.getIntensity();
-                            } else if (whatToInterpolate.equals("classification")) {
-                                z = point.getClassification();
-                            } else if (whatToInterpolate.equals("scan angle")) {
-                                z = point.getScanAngle();
-                            } else if (whatToInterpolate.equals("rgb data")) {
-                                pointColours = las.getPointRecordColours(a);
-                                z = (double)((255 << 24) | (pointColours.getBlue() 
-                                        << 16) | (pointColours.getGreen() << 8) | 
-                                        pointColours.getRed());
-                            }
-                            
-                            entry = new double[]{y, x};
-                            pointsTree.addPoint(entry, z);
-
-                            if (x < minX) {
-                                minX = x;
-                            }
-                            if (x > maxX) {
-                                maxX = x;
-                            }
-                            if (y < minY) {
-                                minY = y;
-                            }
-                            if (y > maxY) {
-                                maxY = y;
-                            }
-                        }
-                        progress = (int) (100d * (a + 1) / numPointsInFile);
-                        if ((progress % 2) == 0) {
-                            updateProgress("Reading point data:", progress);
-                        }
-                    }
-                } else if (returnNumberToInterpolate.equals("first return")) {
-                    for (a = 0; a < numPointsInFile; a++) {
-                        point = las.getPointRecord(a);
-                        if (!point.isPointWithheld()
-                                && !(classValuesToExclude[point.getClassification()]) &&
-                                point.getReturnNumber() == 1) {
-                            x = point.getX();
-                            y = point.getY();
-                            if (whatToInterpolate.equals("z (elevation)")) {
-                                z = point.getZ();
-                            } else if (whatToInterpolate.equals("intensity")) {
-                                z = point.getIntensity();
-                            } else if (whatToInterpolate.equals("classification")) {
-                                z = point.getClassification();
-                            } else if (whatToInterpolate.equals("scan angle")) {
-                                z = point.getScanAngle();
-                            } else if (whatToInterpolate.equals("rgb data")) {
-                                pointColours = las.getPointRecordColours(a);
-                                z = (double)((255 << 24) | (pointColours.getBlue() 
-                                        << 16) | (pointColours.getGreen() << 8) | 
-                                        pointColours.getRed());
-                            }
-                            
-                            entry = new double[]{y, x};
-                            pointsTree.addPoint(entry, z);
 
-                            if (x < minX) {
-                                minX = x;
-                            }
-                            if (x > maxX) {
-                                maxX = x;
-                            }
-                            if (y < minY) {
-                                minY = y;
-                            }
-                            if (y > maxY) {
-                                maxY = y;
-                            }
-                        }
-                        progress = (int) (100d * (a + 1) / numPointsInFile);
-                        if ((progress % 2) == 0) {
-                            updateProgress("Reading point data:", progress);
-                        }
-                    }
-                } else { // if (returnNumberToInterpolate.equals("last return")) {
-                    for (a = 0; a < numPointsInFile; a++) {
-                        point = las.getPointRecord(a);
-                        if (!point.isPointWithheld()
-                                && !(classValuesToExclude[point.getClassification()]) &&
-                                point.getReturnNumber() == point.getNumberOfReturns()) {
-                            x = point.getX();
-                            y = point.getY();
-                            if (whatToInterpolate.equals("z (elevation)")) {
-                                z = point.getZ();
-                            } else if (whatToInterpolate.equals("intensity")) {
-                                z = point.getIntensity();
-                            } else if (whatToInterpolate.equals("classification")) {
-                                z = point.getClassification();
-                            } else if (whatToInterpolate.equals("scan angle")) {
-                                z = point.getScanAngle();
-                            } else if (whatToInterpolate.equals("rgb data")) {
-                                pointColours = las.getPointRecordColours(a);
-                                z = (double)((255 << 24) | (pointColours.getBlue() 
-                                        << 16) | (pointColours.getGreen() << 8) | 
-                                        pointColours.getRed());
-                            }
-                            
-                            entry = new double[]{y, x};
-                            pointsTree.addPoint(entry, z);
-
-                            if (x < minX) {
-                                minX = x;
-                            }
-                            if (x > maxX) {
-                                maxX = x;
-                            }
-                            if (y < minY) {
-                                minY = y;
-                            }
-                            if (y > maxY) {
-                                maxY = y;
-                            }
-                        }
-                        progress = (int) (100d * (a + 1) / numPointsInFile);
-                        if ((progress % 2) == 0) {
-                            updateProgress("Reading point data:", progress);
-                        }
-                    }
-                }
-                
-                outputHeader = pointFiles[j].replace(".las", suffix + ".dep");
-                
-                // see if the output files already exist, and if so, delete them.
-                if ((new File(outputHeader)).exists()) {
-                    (new File(outputHeader)).delete();
-                    (new File(outputHeader.replace(".dep", ".tas"))).delete();
-                }
-            
-                // What are north, south, east, and west and how many rows and 
-                // columns should there be?
-                west = minX - 0.5 * resolution;
-                north = maxY + 0.5 * resolution;
-                nrows = (int)(Math.ceil((north - minY) / resolution));
-                ncols = (int)(Math.ceil((maxX - west) / resolution));
-                south = north - nrows * resolution;
-                east = west + ncols * resolution;
-            
-                // create the whitebox header file.
-                fw = new FileWriter(outputHeader, false);
-                bw = new BufferedWriter(fw);
-                out = new PrintWriter(bw, true);
+            LasPointFilter filter = new LasPointFilter(classValuesToExclude);
+            filter.setReturns(returnNumberToInterpolate);
+            filter.setValueType(whatToInterpolate);
+            LasTileCache tiles = new LasTileCache(pointFiles, filter);
 
-                str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
-                out.println(str1);
-                str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
-                out.println(str1);
-                str1 = "North:\t" + Double.toString(north);
-                out.println(str1);
-                str1 = "South:\t" + Double.toString(south);
-                out.println(str1);
-                str1 = "East:\t" + Double.toString(east);
-                out.println(str1);
-                str1 = "West:\t" + Double.toString(west);
-                out.println(str1);
-                str1 = "Cols:\t" + Integer.toString(ncols);
-                out.println(str1);
-                str1 = "Rows:\t" + Integer.toString(nrows);
-                out.println(str1);
-                str1 = "Data Type:\t" + "float";
-                out.println(str1);
-                str1 = "Z Units:\t" + "not specified";
-                out.println(str1);
-                str1 = "XY Units:\t" + "not specified";
-                out.println(str1);
-                str1 = "Projection:\t" + "not specified";
-                out.println(str1);
-                if (!whatToInterpolate.equals("rgb data")) {
-                   str1 = "Data Scale:\tcontinuous"; 
-                } else {
-                   str1 = "Data Scale:\trgb"; 
+            LidarGridder gridder = new LidarGridder(tiles, new LidarGridder.Extremum(
+                    circleCircumscrbingGridCell, true), resolution);
+            gridder.addMetadataEntry("Created by the "
+                    + getDescriptiveName() + " tool.");
+            gridder.addMetadataEntry("Created on " + new Date());
+            gridder.setProgressListener(new PriorityFlood.ProgressListener() {
+                @Override
+                public boolean progressMade(int percent) {
+                    updateProgress("Interpolating point data:", percent);
+                    return !cancelOp;
                 }
-                out.println(str1);
-                if (whatToInterpolate.equals("rgb data")) {
-                    str1 = "Preferred Palette:\t" + "rgb.pal";
-                } else if (whatToInterpolate.equals("intensity")) {
-                    str1 = "Preferred Palette:\t" + "grey.pal";
-                } else {
-                    str1 = "Preferred Palette:\t" + "spectrum.pal";
-                }
-                out.println(str1);
-                str1 = "NoData:\t" + noData;
-                out.println(str1);
-                if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
-                    str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
-                } else {
-                    str1 = "Byte Order:\t" + "BIG_ENDIAN";
-                }
-                out.println(str1);
-
-                out.close();
+            });
 
-                // Create the whitebox raster object.
-                WhiteboxRaster image = new WhiteboxRaster(outputHeader, "rw");
-
-                double halfResolution = resolution / 2;
-                for (row = 0; row < nrows; row++) {
-                    for (col = 0; col < ncols; col++) {
-                        easting = (col * resolution) + (west + halfResolution);
-                        northing = (north - halfResolution) - (row * resolution);
-                        entry = new double[]{northing, easting};
-                        results = pointsTree.neighborsWithinRange(entry, circleCircumscrbingGridCell);
-                        if (!results.isEmpty()) {
-                            maxValue = Float.NEGATIVE_INFINITY;
-                            for (i = 0; i < results.size(); i++) {
-                                z = results.get(i).value;
-                                if (z > maxValue) { maxValue = z; };
-                            }
-                            image.setValue(row, col, maxValue);
-                        } else {
-                            image.setValue(row, col, noData);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (int) (100f * row / (nrows - 1));
-                    updateProgress("Interpolating point data:", progress);
-                }
+            boolean completed;
+            if (createMosaic) {
+                outputHeader = FileUtilities.replaceFileExtension(pointFiles[0], suffix + " mosaic.dep");
+                completed = gridder.gridMosaic(outputHeader, Parallel.getPluginProcessors());
+            } else {
+                outputHeader = FileUtilities.replaceFileExtension(pointFiles[0], suffix + ".dep");
+                completed = gridder.gridTiles(suffix, Parallel.getPluginProcessors());
+            }
+            if (!completed) {
+                cancelOperation();
+                return;
+            }
 
-                image.addMetadataEntry("Created by the "
-                        + getDescriptiveName() + " tool.");
-                image.addMetadataEntry("Created on " + new Date());
+            returnData(outputHeader);
 
-                image.close();
-            }
-            
-            returnData(pointFiles[0].replace(".las", suffix + ".dep"));
-            
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
         } catch (Exception e) {
@@ -16,20 +16,15 @@
  */
 package plugins;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
 import java.util.Date;
-import java.util.List;
-import whitebox.geospatialfiles.LASReader;
-import whitebox.geospatialfiles.LASReader.PointRecColours;
-import whitebox.geospatialfiles.LASReader.PointRecord;
-import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.algorithms.LidarGridder;
+import whitebox.algorithms.PriorityFlood;
+import whitebox.geospatialfiles.LasPointFilter;
+import whitebox.geospatialfiles.LasTileCache;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.structures.KdTree;
-import whitebox.utilities.Parallel;
+import whitebox.parallel.Parallel;
+import whitebox.utilities.FileUtilities;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -199,8 +194,8 @@ public class LiDAR_NN_interpolation implements WhiteboxPlugin {
     boolean[] classValuesToExclude;
     double resolution = 1;
     double maxDist = Double.POSITIVE_INFINITY;
-    int numCompletedFiles = 0;
     double maxAbsScanAngle = 999.0;
+    boolean createMosaic = false;
 
     @Override
     public void run() {
@@ -273,6 +268,9 @@ public class LiDAR_NN_interpolation implements WhiteboxPlugin {
             //excludeHighPoint = Boolean.parseBoolean(args[14]);
             excludeModelKeyPoint = Boolean.parseBoolean(args[15]);
             excludeWater = Boolean.parseBoolean(args[16]);
+            if (args.length > 17) {
+                createMosaic = Boolean.parseBoolean(args[17]);
+            }
 
             // check to see that the inputHeader and outputHeader are not null.
             if ((inputFilesString.length() <= 0)) {
@@ -314,325 +312,41 @@ public class LiDAR_NN_interpolation implements WhiteboxPlugin {
             }
 
             pointFiles = inputFilesString.split(";");
-            //int numPointFiles = pointFiles.length;
-            //long numPointsInFile = 0;
-
-            if (maxDist < Double.POSITIVE_INFINITY) {
-                maxDist = maxDist * maxDist;
-            }
-
-            //PointRecord point;
-            //PointRecColours pointColours;
-            //double[] entry;
-            //for (int j = 0; j < numPointFiles; j++) {
-            Parallel.For(0, pointFiles.length, 1, new Parallel.LoopBody<Integer>() {
 
+            LasPointFilter filter = new LasPointFilter(classValuesToExclude);
+            filter.setReturns(returnNumberToInterpolate);
+            filter.setValueType(whatToInterpolate);
+            filter.setMaxAbsScanAngle(maxAbsScanAngle);
+            LasTileCache tiles = new LasTileCache(pointFiles, filter);
+
+            LidarGridder gridder = new LidarGridder(tiles,
+                    new LidarGridder.NearestNeighbour(maxDist), resolution);
+            gridder.addMetadataEntry("Created by the "
+                    + getDescriptiveName() + " tool.");
+            gridder.addMetadataEntry("Created on " + new Date());
+            gridder.setProgressListener(new PriorityFlood.ProgressListener() {
                 @Override
-                public void run(Integer j) {
-                    int row, col;
-                    int nrows, ncols;
-                    double x, y;
-                    double z = 0;
-                    int a, i;
-                    int progress = 0;
-                    int numPoints = 0;
-                    int numPointFiles = pointFiles.length;
-                    double north, south, east, west;
-                    String str1;
-                    PointRecord point;
-                    PointRecColours pointColours;
-                    double[] entry;
-                    double northing, easting;
-                    double noData = -32768;
-                    FileWriter fw = null;
-                    BufferedWriter bw = null;
-                    PrintWriter out = null;
-                    List<KdTree.Entry<Double>> results;
-
-                    LASReader las = new LASReader(pointFiles[j]);
-
-                    long numPointsInFile = las.getNumPointRecords();
-                    // first count how many valid points there are.
-                    numPoints = 0;
-                    for (a = 0; a < numPointsInFile; a++) {
-                        point = las.getPointRecord(a);
-                        if (returnNumberToInterpolate.equals("all points")) {
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()])
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle) {
-                                numPoints++;
-                            }
-                        } else if (returnNumberToInterpolate.equals("first return")) {
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()]
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle)
-                                    && point.getReturnNumber() == 1) {
-                                numPoints++;
-                            }
-                        } else { // if (returnNumberToInterpolate.equals("last return")) {
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()]
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle)
-                                    && point.getReturnNumber() == point.getNumberOfReturns()) {
-                                numPoints++;
-                            }
-                        }
-                    }
-
-                    // now read the valid points into the k-dimensional tree.
-                    double minX = Double.POSITIVE_INFINITY;
-                    double maxX = Double.NEGATIVE_INFINITY;
-                    double minY = Double.POSITIVE_INFINITY;
-                    double maxY = Double.NEGATIVE_INFINITY;
-
-                    KdTree<Double> pointsTree = new KdTree.SqrEuclid<>(2, new Integer(numPoints));
-
-                    // read the points in
-                    if (returnNumberToInterpolate.equals("all points")) {
-                        for (a = 0; a < numPointsInFile; a++) {
-                            point = las.getPointRecord(a);
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()])
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle) {
-                                x = point.getX();
-                                y = point.getY();
-                                if (whatToInterpolate.equals("z (elevation)")) {
-                                    z = point.getZ();
-                                } else if (whatToInterpolate.equals("intensity")) {
-                                    z = point.getIntensity();
-                                } else if (whatToInterpolate.equals("classification")) {
-                                    z = point.getClassification();
-                                } else if (whatToInterpolate.equals("scan angle")) {
-                                    z = point.getScanAngle();
-                                } else if (whatToInterpolate.equals("rgb data")) {
-                                    pointColours = las.getPointRecordColours(a);
-                                    z = (double) ((255 << 24) | (pointColours.getBlue()
-                                            << 16) | (pointColours.getGreen() << 8)
-                                            | pointColours.getRed());
-                                }
-
-                                entry = new double[]{y, x};
-                                pointsTree.addPoint(entry, z);
-
-                                if (x < minX) {
-                                    minX = x;
-                                }
-                                if (x > maxX) {
-                                    maxX = x;
-                                }
-                                if (y < minY) {
-                                    minY = y;
-                                }
-                                if (y > maxY) {
-                                    maxY = y;
-                                }
-                            }
-//                        progress = (int) (100d * (a + 1) / numPointsInFile);
-//                        if ((progress % 2) == 0) {
-//                            updateProgress("Reading point data:", progress);
-//                        }
-                        }
-                    } else if (returnNumberToInterpolate.equals("first return")) {
-                        for (a = 0; a < numPointsInFile; a++) {
-                            point = las.getPointRecord(a);
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()]
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle)
-                                    && point.getReturnNumber() == 1) {
-                                x = point.getX();
-                                y = point.getY();
-                                if (whatToInterpolate.equals("z (elevation)")) {
-                                    z = point.getZ();
-                                } else if (whatToInterpolate.equals("intensity")) {
-                                    z = point.getIntensity();
-                                } else if (whatToInterpolate.equals("classification")) {
-                                    z = point.getClassification();
-                                } else if (whatToInterpolate.equals("scan angle")) {
-                                    z = point.getScanAngle();
-                                } else if (whatToInterpolate.equals("rgb data")) {
-                                    pointColours = las.getPointRecordColours(a);
-                                    z = (double) ((255 << 24) | (pointColours.getBlue()
-                                            << 16) | (pointColours.getGreen() << 8)
-                                            | pointColours.getRed());
-                                }
-
-                                entry = new double[]{y, x};
-                                pointsTree.addPoint(entry, z);
-
-                                if (x < minX) {
-                                    minX = x;
-                                }
-                                if (x > maxX) {
-                                    maxX = x;
-                                }
-                                if (y < minY) {
-                                    minY = y;
-                                }
-                                if (y > maxY) {
-                                    maxY = y;
-                                }
-                            }
-//                        progress = (int) (100d * (a + 1) / numPointsInFile);
-//                        if ((progress % 2) == 0) {
-//                            updateProgress("Reading point data:", progress);
-//                        }
-                        }
-                    } else { // if (returnNumberToInterpolate.equals("last return")) {
-                        for (a = 0; a < numPointsInFile; a++) {
-                            point = las.getPointRecord(a);
-                            if (!point.isPointWithheld()
-                                    && !(classValuesToExclude[point.getClassification()])
-                                    && point.getReturnNumber() == point.getNumberOfReturns()
-                                    && Math.abs(point.getScanAngle()) <= maxAbsScanAngle) {
-                                x = point.getX();
-                                y = point.getY();
-                                if (whatToInterpolate.equals("z (elevation)")) {
-                                    z = point.getZ();
-                                } else if (whatToInterpolate.equals("intensity")) {
-                                    z = point.getIntensity();
-                                } else if (whatToInterpolate.equals("classification")) {
-                                    z = point.getClassification();
-                                } else if (whatToInterpolate.equals("scan angle")) {
-                                    z = point.getScanAngle();
-                                } else if (whatToInterpolate.equals("rgb data")) {
-                                    pointColours = las.getPointRecordColours(a);
-                                    z = (double) ((255 << 24) | (pointColours.getBlue()
-                                            << 16) | (pointColours.getGreen() << 8)
-                                            | pointColours.getRed());
-                                }
-
-                                entry = new double[]{y, x};
-                                pointsTree.addPoint(entry, z);
-
-                                if (x < minX) {
-                                    minX = x;
-                                }
-                                if (x > maxX) {
-                                    maxX = x;
-                                }
-                                if (y < minY) {
-                                    minY = y;
-                                }
-                                if (y > maxY) {
-                                    maxY = y;
-                                }
-                            }
-                        }
-                    }
-
-                    String outputHeader = pointFiles[j].replace(".las", suffix + ".dep");
-
-                    // see if the output files already exist, and if so, delete them.
-                    if ((new File(outputHeader)).exists()) {
-                        (new File(outputHeader)).delete();
-                        (new File(outputHeader.replace(".dep", ".tas"))).delete();
-                    }
-
-                    // What are north, south, east, and west and how many rows and 
-                    // columns should there be?
-                    west = minX - 0.5 * resolution;
-                    north = maxY + 0.5 * resolution;
-                    nrows = (int) (Math.ceil((north - minY) / resolution));
-                    ncols = (int) (Math.ceil((maxX - west) / resolution));
-                    south = north - nrows * resolution;
-                    east = west + ncols * resolution;
-
-                    try {
-
-                        // create the whitebox header file.
-                        fw = new FileWriter(outputHeader, false);
-                        bw = new BufferedWriter(fw);
-                        out = new PrintWriter(bw, true);
-
-                        str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
-                        out.println(str1);
-                        str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
-                        out.println(str1);
-                        str1 = "North:\t" + Double.toString(north);
-                        out.println(str1);
-                        str1 = "South:\t" + Double.toString(south);
-                        out.println(str1);
-                        str1 = "East:\t" + Double.toString(east);
-                        out.println(str1);
-                        str1 = "West:\t" + Double.toString(west);
-                        out.println(str1);
-                        str1 = "Cols:\t" + Integer.toString(ncols);
-                        out.println(str1);
-                        str1 = "Rows:\t" + Integer.toString(nrows);
-                        out.println(str1);
-                        str1 = "Data Type:\t" + "float";
-                        out.println(str1);
-                        str1 = "Z Units:\t" + "not specified";
-                        out.println(str1);
-                        str1 = "XY Units:\t" + "not specified";
-                        out.println(str1);
-                        str1 = "Projection:\t" + "not specified";
-                        out.println(str1);
-                        if (!whatToInterpolate.equals("rgb data")) {
-                            str1 = "Data Scale:\tcontinuous";
-                        } else {
-                            str1 = "Data Scale:\trgb";
-                        }
-                        out.println(str1);
-                        if (whatToInterpolate.equals("rgb data")) {
-                            str1 = "Preferred Palette:\t" + "rgb.pal";
-                        } else if (whatToInterpolate.equals("intensity")) {
-                            str1 = "Preferred Palette:\t" + "grey.pal";
-                        } else {
-                            str1 = "Preferred Palette:\t" + "spectrum.pal";
-                        }
-                        out.println(str1);
-                        str1 = "NoData:\t" + noData;
-                        out.println(str1);
-                        if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
-                            str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
-                        } else {
-                            str1 = "Byte Order:\t" + "BIG_ENDIAN";
-                        }
-                        out.println(str1);
-
-                        out.close();
-                    } catch (Exception e) {
-                        showFeedback(e.getMessage());
-                    }
-
-                    // Create the whitebox raster object.
-                    WhiteboxRaster image = new WhiteboxRaster(outputHeader, "rw");
-
-                    double halfResolution = resolution / 2;
-                    for (row = 0; row < nrows; row++) {
-                        for (col = 0; col < ncols; col++) {
-                            easting = (col * resolution) + (west + halfResolution);
-                            northing = (north - halfResolution) - (row * resolution);
-                            entry = new double[]{northing, easting};
-                            results = pointsTree.nearestNeighbor(entry, 1, true);
-                            if (results.get(0).distance < maxDist) {
-                                z = results.get(0).value;
-                                image.setValue(row, col, z);
-                            } else {
-                                image.setValue(row, col, noData);
-                            }
-                        }
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                    }
-
-                    image.addMetadataEntry("Created by the "
-                            + getDescriptiveName() + " tool.");
-                    image.addMetadataEntry("Created on " + new Date());
-
-                    image.close();
-
-                    numCompletedFiles++;
-                    progress = (int) (numCompletedFiles * 100d / numPointFiles);
-                    updateProgress("Loop " + numCompletedFiles + " of " + numPointFiles + ":", progress);
-
+                public boolean progressMade(int percent) {
+                    updateProgress("Interpolating point data:", percent);
+                    return !cancelOp;
                 }
             });
 
-            returnData(pointFiles[0].replace(".las", suffix + ".dep"));
+            String outputHeader;
+            boolean completed;
+            if (createMosaic) {
+                outputHeader = FileUtilities.replaceFileExtension(pointFiles[0], suffix + " mosaic.dep");
+                completed = gridder.gridMosaic(outputHeader, Parallel.getPluginProcessors());
+            } else {
+                outputHeader = FileUtilities.replaceFileExtension(pointFiles[0], suffix + ".dep");
+                completed = gridder.gridTiles(suffix, Parallel.getPluginProcessors());
+            }
+            if (!completed) {
+                cancelOperation();
+                return;
+            }
+
+            returnData(outputHeader);
 
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
@@ -20,7 +20,7 @@ import java.util.Date;
 import java.util.List;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.LASReader;
-import whitebox.geospatialfiles.LASReader.PointRecord;
+import whitebox.geospatialfiles.LasColumnReader;
 import whitebox.interfaces.WhiteboxPluginHost;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.structures.KdTree;
@@ -281,8 +281,13 @@ public class LiDAR_PointDensity implements WhiteboxPlugin {
             long numPointsInFile = 0;
             maxDist = (resolution * 2) * (resolution * 2); // actually squared
             
-            PointRecord point;
             double[] entry;
+            int returnFilter = 0; // all points
+            if (returnNumberToInterpolate.equals("first return")) {
+                returnFilter = 1;
+            } else if (!returnNumberToInterpolate.equals("all points")) {
+                returnFilter = 2; // last return
+            }
             for (int j = 0; j < numPointFiles; j++) {
                 
                 LASReader las = new LASReader(pointFiles[j]);
@@ -291,134 +296,64 @@ public class LiDAR_PointDensity implements WhiteboxPlugin {
                 updateProgress("Loop " + (j + 1) + " of " + numPointFiles + " Reading point data:", progress);
                 
                 numPointsInFile = las.getNumPointRecords();
-                // first count how many valid points there are.
-                numPoints = 0;
-                for (a = 0; a < las.getNumPointRecords(); a++) {
-                    point = las.getPointRecord(a);
-                    if (returnNumberToInterpolate.equals("all points")) {
-                        if (!point.isPointWithheld() && 
-                                !(classValuesToExclude[point.getClassification()])) {
-                            numPoints++;
-                        }
-                    } else if (returnNumberToInterpolate.equals("first return")) {
-                        if (!point.isPointWithheld() && 
-                                !(classValuesToExclude[point.getClassification()]) &&
-                                point.getReturnNumber() == 1) {
-                            numPoints++;
-                        }
-                    } else { // if (returnNumberToInterpolate.equals("last return")) {
-                        if (!point.isPointWithheld() && 
-                                !(classValuesToExclude[point.getClassification()]) &&
-                                point.getReturnNumber() == point.getNumberOfReturns()) {
-                            numPoints++;
-                        }
-                    }
-                }
-                
-                // now read the valid points into the k-dimensional tree.
                 
+                // read the valid points into the k-dimensional tree, decoding
+                // only the attributes that are needed.
                 minX = Double.POSITIVE_INFINITY;
                 maxX = Double.NEGATIVE_INFINITY;
                 minY = Double.POSITIVE_INFINITY;
                 maxY = Double.NEGATIVE_INFINITY;
         
-                KdTree<Double> pointsTree = new KdTree.SqrEuclid<Double>(2, new Integer(numPoints));
-            
+                KdTree<Double> pointsTree = new KdTree.SqrEuclid<Double>(2, null);
+                numPoints = 0;
                 
-                // read the points in
-                if (returnNumberToInterpolate.equals("all points")) {
-                    for (a = 0; a < numPointsInFile; a++) {
-                        point = las.getPointRecord(a);
-                        if (!point.isPointWithheld()
-                                && !(classValuesToExclude[point.getClassification()])) {
-                            x = point.getX();
-                            y = point.getY();
-                            z = point.getZ();
-                            
-                            entry = new double[]{y, x};
-                            pointsTree.addPoint(entry, z);
-
-                            if (x < minX) {
-                                minX = x;
-                            }
-                            if (x > maxX) {
-                                maxX = x;
-                            }
-                            if (y < minY) {
-                                minY = y;
-                            }
-                            if (y > maxY) {
-                                maxY = y;
-                            }
+                LasColumnReader reader = new LasColumnReader(las, LasColumnReader.X 
+                        | LasColumnReader.Y | LasColumnReader.Z 
+                        | LasColumnReader.CLASSIFICATION | LasColumnReader.FLAGS
+                        | LasColumnReader.RETURN_NUMBER | LasColumnReader.NUMBER_OF_RETURNS);
+                LasColumnReader.Chunk chunk = reader.createChunk(65536);
+                while (reader.next(chunk)) {
+                    double[] xs = chunk.getX();
+                    double[] ys = chunk.getY();
+                    double[] zs = chunk.getZ();
+                    byte[] classes = chunk.getClassifications();
+                    byte[] returnNumbers = chunk.getReturnNumbers();
+                    byte[] numbersOfReturns = chunk.getNumbersOfReturns();
+                    for (a = 0; a < chunk.size(); a++) {
+                        if (chunk.isPointWithheld(a) || classValuesToExclude[classes[a]]) {
+                            continue;
                         }
-                        progress = (int) (100d * (a + 1) / numPointsInFile);
-                        if ((progress % 2) == 0) {
-                            updateProgress("Reading point data:", progress);
+                        if (returnFilter == 1 && returnNumbers[a] != 1) {
+                            continue;
                         }
-                    }
-                } else if (returnNumberToInterpolate.equals("first return")) {
-                    for (a = 0; a < numPointsInFile; a++) {
-                        point = las.getPointRecord(a);
-                        if (!point.isPointWithheld()
-                                && !(classValuesToExclude[point.getClassification()]) &&
-                                point.getReturnNumber() == 1) {
-                            x = point.getX();
-                            y = point.getY();
-                            z = point.getZ();
-                            
-                            entry = new double[]{y, x};
-                            pointsTree.addPoint(entry, z);
+                        if (returnFilter == 2 && returnNumbers[a] != numbersOfReturns[a]) {
+                            continue;
+                        }
+                        x = xs[a];
+                        y = ys[a];
+                        z = zs[a];
 
-                            if (x < minX) {
-                                minX = x;
-                            }
-                            if (x > maxX) {
-                                maxX = x;
-                            }
-                            if (y < minY) {
-                                minY = y;
-                            }
-                            if (y > maxY) {
-                                maxY = y;
-                            }
+                        entry = new double[]{y, x};
+                        pointsTree.addPoint(entry, z);
+                        numPoints++;
+
+                        if (x < minX) {
+                            minX = x;
                         }
-                        progress = (int) (100d * (a + 1) / numPointsInFile);
-                        if ((progress % 2) == 0) {
-                            updateProgress("Reading point data:", progress);
+                        if (x > maxX) {
+                            maxX = x;
                         }
-                    }
-                } else { // if (returnNumberToInterpolate.equals("last return")) {
-                    for (a = 0; a < numPointsInFile; a++) {
-                        point = las.getPointRecord(a);
-                        if (!point.isPointWithheld()
-                                && !(classValuesToExclude[point.getClassification()]) &&
-                                point.getReturnNumber() == point.getNumberOfReturns()) {
-                            x = point.getX();
-                            y = point.getY();
-                            z = point.getZ();
-                            
-                            entry = new double[]{y, x};
-                            pointsTree.addPoint(entry, z);
-
-                            if (x < minX) {
-                                minX = x;
-                            }
-                            if (x > maxX) {
-                                maxX = x;
-                            }
-                            if (y < minY) {
-                                minY = y;
-                            }
-                            if (y > maxY) {
-                                maxY = y;
-                            }
+                        if (y < minY) {
+                            minY = y;
                         }
-                        progress = (int) (100d * (a + 1) / numPointsInFile);
-                        if ((progress % 2) == 0) {
-                            updateProgress("Reading point data:", progress);
+                        if (y > maxY) {
+                            maxY = y;
                         }
                     }
+                    progress = (int) (100d * (chunk.getFirstPoint() + chunk.size()) / numPointsInFile);
+                    updateProgress("Reading point data:", progress);
                 }
+                reader.close();
                 
                 outputHeader = pointFiles[j].replace(".las", suffix + ".dep");
                 
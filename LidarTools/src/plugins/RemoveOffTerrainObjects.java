@@ -17,12 +17,11 @@
 package plugins;
 
 import java.io.File;
-import java.util.List;
 import java.util.PriorityQueue;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.structures.KdTree;
+import whitebox.structures.StaticKdTree;
 import whitebox.utilities.FileUtilities;
 
 /**
@@ -838,31 +837,38 @@ public class RemoveOffTerrainObjects implements WhiteboxPlugin {
                     }
                 }
 
-                KdTree<Double> tree = new KdTree.SqrEuclid<Double>(2, numEdges);
-
+                double[] coordinates = new double[2 * numEdges];
+                double[] edgeValues = new double[numEdges];
+                int numTreePoints = 0;
                 for (row = 0; row < OTOMaxSize; row++) {
                     for (col = 0; col < OTOMaxSize; col++) {
                         if (modifiedCells[row][col] == 3) {
-                            double[] entry = {row, col};
-                            tree.addPoint(entry, input[row + 1][col + 1]);
+                            coordinates[2 * numTreePoints] = row;
+                            coordinates[2 * numTreePoints + 1] = col;
+                            edgeValues[numTreePoints] = input[row + 1][col + 1];
+                            numTreePoints++;
                         }
                     }
                 }
+                StaticKdTree tree = new StaticKdTree(2, numTreePoints, coordinates, null);
 
-                List<KdTree.Entry<Double>> results;
+                StaticKdTree.Neighbours neighbours = new StaticKdTree.Neighbours(6);
+                double[] location = new double[2];
+                int numFound;
                 double sumWeights;
                 for (row = 0; row < OTOMaxSize; row++) {
                     for (col = 0; col < OTOMaxSize; col++) {
                         if (modifiedCells[row][col] == 1) {
-                            double[] entry = {row, col};
-                            results = tree.nearestNeighbor(entry, 6, true);
+                            location[0] = row;
+                            location[1] = col;
+                            numFound = tree.findNearest(location, 6, neighbours);
                             sumWeights = 0;
-                            for (i = 0; i < results.size(); i++) {
-                                sumWeights += 1 / (results.get(i).distance);
+                            for (i = 0; i < numFound; i++) {
+                                sumWeights += 1 / (neighbours.getSqrDistance(i));
                             }
                             z = 0;
-                            for (i = 0; i < results.size(); i++) {
-                                z += (1 / (results.get(i).distance)) / sumWeights * results.get(i).value;
+                            for (i = 0; i < numFound; i++) {
+                                z += (1 / (neighbours.getSqrDistance(i))) / sumWeights * edgeValues[neighbours.getValue(i)];
                             }
                             input[row + 1][col + 1] = z;
                         }
@@ -1042,28 +1048,33 @@ public class RemoveOffTerrainObjects implements WhiteboxPlugin {
 
                 }
 
-                KdTree<Double> tree = new KdTree.SqrEuclid<Double>(1, numEdges);
-
+                double[] coordinates = new double[numEdges];
+                double[] edgeValues = new double[numEdges];
+                int numTreePoints = 0;
                 for (row = 0; row < OTOMaxSize; row++) {
                     if (modifiedCells[row] == 3) {
-                        double[] entry = {row};
-                        tree.addPoint(entry, input[row + 1]);
+                        coordinates[numTreePoints] = row;
+                        edgeValues[numTreePoints] = input[row + 1];
+                        numTreePoints++;
                     }
                 }
+                StaticKdTree tree = new StaticKdTree(1, numTreePoints, coordinates, null);
 
-                List<KdTree.Entry<Double>> results;
+                StaticKdTree.Neighbours neighbours = new StaticKdTree.Neighbours(2);
+                double[] location = new double[1];
+                int numFound;
                 double sumWeights;
                 for (row = 0; row < OTOMaxSize; row++) {
                     if (modifiedCells[row] == 1) {
-                        double[] entry = {row};
-                        results = tree.nearestNeighbor(entry, 2, true);
+                        location[0] = row;
+                        numFound = tree.findNearest(location, 2, neighbours);
                         sumWeights = 0;
-                        for (i = 0; i < results.size(); i++) {
-                            sumWeights += 1 / (results.get(i).distance);
+                        for (i = 0; i < numFound; i++) {
+                            sumWeights += 1 / (neighbours.getSqrDistance(i));
                         }
                         z = 0;
-                        for (i = 0; i < results.size(); i++) {
-                            z += (1 / (results.get(i).distance)) / sumWeights * results.get(i).value;
+                        for (i = 0; i < numFound; i++) {
+                            z += (1 / (neighbours.getSqrDistance(i))) / sumWeights * edgeValues[neighbours.getValue(i)];
                         }
                         input[row + 1] = z;
                     }
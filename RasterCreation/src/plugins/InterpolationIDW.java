@@ -17,13 +17,12 @@
 package plugins;
 
 import java.util.Date;
-import java.util.List;
 import whitebox.geospatialfiles.ShapeFile;
 import whitebox.geospatialfiles.shapefile.*;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPluginHost;
 import whitebox.interfaces.WhiteboxPlugin;
-import whitebox.structures.KdTree;
+import whitebox.structures.StaticKdTree;
 import java.io.*;
 import whitebox.structures.XYPoint;
 
@@ -218,7 +217,6 @@ public class InterpolationIDW implements WhiteboxPlugin {
         FileWriter fw = null;
         BufferedWriter bw = null;
         PrintWriter out = null;
-        List<KdTree.Entry<Double>> results;
         double sumWeights;
         double noData = -32768;
 
@@ -253,10 +251,6 @@ public class InterpolationIDW implements WhiteboxPlugin {
             pointFiles = inputFilesString.split(";");
             int numPointFiles = pointFiles.length;
 
-            if (maxDist < Double.POSITIVE_INFINITY) {
-                maxDist = maxDist * maxDist;
-            }
-
             updateProgress("Counting the number of points:", 0);
             numPoints = 0;
             for (i = 0; i < numPointFiles; i++) {
@@ -280,7 +274,11 @@ public class InterpolationIDW implements WhiteboxPlugin {
                 numPointsToUse = numPoints;
             }
 
-            KdTree<Double> pointsTree = new KdTree.SqrEuclid<>(2, new Integer(numPoints));
+            // a text file's last line may not end with a newline, in which
+            // case it was not counted.
+            double[] coordinates = new double[2 * (numPoints + numPointFiles)];
+            double[] zValues = new double[numPoints + numPointFiles];
+            int numTreePoints = 0;
 
             nlines = 0;
             for (i = 0; i < numPointFiles; i++) {
@@ -352,8 +350,10 @@ public class InterpolationIDW implements WhiteboxPlugin {
                             for (int p = 0; p < vertices.length; p++) {
                                 x = vertices[p][0];
                                 y = vertices[p][1];
-                                double[] entry = {y, x};
-                                pointsTree.addPoint(entry, z);
+                                coordinates[2 * numTreePoints] = x;
+                                coordinates[2 * numTreePoints + 1] = y;
+                                zValues[numTreePoints] = z;
+                                numTreePoints++;
                                 if (x < minX) {
                                     minX = x;
                                 }
@@ -371,8 +371,10 @@ public class InterpolationIDW implements WhiteboxPlugin {
                             for (int p = 0; p < vertices.length; p++) {
                                 x = vertices[p][0];
                                 y = vertices[p][1];
-                                double[] entry = {y, x};
-                                pointsTree.addPoint(entry, zArray[p]);
+                                coordinates[2 * numTreePoints] = x;
+                                coordinates[2 * numTreePoints + 1] = y;
+                                zValues[numTreePoints] = zArray[p];
+                                numTreePoints++;
                                 if (x < minX) {
                                     minX = x;
                                 }
@@ -390,8 +392,10 @@ public class InterpolationIDW implements WhiteboxPlugin {
                             for (int p = 0; p < vertices.length; p++) {
                                 x = vertices[p][0];
                                 y = vertices[p][1];
-                                double[] entry = {y, x};
-                                pointsTree.addPoint(entry, mArray[p]);
+                                coordinates[2 * numTreePoints] = x;
+                                coordinates[2 * numTreePoints + 1] = y;
+                                zValues[numTreePoints] = mArray[p];
+                                numTreePoints++;
                                 if (x < minX) {
                                     minX = x;
                                 }
@@ -440,8 +444,10 @@ public class InterpolationIDW implements WhiteboxPlugin {
                                 x = Double.parseDouble(str[0]);
                                 y = Double.parseDouble(str[1]);
                                 z = Double.parseDouble(str[2]);
-                                double[] entry = {y, x};
-                                pointsTree.addPoint(entry, z);
+                                coordinates[2 * numTreePoints] = x;
+                                coordinates[2 * numTreePoints + 1] = y;
+                                zValues[numTreePoints] = z;
+                                numTreePoints++;
                                 if (x < minX) {
                                     minX = x;
                                 }
@@ -479,6 +485,9 @@ public class InterpolationIDW implements WhiteboxPlugin {
                 }
             }
 
+            StaticKdTree pointsTree = new StaticKdTree(2, numTreePoints, coordinates, null);
+            coordinates = null;
+
             // What are north, south, east, and west and how many rows and 
             // columns should there be?
 
@@ -539,33 +548,32 @@ public class InterpolationIDW implements WhiteboxPlugin {
             double northing, easting;
             double halfResolution = resolution / 2;
             double dist = 0;
+            int numFound;
+            double[] location = new double[2];
+            StaticKdTree.Neighbours neighbours = new StaticKdTree.Neighbours();
             for (row = 0; row < nrows; row++) {
                 for (col = 0; col < ncols; col++) {
                     easting = (col * resolution) + (west + halfResolution);
                     northing = (north - halfResolution) - (row * resolution);
-                    double[] entry = {northing, easting};
-                    results = pointsTree.neighborsWithinRange(entry, maxDist);
+                    location[0] = easting;
+                    location[1] = northing;
+                    numFound = pointsTree.findWithinRadius(location, maxDist, neighbours);
                     sumWeights = 0;
-                    for (i = 0; i < results.size(); i++) {
-                        if ((results.get(i).distance > 0) && (results.get(i).distance < maxDist)) {
-                            dist = Math.pow(Math.sqrt(results.get(i).distance), weight);
-                            sumWeights += 1 / dist;
-                        } else if (results.get(i).distance == 0) {
+                    z = 0;
+                    for (i = 0; i < numFound; i++) {
+                        dist = neighbours.getSqrDistance(i);
+                        if (dist == 0) {
+                            // the cell centre lies on a point
+                            z = zValues[neighbours.getValue(i)];
+                            sumWeights = 1;
                             break;
                         }
+                        dist = 1 / Math.pow(Math.sqrt(dist), weight);
+                        sumWeights += dist;
+                        z += dist * zValues[neighbours.getValue(i)];
                     }
                     if (sumWeights > 0) {
-                        z = 0;
-                        for (i = 0; i < results.size(); i++) {
-                            if ((results.get(i).distance > 0) && (results.get(i).distance < maxDist)) {
-                                dist = 1 / Math.pow(Math.sqrt(results.get(i).distance), weight);
-                                z += (dist * results.get(i).value) / sumWeights;
-                            } else if (results.get(i).distance == 0) {
-                                z = results.get(i).value;
-                                break;
-                            }
-                        }
-                        image.setValue(row, col, z);
+                        image.setValue(row, col, z / sumWeights);
                     } else {
                         image.setValue(row, col, noData);
                     }
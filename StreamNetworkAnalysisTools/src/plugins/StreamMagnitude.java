@@ -16,10 +16,14 @@
  */
 package plugins;
 
+import java.util.Arrays;
 import java.util.Date;
+import whitebox.algorithms.FlowAccumulator;
+import whitebox.algorithms.PriorityFlood;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.Parallel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -30,9 +34,6 @@ public class StreamMagnitude implements WhiteboxPlugin {
     
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -196,13 +197,9 @@ public class StreamMagnitude implements WhiteboxPlugin {
         String outputHeader = null;
         int row, col, x, y;
         float progress = 0;
-        double z;
         int i, c;
         int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
         int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        boolean flag = false;
-        double flowDir = 0;
                 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -232,121 +229,109 @@ public class StreamMagnitude implements WhiteboxPlugin {
             double noData = streams.getNoDataValue();
             
             WhiteboxRaster pntr = new WhiteboxRaster(pointerHeader, "r");
+            double pntrNoData = pntr.getNoDataValue();
             
             if (pntr.getNumberRows() != rows || pntr.getNumberColumns() != cols) {
                 showFeedback("The input images must be of the same dimensions.");
                 return;
             }
             
-            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
-                    streamsHeader, WhiteboxRaster.DataType.INTEGER, 0);
-            output.setPreferredPalette("spectrum.pal");
-            output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
-            
-            WhiteboxRaster numInflowingStreamCells = new WhiteboxRaster(outputHeader.replace(".dep", "_temp.dep"), "rw", 
-                    streamsHeader, WhiteboxRaster.DataType.INTEGER, noData);
-            numInflowingStreamCells.isTemporaryFile = true;
-            
-            byte numNeighbouringStreamCells = 0;
-            double currentValue = 0;
+            // only stream cells take part in the accumulation.
+            byte[] directions = new byte[rows * cols];
+            double[] magnitude = new double[rows * cols];
+            double[] streamData, pntrData;
+            double flowDir;
             
             updateProgress("Loop 1 of 2:", 0);
+            i = 0;
             for (row = 0; row < rows; row++) {
+                streamData = streams.getRowValues(row);
+                pntrData = pntr.getRowValues(row);
                 for (col = 0; col < cols; col++) {
-                    if (streams.getValue(row, col) > 0) {
-                        // count the number of neighbouring stream cells
-                        numNeighbouringStreamCells = 0;
-                        for (c = 0; c < 8; c++) {
-                            x = col + dX[c];
-                            y = row + dY[c];
-                            if (streams.getValue(y, x) > 0 && 
-                                    pntr.getValue(y, x) == inflowingVals[c]) { 
-                                numNeighbouringStreamCells++; 
+                    if (streamData[col] > 0) {
+                        flowDir = pntrData[col];
+                        if (flowDir > 0 && flowDir != pntrNoData) {
+                            directions[i] = FlowAccumulator.D8Router.getDirection(flowDir, pntrNoData);
+                            if (directions[i] == FlowAccumulator.D8Router.NO_FLOW) {
+                                showFeedback("An unexpected value has "
+                                        + "been identified in the pointer "
+                                        + "image. This tool requires a "
+                                        + "pointer grid that has been "
+                                        + "created using either the D8 "
+                                        + "or Rho8 tools.");
+                                return;
                             }
-                        }
-                        
-                        if (numNeighbouringStreamCells == 0) { // it's a headwater
-                            output.setValue(row, col, 1);
-                            numInflowingStreamCells.setValue(row, col, -1);
                         } else {
-                            output.setValue(row, col, 0); // it's not a headwater
-                            numInflowingStreamCells.setValue(row, col, numNeighbouringStreamCells);
+                            directions[i] = FlowAccumulator.D8Router.NO_FLOW;
                         }
                     } else {
-                        output.setValue(row, col, noData);
+                        directions[i] = FlowAccumulator.D8Router.NODATA;
                     }
+                    i++;
                 }
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (100f * row / (rows - 1));
+                progress = (float) (100f * (row + 1) / rows);
                 updateProgress("Loop 1 of 2:", (int) progress);
             }
             
-            updateProgress("Loop 2 of 2:", 0);
+            // headwaters, which have no inflowing stream cells, have a 
+            // magnitude of one.
+            i = 0;
             for (row = 0; row < rows; row++) {
                 for (col = 0; col < cols; col++) {
-                    if (numInflowingStreamCells.getValue(row, col) == -1) {
-                        //it's a headwater location so start a downstream flowpath
-                        x = col;
-                        y = row;
-                        flag = true;
-                        do {
-                            z = output.getValue(y, x);
-                            //find the downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                c = (int) (Math.log(flowDir) / LnOf2);
-                                if (c > 7) {
-                                    showFeedback("An unexpected value has "
-                                            + "been identified in the pointer "
-                                            + "image. This tool requires a "
-                                            + "pointer grid that has been "
-                                            + "created using either the D8 "
-                                            + "or Rho8 tools.");
-                                    return;
-                                }
-                                x += dX[c];
-                                y += dY[c];
-
-                                if (streams.getValue(y, x) <= 0) { //it's not a stream cell
-                                    flag = false;
-                                } else {
-                                    //update the numInflowingStreamCells grid
-                                    currentValue = numInflowingStreamCells.getValue(y, x) - 1;
-                                    numInflowingStreamCells.setValue(y, x, currentValue);
-                                    if (currentValue > 0) { 
-                                        flag = false; 
-                                    }
-                                    
-                                    //update the output grid
-                                    currentValue = output.getValue(y, x);
-                                    output.setValue(y, x, z + currentValue);
-                                }
-
-                            } else {
-                                flag = false;
+                    if (directions[i] != FlowAccumulator.D8Router.NODATA) {
+                        magnitude[i] = 1;
+                        for (c = 0; c < 8; c++) {
+                            x = col + dX[c];
+                            y = row + dY[c];
+                            if (x >= 0 && x < cols && y >= 0 && y < rows
+                                    && directions[y * cols + x] == (c + 4) % 8) {
+                                magnitude[i] = 0;
+                                break;
                             }
-                        } while (flag);
+                        }
+                    } else {
+                        magnitude[i] = noData;
                     }
+                    i++;
                 }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+            }
+            
+            pntr.close();
+            streams.close();
+            
+            updateProgress("Loop 2 of 2:", 0);
+            FlowAccumulator accumulator = new FlowAccumulator(rows, cols,
+                    new FlowAccumulator.D8Router(directions, cols));
+            accumulator.setProgressListener(new PriorityFlood.ProgressListener() {
+                @Override
+                public boolean progressMade(int percent) {
+                    updateProgress("Loop 2 of 2:", percent);
+                    return !cancelOp;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 2 of 2:", (int) progress);
+            });
+            if (!accumulator.accumulateInParallel(magnitude, Parallel.getPluginProcessors())) {
+                cancelOperation();
+                return;
+            }
+            
+            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
+                    streamsHeader, WhiteboxRaster.DataType.INTEGER, 0);
+            output.setPreferredPalette("spectrum.pal");
+            output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
+            
+            for (row = 0; row < rows; row++) {
+                output.setRowValues(row, Arrays.copyOfRange(magnitude, row * cols, (row + 1) * cols));
             }
 
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
             
-            pntr.close();
-            streams.close();
             output.close();
-            numInflowingStreamCells.close();
 
             // returning a header file string displays the image.
             returnData(outputHeader);
@@ -25,6 +25,11 @@ import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.BandListener;
+import whitebox.parallel.RasterWindow;
+import whitebox.parallel.RowBandExecutor;
+import whitebox.parallel.RowKernel;
+import whitebox.structures.IntegralImage;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -196,22 +201,9 @@ public class DeviationFromMeanElevation implements WhiteboxPlugin {
         String outputHeader = null;
         int row, col, x, y;
         double z;
-        int progress = 0;
-        int a;
         int filterSize = 3;
-        double n;
-        double sum;
-        double average;
-        double sumOfTheSquares;
-        double stdDev;
-        double devMean;
-        int dX[];
-        int dY[];
         int midPoint;
-        int numPixelsInFilter;
-        double[] filterShape;
         boolean reflectAtBorders = true;
-        double centreValue = 0;
         double neighbourhoodDist = 0;
 
         if (args.length <= 0) {
@@ -231,7 +223,7 @@ public class DeviationFromMeanElevation implements WhiteboxPlugin {
 
         try {
 
-            WhiteboxRaster DEM = new WhiteboxRaster(inputHeader, "r");
+            WhiteboxRaster DEM = WhiteboxRaster.openShared(inputHeader);
             DEM.isReflectedAtEdges = reflectAtBorders;
 
             int rows = DEM.getNumberRows();
@@ -252,72 +244,76 @@ public class DeviationFromMeanElevation implements WhiteboxPlugin {
                 filterSize = 3;
             }                
 
-            numPixelsInFilter = filterSize * filterSize;
-            dX = new int[numPixelsInFilter];
-            dY = new int[numPixelsInFilter];
-            filterShape = new double[numPixelsInFilter];
-
-            //fill the filter DX and DY values
+            //find the half-width of each row of the filter. Only those cells
+            //that lie within the largest ellipse that fits in the filter box
+            //are included, and each row is summed from the summed-area table.
             midPoint = (int) Math.floor(filterSize / 2);
-            //see which pixels in the filter lie within the largest ellipse 
-            //that fits in the filter box 
+            final int[] rowHalfWidths = new int[filterSize];
             double aSqr = midPoint * midPoint;
             double bSqr = midPoint * midPoint;
-            a = 0;
             for (row = 0; row < filterSize; row++) {
+                rowHalfWidths[row] = -1;
                 for (col = 0; col < filterSize; col++) {
-                    dX[a] = col - midPoint;
-                    dY[a] = row - midPoint;
-                    z = (dX[a] * dX[a]) / aSqr + (dY[a] * dY[a]) / bSqr;
-                    if (z > 1) {
-                        filterShape[a] = 0;
-                    } else {
-                        filterShape[a] = 1;
+                    x = col - midPoint;
+                    y = row - midPoint;
+                    z = (x * x) / aSqr + (y * y) / bSqr;
+                    if (!(z > 1)) {
+                        rowHalfWidths[row] = Math.max(rowHalfWidths[row], Math.abs(x));
                     }
-                    a++;
                 }
             }
 
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    centreValue = DEM.getValue(row, col);
-                    if (centreValue != noData) {
-                        n = 0;
-                        sum = 0;
-                        sumOfTheSquares = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            if ((x != midPoint) && (y != midPoint)) {
-                                z = DEM.getValue(y, x);
-                                if (z != noData) {
-                                    n += filterShape[a];
-                                    sum += z * filterShape[a];
-                                    sumOfTheSquares += (z * filterShape[a]) * z;
+            RowBandExecutor executor = new RowBandExecutor(DEM, output, midPoint, midPoint);
+            executor.setBandListener(new BandListener() {
+                @Override
+                public boolean bandCompleted(int rowsCompleted, int numberRows) {
+                    updateProgress((int) (100f * rowsCompleted / numberRows));
+                    return !cancelOp;
+                }
+            });
+            boolean completed = executor.execute(new RowKernel() {
+                @Override
+                public void processRow(RasterWindow window, int row, double[] outputRow) {
+                    double[] values = window.getData();
+                    IntegralImage table = window.getIntegralImage();
+                    int r = row - window.getFirstRow();
+                    int i = window.getIndex(row, 0);
+                    for (int col = 0; col < cols; col++, i++) {
+                        double centreValue = values[i];
+                        if (centreValue != noData) {
+                            int c = col + midPoint;
+                            double n = 0;
+                            double sum = 0;
+                            for (int k = 0; k < rowHalfWidths.length; k++) {
+                                int w = rowHalfWidths[k];
+                                if (w >= 0) {
+                                    int y = r + k - midPoint;
+                                    n += table.getCount(y, c - w, y, c + w);
+                                    sum += table.getSum(y, c - w, y, c + w);
                                 }
                             }
-                        }
-                        average = sum / n;
-                        z = centreValue - average;
-
-                        if (n > 2) {
-                            stdDev = Math.sqrt((sumOfTheSquares / n) - (average * average));
-                            devMean = z / stdDev;
-                            output.setValue(row, col, devMean);
 
+                            if (n > 2) {
+                                double average = sum / n;
+                                double stdDev = Math.sqrt(table.getSumOfSquaredDeviations(r, c, rowHalfWidths) / n);
+                                if (stdDev > 0) {
+                                    outputRow[col] = (centreValue - average) / stdDev;
+                                } else {
+                                    // a flat window; the cell doesn't deviate from its mean
+                                    outputRow[col] = 0;
+                                }
+                            } else {
+                                outputRow[col] = noData;
+                            }
                         } else {
-                            output.setValue(row, col, noData);
+                            outputRow[col] = noData;
                         }
-                    } else {
-                        output.setValue(row, col, noData);
                     }
                 }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (int) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             output.addMetadataEntry("Created by the "
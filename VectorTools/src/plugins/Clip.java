@@ -16,27 +16,16 @@
  */
 package plugins;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
-import java.util.concurrent.atomic.AtomicInteger;
-//import com.vividsolutions.jts.geom.prep.PreparedPolygon;
-//import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
-import java.util.concurrent.*;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.io.IOException;
+import whitebox.algorithms.PriorityFlood;
+import whitebox.algorithms.VectorOverlay;
 import whitebox.geospatialfiles.ShapeFile;
+import whitebox.geospatialfiles.shapefile.Geometry;
 import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
-import whitebox.geospatialfiles.shapefile.PointsList;
-import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
 import whitebox.geospatialfiles.shapefile.ShapeType;
-import whitebox.geospatialfiles.shapefile.ShapefilePoint;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.utilities.Topology;
-import whitebox.structures.BoundingBox;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -48,10 +37,6 @@ public class Clip implements WhiteboxPlugin {
     private WhiteboxPluginHost myHost = null;
     private String[] args;
 
-    private AtomicInteger numSolutions = new AtomicInteger(0);
-    private AtomicInteger oldProgress = new AtomicInteger(-1);
-    private int numFeatures = 0;
-
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
      * containing no spaces.
@@ -214,15 +199,6 @@ public class Clip implements WhiteboxPlugin {
 
         amIActive = true;
         try {
-            int i, j, progress, oldProgress;
-            //whitebox.geospatialfiles.shapefile.Geometry wbGeometry;
-            ShapeFileRecord rec;
-            com.vividsolutions.jts.geom.Geometry jtsGeom; //, outputGeom;
-            com.vividsolutions.jts.geom.Geometry[] geomArray;
-            List<com.vividsolutions.jts.geom.Geometry> geomList = new ArrayList<>();
-            GeometryFactory factory = new GeometryFactory();
-            //PreparedGeometryFactory prepFactory = new PreparedGeometryFactory();
-
             if (args.length != 3) {
                 showFeedback("Incorrect number of arguments given to tool.");
                 return;
@@ -233,175 +209,44 @@ public class Clip implements WhiteboxPlugin {
             String clipFile = args[1];
             String outputFile = args[2];
 
-            ShapeFile input = new ShapeFile(inputFile);
+            ShapeFile input = new ShapeFile(inputFile, false);
             ShapeType shapeType = input.getShapeType().getBaseType();
 
-            ShapeFile clipRegion = new ShapeFile(clipFile);
+            ShapeFile clipRegion = new ShapeFile(clipFile, false);
             if (clipRegion.getShapeType().getBaseType() != ShapeType.POLYGON) {
                 showFeedback("The input clip shapefile must be of a POLYGON base ShapeType.");
                 return;
             }
 
-            numFeatures = input.getNumberOfRecords();
-            AttributeTable table = input.getAttributeTable();
+            final AttributeTable table = input.getAttributeTable();
             DBFField[] fields = table.getAllFields();
-            ShapeFile output = new ShapeFile(outputFile, shapeType, fields);
+            final ShapeFile output = new ShapeFile(outputFile, shapeType, fields);
             output.setProjectionStringFromOtherShapefile(input);
 
-            int numClipFeatures = clipRegion.getNumberOfRecords();
-
-            BoundingBox[] clipBoxes = new BoundingBox[numClipFeatures];
-            for (i = 0; i < numClipFeatures; i++) {
-                rec = clipRegion.getRecord(i);
-                clipBoxes[i] = rec.getGeometry().getBox();
-                geomArray = rec.getGeometry().getJTSGeometries();
-                for (int k = 0; k < geomArray.length; k++) {
-                    geomList.add(geomArray[k]);
-                }
-            }
-
-            com.vividsolutions.jts.geom.Geometry clipGeom = factory.buildGeometry(geomList);
-            //final PreparedPolygon clipGeom = (PreparedPolygon)PreparedGeometryFactory.prepare(factory.buildGeometry(geomList));
-            if (!clipGeom.isValid()) {
-                // fix the geometry with a buffer(0) as recommended in JTS docs
-                com.vividsolutions.jts.geom.Geometry jtsGeom2 = clipGeom.buffer(0d);
-                clipGeom = (com.vividsolutions.jts.geom.Geometry) jtsGeom2.clone();
-            }
-            ArrayList<DoWork> tasks = new ArrayList<>();
-            int numProcessors = Runtime.getRuntime().availableProcessors();
-            ExecutorService executor = Executors.newFixedThreadPool(numProcessors);
-
-            oldProgress = -1;
-            for (i = 0; i < numFeatures; i++) {
-                rec = input.getRecord(i);
-                BoundingBox box = rec.getGeometry().getBox();
-                boolean isContained = false;
-                for (j = 0; j < numClipFeatures; j++) {
-                    if (clipBoxes[j].overlaps(box)) {
-                        isContained = true;
-                        break;
-                    }
-                }
-                if (isContained) {
-                    geomArray = rec.getGeometry().getJTSGeometries();
-                    geomList.clear();
-                    geomList.addAll(Arrays.asList(geomArray));
-                    jtsGeom = factory.buildGeometry(geomList);
-                    tasks.add(new DoWork(i, jtsGeom, clipGeom, shapeType));
-//                    if (!jtsGeom.isValid()) {
-//                        // fix the geometry with a buffer(0) as recommended in JTS docs
-//                        com.vividsolutions.jts.geom.Geometry jtsGeom2 = jtsGeom.buffer(0d);
-//                        jtsGeom = (com.vividsolutions.jts.geom.Geometry) jtsGeom2.clone();
-//                    }
-//                    outputGeom = clipGeom.intersection(jtsGeom);
-//                    int numGeometries = outputGeom.getNumGeometries();
-//
-//                    if (outputGeom.getNumPoints() > 0) {
-//                        for (int a = 0; a < numGeometries; a++) {
-//                            com.vividsolutions.jts.geom.Geometry gN = outputGeom.getGeometryN(a);
-//
-//                            if (shapeType == ShapeType.POLYGON) {
-//                                com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) gN;
-//                                ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-//
-//                                int[] parts = new int[p.getNumInteriorRing() + 1];
-//
-//                                Coordinate[] coords = p.getExteriorRing().getCoordinates();
-//                                if (!Topology.isClockwisePolygon(coords)) {
-//                                    for (int k = coords.length - 1; k >= 0; k--) {
-//                                        pnts.add(new ShapefilePoint(coords[k].x, coords[k].y));
-//                                    }
-//                                } else {
-//                                    for (int k = 0; k < coords.length; k++) {
-//                                        pnts.add(new ShapefilePoint(coords[k].x, coords[k].y));
-//                                    }
-//                                }
-//
-//                                for (int b = 0; b < p.getNumInteriorRing(); b++) {
-//                                    parts[b + 1] = pnts.size();
-//                                    coords = p.getInteriorRingN(b).getCoordinates();
-//                                    if (Topology.isClockwisePolygon(coords)) {
-//                                        for (int k = coords.length - 1; k >= 0; k--) {
-//                                            pnts.add(new ShapefilePoint(coords[k].x, coords[k].y));
-//                                        }
-//                                    } else {
-//                                        for (int k = 0; k < coords.length; k++) {
-//                                            pnts.add(new ShapefilePoint(coords[k].x, coords[k].y));
-//                                        }
-//                                    }
-//                                }
-//
-//                                PointsList pl = new PointsList(pnts);
-//                                wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-//                            } else if (shapeType == ShapeType.POLYLINE) {
-//                                LineString ls = (LineString) gN;
-//                                ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-//
-//                                int[] parts = {0};
-//
-//                                Coordinate[] coords = ls.getCoordinates();
-//                                for (int k = 0; k < coords.length; k++) {
-//                                    pnts.add(new ShapefilePoint(coords[k].x, coords[k].y));
-//                                }
-//
-//                                PointsList pl = new PointsList(pnts);
-//                                wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-//
-//                            } else { //if (shapeType == ShapeType.POINT) {
-//                                com.vividsolutions.jts.geom.Point p = (com.vividsolutions.jts.geom.Point) gN;
-//                                wbGeometry = new whitebox.geospatialfiles.shapefile.Point(p.getX(), p.getY());
-//
-//                            }
-//
-//                            Object[] rowData = table.getRecord(i);
-//                            output.addRecord(wbGeometry, rowData);
-//                        }
-//                    }
-                }
-
-                progress = (int) (100f * i / (numFeatures - 1));
-                if (progress != oldProgress) {
-                    updateProgress("Loop 1 of 2:", progress);
-                    oldProgress = progress;
-
-                    // check to see if the user has requested a cancellation
-                    if (cancelOp) {
-                        showFeedback("Operation cancelled");
-                        return;
-                    }
+            // each feature is clipped to the clip polygons that it meets,
+            // which are found with the spatial index of the clip layer
+            VectorOverlay clip = new VectorOverlay(input, clipRegion, shapeType);
+            clip.setProgressListener(new PriorityFlood.ProgressListener() {
+                @Override
+                public boolean progressMade(int percent) {
+                    updateProgress("Clipping features:", percent);
+                    return !cancelOp;
                 }
-            }
-
-            //updateProgress("Loop 2 running concurrently; please wait...", 0);
-            List<Future<WorkData>> results = executor.invokeAll(tasks);
-            executor.shutdown();
-
-            oldProgress = -1;
-            i = 0;
-            for (Future<WorkData> result : results) {
-                WorkData data = result.get();
-                int recNum = data.recordNum;
-                List<whitebox.geospatialfiles.shapefile.Geometry> wbGeometries = data.wbGeometries;
-                for (whitebox.geospatialfiles.shapefile.Geometry geom : wbGeometries) {
-                    Object[] rowData = table.getRecord(recNum);
-                    output.addRecord(geom, rowData);
-                }
-                i++;
-                progress = (int) (100f * i / (numFeatures - 1));
-                if (progress != oldProgress) {
-                    updateProgress("Writing Output:", progress);
-                    oldProgress = progress;
-
-                    // check to see if the user has requested a cancellation
-                    if (cancelOp) {
-                        if (!cancelOpMessagePlayed) {
-                            showFeedback("Operation cancelled");
-                        }
-                        return;
-                    }
+            });
+            boolean completed = clip.run(VectorOverlay.Operation.CLIP,
+                    new VectorOverlay.FeatureHandler() {
+                @Override
+                public void addFeature(Geometry geometry, int inputRecord, int overlayRecord) throws IOException {
+                    Object[] rowData = table.getRecord(inputRecord);
+                    output.addRecord(geometry, rowData);
                 }
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
+            updateProgress("Writing Output:", -1);
             output.write();
 
             returnData(outputFile);
@@ -420,135 +265,6 @@ public class Clip implements WhiteboxPlugin {
 
     }
 
-    boolean cancelOpMessagePlayed = false;
-
-    class DoWork implements Callable<WorkData> {
-
-        int recordNum;
-        com.vividsolutions.jts.geom.Geometry jtsGeom;
-        com.vividsolutions.jts.geom.Geometry clipGeom;
-        ShapeType shapeType;
-
-        public DoWork(int recordNum, com.vividsolutions.jts.geom.Geometry jtsGeom,
-                com.vividsolutions.jts.geom.Geometry clipGeom, ShapeType shapeType) {
-            this.recordNum = recordNum;
-            this.jtsGeom = jtsGeom;
-            this.clipGeom = clipGeom;
-            this.shapeType = shapeType;
-        }
-
-        @Override
-        public WorkData call() {
-            WorkData ret = new WorkData(recordNum);
-            if (cancelOp) {
-                if (!cancelOpMessagePlayed) {
-                    showFeedback("Operation cancelled");
-                }
-                cancelOpMessagePlayed = true;
-            } else {
-                whitebox.geospatialfiles.shapefile.Geometry wbGeometry;
-                if (!jtsGeom.isValid()) {
-                    // fix the geometry with a buffer(0) as recommended in JTS docs
-                    com.vividsolutions.jts.geom.Geometry jtsGeom2 = jtsGeom.buffer(0d);
-                    jtsGeom = (com.vividsolutions.jts.geom.Geometry) jtsGeom2.clone();
-                }
-                com.vividsolutions.jts.geom.Geometry outputGeom = clipGeom.intersection(jtsGeom);
-                int numGeometries = outputGeom.getNumGeometries();
-
-                if (outputGeom.getNumPoints() > 0) {
-                    for (int a = 0; a < numGeometries; a++) {
-                        com.vividsolutions.jts.geom.Geometry gN = outputGeom.getGeometryN(a);
-
-                        if (shapeType == ShapeType.POLYGON && gN instanceof com.vividsolutions.jts.geom.Polygon) {
-                            com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) gN;
-                            ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                            int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                            Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                            if (!Topology.isClockwisePolygon(coords)) {
-                                for (int k = coords.length - 1; k >= 0; k--) {
-                                    pnts.add(new ShapefilePoint(coords[k].x, coords[k].y));
-                                }
-                            } else {
-                                for (int k = 0; k < coords.length; k++) {
-                                    pnts.add(new ShapefilePoint(coords[k].x, coords[k].y));
-                                }
-                            }
-
-                            for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                                parts[b + 1] = pnts.size();
-                                coords = p.getInteriorRingN(b).getCoordinates();
-                                if (Topology.isClockwisePolygon(coords)) {
-                                    for (int k = coords.length - 1; k >= 0; k--) {
-                                        pnts.add(new ShapefilePoint(coords[k].x, coords[k].y));
-                                    }
-                                } else {
-                                    for (int k = 0; k < coords.length; k++) {
-                                        pnts.add(new ShapefilePoint(coords[k].x, coords[k].y));
-                                    }
-                                }
-                            }
-
-                            PointsList pl = new PointsList(pnts);
-                            wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-                            ret.addGeometry(wbGeometry);
-                        } else if (shapeType == ShapeType.POLYLINE && gN instanceof LineString) {
-                            LineString ls = (LineString) gN;
-                            ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                            int[] parts = {0};
-
-                            Coordinate[] coords = ls.getCoordinates();
-                            for (int k = 0; k < coords.length; k++) {
-                                pnts.add(new ShapefilePoint(coords[k].x, coords[k].y));
-                            }
-
-                            PointsList pl = new PointsList(pnts);
-                            wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                            ret.addGeometry(wbGeometry);
-                        } else if (shapeType == ShapeType.POINT && gN instanceof com.vividsolutions.jts.geom.Point) { //if (shapeType == ShapeType.POINT) {
-                            com.vividsolutions.jts.geom.Point p = (com.vividsolutions.jts.geom.Point) gN;
-                            wbGeometry = new whitebox.geospatialfiles.shapefile.Point(p.getX(), p.getY());
-                            ret.addGeometry(wbGeometry);
-                        }
-
-                    }
-                }
-            }
-
-            int solved = numSolutions.incrementAndGet();
-            int progress = (int) (100f * solved / (numFeatures - 1));
-            if (progress > oldProgress.intValue()) {
-                updateProgress("Loop 2 of 2:", progress);
-                oldProgress.set(progress);
-            }
-            return ret;
-        }
-    }
-
-    class WorkData {
-
-        List<whitebox.geospatialfiles.shapefile.Geometry> wbGeometries = new ArrayList<>();
-        int recordNum;
-
-        public WorkData(int recordNum) {
-            this.recordNum = recordNum;
-        }
-
-        public int getRecordNum() {
-            return recordNum;
-        }
-
-        public void addGeometry(whitebox.geospatialfiles.shapefile.Geometry wbGeometry) {
-            wbGeometries.add(wbGeometry);
-        }
-
-        public List<whitebox.geospatialfiles.shapefile.Geometry> getGeometries() {
-            return wbGeometries;
-        }
-    }
-
     // This method is only used during testing.
     public static void main(String[] args) {
         args = new String[3];
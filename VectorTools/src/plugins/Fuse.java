@@ -16,24 +16,16 @@
  */
 package plugins;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryCollection;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
-import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import whitebox.algorithms.PriorityFlood;
+import whitebox.algorithms.VectorOverlay;
 import whitebox.geospatialfiles.ShapeFile;
+import whitebox.geospatialfiles.shapefile.Geometry;
+import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
-import whitebox.geospatialfiles.shapefile.attributes.DBFWriter;
-import whitebox.geospatialfiles.shapefile.PointsList;
-import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
 import whitebox.geospatialfiles.shapefile.ShapeType;
-import whitebox.geospatialfiles.shapefile.ShapefilePoint;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.utilities.Topology;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -197,716 +189,133 @@ public class Fuse implements WhiteboxPlugin {
 
     @Override
     public void run() {
-
+        
         amIActive = true;
         String[] shapefiles = new String[2];
         String outputFile;
-        int progress;
-        int i, n, FID;
-        int oneHundredthTotal;
-        int numRecs;
-        ShapeType shapeType;
         ShapeType outputShapeType = ShapeType.POLYGON;
-        GeometryFactory factory = new GeometryFactory();
-        com.vividsolutions.jts.geom.Geometry g1 = null;
-        com.vividsolutions.jts.geom.Geometry g2 = null;
-
+            
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
             return;
         }
-
+        
         shapefiles[0] = args[0];
         shapefiles[1] = args[1];
         outputFile = args[2];
-
+        
         // check to see that the inputHeader and outputHeader are not null.
         if ((shapefiles[0].length() <= 0) || (shapefiles[1].length() <= 0) || (outputFile == null)) {
             showFeedback("One or more of the input parameters have not been set properly.");
             return;
         }
-
+        
         try {
-
-            com.vividsolutions.jts.geom.Geometry[] recJTSGeometries = null;
-            ArrayList<com.vividsolutions.jts.geom.Geometry> inputGeometryList =
-                    new ArrayList<>();
-            com.vividsolutions.jts.geom.Geometry outputGeometry = null;
-
-
-            ShapeFile input1 = new ShapeFile(shapefiles[0]);
-            shapeType = input1.getShapeType();
-            numRecs = input1.getNumberOfRecords();
-
-            if (shapeType.getBaseType() == ShapeType.POINT
-                    || shapeType.getBaseType() == ShapeType.MULTIPOINT) {
-                outputShapeType = ShapeType.POINT;
-            } else if (shapeType.getBaseType() == ShapeType.POLYLINE
-                    && outputShapeType == ShapeType.POLYGON) {
-                outputShapeType = ShapeType.POLYLINE;
-            }
-
-            oneHundredthTotal = numRecs / 100;
-            progress = 0;
-            n = 0;
-            for (ShapeFileRecord record : input1.records) {
-                if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                    recJTSGeometries = record.getGeometry().getJTSGeometries();
-                    for (int a = 0; a < recJTSGeometries.length; a++) {
-                        recJTSGeometries[a].setUserData(record.getRecordNumber());
-                        if (recJTSGeometries[a].isValid()) {
-                            inputGeometryList.add(recJTSGeometries[a]);
-                        } else {
-                            System.out.println(record.getRecordNumber() + " is invalid.");
-                        }
-                    }
-                }
-                n++;
-                if (n >= oneHundredthTotal) {
-                    n = 0;
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress++;
-                    updateProgress("Loop 1 of " + 2 + ": Reading data:", progress);
+            
+            ShapeFile[] inputs = new ShapeFile[2];
+            ShapeType[] baseTypes = new ShapeType[2];
+            for (int k = 0; k < 2; k++) {
+                inputs[k] = new ShapeFile(shapefiles[k], false);
+                baseTypes[k] = inputs[k].getShapeType().getBaseType();
+                if (baseTypes[k] == ShapeType.MULTIPOINT) {
+                    baseTypes[k] = ShapeType.POINT;
                 }
             }
-            g1 = factory.buildGeometry(inputGeometryList);
-            inputGeometryList.clear();
-
-
-
-            ShapeFile input2 = new ShapeFile(shapefiles[1]);
-            shapeType = input2.getShapeType();
-            if (input2.getShapeType() != shapeType) {
-                showFeedback("Both input images must be of the same shape type.");
+            if (baseTypes[0] != baseTypes[1]) {
+                showFeedback("Both input files must be of the same shape type.");
                 return;
             }
-            numRecs = input2.getNumberOfRecords();
-
-            if (shapeType.getBaseType() == ShapeType.POINT
-                    || shapeType.getBaseType() == ShapeType.MULTIPOINT) {
+            if (baseTypes[0] == ShapeType.POINT) {
                 outputShapeType = ShapeType.POINT;
-            } else if (shapeType.getBaseType() == ShapeType.POLYLINE
-                    && outputShapeType == ShapeType.POLYGON) {
+            } else if (baseTypes[0] == ShapeType.POLYLINE) {
                 outputShapeType = ShapeType.POLYLINE;
             }
-
-            oneHundredthTotal = numRecs / 100;
-            progress = 0;
-            n = 0;
-            for (ShapeFileRecord record : input2.records) {
-                if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                    recJTSGeometries = record.getGeometry().getJTSGeometries();
-                    for (int a = 0; a < recJTSGeometries.length; a++) {
-                        recJTSGeometries[a].setUserData(record.getRecordNumber());
-                        if (recJTSGeometries[a].isValid()) {
-                            inputGeometryList.add(recJTSGeometries[a]);
-                        } else {
-                            System.out.println(record.getRecordNumber() + " is invalid.");
-                        }
-                    }
-                }
-                n++;
-                if (n >= oneHundredthTotal) {
-                    n = 0;
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress++;
-                    updateProgress("Loop 2 of " + 2 + ": Reading data:", progress);
-                }
-            }
-
-            g2 = factory.buildGeometry(inputGeometryList);
-            inputGeometryList.clear();
-
-
-
-            updateProgress("Performing operation (progress will not be updated):", -1);
-            try {
-                outputGeometry = g1.difference(g2);
-            } catch (Exception ex) {
-                outputGeometry = com.vividsolutions.jts.operation.overlay.snap.SnapOverlayOp.difference(g1, g2);
-            }
-
-
-            ShapeFile output = null;
-            DBFWriter writer = null;
-
+            
+            DBFField idFields[] = new DBFField[3];
+
+            idFields[0] = new DBFField();
+            idFields[0].setName("FID");
+            idFields[0].setDataType(DBFField.DBFDataType.NUMERIC);
+            idFields[0].setFieldLength(10);
+            idFields[0].setDecimalCount(0);
+
+            idFields[1] = new DBFField();
+            idFields[1].setName("PARENT1_ID");
+            idFields[1].setDataType(DBFField.DBFDataType.NUMERIC);
+            idFields[1].setFieldLength(10);
+            idFields[1].setDecimalCount(0);
+
+            idFields[2] = new DBFField();
+            idFields[2].setName("PARENT2_ID");
+            idFields[2].setDataType(DBFField.DBFDataType.NUMERIC);
+            idFields[2].setFieldLength(10);
+            idFields[2].setDecimalCount(0);
+            
+            final AttributeTable[] tables = new AttributeTable[2];
+            tables[0] = inputs[0].getAttributeTable();
+            tables[1] = inputs[1].getAttributeTable();
+            final int numFields1 = tables[0].getFieldCount();
+            DBFField[] fields = VectorOverlay.combineFields(idFields,
+                    tables[0].getAllFields(), tables[1].getAllFields());
+            final int numFields = fields.length;
+            
             // set up the output files of the shapefile and the dbf
-            output = new ShapeFile(outputFile, outputShapeType);
-            output.setProjectionStringFromOtherShapefile(input1);
-
-            DBFField fields[] = new DBFField[3];  //numFields];
-
-            fields[0] = new DBFField();
-            fields[0].setName("FID");
-            fields[0].setDataType(DBFField.DBFDataType.NUMERIC);
-            fields[0].setFieldLength(10);
-            fields[0].setDecimalCount(0);
-
-            fields[1] = new DBFField();
-            fields[1].setName("PARENT1_ID");
-            fields[1].setDataType(DBFField.DBFDataType.NUMERIC);
-            fields[1].setFieldLength(10);
-            fields[1].setDecimalCount(0);
-
-            fields[2] = new DBFField();
-            fields[2].setName("PARENT2_ID");
-            fields[2].setDataType(DBFField.DBFDataType.NUMERIC);
-            fields[2].setFieldLength(10);
-            fields[2].setDecimalCount(0);
-
-            String DBFName = output.getDatabaseFile();
-            writer = new DBFWriter(new File(DBFName));
-
-            writer.setFields(fields);
-
-            PreparedGeometry[] tests1 = new PreparedGeometry[g1.getNumGeometries()];
-            com.vividsolutions.jts.geom.Geometry[] testGs1 = new com.vividsolutions.jts.geom.Geometry[g1.getNumGeometries()];
-            int[] userData1 = new int[g1.getNumGeometries()];
-            for (int a = 0; a < g1.getNumGeometries(); a++) {
-                tests1[a] = PreparedGeometryFactory.prepare(g1.getGeometryN(a));
-                userData1[a] = Integer.parseInt(g1.getGeometryN(a).getUserData().toString());
-                testGs1[a] = g1.getGeometryN(a);
-
-            }
-
-            PreparedGeometry[] tests2 = new PreparedGeometry[g2.getNumGeometries()];
-            com.vividsolutions.jts.geom.Geometry[] testGs2 = new com.vividsolutions.jts.geom.Geometry[g2.getNumGeometries()];
-            int[] userData2 = new int[g2.getNumGeometries()];
-            for (int a = 0; a < g2.getNumGeometries(); a++) {
-                tests2[a] = PreparedGeometryFactory.prepare(g2.getGeometryN(a));
-                userData2[a] = Integer.parseInt(g2.getGeometryN(a).getUserData().toString());
-                testGs2[a] = g2.getGeometryN(a);
-            }
-
-            if (outputGeometry instanceof GeometryCollection) {
-
-                int numGeometries = outputGeometry.getNumGeometries();
-                oneHundredthTotal = (int) (numGeometries / 100.0);
-                progress = 0;
-                n = 0;
-                FID = 0;
-                int parentRecNum = 0;
-                for (int a = 0; a < numGeometries; a++) {
-                    parentRecNum = -99;
-                    com.vividsolutions.jts.geom.Geometry gN = outputGeometry.getGeometryN(a);
-
-                    for (int m = 0; m < tests1.length; m++) {
-                        if (tests1[m].overlaps(gN) || tests1[m].covers(gN) || gN.distance(testGs1[m]) < 0.0001) {
-                            parentRecNum = userData1[m];
-                            break;
-                        }
-                    }
-                    if (gN instanceof com.vividsolutions.jts.geom.Point
-                            && outputShapeType == ShapeType.POINT) {
-                        Coordinate p = gN.getCoordinate();
-                        // you will loose any z and m information if they are in the input file.
-                        // you'll need to fix this some other time when you get a chance.
-                        whitebox.geospatialfiles.shapefile.Point wbGeometry = new whitebox.geospatialfiles.shapefile.Point(p.x, p.y);
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        //Object[] rowData = attributeTableRecords[parentRecNum - 1];
-                        Object[] rowData = new Object[1];
-                        rowData[0] = new Double(FID);
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof LineString
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        LineString ls = (LineString) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = {0};
-
-                        Coordinate[] coords = ls.getCoordinates();
-                        for (i = 0; i < coords.length; i++) {
-                            pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        //Object[] rowData = attributeTableRecords[parentRecNum - 1];
-                        Object[] rowData = new Object[3];
-                        rowData[0] = new Double(FID);
-                        rowData[1] = new Double(parentRecNum);
-                        rowData[2] = null;
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        //Object[] rowData = attributeTableRecords[parentRecNum - 1];
-                        Object[] rowData = new Object[3];
-                        rowData[0] = new Double(FID);
-                        rowData[1] = new Double(parentRecNum);
-                        rowData[2] = null;
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon
-                            && outputShapeType == ShapeType.POLYGON) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.Polygon wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        //Object[] rowData = attributeTableRecords[parentRecNum - 1];
-                        Object[] rowData = new Object[3];
-                        rowData[0] = new Double(FID);
-                        rowData[1] = new Double(parentRecNum);
-                        rowData[2] = null;
-                        writer.addRecord(rowData);
-                    } else {
-                        // it shouldn't really hit here ever.
-                        //showFeedback("An error was encountered when saving the output file.");
-                        //return;
-                    }
-
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress++;
-                        updateProgress("Saving output file", progress);
-                    }
-                }
-            } else {
-                // it shouldn't really hit here ever.
-                showFeedback("An error was encountered when saving the output file.");
-                return;
-            }
-
-
-            updateProgress("Performing operation (progress will not be updated):", -1);
-            try {
-                outputGeometry = g2.difference(g1);
-            } catch (Exception ex) {
-                outputGeometry = com.vividsolutions.jts.operation.overlay.snap.SnapOverlayOp.difference(g2, g1);
-            }
-
-            if (outputGeometry instanceof GeometryCollection) {
-
-
-                int numGeometries = outputGeometry.getNumGeometries();
-                oneHundredthTotal = (int) (numGeometries / 100.0);
-                progress = 0;
-                n = 0;
-                int parentRecNum = 0;
-                for (int a = 0; a < numGeometries; a++) {
-                    parentRecNum = -99;
-                    com.vividsolutions.jts.geom.Geometry gN = outputGeometry.getGeometryN(a);
-
-                    for (int m = 0; m < tests2.length; m++) {
-                        if (tests2[m].overlaps(gN) || tests2[m].covers(gN) || gN.distance(testGs2[m]) < 0.0001) {
-                            parentRecNum = userData2[m];
-                            break;
-                        }
-                    }
-                    if (gN instanceof com.vividsolutions.jts.geom.Point
-                            && outputShapeType == ShapeType.POINT) {
-                        Coordinate p = gN.getCoordinate();
-                        // you will loose any z and m information if they are in the input file.
-                        // you'll need to fix this some other time when you get a chance.
-                        whitebox.geospatialfiles.shapefile.Point wbGeometry = new whitebox.geospatialfiles.shapefile.Point(p.x, p.y);
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        Object[] rowData = new Object[3];
-                        rowData[0] = new Double(FID);
-                        rowData[1] = null;
-                        rowData[2] = new Double(parentRecNum);
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof LineString
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        LineString ls = (LineString) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<ShapefilePoint>();
-
-                        int[] parts = {0};
-
-                        Coordinate[] coords = ls.getCoordinates();
-                        for (i = 0; i < coords.length; i++) {
-                            pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        Object[] rowData = new Object[3];
-                        rowData[0] = new Double(FID);
-                        rowData[1] = null;
-                        rowData[2] = new Double(parentRecNum);
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<ShapefilePoint>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        Object[] rowData = new Object[3];
-                        rowData[0] = new Double(FID);
-                        rowData[1] = null;
-                        rowData[2] = new Double(parentRecNum);
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon
-                            && outputShapeType == ShapeType.POLYGON) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<ShapefilePoint>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.Polygon wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        Object[] rowData = new Object[3];
-                        rowData[0] = new Double(FID);
-                        rowData[1] = null;
-                        rowData[2] = new Double(parentRecNum);
-                        writer.addRecord(rowData);
-                    } else {
-                        // it shouldn't really hit here ever.
-                        //showFeedback("An error was encountered when saving the output file.");
-                        //return;
-                    }
-
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress++;
-                        updateProgress("Saving output file", progress);
+            final ShapeFile output = new ShapeFile(outputFile, outputShapeType, fields);
+            output.setProjectionStringFromOtherShapefile(inputs[0]);
+            
+            // the fused features are the parts of each input that are outside 
+            // of the other, followed, for polygons, by the parts that they 
+            // share. Each piece keeps the interior boundaries of its parents
+            // and is written with the attributes of each of them.
+            int numLoops = outputShapeType == ShapeType.POLYGON ? 3 : 2;
+            final int[] FID = new int[1];
+            for (int k = 0; k < numLoops; k++) {
+                final int parent = k;
+                final String progressLabel = "Loop " + (k + 1) + " of " + numLoops + ":";
+                VectorOverlay overlay = new VectorOverlay(inputs[k % 2], inputs[1 - k % 2], outputShapeType);
+                overlay.setProgressListener(new PriorityFlood.ProgressListener() {
+                    @Override
+                    public boolean progressMade(int percent) {
+                        updateProgress(progressLabel, percent);
+                        return !cancelOp;
                     }
-                }
-            } else {
-                // it shouldn't really hit here ever.
-                showFeedback("An error was encountered when saving the output file.");
-                return;
-            }
-
-
-            if (outputShapeType == ShapeType.POLYGON) {
-                // Intersection
-
-                updateProgress("Performing operation (progress will not be updated):", -1);
-                try {
-                    outputGeometry = g1.intersection(g2);
-                } catch (Exception ex) {
-                    outputGeometry = com.vividsolutions.jts.operation.overlay.snap.SnapOverlayOp.intersection(g1, g2);
-                }
-
-                if (outputGeometry instanceof GeometryCollection) {
-
-
-                    int numGeometries = outputGeometry.getNumGeometries();
-                    oneHundredthTotal = (int) (numGeometries / 100.0);
-                    progress = 0;
-                    n = 0;
-                    int parentRecNum1 = 0;
-                    int parentRecNum2 = 0;
-                    for (int a = 0; a < numGeometries; a++) {
-                        parentRecNum1 = -99;
-                        parentRecNum2 = -99;
-                        com.vividsolutions.jts.geom.Geometry gN = outputGeometry.getGeometryN(a);
-
-                        for (int m = 0; m < tests1.length; m++) {
-                            if (tests1[m].overlaps(gN) || tests1[m].covers(gN) || gN.distance(testGs1[m]) < 0.0001) {
-                                parentRecNum1 = userData1[m];
-                                break;
-                            }
+                });
+                VectorOverlay.Operation operation = k < 2 ? VectorOverlay.Operation.DIFFERENCE
+                        : VectorOverlay.Operation.INTERSECTION;
+                boolean completed = overlay.run(operation, new VectorOverlay.FeatureHandler() {
+                    @Override
+                    public void addFeature(Geometry geometry, int inputRecord, int overlayRecord) throws IOException {
+                        int parent1 = parent == 1 ? -1 : inputRecord;
+                        int parent2 = parent == 0 ? -1 : (parent == 1 ? inputRecord : overlayRecord);
+                        FID[0]++;
+                        Object[] rowData = new Object[numFields];
+                        rowData[0] = new Double(FID[0]);
+                        rowData[1] = new Double(parent1 >= 0 ? parent1 + 1 : -999);
+                        rowData[2] = new Double(parent2 >= 0 ? parent2 + 1 : -999);
+                        if (parent1 >= 0) {
+                            Object[] rec = tables[0].getRecord(parent1);
+                            System.arraycopy(rec, 0, rowData, 3, numFields1);
                         }
-                        for (int m = 0; m < tests2.length; m++) {
-                            if (tests2[m].overlaps(gN) || tests2[m].covers(gN) || gN.distance(testGs2[m]) < 0.0001) {
-                                parentRecNum2 = userData2[m];
-                                break;
-                            }
-                        }
-                        if (gN instanceof com.vividsolutions.jts.geom.Point
-                                && outputShapeType == ShapeType.POINT) {
-                            Coordinate p = gN.getCoordinate();
-                            // you will loose any z and m information if they are in the input file.
-                            // you'll need to fix this some other time when you get a chance.
-                            whitebox.geospatialfiles.shapefile.Point wbGeometry = new whitebox.geospatialfiles.shapefile.Point(p.x, p.y);
-                            output.addRecord(wbGeometry);
-
-                            FID++;
-                            Object[] rowData = new Object[3];
-                            rowData[0] = new Double(FID);
-                            rowData[1] = new Double(parentRecNum1);
-                            rowData[2] = new Double(parentRecNum2);
-                            writer.addRecord(rowData);
-                        } else if (gN instanceof LineString
-                                && outputShapeType == ShapeType.POLYLINE) {
-                            LineString ls = (LineString) gN;
-                            ArrayList<ShapefilePoint> pnts = new ArrayList<ShapefilePoint>();
-
-                            int[] parts = {0};
-
-                            Coordinate[] coords = ls.getCoordinates();
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-
-                            PointsList pl = new PointsList(pnts);
-                            whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                            output.addRecord(wbGeometry);
-
-                            FID++;
-                            Object[] rowData = new Object[3];
-                            rowData[0] = new Double(FID);
-                            rowData[1] = new Double(parentRecNum1);
-                            rowData[2] = new Double(parentRecNum2);
-                            writer.addRecord(rowData);
-                        } else if (gN instanceof com.vividsolutions.jts.geom.Polygon
-                                && outputShapeType == ShapeType.POLYLINE) {
-                            com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) gN;
-                            ArrayList<ShapefilePoint> pnts = new ArrayList<ShapefilePoint>();
-
-                            int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                            Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-
-                            for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                                parts[b + 1] = pnts.size();
-                                coords = p.getInteriorRingN(b).getCoordinates();
-                                if (Topology.isClockwisePolygon(coords)) {
-                                    for (i = coords.length - 1; i >= 0; i--) {
-                                        pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                    }
-                                } else {
-                                    for (i = 0; i < coords.length; i++) {
-                                        pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                    }
-                                }
-                            }
-
-                            PointsList pl = new PointsList(pnts);
-                            whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                            output.addRecord(wbGeometry);
-
-                            FID++;
-                            Object[] rowData = new Object[3];
-                            rowData[0] = new Double(FID);
-                            rowData[1] = new Double(parentRecNum1);
-                            rowData[2] = new Double(parentRecNum2);
-                            writer.addRecord(rowData);
-                        } else if (gN instanceof com.vividsolutions.jts.geom.Polygon
-                                && outputShapeType == ShapeType.POLYGON) {
-                            com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) gN;
-                            ArrayList<ShapefilePoint> pnts = new ArrayList<ShapefilePoint>();
-
-                            int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                            Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-
-                            for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                                parts[b + 1] = pnts.size();
-                                coords = p.getInteriorRingN(b).getCoordinates();
-                                if (Topology.isClockwisePolygon(coords)) {
-                                    for (i = coords.length - 1; i >= 0; i--) {
-                                        pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                    }
-                                } else {
-                                    for (i = 0; i < coords.length; i++) {
-                                        pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                    }
-                                }
-                            }
-
-                            PointsList pl = new PointsList(pnts);
-                            whitebox.geospatialfiles.shapefile.Polygon wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-                            output.addRecord(wbGeometry);
-
-                            FID++;
-                            Object[] rowData = new Object[3];
-                            rowData[0] = new Double(FID);
-                            rowData[1] = new Double(parentRecNum1);
-                            rowData[2] = new Double(parentRecNum2);
-                            writer.addRecord(rowData);
-                        } else {
-                            // it shouldn't really hit here ever.
-                            //showFeedback("An error was encountered when saving the output file.");
-                            //return;
-                        }
-
-                        n++;
-                        if (n >= oneHundredthTotal) {
-                            n = 0;
-                            if (cancelOp) {
-                                cancelOperation();
-                                return;
-                            }
-                            progress++;
-                            updateProgress("Saving output file", progress);
+                        if (parent2 >= 0) {
+                            Object[] rec = tables[1].getRecord(parent2);
+                            System.arraycopy(rec, 0, rowData, 3 + numFields1, numFields - 3 - numFields1);
                         }
+                        output.addRecord(geometry, rowData);
                     }
-                } else {
-                    // it shouldn't really hit here ever.
-                    showFeedback("An error was encountered when saving the output file.");
+                });
+                if (!completed) {
+                    cancelOperation();
                     return;
                 }
             }
-
-
-
+            
+            updateProgress("Saving output file", -1);
             output.write();
-            writer.write();
-
-
+            
             // returning a header file string displays the image.
             returnData(outputFile);
-
-
+            
+            
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
         } catch (Exception e) {
@@ -918,7 +327,7 @@ public class Fuse implements WhiteboxPlugin {
             amIActive = false;
             myHost.pluginComplete();
         }
-
+       
     }
 //    // This method is only used during testing.
 //    public static void main(String[] args) {
@@ -17,22 +17,20 @@
 
 package plugins;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryCollection;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import whitebox.algorithms.PriorityFlood;
+import whitebox.algorithms.VectorOverlay;
 import whitebox.geospatialfiles.ShapeFile;
+import whitebox.geospatialfiles.shapefile.Geometry;
+import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
-import whitebox.geospatialfiles.shapefile.attributes.DBFWriter;
-import whitebox.geospatialfiles.shapefile.PointsList;
-import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
 import whitebox.geospatialfiles.shapefile.ShapeType;
-import whitebox.geospatialfiles.shapefile.ShapefilePoint;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.utilities.Topology;
+import whitebox.utilities.StringUtilities;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -205,15 +203,6 @@ public class Intersect implements WhiteboxPlugin {
         String[] shapefiles;
         int numFiles;
         String outputFile;
-        int progress;
-        int i, n, FID;
-        int oneHundredthTotal;
-        int numRecs;
-        ShapeType shapeType;
-        ShapeType outputShapeType = ShapeType.POLYGON;
-        GeometryFactory factory = new GeometryFactory();
-        com.vividsolutions.jts.geom.Geometry g1 = null;
-        com.vividsolutions.jts.geom.Geometry g2 = null;
             
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -236,246 +225,100 @@ public class Intersect implements WhiteboxPlugin {
             return;
         }
 
+        ArrayList<String> tempFiles = new ArrayList<>();
         try {
             
-            com.vividsolutions.jts.geom.Geometry[] recJTSGeometries = null;
-            ArrayList<com.vividsolutions.jts.geom.Geometry> inputGeometryList =
-                    new ArrayList<>();
-            com.vividsolutions.jts.geom.Geometry outputGeometry = null;
-                
-            
+            ShapeFile[] inputs = new ShapeFile[numFiles];
             for (int k = 0; k < numFiles; k++) {
-                
-                ShapeFile input = new ShapeFile(shapefiles[k]);
-                shapeType = input.getShapeType();
-                numRecs = input.getNumberOfRecords();
-                
+                inputs[k] = new ShapeFile(shapefiles[k], false);
+                ShapeType shapeType = inputs[k].getShapeType();
                 if (shapeType.getBaseType() == ShapeType.POINT ||
                         shapeType.getBaseType() == ShapeType.MULTIPOINT) {
                     showFeedback("This tool can only work for shapefiles of a "
                             + "POLYLINE or POLYGON shape-type. Tool execution "
                             + "ceased.");
                     return;
-                } else if (shapeType.getBaseType() == ShapeType.POLYLINE &&
-                        outputShapeType == ShapeType.POLYGON) {
-                    outputShapeType = ShapeType.POLYLINE;
-                }
-                
-                oneHundredthTotal = numRecs / 100;
-                progress = 0;
-                n = 0;
-                for (ShapeFileRecord record : input.records) {
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) { 
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                    }
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress++;
-                        updateProgress("Loop " + (k + 1) + " of " + numFiles + ": Reading data:", progress);
-                    }
-                }
-                if (k == 0) {
-                    g1 = factory.buildGeometry(inputGeometryList);
-                    inputGeometryList.clear();
-                } else {
-                    g2 = factory.buildGeometry(inputGeometryList);
-                    updateProgress("Performing operation (progress will not be updated):", -1);
-                    try {
-                        outputGeometry = g1.intersection(g2);
-                    } catch (Exception ex) {
-                        outputGeometry = com.vividsolutions.jts.operation.overlay.snap.SnapOverlayOp.intersection(g1, g2);
-                    }
-                    g1 = (com.vividsolutions.jts.geom.Geometry)outputGeometry.clone();
-                    inputGeometryList.clear();
                 }
             }
             
-            ShapeFile output = null;
-            DBFWriter writer = null;
-            if (outputGeometry instanceof GeometryCollection) {
-                // see if the collection is a collection of points
-                com.vividsolutions.jts.geom.Geometry gN0 = outputGeometry.getGeometryN(0);
-                if (gN0 instanceof com.vividsolutions.jts.geom.Point 
-                            && outputShapeType == ShapeType.POLYLINE) {
-                    // this happens when the input files are line segments (not
-                    // closed rings) and the intersection results in points.
-                    outputShapeType = ShapeType.POINT;
+            DBFField[] fidField = new DBFField[1];
+            fidField[0] = new DBFField();
+            fidField[0].setName("FID");
+            fidField[0].setDataType(DBFField.DBFDataType.NUMERIC);
+            fidField[0].setFieldLength(10);
+            fidField[0].setDecimalCount(0);
+            
+            // the layers are intersected a pair at a time, and the output of
+            // each loop is the input layer of the next. Each output feature
+            // carries the attributes of both of its parents.
+            ShapeFile layer = inputs[0];
+            int firstLayerField = 0;
+            for (int k = 1; k < numFiles; k++) {
+                ShapeFile overlay = inputs[k];
+                ShapeType outputShapeType = getOutputShapeType(
+                        layer.getShapeType().getBaseType(),
+                        overlay.getShapeType().getBaseType());
+                
+                String stepFile = outputFile;
+                if (k < numFiles - 1) {
+                    stepFile = File.createTempFile("Intersect", ".shp").getPath();
+                    tempFiles.add(stepFile);
                 }
-                        
                 
-                // set up the output files of the shapefile and the dbf
-                output = new ShapeFile(outputFile, outputShapeType);
-                output.setProjectionStringFromOtherShapefile(new ShapeFile(shapefiles[0]));
-
-                DBFField fields[] = new DBFField[1];
-
-                fields[0] = new DBFField();
-                fields[0].setName("FID");
-                fields[0].setDataType(DBFField.DBFDataType.NUMERIC);
-                fields[0].setFieldLength(10);
-                fields[0].setDecimalCount(0);
-
-                String DBFName = output.getDatabaseFile();
-                writer = new DBFWriter(new File(DBFName));
-
-                writer.setFields(fields);
+                final AttributeTable layerTable = layer.getAttributeTable();
+                final AttributeTable overlayTable = overlay.getAttributeTable();
+                DBFField[] layerFields = layerTable.getAllFields();
+                layerFields = Arrays.copyOfRange(layerFields, firstLayerField, layerFields.length);
+                DBFField[] fields = VectorOverlay.combineFields(fidField,
+                        layerFields, overlayTable.getAllFields());
                 
-                int numGeometries = outputGeometry.getNumGeometries();
-                oneHundredthTotal = (int)(numGeometries / 100.0);
-                progress = 0;
-                n = 0;
-                FID = 0;
-                for (int a = 0; a < numGeometries; a++) {
-                    com.vividsolutions.jts.geom.Geometry gN = outputGeometry.getGeometryN(a);
-                    if (gN instanceof LineString) {
-                        LineString ls = (LineString) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = {0};
-
-                        Coordinate[] coords = ls.getCoordinates();
-                        for (i = 0; i < coords.length; i++) {
-                            pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = (double) FID;
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (!Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = (double) FID;
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYGON) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-                        
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (!Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.Polygon wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = new Double(FID);
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Point 
-                            && outputShapeType == ShapeType.POINT) {
-                        com.vividsolutions.jts.geom.Point p = (com.vividsolutions.jts.geom.Point)gN;
-                        whitebox.geospatialfiles.shapefile.Point wbGeometry = new whitebox.geospatialfiles.shapefile.Point(p.getX(), p.getY());
-                        output.addRecord(wbGeometry);
+                final ShapeFile output = new ShapeFile(stepFile, outputShapeType, fields);
+                output.setProjectionStringFromOtherShapefile(inputs[0]);
+                
+                final int numFields = fields.length;
+                final int numLayerFields = layerFields.length;
+                final int layerFieldOffset = firstLayerField;
+                final String progressLabel = "Loop " + k + " of " + (numFiles - 1) + ":";
+                VectorOverlay intersection = new VectorOverlay(layer, overlay, outputShapeType);
+                intersection.setProgressListener(new PriorityFlood.ProgressListener() {
+                    @Override
+                    public boolean progressMade(int percent) {
+                        updateProgress(progressLabel, percent);
+                        return !cancelOp;
+                    }
+                });
+                boolean completed = intersection.run(VectorOverlay.Operation.INTERSECTION,
+                        new VectorOverlay.FeatureHandler() {
+                    int FID = 0;
 
+                    @Override
+                    public void addFeature(Geometry geometry, int inputRecord, int overlayRecord) throws IOException {
                         FID++;
-                        Object[] rowData = new Object[1];
+                        Object[] rowData = new Object[numFields];
                         rowData[0] = new Double(FID);
-                        writer.addRecord(rowData);
-                    } else {
-                        // it shouldn't really hit here ever.
-                        //showFeedback("An error was encountered when saving the output file.");
-                        //return;
-                    }
-                    
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress++;
-                        updateProgress("Saving output file", progress);
+                        Object[] rec = layerTable.getRecord(inputRecord);
+                        System.arraycopy(rec, layerFieldOffset, rowData, 1, numLayerFields);
+                        rec = overlayTable.getRecord(overlayRecord);
+                        System.arraycopy(rec, 0, rowData, 1 + numLayerFields, numFields - 1 - numLayerFields);
+                        output.addRecord(geometry, rowData);
                     }
+                });
+                if (!completed) {
+                    cancelOperation();
+                    return;
+                }
+                
+                updateProgress("Saving output file", -1);
+                output.write();
+                
+                if (k < numFiles - 1) {
+                    // the FID field of an intermediate output is not carried
+                    // into the next loop
+                    layer = new ShapeFile(stepFile, false);
+                    firstLayerField = 1;
                 }
-            } else {
-                // it shouldn't really hit here ever.
-                showFeedback("An error was encountered when saving the output file.");
-                return;
             }
             
-            output.write();
-            writer.write();
-            
-            
             // returning a header file string displays the image.
             returnData(outputFile);
             
@@ -486,6 +329,14 @@ public class Intersect implements WhiteboxPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
+            for (String tempFile : tempFiles) {
+                for (String extension : new String[]{".shp", ".shx", ".dbf", ".prj", ".rtx"}) {
+                    File file = new File(StringUtilities.replaceLast(tempFile, ".shp", extension));
+                    if (file.exists() && !file.delete()) {
+                        file.deleteOnExit();
+                    }
+                }
+            }
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
             amIActive = false;
@@ -494,6 +345,24 @@ public class Intersect implements WhiteboxPlugin {
        
     }
     
+    /**
+     * Returns the shape type of the intersection of two layers, which is of
+     * the lower of their dimensions, except that crossing lines meet at
+     * points. A shapefile holds a single shape type, so where two polylines
+     * share a collinear section, that linear part of their intersection is
+     * not written to the POINT output.
+     */
+    private static ShapeType getOutputShapeType(ShapeType type1, ShapeType type2) {
+        if (type1 == ShapeType.POINT || type2 == ShapeType.POINT) {
+            return ShapeType.POINT;
+        } else if (type1 == ShapeType.POLYLINE && type2 == ShapeType.POLYLINE) {
+            return ShapeType.POINT;
+        } else if (type1 == ShapeType.POLYLINE || type2 == ShapeType.POLYLINE) {
+            return ShapeType.POLYLINE;
+        }
+        return ShapeType.POLYGON;
+    }
+    
 //    // This method is only used during testing.
 //    public static void main(String[] args) {
 //        args = new String[2];
@@ -29,6 +29,8 @@ import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
 import whitebox.geospatialfiles.shapefile.ShapeType;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.structures.BoundingBox;
+import whitebox.structures.RTree;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -340,6 +342,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
             inputGeometryList.clear();
             
             previousProgress = 0;
+            RTree dataIndex = dataShape.getSpatialIndex();
             // now perform the analysis
             if (instructions.equals("intersect")) {
                 updateProgress("Loop 2 of 2:", 0);
@@ -357,7 +360,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (g2.intersects(g1)) {
+                        if (mayInteract(record, dataIndex, 0) && g2.intersects(g1)) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -398,7 +401,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (!g2.intersects(g1)) {
+                        if (!(mayInteract(record, dataIndex, 0) && g2.intersects(g1))) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -440,7 +443,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (g2.within(g1)) {
+                        if (mayInteract(record, dataIndex, 0) && g2.within(g1)) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -482,7 +485,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (g2.contains(g1)) {
+                        if (mayInteract(record, dataIndex, 0) && g2.contains(g1)) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -524,7 +527,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (!g2.contains(g1)) {
+                        if (!(mayInteract(record, dataIndex, 0) && g2.contains(g1))) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -566,7 +569,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (g2.covers(g1)) {
+                        if (mayInteract(record, dataIndex, 0) && g2.covers(g1)) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -608,7 +611,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (g2.coveredBy(g1)) {
+                        if (mayInteract(record, dataIndex, 0) && g2.coveredBy(g1)) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -650,7 +653,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (g2.crosses(g1)) {
+                        if (mayInteract(record, dataIndex, 0) && g2.crosses(g1)) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -692,7 +695,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (g2.touches(g1)) {
+                        if (mayInteract(record, dataIndex, 0) && g2.touches(g1)) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -734,7 +737,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (!g2.touches(g1)) {
+                        if (!(mayInteract(record, dataIndex, 0) && g2.touches(g1))) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -776,7 +779,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
                         }
                         g2 = factory.buildGeometry(inputGeometryList);
                         inputGeometryList.clear();
-                        if (g2.isWithinDistance(g1, distThreshold)) {
+                        if (mayInteract(record, dataIndex, distThreshold) && g2.isWithinDistance(g1, distThreshold)) {
                             if (blnSelect) {
                                 // output this geometry to the output file.
                                 output.addRecord(record.getGeometry(), rec);
@@ -825,6 +828,21 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
        
     }
     
+    /**
+     * Indicates whether a feature's bounding box, expanded by a distance,
+     * overlaps the bounding box of any of the data features. If it does not,
+     * the feature cannot intersect, cover, cross, touch or lie within the data
+     * features, nor lie within the distance of them.
+     */
+    private boolean mayInteract(ShapeFileRecord record, RTree dataIndex, double distance) {
+        BoundingBox box = record.getGeometry().getBox();
+        if (distance > 0) {
+            box = new BoundingBox(box.getMinX() - distance, box.getMinY() - distance,
+                    box.getMaxX() + distance, box.getMaxY() + distance);
+        }
+        return dataIndex.intersects(box);
+    }
+    
 //    // This method is only used during testing.
 //    public static void main(String[] args) {
 //        args = new String[2];
@@ -17,26 +17,16 @@
 
 package plugins;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryCollection;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
-import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import whitebox.algorithms.PriorityFlood;
+import whitebox.algorithms.VectorOverlay;
 import whitebox.geospatialfiles.ShapeFile;
-import whitebox.geospatialfiles.shapefile.attributes.DBFField;
-//import whitebox.geospatialfiles.shapefile.attributes.DBFReader;
-//import whitebox.geospatialfiles.shapefile.attributes.DBFWriter;
+import whitebox.geospatialfiles.shapefile.Geometry;
 import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
-import whitebox.geospatialfiles.shapefile.PointsList;
-import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
+import whitebox.geospatialfiles.shapefile.attributes.DBFField;
 import whitebox.geospatialfiles.shapefile.ShapeType;
-import whitebox.geospatialfiles.shapefile.ShapefilePoint;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.utilities.Topology;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -207,15 +197,8 @@ public class SymmetricDifference implements WhiteboxPlugin {
         amIActive = true;
         String[] shapefiles = new String[2];
         String outputFile;
-        int progress;
-        int i, n, FID;
-        int oneHundredthTotal;
-        int numRecs;
         ShapeType shapeType;
         ShapeType outputShapeType = ShapeType.POLYGON;
-        GeometryFactory factory = new GeometryFactory();
-        com.vividsolutions.jts.geom.Geometry g1 = null;
-        com.vividsolutions.jts.geom.Geometry g2 = null;
             
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -234,407 +217,98 @@ public class SymmetricDifference implements WhiteboxPlugin {
         
         try {
             
-            com.vividsolutions.jts.geom.Geometry[] recJTSGeometries = null;
-            ArrayList<com.vividsolutions.jts.geom.Geometry> inputGeometryList =
-                    new ArrayList<>();
-            com.vividsolutions.jts.geom.Geometry outputGeometry = null;
-                
-            
-            ShapeFile input1 = new ShapeFile(shapefiles[0]);
-            shapeType = input1.getShapeType();
-            numRecs = input1.getNumberOfRecords();
-
-            if (shapeType.getBaseType() == ShapeType.POINT
-                    || shapeType.getBaseType() == ShapeType.MULTIPOINT) {
-                outputShapeType = ShapeType.POINT;
-            } else if (shapeType.getBaseType() == ShapeType.POLYLINE
-                    && outputShapeType == ShapeType.POLYGON) {
-                outputShapeType = ShapeType.POLYLINE;
-            }
-
-            oneHundredthTotal = numRecs / 100;
-            progress = 0;
-            n = 0;
-            for (ShapeFileRecord record : input1.records) {
-                if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                    recJTSGeometries = record.getGeometry().getJTSGeometries();
-                    for (int a = 0; a < recJTSGeometries.length; a++) {
-                        recJTSGeometries[a].setUserData(record.getRecordNumber());
-                        if (recJTSGeometries[a].isValid()) {
-                            inputGeometryList.add(recJTSGeometries[a]);
-                        } else {
-                            System.out.println(record.getRecordNumber() + " is invalid.");
-                        }
-                    }
-                }
-                n++;
-                if (n >= oneHundredthTotal) {
-                    n = 0;
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress++;
-                    updateProgress("Loop 1 of " + 2 + ": Reading data:", progress);
+            ShapeFile[] inputs = new ShapeFile[2];
+            for (int k = 0; k < 2; k++) {
+                inputs[k] = new ShapeFile(shapefiles[k], false);
+                shapeType = inputs[k].getShapeType();
+                if (shapeType.getBaseType() == ShapeType.POINT
+                        || shapeType.getBaseType() == ShapeType.MULTIPOINT) {
+                    outputShapeType = ShapeType.POINT;
+                } else if (shapeType.getBaseType() == ShapeType.POLYLINE
+                        && outputShapeType == ShapeType.POLYGON) {
+                    outputShapeType = ShapeType.POLYLINE;
                 }
             }
-            g1 = factory.buildGeometry(inputGeometryList);
-            inputGeometryList.clear();
-
-            ShapeFile input2 = new ShapeFile(shapefiles[1]);
-            shapeType = input2.getShapeType();
-            numRecs = input2.getNumberOfRecords();
-
-            if (shapeType.getBaseType() == ShapeType.POINT
-                    || shapeType.getBaseType() == ShapeType.MULTIPOINT) {
-                outputShapeType = ShapeType.POINT;
-            } else if (shapeType.getBaseType() == ShapeType.POLYLINE
-                    && outputShapeType == ShapeType.POLYGON) {
-                outputShapeType = ShapeType.POLYLINE;
-            }
-
-            oneHundredthTotal = numRecs / 100;
-            progress = 0;
-            n = 0;
-            for (ShapeFileRecord record : input2.records) {
-                if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                    recJTSGeometries = record.getGeometry().getJTSGeometries();
-                    for (int a = 0; a < recJTSGeometries.length; a++) {
-                        recJTSGeometries[a].setUserData(record.getRecordNumber());
-                        if (recJTSGeometries[a].isValid()) {
-                            inputGeometryList.add(recJTSGeometries[a]);
-                        } else {
-                            System.out.println(record.getRecordNumber() + " is invalid.");
-                        }
-                    }
-                }
-                n++;
-                if (n >= oneHundredthTotal) {
-                    n = 0;
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress++;
-                    updateProgress("Loop 2 of " + 2 + ": Reading data:", progress);
-                }
-            }
-            
-            g2 = factory.buildGeometry(inputGeometryList);
-            inputGeometryList.clear();
-            
-            
-            
-            updateProgress("Performing operation (progress will not be updated):", -1);
-            try {
-                outputGeometry = g1.symDifference(g2);
-            } catch (Exception ex) {
-                outputGeometry = com.vividsolutions.jts.operation.overlay.snap.SnapOverlayOp.symDifference(g1, g2);
-            }
-
-
-            ShapeFile output = null;
-//            DBFWriter writer = null;
-//            DBFReader reader1 = null;
-//            DBFReader reader2 = null;
-
-//            reader1 = new DBFReader(input1.getDatabaseFile());
-//            AttributeTable reader1 = input1.getAttributeTable();
             
-            //int numFields1 = reader1.getFieldCount();
-            //int numFields2 = reader2.getFieldCount();
-            int numFields = 3; //1 + numFields1 + numFields2;
+            DBFField idFields[] = new DBFField[3];
+
+            idFields[0] = new DBFField();
+            idFields[0].setName("FID");
+            idFields[0].setDataType(DBFField.DBFDataType.NUMERIC);
+            idFields[0].setFieldLength(10);
+            idFields[0].setDecimalCount(0);
+
+            idFields[1] = new DBFField();
+            idFields[1].setName("PARENT1_ID");
+            idFields[1].setDataType(DBFField.DBFDataType.NUMERIC);
+            idFields[1].setFieldLength(10);
+            idFields[1].setDecimalCount(0);
+
+            idFields[2] = new DBFField();
+            idFields[2].setName("PARENT2_ID");
+            idFields[2].setDataType(DBFField.DBFDataType.NUMERIC);
+            idFields[2].setFieldLength(10);
+            idFields[2].setDecimalCount(0);
             
-            DBFField fields[] = new DBFField[numFields];
-
-            fields[0] = new DBFField();
-            fields[0].setName("FID");
-            fields[0].setDataType(DBFField.DBFDataType.NUMERIC);
-            fields[0].setFieldLength(10);
-            fields[0].setDecimalCount(0);
-
-            fields[1] = new DBFField();
-            fields[1].setName("PARENT1_ID");
-            fields[1].setDataType(DBFField.DBFDataType.NUMERIC);
-            fields[1].setFieldLength(10);
-            fields[1].setDecimalCount(0);
-
-            fields[2] = new DBFField();
-            fields[2].setName("PARENT2_ID");
-            fields[2].setDataType(DBFField.DBFDataType.NUMERIC);
-            fields[2].setFieldLength(10);
-            fields[2].setDecimalCount(0);
-            
-//            for (int a = 0; a < numFields1; a++) {
-//                DBFField inputField = reader1.getField(a);
-//                fields[a + 1] = inputField;
-//                if (inputField.getName().equals("FID")) {
-//                    fields[a + 1].setName("PARENT1_FID");                    
-//                }
-//            }
-//
-//            for (int a = 0; a < numFields2; a++) {
-//                DBFField inputField = reader2.getField(a);
-//                fields[a + 1 + numFields1] = inputField;
-//                if (inputField.getName().equals("FID")) {
-//                    fields[a + 1 + numFields1].setName("PARENT2_FID");                    
-//                }
-//            }
+            final AttributeTable[] tables = new AttributeTable[2];
+            tables[0] = inputs[0].getAttributeTable();
+            tables[1] = inputs[1].getAttributeTable();
+            final int numFields1 = tables[0].getFieldCount();
+            DBFField[] fields = VectorOverlay.combineFields(idFields,
+                    tables[0].getAllFields(), tables[1].getAllFields());
+            final int numFields = fields.length;
             
             // set up the output files of the shapefile and the dbf
-            output = new ShapeFile(outputFile, outputShapeType, fields);
-            output.setProjectionStringFromOtherShapefile(input1);
-//            String DBFName = output.getDatabaseFile();
-//            writer = new DBFWriter(new File(DBFName));
-//
-//            writer.setFields(fields);
-            
-            PreparedGeometry[] tests1 = new PreparedGeometry[g1.getNumGeometries()];
-            com.vividsolutions.jts.geom.Geometry[] testGs1 = new com.vividsolutions.jts.geom.Geometry[g1.getNumGeometries()];
-            int[] userData1 = new int[g1.getNumGeometries()];
-            for (int a = 0; a < g1.getNumGeometries(); a++) {
-                tests1[a] = PreparedGeometryFactory.prepare(g1.getGeometryN(a));
-                userData1[a] = Integer.parseInt(g1.getGeometryN(a).getUserData().toString());
-                testGs1[a] = g1.getGeometryN(a);
-
-            }
-
-            PreparedGeometry[] tests2 = new PreparedGeometry[g2.getNumGeometries()];
-            com.vividsolutions.jts.geom.Geometry[] testGs2 = new com.vividsolutions.jts.geom.Geometry[g2.getNumGeometries()];
-            int[] userData2 = new int[g2.getNumGeometries()];
-            for (int a = 0; a < g2.getNumGeometries(); a++) {
-                tests2[a] = PreparedGeometryFactory.prepare(g2.getGeometryN(a));
-                userData2[a] = Integer.parseInt(g2.getGeometryN(a).getUserData().toString());
-                testGs2[a] = g2.getGeometryN(a);
-            }
+            final ShapeFile output = new ShapeFile(outputFile, outputShapeType, fields);
+            output.setProjectionStringFromOtherShapefile(inputs[0]);
             
-//            Object[][] attributeTableRecords = new Object[reader1.getRecordCount()][numFields];           
-//            for (int a = 0; a < reader1.getRecordCount(); a++) {
-//                Object[] rec = reader1.nextRecord();
-//                for (int b = 0; b < numFields1 - 1; b++) {
-//                    attributeTableRecords[a][b + 1] = rec[b];
-//                }
-//            }
-//            
-//            for (int a = 0; a < reader2.getRecordCount(); a++) {
-//                Object[] rec = reader2.nextRecord();
-//                for (int b = 0; b < numFields2 - 1; b++) {
-//                    attributeTableRecords[a][b + 1 + numFields1] = rec[b];
-//                }
-//            }
-                
-            if (outputGeometry instanceof GeometryCollection) {
-                int numGeometries = outputGeometry.getNumGeometries();
-                oneHundredthTotal = (int)(numGeometries / 100.0);
-                progress = 0;
-                n = 0;
-                FID = 0;
-                int parentRecNum1 = 0;
-                int parentRecNum2 = 0;
-                for (int a = 0; a < numGeometries; a++) {
-                    parentRecNum1 = -999;
-                    parentRecNum2 = -999;
-                    com.vividsolutions.jts.geom.Geometry gN = outputGeometry.getGeometryN(a);
-
-                    if (gN instanceof com.vividsolutions.jts.geom.Point
-                            && outputShapeType == ShapeType.POINT) {
-                        Coordinate p = gN.getCoordinate();
-                        for (int m = 0; m < tests1.length; m++) {
-                            if (tests1[m].overlaps(gN) || gN.distance(testGs1[m]) < 0.0001) {
-                                parentRecNum1 = userData1[m];
-                                break;
-                            }
-                        }
-                        for (int m = 0; m < tests2.length; m++) {
-                            if (tests2[m].overlaps(gN) || gN.distance(testGs2[m]) < 0.0001) {
-                                parentRecNum2 = userData2[m];
-                                break;
-                            }
-                        }
-                        // you will loose any z and m information if they are in the input file.
-                        // you'll need to fix this some other time when you get a chance.
-                        whitebox.geospatialfiles.shapefile.Point wbGeometry = new whitebox.geospatialfiles.shapefile.Point(p.x, p.y);
-                        
-                        FID++;
-                        Object[] rowData = new Object[numFields];
-                        rowData[0] = new Double(FID);
-                        rowData[1] = new Double(parentRecNum1);
-                        rowData[2] = new Double(parentRecNum2);
-//                        writer.addRecord(rowData);
-                        output.addRecord(wbGeometry, rowData);
-                    } else if (gN instanceof LineString
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        for (int m = 0; m < tests1.length; m++) {
-                            if (tests1[m].overlaps(gN) || gN.distance(testGs1[m]) < 0.0001) {
-                                parentRecNum1 = userData1[m];
-                                break;
-                            }
-                        }
-                        for (int m = 0; m < tests2.length; m++) {
-                            if (tests2[m].crosses(gN) || gN.distance(testGs2[m]) < 0.0001) {
-                                parentRecNum2 = userData2[m];
-                                break;
-                            }
-                        }
-                        LineString ls = (LineString) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = {0};
-
-                        Coordinate[] coords = ls.getCoordinates();
-                        for (i = 0; i < coords.length; i++) {
-                            pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        
-                        FID++;
-                        Object[] rowData = new Object[numFields];
-                        rowData[0] = new Double(FID);
-                        if (parentRecNum1 != -999) { rowData[1] = new Double(parentRecNum1); }
-                        if (parentRecNum2 != -999) { rowData[2] = new Double(parentRecNum2); }
-//                        writer.addRecord(rowData);
-                        output.addRecord(wbGeometry, rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        
-                        for (int m = 0; m < tests1.length; m++) {
-                            if (tests1[m].contains(gN.getInteriorPoint())) {
-                                parentRecNum1 = userData1[m];
-                                break;
-                            }
-                        }
-                        for (int m = 0; m < tests2.length; m++) {
-                            if (tests2[m].contains(gN.getInteriorPoint())) {
-                                parentRecNum2 = userData2[m];
-                                break;
-                            }
-                        }
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (!Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        
-                        FID++;
+            // the symmetric difference is the part of each input that is
+            // outside of the other. A piece of the first input is written
+            // with the attributes of its parent in the first input, and the
+            // other way around.
+            final int[] FID = new int[1];
+            for (int k = 0; k < 2; k++) {
+                final int parent = k;
+                final String progressLabel = "Loop " + (k + 1) + " of 2:";
+                VectorOverlay difference = new VectorOverlay(inputs[k], inputs[1 - k], outputShapeType);
+                difference.setProgressListener(new PriorityFlood.ProgressListener() {
+                    @Override
+                    public boolean progressMade(int percent) {
+                        updateProgress(progressLabel, percent);
+                        return !cancelOp;
+                    }
+                });
+                boolean completed = difference.run(VectorOverlay.Operation.DIFFERENCE,
+                        new VectorOverlay.FeatureHandler() {
+                    @Override
+                    public void addFeature(Geometry geometry, int inputRecord, int overlayRecord) throws IOException {
+                        FID[0]++;
                         Object[] rowData = new Object[numFields];
-                        rowData[0] = new Double(FID);
-                        if (parentRecNum1 != -999) { rowData[1] = new Double(parentRecNum1); }
-                        if (parentRecNum2 != -999) { rowData[2] = new Double(parentRecNum2); }
-//                        writer.addRecord(rowData);
-                        output.addRecord(wbGeometry, rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYGON) {
-                        for (int m = 0; m < tests1.length; m++) {
-                            if (tests1[m].contains(gN.getInteriorPoint())) {
-                                parentRecNum1 = userData1[m];
-                                break;
-                            }
-                        }
-                        for (int m = 0; m < tests2.length; m++) {
-                            if (tests2[m].contains(gN.getInteriorPoint())) {
-                                parentRecNum2 = userData2[m];
-                                break;
-                            }
-                        }
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (!Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
+                        rowData[0] = new Double(FID[0]);
+                        rowData[1] = new Double(parent == 0 ? inputRecord + 1 : -999);
+                        rowData[2] = new Double(parent == 1 ? inputRecord + 1 : -999);
+                        Object[] rec = tables[parent].getRecord(inputRecord);
+                        if (parent == 0) {
+                            System.arraycopy(rec, 0, rowData, 3, numFields1);
                         } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
+                            System.arraycopy(rec, 0, rowData, 3 + numFields1, numFields - 3 - numFields1);
                         }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.Polygon wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-                        
-                        FID++;
-                        Object[] rowData = new Object[numFields];
-                        rowData[0] = new Double(FID);
-                        if (parentRecNum1 != -999) { rowData[1] = new Double(parentRecNum1); }
-                        if (parentRecNum2 != -999) { rowData[2] = new Double(parentRecNum2); }
-//                        writer.addRecord(rowData);
-                        output.addRecord(wbGeometry, rowData);
-                    } else {
-                        // it shouldn't really hit here ever.
-                        //showFeedback("An error was encountered when saving the output file.");
-                        //return;
-                    }
-                    
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress++;
-                        updateProgress("Saving output file", progress);
+                        output.addRecord(geometry, rowData);
                     }
+                });
+                if (!completed) {
+                    cancelOperation();
+                    return;
                 }
-            } else {
-                // it shouldn't really hit here ever.
-                showFeedback("An error was encountered when saving the output file.");
-                return;
             }
             
+            updateProgress("Saving output file", -1);
             output.write();
-//            writer.write();
-            
             
             // returning a header file string displays the image.
             returnData(outputFile);
             
+            
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
         } catch (Exception e) {
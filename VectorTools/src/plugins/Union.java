@@ -17,22 +17,18 @@
 
 package plugins;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryCollection;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
-import java.io.File;
-import java.util.ArrayList;
+import java.util.List;
+import whitebox.algorithms.CascadedUnion;
+import whitebox.algorithms.PriorityFlood;
+import whitebox.algorithms.VectorOverlay;
 import whitebox.geospatialfiles.ShapeFile;
+import whitebox.geospatialfiles.shapefile.Geometry;
+import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
-//import whitebox.geospatialfiles.shapefile.attributes.DBFWriter;
-import whitebox.geospatialfiles.shapefile.PointsList;
 import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
 import whitebox.geospatialfiles.shapefile.ShapeType;
-import whitebox.geospatialfiles.shapefile.ShapefilePoint;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.utilities.Topology;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -205,15 +201,10 @@ public class Union implements WhiteboxPlugin {
         String[] shapefiles;
         int numFiles;
         String outputFile;
-        int progress;
-        int i, n, FID;
-        int oneHundredthTotal;
-        int numRecs;
+        String dissolveFieldName = null;
+        int progress, oldProgress;
         ShapeType shapeType;
         ShapeType outputShapeType = ShapeType.POLYGON;
-        GeometryFactory factory = new GeometryFactory();
-        com.vividsolutions.jts.geom.Geometry g1 = null;
-        com.vividsolutions.jts.geom.Geometry g2 = null;
             
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -222,6 +213,10 @@ public class Union implements WhiteboxPlugin {
         
         inputFilesString = args[0];
         outputFile = args[1];
+        if (args.length > 2 && !args[2].trim().isEmpty()
+                && !args[2].toLowerCase().equals("not specified")) {
+            dissolveFieldName = args[2].trim();
+        }
         
         // check to see that the inputHeader and outputHeader are not null.
         if ((inputFilesString == null) || (outputFile == null)) {
@@ -238,18 +233,10 @@ public class Union implements WhiteboxPlugin {
 
         try {
             
-            com.vividsolutions.jts.geom.Geometry[] recJTSGeometries = null;
-            ArrayList<com.vividsolutions.jts.geom.Geometry> inputGeometryList =
-                    new ArrayList<>();
-            com.vividsolutions.jts.geom.Geometry outputGeometry = null;
-                
-            
+            ShapeFile[] inputs = new ShapeFile[numFiles];
             for (int k = 0; k < numFiles; k++) {
-                
-                ShapeFile input = new ShapeFile(shapefiles[k]);
-                shapeType = input.getShapeType();
-                numRecs = input.getNumberOfRecords();
-                
+                inputs[k] = new ShapeFile(shapefiles[k], false);
+                shapeType = inputs[k].getShapeType();
                 if (shapeType.getBaseType() == ShapeType.POINT ||
                         shapeType.getBaseType() == ShapeType.MULTIPOINT) {
                     showFeedback("This tool can only work for shapefiles of a "
@@ -260,190 +247,117 @@ public class Union implements WhiteboxPlugin {
                         outputShapeType == ShapeType.POLYGON) {
                     outputShapeType = ShapeType.POLYLINE;
                 }
-                
-                oneHundredthTotal = numRecs / 100;
-                progress = 0;
-                n = 0;
-                for (ShapeFileRecord record : input.records) {
+            }
+            
+            // find the dissolve field in each of the inputs
+            int[] dissolveFields = new int[numFiles];
+            DBFField dissolveField = null;
+            for (int k = 0; k < numFiles; k++) {
+                dissolveFields[k] = -1;
+                if (dissolveFieldName == null) {
+                    continue;
+                }
+                DBFField[] inputFields = inputs[k].getAttributeTable().getAllFields();
+                for (int a = 0; a < inputFields.length; a++) {
+                    if (inputFields[a].getName().equalsIgnoreCase(dissolveFieldName)) {
+                        dissolveFields[k] = a;
+                        if (dissolveField == null) {
+                            dissolveField = inputFields[a];
+                        }
+                        break;
+                    }
+                }
+                if (dissolveFields[k] < 0) {
+                    showFeedback("The dissolve field " + dissolveFieldName 
+                            + " could not be found in " + shapefiles[k] + ".");
+                    return;
+                }
+            }
+            
+            CascadedUnion union = new CascadedUnion(outputShapeType);
+            for (int k = 0; k < numFiles; k++) {
+                ShapeFile input = inputs[k];
+                AttributeTable table = input.getAttributeTable();
+                int numRecs = input.getNumberOfRecords();
+                oldProgress = -1;
+                for (int r = 0; r < numRecs; r++) {
+                    ShapeFileRecord record = input.getRecord(r);
                     if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) { 
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
+                        com.vividsolutions.jts.geom.Geometry g = 
+                                VectorOverlay.getJTSGeometry(record.getGeometry());
+                        if (outputShapeType == ShapeType.POLYLINE && g.getDimension() == 2) {
+                            // polygons are dissolved with lines as their edges
+                            g = g.getBoundary();
+                        }
+                        Object key = null;
+                        if (dissolveFields[k] >= 0) {
+                            key = table.getRecord(r)[dissolveFields[k]];
+                            if (key instanceof String) {
+                                key = ((String) key).trim();
                             }
                         }
+                        union.add(g, key);
                     }
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
+                    progress = (int) (100f * (r + 1) / numRecs);
+                    if (progress != oldProgress) {
+                        oldProgress = progress;
                         if (cancelOp) {
                             cancelOperation();
                             return;
                         }
-                        progress++;
                         updateProgress("Loop " + (k + 1) + " of " + numFiles + ": Reading data:", progress);
                     }
                 }
             }
             
-            try {
-                updateProgress("Performing operation (progress will not be updated):", -1);
-                g1 = factory.buildGeometry(inputGeometryList);
-                outputGeometry = g1.buffer(0);
-            } catch (Exception e) {
-                showFeedback("Error during analysis.");
-                return;
-            }
-            
-            ShapeFile output = null;
-            
-            if (outputGeometry instanceof GeometryCollection) {
-                // set up the output files of the shapefile and the dbf
-                
+            DBFField fields[] = new DBFField[dissolveField == null ? 1 : 2];
 
-                DBFField fields[] = new DBFField[1];
-
-                fields[0] = new DBFField();
-                fields[0].setName("FID");
-                fields[0].setDataType(DBFField.DBFDataType.NUMERIC);
-                fields[0].setFieldLength(10);
-                fields[0].setDecimalCount(0);
+            fields[0] = new DBFField();
+            fields[0].setName("FID");
+            fields[0].setDataType(DBFField.DBFDataType.NUMERIC);
+            fields[0].setFieldLength(10);
+            fields[0].setDecimalCount(0);
+            
+            if (dissolveField != null) {
+                fields = VectorOverlay.combineFields(new DBFField[]{fields[0]},
+                        new DBFField[]{dissolveField});
+            }
 
-                output = new ShapeFile(outputFile, outputShapeType, fields);
-                output.setProjectionStringFromOtherShapefile(new ShapeFile(shapefiles[0]));
+            final ShapeFile output = new ShapeFile(outputFile, outputShapeType, fields);
+            output.setProjectionStringFromOtherShapefile(inputs[0]);
+            
+            // each group of features is dissolved separately, and is written
+            // out as soon as it is finished
+            final int numFields = fields.length;
+            union.setProgressListener(new PriorityFlood.ProgressListener() {
+                @Override
+                public boolean progressMade(int percent) {
+                    updateProgress("Dissolving features:", percent);
+                    return !cancelOp;
+                }
+            });
+            boolean completed = union.run(new CascadedUnion.GroupHandler() {
+                int FID = 0;
                 
-                int numGeometries = outputGeometry.getNumGeometries();
-                oneHundredthTotal = (int)(numGeometries / 100.0);
-                progress = 0;
-                n = 0;
-                FID = 0;
-                for (int a = 0; a < numGeometries; a++) {
-                    com.vividsolutions.jts.geom.Geometry gN = outputGeometry.getGeometryN(a);
-                    if (gN instanceof LineString) {
-                        LineString ls = (LineString) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = {0};
-
-                        Coordinate[] coords = ls.getCoordinates();
-                        for (i = 0; i < coords.length; i++) {
-                            pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = new Double(FID);
-                        output.addRecord(wbGeometry, rowData);
-
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (!Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        
+                @Override
+                public void addGroup(Object key, List<Geometry> geometries) {
+                    for (Geometry geometry : geometries) {
                         FID++;
-                        Object[] rowData = new Object[1];
+                        Object[] rowData = new Object[numFields];
                         rowData[0] = new Double(FID);
-                        output.addRecord(wbGeometry, rowData);
-
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYGON) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (!Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.Polygon wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-                        
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = new Double(FID);
-                        output.addRecord(wbGeometry, rowData);
-
-                    } else {
-                        // it shouldn't really hit here ever.
-                        //showFeedback("An error was encountered when saving the output file.");
-                        //return;
-                    }
-                    
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
+                        if (numFields > 1) {
+                            rowData[1] = key;
                         }
-                        progress++;
-                        updateProgress("Saving output file", progress);
+                        output.addRecord(geometry, rowData);
                     }
                 }
-            } else {
-                // it shouldn't really hit here ever.
-                showFeedback("An error was encountered when saving the output file.");
+            });
+            if (!completed) {
+                cancelOperation();
                 return;
             }
             
+            updateProgress("Saving output file", -1);
             output.write();
             
             // returning a header file string displays the image.
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.operation.linemerge.LineMerger;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import whitebox.geospatialfiles.shapefile.Geometry;
+import whitebox.geospatialfiles.shapefile.ShapeType;
+
+/**
+ * Dissolves features by unioning them, either all together or in groups that
+ * share a key, such as the value of an attribute. The features of a group
+ * are packed into an STR-tree and the tree is unioned from the leaves up, so
+ * that each union joins nearby geometries of similar size, as in the cascaded
+ * polygon union of JTS. Small subtrees are unioned by JTS as a whole, and
+ * these subtrees, the unions of their parents and the groups are all found
+ * in parallel with fork/join. Each group is handed
+ * back on the calling thread, in the order in which its key was first added,
+ * as soon as it is finished.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class CascadedUnion {
+
+    private static final int NODE_CAPACITY = 8;
+    // subtrees with no more features than this are unioned by a single task
+    private static final int MAX_TASK_FEATURES = 512;
+    private static final GeometryFactory factory = new GeometryFactory();
+
+    private final ShapeType outputShapeType;
+    private final Map<Object, List<com.vividsolutions.jts.geom.Geometry>> groups = new LinkedHashMap<>();
+    private PriorityFlood.ProgressListener listener = null;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private final AtomicInteger numFeaturesUnioned = new AtomicInteger(0);
+    private volatile boolean cancelled = false;
+
+    /**
+     * Receives the dissolved groups.
+     */
+    public interface GroupHandler {
+
+        /**
+         * Called for each group, in the order in which the keys were first
+         * added.
+         *
+         * @param key The key of the group, which may be null.
+         * @param geometries The single-part geometries of the union of the
+         * group, of the output shape type.
+         * @throws IOException if the geometries cannot be written.
+         */
+        void addGroup(Object key, List<Geometry> geometries) throws IOException;
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param outputShapeType The base shape type of the output, which is
+     * POLYLINE or POLYGON. Joined lines are merged into the longest lines
+     * that they form.
+     */
+    public CascadedUnion(ShapeType outputShapeType) {
+        this.outputShapeType = outputShapeType.getBaseType();
+    }
+
+    /**
+     * Sets the listener that is told of the percentage of the unions that
+     * have been completed and that can cancel the operation.
+     *
+     * @param listener The listener.
+     */
+    public void setProgressListener(PriorityFlood.ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the number of threads that union geometries. The default is the
+     * number of available processors.
+     *
+     * @param numThreads The number of threads.
+     */
+    public void setNumberOfThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Adds a feature to a group.
+     *
+     * @param geometry The feature's geometry.
+     * @param key The key of the group, or null if the features are not
+     * grouped.
+     */
+    public void add(com.vividsolutions.jts.geom.Geometry geometry, Object key) {
+        if (geometry == null || geometry.isEmpty()) {
+            return;
+        }
+        List<com.vividsolutions.jts.geom.Geometry> group = groups.get(key);
+        if (group == null) {
+            group = new ArrayList<>();
+            groups.put(key, group);
+        }
+        group.add(geometry);
+    }
+
+    /**
+     * Returns the number of groups that have been added.
+     *
+     * @return The number of groups.
+     */
+    public int getNumberOfGroups() {
+        return groups.size();
+    }
+
+    /**
+     * Unions each group. The features that were added are released as their
+     * groups are handed to the handler.
+     *
+     * @param handler Receives the dissolved groups.
+     * @return false if the operation was cancelled.
+     * @throws IOException if the handler cannot write a group.
+     */
+    public boolean run(GroupHandler handler) throws IOException {
+        numFeaturesUnioned.set(0);
+        cancelled = false;
+        long numFeatures = 0;
+        List<Object> keys = new ArrayList<>(groups.keySet());
+        List<GroupTask> tasks = new ArrayList<>();
+        for (Object key : keys) {
+            STRtree tree = new STRtree(NODE_CAPACITY);
+            for (com.vividsolutions.jts.geom.Geometry g : groups.get(key)) {
+                tree.insert(g.getEnvelopeInternal(), g);
+            }
+            UnionTask root = new UnionTask(tree.itemsTree());
+            numFeatures += root.numFeatures;
+            tasks.add(new GroupTask(root));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            List<ForkJoinTask<List<Geometry>>> results = new ArrayList<>();
+            for (GroupTask task : tasks) {
+                results.add(pool.submit(task));
+            }
+            int oldProgress = -1;
+            for (int i = 0; i < keys.size(); i++) {
+                ForkJoinTask<List<Geometry>> result = results.get(i);
+                List<Geometry> geometries = null;
+                while (geometries == null) {
+                    try {
+                        geometries = result.get(200, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        // the group is not finished yet; report progress
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        } else if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        throw new IllegalStateException(cause);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancelled = true;
+                        return false;
+                    }
+                    if (listener != null) {
+                        int progress = (int) (100L * numFeaturesUnioned.get() / Math.max(1, numFeatures));
+                        if (progress != oldProgress) {
+                            oldProgress = progress;
+                            if (!listener.progressMade(progress)) {
+                                cancelled = true;
+                                return false;
+                            }
+                        }
+                    }
+                }
+                // release the group's features before it is written
+                groups.remove(keys.get(i));
+                tasks.set(i, null);
+                results.set(i, null);
+                handler.addGroup(keys.get(i), geometries);
+            }
+        } finally {
+            // stops any unions that are still running after an error
+            cancelled = true;
+            pool.shutdownNow();
+        }
+        return true;
+    }
+
+    /**
+     * Unions the whole tree of a group and converts the union to Whitebox
+     * geometries.
+     */
+    private class GroupTask extends RecursiveTask<List<Geometry>> {
+
+        private static final long serialVersionUID = 1L;
+        private final UnionTask root;
+
+        GroupTask(UnionTask root) {
+            this.root = root;
+        }
+
+        @Override
+        protected List<Geometry> compute() {
+            com.vividsolutions.jts.geom.Geometry union = root.compute();
+            if (union == null) {
+                return new ArrayList<>();
+            }
+            if (outputShapeType == ShapeType.POLYLINE) {
+                // the union nodes the lines at every junction, so they are
+                // joined again into the longest runs that they form
+                LineMerger merger = new LineMerger();
+                merger.add(union);
+                @SuppressWarnings("unchecked")
+                Collection<LineString> lines = merger.getMergedLineStrings();
+                union = factory.buildGeometry(lines);
+            }
+            return VectorOverlay.getWhiteboxGeometries(union, outputShapeType);
+        }
+    }
+
+    /**
+     * Unions a node of an STR-tree. A small node is unioned in one step, while
+     * the children of a larger node are unioned in parallel and then the
+     * union of their results is found.
+     */
+    private class UnionTask extends RecursiveTask<com.vividsolutions.jts.geom.Geometry> {
+
+        private static final long serialVersionUID = 1L;
+        private final List<?> node;
+        private final List<UnionTask> children = new ArrayList<>();
+        private final int numFeatures;
+
+        UnionTask(List<?> node) {
+            this.node = node;
+            int n = countFeatures(node);
+            if (n > MAX_TASK_FEATURES) {
+                for (Object child : node) {
+                    if (child instanceof List) {
+                        children.add(new UnionTask((List<?>) child));
+                    }
+                }
+            }
+            numFeatures = n;
+        }
+
+        @Override
+        protected com.vividsolutions.jts.geom.Geometry compute() {
+            if (cancelled) {
+                return null;
+            }
+            List<com.vividsolutions.jts.geom.Geometry> parts = new ArrayList<>();
+            if (children.isEmpty()) {
+                addFeatures(node, parts);
+                com.vividsolutions.jts.geom.Geometry union = union(parts);
+                numFeaturesUnioned.addAndGet(numFeatures);
+                return union;
+            }
+            for (Object child : node) {
+                if (!(child instanceof List)) {
+                    parts.add(VectorOverlay.repair((com.vividsolutions.jts.geom.Geometry) child));
+                }
+            }
+            invokeAll(children);
+            for (UnionTask child : children) {
+                com.vividsolutions.jts.geom.Geometry g = child.join();
+                if (g != null) {
+                    parts.add(g);
+                }
+            }
+            // the unions of the children are joined in pairs, since each
+            // pair only has to be unioned where the two overlap
+            while (parts.size() > 1) {
+                List<com.vividsolutions.jts.geom.Geometry> merged = new ArrayList<>();
+                for (int i = 0; i < parts.size(); i += 2) {
+                    if (i + 1 < parts.size()) {
+                        merged.add(union(parts.get(i), parts.get(i + 1)));
+                    } else {
+                        merged.add(parts.get(i));
+                    }
+                }
+                parts = merged;
+            }
+            return parts.isEmpty() ? null : parts.get(0);
+        }
+    }
+
+    private static int countFeatures(List<?> node) {
+        int n = 0;
+        for (Object child : node) {
+            if (child instanceof List) {
+                n += countFeatures((List<?>) child);
+            } else {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static void addFeatures(List<?> node, List<com.vividsolutions.jts.geom.Geometry> features) {
+        for (Object child : node) {
+            if (child instanceof List) {
+                addFeatures((List<?>) child, features);
+            } else {
+                features.add(VectorOverlay.repair((com.vividsolutions.jts.geom.Geometry) child));
+            }
+        }
+    }
+
+    private static com.vividsolutions.jts.geom.Geometry union(List<com.vividsolutions.jts.geom.Geometry> parts) {
+        if (parts.isEmpty()) {
+            return null;
+        } else if (parts.size() == 1 && parts.get(0).getDimension() < 2) {
+            // lines are still noded against themselves
+            return UnaryUnionOp.union(parts.get(0));
+        } else if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        try {
+            return UnaryUnionOp.union(parts);
+        } catch (RuntimeException e) {
+            // fall back on the buffer(0) dissolve, which is slower but
+            // tolerates problems that the overlay does not
+            com.vividsolutions.jts.geom.Geometry collection = factory.buildGeometry(parts);
+            if (collection.getDimension() == 2) {
+                return collection.buffer(0d);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Unions two geometries that are each already a union. Only the parts of
+     * one whose envelopes overlap parts of the other can interact, so the
+     * rest are copied into the result as they are.
+     */
+    private static com.vividsolutions.jts.geom.Geometry union(com.vividsolutions.jts.geom.Geometry g0,
+            com.vividsolutions.jts.geom.Geometry g1) {
+        Envelope common = g0.getEnvelopeInternal().intersection(g1.getEnvelopeInternal());
+        List<com.vividsolutions.jts.geom.Geometry> untouched = new ArrayList<>();
+        List<com.vividsolutions.jts.geom.Geometry> touching = new ArrayList<>();
+        STRtree tree = new STRtree();
+        for (int i = 0; i < g1.getNumGeometries(); i++) {
+            com.vividsolutions.jts.geom.Geometry part = g1.getGeometryN(i);
+            if (common.intersects(part.getEnvelopeInternal())) {
+                tree.insert(part.getEnvelopeInternal(), part);
+            } else {
+                untouched.add(part);
+            }
+        }
+        Set<com.vividsolutions.jts.geom.Geometry> touched = Collections.newSetFromMap(
+                new IdentityHashMap<com.vividsolutions.jts.geom.Geometry, Boolean>());
+        for (int i = 0; i < g0.getNumGeometries(); i++) {
+            com.vividsolutions.jts.geom.Geometry part = g0.getGeometryN(i);
+            List<?> hits = common.intersects(part.getEnvelopeInternal())
+                    ? tree.query(part.getEnvelopeInternal()) : Collections.emptyList();
+            if (hits.isEmpty()) {
+                untouched.add(part);
+            } else {
+                touching.add(part);
+                for (Object hit : hits) {
+                    touched.add((com.vividsolutions.jts.geom.Geometry) hit);
+                }
+            }
+        }
+        for (int i = 0; i < g1.getNumGeometries(); i++) {
+            com.vividsolutions.jts.geom.Geometry part = g1.getGeometryN(i);
+            if (touched.contains(part)) {
+                touching.add(part);
+            } else if (common.intersects(part.getEnvelopeInternal())) {
+                untouched.add(part);
+            }
+        }
+        if (!touching.isEmpty()) {
+            com.vividsolutions.jts.geom.Geometry u = union(touching);
+            for (int i = 0; i < u.getNumGeometries(); i++) {
+                untouched.add(u.getGeometryN(i));
+            }
+        }
+        return factory.buildGeometry(untouched);
+    }
+}
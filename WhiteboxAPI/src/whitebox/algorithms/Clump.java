@@ -18,11 +18,13 @@ package whitebox.algorithms;
 
 import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.Parallel;
 
 /**
  * This algorithm takes an input raster of categorical data (e.g. a land-use
  * image) and assigns a unique identifier value to each contiguous group of
- * same-valued grid cells (i.e. region).
+ * same-valued grid cells (i.e. region). The regions are labelled by a
+ * PatchLabeller and numbered from 1.
  *
  * @author johnlindsay
  */
@@ -31,13 +33,6 @@ public class Clump {
     double noData = -32768;
     WhiteboxRaster image;
     WhiteboxRaster output;
-    double currentPatchNumber = 0;
-    double currentImageValue = 0;
-    int maxDepth = 1000;
-    int depth = 0;
-    int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-    int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-    int numScanCells = 8;
     boolean blnIncludeDiagNeighbour = true;
     boolean blnTreatZerosAsBackground = false;
     String outputHeader = "";
@@ -53,22 +48,12 @@ public class Clump {
     public Clump(WhiteboxRaster inputImage, boolean includeDiagonalNeighbours) {
         this.image = inputImage;
         this.blnIncludeDiagNeighbour = includeDiagonalNeighbours;
-
-        if (!blnIncludeDiagNeighbour) {
-            dX = new int[]{0, 1, 0, -1};
-            dY = new int[]{-1, 0, 1, 0};
-        }
     }
 
     public Clump(WhiteboxRaster inputImage, boolean includeDiagonalNeighbours,
             boolean treatZerosAsBackground) {
         this.image = inputImage;
         this.blnIncludeDiagNeighbour = includeDiagonalNeighbours;
-
-        if (!blnIncludeDiagNeighbour) {
-            dX = new int[]{0, 1, 0, -1};
-            dY = new int[]{-1, 0, 1, 0};
-        }
         this.blnTreatZerosAsBackground = treatZerosAsBackground;
     }
 
@@ -82,152 +67,55 @@ public class Clump {
 
     public void setIncludeDiagonalNeighbours(boolean value) {
         this.blnIncludeDiagNeighbour = value;
-
-        if (!blnIncludeDiagNeighbour) {
-            dX = new int[]{0, 1, 0, -1};
-            dY = new int[]{-1, 0, 1, 0};
-        }
     }
 
     public WhiteboxRaster run() throws Exception {
-        int row, col, x, y, i;
-        boolean blnFoundNeighbour;
-        double maxPatchValue = 1;
-        numScanCells = dY.length;
+        int row, col, i;
         int rows = image.getNumberRows();
         int cols = image.getNumberColumns();
         noData = image.getNoDataValue();
 
-        double initialValue = -1;
-        if (outputHeader.isEmpty()) {
-            outputHeader = image.getHeaderFile().replace(".dep", "_clumped.dep");
-        }
-        output = new WhiteboxRaster(outputHeader, "rw", image.getHeaderFile(), WhiteboxRaster.DataType.FLOAT, initialValue);
-        output.setDataScale(WhiteboxRaster.DataScale.CATEGORICAL);
-        output.setPreferredPalette("qual.pal");
-
-        if (blnTreatZerosAsBackground) {
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (image.getValue(row, col) == 0) {
-                        output.setValue(row, col, 0);
-                    }
-                }
-            }
-            if (output.getValue(0, 0) == -1) {
-                output.setValue(0, 0, maxPatchValue);
-                // recursively scan all connected cells of equal value in Image
-                depth = 0;
-                ScanConnectedCells(0, 0, image.getValue(0, 0), initialValue, maxPatchValue);
-            }
-        } else {
-            output.setValue(0, 0, maxPatchValue);
-            // recursively scan all connected cells of equal value in Image
-            depth = 0;
-            ScanConnectedCells(0, 0, image.getValue(0, 0), initialValue, maxPatchValue);
+        // the grid values and labels are held in memory, which takes 12
+        // bytes per cell.
+        long numCells = (long) rows * cols;
+        if (numCells > Integer.MAX_VALUE - 8
+                || 12L * numCells > Runtime.getRuntime().maxMemory()) {
+            throw new IllegalArgumentException("The raster " + image.getHeaderFile()
+                    + " is too large to be clumped in memory.");
         }
 
-        double patchValue = 0;
-        double neighbourPatchValue = 0;
-        double newPatchValue = 0;
-        double imageValue = 0;
+        double[] data = new double[(int) numCells];
+        i = 0;
         for (row = 0; row < rows; row++) {
+            double[] values = image.getRowValues(row);
             for (col = 0; col < cols; col++) {
-                imageValue = image.getValue(row, col);
-                if (imageValue != noData) {
-                    patchValue = output.getValue(row, col);
-                    if (patchValue == initialValue) {
-                        // see if any neighbour has the same value in the input image
-                        blnFoundNeighbour = false;
-                        for (i = 0; i < numScanCells; i++) {
-                            x = col + dX[i];
-                            y = row + dY[i];
-                            neighbourPatchValue = output.getValue(y, x);
-                            if (neighbourPatchValue != initialValue
-                                    && image.getValue(y, x) == imageValue) {
-                                // cell is neighbouring a cell with the same value in image that
-                                // has already been assigned a patch value
-                                output.setValue(row, col, neighbourPatchValue);
-                                newPatchValue = neighbourPatchValue;
-                                blnFoundNeighbour = true;
-                                break;
-                            }
-                        }
-                        if (!blnFoundNeighbour) {
-                            // no neighbouring cell has the same value in Image and has 
-                            // already been assigned a value. A new one is needed.
-                            maxPatchValue++;
-                            newPatchValue = maxPatchValue;
-                            output.setValue(row, col, newPatchValue);
-                        }
-
-                        // recursively scan all connected cells of equal value in Image
-                        depth = 0;
-                        ScanConnectedCells(row, col, imageValue, initialValue, newPatchValue);
-                    }
-                } else {
-                    output.setValue(row, col, noData);
-                }
+                data[i] = values[col];
+                i++;
             }
         }
 
-        // find all cells with neighbouring cells that have the same value in
-        // the input image but different patch values in the output image.
-        // Recursively scan them to change the larger patch ID to the lower value.
-        // Iterate this process until there are no further changes to the image.
-        boolean somethingDone;
-        double[] reclass = new double[(int) maxPatchValue + 1];
-        // this array is used to keep track of the eliminated patches.
-        do {
-            somethingDone = false;
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    imageValue = image.getValue(row, col);
-                    if (imageValue != noData) {
-                        patchValue = output.getValue(row, col);
-                        for (i = 0; i < numScanCells; i++) {
-                            x = col + dX[i];
-                            y = row + dY[i];
-                            neighbourPatchValue = output.getValue(y, x);
-                            if (neighbourPatchValue != patchValue
-                                    && image.getValue(y, x) == imageValue) {
-                                // The two patches are equivalent. Find the 
-                                // lower valued cell and initiate a recursive
-                                // scan from there.
-                                somethingDone = true;
-                                if (patchValue < neighbourPatchValue) {
-                                    reclass[(int) neighbourPatchValue] = -1;
-                                    output.setValue(y, x, patchValue);
-                                    ScanConnectedCells(y, x, imageValue, neighbourPatchValue, patchValue);
-                                } else {
-                                    reclass[(int) patchValue] = -1;
-                                    output.setValue(row, col, neighbourPatchValue);
-                                    ScanConnectedCells(row, col, imageValue, patchValue, neighbourPatchValue);
-                                    patchValue = neighbourPatchValue;
-                                }
-
-                            }
-                        }
-                    }
-                }
-            }
-        } while (somethingDone);
+        PatchLabeller labeller = new PatchLabeller(data, rows, cols, noData);
+        labeller.setIncludeDiagonalNeighbours(blnIncludeDiagNeighbour);
+        labeller.setTreatZerosAsBackground(blnTreatZerosAsBackground);
+        int[] labels = new int[(int) numCells];
+        labeller.labelInParallel(labels, Parallel.getPluginProcessors());
+        data = null;
 
-        i = 0;
-        for (int a = 0; a < maxPatchValue + 1; a++) {
-            if (reclass[a] != -1) {
-                reclass[a] = i;
-                i++;
-            }
+        if (outputHeader.isEmpty()) {
+            outputHeader = image.getHeaderFile().replace(".dep", "_clumped.dep");
         }
+        output = new WhiteboxRaster(outputHeader, "rw", image.getHeaderFile(), WhiteboxRaster.DataType.FLOAT, noData);
+        output.setDataScale(WhiteboxRaster.DataScale.CATEGORICAL);
+        output.setPreferredPalette("qual.pal");
 
+        double[] values = new double[cols];
+        i = 0;
         for (row = 0; row < rows; row++) {
             for (col = 0; col < cols; col++) {
-                patchValue = output.getValue(row, col);
-                if (patchValue != noData) {
-                    output.setValue(row, col, reclass[(int) patchValue]);
-                }
+                values[col] = labels[i] != PatchLabeller.NODATA ? labels[i] : noData;
+                i++;
             }
+            output.setRowValues(row, values);
         }
 
         output.addMetadataEntry("Created by the "
@@ -238,22 +126,4 @@ public class Clump {
         output.writeHeaderFile();
         return output;
     }
-
-    private void ScanConnectedCells(int row, int col, double imageValue, double currentPatchValue, double newPatchValue) {
-        depth++;
-        int x, y;
-        if (depth < maxDepth) {
-            for (int c = 0; c < numScanCells; c++) {
-                x = col + dX[c];
-                y = row + dY[c];
-                if ((output.getValue(y, x) == currentPatchValue)
-                        && (image.getValue(y, x) == imageValue)) {
-                    // cell should be assigned the new patch value and has the same value in Image
-                    output.setValue(y, x, newPatchValue);
-                    ScanConnectedCells(y, x, imageValue, currentPatchValue, newPatchValue);
-                }
-            }
-        }
-        depth--;
-    }
 }
@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import whitebox.structures.BooleanBitArray1D;
+import whitebox.structures.CellFifoQueue;
+
+/**
+ * Accumulates a quantity down a flow network in topological order. The number
+ * of inflowing neighbours of each cell is counted once into an int array and
+ * a cell is only routed downslope after all of its donors have been, so each
+ * cell is visited a single time and no recursion is needed. The flow network
+ * itself is described by a FlowRouter, which lets the same engine serve D8,
+ * D-infinity and FD8 routing and mass-flux style transfers.
+ *
+ * Neighbours are numbered as in the Whitebox flow pointer, from 0 (north-east,
+ * pointer value 1) clockwise to 7 (north, pointer value 128).
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class FlowAccumulator {
+
+    private static final int INVALID = -1;
+    private static final int DONE = -2;
+    private static final int MAX_BAND_ROWS = 64;
+    private static final int[] dX = {1, 1, 1, 0, -1, -1, -1, 0};
+    private static final int[] dY = {-1, 0, 1, 1, 1, 0, -1, -1};
+
+    private final int rows;
+    private final int columns;
+    private final FlowRouter router;
+    private PriorityFlood.ProgressListener listener = null;
+    private int oldProgress = -1;
+
+    /**
+     * Describes how flow leaves each grid cell. Implementations must be safe
+     * to call from several threads at once when the parallel accumulation is
+     * used, i.e. they should only read shared data.
+     */
+    public interface FlowRouter {
+
+        /**
+         * Finds the neighbours that a cell drains to and the amount that each
+         * receives. The set of receivers must not depend on the accumulation,
+         * although the amounts may, e.g. a receiver can be sent zero.
+         *
+         * @param row The row of the cell.
+         * @param col The column of the cell.
+         * @param accumulation The final accumulated value of the cell.
+         * @param neighbours Filled with the neighbour number (0-7) of each
+         * receiver.
+         * @param amounts Filled with the amount sent to each receiver.
+         * @return The number of receivers, or -1 if the cell is nodata.
+         */
+        int route(int row, int col, double accumulation, int[] neighbours, double[] amounts);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param rows The number of rows in the grid.
+     * @param columns The number of columns in the grid.
+     * @param router Describes the flow network.
+     */
+    public FlowAccumulator(int rows, int columns, FlowRouter router) {
+        if ((long) rows * columns > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The grid is too large to be held in memory.");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.router = router;
+    }
+
+    public void setProgressListener(PriorityFlood.ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Accumulates flow on a single thread.
+     *
+     * @param accumulation The value that each cell contributes in row-major
+     * order, which is replaced by the accumulated value. The values of nodata
+     * cells are left unchanged.
+     * @return false if the operation was cancelled.
+     */
+    public boolean accumulate(double[] accumulation) {
+        int[] inDegree = countInflowingNeighbours(accumulation);
+        if (inDegree == null) {
+            return false;
+        }
+        int[] neighbours = new int[8];
+        double[] amounts = new double[8];
+        CellFifoQueue queue = new CellFifoQueue();
+        oldProgress = -1;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                int i = row * columns + col;
+                if (inDegree[i] != 0) {
+                    continue;
+                }
+                // a source cell; follow the flow downslope for as long as
+                // the cells that it reaches have no unresolved donors.
+                inDegree[i] = DONE;
+                queue.add(i);
+                while (!queue.isEmpty()) {
+                    int cell = (int) queue.poll();
+                    int r = cell / columns;
+                    int c = cell % columns;
+                    int n = router.route(r, c, accumulation[cell], neighbours, amounts);
+                    for (int k = 0; k < n; k++) {
+                        int rN = r + dY[neighbours[k]];
+                        int cN = c + dX[neighbours[k]];
+                        if (rN < 0 || rN >= rows || cN < 0 || cN >= columns) {
+                            continue;
+                        }
+                        int iN = rN * columns + cN;
+                        if (inDegree[iN] > 0) {
+                            accumulation[iN] += amounts[k];
+                            if (--inDegree[iN] == 0) {
+                                inDegree[iN] = DONE;
+                                queue.add(iN);
+                            }
+                        }
+                    }
+                }
+            }
+            if (!reportProgress(row + 1, rows)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Accumulates flow on several threads. Each thread takes a band of rows
+     * and follows the flow from the source cells in it; whichever thread
+     * resolves the last donor of a cell carries on downslope from it, so
+     * separate sub-trees of the network are processed concurrently. Because
+     * the order in which inflows are summed can differ between runs, results
+     * may differ from the single-threaded ones by rounding.
+     *
+     * @param accumulation The value that each cell contributes in row-major
+     * order, which is replaced by the accumulated value. The values of nodata
+     * cells are left unchanged.
+     * @param numThreads The number of threads to use.
+     * @return false if the operation was cancelled.
+     */
+    public boolean accumulateInParallel(double[] accumulation, int numThreads) {
+        if (numThreads <= 1) {
+            return accumulate(accumulation);
+        }
+        int[] counts = countInflowingNeighbours(accumulation);
+        if (counts == null) {
+            return false;
+        }
+        final int numCells = rows * columns;
+        final AtomicIntegerArray inDegree = new AtomicIntegerArray(counts);
+        counts = null;
+        final AtomicLongArray values = new AtomicLongArray(numCells);
+        for (int i = 0; i < numCells; i++) {
+            values.set(i, Double.doubleToRawLongBits(accumulation[i]));
+        }
+
+        final int band = Math.max(1, Math.min(MAX_BAND_ROWS,
+                (rows + 4 * numThreads - 1) / (4 * numThreads)));
+        final int numBands = (rows + band - 1) / band;
+        numThreads = Math.min(numThreads, numBands);
+        final AtomicInteger nextBand = new AtomicInteger(0);
+        final AtomicLong rowsCompleted = new AtomicLong(0);
+        final boolean[] cancelled = new boolean[1];
+        oldProgress = -1;
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    int[] neighbours = new int[8];
+                    double[] amounts = new double[8];
+                    CellFifoQueue queue = new CellFifoQueue();
+                    int b;
+                    while ((b = nextBand.getAndIncrement()) < numBands) {
+                        synchronized (cancelled) {
+                            if (cancelled[0]) {
+                                return;
+                            }
+                        }
+                        int startRow = b * band;
+                        int endRow = Math.min(rows, startRow + band);
+                        for (int i = startRow * columns; i < endRow * columns; i++) {
+                            if (inDegree.get(i) != 0 || !inDegree.compareAndSet(i, 0, DONE)) {
+                                continue;
+                            }
+                            queue.add(i);
+                            while (!queue.isEmpty()) {
+                                int cell = (int) queue.poll();
+                                int r = cell / columns;
+                                int c = cell % columns;
+                                double z = Double.longBitsToDouble(values.get(cell));
+                                int n = router.route(r, c, z, neighbours, amounts);
+                                for (int k = 0; k < n; k++) {
+                                    int rN = r + dY[neighbours[k]];
+                                    int cN = c + dX[neighbours[k]];
+                                    if (rN < 0 || rN >= rows || cN < 0 || cN >= columns) {
+                                        continue;
+                                    }
+                                    int iN = rN * columns + cN;
+                                    if (inDegree.get(iN) <= 0) {
+                                        continue;
+                                    }
+                                    add(values, iN, amounts[k]);
+                                    // the value is added before the count is
+                                    // released, so the thread that resolves
+                                    // the last donor sees every inflow.
+                                    if (inDegree.decrementAndGet(iN) == 0
+                                            && inDegree.compareAndSet(iN, 0, DONE)) {
+                                        queue.add(iN);
+                                    }
+                                }
+                            }
+                        }
+                        long completed = rowsCompleted.addAndGet(endRow - startRow);
+                        synchronized (cancelled) {
+                            if (!cancelled[0] && !reportProgress(completed, rows)) {
+                                cancelled[0] = true;
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    synchronized (cancelled) {
+                        cancelled[0] = true;
+                    }
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                } catch (InterruptedException e) {
+                    synchronized (cancelled) {
+                        cancelled[0] = true;
+                    }
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        synchronized (cancelled) {
+            if (cancelled[0]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < numCells; i++) {
+            accumulation[i] = Double.longBitsToDouble(values.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * Counts the valid donors of each cell. Nodata cells are given a count
+     * of -1 and receive nothing.
+     */
+    private int[] countInflowingNeighbours(double[] accumulation) {
+        int numCells = rows * columns;
+        if (accumulation.length < numCells) {
+            throw new IllegalArgumentException("The accumulation array is smaller than the grid.");
+        }
+        int[] inDegree = new int[numCells];
+        BooleanBitArray1D invalid = new BooleanBitArray1D(numCells);
+        int[] neighbours = new int[8];
+        double[] amounts = new double[8];
+        oldProgress = -1;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                int i = row * columns + col;
+                int n = router.route(row, col, accumulation[i], neighbours, amounts);
+                if (n < 0) {
+                    invalid.setValue(i, true);
+                    continue;
+                }
+                for (int k = 0; k < n; k++) {
+                    int rN = row + dY[neighbours[k]];
+                    int cN = col + dX[neighbours[k]];
+                    if (rN >= 0 && rN < rows && cN >= 0 && cN < columns) {
+                        inDegree[rN * columns + cN]++;
+                    }
+                }
+            }
+            if (!reportProgress(row + 1, rows)) {
+                return null;
+            }
+        }
+        for (int i = 0; i < numCells; i++) {
+            if (invalid.getValue(i)) {
+                inDegree[i] = INVALID;
+            }
+        }
+        return inDegree;
+    }
+
+    private static void add(AtomicLongArray values, int i, double amount) {
+        while (true) {
+            long bits = values.get(i);
+            long sum = Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + amount);
+            if (values.compareAndSet(i, bits, sum)) {
+                return;
+            }
+        }
+    }
+
+    private boolean reportProgress(long done, long total) {
+        int progress = (int) (100f * done / total);
+        if (progress != oldProgress) {
+            oldProgress = progress;
+            if (listener != null) {
+                return listener.progressMade(progress);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Routes flow over a D8 flow pointer that has been packed into one byte
+     * per cell. Each cell sends its whole accumulation to the neighbour that
+     * it points to unless getOutflow is overridden.
+     */
+    public static class D8Router implements FlowRouter {
+
+        /**
+         * The packed direction of a valid cell that does not drain to a
+         * neighbour, e.g. a pit or an outlet.
+         */
+        public static final byte NO_FLOW = -1;
+        /**
+         * The packed direction of a nodata cell.
+         */
+        public static final byte NODATA = -2;
+        private static final double LnOf2 = 0.693147180559945;
+
+        protected final byte[] directions;
+        protected final int columns;
+
+        /**
+         * Class constructor.
+         *
+         * @param directions The packed direction of each cell in row-major
+         * order.
+         * @param columns The number of columns in the grid.
+         */
+        public D8Router(byte[] directions, int columns) {
+            this.directions = directions;
+            this.columns = columns;
+        }
+
+        /**
+         * Converts a Whitebox D8 flow pointer value into a packed direction.
+         *
+         * @param flowDir The flow pointer value (1, 2, 4, ..., 128).
+         * @param noData The nodata value of the flow pointer.
+         * @return The neighbour number (0-7), NO_FLOW or NODATA.
+         */
+        public static byte getDirection(double flowDir, double noData) {
+            if (flowDir == noData) {
+                return NODATA;
+            }
+            if (flowDir > 0) {
+                int i = (int) (Math.log(flowDir) / LnOf2);
+                if (i >= 0 && i < 8) {
+                    return (byte) i;
+                }
+            }
+            return NO_FLOW;
+        }
+
+        @Override
+        public int route(int row, int col, double accumulation, int[] neighbours, double[] amounts) {
+            byte dir = directions[row * columns + col];
+            if (dir == NODATA) {
+                return -1;
+            }
+            if (dir == NO_FLOW) {
+                return 0;
+            }
+            neighbours[0] = dir;
+            amounts[0] = getOutflow(row, col, accumulation);
+            return 1;
+        }
+
+        /**
+         * Returns the amount that a cell passes on to its receiver.
+         *
+         * @param row The row of the cell.
+         * @param col The column of the cell.
+         * @param accumulation The final accumulated value of the cell.
+         * @return The amount sent downslope.
+         */
+        protected double getOutflow(int row, int col, double accumulation) {
+            return accumulation;
+        }
+    }
+}
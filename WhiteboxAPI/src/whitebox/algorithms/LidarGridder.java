@@ -0,0 +1,731 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import whitebox.geospatialfiles.LasPointFilter;
+import whitebox.geospatialfiles.LasTileCache;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.geospatialfiles.WhiteboxRasterBase.DataScale;
+import whitebox.geospatialfiles.WhiteboxRasterBase.DataType;
+import whitebox.structures.BoundingBox;
+import whitebox.structures.StaticKdTree;
+import whitebox.utilities.FileUtilities;
+
+/**
+ * Interpolates a set of LAS tiles onto a grid. The tiles are processed one at
+ * a time, in an order that keeps neighbouring tiles close together, while the
+ * points of the next tile are decoded, and their tree built, on a background
+ * thread. Each tile is gridded together with the points of its neighbours
+ * that lie within the search radius of the interpolator, so there are no edge
+ * effects where tiles meet, and the rows of the tile's grid are divided into
+ * bands that are computed by several worker threads. The output is either one
+ * raster per tile or a single seamless raster covering all of the tiles.
+ *
+ * The points of a tile are held in a StaticKdTree, which may be searched by
+ * all of the worker threads at once.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class LidarGridder {
+
+    private static final int MAX_BAND_ROWS = 64;
+    // the buffer used by an interpolator with an unlimited search radius.
+    private static final int UNLIMITED_BUFFER_CELLS = 16;
+
+    private final LasTileCache tiles;
+    private final CellInterpolator interpolator;
+    private final double resolution;
+    private double noData = -32768;
+    private final ArrayList<String> metadata = new ArrayList<>();
+    private PriorityFlood.ProgressListener listener = null;
+    private int oldProgress = -1;
+
+    /**
+     * Calculates the value of a grid cell from the points around it.
+     * Interpolators are called concurrently by several worker threads, each
+     * with its own query, and so must not modify any shared state.
+     */
+    public interface CellInterpolator {
+
+        /**
+         * Returns the greatest distance from a cell centre of the points
+         * that are used, which may be infinite.
+         *
+         * @return The search radius.
+         */
+        double getSearchRadius();
+
+        /**
+         * Calculates the value of a cell.
+         *
+         * @param query Used to find the points around the cell.
+         * @param x The x coordinate of the cell centre.
+         * @param y The y coordinate of the cell centre.
+         * @param noData The nodata value of the output.
+         * @return The cell value.
+         */
+        double interpolate(Query query, double x, double y, double noData);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param tiles The tiles to grid.
+     * @param interpolator Calculates the value of each cell.
+     * @param resolution The grid resolution.
+     */
+    public LidarGridder(LasTileCache tiles, CellInterpolator interpolator, double resolution) {
+        this.tiles = tiles;
+        this.interpolator = interpolator;
+        this.resolution = resolution;
+    }
+
+    public void setNoDataValue(double noData) {
+        this.noData = noData;
+    }
+
+    public void setProgressListener(PriorityFlood.ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds an entry to the metadata of each output raster.
+     *
+     * @param value The metadata entry.
+     */
+    public void addMetadataEntry(String value) {
+        metadata.add(value);
+    }
+
+    /**
+     * Returns the width of the buffer of neighbouring points around each tile.
+     * The centres of the cells gridded from a tile may lie up to a cell
+     * beyond the tile's extent, so the buffer is one cell wider than the
+     * search radius.
+     *
+     * @return The buffer width.
+     */
+    public double getBuffer() {
+        double radius = interpolator.getSearchRadius();
+        if (Double.isInfinite(radius) || Double.isNaN(radius)) {
+            return UNLIMITED_BUFFER_CELLS * resolution;
+        }
+        return radius + resolution;
+    }
+
+    /**
+     * Grids each tile into its own raster, covering the extent of the tile's
+     * points. The output of a tile is named after the tile, with the suffix
+     * added before the extension. Tiles without any points are skipped.
+     *
+     * @param suffix The suffix of the output file names.
+     * @param numThreads The number of worker threads.
+     * @return false if the operation was cancelled.
+     * @throws IOException if one of the tiles cannot be read.
+     */
+    public boolean gridTiles(String suffix, int numThreads) throws IOException {
+        return run(null, suffix, numThreads);
+    }
+
+    /**
+     * Grids all of the tiles into a single raster covering the combined
+     * extent of the tile headers. Each cell is computed from the tile that
+     * contains its centre and that tile's buffer, so the output has no seams.
+     *
+     * @param outputHeader The name of the output raster header file.
+     * @param numThreads The number of worker threads.
+     * @return false if the operation was cancelled.
+     * @throws IOException if one of the tiles cannot be read.
+     */
+    public boolean gridMosaic(String outputHeader, int numThreads) throws IOException {
+        return run(outputHeader, null, numThreads);
+    }
+
+    private boolean run(String mosaicHeader, String suffix, int numThreads) throws IOException {
+        final int numTiles = tiles.getNumTiles();
+        if (numTiles == 0) {
+            return true;
+        }
+        numThreads = Math.max(1, numThreads);
+        final double buffer = getBuffer();
+        final Integer[] order = getTileOrder();
+        oldProgress = -1;
+
+        WhiteboxRaster mosaic = null;
+        double mosaicWest = 0;
+        double mosaicNorth = 0;
+        if (mosaicHeader != null) {
+            BoundingBox extent = tiles.getTileExtent(0);
+            for (int t = 1; t < numTiles; t++) {
+                extent.expandTo(tiles.getTileExtent(t));
+            }
+            mosaicWest = extent.getMinX() - 0.5 * resolution;
+            mosaicNorth = extent.getMaxY() + 0.5 * resolution;
+            mosaic = createRaster(mosaicHeader, mosaicWest, mosaicNorth,
+                    extent.getMinX(), extent.getMaxX(), extent.getMinY());
+            // tiles write rectangles of the output, which the tiled store
+            // suits far better than the sliding block of rows.
+            mosaic.setTiledCache(true);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<TilePoints> next = prefetch(reader, order[0], buffer);
+            for (int k = 0; k < numTiles; k++) {
+                int tile = order[k];
+                TilePoints tilePoints;
+                try {
+                    tilePoints = next.get();
+                } catch (ExecutionException e) {
+                    throw rethrow(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                if (k + 1 < numTiles) {
+                    next = prefetch(reader, order[k + 1], buffer);
+                }
+                if (tilePoints.numTilePoints == 0 && (mosaic == null || tilePoints.tree.size() == 0)) {
+                    continue;
+                }
+
+                boolean completed;
+                if (mosaic == null) {
+                    completed = gridTile(tilePoints, FileUtilities.replaceFileExtension(tiles.getFileName(tile), suffix + ".dep"),
+                            executor, numThreads, k, numTiles);
+                } else {
+                    completed = gridMosaicTile(tilePoints, tiles.getTileExtent(tile), mosaic,
+                            mosaicWest, mosaicNorth, executor, numThreads, k, numTiles);
+                }
+                if (!completed) {
+                    return false;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            reader.shutdownNow();
+            if (mosaic != null) {
+                finishRaster(mosaic);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the points of a tile and its buffer and builds their tree on the
+     * reader thread, while the previous tile is being gridded.
+     */
+    private Future<TilePoints> prefetch(ExecutorService reader,
+            final int tile, final double buffer) {
+        return reader.submit(new Callable<TilePoints>() {
+            @Override
+            public TilePoints call() throws IOException {
+                return new TilePoints(tiles.getNeighbourhood(tile, buffer));
+            }
+        });
+    }
+
+    /**
+     * Orders the tiles in rows from north to south and from west to east
+     * within each row, so that consecutive tiles share neighbours that are
+     * still in the tile cache.
+     */
+    private Integer[] getTileOrder() {
+        int numTiles = tiles.getNumTiles();
+        final double[] centreX = new double[numTiles];
+        final double[] centreY = new double[numTiles];
+        double[] heights = new double[numTiles];
+        double maxY = Double.NEGATIVE_INFINITY;
+        Integer[] order = new Integer[numTiles];
+        for (int t = 0; t < numTiles; t++) {
+            BoundingBox extent = tiles.getTileExtent(t);
+            centreX[t] = (extent.getMinX() + extent.getMaxX()) / 2;
+            centreY[t] = (extent.getMinY() + extent.getMaxY()) / 2;
+            heights[t] = extent.getHeight();
+            maxY = Math.max(maxY, extent.getMaxY());
+            order[t] = t;
+        }
+        Arrays.sort(heights);
+        final double rowHeight = Math.max(heights[numTiles / 2], resolution);
+        final double top = maxY;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long rowA = (long) Math.floor((top - centreY[a]) / rowHeight);
+                long rowB = (long) Math.floor((top - centreY[b]) / rowHeight);
+                if (rowA != rowB) {
+                    return rowA < rowB ? -1 : 1;
+                }
+                return Double.compare(centreX[a], centreX[b]);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Grids one tile into its own raster, covering the extent of its points.
+     */
+    private boolean gridTile(TilePoints tilePoints, String outputHeader, ExecutorService executor,
+            int numThreads, int tileNumber, int numTiles) {
+        double west = tilePoints.tileMinX - 0.5 * resolution;
+        double north = tilePoints.tileMaxY + 0.5 * resolution;
+        final WhiteboxRaster image = createRaster(outputHeader, west, north,
+                tilePoints.tileMinX, tilePoints.tileMaxX, tilePoints.tileMinY);
+        try {
+            final int cols = image.getNumberColumns();
+            return gridRows(tilePoints, west, north, 0, image.getNumberRows(), 0, cols,
+                    new BandWriter() {
+                        @Override
+                        public void write(int row, double[] values) {
+                            synchronized (image) {
+                                image.setRowValues(row, values);
+                            }
+                        }
+                    }, executor, numThreads, tileNumber, numTiles);
+        } finally {
+            finishRaster(image);
+        }
+    }
+
+    /**
+     * Grids the cells of the mosaic whose centres lie within a tile's extent,
+     * expanded by a cell. The extents of neighbouring tiles usually leave a
+     * narrow gap between the outermost points of each tile, and the cells in
+     * the gap are then gridded by both tiles, with the same result.
+     */
+    private boolean gridMosaicTile(TilePoints tilePoints, BoundingBox extent,
+            final WhiteboxRaster mosaic, double west, double north,
+            ExecutorService executor, int numThreads, int tileNumber, int numTiles) {
+        int startRow = Math.max(0, (int) Math.ceil((north - extent.getMaxY() - resolution) / resolution - 0.5));
+        int endRow = Math.min(mosaic.getNumberRows(),
+                (int) Math.floor((north - extent.getMinY() + resolution) / resolution - 0.5) + 1);
+        final int startCol = Math.max(0, (int) Math.ceil((extent.getMinX() - resolution - west) / resolution - 0.5));
+        int endCol = Math.min(mosaic.getNumberColumns(),
+                (int) Math.floor((extent.getMaxX() + resolution - west) / resolution - 0.5) + 1);
+        if (startRow >= endRow || startCol >= endCol) {
+            return reportProgress(tileNumber + 1, 1, numTiles);
+        }
+        return gridRows(tilePoints, west, north, startRow, endRow, startCol, endCol,
+                new BandWriter() {
+                    @Override
+                    public void write(int row, double[] values) {
+                        synchronized (mosaic) {
+                            double[] rowValues = mosaic.getRowValues(row);
+                            System.arraycopy(values, 0, rowValues, startCol, values.length);
+                            mosaic.setRowValues(row, rowValues);
+                        }
+                    }
+                }, executor, numThreads, tileNumber, numTiles);
+    }
+
+    private interface BandWriter {
+
+        void write(int row, double[] values);
+    }
+
+    /**
+     * Computes a block of rows and columns of a grid in bands of rows that
+     * are handed out to the worker threads.
+     */
+    private boolean gridRows(final TilePoints tilePoints, final double west, final double north,
+            final int startRow, final int endRow, final int startCol, final int endCol,
+            final BandWriter writer, ExecutorService executor, int numThreads,
+            final int tileNumber, final int numTiles) {
+        final int rows = endRow - startRow;
+        final int band = Math.max(1, Math.min(MAX_BAND_ROWS,
+                (rows + 4 * numThreads - 1) / (4 * numThreads)));
+        final int numBands = (rows + band - 1) / band;
+        numThreads = Math.min(numThreads, numBands);
+        final AtomicInteger nextBand = new AtomicInteger(0);
+        final AtomicInteger rowsCompleted = new AtomicInteger(0);
+        final boolean[] cancelled = new boolean[1];
+        final double halfResolution = resolution / 2;
+
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Query query = new Query(tilePoints);
+                    double[][] values = new double[band][endCol - startCol];
+                    int b;
+                    while ((b = nextBand.getAndIncrement()) < numBands) {
+                        synchronized (cancelled) {
+                            if (cancelled[0]) {
+                                return;
+                            }
+                        }
+                        int bandStart = startRow + b * band;
+                        int bandEnd = Math.min(endRow, bandStart + band);
+                        for (int row = bandStart; row < bandEnd; row++) {
+                            double[] rowValues = values[row - bandStart];
+                            double northing = (north - halfResolution) - (row * resolution);
+                            for (int col = startCol; col < endCol; col++) {
+                                double easting = (col * resolution) + (west + halfResolution);
+                                rowValues[col - startCol] = interpolator.interpolate(query,
+                                        easting, northing, noData);
+                            }
+                        }
+                        for (int row = bandStart; row < bandEnd; row++) {
+                            writer.write(row, values[row - bandStart]);
+                        }
+                        int completed = rowsCompleted.addAndGet(bandEnd - bandStart);
+                        synchronized (cancelled) {
+                            if (!cancelled[0] && !reportProgress(tileNumber, (double) completed / rows, numTiles)) {
+                                cancelled[0] = true;
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                synchronized (cancelled) {
+                    cancelled[0] = true;
+                }
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            } catch (InterruptedException e) {
+                synchronized (cancelled) {
+                    cancelled[0] = true;
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (cancelled) {
+            return !cancelled[0];
+        }
+    }
+
+    private WhiteboxRaster createRaster(String outputHeader, double west, double north,
+            double minX, double maxX, double minY) {
+        int nrows = (int) (Math.ceil((north - minY) / resolution));
+        int ncols = (int) (Math.ceil((maxX - west) / resolution));
+        double south = north - nrows * resolution;
+        double east = west + ncols * resolution;
+        int valueType = tiles.getFilter().getValueType();
+        DataScale dataScale = valueType == LasPointFilter.RGB ? DataScale.RGB : DataScale.CONTINUOUS;
+        WhiteboxRaster image = new WhiteboxRaster(outputHeader, north, south, east, west,
+                nrows, ncols, dataScale, DataType.FLOAT, noData, noData);
+        if (valueType == LasPointFilter.RGB) {
+            image.setPreferredPalette("rgb.pal");
+        } else if (valueType == LasPointFilter.INTENSITY) {
+            image.setPreferredPalette("grey.pal");
+        } else {
+            image.setPreferredPalette("spectrum.pal");
+        }
+        return image;
+    }
+
+    private void finishRaster(WhiteboxRaster image) {
+        for (String entry : metadata) {
+            image.addMetadataEntry(entry);
+        }
+        image.close();
+    }
+
+    private static IOException rethrow(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    private boolean reportProgress(int tileNumber, double tileFraction, int numTiles) {
+        int progress = (int) (100 * (tileNumber + tileFraction) / numTiles);
+        if (progress != oldProgress) {
+            oldProgress = progress;
+            if (listener != null) {
+                return listener.progressMade(progress);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The points of a tile and its buffer, held in a StaticKdTree whose
+     * values are the numbers of the points. The tree is never modified after
+     * it is built, so it can be searched by all of the worker threads.
+     */
+    private static final class TilePoints {
+
+        private final StaticKdTree tree;
+        private final double[] values;
+        private final byte[] scanAngles;
+        private final int numTilePoints;
+        private double tileMinX = Double.POSITIVE_INFINITY;
+        private double tileMaxX = Double.NEGATIVE_INFINITY;
+        private double tileMinY = Double.POSITIVE_INFINITY;
+        private double tileMaxY = Double.NEGATIVE_INFINITY;
+
+        TilePoints(LasTileCache.Points points) {
+            int numPoints = points.size();
+            numTilePoints = points.getNumTilePoints();
+            double[] x = points.getX();
+            double[] y = points.getY();
+            double[] coordinates = new double[2 * numPoints];
+            for (int i = 0; i < numPoints; i++) {
+                coordinates[2 * i] = x[i];
+                coordinates[2 * i + 1] = y[i];
+                if (i < numTilePoints) {
+                    tileMinX = Math.min(tileMinX, x[i]);
+                    tileMaxX = Math.max(tileMaxX, x[i]);
+                    tileMinY = Math.min(tileMinY, y[i]);
+                    tileMaxY = Math.max(tileMaxY, y[i]);
+                }
+            }
+            tree = new StaticKdTree(2, coordinates, null);
+            values = points.getValues();
+            scanAngles = points.getScanAngles();
+        }
+    }
+
+    /**
+     * Finds the points around a location. Each worker thread has its own
+     * query, which holds the points found by the last search.
+     */
+    public static final class Query {
+
+        private final TilePoints points;
+        private final StaticKdTree.Neighbours found = new StaticKdTree.Neighbours(64);
+        private final double[] location = new double[2];
+
+        private Query(TilePoints points) {
+            this.points = points;
+        }
+
+        /**
+         * Finds all of the points within a radius of a location.
+         *
+         * @param x The x coordinate of the location.
+         * @param y The y coordinate of the location.
+         * @param radius The search radius, which may be infinite.
+         * @return The number of points found.
+         */
+        public int findWithinRadius(double x, double y, double radius) {
+            location[0] = x;
+            location[1] = y;
+            return points.tree.findWithinRadius(location, radius, found);
+        }
+
+        /**
+         * Finds the nearest point to a location that is closer than a
+         * maximum distance.
+         *
+         * @param x The x coordinate of the location.
+         * @param y The y coordinate of the location.
+         * @param maxDistance The maximum distance, which may be infinite.
+         * @return The number of points found, either 0 or 1.
+         */
+        public int findNearest(double x, double y, double maxDistance) {
+            location[0] = x;
+            location[1] = y;
+            return points.tree.findNearest(location, 1, maxDistance, found);
+        }
+
+        public int getNumFound() {
+            return found.size();
+        }
+
+        /**
+         * Returns the squared distance to a point found by the last search.
+         *
+         * @param k The number of the point within the search results.
+         * @return The squared distance.
+         */
+        public double getSqrDistance(int k) {
+            return found.getSqrDistance(k);
+        }
+
+        public double getValue(int k) {
+            return points.values[found.getValue(k)];
+        }
+
+        public int getScanAngle(int k) {
+            return points.scanAngles[found.getValue(k)];
+        }
+    }
+
+    /**
+     * Inverse-distance weighted interpolation of the points within a maximum
+     * distance of each cell. Unless RGB colours are being interpolated, only
+     * points whose absolute scan angle is within three degrees of the
+     * smallest found are used, which reduces striping between flight lines.
+     */
+    public static class IDW implements CellInterpolator {
+
+        private final double weight;
+        private final double maxDistance;
+        private final boolean rgb;
+
+        /**
+         * Class constructor.
+         *
+         * @param weight The distance weighting exponent.
+         * @param maxDistance The maximum distance of the points that are used,
+         * which may be infinite.
+         * @param rgb Set to true if the point values are packed RGB colours.
+         */
+        public IDW(double weight, double maxDistance, boolean rgb) {
+            this.weight = weight;
+            this.maxDistance = maxDistance;
+            this.rgb = rgb;
+        }
+
+        @Override
+        public double getSearchRadius() {
+            return maxDistance;
+        }
+
+        @Override
+        public double interpolate(Query query, double x, double y, double noData) {
+            int n = query.findWithinRadius(x, y, maxDistance);
+            int minScanAngle = Integer.MAX_VALUE;
+            for (int k = 0; k < n; k++) {
+                if (query.getSqrDistance(k) == 0) {
+                    return query.getValue(k);
+                }
+                minScanAngle = Math.min(minScanAngle, Math.abs(query.getScanAngle(k)));
+            }
+            double sumWeights = 0;
+            double z = 0, zR = 0, zG = 0, zB = 0;
+            for (int k = 0; k < n; k++) {
+                if (!rgb && Math.abs(query.getScanAngle(k)) - minScanAngle >= 3) {
+                    continue;
+                }
+                double w = 1 / Math.pow(Math.sqrt(query.getSqrDistance(k)), weight);
+                sumWeights += w;
+                double value = query.getValue(k);
+                if (rgb) {
+                    zR += w * ((int) value & 0xFF);
+                    zG += w * (((int) value >> 8) & 0xFF);
+                    zB += w * (((int) value >> 16) & 0xFF);
+                } else {
+                    z += w * value;
+                }
+            }
+            if (sumWeights <= 0) {
+                return noData;
+            }
+            if (rgb) {
+                return (double) ((255 << 24) | ((int) Math.round(zB / sumWeights) << 16)
+                        | ((int) Math.round(zG / sumWeights) << 8) | (int) Math.round(zR / sumWeights));
+            }
+            return z / sumWeights;
+        }
+    }
+
+    /**
+     * Assigns each cell the value of its nearest point within a maximum
+     * distance.
+     */
+    public static class NearestNeighbour implements CellInterpolator {
+
+        private final double maxDistance;
+
+        /**
+         * Class constructor.
+         *
+         * @param maxDistance The maximum distance of the nearest point, which
+         * may be infinite.
+         */
+        public NearestNeighbour(double maxDistance) {
+            this.maxDistance = maxDistance;
+        }
+
+        @Override
+        public double getSearchRadius() {
+            return maxDistance;
+        }
+
+        @Override
+        public double interpolate(Query query, double x, double y, double noData) {
+            if (query.findNearest(x, y, maxDistance) == 0) {
+                return noData;
+            }
+            return query.getValue(0);
+        }
+    }
+
+    /**
+     * Assigns each cell the highest or lowest value of the points within a
+     * radius of its centre.
+     */
+    public static class Extremum implements CellInterpolator {
+
+        private final double radius;
+        private final boolean maximum;
+
+        /**
+         * Class constructor.
+         *
+         * @param radius The search radius.
+         * @param maximum Set to true for the highest value or false for the
+         * lowest.
+         */
+        public Extremum(double radius, boolean maximum) {
+            this.radius = radius;
+            this.maximum = maximum;
+        }
+
+        @Override
+        public double getSearchRadius() {
+            return radius;
+        }
+
+        @Override
+        public double interpolate(Query query, double x, double y, double noData) {
+            int n = query.findWithinRadius(x, y, radius);
+            if (n == 0) {
+                return noData;
+            }
+            double z = query.getValue(0);
+            for (int k = 1; k < n; k++) {
+                double value = query.getValue(k);
+                if (maximum ? value > z : value < z) {
+                    z = value;
+                }
+            }
+            return z;
+        }
+    }
+}
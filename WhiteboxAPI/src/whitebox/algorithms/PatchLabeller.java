@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import whitebox.utilities.NamedThreadFactory;
+
+/**
+ * Assigns a unique identifier to each patch of a categorical grid, i.e. each
+ * contiguous group of same-valued cells, using two-pass connected-component
+ * labelling. The first pass scans the grid in row-major order and gives each
+ * cell the provisional label of a matching neighbour in the row above or to
+ * its left, recording in a union-find forest any provisional labels that turn
+ * out to belong to the same patch; the second pass replaces each provisional
+ * label by the final label of its patch. No recursion is used, so patches of
+ * any size and shape can be labelled.
+ *
+ * Patches are numbered from 1 in the order in which their first cell is met
+ * in a row-major scan of the grid, whether or not the grid is labelled in
+ * parallel. Nodata cells are given a label of NODATA and, optionally, cells
+ * with a value of zero are given a label of BACKGROUND.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class PatchLabeller {
+
+    /**
+     * The label of a nodata cell.
+     */
+    public static final int NODATA = -1;
+    /**
+     * The label of a background (zero-valued) cell.
+     */
+    public static final int BACKGROUND = 0;
+    // the provisional label of a background cell during the first pass.
+    private static final int ZERO = -2;
+
+    private final double[] data;
+    private final int rows;
+    private final int columns;
+    private final double noData;
+    private boolean includeDiagonalNeighbours = true;
+    private boolean treatZerosAsBackground = false;
+    private PriorityFlood.ProgressListener listener = null;
+    private int oldProgress = -1;
+    private boolean cancelled = false;
+
+    /**
+     * Class constructor.
+     *
+     * @param data The grid values in row-major order.
+     * @param rows The number of rows in the grid.
+     * @param columns The number of columns in the grid.
+     * @param noData The nodata value of the grid.
+     */
+    public PatchLabeller(double[] data, int rows, int columns, double noData) {
+        if ((long) rows * columns > data.length) {
+            throw new IllegalArgumentException("The data array is smaller than the grid.");
+        }
+        this.data = data;
+        this.rows = rows;
+        this.columns = columns;
+        this.noData = noData;
+    }
+
+    /**
+     * Sets whether cells that only touch at a corner belong to the same
+     * patch. The default is true.
+     *
+     * @param value false to connect cells through their edges only.
+     */
+    public void setIncludeDiagonalNeighbours(boolean value) {
+        this.includeDiagonalNeighbours = value;
+    }
+
+    /**
+     * Sets whether zero-valued cells are labelled as BACKGROUND rather than
+     * as patches. The default is false.
+     *
+     * @param value true to treat zero-valued cells as background.
+     */
+    public void setTreatZerosAsBackground(boolean value) {
+        this.treatZerosAsBackground = value;
+    }
+
+    public void setProgressListener(PriorityFlood.ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Labels the patches of the grid on a single thread.
+     *
+     * @param labels The array that receives the label of each cell in
+     * row-major order.
+     * @return the number of patches, or -1 if the operation was cancelled.
+     */
+    public int label(int[] labels) {
+        checkLength(labels);
+        oldProgress = -1;
+        cancelled = false;
+        AtomicLong rowsCompleted = new AtomicLong(0);
+        Forest forest = labelBand(0, rows, labels, rowsCompleted);
+        if (forest == null) {
+            return -1;
+        }
+        int[] finalLabels = forest.number();
+        relabel(0, rows, 0, finalLabels, labels);
+        return forest.numRoots;
+    }
+
+    /**
+     * Labels the patches of the grid on several threads. The grid is divided
+     * into one band of rows per thread and each band is labelled on its own;
+     * the patches that cross the boundaries between bands are then merged in
+     * the union-find forest before the final labels are assigned, so the
+     * result is identical to that of label.
+     *
+     * @param labels The array that receives the label of each cell in
+     * row-major order.
+     * @param numThreads The number of threads to use.
+     * @return the number of patches, or -1 if the operation was cancelled.
+     */
+    public int labelInParallel(final int[] labels, int numThreads) {
+        final int numBands = Math.min(numThreads, rows / 2);
+        if (numBands <= 1) {
+            return label(labels);
+        }
+        checkLength(labels);
+        oldProgress = -1;
+        cancelled = false;
+        final int[] startRows = new int[numBands + 1];
+        for (int b = 0; b <= numBands; b++) {
+            startRows[b] = (int) ((long) rows * b / numBands);
+        }
+        final AtomicLong rowsCompleted = new AtomicLong(0);
+        ExecutorService executor = Executors.newFixedThreadPool(numBands,
+                new NamedThreadFactory("PatchLabeller"));
+        Forest[] forests = new Forest[numBands];
+        try {
+            ArrayList<Future<Forest>> futures = new ArrayList<>();
+            for (int b = 0; b < numBands; b++) {
+                final int startRow = startRows[b];
+                final int endRow = startRows[b + 1];
+                futures.add(executor.submit(new Callable<Forest>() {
+                    @Override
+                    public Forest call() {
+                        return labelBand(startRow, endRow, labels, rowsCompleted);
+                    }
+                }));
+            }
+            for (int b = 0; b < numBands; b++) {
+                try {
+                    forests[b] = futures.get(b).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (Forest forest : forests) {
+            if (forest == null) {
+                return -1;
+            }
+        }
+
+        // join the band forests into one, offsetting the provisional labels
+        // of each band past those of the bands above it.
+        int[] offsets = new int[numBands];
+        int numLabels = 0;
+        for (int b = 0; b < numBands; b++) {
+            offsets[b] = numLabels;
+            numLabels += forests[b].size;
+        }
+        Forest forest = new Forest(numLabels);
+        for (int b = 0; b < numBands; b++) {
+            forest.append(forests[b], offsets[b]);
+            forests[b] = null;
+        }
+
+        // merge the patches that cross the boundary above each band.
+        for (int b = 1; b < numBands; b++) {
+            int row = startRows[b];
+            for (int col = 0; col < columns; col++) {
+                int i = row * columns + col;
+                int label = labels[i];
+                if (label < 0) {
+                    continue;
+                }
+                label += offsets[b];
+                double z = data[i];
+                int up = i - columns;
+                if (data[up] == z) {
+                    forest.union(label, labels[up] + offsets[b - 1]);
+                }
+                if (includeDiagonalNeighbours) {
+                    if (col > 0 && data[up - 1] == z) {
+                        forest.union(label, labels[up - 1] + offsets[b - 1]);
+                    }
+                    if (col < columns - 1 && data[up + 1] == z) {
+                        forest.union(label, labels[up + 1] + offsets[b - 1]);
+                    }
+                }
+            }
+        }
+
+        int[] finalLabels = forest.number();
+        for (int b = 0; b < numBands; b++) {
+            relabel(startRows[b], startRows[b + 1], offsets[b], finalLabels, labels);
+        }
+        return forest.numRoots;
+    }
+
+    /**
+     * The first pass over a band of rows. Each cell is given a provisional
+     * label that is local to the band; cells in the first row of the band are
+     * not connected to the row above, which belongs to another band.
+     *
+     * @return the forest of provisional labels, or null if cancelled.
+     */
+    private Forest labelBand(int startRow, int endRow, int[] labels, AtomicLong rowsCompleted) {
+        Forest forest = new Forest(Math.max(16, (endRow - startRow) * columns / 64));
+        for (int row = startRow; row < endRow; row++) {
+            for (int col = 0; col < columns; col++) {
+                int i = row * columns + col;
+                double z = data[i];
+                if (z == noData) {
+                    labels[i] = NODATA;
+                    continue;
+                }
+                if (treatZerosAsBackground && z == 0) {
+                    labels[i] = ZERO;
+                    continue;
+                }
+                // a neighbour with the same value can be neither nodata nor
+                // background, so it always has a provisional label.
+                int label = -1;
+                if (col > 0 && data[i - 1] == z) {
+                    label = labels[i - 1];
+                }
+                if (row > startRow) {
+                    int up = i - columns;
+                    if (data[up] == z) {
+                        label = label < 0 ? labels[up] : forest.union(label, labels[up]);
+                    }
+                    if (includeDiagonalNeighbours) {
+                        if (col > 0 && data[up - 1] == z) {
+                            label = label < 0 ? labels[up - 1] : forest.union(label, labels[up - 1]);
+                        }
+                        if (col < columns - 1 && data[up + 1] == z) {
+                            label = label < 0 ? labels[up + 1] : forest.union(label, labels[up + 1]);
+                        }
+                    }
+                }
+                labels[i] = label < 0 ? forest.add() : label;
+            }
+            long completed = rowsCompleted.incrementAndGet();
+            synchronized (this) {
+                if (!cancelled && !reportProgress(completed, rows)) {
+                    cancelled = true;
+                }
+                if (cancelled) {
+                    return null;
+                }
+            }
+        }
+        return forest;
+    }
+
+    /**
+     * The second pass over a band of rows, which replaces the provisional
+     * labels by the final labels of their patches.
+     */
+    private void relabel(int startRow, int endRow, int offset, int[] finalLabels, int[] labels) {
+        for (int i = startRow * columns; i < endRow * columns; i++) {
+            int label = labels[i];
+            if (label >= 0) {
+                labels[i] = finalLabels[label + offset];
+            } else if (label == ZERO) {
+                labels[i] = BACKGROUND;
+            }
+        }
+    }
+
+    private void checkLength(int[] labels) {
+        if ((long) rows * columns > labels.length) {
+            throw new IllegalArgumentException("The labels array is smaller than the grid.");
+        }
+    }
+
+    private boolean reportProgress(long done, long total) {
+        int progress = (int) (100f * done / total);
+        if (progress != oldProgress) {
+            oldProgress = progress;
+            if (listener != null) {
+                return listener.progressMade(progress);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A union-find forest over provisional labels held in a growable
+     * primitive array. The root of each tree is always its smallest label,
+     * i.e. the label that was created first.
+     */
+    private static class Forest {
+
+        int[] parent;
+        int size = 0;
+        int numRoots = 0;
+
+        Forest(int capacity) {
+            parent = new int[Math.max(capacity, 1)];
+        }
+
+        int add() {
+            if (size == parent.length) {
+                parent = Arrays.copyOf(parent, Math.max(2 * size, 16));
+            }
+            parent[size] = size;
+            return size++;
+        }
+
+        void append(Forest other, int offset) {
+            for (int k = 0; k < other.size; k++) {
+                parent[offset + k] = other.parent[k] + offset;
+            }
+            size = Math.max(size, offset + other.size);
+        }
+
+        int find(int a) {
+            while (parent[a] != a) {
+                // path halving
+                parent[a] = parent[parent[a]];
+                a = parent[a];
+            }
+            return a;
+        }
+
+        /**
+         * Joins the trees of two labels.
+         *
+         * @return the root of the joined tree.
+         */
+        int union(int a, int b) {
+            a = find(a);
+            b = find(b);
+            if (a < b) {
+                parent[b] = a;
+                return a;
+            }
+            parent[a] = b;
+            return b;
+        }
+
+        /**
+         * Numbers the trees from 1 in the order of their roots.
+         *
+         * @return the final label of each provisional label.
+         */
+        int[] number() {
+            int[] finalLabels = new int[size];
+            numRoots = 0;
+            for (int k = 0; k < size; k++) {
+                // the root of a tree is its smallest label, so it has
+                // already been numbered.
+                int root = find(k);
+                finalLabels[k] = root == k ? ++numRoots : finalLabels[root];
+            }
+            return finalLabels;
+        }
+    }
+}
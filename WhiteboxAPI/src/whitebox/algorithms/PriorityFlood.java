@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import whitebox.structures.BooleanBitArray1D;
+import whitebox.structures.CellBucketQueue;
+import whitebox.structures.CellFifoQueue;
+import whitebox.structures.CellPriorityQueue;
+import whitebox.structures.CellQueue;
+
+/**
+ * Removes the depressions from a DEM using the priority-flood algorithm. The
+ * flood starts from the cells on the edges of the grid and beside nodata
+ * cells and works inwards, always from the lowest cell reached so far; any
+ * cell that is no higher than the cell that it is reached from lies in a
+ * depression and is raised.
+ *
+ * The DEM is held in a single primitive array and the flood front in a
+ * primitive CellQueue, so no object is created per grid cell. Raised cells,
+ * which are reached in order of increasing elevation, are held in a plain
+ * FIFO queue rather than the priority queue (priority-flood + epsilon), and
+ * integer DEMs that are filled flat use a bucketed queue instead of a heap.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class PriorityFlood {
+
+    private static final int MAX_BUCKETS = 1 << 20;
+    private static final int[] dX = {1, 1, 1, 0, -1, -1, -1, 0};
+    private static final int[] dY = {-1, 0, 1, 1, 1, 0, -1, -1};
+
+    private final double[] dem;
+    private final int rows;
+    private final int columns;
+    private final double noData;
+    private ProgressListener listener = null;
+    private int oldProgress = -1;
+
+    /**
+     * Used to report the progress of a flood and to cancel it.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called each time that the percentage of solved cells changes.
+         *
+         * @param percent The percentage of the grid that has been solved.
+         * @return false to cancel the operation.
+         */
+        boolean progressMade(int percent);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param dem The DEM in row-major order, which is modified in place.
+     * @param rows The number of rows in the DEM.
+     * @param columns The number of columns in the DEM.
+     * @param noData The nodata value of the DEM.
+     */
+    public PriorityFlood(double[] dem, int rows, int columns, double noData) {
+        if ((long) rows * columns > dem.length) {
+            throw new IllegalArgumentException("The DEM array is smaller than the grid.");
+        }
+        this.dem = dem;
+        this.rows = rows;
+        this.columns = columns;
+        this.noData = noData;
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Fills the depressions in the DEM. Each cell in a depression is raised
+     * to the elevation of the cell that it is reached from plus the
+     * increment, so that a positive increment leaves a small gradient across
+     * the filled surface and an increment of zero fills it flat.
+     *
+     * @param increment The height of each raised cell above its neighbour.
+     * @return false if the operation was cancelled.
+     */
+    public boolean fillDepressions(double increment) {
+        int numCells = rows * columns;
+        BooleanBitArray1D closed = new BooleanBitArray1D(numCells);
+        CellQueue queue = createQueue(increment);
+        CellFifoQueue pits = new CellFifoQueue();
+        long numSolvedCells = 0;
+        oldProgress = -1;
+
+        // the cells on the edges of the grid or beside nodata seed the flood.
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                int i = row * columns + col;
+                double z = dem[i];
+                if (z == noData) {
+                    numSolvedCells++;
+                    continue;
+                }
+                for (int n = 0; n < 8; n++) {
+                    int rowN = row + dY[n];
+                    int colN = col + dX[n];
+                    if (rowN < 0 || rowN >= rows || colN < 0 || colN >= columns
+                            || dem[rowN * columns + colN] == noData) {
+                        closed.setValue(i, true);
+                        queue.add(z, i);
+                        numSolvedCells++;
+                        break;
+                    }
+                }
+            }
+            if (!reportProgress(row + 1, rows)) {
+                return false;
+            }
+        }
+
+        oldProgress = -1;
+        while (!queue.isEmpty() || !pits.isEmpty()) {
+            // raised cells are added to the pit queue in order of elevation,
+            // so the lower of the two queue heads is the lowest cell.
+            int i;
+            if (!pits.isEmpty() && (queue.isEmpty()
+                    || dem[(int) pits.peek()] <= queue.peekPriority())) {
+                i = (int) pits.poll();
+            } else {
+                i = (int) queue.poll();
+            }
+            int row = i / columns;
+            int col = i % columns;
+            double z = dem[i];
+            for (int n = 0; n < 8; n++) {
+                int rowN = row + dY[n];
+                int colN = col + dX[n];
+                if (rowN < 0 || rowN >= rows || colN < 0 || colN >= columns) {
+                    continue;
+                }
+                int iN = rowN * columns + colN;
+                double zN = dem[iN];
+                if (zN != noData && !closed.getValue(iN)) {
+                    closed.setValue(iN, true);
+                    numSolvedCells++;
+                    if (zN <= z) {
+                        dem[iN] = z + increment;
+                        pits.add(iN);
+                    } else {
+                        queue.add(zN, iN);
+                    }
+                }
+            }
+            if (!reportProgress(numSolvedCells, numCells)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Chooses a bucketed queue for integer DEMs that are filled flat, since
+     * every cell that enters the queue then has a whole-number elevation, and
+     * a binary heap otherwise.
+     */
+    private CellQueue createQueue(double increment) {
+        int numCells = rows * columns;
+        if (increment == 0) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            boolean integer = true;
+            for (int i = 0; i < numCells && integer; i++) {
+                double z = dem[i];
+                if (z != noData) {
+                    if (z != Math.floor(z)) {
+                        integer = false;
+                    }
+                    if (z < min) {
+                        min = z;
+                    }
+                    if (z > max) {
+                        max = z;
+                    }
+                }
+            }
+            if (integer && max >= min && max - min < MAX_BUCKETS) {
+                return new CellBucketQueue(min, max);
+            }
+        }
+        return new CellPriorityQueue(2 * (rows + columns));
+    }
+
+    private boolean reportProgress(long done, long total) {
+        int progress = (int) (100f * done / total);
+        if (progress != oldProgress) {
+            oldProgress = progress;
+            if (listener != null) {
+                return listener.progressMade(progress);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.Parallel;
+import whitebox.structures.CellFifoQueue;
+import whitebox.structures.CellPriorityQueue;
+
+/**
+ * Fills the depressions in a DEM that is too large to be held in memory, by
+ * dividing it into square tiles that are processed independently and in
+ * parallel (after Barnes, 2016, Parallel priority-flood depression filling
+ * for trillion cell digital elevation models).
+ *
+ * In the first pass each tile is flooded from its own perimeter. Every
+ * perimeter cell starts a labelled watershed, except those on the edge of
+ * the DEM or beside nodata, which drain out of the DEM and share the outlet
+ * label. Where two watersheds meet, the lowest elevation at which one spills
+ * into the other is recorded in a graph. The perimeters of adjacent tiles
+ * are then joined in the graph, and the lowest elevation at which each
+ * watershed can drain to the outlet is found with a priority-flood over the
+ * graph. In the second pass each tile is flooded again, which reproduces its
+ * watershed labels, and every cell is raised to at least the spill elevation
+ * of its watershed.
+ *
+ * Memory use is bounded by the tile size, the number of worker threads, and
+ * the graph, which only holds the tile perimeters. The depressions are
+ * filled flat, i.e. the result is identical to PriorityFlood.fillDepressions
+ * with an increment of zero.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class TiledPriorityFlood {
+
+    private static final int OUTLET = 1;
+    private static final int[] dX = {1, 1, 1, 0, -1, -1, -1, 0};
+    private static final int[] dY = {-1, 0, 1, 1, 1, 0, -1, -1};
+
+    private final WhiteboxRaster input;
+    private final WhiteboxRaster output;
+    private final int tileSize;
+    private final int rows;
+    private final int columns;
+    private final double noData;
+    private final int tileRows;
+    private final int tileColumns;
+    private PriorityFlood.ProgressListener listener = null;
+
+    /**
+     * Class constructor.
+     *
+     * @param input The input DEM, ideally opened with WhiteboxRaster.openShared
+     * so that the tiles can be read concurrently.
+     * @param output The output raster, which must have the same dimensions as
+     * the input.
+     * @param tileSize The number of rows and columns in each tile.
+     */
+    public TiledPriorityFlood(WhiteboxRaster input, WhiteboxRaster output, int tileSize) {
+        if (input.getNumberRows() != output.getNumberRows()
+                || input.getNumberColumns() != output.getNumberColumns()) {
+            throw new IllegalArgumentException("The input and output rasters must have the same dimensions.");
+        }
+        this.input = input;
+        this.output = output;
+        this.tileSize = Math.max(2, tileSize);
+        this.rows = input.getNumberRows();
+        this.columns = input.getNumberColumns();
+        this.noData = input.getNoDataValue();
+        this.tileRows = (rows + this.tileSize - 1) / this.tileSize;
+        this.tileColumns = (columns + this.tileSize - 1) / this.tileSize;
+    }
+
+    public void setProgressListener(PriorityFlood.ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Fills the depressions and writes the result to the output raster.
+     *
+     * @return false if the operation was cancelled.
+     */
+    public boolean fillDepressions() {
+        final int numTiles = tileRows * tileColumns;
+        final Tile[] tiles = new Tile[numTiles];
+
+        // first pass: label the watersheds of each tile's perimeter
+        boolean completed = forEachTile(numTiles, 0, new TileTask() {
+            @Override
+            public void run(Tile tile) {
+                tile.flood(true);
+                tile.releaseGrids();
+                tiles[tile.index] = tile;
+            }
+        });
+        if (!completed) {
+            return false;
+        }
+
+        final double[] spill = solveSpillElevations(tiles);
+
+        // second pass: raise each cell to the spill elevation of its watershed
+        return forEachTile(numTiles, 50, new TileTask() {
+            @Override
+            public void run(Tile tile) {
+                tile.flood(false);
+                tile.write(spill, tiles[tile.index].labelOffset);
+            }
+        });
+    }
+
+    private interface TileTask {
+
+        void run(Tile tile);
+    }
+
+    private boolean forEachTile(final int numTiles, final int progressOffset,
+            final TileTask task) {
+        int numThreads = Math.max(1, Math.min(Parallel.getPluginProcessors(), numTiles));
+        final AtomicInteger nextTile = new AtomicInteger(0);
+        final AtomicInteger tilesCompleted = new AtomicInteger(0);
+        final boolean[] cancelled = new boolean[1];
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    int index;
+                    while ((index = nextTile.getAndIncrement()) < numTiles) {
+                        synchronized (cancelled) {
+                            if (cancelled[0]) {
+                                return;
+                            }
+                        }
+                        task.run(new Tile(index));
+                        int completed = tilesCompleted.incrementAndGet();
+                        if (listener != null) {
+                            synchronized (cancelled) {
+                                int progress = progressOffset + (int) (50f * completed / numTiles);
+                                if (!cancelled[0] && !listener.progressMade(progress)) {
+                                    cancelled[0] = true;
+                                }
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    synchronized (cancelled) {
+                        cancelled[0] = true;
+                    }
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                } catch (InterruptedException e) {
+                    synchronized (cancelled) {
+                        cancelled[0] = true;
+                    }
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        synchronized (cancelled) {
+            return !cancelled[0];
+        }
+    }
+
+    /**
+     * Joins the watersheds of adjacent tiles and finds the lowest elevation
+     * at which each watershed can drain to the outlet. Node 0 of the graph is
+     * the outlet, and the watersheds of each tile are numbered consecutively
+     * from the tile's label offset.
+     */
+    private double[] solveSpillElevations(Tile[] tiles) {
+        int numNodes = 1;
+        for (Tile tile : tiles) {
+            tile.labelOffset = numNodes - 2;
+            numNodes += tile.numLabels - 1;
+        }
+
+        // gather the edges, first within and then between tiles
+        EdgeList edges = new EdgeList();
+        for (Tile tile : tiles) {
+            for (Map.Entry<Long, Double> e : tile.edges.entrySet()) {
+                long key = e.getKey();
+                edges.add(tile.getNode((int) (key >>> 32)),
+                        tile.getNode((int) key), e.getValue());
+            }
+            tile.edges = null;
+        }
+        for (Tile tile : tiles) {
+            // the right and bottom edges of each tile, including the corner
+            // cells that touch diagonally adjacent tiles.
+            int lastRow = tile.row0 + tile.height - 1;
+            int lastCol = tile.col0 + tile.width - 1;
+            for (int r = tile.row0; r <= lastRow; r++) {
+                for (int d = -1; d <= 1; d++) {
+                    joinPerimeters(tiles, edges, r, lastCol, r + d, lastCol + 1);
+                }
+            }
+            for (int c = tile.col0; c <= lastCol; c++) {
+                for (int d = -1; d <= 1; d++) {
+                    if (c + d < tile.col0 || c + d > lastCol) {
+                        continue; // handled by the column joins
+                    }
+                    joinPerimeters(tiles, edges, lastRow, c, lastRow + 1, c + d);
+                }
+            }
+            // the bottom-left corner touches the tile below and to the left
+            joinPerimeters(tiles, edges, lastRow, tile.col0, lastRow + 1, tile.col0 - 1);
+        }
+
+        // build the adjacency lists
+        int[] first = new int[numNodes + 1];
+        for (int e = 0; e < edges.size; e++) {
+            first[edges.from[e] + 1]++;
+            first[edges.to[e] + 1]++;
+        }
+        for (int n = 0; n < numNodes; n++) {
+            first[n + 1] += first[n];
+        }
+        int[] next = Arrays.copyOf(first, numNodes);
+        int[] neighbours = new int[2 * edges.size];
+        double[] weights = new double[2 * edges.size];
+        for (int e = 0; e < edges.size; e++) {
+            int a = edges.from[e];
+            int b = edges.to[e];
+            neighbours[next[a]] = b;
+            weights[next[a]++] = edges.weight[e];
+            neighbours[next[b]] = a;
+            weights[next[b]++] = edges.weight[e];
+        }
+
+        // flood the graph from the outlet
+        double[] spill = new double[numNodes];
+        Arrays.fill(spill, Double.POSITIVE_INFINITY);
+        spill[0] = Double.NEGATIVE_INFINITY;
+        boolean[] done = new boolean[numNodes];
+        CellPriorityQueue queue = new CellPriorityQueue();
+        queue.add(spill[0], 0);
+        while (!queue.isEmpty()) {
+            double z = queue.peekPriority();
+            int node = (int) queue.poll();
+            if (done[node]) {
+                continue;
+            }
+            done[node] = true;
+            for (int e = first[node]; e < first[node + 1]; e++) {
+                int n = neighbours[e];
+                double zN = Math.max(z, weights[e]);
+                if (!done[n] && zN < spill[n]) {
+                    spill[n] = zN;
+                    queue.add(zN, n);
+                }
+            }
+        }
+        return spill;
+    }
+
+    private void joinPerimeters(Tile[] tiles, EdgeList edges,
+            int row, int col, int rowN, int colN) {
+        if (rowN < 0 || rowN >= rows || colN < 0 || colN >= columns
+                || col < 0 || col >= columns) {
+            return;
+        }
+        Tile a = tiles[(row / tileSize) * tileColumns + col / tileSize];
+        Tile b = tiles[(rowN / tileSize) * tileColumns + colN / tileSize];
+        if (a == b) {
+            return;
+        }
+        int labelA = a.getPerimeterLabel(row, col);
+        int labelB = b.getPerimeterLabel(rowN, colN);
+        if (labelA == 0 || labelB == 0) {
+            return; // nodata
+        }
+        int nodeA = a.getNode(labelA);
+        int nodeB = b.getNode(labelB);
+        if (nodeA != nodeB) {
+            edges.add(nodeA, nodeB, Math.max(a.getPerimeterValue(row, col),
+                    b.getPerimeterValue(rowN, colN)));
+        }
+    }
+
+    private static final class EdgeList {
+
+        int[] from = new int[1024];
+        int[] to = new int[1024];
+        double[] weight = new double[1024];
+        int size = 0;
+
+        void add(int a, int b, double w) {
+            if (size == from.length) {
+                int capacity = size + (size >> 1);
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+            }
+            from[size] = a;
+            to[size] = b;
+            weight[size] = w;
+            size++;
+        }
+    }
+
+    /**
+     * One tile of the DEM. The grids are held with a one-cell halo so that
+     * cells beside nodata outside of the tile can be recognized.
+     */
+    private final class Tile {
+
+        final int index;
+        final int row0;
+        final int col0;
+        final int height;
+        final int width;
+        final int stride;
+        double[] z;
+        int[] labels;
+        int numLabels = OUTLET;
+        int labelOffset;
+        HashMap<Long, Double> edges;
+        // the labels and elevations of the perimeter cells, kept between passes
+        int[] perimeterLabels;
+        double[] perimeterValues;
+
+        Tile(int index) {
+            this.index = index;
+            this.row0 = (index / tileColumns) * tileSize;
+            this.col0 = (index % tileColumns) * tileSize;
+            this.height = Math.min(tileSize, rows - row0);
+            this.width = Math.min(tileSize, columns - col0);
+            this.stride = width + 2;
+        }
+
+        int getNode(int label) {
+            return label == OUTLET ? 0 : labelOffset + label;
+        }
+
+        private int perimeterIndex(int row, int col) {
+            int r = row - row0;
+            int c = col - col0;
+            if (r == 0) {
+                return c;
+            } else if (r == height - 1) {
+                return width + c;
+            } else if (c == 0) {
+                return 2 * width + r;
+            }
+            return 2 * width + height + r;
+        }
+
+        int getPerimeterLabel(int row, int col) {
+            return perimeterLabels[perimeterIndex(row, col)];
+        }
+
+        double getPerimeterValue(int row, int col) {
+            return perimeterValues[perimeterIndex(row, col)];
+        }
+
+        /**
+         * Floods the tile from its perimeter, labelling the watershed of each
+         * perimeter cell and, on the first pass, recording the spill
+         * elevations between adjacent watersheds.
+         */
+        void flood(boolean firstPass) {
+            z = new double[(height + 2) * stride];
+            labels = new int[z.length];
+            for (int r = -1; r <= height; r++) {
+                int row = row0 + r;
+                int i = (r + 1) * stride;
+                for (int c = -1; c <= width; c++, i++) {
+                    int col = col0 + c;
+                    if (row < 0 || row >= rows || col < 0 || col >= columns) {
+                        z[i] = noData;
+                    } else {
+                        z[i] = input.getValue(row, col);
+                    }
+                }
+            }
+            if (firstPass) {
+                edges = new HashMap<>();
+                perimeterLabels = new int[2 * width + 2 * height];
+                perimeterValues = new double[perimeterLabels.length];
+            }
+
+            // seed the flood with the perimeter cells and the cells beside
+            // nodata, in row-major order so that the labels are reproducible.
+            CellPriorityQueue queue = new CellPriorityQueue(4 * tileSize);
+            CellFifoQueue pits = new CellFifoQueue();
+            for (int r = 0; r < height; r++) {
+                for (int c = 0; c < width; c++) {
+                    int i = (r + 1) * stride + c + 1;
+                    if (z[i] == noData) {
+                        continue;
+                    }
+                    boolean outlet = false;
+                    for (int n = 0; n < 8; n++) {
+                        if (z[i + dY[n] * stride + dX[n]] == noData) {
+                            outlet = true;
+                            break;
+                        }
+                    }
+                    if (outlet) {
+                        labels[i] = OUTLET;
+                    } else if (r == 0 || r == height - 1 || c == 0 || c == width - 1) {
+                        numLabels++;
+                        labels[i] = numLabels;
+                    } else {
+                        continue;
+                    }
+                    queue.add(z[i], i);
+                }
+            }
+            if (firstPass) {
+                for (int r = 0; r < height; r++) {
+                    for (int c = 0; c < width; c++) {
+                        if (r == 0 || r == height - 1 || c == 0 || c == width - 1) {
+                            int i = (r + 1) * stride + c + 1;
+                            int p = perimeterIndex(row0 + r, col0 + c);
+                            perimeterLabels[p] = labels[i];
+                            perimeterValues[p] = z[i];
+                        }
+                    }
+                }
+            }
+
+            while (!queue.isEmpty() || !pits.isEmpty()) {
+                int i;
+                if (!pits.isEmpty() && (queue.isEmpty()
+                        || z[(int) pits.peek()] <= queue.peekPriority())) {
+                    i = (int) pits.poll();
+                } else {
+                    i = (int) queue.poll();
+                }
+                int label = labels[i];
+                for (int n = 0; n < 8; n++) {
+                    int iN = i + dY[n] * stride + dX[n];
+                    double zN = z[iN];
+                    if (zN == noData) {
+                        continue;
+                    }
+                    int r = iN / stride;
+                    int c = iN % stride;
+                    if (r == 0 || r == height + 1 || c == 0 || c == width + 1) {
+                        continue; // the halo
+                    }
+                    int labelN = labels[iN];
+                    if (labelN == 0) {
+                        labels[iN] = label;
+                        if (zN <= z[i]) {
+                            z[iN] = z[i];
+                            pits.add(iN);
+                        } else {
+                            queue.add(zN, iN);
+                        }
+                    } else if (firstPass && labelN != label) {
+                        long key = label < labelN
+                                ? ((long) label << 32) | labelN
+                                : ((long) labelN << 32) | label;
+                        double spill = Math.max(z[i], zN);
+                        Double old = edges.get(key);
+                        if (old == null || spill < old) {
+                            edges.put(key, spill);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Raises each cell to the spill elevation of its watershed and writes
+         * the tile to the output raster.
+         */
+        void write(double[] spill, int offset) {
+            labelOffset = offset;
+            synchronized (output) {
+                for (int r = 0; r < height; r++) {
+                    int i = (r + 1) * stride + 1;
+                    for (int c = 0; c < width; c++, i++) {
+                        double value = z[i];
+                        if (value != noData && labels[i] != OUTLET) {
+                            value = Math.max(value, spill[getNode(labels[i])]);
+                        }
+                        output.setValue(row0 + r, col0 + c, value);
+                    }
+                }
+            }
+            releaseGrids();
+        }
+
+        void releaseGrids() {
+            z = null;
+            labels = null;
+        }
+    }
+}
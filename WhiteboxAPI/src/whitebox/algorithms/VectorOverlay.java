@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.operation.overlay.OverlayOp;
+import com.vividsolutions.jts.operation.overlay.snap.SnapIfNeededOverlayOp;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import whitebox.geospatialfiles.ShapeFile;
+import whitebox.geospatialfiles.shapefile.Geometry;
+import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
+import whitebox.geospatialfiles.shapefile.ShapeType;
+import whitebox.geospatialfiles.shapefile.attributes.DBFField;
+import whitebox.structures.RTree;
+import whitebox.utilities.NamedThreadFactory;
+import whitebox.utilities.Topology;
+
+/**
+ * Overlays the features of an input layer with those of an overlay layer one
+ * feature at a time. The overlay features that each input feature may meet
+ * are found with the STR-packed spatial index of the overlay layer and are
+ * then screened with a prepared geometry of the input feature, so that the
+ * overlay itself is only computed for pairs of features that intersect.
+ * Blocks of input features are overlaid in parallel, and the pieces are
+ * handed back on the calling thread in the order of the input records, so
+ * that they can be written to the output, along with the attributes of their
+ * parents, as soon as they are found.
+ *
+ * Each piece is a single-part Whitebox geometry of the output shape type;
+ * any parts of a lower dimension, such as the shared edge of two touching
+ * polygons, are dropped.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class VectorOverlay {
+
+    private static final int RECORDS_PER_TASK = 32;
+    private static final int TASKS_PER_THREAD = 4;
+    private static final GeometryFactory factory = new GeometryFactory();
+
+    private final ShapeFile input;
+    private final ShapeFile overlay;
+    private final ShapeType outputShapeType;
+    private PriorityFlood.ProgressListener listener = null;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private int oldProgress = -1;
+
+    /**
+     * The overlay operations.
+     */
+    public enum Operation {
+
+        /**
+         * Each piece shared by an input feature and an overlay feature, with
+         * one set of pieces for every intersecting pair of features.
+         */
+        INTERSECTION,
+        /**
+         * The part of each input feature that lies within any overlay
+         * feature.
+         */
+        CLIP,
+        /**
+         * The part of each input feature that lies outside of all of the
+         * overlay features.
+         */
+        DIFFERENCE
+    }
+
+    /**
+     * Receives the pieces produced by an overlay.
+     */
+    public interface FeatureHandler {
+
+        /**
+         * Called for each piece of the output, in the order of the input
+         * records.
+         *
+         * @param geometry The piece, of the output shape type.
+         * @param inputRecord The zero-based number of the input record that
+         * the piece came from.
+         * @param overlayRecord The zero-based number of the overlay record
+         * that the piece came from, or -1 for the CLIP and DIFFERENCE
+         * operations.
+         * @throws IOException if the piece cannot be written.
+         */
+        void addFeature(Geometry geometry, int inputRecord, int overlayRecord) throws IOException;
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param input The input layer, whose records are visited in order.
+     * @param overlay The overlay layer, whose records are found through its
+     * spatial index.
+     * @param outputShapeType The base shape type of the output pieces, which
+     * is one of POINT, MULTIPOINT, POLYLINE or POLYGON.
+     */
+    public VectorOverlay(ShapeFile input, ShapeFile overlay, ShapeType outputShapeType) {
+        this.input = input;
+        this.overlay = overlay;
+        this.outputShapeType = outputShapeType.getBaseType();
+    }
+
+    /**
+     * Sets the listener that is told of the percentage of the input records
+     * that have been overlaid and that can cancel the operation.
+     *
+     * @param listener The listener.
+     */
+    public void setProgressListener(PriorityFlood.ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the number of threads that overlay features. The default is the
+     * number of available processors.
+     *
+     * @param numThreads The number of threads.
+     */
+    public void setNumberOfThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Overlays the two layers.
+     *
+     * @param operation The overlay operation.
+     * @param handler Receives the output pieces.
+     * @return false if the operation was cancelled.
+     * @throws IOException if the handler cannot write a piece.
+     */
+    public boolean run(Operation operation, FeatureHandler handler) throws IOException {
+        RTree index = overlay.getSpatialIndex();
+        int numRecords = input.getNumberOfRecords();
+        oldProgress = -1;
+
+        ExecutorService executor = null;
+        if (numThreads > 1 && numRecords > RECORDS_PER_TASK) {
+            executor = Executors.newFixedThreadPool(numThreads,
+                    new NamedThreadFactory("VectorOverlay"));
+        }
+        try {
+            // tasks are submitted ahead of the one being written, up to a
+            // fixed number in flight, so that the threads are kept busy while
+            // the memory that is held by waiting pieces stays bounded
+            int maxInFlight = TASKS_PER_THREAD * numThreads;
+            ArrayDeque<Future<List<Piece>>> inFlight = new ArrayDeque<>();
+            ArrayDeque<OverlayTask> waiting = new ArrayDeque<>();
+            int next = 0;
+            int done = 0;
+            while (done < numRecords) {
+                while (next < numRecords && (inFlight.size() + waiting.size()) < maxInFlight) {
+                    int last = Math.min(next + RECORDS_PER_TASK, numRecords);
+                    OverlayTask task = new OverlayTask(operation, index, next, last);
+                    if (executor != null) {
+                        inFlight.add(executor.submit(task));
+                    } else {
+                        waiting.add(task);
+                    }
+                    next = last;
+                }
+                List<Piece> pieces;
+                int last;
+                if (executor != null) {
+                    Future<List<Piece>> future = inFlight.poll();
+                    try {
+                        pieces = future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        } else if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        throw new IllegalStateException(cause);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                } else {
+                    pieces = waiting.poll().call();
+                }
+                for (Piece piece : pieces) {
+                    handler.addFeature(piece.geometry, piece.inputRecord, piece.overlayRecord);
+                }
+                done = Math.min(done + RECORDS_PER_TASK, numRecords);
+                if (!updateProgress(done, numRecords)) {
+                    return false;
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        return true;
+    }
+
+    private boolean updateProgress(int done, int numRecords) {
+        if (listener != null) {
+            int progress = (int) (100L * done / numRecords);
+            if (progress != oldProgress) {
+                oldProgress = progress;
+                return listener.progressMade(progress);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Overlays a run of input records.
+     */
+    private class OverlayTask implements Callable<List<Piece>> {
+
+        private final Operation operation;
+        private final RTree index;
+        private final int first;
+        private final int last;
+
+        OverlayTask(Operation operation, RTree index, int first, int last) {
+            this.operation = operation;
+            this.index = index;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public List<Piece> call() {
+            List<Piece> pieces = new ArrayList<>();
+            List<com.vividsolutions.jts.geom.Geometry> hits = new ArrayList<>();
+            List<Integer> hitRecords = new ArrayList<>();
+            for (int r = first; r < last; r++) {
+                ShapeFileRecord record = input.getRecord(r);
+                if (record == null || record.getShapeType() == ShapeType.NULLSHAPE) {
+                    continue;
+                }
+                Geometry wbGeometry = record.getGeometry();
+                com.vividsolutions.jts.geom.Geometry a = getJTSGeometry(wbGeometry);
+                if (a.isEmpty()) {
+                    continue;
+                }
+
+                // find the overlay features that intersect this feature
+                hits.clear();
+                hitRecords.clear();
+                int[] candidates = index.search(wbGeometry.getBox());
+                if (candidates.length > 0) {
+                    PreparedGeometry preparedA = PreparedGeometryFactory.prepare(a);
+                    for (int c : candidates) {
+                        ShapeFileRecord candidate = overlay.getRecord(c);
+                        if (candidate == null || candidate.getShapeType() == ShapeType.NULLSHAPE) {
+                            continue;
+                        }
+                        com.vividsolutions.jts.geom.Geometry b = getJTSGeometry(candidate.getGeometry());
+                        if (!b.isEmpty() && preparedA.intersects(b)) {
+                            if (operation == Operation.INTERSECTION) {
+                                // a feature that is entirely within the
+                                // other is its own intersection
+                                com.vividsolutions.jts.geom.Geometry piece;
+                                if (preparedA.covers(b)) {
+                                    piece = b;
+                                } else {
+                                    piece = overlay(a, b, OverlayOp.INTERSECTION);
+                                }
+                                addPieces(piece, r, c, pieces);
+                            } else {
+                                hits.add(b);
+                                hitRecords.add(c);
+                            }
+                        }
+                    }
+                }
+
+                if (operation == Operation.INTERSECTION) {
+                    continue;
+                }
+                if (hits.isEmpty()) {
+                    if (operation == Operation.DIFFERENCE) {
+                        addPieces(a, r, -1, pieces);
+                    }
+                    continue;
+                }
+                com.vividsolutions.jts.geom.Geometry b = union(hits);
+                boolean isCovered = b.getEnvelopeInternal().covers(a.getEnvelopeInternal())
+                        && PreparedGeometryFactory.prepare(b).covers(a);
+                if (operation == Operation.CLIP) {
+                    addPieces(isCovered ? a : overlay(a, b, OverlayOp.INTERSECTION), r, -1, pieces);
+                } else if (!isCovered) {
+                    addPieces(overlay(a, b, OverlayOp.DIFFERENCE), r, -1, pieces);
+                }
+            }
+            return pieces;
+        }
+
+        private void addPieces(com.vividsolutions.jts.geom.Geometry g, int inputRecord,
+                int overlayRecord, List<Piece> pieces) {
+            for (Geometry geometry : getWhiteboxGeometries(g, outputShapeType)) {
+                pieces.add(new Piece(geometry, inputRecord, overlayRecord));
+            }
+        }
+    }
+
+    /**
+     * A piece of the output and the records that it came from.
+     */
+    private static class Piece {
+
+        final Geometry geometry;
+        final int inputRecord;
+        final int overlayRecord;
+
+        Piece(Geometry geometry, int inputRecord, int overlayRecord) {
+            this.geometry = geometry;
+            this.inputRecord = inputRecord;
+            this.overlayRecord = overlayRecord;
+        }
+    }
+
+    /**
+     * Joins lists of attribute fields, such as those of the two layers of an
+     * overlay, into the fields of an output table. The fields are copied,
+     * and a field whose name is already taken is given a numbered suffix,
+     * so that FID becomes FID_1, FID_2 and so on.
+     *
+     * @param fieldLists The lists of fields, in the order of the output.
+     * @return The output fields.
+     */
+    public static DBFField[] combineFields(DBFField[]... fieldLists) {
+        List<DBFField> fields = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (DBFField[] fieldList : fieldLists) {
+            for (DBFField field : fieldList) {
+                String name = field.getName();
+                for (int n = 1; names.contains(name.toUpperCase()); n++) {
+                    String suffix = "_" + n;
+                    String base = field.getName();
+                    name = base.substring(0, Math.min(base.length(), 10 - suffix.length())) + suffix;
+                }
+                names.add(name.toUpperCase());
+
+                DBFField copy = new DBFField();
+                copy.setName(name);
+                copy.setDataType(field.getDataType());
+                if (field.getDataType() != DBFField.DBFDataType.DATE) {
+                    copy.setFieldLength(field.getFieldLength());
+                }
+                copy.setDecimalCount(field.getDecimalCount());
+                fields.add(copy);
+            }
+        }
+        return fields.toArray(new DBFField[fields.size()]);
+    }
+
+    /**
+     * Converts a Whitebox geometry into a single JTS geometry, which is a
+     * multi-part geometry when the record has more than one part.
+     *
+     * @param geometry The Whitebox geometry.
+     * @return The JTS geometry.
+     */
+    public static com.vividsolutions.jts.geom.Geometry getJTSGeometry(Geometry geometry) {
+        com.vividsolutions.jts.geom.Geometry[] parts = geometry.getJTSGeometries();
+        if (parts.length == 1) {
+            return parts[0];
+        }
+        return factory.buildGeometry(Arrays.asList(parts));
+    }
+
+    private static com.vividsolutions.jts.geom.Geometry union(List<com.vividsolutions.jts.geom.Geometry> geometries) {
+        if (geometries.size() == 1) {
+            return geometries.get(0);
+        }
+        try {
+            return UnaryUnionOp.union(geometries);
+        } catch (RuntimeException e) {
+            List<com.vividsolutions.jts.geom.Geometry> repaired = new ArrayList<>();
+            for (com.vividsolutions.jts.geom.Geometry g : geometries) {
+                repaired.add(repair(g));
+            }
+            return UnaryUnionOp.union(repaired);
+        }
+    }
+
+    /**
+     * Computes an overlay of two geometries. The inputs are snapped together
+     * if the overlay fails because of robustness problems, and failing that,
+     * any invalid polygons are repaired before it is tried again.
+     */
+    private static com.vividsolutions.jts.geom.Geometry overlay(com.vividsolutions.jts.geom.Geometry a,
+            com.vividsolutions.jts.geom.Geometry b, int opCode) {
+        try {
+            return SnapIfNeededOverlayOp.overlayOp(a, b, opCode);
+        } catch (RuntimeException e) {
+            return SnapIfNeededOverlayOp.overlayOp(repair(a), repair(b), opCode);
+        }
+    }
+
+    /**
+     * Repairs an invalid polygonal geometry, e.g. a self-intersecting ring,
+     * so that JTS overlay operations can be applied to it. Other geometries
+     * are returned unchanged. This is shared with CascadedUnion.
+     */
+    static com.vividsolutions.jts.geom.Geometry repair(com.vividsolutions.jts.geom.Geometry g) {
+        if (g.getDimension() == 2 && !g.isValid()) {
+            // fix the geometry with a buffer(0) as recommended in JTS docs
+            return g.buffer(0d);
+        }
+        return g;
+    }
+
+    /**
+     * Converts a JTS geometry into single-part Whitebox geometries of a
+     * shape type. Polygon shells are written clockwise and holes
+     * counter-clockwise. Parts that are not of the shape type's dimension are
+     * left out, and the points of a MULTIPOINT shape type are gathered into
+     * one geometry.
+     *
+     * @param g The JTS geometry, which may be a collection.
+     * @param shapeType The base shape type of the output.
+     * @return The Whitebox geometries, which may be none.
+     */
+    public static List<Geometry> getWhiteboxGeometries(com.vividsolutions.jts.geom.Geometry g,
+            ShapeType shapeType) {
+        List<Geometry> geometries = new ArrayList<>();
+        if (shapeType == ShapeType.MULTIPOINT) {
+            List<double[]> points = new ArrayList<>();
+            addPoints(g, points);
+            if (!points.isEmpty()) {
+                geometries.add(new whitebox.geospatialfiles.shapefile.MultiPoint(
+                        points.toArray(new double[points.size()][])));
+            }
+        } else {
+            addWhiteboxGeometries(g, shapeType, geometries);
+        }
+        return geometries;
+    }
+
+    private static void addWhiteboxGeometries(com.vividsolutions.jts.geom.Geometry g,
+            ShapeType shapeType, List<Geometry> geometries) {
+        if (g.isEmpty()) {
+            return;
+        }
+        if (g instanceof com.vividsolutions.jts.geom.GeometryCollection) {
+            for (int a = 0; a < g.getNumGeometries(); a++) {
+                addWhiteboxGeometries(g.getGeometryN(a), shapeType, geometries);
+            }
+        } else if (g instanceof com.vividsolutions.jts.geom.Polygon
+                && shapeType == ShapeType.POLYGON) {
+            com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) g;
+            int numHoles = p.getNumInteriorRing();
+            int[] parts = new int[numHoles + 1];
+            double[][] points = new double[p.getNumPoints()][];
+            int i = addRing(p.getExteriorRing().getCoordinates(), true, points, 0);
+            for (int b = 0; b < numHoles; b++) {
+                parts[b + 1] = i;
+                i = addRing(p.getInteriorRingN(b).getCoordinates(), false, points, i);
+            }
+            geometries.add(new whitebox.geospatialfiles.shapefile.Polygon(parts, points));
+        } else if (g instanceof LineString && shapeType == ShapeType.POLYLINE) {
+            Coordinate[] coords = g.getCoordinates();
+            double[][] points = new double[coords.length][];
+            addRing(coords, null, points, 0);
+            geometries.add(new whitebox.geospatialfiles.shapefile.PolyLine(new int[]{0}, points));
+        } else if (g instanceof com.vividsolutions.jts.geom.Point && shapeType == ShapeType.POINT) {
+            Coordinate p = g.getCoordinate();
+            geometries.add(new whitebox.geospatialfiles.shapefile.Point(p.x, p.y));
+        }
+    }
+
+    /**
+     * Copies a ring or line into an array of points, reversing it if needed
+     * so that it has the requested orientation.
+     *
+     * @param clockwise true for clockwise, false for counter-clockwise or
+     * null to keep the order of the coordinates.
+     * @return The index following the last point copied.
+     */
+    private static int addRing(Coordinate[] coords, Boolean clockwise, double[][] points, int i) {
+        boolean reverse = clockwise != null
+                && Topology.isClockwisePolygon(coords) != clockwise;
+        for (int k = 0; k < coords.length; k++) {
+            Coordinate c = coords[reverse ? coords.length - 1 - k : k];
+            points[i++] = new double[]{c.x, c.y};
+        }
+        return i;
+    }
+
+    private static void addPoints(com.vividsolutions.jts.geom.Geometry g, List<double[]> points) {
+        if (g instanceof com.vividsolutions.jts.geom.GeometryCollection) {
+            for (int a = 0; a < g.getNumGeometries(); a++) {
+                addPoints(g.getGeometryN(a), points);
+            }
+        } else if (g instanceof com.vividsolutions.jts.geom.Point && !g.isEmpty()) {
+            Coordinate p = g.getCoordinate();
+            points.add(new double[]{p.x, p.y});
+        }
+    }
+}
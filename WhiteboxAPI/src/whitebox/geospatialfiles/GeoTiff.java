@@ -45,7 +45,15 @@ import java.nio.*;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import whitebox.utilities.NamedThreadFactory;
 
 /**
  * Low level read/write geotiff files.
@@ -81,6 +89,10 @@ public class GeoTiff {
      * @throws java.io.IOException on io error
      */
     public void close() throws IOException {
+        if (decoder != null) {
+            decoder.shutdown();
+            decoder = null;
+        }
         if (channel != null) {
             if (!readonly) {
                 channel.force(true);
@@ -459,8 +471,16 @@ public class GeoTiff {
             nTilesX = (nCols + tileWidth - 1) / tileWidth;
             nTilesY = (nRows + tileLength - 1) / tileLength;
         } else {
-            rowsPerStrip = findTag(Tag.RowsPerStrip).value[0];
+            rowsPerStrip = nRows;
+            if (findTag(Tag.RowsPerStrip) != null) {
+                // the default of 2^32 - 1 means a single strip
+                rowsPerStrip = findTag(Tag.RowsPerStrip).value[0];
+                if (rowsPerStrip <= 0 || rowsPerStrip > nRows) {
+                    rowsPerStrip = nRows;
+                }
+            }
         }
+        initChunkCache();
     }
 
     private IFDEntry findTag(Tag tag) {
@@ -587,9 +607,23 @@ public class GeoTiff {
     }
     
     public int getCompressionType() {
+        if (findTag(Tag.Compression) == null) {
+            return TiffCompression.NONE;
+        }
         return findTag(Tag.Compression).value[0];
     }
 
+    /**
+     * Indicates whether the image data can be read. Uncompressed, LZW,
+     * Deflate and PackBits compressed images can be read, with or without a
+     * predictor.
+     *
+     * @return true if the compression type is supported.
+     */
+    public boolean isCompressionSupported() {
+        return TiffCompression.isSupported(getCompressionType());
+    }
+
     double[] tileOrStripData;
     boolean tiledFormat = false;
     int currentTile = -1;
@@ -603,15 +637,17 @@ public class GeoTiff {
     int nTilesY = -1;
     double nodata = -32768;
 
+    // decoded tiles or strips, kept in least-recently-used order
+    private static final long CHUNK_CACHE_BYTES = 256L << 20;
+    private Map<Integer, double[]> chunkCache;
+    private ExecutorService decoder;
+
     public double getValue(int row, int col) throws Exception {
         if (!tiledFormat) { // strip oriented
             // figure out which strip the pixel is in
             int stripNum = row / rowsPerStrip;
             if (currentStrip != stripNum) {
-                tileOrStripData = getStripData(stripNum);
-                if (tileOrStripData == null) {
-                    throw new Exception("Error reading data. It is likely that the TIFF file is of an unsupported type, possibly due to data compression.");
-                }
+                tileOrStripData = getChunkData(stripNum);
                 currentStrip = stripNum;
             }
             int stripRow = row % rowsPerStrip;
@@ -621,358 +657,298 @@ public class GeoTiff {
             // figure out which tile the pixel is in
             int tileNum = row / tileLength * nTilesX + col / tileWidth;
             if (currentTile != tileNum) {
-                tileOrStripData = getTileData(tileNum);
-                if (tileOrStripData == null) {
-                    throw new Exception("Error reading data. It is likely that the TIFF file is of an unsupported type, possibly due to data compression.");
-                }
+                tileOrStripData = getChunkData(tileNum);
                 currentTile = tileNum;
             }
             int tileRow = row % tileLength;
             int tileCol = col % tileWidth;
-            int tilePixelNum = tileRow * tileLength + tileCol;
+            int tilePixelNum = tileRow * tileWidth + tileCol;
             return tileOrStripData[tilePixelNum];
         }
     }
 
-    private double[] getTileData(int tile) {
-        try {
-            if (!tiledFormat) {
-                return null;
-            }
-            
-            double[] data;
-                    
-            int compressionType = findTag(Tag.Compression).value[0];
-            int sampleFormat = 1; //findTag(Tag.SampleFormat).value[0];
-
-            if (findTag(Tag.SampleFormat) != null) {
-                sampleFormat = findTag(Tag.SampleFormat).value[0];
-            }
+    /**
+     * Returns the number of rows in each strip or tile of the image. Reading
+     * the image in bands of this many rows, starting at a multiple of it,
+     * decodes each strip or tile only once.
+     *
+     * @return the number of rows per strip or tile.
+     */
+    public int getBlockHeight() {
+        return tiledFormat ? tileLength : rowsPerStrip;
+    }
 
-            if (getPhotometricInterpretation() != 2) {
-                int tileOffset = findTag(Tag.TileOffsets).value[tile];
-                int tileByteCount = findTag(Tag.TileByteCounts).value[tile];
-                int[] bitsPerSample = findTag(Tag.BitsPerSample).value;
-                int numPixelsInTile = tileByteCount / (bitsPerSample[0] / 8);
-                data = new double[numPixelsInTile];
-
-                channel.position(tileOffset);
-                int size = tileByteCount / 8;
-                ByteBuffer buffer = ByteBuffer.allocate(tileByteCount);
-                buffer.order(byteOrder);
-                
-                if (compressionType == 1) {
-
-                    channel.read(buffer);
-                    buffer.flip();
-
-                    if (sampleFormat == 1 && bitsPerSample[0] == 8) { // unsigned byte
-                        byte b;
-                        for (int i = 0; i < size; i++) {
-                            b = buffer.get();
-                            data[i] = (short) (0x000000FF & ((int) b));
-                        }
-                    } else if (sampleFormat == 2 && bitsPerSample[0] == 8) { // signed byte
-                        byte b;
-                        for (int i = 0; i < size; i++) {
-                            b = buffer.get();
-                            data[i] = b;
-                        }
-                    } else if (sampleFormat == 1 && bitsPerSample[0] == 16) { // unsigned 16-bit short
-                        int b1;
-                        int b2;
-                        for (int i = 0; i < numPixelsInTile; i++) {
-                            b1 = (0x000000FF & ((int) buffer.get()));
-                            b2 = (0x000000FF & ((int) buffer.get()));
-                            data[i] = (b2 << 8 | b1);
-                        }
-                    } else if (sampleFormat == 2 && bitsPerSample[0] == 16) { // signed 16-bit short
-                        ShortBuffer sb = buffer.asShortBuffer();
-                        short[] sa = new short[numPixelsInTile];
-                        sb.get(sa);
-                        sb = null;
-                        for (int j = 0; j < numPixelsInTile; j++) {
-                            data[j] = sa[j];
-                        }
-                        sa = null;
-                    } else if (sampleFormat == 1 && bitsPerSample[0] == 32) { // unsigned 32-bit int
-                        int b1, b2, b3, b4;
-                        for (int i = 0; i < numPixelsInTile; i++) {
-                            b1 = (0x000000FF & ((int) buffer.get()));
-                            b2 = (0x000000FF & ((int) buffer.get()));
-                            b3 = (0x000000FF & ((int) buffer.get()));
-                            b4 = (0x000000FF & ((int) buffer.get()));
-                            data[i] = ((long) (b1 << 24 | b2 << 16 | b3 << 8 | b4)) & 0xFFFFFFFFL;
-                        }
+    /**
+     * Reads a block of rows of the image.
+     *
+     * @param startingRow the first row that is read.
+     * @param numRowsRead the number of rows that are read.
+     * @return the values of the rows.
+     * @throws IOException if the data cannot be read or are of an unsupported
+     * type.
+     */
+    public double[][] readRows(int startingRow, int numRowsRead) throws IOException {
+        return readRegion(startingRow, 0, numRowsRead, nCols);
+    }
 
-                    } else if (sampleFormat == 2 && bitsPerSample[0] == 32) { // signed 32-bit int
-                        IntBuffer ib = buffer.asIntBuffer();
-                        int[] ia = new int[numPixelsInTile];
-                        ib.get(ia);
-                        ib = null;
-                        for (int j = 0; j < numPixelsInTile; j++) {
-                            data[j] = ia[j];
-                        }
-                        ia = null;
-                    } else if (sampleFormat == 1 && bitsPerSample[0] == 64) { // unsigned 64-bit long
-                        // I don't know what data type you could cast an unsigned long into. Perhaps a BigInteger.
-                        return null;
-                    } else if (sampleFormat == 2 && bitsPerSample[0] == 64) { // signed 64-bit long
-                        LongBuffer lb = buffer.asLongBuffer();
-                        long[] la = new long[numPixelsInTile];
-                        lb.get(la);
-                        lb = null;
-                        for (int j = 0; j < numPixelsInTile; j++) {
-                            data[j] = la[j];
-                        }
-                        la = null;
-                    } else if (sampleFormat == 3 && bitsPerSample[0] == 32) { // 32-bit single-precision float
-                        FloatBuffer fb = buffer.asFloatBuffer();
-                        float[] fa = new float[numPixelsInTile];
-                        fb.get(fa);
-                        fb = null;
-                        for (int j = 0; j < numPixelsInTile; j++) {
-                            data[j] = fa[j];
+    /**
+     * Reads a rectangular region of the image. The strips or tiles that the
+     * region covers are decoded in parallel.
+     *
+     * @param startingRow the top row of the region.
+     * @param startingColumn the left column of the region.
+     * @param numRowsRead the number of rows in the region.
+     * @param numColumnsRead the number of columns in the region.
+     * @return the values of the region, indexed by row and then column.
+     * @throws IOException if the data cannot be read or are of an unsupported
+     * type.
+     */
+    public double[][] readRegion(final int startingRow, final int startingColumn,
+            int numRowsRead, int numColumnsRead) throws IOException {
+        if (startingRow < 0 || startingColumn < 0 || numRowsRead < 0 || numColumnsRead < 0
+                || startingRow + numRowsRead > nRows || startingColumn + numColumnsRead > nCols) {
+            throw new IllegalArgumentException("The region lies outside of the image.");
+        }
+        final double[][] data = new double[numRowsRead][numColumnsRead];
+        if (numRowsRead == 0 || numColumnsRead == 0) {
+            return data;
+        }
+        final int endRow = startingRow + numRowsRead - 1;
+        final int endColumn = startingColumn + numColumnsRead - 1;
+        final int chunkWidth = tiledFormat ? tileWidth : nCols;
+        final int chunkHeight = getBlockHeight();
+        final int chunksPerRow = tiledFormat ? nTilesX : 1;
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int chunkRow = startingRow / chunkHeight; chunkRow <= endRow / chunkHeight; chunkRow++) {
+            for (int chunkCol = startingColumn / chunkWidth; chunkCol <= endColumn / chunkWidth; chunkCol++) {
+                final int chunk = chunkRow * chunksPerRow + chunkCol;
+                final int chunkTop = chunkRow * chunkHeight;
+                final int chunkLeft = chunkCol * chunkWidth;
+                tasks.add(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws IOException {
+                        double[] chunkData = getChunkData(chunk);
+                        int r0 = Math.max(startingRow, chunkTop);
+                        int r1 = Math.min(endRow, chunkTop + chunkHeight - 1);
+                        int c0 = Math.max(startingColumn, chunkLeft);
+                        int c1 = Math.min(endColumn, chunkLeft + chunkWidth - 1);
+                        for (int r = r0; r <= r1; r++) {
+                            System.arraycopy(chunkData, (r - chunkTop) * chunkWidth + c0 - chunkLeft,
+                                    data[r - startingRow], c0 - startingColumn, c1 - c0 + 1);
                         }
-                        fa = null;
-                    } else if (sampleFormat == 3 && bitsPerSample[0] == 64) { // 64-bit double-precision float
-                        DoubleBuffer db = buffer.asDoubleBuffer();
-                        double[] da = new double[numPixelsInTile];
-                        db.get(da);
-                        db = null;
-                        data = da.clone();
-                        da = null;
-                    } else {
                         return null;
                     }
-                } else if (compressionType == 32773) {
-                    return null;
-                } else {
-                    return null;
-                }
+                });
+            }
+        }
 
-            } else {
-                int tileOffset = findTag(Tag.TileOffsets).value[tile];
-                int tileByteCount = findTag(Tag.TileByteCounts).value[tile];
-                int[] bitsPerSample = findTag(Tag.BitsPerSample).value;
-                int totalBitsPerSample = 0;
-                for (int a = 0; a < bitsPerSample.length; a++) {
-                    totalBitsPerSample += bitsPerSample[a];
-                }
-                int numPixelsInTile = tileByteCount / (totalBitsPerSample / 8);
-                data = new double[numPixelsInTile];
-
-                channel.position(tileOffset);
-                ByteBuffer buffer = ByteBuffer.allocate(tileByteCount);
-                buffer.order(byteOrder);
-                
-                try {
-                    if (compressionType == 1) {
-                        channel.read(buffer);
-                        buffer.flip();
-
-                        if (totalBitsPerSample == 24 && bitsPerSample.length == 3) {
-                            int r, g, b;
-                            for (int i = 0; i < nCols; i++) {
-                                r = (0x000000FF & ((int) buffer.get()));
-                                g = (0x000000FF & ((int) buffer.get()));
-                                b = (0x000000FF & ((int) buffer.get()));
-                                data[i] = (double) ((255 << 24) | (b << 16) | (g << 8) | r);
-                            }
-                        } else if (totalBitsPerSample == 32 && bitsPerSample.length == 4) {
-                            int r, g, b, a;
-                            for (int i = 0; i < nCols; i++) {
-                                r = (0x000000FF & ((int) buffer.get()));
-                                g = (0x000000FF & ((int) buffer.get()));
-                                b = (0x000000FF & ((int) buffer.get()));
-                                a = (0x000000FF & ((int) buffer.get()));
-                                data[i] = (double) ((a << 24) | (b << 16) | (g << 8) | r);
-                            }
-                        } else {
-                            return null;
-                        }
+        if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            return data;
+        }
 
-                    } else if (compressionType == 32773) {
-                        return null;
-                    } else {
-                        return null;
-                    }
+        try {
+            for (Future<Void> future : getDecoder().invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reading the GeoTiff was interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return data;
+    }
 
-                } catch (IOException e) {
-                    // do nothing
-                }
+    private synchronized ExecutorService getDecoder() {
+        if (decoder == null) {
+            decoder = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new NamedThreadFactory("GeoTiff decoder"));
+        }
+        return decoder;
+    }
+
+    /**
+     * Returns a decoded strip or tile from the cache, decoding it if it isn't
+     * there.
+     */
+    private double[] getChunkData(int chunk) throws IOException {
+        synchronized (chunkCache) {
+            double[] data = chunkCache.get(chunk);
+            if (data != null) {
+                return data;
             }
-            return data;
-        } catch (Exception e) {
-            return null;
         }
+        double[] data = decodeChunk(chunk);
+        synchronized (chunkCache) {
+            chunkCache.put(chunk, data);
+        }
+        return data;
     }
 
-    private double[] getStripData(int stripNum) {
-        double[] data;
-        int compressionType = findTag(Tag.Compression).value[0];
-        int[] bitsPerSample = findTag(Tag.BitsPerSample).value;
-        int sampleFormat = 1; //findTag(Tag.SampleFormat).value[0];
+    private void initChunkCache() {
+        int chunkWidth = tiledFormat ? tileWidth : nCols;
+        long chunkBytes = 8L * chunkWidth * getBlockHeight();
+        // hold at least a full row of tiles, so that reading the image row
+        // by row decodes each tile once
+        int chunksPerRow = tiledFormat ? nTilesX : 1;
+        final int capacity = (int) Math.max(2, Math.min(chunksPerRow + 1, CHUNK_CACHE_BYTES / chunkBytes));
+        chunkCache = new LinkedHashMap<Integer, double[]>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
 
+    /**
+     * Reads, decompresses and converts a strip or tile. Only the first
+     * sample of each pixel is kept, except for RGB images, in which the
+     * samples are packed into a single value. This method may be called from
+     * several threads at once.
+     */
+    private double[] decodeChunk(int chunk) throws IOException {
+        int compressionType = getCompressionType();
+        int[] bitsPerSample = findTag(Tag.BitsPerSample).value;
+        int samplesPerPixel = bitsPerSample.length;
+        int bytesPerSample = bitsPerSample[0] / 8;
+        int sampleFormat = 1;
         if (findTag(Tag.SampleFormat) != null) {
             sampleFormat = findTag(Tag.SampleFormat).value[0];
         }
-        if (tiledFormat) {
-            return null; 
-        }
-        int stripOffset = findTag(Tag.StripOffsets).value[stripNum];
-        int stripByteSize = findTag(Tag.StripByteCounts).value[stripNum];
-        
-        if (getPhotometricInterpretation() != 2) {
-            int numPixelsInStrip = stripByteSize / (bitsPerSample[0] / 8);
-            data = new double[numPixelsInStrip];
-            try {
-                channel.position(stripOffset);
-                ByteBuffer buffer = ByteBuffer.allocate(stripByteSize);
-                buffer.order(byteOrder);
+        int predictor = TiffCompression.PREDICTOR_NONE;
+        if (findTag(Tag.Predictor) != null) {
+            predictor = findTag(Tag.Predictor).value[0];
+        }
+        boolean rgb = getPhotometricInterpretation() == 2;
 
-                if (compressionType == 1) {
+        for (int b : bitsPerSample) {
+            if (b != bitsPerSample[0] || b % 8 != 0 || b == 0) {
+                throw new IOException("Error reading data. GeoTiffs with " + b
+                        + " bits per sample are not supported.");
+            }
+        }
+        if (samplesPerPixel > 1 && findTag(Tag.PlanarConfiguration) != null
+                && findTag(Tag.PlanarConfiguration).value[0] == 2) {
+            throw new IOException("Error reading data. GeoTiffs with separate sample planes are not supported.");
+        }
+        if (!TiffCompression.isSupported(compressionType)) {
+            throw new IOException("Error reading data. GeoTiff compression type "
+                    + compressionType + " is not supported.");
+        }
 
-                    channel.read(buffer);
-                    buffer.flip();
+        int chunkWidth, chunkHeight;
+        long offset, byteCount;
+        if (tiledFormat) {
+            chunkWidth = tileWidth;
+            chunkHeight = tileLength;
+            offset = findTag(Tag.TileOffsets).value[chunk] & 0xFFFFFFFFL;
+            byteCount = findTag(Tag.TileByteCounts).value[chunk] & 0xFFFFFFFFL;
+        } else {
+            chunkWidth = nCols;
+            // the last strip may be short, but is decoded as a full strip
+            chunkHeight = rowsPerStrip;
+            offset = findTag(Tag.StripOffsets).value[chunk] & 0xFFFFFFFFL;
+            byteCount = findTag(Tag.StripByteCounts).value[chunk] & 0xFFFFFFFFL;
+        }
+        int numPixels = chunkWidth * chunkHeight;
+        long decodedSize = (long) numPixels * samplesPerPixel * bytesPerSample;
+        if (decodedSize > Integer.MAX_VALUE || byteCount > Integer.MAX_VALUE) {
+            throw new IOException("Error reading data. The GeoTiff's strips or tiles are too large.");
+        }
 
-                    if (sampleFormat == 1 && bitsPerSample[0] == 8) { // unsigned byte
-                        byte b;
-                        for (int i = 0; i < numPixelsInStrip; i++) {
-                            b = buffer.get();
-                            data[i] = (short) (0x000000FF & ((int) b));
-                        }
-                    } else if (sampleFormat == 2 && bitsPerSample[0] == 8) { // signed byte
-                        byte b;
-                        for (int i = 0; i < numPixelsInStrip; i++) {
-                            b = buffer.get();
-                            data[i] = b;
-                        }
-                    } else if (sampleFormat == 1 && bitsPerSample[0] == 16) { // unsigned 16-bit short
-                        int b1;
-                        int b2;
-                        for (int i = 0; i < numPixelsInStrip; i++) {
-                            b1 = (0x000000FF & ((int) buffer.get()));
-                            b2 = (0x000000FF & ((int) buffer.get()));
-                            data[i] = (b2 << 8 | b1);
-                        }
-                    } else if (sampleFormat == 2 && bitsPerSample[0] == 16) { // signed 16-bit short
-                        ShortBuffer sb = buffer.asShortBuffer();
-                        short[] sa = new short[numPixelsInStrip];
-                        sb.get(sa);
-                        sb = null;
-                        for (int j = 0; j < numPixelsInStrip; j++) {
-                            data[j] = sa[j];
-                        }
-                        sa = null;
-                    } else if (sampleFormat == 1 && bitsPerSample[0] == 32) { // unsigned 32-bit int
-                        int b1, b2, b3, b4;
-                        for (int i = 0; i < numPixelsInStrip; i++) {
-                            b1 = (0x000000FF & ((int) buffer.get()));
-                            b2 = (0x000000FF & ((int) buffer.get()));
-                            b3 = (0x000000FF & ((int) buffer.get()));
-                            b4 = (0x000000FF & ((int) buffer.get()));
-                            data[i] = ((long) (b1 << 24 | b2 << 16 | b3 << 8 | b4)) & 0xFFFFFFFFL;
-                        }
+        ByteBuffer raw = ByteBuffer.allocate((int) byteCount);
+        // positional reads leave the channel's position alone, so that
+        // several chunks can be read at once
+        while (raw.hasRemaining()) {
+            if (channel.read(raw, offset + raw.position()) < 0) {
+                break;
+            }
+        }
+        byte[] bytes = TiffCompression.decompress(compressionType, raw.array(), (int) decodedSize);
+        int rows = (int) (decodedSize / ((long) chunkWidth * samplesPerPixel * bytesPerSample));
+        if (predictor == TiffCompression.PREDICTOR_HORIZONTAL) {
+            TiffCompression.undoHorizontalPredictor(bytes, rows, chunkWidth * samplesPerPixel,
+                    samplesPerPixel, bytesPerSample, byteOrder);
+        } else if (predictor == TiffCompression.PREDICTOR_FLOATING_POINT) {
+            TiffCompression.undoFloatingPointPredictor(bytes, rows, chunkWidth * samplesPerPixel,
+                    samplesPerPixel, bytesPerSample, byteOrder);
+        }
 
-                    } else if (sampleFormat == 2 && bitsPerSample[0] == 32) { // signed 32-bit int
-                        IntBuffer ib = buffer.asIntBuffer();
-                        int[] ia = new int[numPixelsInStrip];
-                        ib.get(ia);
-                        ib = null;
-                        for (int j = 0; j < numPixelsInStrip; j++) {
-                            data[j] = ia[j];
-                        }
-                        ia = null;
-                    } else if (sampleFormat == 1 && bitsPerSample[0] == 64) { // unsigned 64-bit long
-                        // I don't know what data type you could cast an unsigned long into. Perhaps a BigInteger.
-                        return null;
-                    } else if (sampleFormat == 2 && bitsPerSample[0] == 64) { // signed 64-bit long
-                        LongBuffer lb = buffer.asLongBuffer();
-                        long[] la = new long[numPixelsInStrip];
-                        lb.get(la);
-                        lb = null;
-                        for (int j = 0; j < numPixelsInStrip; j++) {
-                            data[j] = la[j];
-                        }
-                        la = null;
-                    } else if (sampleFormat == 3 && bitsPerSample[0] == 32) { // 32-bit single-precision float
-                        FloatBuffer fb = buffer.asFloatBuffer();
-                        float[] fa = new float[numPixelsInStrip];
-                        fb.get(fa);
-                        fb = null;
-                        for (int j = 0; j < numPixelsInStrip; j++) {
-                            data[j] = fa[j];
-                        }
-                        fa = null;
-                    } else if (sampleFormat == 3 && bitsPerSample[0] == 64) { // 64-bit double-precision float
-                        DoubleBuffer db = buffer.asDoubleBuffer();
-                        double[] da = new double[numPixelsInStrip];
-                        db.get(da);
-                        db = null;
-                        data = da.clone();
-                        da = null;
-                    } else {
-                        return null;
-                    }
-                } else if (compressionType == 32773) {
-                    return null;
-                } else {
-                    return null;
-                }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.order(byteOrder);
+        double[] data = new double[numPixels];
+        int pixelBytes = samplesPerPixel * bytesPerSample;
 
-            } catch (IOException e) {
-                // do nothing
+        if (rgb) {
+            if (bytesPerSample != 1 || (samplesPerPixel != 3 && samplesPerPixel != 4)) {
+                throw new IOException("Error reading data. This type of RGB GeoTiff is not supported.");
             }
-
-        } else {
-            int totalBitsPerSample = 0;
-            for (int a = 0; a < bitsPerSample.length; a++) {
-                totalBitsPerSample += bitsPerSample[a];
+            int r, g, b, a;
+            for (int i = 0; i < numPixels; i++) {
+                int p = i * pixelBytes;
+                r = 0x000000FF & bytes[p];
+                g = 0x000000FF & bytes[p + 1];
+                b = 0x000000FF & bytes[p + 2];
+                a = samplesPerPixel == 4 ? 0x000000FF & bytes[p + 3] : 255;
+                data[i] = (double) ((a << 24) | (b << 16) | (g << 8) | r);
             }
-            int numPixelsInStrip = stripByteSize / (totalBitsPerSample / 8);
-            data = new double[numPixelsInStrip];
-            
-            try {
-                channel.position(stripOffset);
-                ByteBuffer buffer = ByteBuffer.allocate(stripByteSize);
-                buffer.order(byteOrder);
-
-                if (compressionType == 1) {
-
-                    channel.read(buffer);
-                    buffer.flip();
-
-                    if (totalBitsPerSample == 24 && bitsPerSample.length == 3) {
-                        int r, g, b;
-                        for (int i = 0; i < nCols; i++) {
-                            r = (0x000000FF & ((int) buffer.get()));
-                            g = (0x000000FF & ((int) buffer.get()));
-                            b = (0x000000FF & ((int) buffer.get()));
-                            data[i] = (double) ((255 << 24) | (b << 16) | (g << 8) | r);
-                        }
-                    } else if (totalBitsPerSample == 32 && bitsPerSample.length == 4) {
-                        int r, g, b, a;
-                        for (int i = 0; i < nCols; i++) {
-                            r = (0x000000FF & ((int) buffer.get()));
-                            g = (0x000000FF & ((int) buffer.get()));
-                            b = (0x000000FF & ((int) buffer.get()));
-                            a = (0x000000FF & ((int) buffer.get()));
-                            data[i] = (double) ((a << 24) | (b << 16) | (g << 8) | r);
-                        }
-                    } else {
-                        return null;
-                    }
-
-                } else if (compressionType == 32773) {
-                    return null;
-                } else {
-                    return null;
-                }
+            return data;
+        }
 
-            } catch (IOException e) {
-                return null;
+        if (sampleFormat == 1 && bytesPerSample == 1) { // unsigned byte
+            for (int i = 0; i < numPixels; i++) {
+                data[i] = 0x000000FF & bytes[i * pixelBytes];
+            }
+        } else if (sampleFormat == 2 && bytesPerSample == 1) { // signed byte
+            for (int i = 0; i < numPixels; i++) {
+                data[i] = bytes[i * pixelBytes];
             }
+        } else if (sampleFormat == 1 && bytesPerSample == 2) { // unsigned 16-bit short
+            for (int i = 0; i < numPixels; i++) {
+                data[i] = buffer.getShort(i * pixelBytes) & 0xFFFF;
+            }
+        } else if (sampleFormat == 2 && bytesPerSample == 2) { // signed 16-bit short
+            for (int i = 0; i < numPixels; i++) {
+                data[i] = buffer.getShort(i * pixelBytes);
+            }
+        } else if (sampleFormat == 1 && bytesPerSample == 4) { // unsigned 32-bit int
+            for (int i = 0; i < numPixels; i++) {
+                data[i] = buffer.getInt(i * pixelBytes) & 0xFFFFFFFFL;
+            }
+        } else if (sampleFormat == 2 && bytesPerSample == 4) { // signed 32-bit int
+            for (int i = 0; i < numPixels; i++) {
+                data[i] = buffer.getInt(i * pixelBytes);
+            }
+        } else if (sampleFormat == 2 && bytesPerSample == 8) { // signed 64-bit long
+            for (int i = 0; i < numPixels; i++) {
+                data[i] = buffer.getLong(i * pixelBytes);
+            }
+        } else if (sampleFormat == 3 && bytesPerSample == 4) { // 32-bit single-precision float
+            for (int i = 0; i < numPixels; i++) {
+                data[i] = buffer.getFloat(i * pixelBytes);
+            }
+        } else if (sampleFormat == 3 && bytesPerSample == 8) { // 64-bit double-precision float
+            for (int i = 0; i < numPixels; i++) {
+                data[i] = buffer.getDouble(i * pixelBytes);
+            }
+        } else {
+            // this includes unsigned 64-bit longs, for which there is no
+            // suitable data type
+            throw new IOException("Error reading data. GeoTiffs with sample format "
+                    + sampleFormat + " and " + bitsPerSample[0] + " bits per sample are not supported.");
         }
         return data;
     }
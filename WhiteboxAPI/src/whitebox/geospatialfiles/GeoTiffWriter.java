@@ -0,0 +1,742 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import whitebox.geospatialfiles.WhiteboxRasterBase.DataScale;
+import whitebox.geospatialfiles.WhiteboxRasterBase.DataType;
+import whitebox.utilities.NamedThreadFactory;
+
+/**
+ * Writes a tiled GeoTIFF, one row at a time. The tiles may be compressed with
+ * LZW or Deflate, optionally after a predictor has been applied, and the
+ * tiles of each band of rows are compressed in parallel. Reduced-resolution
+ * overviews can be written into the same file, each half the size of the one
+ * before. The file is written as a BigTIFF if it is too large for a classic
+ * TIFF.
+ *
+ * The rows must be written in order, from the top row down, and close must be
+ * called once all of them have been written.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class GeoTiffWriter {
+
+    public static final int COMPRESSION_NONE = TiffCompression.NONE;
+    public static final int COMPRESSION_LZW = TiffCompression.LZW;
+    public static final int COMPRESSION_DEFLATE = TiffCompression.DEFLATE;
+
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    // room for either a classic or a BigTIFF header
+    private static final int HEADER_SIZE = 16;
+    private static final long MAX_CLASSIC_SIZE = 0xFFFFFFFFL;
+
+    // field types
+    private static final int ASCII = 2;
+    private static final int SHORT = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 12;
+    private static final int LONG8 = 16;
+
+    private final String fileName;
+    private final int nRows;
+    private final int nCols;
+    private final double noData;
+    private final boolean rgb;
+    private final boolean continuous;
+    private final int samplesPerPixel;
+    private final int bytesPerSample;
+    private final int sampleFormat;
+
+    private int compression = COMPRESSION_DEFLATE;
+    private boolean usePredictor = true;
+    private int tileSize = 256;
+    private int numOverviews = 0;
+    private double north = Double.NaN;
+    private double west;
+    private double cellSizeX;
+    private double cellSizeY;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private ExecutorService compressor;
+    private final List<Level> levels = new ArrayList<>();
+    private int rowsWritten = 0;
+
+    /**
+     * Class constructor. Nothing is written until the first row is.
+     *
+     * @param fileName the name of the GeoTIFF file, which is overwritten if
+     * it exists.
+     * @param nRows the number of rows in the image.
+     * @param nCols the number of columns in the image.
+     * @param dataType the data type of the image. DOUBLE and FLOAT images
+     * are written as 64- and 32-bit floating point values, INTEGER images as
+     * signed 16-bit integers and BYTE images as unsigned 8-bit integers,
+     * unless the nodata value doesn't fit into a byte.
+     * @param dataScale the data scale of the image. RGB images are written
+     * as four 8-bit samples per pixel, and are unpacked from the values in the
+     * same way that Whitebox packs them. The overviews of CONTINUOUS images
+     * are averaged; those of other images take the first valid value.
+     * @param noData the nodata value.
+     */
+    public GeoTiffWriter(String fileName, int nRows, int nCols, DataType dataType,
+            DataScale dataScale, double noData) {
+        this.fileName = fileName;
+        this.nRows = nRows;
+        this.nCols = nCols;
+        this.noData = noData;
+        this.rgb = dataScale == DataScale.RGB;
+        this.continuous = dataScale == DataScale.CONTINUOUS;
+        if (rgb) {
+            samplesPerPixel = 4;
+            bytesPerSample = 1;
+            sampleFormat = 1;
+        } else {
+            samplesPerPixel = 1;
+            switch (dataType) {
+                case DOUBLE:
+                    bytesPerSample = 8;
+                    sampleFormat = 3;
+                    break;
+                case FLOAT:
+                    bytesPerSample = 4;
+                    sampleFormat = 3;
+                    break;
+                case BYTE:
+                    if (noData >= 0 && noData <= 255) {
+                        bytesPerSample = 1;
+                        sampleFormat = 1;
+                    } else {
+                        // the nodata value needs a wider type
+                        bytesPerSample = 2;
+                        sampleFormat = 2;
+                    }
+                    break;
+                default:
+                    bytesPerSample = 2;
+                    sampleFormat = 2;
+            }
+        }
+    }
+
+    /**
+     * Sets the compression of the tiles. The default is COMPRESSION_DEFLATE.
+     *
+     * @param compression COMPRESSION_NONE, COMPRESSION_LZW or
+     * COMPRESSION_DEFLATE.
+     */
+    public void setCompression(int compression) {
+        if (compression != COMPRESSION_NONE && compression != COMPRESSION_LZW
+                && compression != COMPRESSION_DEFLATE) {
+            throw new IllegalArgumentException("Unsupported compression type " + compression + ".");
+        }
+        this.compression = compression;
+    }
+
+    /**
+     * Sets whether a predictor is applied before the tiles are compressed.
+     * The horizontal differencing predictor is used for integer data and the
+     * floating point predictor for floating point data. Both usually improve
+     * compression of continuous data considerably. The default is true.
+     *
+     * @param usePredictor true to use a predictor.
+     */
+    public void setUsePredictor(boolean usePredictor) {
+        this.usePredictor = usePredictor;
+    }
+
+    /**
+     * Sets the width and height of the tiles, which must be a multiple of 16.
+     * The default is 256.
+     *
+     * @param tileSize the tile size.
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize <= 0 || tileSize % 16 != 0) {
+            throw new IllegalArgumentException("The tile size must be a positive multiple of 16.");
+        }
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Sets the number of overview levels. Each level has half of the rows
+     * and columns of the one before it, and levels smaller than a single
+     * pixel are not written. The default is none.
+     *
+     * @param numOverviews the number of overview levels.
+     */
+    public void setNumberOfOverviews(int numOverviews) {
+        this.numOverviews = Math.max(0, numOverviews);
+    }
+
+    /**
+     * Sets the position of the image.
+     *
+     * @param north the coordinate of the top edge of the image.
+     * @param west the coordinate of the left edge of the image.
+     * @param cellSizeX the width of a cell.
+     * @param cellSizeY the height of a cell.
+     */
+    public void setGeoreference(double north, double west, double cellSizeX, double cellSizeY) {
+        this.north = north;
+        this.west = west;
+        this.cellSizeX = cellSizeX;
+        this.cellSizeY = cellSizeY;
+    }
+
+    /**
+     * Writes the next row of the image.
+     *
+     * @param values the values of the row.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeRow(double[] values) throws IOException {
+        if (values.length != nCols) {
+            throw new IllegalArgumentException("The row must contain " + nCols + " values.");
+        }
+        if (rowsWritten >= nRows) {
+            throw new IllegalStateException("All of the rows have already been written.");
+        }
+        if (file == null) {
+            open();
+        }
+        // the row is held until its band of tiles is written
+        levels.get(0).addRow(values.clone());
+        rowsWritten++;
+    }
+
+    /**
+     * Writes the overviews and the file directories, and closes the file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void close() throws IOException {
+        if (file == null) {
+            open();
+        }
+        try {
+            if (rowsWritten < nRows) {
+                throw new IllegalStateException("Only " + rowsWritten + " of " + nRows
+                        + " rows have been written.");
+            }
+            for (int k = 0; k < levels.size(); k++) {
+                Level level = levels.get(k);
+                level.finish();
+                // the next level's rows were written to its temporary file
+                if (k + 1 < levels.size()) {
+                    levels.get(k + 1).copyFromTemporaryFile();
+                }
+            }
+            writeDirectories();
+        } finally {
+            compressor.shutdown();
+            for (Level level : levels) {
+                level.deleteTemporaryFile();
+            }
+            channel.close();
+            file.close();
+        }
+    }
+
+    /**
+     * Deletes the partly written file, e.g. when an export is cancelled.
+     */
+    public void abort() {
+        try {
+            if (file != null) {
+                compressor.shutdown();
+                for (Level level : levels) {
+                    level.deleteTemporaryFile();
+                }
+                channel.close();
+                file.close();
+            }
+        } catch (IOException e) {
+            // the file is deleted regardless
+        }
+        new File(fileName).delete();
+    }
+
+    private void open() throws IOException {
+        new File(fileName).delete();
+        file = new RandomAccessFile(fileName, "rw");
+        channel = file.getChannel();
+        channel.position(HEADER_SIZE);
+        compressor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new NamedThreadFactory("GeoTiff compressor"));
+
+        int width = nCols;
+        int height = nRows;
+        levels.add(new Level(width, height));
+        for (int k = 0; k < numOverviews && (width > 1 || height > 1); k++) {
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+            levels.add(new Level(width, height));
+        }
+        for (int k = 0; k + 1 < levels.size(); k++) {
+            levels.get(k).next = levels.get(k + 1);
+        }
+    }
+
+    /**
+     * One resolution of the image. Rows are gathered into bands of one tile
+     * height, and each band is compressed and written as soon as it is full.
+     * The rows of the next, coarser, level are written to a temporary file
+     * until this level is finished.
+     */
+    private class Level {
+
+        final int width;
+        final int height;
+        final int tilesAcross;
+        final int tilesDown;
+        final long[] tileOffsets;
+        final long[] tileByteCounts;
+        Level next;
+
+        private final double[][] band;
+        private int bandRows = 0;
+        private int rowsAdded = 0;
+        private double[] pendingRow;
+        private File temporaryFile;
+        private RandomAccessFile temporary;
+
+        Level(int width, int height) {
+            this.width = width;
+            this.height = height;
+            tilesAcross = (width + tileSize - 1) / tileSize;
+            tilesDown = (height + tileSize - 1) / tileSize;
+            tileOffsets = new long[tilesAcross * tilesDown];
+            tileByteCounts = new long[tilesAcross * tilesDown];
+            band = new double[tileSize][];
+        }
+
+        void addRow(double[] values) throws IOException {
+            band[bandRows++] = values;
+            rowsAdded++;
+            if (bandRows == tileSize || rowsAdded == height) {
+                writeBand((rowsAdded - 1) / tileSize);
+                bandRows = 0;
+            }
+            if (next != null) {
+                if (pendingRow == null && rowsAdded < height) {
+                    pendingRow = values;
+                } else {
+                    next.writeTemporaryRow(downsample(pendingRow == null ? values : pendingRow,
+                            pendingRow == null ? null : values));
+                    pendingRow = null;
+                }
+            }
+        }
+
+        void finish() throws IOException {
+            if (rowsAdded != height) {
+                throw new IllegalStateException("Overview level is incomplete.");
+            }
+        }
+
+        private double[] downsample(double[] row1, double[] row2) {
+            double[] out = new double[next.width];
+            double[] block = new double[4];
+            for (int col = 0; col < next.width; col++) {
+                int n = 0;
+                int c = 2 * col;
+                block[n++] = row1[c];
+                if (c + 1 < width) {
+                    block[n++] = row1[c + 1];
+                }
+                if (row2 != null) {
+                    block[n++] = row2[c];
+                    if (c + 1 < width) {
+                        block[n++] = row2[c + 1];
+                    }
+                }
+                out[col] = continuous ? average(block, n) : firstValid(block, n);
+            }
+            return out;
+        }
+
+        private void writeBand(final int tileRow) throws IOException {
+            final int rowsInBand = bandRows;
+            List<Callable<byte[]>> tasks = new ArrayList<>();
+            for (int tileCol = 0; tileCol < tilesAcross; tileCol++) {
+                final int startCol = tileCol * tileSize;
+                tasks.add(new Callable<byte[]>() {
+
+                    @Override
+                    public byte[] call() {
+                        return encodeTile(band, rowsInBand, startCol, width);
+                    }
+                });
+            }
+            try {
+                List<Future<byte[]>> results = compressor.invokeAll(tasks);
+                for (int tileCol = 0; tileCol < tilesAcross; tileCol++) {
+                    byte[] tile = results.get(tileCol).get();
+                    int tileNum = tileRow * tilesAcross + tileCol;
+                    tileOffsets[tileNum] = channel.position();
+                    tileByteCounts[tileNum] = tile.length;
+                    ByteBuffer buf = ByteBuffer.wrap(tile);
+                    while (buf.hasRemaining()) {
+                        channel.write(buf);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Writing the GeoTiff was interrupted.");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        void writeTemporaryRow(double[] values) throws IOException {
+            if (temporary == null) {
+                temporaryFile = File.createTempFile("overview", ".tmp",
+                        new File(fileName).getAbsoluteFile().getParentFile());
+                temporary = new RandomAccessFile(temporaryFile, "rw");
+            }
+            ByteBuffer buf = ByteBuffer.allocate(8 * values.length);
+            buf.asDoubleBuffer().put(values);
+            temporary.write(buf.array());
+        }
+
+        void copyFromTemporaryFile() throws IOException {
+            temporary.seek(0);
+            byte[] bytes = new byte[8 * width];
+            for (int row = 0; row < height; row++) {
+                temporary.readFully(bytes);
+                double[] values = new double[width];
+                ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+                addRow(values);
+            }
+        }
+
+        void deleteTemporaryFile() {
+            if (temporary != null) {
+                try {
+                    temporary.close();
+                } catch (IOException e) {
+                    // the file is deleted regardless
+                }
+                temporaryFile.delete();
+                temporary = null;
+            }
+        }
+    }
+
+    private double average(double[] block, int n) {
+        double total = 0;
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (block[i] != noData && !Double.isNaN(block[i])) {
+                total += block[i];
+                count++;
+            }
+        }
+        if (count == 0) {
+            return noData;
+        }
+        double value = total / count;
+        // integer images keep integer overviews
+        return sampleFormat == 3 ? value : Math.round(value);
+    }
+
+    private double firstValid(double[] block, int n) {
+        for (int i = 0; i < n; i++) {
+            if (block[i] != noData && !Double.isNaN(block[i])) {
+                return block[i];
+            }
+        }
+        return noData;
+    }
+
+    /**
+     * Converts, predicts and compresses one tile. Cells beyond the edge of
+     * the image are filled with nodata. This method is called from several
+     * threads at once, and only reads the shared band.
+     */
+    private byte[] encodeTile(double[][] band, int rowsInBand, int startCol, int width) {
+        int pixelBytes = samplesPerPixel * bytesPerSample;
+        byte[] bytes = new byte[tileSize * tileSize * pixelBytes];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        buf.order(BYTE_ORDER);
+        for (int r = 0; r < tileSize; r++) {
+            double[] row = r < rowsInBand ? band[r] : null;
+            for (int c = 0; c < tileSize; c++) {
+                int col = startCol + c;
+                double z = row != null && col < width ? row[col] : noData;
+                int p = (r * tileSize + c) * pixelBytes;
+                if (rgb) {
+                    int v = z == noData ? 0 : (int) (long) z;
+                    bytes[p] = (byte) v; // red
+                    bytes[p + 1] = (byte) (v >> 8); // green
+                    bytes[p + 2] = (byte) (v >> 16); // blue
+                    bytes[p + 3] = (byte) (v >> 24); // alpha
+                    continue;
+                }
+                switch (bytesPerSample) {
+                    case 1:
+                        bytes[p] = (byte) Math.round(z);
+                        break;
+                    case 2:
+                        buf.putShort(p, (short) Math.round(z));
+                        break;
+                    case 4:
+                        buf.putFloat(p, (float) z);
+                        break;
+                    case 8:
+                        buf.putDouble(p, z);
+                        break;
+                }
+            }
+        }
+        if (compression != COMPRESSION_NONE && usePredictor) {
+            if (sampleFormat == 3) {
+                TiffCompression.applyFloatingPointPredictor(bytes, tileSize, tileSize * samplesPerPixel,
+                        samplesPerPixel, bytesPerSample, BYTE_ORDER);
+            } else {
+                TiffCompression.applyHorizontalPredictor(bytes, tileSize, tileSize * samplesPerPixel,
+                        samplesPerPixel, bytesPerSample, BYTE_ORDER);
+            }
+        }
+        return TiffCompression.compress(compression, bytes);
+    }
+
+    private int getPredictor() {
+        if (compression == COMPRESSION_NONE || !usePredictor) {
+            return TiffCompression.PREDICTOR_NONE;
+        }
+        return sampleFormat == 3 ? TiffCompression.PREDICTOR_FLOATING_POINT
+                : TiffCompression.PREDICTOR_HORIZONTAL;
+    }
+
+    /**
+     * Writes an image file directory for each level after the image data,
+     * followed by the file header. The header and directories are those of a
+     * BigTIFF only if the file would otherwise be too large.
+     */
+    private void writeDirectories() throws IOException {
+        long position = channel.position();
+        position += (8 - position % 8) % 8;
+
+        boolean bigTiff = false;
+        long size = position;
+        for (int k = 0; k < levels.size(); k++) {
+            size += directorySize(getEntries(k, false), false);
+        }
+        if (size > MAX_CLASSIC_SIZE) {
+            bigTiff = true;
+        }
+
+        long firstDirectory = position;
+        for (int k = 0; k < levels.size(); k++) {
+            List<Entry> entries = getEntries(k, bigTiff);
+            long directorySize = directorySize(entries, bigTiff);
+            long nextDirectory = k + 1 < levels.size() ? position + directorySize : 0;
+            ByteBuffer buf = encodeDirectory(entries, position, nextDirectory, bigTiff, directorySize);
+            channel.position(position);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            position += directorySize;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.order(BYTE_ORDER);
+        header.put((byte) 'I');
+        header.put((byte) 'I');
+        if (bigTiff) {
+            header.putShort((short) 43);
+            header.putShort((short) 8); // bytes per offset
+            header.putShort((short) 0);
+            header.putLong(firstDirectory);
+        } else {
+            header.putShort((short) 42);
+            header.putInt((int) firstDirectory);
+        }
+        header.rewind();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private List<Entry> getEntries(int levelNum, boolean bigTiff) {
+        Level level = levels.get(levelNum);
+        List<Entry> entries = new ArrayList<>();
+        entries.add(new Entry(254, LONG, new long[]{levelNum == 0 ? 0 : 1})); // NewSubfileType
+        entries.add(new Entry(256, LONG, new long[]{level.width})); // ImageWidth
+        entries.add(new Entry(257, LONG, new long[]{level.height})); // ImageLength
+        long[] bitsPerSample = new long[samplesPerPixel];
+        long[] sampleFormats = new long[samplesPerPixel];
+        for (int i = 0; i < samplesPerPixel; i++) {
+            bitsPerSample[i] = 8 * bytesPerSample;
+            sampleFormats[i] = sampleFormat;
+        }
+        entries.add(new Entry(258, SHORT, bitsPerSample)); // BitsPerSample
+        entries.add(new Entry(259, SHORT, new long[]{compression})); // Compression
+        entries.add(new Entry(262, SHORT, new long[]{rgb ? 2 : 1})); // PhotometricInterpretation
+        entries.add(new Entry(277, SHORT, new long[]{samplesPerPixel})); // SamplesPerPixel
+        entries.add(new Entry(284, SHORT, new long[]{1})); // PlanarConfiguration
+        if (getPredictor() != TiffCompression.PREDICTOR_NONE) {
+            entries.add(new Entry(317, SHORT, new long[]{getPredictor()})); // Predictor
+        }
+        entries.add(new Entry(322, LONG, new long[]{tileSize})); // TileWidth
+        entries.add(new Entry(323, LONG, new long[]{tileSize})); // TileLength
+        entries.add(new Entry(324, bigTiff ? LONG8 : LONG, level.tileOffsets)); // TileOffsets
+        entries.add(new Entry(325, bigTiff ? LONG8 : LONG, level.tileByteCounts)); // TileByteCounts
+        if (rgb) {
+            entries.add(new Entry(338, SHORT, new long[]{2})); // ExtraSamples, unassociated alpha
+        }
+        entries.add(new Entry(339, SHORT, sampleFormats)); // SampleFormat
+        if (levelNum == 0 && !Double.isNaN(north)) {
+            // ModelPixelScaleTag, ModelTiepointTag and GeoKeyDirectoryTag,
+            // which only states that the cells are areas
+            entries.add(new Entry(33550, new double[]{cellSizeX, cellSizeY, 0}));
+            entries.add(new Entry(33922, new double[]{0, 0, 0, west, north, 0}));
+            entries.add(new Entry(34735, SHORT, new long[]{1, 1, 0, 1, 1025, 0, 1, 1}));
+        }
+        if (levelNum == 0 && !rgb) {
+            String str = noData == Math.rint(noData) && !Double.isInfinite(noData)
+                    ? Long.toString((long) noData) : Double.toString(noData);
+            entries.add(new Entry(42113, str)); // GDALNoDataTag
+        }
+        return entries;
+    }
+
+    private static long directorySize(List<Entry> entries, boolean bigTiff) {
+        int inline = bigTiff ? 8 : 4;
+        long size = bigTiff ? 8 + 20 * entries.size() + 8 : 2 + 12 * entries.size() + 4;
+        for (Entry entry : entries) {
+            if (entry.data.length > inline) {
+                size += entry.data.length + entry.data.length % 2;
+            }
+        }
+        return size + (8 - size % 8) % 8;
+    }
+
+    /**
+     * Encodes a directory, with the values that don't fit into their entries
+     * placed directly after it.
+     */
+    private static ByteBuffer encodeDirectory(List<Entry> entries, long position,
+            long nextDirectory, boolean bigTiff, long directorySize) {
+        ByteBuffer buf = ByteBuffer.allocate((int) directorySize);
+        buf.order(BYTE_ORDER);
+        int inline = bigTiff ? 8 : 4;
+        int overflow = bigTiff ? 8 + 20 * entries.size() + 8 : 2 + 12 * entries.size() + 4;
+        if (bigTiff) {
+            buf.putLong(entries.size());
+        } else {
+            buf.putShort((short) entries.size());
+        }
+        for (Entry entry : entries) {
+            buf.putShort((short) entry.tag);
+            buf.putShort((short) entry.type);
+            if (bigTiff) {
+                buf.putLong(entry.count);
+            } else {
+                buf.putInt(entry.count);
+            }
+            if (entry.data.length <= inline) {
+                buf.put(entry.data);
+                for (int i = entry.data.length; i < inline; i++) {
+                    buf.put((byte) 0);
+                }
+            } else {
+                if (bigTiff) {
+                    buf.putLong(position + overflow);
+                } else {
+                    buf.putInt((int) (position + overflow));
+                }
+                int entryEnd = buf.position();
+                buf.position(overflow);
+                buf.put(entry.data);
+                buf.position(entryEnd);
+                overflow += entry.data.length + entry.data.length % 2;
+            }
+        }
+        if (bigTiff) {
+            buf.putLong(nextDirectory);
+        } else {
+            buf.putInt((int) nextDirectory);
+        }
+        buf.rewind();
+        return buf;
+    }
+
+    private static class Entry {
+
+        final int tag;
+        final int type;
+        final int count;
+        final byte[] data;
+
+        Entry(int tag, int type, long[] values) {
+            this.tag = tag;
+            this.type = type;
+            this.count = values.length;
+            int size = type == SHORT ? 2 : type == LONG ? 4 : 8;
+            ByteBuffer buf = ByteBuffer.allocate(size * values.length);
+            buf.order(BYTE_ORDER);
+            for (long v : values) {
+                if (type == SHORT) {
+                    buf.putShort((short) v);
+                } else if (type == LONG) {
+                    buf.putInt((int) v);
+                } else {
+                    buf.putLong(v);
+                }
+            }
+            this.data = buf.array();
+        }
+
+        Entry(int tag, double[] values) {
+            this.tag = tag;
+            this.type = DOUBLE;
+            this.count = values.length;
+            ByteBuffer buf = ByteBuffer.allocate(8 * values.length);
+            buf.order(BYTE_ORDER);
+            for (double v : values) {
+                buf.putDouble(v);
+            }
+            this.data = buf.array();
+        }
+
+        Entry(int tag, String value) {
+            this.tag = tag;
+            this.type = ASCII;
+            byte[] str = value.getBytes();
+            this.data = new byte[str.length + 1]; // with a terminating nul
+            System.arraycopy(str, 0, data, 0, str.length);
+            this.count = data.length;
+        }
+    }
+}
@@ -23,6 +23,8 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import whitebox.utilities.Unsigned;
 import whitebox.utilities.BitOps;
 import whitebox.structures.BoundingBox;
@@ -69,6 +71,8 @@ public class LASReader {
     private PointRecord[] pointRecs;
     private PointRecColours[] pointColours;
     //private PointWavePacket[] pointWavePagetData;
+    private LasSpatialIndex spatialIndex = null;
+    private boolean spatialIndexFailed = false;
 
     // Constructors
     public LASReader() {
@@ -86,6 +90,8 @@ public class LASReader {
 
     public final void setFileName(String fileName) {
         this.fileName = fileName;
+        spatialIndex = null;
+        spatialIndexFailed = false;
         readHeaderData();
         readVariableLengthRecords();
     }
@@ -231,6 +237,45 @@ public class LASReader {
     }
 
     // Methods
+    /**
+     * Returns the spatial index of the file, which is read from the index
+     * file beside the LAS file or built (and saved) the first time that it is
+     * needed.
+     *
+     * @return The spatial index, or null if the file could not be indexed.
+     */
+    public synchronized LasSpatialIndex getSpatialIndex() {
+        if (spatialIndex == null && !spatialIndexFailed) {
+            try {
+                spatialIndex = LasSpatialIndex.open(this);
+            } catch (Exception e) {
+                spatialIndexFailed = true;
+                // the points can still be scanned without the index.
+                Logger.getLogger(LASReader.class.getName()).log(Level.WARNING,
+                        "The LAS file " + fileName + " could not be indexed.", e);
+                return null;
+            }
+        }
+        return spatialIndex;
+    }
+
+    /**
+     * Finds the ranges of point records that may lie within a bounding box,
+     * using the spatial index of the file. The points within the ranges must
+     * still be tested against the box.
+     *
+     * @param bb The bounding box.
+     * @return Sorted start (inclusive) and end (exclusive) pairs of point
+     * record numbers.
+     */
+    public long[] getPointRangesInBoundingBox(BoundingBox bb) {
+        LasSpatialIndex index = getSpatialIndex();
+        if (index == null) {
+            return new long[]{0, numPointRecords};
+        }
+        return index.getPointRanges(bb);
+    }
+
     public ArrayList<PointRecord> getPointRecordsInBoundingBox(BoundingBox bb) {
         double minXbb = bb.getMinX();
         double minYbb = bb.getMinY();
@@ -241,15 +286,18 @@ public class LASReader {
         ArrayList<PointRecord> ret = new ArrayList<>();
         PointRecord rec;
         try {
-            for (int i = 0; i < numPointRecords; i++) {
-                rec = getPointRecord(i);
-                if (rec != null) {
-                    x = rec.getX();
-                    y = rec.getY();
-                    if (maxYbb < y || maxXbb < x || minYbb > y || minXbb > x) {
-                        // do nothing it's outside the bounds
-                    } else {
-                        ret.add(rec);
+            long[] ranges = getPointRangesInBoundingBox(bb);
+            for (int r = 0; r < ranges.length; r += 2) {
+                for (int i = (int) ranges[r]; i < ranges[r + 1]; i++) {
+                    rec = getPointRecord(i);
+                    if (rec != null) {
+                        x = rec.getX();
+                        y = rec.getY();
+                        if (maxYbb < y || maxXbb < x || minYbb > y || minXbb > x) {
+                            // do nothing it's outside the bounds
+                        } else {
+                            ret.add(rec);
+                        }
                     }
                 }
             }
@@ -269,14 +317,17 @@ public class LASReader {
 
         ArrayList<Integer> ret = new ArrayList<>();
         PointRecord rec;
-        for (int i = 0; i < numPointRecords; i++) {
-            rec = getPointRecord(i);
-            x = rec.getX();
-            y = rec.getY();
-            if (maxYbb < y || maxXbb < x || minYbb > y || minXbb > x) {
-                // do nothing it's outside the bounds
-            } else {
-                ret.add(i);
+        long[] ranges = getPointRangesInBoundingBox(bb);
+        for (int r = 0; r < ranges.length; r += 2) {
+            for (int i = (int) ranges[r]; i < ranges[r + 1]; i++) {
+                rec = getPointRecord(i);
+                x = rec.getX();
+                y = rec.getY();
+                if (maxYbb < y || maxXbb < x || minYbb > y || minXbb > x) {
+                    // do nothing it's outside the bounds
+                } else {
+                    ret.add(i);
+                }
             }
         }
         return ret;
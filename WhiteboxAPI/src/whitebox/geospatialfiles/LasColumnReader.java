@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the point records of a LAS file a chunk at a time into primitive
+ * arrays, one array per attribute, rather than into a PointRecord object per
+ * point. Only the attributes that are asked for are decoded, the point data
+ * are read through a memory-mapped window of the file, and the arrays of a
+ * chunk are reused from one chunk to the next, so that reading even a very
+ * large file allocates almost nothing.
+ *
+ * <pre>
+ * LasColumnReader reader = new LasColumnReader(las, LasColumnReader.X | LasColumnReader.Y);
+ * LasColumnReader.Chunk chunk = reader.createChunk(65536);
+ * while (reader.next(chunk)) {
+ *     double[] x = chunk.getX();
+ *     ...
+ * }
+ * reader.close();
+ * </pre>
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class LasColumnReader implements Closeable {
+
+    public static final int X = 1;
+    public static final int Y = 1 << 1;
+    public static final int Z = 1 << 2;
+    public static final int INTENSITY = 1 << 3;
+    public static final int CLASSIFICATION = 1 << 4;
+    public static final int RETURN_NUMBER = 1 << 5;
+    public static final int NUMBER_OF_RETURNS = 1 << 6;
+    public static final int SCAN_ANGLE = 1 << 7;
+    /**
+     * The synthetic, key-point and withheld flags and the scan direction and
+     * edge of flight line flags.
+     */
+    public static final int FLAGS = 1 << 8;
+    public static final int GPS_TIME = 1 << 9;
+    public static final int POINT_SOURCE_ID = 1 << 10;
+    public static final int RGB = 1 << 11;
+
+    private static final long MAX_WINDOW_SIZE = 1L << 26;
+
+    private final int attributes;
+    private final long numPoints;
+    private final long offsetToPointData;
+    private final int recLength;
+    private final double xScale, yScale, zScale;
+    private final double xOffset, yOffset, zOffset;
+    private final int gpsTimeOffset;
+    private final int colourOffset;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+    private long windowEnd = 0;
+    private long nextPoint = 0;
+    private long endPoint;
+
+    /**
+     * Class constructor.
+     *
+     * @param las The LAS file.
+     * @param attributes The attributes to decode, e.g. X | Y | CLASSIFICATION.
+     * @throws IOException if the file cannot be opened.
+     */
+    public LasColumnReader(LASReader las, int attributes) throws IOException {
+        short format = las.getPointDataFormatID();
+        if ((attributes & GPS_TIME) != 0 && !(format == 1 || format == 3 || format == 4 || format == 5)) {
+            throw new IllegalArgumentException("The LAS file does not contain GPS times.");
+        }
+        if ((attributes & RGB) != 0 && !(format == 2 || format == 3 || format == 5)) {
+            throw new IllegalArgumentException("The LAS file does not contain colour data.");
+        }
+        this.attributes = attributes;
+        numPoints = las.getNumPointRecords();
+        endPoint = numPoints;
+        offsetToPointData = las.getOffsetToPointData();
+        recLength = las.getPointDataRecLength();
+        xScale = las.getXScale();
+        yScale = las.getYScale();
+        zScale = las.getZScale();
+        xOffset = las.getXOffset();
+        yOffset = las.getYOffset();
+        zOffset = las.getZOffset();
+        gpsTimeOffset = 20;
+        colourOffset = format == 2 ? 20 : 28;
+        file = new RandomAccessFile(las.getFileName(), "r");
+        channel = file.getChannel();
+    }
+
+    public long getNumPointRecords() {
+        return numPoints;
+    }
+
+    /**
+     * Creates a chunk with arrays for the attributes of this reader.
+     *
+     * @param capacity The greatest number of points held by the chunk.
+     * @return A new chunk.
+     */
+    public Chunk createChunk(int capacity) {
+        return new Chunk(attributes, capacity);
+    }
+
+    /**
+     * Sets the range of point records that next() reads.
+     *
+     * @param start The first point record to read.
+     * @param end One past the last point record to read.
+     */
+    public void setRange(long start, long end) {
+        if (start < 0 || end > numPoints || start > end) {
+            throw new IllegalArgumentException("Invalid point record range.");
+        }
+        nextPoint = start;
+        endPoint = end;
+    }
+
+    /**
+     * Reads the next chunk of point records, following on from the previous
+     * chunk.
+     *
+     * @param chunk The chunk to fill.
+     * @return false if there are no more points to read.
+     * @throws IOException if the file cannot be read.
+     */
+    public boolean next(Chunk chunk) throws IOException {
+        if (nextPoint >= endPoint) {
+            chunk.size = 0;
+            return false;
+        }
+        int n = (int) Math.min(chunk.capacity, endPoint - nextPoint);
+        read(nextPoint, n, chunk);
+        nextPoint += n;
+        return true;
+    }
+
+    /**
+     * Reads a block of point records.
+     *
+     * @param start The first point record to read.
+     * @param count The number of points to read, no more than the capacity
+     * of the chunk.
+     * @param chunk The chunk to fill.
+     * @throws IOException if the file cannot be read.
+     */
+    public void read(long start, int count, Chunk chunk) throws IOException {
+        if (count > chunk.capacity || start < 0 || start + count > numPoints) {
+            throw new IllegalArgumentException("Invalid point record range.");
+        }
+        if ((chunk.attributes & attributes) != attributes) {
+            throw new IllegalArgumentException("The chunk does not hold the attributes of the reader.");
+        }
+        chunk.firstPoint = start;
+        chunk.size = count;
+        int i = 0;
+        while (i < count) {
+            long point = start + i;
+            mapWindow(point);
+            int n = (int) Math.min(count - i, (windowEnd - point));
+            decode(window, (int) ((point - windowStart) * recLength), chunk, i, n);
+            i += n;
+        }
+    }
+
+    private void mapWindow(long point) throws IOException {
+        if (window != null && point >= windowStart && point < windowEnd) {
+            return;
+        }
+        long pointsPerWindow = Math.max(1, MAX_WINDOW_SIZE / recLength);
+        windowStart = point;
+        windowEnd = Math.min(numPoints, point + pointsPerWindow);
+        window = channel.map(FileChannel.MapMode.READ_ONLY,
+                offsetToPointData + windowStart * recLength,
+                (windowEnd - windowStart) * recLength);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void decode(MappedByteBuffer buf, int pos, Chunk chunk, int first, int n) {
+        int end = first + n;
+        if ((attributes & X) != 0) {
+            double[] x = chunk.x;
+            for (int i = first, p = pos; i < end; i++, p += recLength) {
+                x[i] = buf.getInt(p) * xScale + xOffset;
+            }
+        }
+        if ((attributes & Y) != 0) {
+            double[] y = chunk.y;
+            for (int i = first, p = pos + 4; i < end; i++, p += recLength) {
+                y[i] = buf.getInt(p) * yScale + yOffset;
+            }
+        }
+        if ((attributes & Z) != 0) {
+            double[] z = chunk.z;
+            for (int i = first, p = pos + 8; i < end; i++, p += recLength) {
+                z[i] = buf.getInt(p) * zScale + zOffset;
+            }
+        }
+        if ((attributes & INTENSITY) != 0) {
+            short[] intensity = chunk.intensity;
+            for (int i = first, p = pos + 12; i < end; i++, p += recLength) {
+                intensity[i] = buf.getShort(p);
+            }
+        }
+        if ((attributes & (RETURN_NUMBER | NUMBER_OF_RETURNS)) != 0) {
+            for (int i = first, p = pos + 14; i < end; i++, p += recLength) {
+                byte b = buf.get(p);
+                if (chunk.returnNumber != null) {
+                    chunk.returnNumber[i] = (byte) (b & 0x07);
+                }
+                if (chunk.numberOfReturns != null) {
+                    chunk.numberOfReturns[i] = (byte) ((b >> 3) & 0x07);
+                }
+            }
+        }
+        if ((attributes & CLASSIFICATION) != 0) {
+            byte[] classification = chunk.classification;
+            for (int i = first, p = pos + 15; i < end; i++, p += recLength) {
+                classification[i] = (byte) (buf.get(p) & 0x1F);
+            }
+        }
+        if ((attributes & FLAGS) != 0) {
+            byte[] flags = chunk.flags;
+            for (int i = first, p = pos + 14; i < end; i++, p += recLength) {
+                // the high three bits of the classification byte and the
+                // high two bits of the return byte
+                flags[i] = (byte) ((buf.get(p + 1) & 0xE0) | ((buf.get(p) >> 6) & 0x03));
+            }
+        }
+        if ((attributes & SCAN_ANGLE) != 0) {
+            byte[] scanAngle = chunk.scanAngle;
+            for (int i = first, p = pos + 16; i < end; i++, p += recLength) {
+                scanAngle[i] = buf.get(p);
+            }
+        }
+        if ((attributes & POINT_SOURCE_ID) != 0) {
+            short[] pointSourceID = chunk.pointSourceID;
+            for (int i = first, p = pos + 18; i < end; i++, p += recLength) {
+                pointSourceID[i] = buf.getShort(p);
+            }
+        }
+        if ((attributes & GPS_TIME) != 0) {
+            double[] gpsTime = chunk.gpsTime;
+            for (int i = first, p = pos + gpsTimeOffset; i < end; i++, p += recLength) {
+                gpsTime[i] = buf.getDouble(p);
+            }
+        }
+        if ((attributes & RGB) != 0) {
+            for (int i = first, p = pos + colourOffset; i < end; i++, p += recLength) {
+                chunk.red[i] = buf.getShort(p);
+                chunk.green[i] = buf.getShort(p + 2);
+                chunk.blue[i] = buf.getShort(p + 4);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    /**
+     * A block of point records held as one primitive array per attribute.
+     * Arrays of attributes that were not asked for are null. Intensity,
+     * point source ID and colour values are unsigned 16-bit numbers; use the
+     * accessor methods, or mask with 0xFFFF, to read them.
+     */
+    public static class Chunk {
+
+        private static final int SYNTHETIC = 0x20;
+        private static final int KEY_POINT = 0x40;
+        private static final int WITHHELD = 0x80;
+        private static final int SCAN_DIRECTION = 0x01;
+        private static final int EDGE_OF_FLIGHT_LINE = 0x02;
+
+        private final int attributes;
+        private final int capacity;
+        private int size = 0;
+        private long firstPoint = 0;
+        private final double[] x;
+        private final double[] y;
+        private final double[] z;
+        private final short[] intensity;
+        private final byte[] classification;
+        private final byte[] returnNumber;
+        private final byte[] numberOfReturns;
+        private final byte[] scanAngle;
+        private final byte[] flags;
+        private final double[] gpsTime;
+        private final short[] pointSourceID;
+        private final short[] red;
+        private final short[] green;
+        private final short[] blue;
+
+        private Chunk(int attributes, int capacity) {
+            this.attributes = attributes;
+            this.capacity = capacity;
+            x = (attributes & X) != 0 ? new double[capacity] : null;
+            y = (attributes & Y) != 0 ? new double[capacity] : null;
+            z = (attributes & Z) != 0 ? new double[capacity] : null;
+            intensity = (attributes & INTENSITY) != 0 ? new short[capacity] : null;
+            classification = (attributes & CLASSIFICATION) != 0 ? new byte[capacity] : null;
+            returnNumber = (attributes & RETURN_NUMBER) != 0 ? new byte[capacity] : null;
+            numberOfReturns = (attributes & NUMBER_OF_RETURNS) != 0 ? new byte[capacity] : null;
+            scanAngle = (attributes & SCAN_ANGLE) != 0 ? new byte[capacity] : null;
+            flags = (attributes & FLAGS) != 0 ? new byte[capacity] : null;
+            gpsTime = (attributes & GPS_TIME) != 0 ? new double[capacity] : null;
+            pointSourceID = (attributes & POINT_SOURCE_ID) != 0 ? new short[capacity] : null;
+            red = (attributes & RGB) != 0 ? new short[capacity] : null;
+            green = (attributes & RGB) != 0 ? new short[capacity] : null;
+            blue = (attributes & RGB) != 0 ? new short[capacity] : null;
+        }
+
+        /**
+         * @return The number of points in the chunk.
+         */
+        public int size() {
+            return size;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * @return The record number of the first point in the chunk.
+         */
+        public long getFirstPoint() {
+            return firstPoint;
+        }
+
+        public double[] getX() {
+            return x;
+        }
+
+        public double[] getY() {
+            return y;
+        }
+
+        public double[] getZ() {
+            return z;
+        }
+
+        public short[] getIntensities() {
+            return intensity;
+        }
+
+        public int getIntensity(int i) {
+            return intensity[i] & 0xFFFF;
+        }
+
+        public byte[] getClassifications() {
+            return classification;
+        }
+
+        public byte[] getReturnNumbers() {
+            return returnNumber;
+        }
+
+        public byte[] getNumbersOfReturns() {
+            return numberOfReturns;
+        }
+
+        public byte[] getScanAngles() {
+            return scanAngle;
+        }
+
+        public double[] getGPSTimes() {
+            return gpsTime;
+        }
+
+        public int getPointSourceID(int i) {
+            return pointSourceID[i] & 0xFFFF;
+        }
+
+        public int getRed(int i) {
+            return red[i] & 0xFFFF;
+        }
+
+        public int getGreen(int i) {
+            return green[i] & 0xFFFF;
+        }
+
+        public int getBlue(int i) {
+            return blue[i] & 0xFFFF;
+        }
+
+        public boolean isSynthetic(int i) {
+            return (flags[i] & SYNTHETIC) != 0;
+        }
+
+        public boolean isKeyPoint(int i) {
+            return (flags[i] & KEY_POINT) != 0;
+        }
+
+        public boolean isPointWithheld(int i) {
+            return (flags[i] & WITHHELD) != 0;
+        }
+
+        public boolean getScanDirectionFlag(int i) {
+            return (flags[i] & SCAN_DIRECTION) != 0;
+        }
+
+        public boolean isEdgeOfFlightLine(int i) {
+            return (flags[i] & EDGE_OF_FLIGHT_LINE) != 0;
+        }
+    }
+}
@@ -973,30 +973,40 @@ public class LasLayerInfo implements MapLayer {
         double maxYbb = currentExtent.getMaxY();
         double x, y;
 
+        // only the ranges of points that the spatial index places near the
+        // extent need to be tested.
+        long[] ranges = lasFile.getPointRangesInBoundingBox(currentExtent);
+
         pointXYData = new ArrayList<>();
         PointRecord rec;
         if (filledWithOneColour) {
             colourDataOfExtent = new ArrayList<>();
             colourDataOfExtent.add(colourData[0]);
-            for (int i = 0; i < xyData.length; i++) {
-                x = xyData[i][0];
-                y = xyData[i][1];
-                if (maxYbb < y || maxXbb < x || minYbb > y || minXbb > x) {
-                    // do nothing it's outside the bounds
-                } else {
-                    pointXYData.add(new XYPoint(x, y));
+            for (int r = 0; r < ranges.length; r += 2) {
+                int end = (int) Math.min(ranges[r + 1], xyData.length);
+                for (int i = (int) ranges[r]; i < end; i++) {
+                    x = xyData[i][0];
+                    y = xyData[i][1];
+                    if (maxYbb < y || maxXbb < x || minYbb > y || minXbb > x) {
+                        // do nothing it's outside the bounds
+                    } else {
+                        pointXYData.add(new XYPoint(x, y));
+                    }
                 }
             }
         } else {
             colourDataOfExtent = new ArrayList<>();
-            for (int i = 0; i < xyData.length; i++) {
-                x = xyData[i][0];
-                y = xyData[i][1];
-                if (maxYbb < y || maxXbb < x || minYbb > y || minXbb > x) {
-                    // do nothing it's outside the bounds
-                } else {
-                    pointXYData.add(new XYPoint(x, y));
-                    colourDataOfExtent.add(colourData[i]);
+            for (int r = 0; r < ranges.length; r += 2) {
+                int end = (int) Math.min(ranges[r + 1], xyData.length);
+                for (int i = (int) ranges[r]; i < end; i++) {
+                    x = xyData[i][0];
+                    y = xyData[i][1];
+                    if (maxYbb < y || maxXbb < x || minYbb > y || minXbb > x) {
+                        // do nothing it's outside the bounds
+                    } else {
+                        pointXYData.add(new XYPoint(x, y));
+                        colourDataOfExtent.add(colourData[i]);
+                    }
                 }
             }
         }
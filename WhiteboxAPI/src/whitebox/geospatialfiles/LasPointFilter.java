@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+/**
+ * Selects the LAS points that are used by a LiDAR tool and the value that is
+ * taken from each of them. Withheld points are always excluded; points may
+ * also be excluded by their classification, return number and scan angle.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class LasPointFilter {
+
+    public static final int ALL_POINTS = 0;
+    public static final int FIRST_RETURN = 1;
+    public static final int LAST_RETURN = 2;
+
+    public static final int ELEVATION = 0;
+    public static final int INTENSITY = 1;
+    public static final int CLASSIFICATION = 2;
+    public static final int SCAN_ANGLE = 3;
+    public static final int RGB = 4;
+
+    private final boolean[] classValuesToExclude = new boolean[32];
+    private int returns = ALL_POINTS;
+    private int valueType = ELEVATION;
+    private double maxAbsScanAngle = Double.POSITIVE_INFINITY;
+
+    /**
+     * Class constructor.
+     *
+     * @param classValuesToExclude Flags the classification values of the
+     * points to exclude, or null to include all classes.
+     */
+    public LasPointFilter(boolean[] classValuesToExclude) {
+        if (classValuesToExclude != null) {
+            System.arraycopy(classValuesToExclude, 0, this.classValuesToExclude, 0,
+                    Math.min(32, classValuesToExclude.length));
+        }
+    }
+
+    /**
+     * Sets the returns that are used.
+     *
+     * @param returns ALL_POINTS, FIRST_RETURN or LAST_RETURN.
+     */
+    public void setReturns(int returns) {
+        this.returns = returns;
+    }
+
+    /**
+     * Sets the returns that are used from the text of a tool's point return
+     * option, i.e. "all points", "first return" or "last return".
+     *
+     * @param value The option text.
+     */
+    public void setReturns(String value) {
+        value = value.toLowerCase();
+        if (value.equals("first return")) {
+            returns = FIRST_RETURN;
+        } else if (value.equals("last return")) {
+            returns = LAST_RETURN;
+        } else {
+            returns = ALL_POINTS;
+        }
+    }
+
+    public int getReturns() {
+        return returns;
+    }
+
+    /**
+     * Sets the point attribute that is used as each point's value.
+     *
+     * @param valueType ELEVATION, INTENSITY, CLASSIFICATION, SCAN_ANGLE or
+     * RGB.
+     */
+    public void setValueType(int valueType) {
+        this.valueType = valueType;
+    }
+
+    /**
+     * Sets the point attribute that is used as each point's value from the
+     * text of a tool's interpolation parameter option, e.g. "z (elevation)"
+     * or "rgb data".
+     *
+     * @param value The option text.
+     */
+    public void setValueType(String value) {
+        value = value.toLowerCase();
+        if (value.equals("intensity")) {
+            valueType = INTENSITY;
+        } else if (value.equals("classification")) {
+            valueType = CLASSIFICATION;
+        } else if (value.equals("scan angle")) {
+            valueType = SCAN_ANGLE;
+        } else if (value.equals("rgb data")) {
+            valueType = RGB;
+        } else {
+            valueType = ELEVATION;
+        }
+    }
+
+    public int getValueType() {
+        return valueType;
+    }
+
+    /**
+     * Sets the largest absolute scan angle of the points that are used.
+     *
+     * @param maxAbsScanAngle The maximum absolute scan angle, in degrees.
+     */
+    public void setMaxAbsScanAngle(double maxAbsScanAngle) {
+        this.maxAbsScanAngle = maxAbsScanAngle;
+    }
+
+    public double getMaxAbsScanAngle() {
+        return maxAbsScanAngle;
+    }
+
+    /**
+     * Returns the LasColumnReader attributes that must be read for accept and
+     * getValue.
+     *
+     * @return The attribute flags.
+     */
+    public int getAttributes() {
+        int attributes = LasColumnReader.X | LasColumnReader.Y
+                | LasColumnReader.CLASSIFICATION | LasColumnReader.FLAGS
+                | LasColumnReader.SCAN_ANGLE;
+        if (returns != ALL_POINTS) {
+            attributes |= LasColumnReader.RETURN_NUMBER | LasColumnReader.NUMBER_OF_RETURNS;
+        }
+        switch (valueType) {
+            case INTENSITY:
+                attributes |= LasColumnReader.INTENSITY;
+                break;
+            case RGB:
+                attributes |= LasColumnReader.RGB;
+                break;
+            case ELEVATION:
+                attributes |= LasColumnReader.Z;
+                break;
+        }
+        return attributes;
+    }
+
+    /**
+     * Indicates whether a point of a chunk passes the filter.
+     *
+     * @param chunk A chunk read with the attributes of getAttributes.
+     * @param i The index of the point within the chunk.
+     * @return true if the point is used.
+     */
+    public boolean accept(LasColumnReader.Chunk chunk, int i) {
+        if (chunk.isPointWithheld(i)
+                || classValuesToExclude[chunk.getClassifications()[i]]
+                || Math.abs(chunk.getScanAngles()[i]) > maxAbsScanAngle) {
+            return false;
+        }
+        if (returns == FIRST_RETURN) {
+            return chunk.getReturnNumbers()[i] == 1;
+        } else if (returns == LAST_RETURN) {
+            return chunk.getReturnNumbers()[i] == chunk.getNumbersOfReturns()[i];
+        }
+        return true;
+    }
+
+    /**
+     * Returns the value of a point. RGB colours are packed into a single
+     * value in the same way as the colours of a WhiteboxRaster with an rgb
+     * data scale.
+     *
+     * @param chunk A chunk read with the attributes of getAttributes.
+     * @param i The index of the point within the chunk.
+     * @return The point's value.
+     */
+    public double getValue(LasColumnReader.Chunk chunk, int i) {
+        switch (valueType) {
+            case INTENSITY:
+                return chunk.getIntensity(i);
+            case CLASSIFICATION:
+                return chunk.getClassifications()[i];
+            case SCAN_ANGLE:
+                return chunk.getScanAngles()[i];
+            case RGB:
+                return (double) ((255 << 24) | (chunk.getBlue(i) << 16)
+                        | (chunk.getGreen(i) << 8) | chunk.getRed(i));
+            default:
+                return chunk.getZ()[i];
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import whitebox.structures.BoundingBox;
+
+/**
+ * A spatial index of the point records in a LAS file. The extent of the file
+ * is divided into a grid of cells and each cell stores the ranges of point
+ * record numbers that fall within it. Because LAS files are usually stored in
+ * flight-line order, the points of a cell come in runs, and the ranges of a
+ * cell are coarsened (by merging the smallest gaps) until there are no more
+ * than a fixed number of them. A bounding box query returns a superset of the
+ * points in the box, as a small number of contiguous ranges that can be read
+ * without scanning the rest of the file.
+ *
+ * The index is built with one pass over the x and y coordinates of the file
+ * and is saved beside it, with the extension .lsx, so that it only needs to be
+ * built once. It is rebuilt if the LAS file changes.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class LasSpatialIndex {
+
+    private static final int MAGIC = 0x58534C57; // "WLSX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 80;
+    private static final int POINTS_PER_CELL = 4096;
+    private static final int MAX_CELLS = 1 << 18;
+    private static final int MAX_RANGES_PER_CELL = 64;
+    private static final int READ_BUFFER_POINTS = 65536;
+
+    private final long numPoints;
+    private final double minX;
+    private final double minY;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final int rows;
+    private final int columns;
+    // the ranges of cell i are ranges[2 * cellStarts[i]] to
+    // ranges[2 * cellStarts[i + 1]], as start (inclusive), end (exclusive)
+    // pairs
+    private final long[] cellStarts;
+    private final long[] ranges;
+
+    private LasSpatialIndex(long numPoints, double minX, double minY,
+            double cellWidth, double cellHeight, int rows, int columns,
+            long[] cellStarts, long[] ranges) {
+        this.numPoints = numPoints;
+        this.minX = minX;
+        this.minY = minY;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.rows = rows;
+        this.columns = columns;
+        this.cellStarts = cellStarts;
+        this.ranges = ranges;
+    }
+
+    /**
+     * Returns the name of the index file of a LAS file.
+     *
+     * @param lasFileName The name of the LAS file.
+     * @return The name of the index file.
+     */
+    public static String getIndexFileName(String lasFileName) {
+        int dot = lasFileName.lastIndexOf('.');
+        if (dot > lasFileName.lastIndexOf(File.separatorChar)) {
+            return lasFileName.substring(0, dot) + ".lsx";
+        }
+        return lasFileName + ".lsx";
+    }
+
+    /**
+     * Reads the index of a LAS file from its index file, or builds it if
+     * there is no up-to-date index file and then tries to save it. An index
+     * that cannot be saved, e.g. in a read-only directory, is still returned.
+     *
+     * @param las The LAS file.
+     * @return The spatial index of the file.
+     * @throws IOException if the LAS file cannot be read.
+     */
+    public static LasSpatialIndex open(LASReader las) throws IOException {
+        File lasFile = new File(las.getFileName());
+        File indexFile = new File(getIndexFileName(las.getFileName()));
+        if (indexFile.exists()) {
+            LasSpatialIndex index = read(indexFile, lasFile, las.getNumPointRecords());
+            if (index != null) {
+                return index;
+            }
+        }
+        LasSpatialIndex index = build(las);
+        try {
+            index.write(indexFile, lasFile);
+        } catch (IOException e) {
+            indexFile.delete();
+        }
+        return index;
+    }
+
+    public long getNumPointRecords() {
+        return numPoints;
+    }
+
+    /**
+     * Finds the point records that may lie within a bounding box. Every point
+     * in the box is within one of the returned ranges, but the ranges may
+     * also contain points outside of it.
+     *
+     * @param bb The bounding box.
+     * @return Sorted, non-overlapping ranges of point record numbers, as
+     * start (inclusive) and end (exclusive) pairs.
+     */
+    public long[] getPointRanges(BoundingBox bb) {
+        if (numPoints == 0 || bb.getMaxX() < bb.getMinX() || bb.getMaxY() < bb.getMinY()) {
+            return new long[0];
+        }
+        int startCol = getColumn(bb.getMinX());
+        int endCol = getColumn(bb.getMaxX());
+        int startRow = getRow(bb.getMinY());
+        int endRow = getRow(bb.getMaxY());
+
+        int n = 0;
+        for (int row = startRow; row <= endRow; row++) {
+            for (int col = startCol; col <= endCol; col++) {
+                int cell = row * columns + col;
+                n += (int) (cellStarts[cell + 1] - cellStarts[cell]);
+            }
+        }
+        long[] starts = new long[n];
+        long[] ends = new long[n];
+        n = 0;
+        for (int row = startRow; row <= endRow; row++) {
+            for (int col = startCol; col <= endCol; col++) {
+                int cell = row * columns + col;
+                for (long r = cellStarts[cell]; r < cellStarts[cell + 1]; r++) {
+                    starts[n] = ranges[(int) (2 * r)];
+                    ends[n] = ranges[(int) (2 * r + 1)];
+                    n++;
+                }
+            }
+        }
+
+        // the union of the ranges is found by sweeping over their sorted
+        // starts and ends; a start at the same place as an end is taken
+        // first so that touching ranges are joined.
+        Arrays.sort(starts);
+        Arrays.sort(ends);
+        long[] merged = new long[2 * n];
+        int m = 0;
+        int active = 0;
+        int i = 0;
+        int j = 0;
+        while (j < n) {
+            if (i < n && starts[i] <= ends[j]) {
+                if (active == 0) {
+                    merged[m++] = starts[i];
+                }
+                active++;
+                i++;
+            } else {
+                active--;
+                if (active == 0) {
+                    merged[m++] = ends[j];
+                }
+                j++;
+            }
+        }
+        return Arrays.copyOf(merged, m);
+    }
+
+    private int getColumn(double x) {
+        double c = Math.floor((x - minX) / cellWidth);
+        return (int) Math.max(0, Math.min(columns - 1, c));
+    }
+
+    private int getRow(double y) {
+        double r = Math.floor((y - minY) / cellHeight);
+        return (int) Math.max(0, Math.min(rows - 1, r));
+    }
+
+    private static LasSpatialIndex build(LASReader las) throws IOException {
+        long numPoints = las.getNumPointRecords();
+        double minX = las.getMinX();
+        double minY = las.getMinY();
+        double width = Math.max(las.getMaxX() - minX, 0);
+        double height = Math.max(las.getMaxY() - minY, 0);
+
+        // aim for a few thousand points per cell, in square cells.
+        long targetCells = Math.max(1, Math.min(MAX_CELLS, numPoints / POINTS_PER_CELL));
+        double cellSize = Math.sqrt(width * height / targetCells);
+        if (!(cellSize > 0)) {
+            cellSize = Math.max(Math.max(width, height) / targetCells, 1e-9);
+        }
+        int columns = (int) Math.max(1, Math.min(MAX_CELLS, Math.ceil(width / cellSize)));
+        int rows = (int) Math.max(1, Math.min(MAX_CELLS / columns, Math.ceil(height / cellSize)));
+        double cellWidth = width > 0 ? width / columns : 1;
+        double cellHeight = height > 0 ? height / rows : 1;
+        int numCells = rows * columns;
+
+        long[][] cellRanges = new long[numCells][];
+        int[] cellSizes = new int[numCells];
+        double xScale = las.getXScale();
+        double yScale = las.getYScale();
+        double xOffset = las.getXOffset();
+        double yOffset = las.getYOffset();
+        int recLength = las.getPointDataRecLength();
+
+        try (RandomAccessFile raf = new RandomAccessFile(las.getFileName(), "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buf = ByteBuffer.allocateDirect(READ_BUFFER_POINTS * recLength);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            long point = 0;
+            long pos = las.getOffsetToPointData();
+            while (point < numPoints) {
+                int n = (int) Math.min(READ_BUFFER_POINTS, numPoints - point);
+                buf.clear();
+                buf.limit(n * recLength);
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, pos + buf.position()) < 0) {
+                        throw new IOException("The LAS file is shorter than its header states.");
+                    }
+                }
+                pos += n * recLength;
+                for (int i = 0; i < n; i++) {
+                    double x = buf.getInt(i * recLength) * xScale + xOffset;
+                    double y = buf.getInt(i * recLength + 4) * yScale + yOffset;
+                    int col = (int) Math.max(0, Math.min(columns - 1, Math.floor((x - minX) / cellWidth)));
+                    int row = (int) Math.max(0, Math.min(rows - 1, Math.floor((y - minY) / cellHeight)));
+                    addPoint(cellRanges, cellSizes, row * columns + col, point + i);
+                }
+                point += n;
+            }
+        }
+
+        long[] cellStarts = new long[numCells + 1];
+        for (int i = 0; i < numCells; i++) {
+            if (cellSizes[i] > 2 * MAX_RANGES_PER_CELL) {
+                cellSizes[i] = coarsen(cellRanges[i], cellSizes[i]);
+            }
+            cellStarts[i + 1] = cellStarts[i] + cellSizes[i] / 2;
+        }
+        if (2 * cellStarts[numCells] > Integer.MAX_VALUE - 8) {
+            throw new IOException("The LAS file is too large to be indexed.");
+        }
+        long[] ranges = new long[(int) (2 * cellStarts[numCells])];
+        for (int i = 0; i < numCells; i++) {
+            if (cellSizes[i] > 0) {
+                System.arraycopy(cellRanges[i], 0, ranges, (int) (2 * cellStarts[i]), cellSizes[i]);
+                cellRanges[i] = null;
+            }
+        }
+        return new LasSpatialIndex(numPoints, minX, minY, cellWidth, cellHeight,
+                rows, columns, cellStarts, ranges);
+    }
+
+    /**
+     * Adds a point to the ranges of a cell, extending the last range when the
+     * point follows on from it.
+     */
+    private static void addPoint(long[][] cellRanges, int[] cellSizes, int cell, long point) {
+        long[] r = cellRanges[cell];
+        int n = cellSizes[cell];
+        if (n > 0 && r[n - 1] == point) {
+            r[n - 1] = point + 1;
+            return;
+        }
+        if (r == null) {
+            r = new long[8];
+            cellRanges[cell] = r;
+        } else if (n == r.length) {
+            if (n >= 4 * MAX_RANGES_PER_CELL) {
+                n = coarsen(r, n);
+            } else {
+                r = Arrays.copyOf(r, 2 * n);
+                cellRanges[cell] = r;
+            }
+        }
+        r[n] = point;
+        r[n + 1] = point + 1;
+        cellSizes[cell] = n + 2;
+    }
+
+    /**
+     * Merges the ranges that are separated by the smallest gaps until there
+     * are no more than MAX_RANGES_PER_CELL of them.
+     *
+     * @return The new number of values in the range array.
+     */
+    private static int coarsen(long[] r, int n) {
+        long maxGap = 1;
+        while (n > 2 * MAX_RANGES_PER_CELL) {
+            int m = 2;
+            for (int i = 2; i < n; i += 2) {
+                if (r[i] - r[m - 1] <= maxGap) {
+                    r[m - 1] = r[i + 1];
+                } else {
+                    r[m] = r[i];
+                    r[m + 1] = r[i + 1];
+                    m += 2;
+                }
+            }
+            n = m;
+            maxGap *= 2;
+        }
+        return n;
+    }
+
+    private static LasSpatialIndex read(File indexFile, File lasFile, long numPoints) {
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getLong() != lasFile.length()
+                    || header.getLong() != lasFile.lastModified()
+                    || header.getLong() != numPoints) {
+                return null;
+            }
+            double minX = header.getDouble();
+            double minY = header.getDouble();
+            double cellWidth = header.getDouble();
+            double cellHeight = header.getDouble();
+            int rows = header.getInt();
+            int columns = header.getInt();
+            long numRanges = header.getLong();
+            if (rows <= 0 || columns <= 0 || (long) rows * columns > MAX_CELLS
+                    || numRanges < 0 || 2 * numRanges > Integer.MAX_VALUE - 8) {
+                return null;
+            }
+            int numCells = rows * columns;
+            ByteBuffer body = ByteBuffer.allocate((int) (8L * (numCells + 1 + 2 * numRanges)));
+            body.order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, body, HEADER_SIZE);
+            body.flip();
+            long[] cellStarts = new long[numCells + 1];
+            body.asLongBuffer().get(cellStarts);
+            body.position(8 * (numCells + 1));
+            long[] ranges = new long[(int) (2 * numRanges)];
+            body.asLongBuffer().get(ranges);
+            if (cellStarts[numCells] != numRanges) {
+                return null;
+            }
+            return new LasSpatialIndex(numPoints, minX, minY, cellWidth, cellHeight,
+                    rows, columns, cellStarts, ranges);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void write(File indexFile, File lasFile) throws IOException {
+        int numCells = rows * columns;
+        long numRanges = cellStarts[numCells];
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(lasFile.length());
+            header.putLong(lasFile.lastModified());
+            header.putLong(numPoints);
+            header.putDouble(minX);
+            header.putDouble(minY);
+            header.putDouble(cellWidth);
+            header.putDouble(cellHeight);
+            header.putInt(rows);
+            header.putInt(columns);
+            header.putLong(numRanges);
+            header.flip();
+            channel.write(header, 0);
+
+            ByteBuffer body = ByteBuffer.allocate((int) (8L * (numCells + 1 + 2 * numRanges)));
+            body.order(ByteOrder.LITTLE_ENDIAN);
+            body.asLongBuffer().put(cellStarts);
+            body.position(8 * (numCells + 1));
+            body.asLongBuffer().put(ranges);
+            body.rewind();
+            long pos = HEADER_SIZE;
+            while (body.hasRemaining()) {
+                pos += channel.write(body, pos);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+            pos += n;
+        }
+    }
+}
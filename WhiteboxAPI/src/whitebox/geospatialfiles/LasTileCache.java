@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import whitebox.structures.BoundingBox;
+
+/**
+ * Provides the filtered points of a set of LAS tiles, together with the
+ * points of the neighbouring tiles that lie within a buffer around each tile,
+ * so that a tile can be gridded without edge effects. The points of each tile
+ * are decoded in a single pass with a LasColumnReader into primitive arrays.
+ * Recently decoded tiles are kept in a least-recently-used cache that is
+ * bounded by its total number of points; the buffer points of a neighbouring
+ * tile that is not in the cache are read with the tile's spatial index, so
+ * only the part of the tile near the buffer is decoded.
+ *
+ * The methods of this class may be called from several threads.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class LasTileCache {
+
+    private static final int CHUNK_SIZE = 65536;
+
+    private final LASReader[] tiles;
+    private final BoundingBox[] extents;
+    private final LasPointFilter filter;
+    private final long maxCachedPoints;
+    private final LinkedHashMap<Integer, Points> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long numCachedPoints = 0;
+
+    /**
+     * Class constructor. The cache is sized to use up to about a quarter of
+     * the maximum heap size, since each cached point takes about 25 bytes.
+     *
+     * @param fileNames The names of the LAS files.
+     * @param filter Selects the points that are used and their values.
+     */
+    public LasTileCache(String[] fileNames, LasPointFilter filter) {
+        this(fileNames, filter, Runtime.getRuntime().maxMemory() / 100);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param fileNames The names of the LAS files.
+     * @param filter Selects the points that are used and their values.
+     * @param maxCachedPoints The greatest number of decoded points to keep in
+     * the cache. The most recently used tile is always kept.
+     */
+    public LasTileCache(String[] fileNames, LasPointFilter filter, long maxCachedPoints) {
+        this.filter = filter;
+        this.maxCachedPoints = maxCachedPoints;
+        tiles = new LASReader[fileNames.length];
+        extents = new BoundingBox[fileNames.length];
+        for (int i = 0; i < fileNames.length; i++) {
+            tiles[i] = new LASReader(fileNames[i]);
+            extents[i] = new BoundingBox(tiles[i].getMinX(), tiles[i].getMinY(),
+                    tiles[i].getMaxX(), tiles[i].getMaxY());
+        }
+    }
+
+    public int getNumTiles() {
+        return tiles.length;
+    }
+
+    public String getFileName(int tile) {
+        return tiles[tile].getFileName();
+    }
+
+    public LasPointFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Returns the extent of a tile, as given in its header.
+     *
+     * @param tile The tile number.
+     * @return The extent of the tile.
+     */
+    public BoundingBox getTileExtent(int tile) {
+        return extents[tile].clone();
+    }
+
+    /**
+     * Returns the filtered points of a tile, decoding them if the tile is
+     * not in the cache. The returned points must not be modified.
+     *
+     * @param tile The tile number.
+     * @return The points of the tile.
+     * @throws IOException if the tile cannot be read.
+     */
+    public Points getTilePoints(int tile) throws IOException {
+        Points points = getCachedPoints(tile);
+        if (points == null) {
+            points = readPoints(tile, null);
+            synchronized (cache) {
+                if (!cache.containsKey(tile)) {
+                    cache.put(tile, points);
+                    numCachedPoints += points.size();
+                    Iterator<Map.Entry<Integer, Points>> it = cache.entrySet().iterator();
+                    while (numCachedPoints > maxCachedPoints && it.hasNext()) {
+                        Map.Entry<Integer, Points> eldest = it.next();
+                        if (eldest.getKey() != tile) {
+                            numCachedPoints -= eldest.getValue().size();
+                            it.remove();
+                        }
+                    }
+                }
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Returns the filtered points of a tile followed by the points of any
+     * other tile that lie within a buffer around the tile's extent. The first
+     * getNumTilePoints() points belong to the tile itself.
+     *
+     * @param tile The tile number.
+     * @param buffer The width of the buffer around the tile.
+     * @return The points of the tile and its buffer.
+     * @throws IOException if one of the tiles cannot be read.
+     */
+    public Points getNeighbourhood(int tile, double buffer) throws IOException {
+        Points own = getTilePoints(tile);
+        if (!(buffer > 0)) {
+            return own;
+        }
+        BoundingBox box = new BoundingBox(extents[tile].getMinX() - buffer,
+                extents[tile].getMinY() - buffer, extents[tile].getMaxX() + buffer,
+                extents[tile].getMaxY() + buffer);
+        Points points = new Points(own.size() + own.size() / 4 + 16);
+        points.addAll(own, null);
+        points.numTilePoints = own.size();
+        for (int t = 0; t < tiles.length; t++) {
+            if (t == tile || !extents[t].overlaps(box)) {
+                continue;
+            }
+            Points neighbour = getCachedPoints(t);
+            if (neighbour != null) {
+                points.addAll(neighbour, box);
+            } else {
+                points.addAll(readPoints(t, box), null);
+            }
+        }
+        points.trim();
+        return points;
+    }
+
+    private Points getCachedPoints(int tile) {
+        synchronized (cache) {
+            return cache.get(tile);
+        }
+    }
+
+    /**
+     * Decodes the filtered points of a tile, or only those within a box.
+     */
+    private Points readPoints(int tile, BoundingBox box) throws IOException {
+        LASReader las = tiles[tile];
+        long[] ranges;
+        if (box == null) {
+            ranges = new long[]{0, las.getNumPointRecords()};
+        } else {
+            ranges = las.getPointRangesInBoundingBox(box);
+        }
+        long numPoints = 0;
+        for (int r = 0; r < ranges.length; r += 2) {
+            numPoints += ranges[r + 1] - ranges[r];
+        }
+        Points points = new Points((int) Math.min(numPoints, 1 << 20));
+        LasColumnReader reader = new LasColumnReader(las, filter.getAttributes());
+        try {
+            LasColumnReader.Chunk chunk = reader.createChunk(CHUNK_SIZE);
+            for (int r = 0; r < ranges.length; r += 2) {
+                reader.setRange(ranges[r], ranges[r + 1]);
+                while (reader.next(chunk)) {
+                    double[] x = chunk.getX();
+                    double[] y = chunk.getY();
+                    byte[] scanAngles = chunk.getScanAngles();
+                    for (int i = 0; i < chunk.size(); i++) {
+                        if (!filter.accept(chunk, i)) {
+                            continue;
+                        }
+                        if (box != null && !box.isPointInBox(x[i], y[i])) {
+                            continue;
+                        }
+                        points.add(x[i], y[i], filter.getValue(chunk, i), scanAngles[i]);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        points.trim();
+        points.numTilePoints = points.size();
+        return points;
+    }
+
+    /**
+     * The filtered points of a tile, held in primitive arrays.
+     */
+    public static final class Points {
+
+        private double[] x;
+        private double[] y;
+        private double[] values;
+        private byte[] scanAngles;
+        private int size = 0;
+        private int numTilePoints = 0;
+
+        Points(int capacity) {
+            capacity = Math.max(capacity, 16);
+            x = new double[capacity];
+            y = new double[capacity];
+            values = new double[capacity];
+            scanAngles = new byte[capacity];
+        }
+
+        private void add(double px, double py, double value, byte scanAngle) {
+            if (size == x.length) {
+                resize(x.length + (x.length >> 1));
+            }
+            x[size] = px;
+            y[size] = py;
+            values[size] = value;
+            scanAngles[size] = scanAngle;
+            size++;
+        }
+
+        private void addAll(Points other, BoundingBox box) {
+            if (box == null) {
+                if (size + other.size > x.length) {
+                    resize(size + other.size);
+                }
+                System.arraycopy(other.x, 0, x, size, other.size);
+                System.arraycopy(other.y, 0, y, size, other.size);
+                System.arraycopy(other.values, 0, values, size, other.size);
+                System.arraycopy(other.scanAngles, 0, scanAngles, size, other.size);
+                size += other.size;
+            } else {
+                for (int i = 0; i < other.size; i++) {
+                    if (box.isPointInBox(other.x[i], other.y[i])) {
+                        add(other.x[i], other.y[i], other.values[i], other.scanAngles[i]);
+                    }
+                }
+            }
+        }
+
+        private void trim() {
+            if (size < x.length) {
+                resize(size);
+            }
+        }
+
+        private void resize(int capacity) {
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            values = Arrays.copyOf(values, capacity);
+            scanAngles = Arrays.copyOf(scanAngles, capacity);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the number of points that belong to the tile itself, which
+         * come before any buffer points.
+         *
+         * @return The number of tile points.
+         */
+        public int getNumTilePoints() {
+            return numTilePoints;
+        }
+
+        public double[] getX() {
+            return x;
+        }
+
+        public double[] getY() {
+            return y;
+        }
+
+        public double[] getValues() {
+            return values;
+        }
+
+        public byte[] getScanAngles() {
+            return scanAngles;
+        }
+    }
+}
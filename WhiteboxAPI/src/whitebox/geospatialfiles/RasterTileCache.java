@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import whitebox.geospatialfiles.WhiteboxRasterBase.DataType;
+
+/**
+ * A tile-based backing store for a WhiteboxRaster. The data file (.tas) is
+ * memory-mapped in horizontal strips that are one tile high and the cells are
+ * cached as fixed square tiles held in a least-recently-used list. Unlike the
+ * single sliding block used by default, neighbouring cells in any direction
+ * remain in memory, which suits random-access algorithms such as flow tracing
+ * and priority-flood depression filling. The mapped regions share the
+ * raster's persistent data file channel.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+final class RasterTileCache {
+
+    static final int DEFAULT_TILE_SIZE = 256;
+    private static final int MAX_MAPPED_STRIPS = 64;
+
+    private final WhiteboxRaster raster;
+    private final int rows;
+    private final int columns;
+    private final int cellSizeInBytes;
+    private final DataType dataType;
+    private final boolean writable;
+    private final int tileSize;
+    private final int tilesAcross;
+    private final int maxTiles;
+    private final FileChannel channel;
+    private final LinkedHashMap<Integer, MappedByteBuffer> strips;
+    private final LinkedHashMap<Integer, Tile> tiles;
+    private Tile lastTile = null;
+    private long numTileReads = 0;
+    private long numTileWrites = 0;
+
+    private static final class Tile {
+
+        final int startRow;
+        final int startCol;
+        final int numRows;
+        final int numCols;
+        final double[] data;
+        boolean dirty = false;
+
+        Tile(int startRow, int startCol, int numRows, int numCols) {
+            this.startRow = startRow;
+            this.startCol = startCol;
+            this.numRows = numRows;
+            this.numCols = numCols;
+            this.data = new double[numRows * numCols];
+        }
+
+        boolean contains(int row, int column) {
+            return row >= startRow && row < startRow + numRows
+                    && column >= startCol && column < startCol + numCols;
+        }
+    }
+
+    /**
+     * Class constructor. The raster's data file must already exist.
+     *
+     * @param raster The WhiteboxRaster that this cache serves.
+     * @param tileSize The width and height of a tile, in cells.
+     * @param memoryBudget The maximum number of bytes of decoded tile data to
+     * hold in memory.
+     * @throws IOException if the data file cannot be opened.
+     */
+    RasterTileCache(WhiteboxRaster raster, int tileSize, long memoryBudget) throws IOException {
+        this.raster = raster;
+        this.rows = raster.numberRows;
+        this.columns = raster.numberColumns;
+        this.cellSizeInBytes = raster.cellSizeInBytes;
+        this.dataType = raster.dataType;
+        this.writable = raster.saveChanges;
+
+        // a mapped strip cannot be larger than 2 GB.
+        long rowSizeInBytes = (long) columns * cellSizeInBytes;
+        if (rowSizeInBytes * tileSize > Integer.MAX_VALUE) {
+            tileSize = (int) Math.max(1, Integer.MAX_VALUE / rowSizeInBytes);
+        }
+        this.tileSize = tileSize;
+        this.tilesAcross = (columns + tileSize - 1) / tileSize;
+
+        // always keep at least two full rows of tiles so that moving
+        // across a tile boundary in any direction does not evict neighbours.
+        long tileMemory = (long) tileSize * tileSize * 8L;
+        this.maxTiles = (int) Math.max(2L * tilesAcross + 2,
+                Math.min(Integer.MAX_VALUE, memoryBudget / tileMemory));
+
+        channel = raster.getDataChannel(writable);
+
+        strips = new LinkedHashMap<Integer, MappedByteBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, MappedByteBuffer> eldest) {
+                return size() > MAX_MAPPED_STRIPS;
+            }
+        };
+
+        tiles = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    int getTileSize() {
+        return tileSize;
+    }
+
+    long getNumberOfTileReads() {
+        return numTileReads;
+    }
+
+    long getNumberOfTileWrites() {
+        return numTileWrites;
+    }
+
+    double getValue(int row, int column) {
+        Tile tile = getTile(row, column);
+        return tile.data[(row - tile.startRow) * tile.numCols + column - tile.startCol];
+    }
+
+    void setValue(int row, int column, double value) {
+        Tile tile = getTile(row, column);
+        tile.data[(row - tile.startRow) * tile.numCols + column - tile.startCol] = value;
+        tile.dirty = true;
+    }
+
+    void incrementValue(int row, int column, double value) {
+        Tile tile = getTile(row, column);
+        tile.data[(row - tile.startRow) * tile.numCols + column - tile.startCol] += value;
+        tile.dirty = true;
+    }
+
+    double[] getRowValues(int row) {
+        double[] retVals = new double[columns];
+        for (int col = 0; col < columns; col += tileSize) {
+            Tile tile = getTile(row, col);
+            System.arraycopy(tile.data, (row - tile.startRow) * tile.numCols,
+                    retVals, col, tile.numCols);
+        }
+        return retVals;
+    }
+
+    void setRowValues(int row, double[] vals) {
+        for (int col = 0; col < columns; col += tileSize) {
+            Tile tile = getTile(row, col);
+            System.arraycopy(vals, col, tile.data,
+                    (row - tile.startRow) * tile.numCols, tile.numCols);
+            tile.dirty = true;
+        }
+    }
+
+    /**
+     * Writes all dirty tiles back to the mapped data file.
+     */
+    void flush() throws IOException {
+        for (Tile tile : tiles.values()) {
+            if (tile.dirty) {
+                writeTile(tile);
+            }
+        }
+        if (writable) {
+            for (MappedByteBuffer strip : strips.values()) {
+                strip.force();
+            }
+        }
+    }
+
+    /**
+     * Releases the mapped regions. The data file itself belongs to the raster
+     * and remains open.
+     *
+     * @param saveChanges Set to false to discard any dirty tiles, e.g. when
+     * the raster is a temporary file that is about to be deleted.
+     */
+    void close(boolean saveChanges) throws IOException {
+        try {
+            if (saveChanges && writable) {
+                flush();
+            }
+        } finally {
+            tiles.clear();
+            strips.clear();
+            lastTile = null;
+        }
+    }
+
+    private Tile getTile(int row, int column) {
+        Tile tile = lastTile;
+        if (tile != null && tile.contains(row, column)) {
+            return tile;
+        }
+        int tileRow = row / tileSize;
+        int tileCol = column / tileSize;
+        int index = tileRow * tilesAcross + tileCol;
+        tile = tiles.get(index);
+        if (tile == null) {
+            tile = readTile(tileRow, tileCol);
+            tiles.put(index, tile);
+            if (tiles.size() > maxTiles) {
+                evictEldestTile();
+            }
+        }
+        lastTile = tile;
+        return tile;
+    }
+
+    private void evictEldestTile() {
+        Iterator<Tile> it = tiles.values().iterator();
+        Tile eldest = it.next();
+        it.remove();
+        if (eldest.dirty) {
+            try {
+                writeTile(eldest);
+            } catch (IOException e) {
+                throw new IllegalStateException("WhiteboxRaster tile write-back failed", e);
+            }
+        }
+        if (eldest == lastTile) {
+            lastTile = null;
+        }
+    }
+
+    private MappedByteBuffer getStrip(int tileRow) throws IOException {
+        MappedByteBuffer strip = strips.get(tileRow);
+        if (strip == null) {
+            int startRow = tileRow * tileSize;
+            int numRows = Math.min(tileSize, rows - startRow);
+            long position = (long) startRow * columns * cellSizeInBytes;
+            long size = (long) numRows * columns * cellSizeInBytes;
+            strip = channel.map(writable ? FileChannel.MapMode.READ_WRITE
+                    : FileChannel.MapMode.READ_ONLY, position, size);
+            strip.order(raster.byteOrder);
+            strips.put(tileRow, strip);
+        }
+        return strip;
+    }
+
+    private Tile readTile(int tileRow, int tileCol) {
+        int startRow = tileRow * tileSize;
+        int startCol = tileCol * tileSize;
+        Tile tile = new Tile(startRow, startCol,
+                Math.min(tileSize, rows - startRow),
+                Math.min(tileSize, columns - startCol));
+        try {
+            MappedByteBuffer strip = getStrip(tileRow);
+            double[] data = tile.data;
+            int i = 0;
+            for (int r = 0; r < tile.numRows; r++) {
+                int pos = (r * columns + startCol) * cellSizeInBytes;
+                switch (dataType) {
+                    case DOUBLE:
+                        for (int c = 0; c < tile.numCols; c++, pos += 8) {
+                            data[i++] = strip.getDouble(pos);
+                        }
+                        break;
+                    case FLOAT:
+                        for (int c = 0; c < tile.numCols; c++, pos += 4) {
+                            data[i++] = strip.getFloat(pos);
+                        }
+                        break;
+                    case INTEGER:
+                        for (int c = 0; c < tile.numCols; c++, pos += 2) {
+                            data[i++] = strip.getShort(pos);
+                        }
+                        break;
+                    case BYTE:
+                        for (int c = 0; c < tile.numCols; c++, pos++) {
+                            data[i++] = strip.get(pos) & 0xff;
+                        }
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("WhiteboxRaster tile read failed", e);
+        }
+        numTileReads++;
+        return tile;
+    }
+
+    private void writeTile(Tile tile) throws IOException {
+        if (!writable) {
+            tile.dirty = false;
+            return;
+        }
+        MappedByteBuffer strip = getStrip(tile.startRow / tileSize);
+        double noData = raster.noDataValue;
+        double min = raster.minimumValue;
+        double max = raster.maximumValue;
+        double[] data = tile.data;
+        int i = 0;
+        for (int r = 0; r < tile.numRows; r++) {
+            int pos = (r * columns + tile.startCol) * cellSizeInBytes;
+            for (int c = 0; c < tile.numCols; c++, pos += cellSizeInBytes) {
+                double z = data[i++];
+                if (z != noData) {
+                    if (z < min) {
+                        min = z;
+                    }
+                    if (z > max) {
+                        max = z;
+                    }
+                }
+                switch (dataType) {
+                    case DOUBLE:
+                        strip.putDouble(pos, z);
+                        break;
+                    case FLOAT:
+                        strip.putFloat(pos, (float) z);
+                        break;
+                    case INTEGER:
+                        strip.putShort(pos, (short) z);
+                        break;
+                    case BYTE:
+                        strip.put(pos, (byte) z);
+                        break;
+                }
+            }
+        }
+        raster.minimumValue = min;
+        raster.maximumValue = max;
+        tile.dirty = false;
+        numTileWrites++;
+    }
+}
@@ -29,11 +29,12 @@ import whitebox.geospatialfiles.shapefile.attributes.DBFField;
 import whitebox.geospatialfiles.shapefile.*;
 import static whitebox.geospatialfiles.shapefile.ShapeType.*;
 import whitebox.structures.BoundingBox;
+import whitebox.structures.KdTree;
+import whitebox.structures.RTree;
 import whitebox.utilities.ByteSwapper;
 import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
 import whitebox.utilities.StringUtilities;
-import whitebox.structures.KdTree;
-import whitebox.structures.KdTree.Entry;
+import whitebox.structures.StaticKdTree;
 import whitebox.utilities.FileUtilities;
 
 /**
@@ -71,6 +72,17 @@ public class ShapeFile {
     public ArrayList<ShapeFileRecord> records = new ArrayList<>();
     private boolean pointType;
     private AttributeTable attributeTable = null;
+    // in lazy mode, the records are decoded from the mapped file by the
+    // record reader until the full list is asked for
+    private ShapeFileRecordReader recordReader = null;
+    private RTree spatialIndex = null;
+    private int numIndexedRecords = 0;
+    private boolean recordsMatchFile = false;
+    private static final int SPATIAL_INDEX_MAGIC = 0x58545257; // "WRTX"
+    private static final int SPATIAL_INDEX_VERSION = 1;
+    private static final int SPATIAL_INDEX_HEADER_SIZE = 32;
+    // the R-tree of a smaller file is quicker to build than to read
+    private static final int MIN_RECORDS_FOR_INDEX_FILE = 50000;
 
     // Constructors
     public ShapeFile() {
@@ -93,6 +105,45 @@ public class ShapeFile {
         }
     }
 
+    /**
+     * Opens an existing shapefile, optionally in lazy mode. In lazy mode the
+     * .shp and .shx files are memory-mapped and each record is decoded only
+     * when it is asked for, through getRecord, getRecordIterable or a spatial
+     * query, so that very large files can be read without holding all of
+     * their records in memory. The public records list stays empty until
+     * getRecords is called, or until the records are modified or written,
+     * at which point all of the records are decoded into it.
+     *
+     * @param fileName The name of the .shp file.
+     * @param loadRecords true to read all of the records into memory, as with
+     * ShapeFile(String); false to open the file in lazy mode.
+     * @throws IOException if the file cannot be read.
+     */
+    public ShapeFile(String fileName, boolean loadRecords) throws IOException {
+        this.indexFile = StringUtilities.replaceLast(fileName, ".shp", ".shx");
+        if (loadRecords) {
+            setFileName(fileName);
+        } else {
+            this.fileName = fileName;
+            if (!new File(fileName).exists()) {
+                throw new FileNotFoundException(fileName);
+            }
+            readHeaderData();
+            records.clear();
+            recordsChanged();
+            recordReader = new ShapeFileRecordReader(fileName, indexFile, fileLength);
+            numRecs = recordReader.getNumberOfRecords();
+            recordsMatchFile = true;
+        }
+        setProjectionFile(StringUtilities.replaceLast(fileName, ".shp", ".prj"));
+        setDatabaseFile(StringUtilities.replaceLast(fileName, ".shp", ".dbf"));
+        databaseFileExists = (new File(databaseFile)).exists();
+
+        if (databaseFileExists) {
+            this.attributeTable = new AttributeTable(databaseFile);
+        }
+    }
+
     public ShapeFile(String fileName, ShapeType st) {
         this.fileName = fileName;
         int extensionIndex = fileName.lastIndexOf(".");
@@ -380,6 +431,11 @@ public class ShapeFile {
             file.delete();
             file = new File(indexFile);
             file.delete();
+            String rtxFileName = getSpatialIndexFile();
+            if (rtxFileName != null) {
+                file = new File(rtxFileName);
+                file.delete();
+            }
             return true;
         } catch (Exception e) {
             return false;
@@ -453,6 +509,7 @@ public class ShapeFile {
 
     public boolean write() throws IOException {
         ByteBuffer buf;
+        loadRecords();
 
         try {
             OutputStream output = null;
@@ -549,12 +606,14 @@ public class ShapeFile {
     }
 
     public boolean addRecord(Geometry recordGeometry) {
+        loadRecords();
         if (recordGeometry.getShapeType() == shapeType) {
             numRecs++;
             int contentLength = (4 + recordGeometry.getLength()) / 2;
             ShapeFileRecord sfr = new ShapeFileRecord(numRecs, contentLength,
                     shapeType, recordGeometry);
             records.add(sfr);
+            recordsChanged();
 
             // update the min and max coordinates
             double recXMin = 0, recYMin = 0, recXMax = 0, recYMax = 0,
@@ -714,12 +773,14 @@ public class ShapeFile {
     }
 
     public boolean addRecord(Geometry recordGeometry, Object[] rowData) {
+        loadRecords();
         if (recordGeometry.getShapeType() == shapeType) {
             numRecs++;
             int contentLength = (4 + recordGeometry.getLength()) / 2;
             ShapeFileRecord sfr = new ShapeFileRecord(numRecs, contentLength,
                     shapeType, recordGeometry);
             records.add(sfr);
+            recordsChanged();
 
             // update the min and max coordinates
             double recXMin = 0, recYMin = 0, recXMax = 0, recYMax = 0,
@@ -884,6 +945,7 @@ public class ShapeFile {
     }
 
     public boolean addRecords(ArrayList<Geometry> recordsGeometry) {
+        loadRecords();
         boolean allRightShapeType = true;
         for (Geometry rec : recordsGeometry) {
             if (rec.getShapeType() != shapeType) {
@@ -900,6 +962,7 @@ public class ShapeFile {
                 ShapeFileRecord sfr = new ShapeFileRecord(numRecs, contentLength,
                         shapeType, rec);
                 records.add(sfr);
+                recordsChanged();
 
                 // update the min and max coordinates
                 switch (shapeType) {
@@ -1057,6 +1120,7 @@ public class ShapeFile {
     }
 
     public boolean addRecords(ArrayList<Geometry> recordsGeometry, ArrayList<Object[]> attributeData) {
+        loadRecords();
         boolean allRightShapeType = true;
         for (Geometry rec : recordsGeometry) {
             if (rec.getShapeType() != shapeType) {
@@ -1078,6 +1142,7 @@ public class ShapeFile {
                 ShapeFileRecord sfr = new ShapeFileRecord(numRecs, contentLength,
                         shapeType, rec);
                 records.add(sfr);
+                recordsChanged();
 
                 // update the min and max coordinates
                 switch (shapeType) {
@@ -1249,10 +1314,66 @@ public class ShapeFile {
      * @return A ShapeFileRecord corresponding with the record number.
      */
     public ShapeFileRecord getRecord(int recordNumber) {
+        ShapeFileRecordReader reader = recordReader;
+        if (reader != null) {
+            return reader.getRecord(recordNumber);
+        }
         return records.get(recordNumber);
     }
 
+    /**
+     * Returns the full list of records. In lazy mode, this decodes all of
+     * the records into the public records list the first time it is called.
+     *
+     * @return The records.
+     */
+    public ArrayList<ShapeFileRecord> getRecords() {
+        loadRecords();
+        return records;
+    }
+
+    /**
+     * Returns the records in file order. In lazy mode each record is decoded
+     * as it is reached, so the records can be streamed without holding them
+     * all in memory; otherwise this is the records list.
+     *
+     * @return An Iterable of the records.
+     */
+    public Iterable<ShapeFileRecord> getRecordIterable() {
+        ShapeFileRecordReader reader = recordReader;
+        if (reader != null) {
+            return reader;
+        }
+        return records;
+    }
+
+    /**
+     * Indicates whether the records are decoded on demand from the mapped
+     * file rather than held in the records list.
+     *
+     * @return true in lazy mode, until the records are loaded.
+     */
+    public boolean isLazy() {
+        return recordReader != null;
+    }
+
+    /**
+     * Decodes all of the records of a lazily opened file into the records
+     * list. The spatial index stays valid, since the records are unchanged.
+     */
+    private synchronized void loadRecords() {
+        if (recordReader != null) {
+            records.clear();
+            records.ensureCapacity(recordReader.getNumberOfRecords());
+            for (ShapeFileRecord sfr : recordReader) {
+                records.add(sfr);
+            }
+            recordReader = null;
+        }
+    }
+
     public void deleteRecord(int recordNumber) {
+        loadRecords();
         try {
             String tempFile = StringUtilities.replaceLast(fileName, ".shp", "_temp.shp");
             DBFField fields[] = this.attributeTable.getAllFields();
@@ -1296,16 +1417,11 @@ public class ShapeFile {
     }
 
     private boolean readRecords() {
-        int pos;
-        int recordNumber, contentLength;
-        ShapeType recShapeType;
-
-        RandomAccessFile rIn = null;
-        ByteBuffer buf;
-
         try {
 
             records.clear();
+            recordsChanged();
+            recordReader = null;
 
             // See if the data file exists.
             File file = new File(fileName);
@@ -1313,57 +1429,23 @@ public class ShapeFile {
                 return false;
             }
 
-            buf = ByteBuffer.allocate(fileLength * 2);
-
-            rIn = new RandomAccessFile(fileName, "r");
-
-            FileChannel inChannel = rIn.getChannel();
-
-            inChannel.position(0);
-            inChannel.read(buf);
-
-            buf.order(ByteOrder.LITTLE_ENDIAN);
-            buf.rewind();
-
-            // read the records into an arraylist of ShapeFileRecords
-            pos = 100;
-            buf.rewind();
-            byte[] data;
-            int i = 0;
-            int contentLenInBytes;
-            while (pos < fileLength * 2) {
-                recordNumber = ByteSwapper.swap(buf.getInt(pos));
-                contentLength = ByteSwapper.swap(buf.getInt(pos + 4));
-                contentLenInBytes = contentLength * 2 - 4; // the minus four is to exclude the recShapeType
-                recShapeType = getShapeTypeFromInt(buf.getInt(pos + 8));
-                data = new byte[contentLenInBytes];
-                buf.position(pos + 12);
-                buf.get(data, 0, contentLenInBytes);
-                records.add(new ShapeFileRecord(recordNumber, contentLength, recShapeType, data));
-                //records[i] = new ShapeFileRecord(recordNumber, contentLength, recShapeType, data);
-                pos += 8 + contentLength * 2;
-                i++;
+            // the records are decoded one at a time from the mapped file,
+            // rather than from a copy of the whole file on the heap. The
+            // record positions are found from the record headers.
+            ShapeFileRecordReader reader = new ShapeFileRecordReader(fileName, null, fileLength);
+            records.ensureCapacity(reader.getNumberOfRecords());
+            for (ShapeFileRecord sfr : reader) {
+                records.add(sfr);
             }
 
             numRecs = records.size();
-
-            try {
-                rIn.close();
-            } catch (Exception e) {
-            }
+            recordsMatchFile = true;
 
             return true;
         } catch (Exception e) {
             System.out.println(e.getMessage());
             return false;
-        }// finally {
-        //if (rIn != null) {
-//                try {
-//                    rIn.close();
-//                } catch (Exception e) {
-//                }
-        //}
-        //}
+        }
     }
 
     /**
@@ -1384,18 +1466,17 @@ public class ShapeFile {
         BoundingBox myBox = new BoundingBox(xMin, yMin, xMax, yMax);
         if (box.contains(myBox)) {
             // just return all of the records
-            for (ShapeFileRecord sfr : records) {
+            for (ShapeFileRecord sfr : getRecordIterable()) {
                 recs.add(sfr);
             }
             return recs;
         }
         if (myBox.overlaps(box)) {
-            for (ShapeFileRecord sfr : records) {
-                Geometry sfrGeom = sfr.getGeometry();
-                if (sfrGeom != null) {
-                    if (sfrGeom.isMappable(box, minSize)) {
-                        recs.add(sfr);
-                    }
+            // only the records whose boxes overlap box can be mappable
+            for (int i : getSpatialIndex().search(box)) {
+                ShapeFileRecord sfr = getRecord(i);
+                if (sfr.getGeometry().isMappable(box, minSize)) {
+                    recs.add(sfr);
                 }
             }
             return recs;
@@ -1411,13 +1492,14 @@ public class ShapeFile {
         BoundingBox myBox = new BoundingBox(xMin, yMin, xMax, yMax);
         if (box.contains(myBox)) {
             // just return all of the records
-            for (ShapeFileRecord sfr : records) {
+            for (ShapeFileRecord sfr : getRecordIterable()) {
                 recs.add(sfr);
             }
             return recs;
         }
         if (myBox.overlaps(box)) {
-            for (ShapeFileRecord sfr : records) {
+            for (int i : getSpatialIndex().search(box)) {
+                ShapeFileRecord sfr = getRecord(i);
                 Geometry sfrGeometry = sfr.getGeometry();
                 if (sfrGeometry.isMappable(box, minSize)) {
                     // does it need to be clipped?
@@ -1434,6 +1516,151 @@ public class ShapeFile {
         }
     }
 
+    /**
+     * Returns the zero-based numbers of the records whose bounding boxes
+     * overlap a box. NULLSHAPE records are never returned.
+     *
+     * @param box The bounding box.
+     * @return The record numbers, in ascending order.
+     */
+    public int[] getRecordNumbersInBoundingBox(BoundingBox box) {
+        return getSpatialIndex().search(box);
+    }
+
+    /**
+     * Returns the zero-based numbers of the records whose bounding boxes
+     * contain a point. This is the first step of a point-in-polygon lookup;
+     * the features of the returned records must still be tested against the
+     * point.
+     *
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The record numbers, in ascending order.
+     */
+    public int[] getRecordNumbersContainingPoint(double x, double y) {
+        return getSpatialIndex().search(x, y);
+    }
+
+    /**
+     * Returns an R-tree of the bounding boxes of the records, in which the
+     * value of each entry is the zero-based number of its record. The tree
+     * is built the first time that it is needed and is then kept until the
+     * records change. The tree of a large file is saved beside it, with the
+     * extension .rtx, so that it only needs to be built once.
+     *
+     * @return An RTree of the record bounding boxes.
+     */
+    public synchronized RTree getSpatialIndex() {
+        // the records list is public, so it is also checked for a change in
+        // size
+        ShapeFileRecordReader reader = recordReader;
+        int n = reader != null ? reader.getNumberOfRecords() : records.size();
+        if (spatialIndex != null && numIndexedRecords == n) {
+            return spatialIndex;
+        }
+        File shpFile = fileName == null ? null : new File(fileName);
+        String rtxFileName = getSpatialIndexFile();
+        boolean useIndexFile = recordsMatchFile && n >= MIN_RECORDS_FOR_INDEX_FILE
+                && rtxFileName != null && shpFile.exists();
+        File rtxFile = useIndexFile ? new File(rtxFileName) : null;
+        spatialIndex = null;
+        if (useIndexFile && rtxFile.exists()) {
+            spatialIndex = readSpatialIndex(rtxFile, shpFile, n);
+        }
+        if (spatialIndex == null) {
+            BoundingBox[] boxes = new BoundingBox[n];
+            for (int i = 0; i < n; i++) {
+                if (reader != null) {
+                    // only the box of each record is decoded
+                    boxes[i] = reader.getRecordBox(i);
+                } else {
+                    Geometry geom = records.get(i).getGeometry();
+                    if (geom != null) {
+                        boxes[i] = geom.getBox();
+                    }
+                }
+            }
+            spatialIndex = new RTree(boxes);
+            if (useIndexFile) {
+                try {
+                    writeSpatialIndex(rtxFile, shpFile, n);
+                } catch (IOException e) {
+                    rtxFile.delete();
+                }
+            }
+        }
+        numIndexedRecords = n;
+        return spatialIndex;
+    }
+
+    /**
+     * Returns the name of the saved spatial index, or null if no index file
+     * can be named for this shapefile.
+     */
+    private String getSpatialIndexFile() {
+        if (fileName == null) {
+            return null;
+        }
+        String rtxFile = FileUtilities.replaceFileExtension(fileName, ".rtx");
+        // never let the index overwrite the shapefile itself
+        return rtxFile.equals(fileName) ? null : rtxFile;
+    }
+
+    /**
+     * Discards the spatial index after the records have been changed.
+     */
+    private synchronized void recordsChanged() {
+        spatialIndex = null;
+        recordsMatchFile = false;
+    }
+
+    private RTree readSpatialIndex(File rtxFile, File shpFile, int numRecords) {
+        try (RandomAccessFile raf = new RandomAccessFile(rtxFile, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    return null;
+                }
+            }
+            buf.flip();
+            if (buf.remaining() < SPATIAL_INDEX_HEADER_SIZE
+                    || buf.getInt() != SPATIAL_INDEX_MAGIC
+                    || buf.getInt() != SPATIAL_INDEX_VERSION
+                    || buf.getLong() != shpFile.length()
+                    || buf.getLong() != shpFile.lastModified()
+                    || buf.getLong() != numRecords) {
+                return null;
+            }
+            return RTree.read(buf);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeSpatialIndex(File rtxFile, File shpFile, int numRecords) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SPATIAL_INDEX_HEADER_SIZE + spatialIndex.getByteSize());
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(SPATIAL_INDEX_MAGIC);
+        buf.putInt(SPATIAL_INDEX_VERSION);
+        buf.putLong(shpFile.length());
+        buf.putLong(shpFile.lastModified());
+        buf.putLong(numRecords);
+        spatialIndex.write(buf);
+        buf.flip();
+        try (RandomAccessFile raf = new RandomAccessFile(rtxFile, "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
     /**
      * Gets the AttributeTable object associated with this ShapeFile. If no
      * database exists for this ShapeFile null will be returned.
@@ -1652,13 +1879,13 @@ public class ShapeFile {
     public KdTree<Integer> getKdTree() {
         // figure out how many nodes there are
         int nodes = 0;
-        for (ShapeFileRecord rec : records) {
+        for (ShapeFileRecord rec : getRecordIterable()) {
             double[][] points = rec.getGeometry().getPoints();
             nodes += points.length;
         }
         KdTree<Integer> kdTree = new KdTree.SqrEuclid<>(2, new Integer(nodes));
 
-        for (ShapeFileRecord rec : records) {
+        for (ShapeFileRecord rec : getRecordIterable()) {
             double[][] points = rec.getGeometry().getPoints();
             for (int p = 0; p < points.length; p++) {
                 double[] entry = {points[p][0], points[p][1]};
@@ -1669,6 +1896,37 @@ public class ShapeFile {
         return kdTree;
     }
 
+    /**
+     * Builds a kd-tree of the vertices of the features. The value of each
+     * point in the tree is the zero-based number of its record, and its
+     * coordinates are x then y. Unlike the tree returned by getKdTree, this
+     * tree is immutable and may be searched by several threads at once.
+     *
+     * @return A StaticKdTree of the vertices.
+     */
+    public StaticKdTree getStaticKdTree() {
+        // figure out how many nodes there are
+        int nodes = 0;
+        for (ShapeFileRecord rec : getRecordIterable()) {
+            double[][] points = rec.getGeometry().getPoints();
+            nodes += points.length;
+        }
+        double[] coordinates = new double[2 * nodes];
+        int[] recordNumbers = new int[nodes];
+        int n = 0;
+        for (ShapeFileRecord rec : getRecordIterable()) {
+            double[][] points = rec.getGeometry().getPoints();
+            for (int p = 0; p < points.length; p++) {
+                coordinates[2 * n] = points[p][0];
+                coordinates[2 * n + 1] = points[p][1];
+                recordNumbers[n] = rec.getRecordNumber() - 1;
+                n++;
+            }
+
+        }
+        return new StaticKdTree(2, coordinates, recordNumbers);
+    }
+
 //    // this is only used for debugging the tool
 //    public static void main(String[] args) {
 //        
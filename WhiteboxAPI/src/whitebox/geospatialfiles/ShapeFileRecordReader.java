@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
+import whitebox.geospatialfiles.shapefile.ShapeType;
+import whitebox.structures.BoundingBox;
+
+/**
+ * Reads the records of a shapefile directly from a memory-mapped .shp file,
+ * decoding each record only when it is asked for. The .shp file is mapped in
+ * segments, so that files larger than 2 GB can be read, and the position of
+ * each record is found with the memory-mapped .shx index file. If there is
+ * no usable index file, the record positions are found by stepping through
+ * the record headers of the .shp file instead.
+ *
+ * The records are not kept by the reader; each call to getRecord decodes a
+ * new ShapeFileRecord. The methods of this class may be called from several
+ * threads.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class ShapeFileRecordReader implements Iterable<ShapeFileRecord> {
+
+    private static final int SEGMENT_SIZE = 1 << 30;
+    private static final ShapeType[] SHAPE_TYPES = ShapeType.values();
+
+    private final MappedByteBuffer[] segments;
+    private final long shpLength;
+    private final int numRecords;
+    // the record positions are read from the index file when there is one,
+    // or are otherwise held in recordOffsets.
+    private final MappedByteBuffer index;
+    private final long[] recordOffsets;
+
+    /**
+     * Class constructor.
+     *
+     * @param shpFileName The name of the .shp file.
+     * @param shxFileName The name of the .shx index file, which need not
+     * exist.
+     * @param fileLength The length of the .shp file given in its header, in
+     * 16-bit words.
+     * @throws IOException if the .shp file cannot be mapped.
+     */
+    public ShapeFileRecordReader(String shpFileName, String shxFileName, int fileLength) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(shpFileName, "r")) {
+            FileChannel channel = raf.getChannel();
+            // the header's length is an unsigned number of 16-bit words
+            shpLength = Math.min(channel.size(), 2 * (fileLength & 0xFFFFFFFFL));
+            int numSegments = (int) ((shpLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[numSegments];
+            for (int s = 0; s < numSegments; s++) {
+                long start = (long) s * SEGMENT_SIZE;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE, shpLength - start));
+            }
+        }
+
+        MappedByteBuffer shx = null;
+        File shxFile = shxFileName == null ? null : new File(shxFileName);
+        if (shxFile != null && shxFile.exists()) {
+            try (RandomAccessFile raf = new RandomAccessFile(shxFile, "r")) {
+                FileChannel channel = raf.getChannel();
+                long size = channel.size();
+                if (size >= 100 && (size - 100) % 8 == 0 && size <= Integer.MAX_VALUE) {
+                    shx = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    shx.order(ByteOrder.BIG_ENDIAN);
+                    if (!isIndexValid(shx, (int) ((size - 100) / 8))) {
+                        shx = null;
+                    }
+                }
+            } catch (IOException e) {
+                shx = null;
+            }
+        }
+        index = shx;
+        if (index != null) {
+            numRecords = (index.capacity() - 100) / 8;
+            recordOffsets = null;
+        } else {
+            recordOffsets = findRecordOffsets();
+            numRecords = recordOffsets.length;
+        }
+    }
+
+    /**
+     * Checks that the first and last records of an index lie within the .shp
+     * file.
+     */
+    private boolean isIndexValid(ByteBuffer shx, int n) {
+        if (n == 0) {
+            return shpLength <= 100;
+        }
+        long first = 2 * (shx.getInt(100) & 0xFFFFFFFFL);
+        long last = 2 * (shx.getInt(100 + 8 * (n - 1)) & 0xFFFFFFFFL);
+        long lastLength = 2 * (shx.getInt(104 + 8 * (n - 1)) & 0xFFFFFFFFL);
+        return first == 100 && last + 8 + lastLength <= shpLength;
+    }
+
+    private long[] findRecordOffsets() {
+        long[] offsets = new long[1024];
+        int n = 0;
+        long pos = 100;
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.order(ByteOrder.BIG_ENDIAN);
+        while (pos + 8 <= shpLength) {
+            readBytes(pos, header.array(), 0, 8);
+            long contentLength = 2 * (header.getInt(4) & 0xFFFFFFFFL);
+            if (pos + 8 + contentLength > shpLength) {
+                break;
+            }
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * n);
+            }
+            offsets[n++] = pos;
+            pos += 8 + contentLength;
+        }
+        return Arrays.copyOf(offsets, n);
+    }
+
+    private long getRecordOffset(int recordNumber) {
+        if (index != null) {
+            return 2 * (index.getInt(100 + 8 * recordNumber) & 0xFFFFFFFFL);
+        }
+        return recordOffsets[recordNumber];
+    }
+
+    /**
+     * Copies bytes from the .shp file, which may span more than one segment.
+     */
+    private void readBytes(long pos, byte[] dst, int off, int len) {
+        while (len > 0) {
+            int s = (int) (pos / SEGMENT_SIZE);
+            int p = (int) (pos - (long) s * SEGMENT_SIZE);
+            ByteBuffer segment = segments[s].duplicate();
+            int n = Math.min(len, segment.capacity() - p);
+            segment.position(p);
+            segment.get(dst, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public int getNumberOfRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Decodes a record.
+     *
+     * @param recordNumber The zero-based record number.
+     * @return A new ShapeFileRecord.
+     */
+    public ShapeFileRecord getRecord(int recordNumber) {
+        if (recordNumber < 0 || recordNumber >= numRecords) {
+            throw new IndexOutOfBoundsException("Record " + recordNumber + " does not exist.");
+        }
+        long pos = getRecordOffset(recordNumber);
+        ByteBuffer header = ByteBuffer.allocate(12);
+        readBytes(pos, header.array(), 0, 12);
+        header.order(ByteOrder.BIG_ENDIAN);
+        int number = header.getInt(0);
+        int contentLength = header.getInt(4);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        ShapeType shapeType = SHAPE_TYPES[header.getInt(8)];
+        byte[] data = new byte[contentLength * 2 - 4];
+        readBytes(pos + 12, data, 0, data.length);
+        return new ShapeFileRecord(number, contentLength, shapeType, data);
+    }
+
+    /**
+     * Reads the bounding box of a record without decoding the rest of it.
+     *
+     * @param recordNumber The zero-based record number.
+     * @return The bounding box of the record, or null for a NULLSHAPE
+     * record.
+     */
+    public BoundingBox getRecordBox(int recordNumber) {
+        long pos = getRecordOffset(recordNumber);
+        ByteBuffer buf = ByteBuffer.allocate(44);
+        readBytes(pos, buf.array(), 0, 12);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        switch (SHAPE_TYPES[buf.getInt(8)]) {
+            case NULLSHAPE:
+                return null;
+            case POINT:
+            case POINTZ:
+            case POINTM:
+                readBytes(pos + 12, buf.array(), 12, 16);
+                double x = buf.getDouble(12);
+                double y = buf.getDouble(20);
+                return new BoundingBox(x, y, x, y);
+            default:
+                // every other shape type begins with its box
+                readBytes(pos + 12, buf.array(), 12, 32);
+                return new BoundingBox(buf.getDouble(12), buf.getDouble(20),
+                        buf.getDouble(28), buf.getDouble(36));
+        }
+    }
+
+    /**
+     * Returns an iterator over the records in file order. Each record is
+     * decoded as the iterator reaches it, so the records can be streamed
+     * without holding them all in memory.
+     *
+     * @return An iterator of the records.
+     */
+    @Override
+    public Iterator<ShapeFileRecord> iterator() {
+        return new Iterator<ShapeFileRecord>() {
+
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < numRecords;
+            }
+
+            @Override
+            public ShapeFileRecord next() {
+                if (next >= numRecords) {
+                    throw new NoSuchElementException();
+                }
+                return getRecord(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import whitebox.geospatialfiles.WhiteboxRasterBase.DataType;
+
+/**
+ * Read-only, thread-safe access to the data file (.tas) of a WhiteboxRaster.
+ * The file is memory-mapped in strips of whole rows that are created lazily
+ * and published through an atomic array, so that no locking is needed on the
+ * read path. Cells are read with absolute gets on the mapped buffers, which
+ * do not alter any buffer state, and the operating system's page cache takes
+ * the place of the WhiteboxRaster's block. Any number of threads may read from
+ * the same reader simultaneously.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+final class SharedRasterReader {
+
+    private final FileChannel channel;
+    private final int rows;
+    private final int columns;
+    private final int cellSizeInBytes;
+    private final DataType dataType;
+    private final ByteOrder byteOrder;
+    private final int rowsPerStrip;
+    private final AtomicReferenceArray<ByteBuffer> strips;
+
+    SharedRasterReader(WhiteboxRaster raster) throws IOException {
+        this.rows = raster.numberRows;
+        this.columns = raster.numberColumns;
+        this.cellSizeInBytes = raster.cellSizeInBytes;
+        this.dataType = raster.dataType;
+        this.byteOrder = raster.byteOrder;
+        this.channel = raster.getDataChannel(false);
+
+        // a mapped region cannot be larger than 2 GB.
+        long rowSizeInBytes = (long) columns * cellSizeInBytes;
+        this.rowsPerStrip = (int) Math.max(1, Math.min(rows,
+                (Integer.MAX_VALUE / 2) / rowSizeInBytes));
+        int numStrips = (rows + rowsPerStrip - 1) / rowsPerStrip;
+        this.strips = new AtomicReferenceArray<>(numStrips);
+    }
+
+    double getValue(int row, int column) {
+        int strip = row / rowsPerStrip;
+        ByteBuffer buf = getStrip(strip);
+        int pos = ((row - strip * rowsPerStrip) * columns + column) * cellSizeInBytes;
+        switch (dataType) {
+            case DOUBLE:
+                return buf.getDouble(pos);
+            case FLOAT:
+                return buf.getFloat(pos);
+            case INTEGER:
+                return buf.getShort(pos);
+            default:
+                return buf.get(pos) & 0xff;
+        }
+    }
+
+    double[] getRowValues(int row) {
+        double[] retVals = new double[columns];
+        int strip = row / rowsPerStrip;
+        ByteBuffer buf = getStrip(strip);
+        int pos = (row - strip * rowsPerStrip) * columns * cellSizeInBytes;
+        switch (dataType) {
+            case DOUBLE:
+                for (int j = 0; j < columns; j++, pos += 8) {
+                    retVals[j] = buf.getDouble(pos);
+                }
+                break;
+            case FLOAT:
+                for (int j = 0; j < columns; j++, pos += 4) {
+                    retVals[j] = buf.getFloat(pos);
+                }
+                break;
+            case INTEGER:
+                for (int j = 0; j < columns; j++, pos += 2) {
+                    retVals[j] = buf.getShort(pos);
+                }
+                break;
+            case BYTE:
+                for (int j = 0; j < columns; j++, pos++) {
+                    retVals[j] = buf.get(pos) & 0xff;
+                }
+                break;
+        }
+        return retVals;
+    }
+
+    private ByteBuffer getStrip(int strip) {
+        ByteBuffer buf = strips.get(strip);
+        if (buf == null) {
+            int startRow = strip * rowsPerStrip;
+            int numRows = Math.min(rowsPerStrip, rows - startRow);
+            try {
+                MappedByteBuffer mbb = channel.map(FileChannel.MapMode.READ_ONLY,
+                        (long) startRow * columns * cellSizeInBytes,
+                        (long) numRows * columns * cellSizeInBytes);
+                mbb.order(byteOrder);
+                buf = mbb;
+            } catch (IOException e) {
+                throw new IllegalStateException("WhiteboxRaster mapping failed", e);
+            }
+            // if another thread got there first, use its mapping.
+            if (!strips.compareAndSet(strip, null, buf)) {
+                buf = strips.get(strip);
+            }
+        }
+        return buf;
+    }
+}
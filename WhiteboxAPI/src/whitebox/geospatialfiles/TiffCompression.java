@@ -0,0 +1,500 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compression schemes and predictors used for the strips and tiles of
+ * TIFF files.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+final class TiffCompression {
+
+    static final int NONE = 1;
+    static final int LZW = 5;
+    static final int DEFLATE = 8;
+    static final int PACKBITS = 32773;
+    static final int DEFLATE_OBSOLETE = 32946;
+
+    static final int PREDICTOR_NONE = 1;
+    static final int PREDICTOR_HORIZONTAL = 2;
+    static final int PREDICTOR_FLOATING_POINT = 3;
+
+    private static final int LZW_CLEAR_CODE = 256;
+    private static final int LZW_END_OF_INFORMATION = 257;
+    private static final int LZW_MAX_CODES = 4096;
+    private static final int LZW_HASH_SIZE = 9001;
+
+    private TiffCompression() {
+    }
+
+    static boolean isSupported(int compression) {
+        switch (compression) {
+            case NONE:
+            case LZW:
+            case DEFLATE:
+            case DEFLATE_OBSOLETE:
+            case PACKBITS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Decompresses a strip or tile.
+     *
+     * @param compression the value of the Compression tag.
+     * @param src the compressed bytes.
+     * @param decodedSize the size of the decompressed strip or tile. Data that
+     * are short are padded with zeros and any excess is ignored.
+     * @return the decompressed bytes.
+     * @throws IOException if the compression type is unsupported or the data
+     * are corrupt.
+     */
+    static byte[] decompress(int compression, byte[] src, int decodedSize) throws IOException {
+        byte[] dst = new byte[decodedSize];
+        switch (compression) {
+            case NONE:
+                System.arraycopy(src, 0, dst, 0, Math.min(src.length, decodedSize));
+                break;
+            case LZW:
+                lzwDecode(src, dst);
+                break;
+            case DEFLATE:
+            case DEFLATE_OBSOLETE:
+                inflate(src, dst);
+                break;
+            case PACKBITS:
+                packBitsDecode(src, dst);
+                break;
+            default:
+                throw new IOException("Unsupported TIFF compression type " + compression + ".");
+        }
+        return dst;
+    }
+
+    private static void inflate(byte[] src, byte[] dst) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(src);
+            int n = 0;
+            while (n < dst.length && !inflater.finished()) {
+                int k = inflater.inflate(dst, n, dst.length - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt Deflate data: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void packBitsDecode(byte[] src, byte[] dst) {
+        int i = 0, j = 0;
+        while (i < src.length && j < dst.length) {
+            int n = src[i++];
+            if (n >= 0) { // copy the next n + 1 bytes literally
+                int count = Math.min(Math.min(n + 1, src.length - i), dst.length - j);
+                System.arraycopy(src, i, dst, j, count);
+                i += n + 1;
+                j += count;
+            } else if (n != -128 && i < src.length) { // repeat the next byte 1 - n times
+                int count = Math.min(1 - n, dst.length - j);
+                byte b = src[i++];
+                for (int k = 0; k < count; k++) {
+                    dst[j++] = b;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes TIFF LZW data, in which the codes are packed most significant
+     * bit first and the code width grows one code early.
+     */
+    private static void lzwDecode(byte[] src, byte[] dst) throws IOException {
+        // each string in the table is its prefix code plus a final byte
+        int[] prefix = new int[LZW_MAX_CODES];
+        byte[] suffix = new byte[LZW_MAX_CODES];
+        byte[] first = new byte[LZW_MAX_CODES];
+        int[] length = new int[LZW_MAX_CODES];
+        for (int c = 0; c < 256; c++) {
+            prefix[c] = -1;
+            suffix[c] = (byte) c;
+            first[c] = (byte) c;
+            length[c] = 1;
+        }
+
+        int nextCode = 258;
+        int codeLength = 9;
+        int oldCode = -1;
+        int bitBuffer = 0;
+        int bitCount = 0;
+        int srcPos = 0;
+        int dstPos = 0;
+
+        while (dstPos < dst.length) {
+            while (bitCount < codeLength && srcPos < src.length) {
+                bitBuffer = (bitBuffer << 8) | (src[srcPos++] & 0xFF);
+                bitCount += 8;
+            }
+            if (bitCount < codeLength) {
+                break;
+            }
+            int code = (bitBuffer >>> (bitCount - codeLength)) & ((1 << codeLength) - 1);
+            bitCount -= codeLength;
+
+            if (code == LZW_END_OF_INFORMATION) {
+                break;
+            }
+            if (code == LZW_CLEAR_CODE) {
+                nextCode = 258;
+                codeLength = 9;
+                oldCode = -1;
+                continue;
+            }
+
+            if (oldCode == -1) {
+                if (code > 255) {
+                    throw new IOException("Corrupt LZW data.");
+                }
+                dst[dstPos++] = (byte) code;
+                oldCode = code;
+                continue;
+            }
+
+            int newCode;
+            if (code < nextCode) {
+                newCode = code;
+            } else if (code == nextCode) {
+                newCode = oldCode;
+            } else {
+                throw new IOException("Corrupt LZW data.");
+            }
+            if (nextCode < LZW_MAX_CODES) {
+                prefix[nextCode] = oldCode;
+                suffix[nextCode] = first[newCode];
+                first[nextCode] = first[oldCode];
+                length[nextCode] = length[oldCode] + 1;
+                nextCode++;
+            }
+            dstPos = writeString(code, prefix, suffix, length, dst, dstPos);
+            oldCode = code;
+
+            if (nextCode + 1 == (1 << codeLength) && codeLength < 12) {
+                codeLength++;
+            }
+        }
+    }
+
+    private static int writeString(int code, int[] prefix, byte[] suffix, int[] length,
+            byte[] dst, int dstPos) {
+        int n = length[code];
+        int end = dstPos + n;
+        // strings are stored back to front, so bytes past dst are skipped
+        for (int p = end - 1; p >= dstPos; p--) {
+            if (p < dst.length) {
+                dst[p] = suffix[code];
+            }
+            code = prefix[code];
+        }
+        return Math.min(end, dst.length);
+    }
+
+    /**
+     * Reverses the horizontal differencing predictor, in which each sample
+     * is stored as its difference from the same sample of the pixel to its
+     * left.
+     *
+     * @param data the decompressed strip or tile, which is modified in place.
+     * @param rows the number of rows in the strip or tile.
+     * @param samplesPerRow the number of samples in each row.
+     * @param samplesPerPixel the number of samples in each pixel.
+     * @param bytesPerSample the number of bytes in each sample.
+     * @param byteOrder the byte order of the file.
+     */
+    static void undoHorizontalPredictor(byte[] data, int rows, int samplesPerRow,
+            int samplesPerPixel, int bytesPerSample, ByteOrder byteOrder) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.order(byteOrder);
+        int rowBytes = samplesPerRow * bytesPerSample;
+        int stride = samplesPerPixel * bytesPerSample;
+        for (int row = 0; row < rows; row++) {
+            int start = row * rowBytes;
+            int end = start + rowBytes;
+            switch (bytesPerSample) {
+                case 1:
+                    for (int i = start + stride; i < end; i++) {
+                        data[i] += data[i - stride];
+                    }
+                    break;
+                case 2:
+                    for (int i = start + stride; i < end; i += 2) {
+                        buf.putShort(i, (short) (buf.getShort(i) + buf.getShort(i - stride)));
+                    }
+                    break;
+                case 4:
+                    for (int i = start + stride; i < end; i += 4) {
+                        buf.putInt(i, buf.getInt(i) + buf.getInt(i - stride));
+                    }
+                    break;
+                case 8:
+                    for (int i = start + stride; i < end; i += 8) {
+                        buf.putLong(i, buf.getLong(i) + buf.getLong(i - stride));
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reverses the floating point predictor, in which the bytes of each row
+     * are rearranged so that the most significant bytes of all samples come
+     * first, and are then differenced byte by byte.
+     *
+     * @param data the decompressed strip or tile, which is modified in place.
+     * @param rows the number of rows in the strip or tile.
+     * @param samplesPerRow the number of samples in each row.
+     * @param samplesPerPixel the number of samples in each pixel.
+     * @param bytesPerSample the number of bytes in each sample.
+     * @param byteOrder the byte order in which the samples are left.
+     */
+    static void undoFloatingPointPredictor(byte[] data, int rows, int samplesPerRow,
+            int samplesPerPixel, int bytesPerSample, ByteOrder byteOrder) {
+        int rowBytes = samplesPerRow * bytesPerSample;
+        byte[] tmp = new byte[rowBytes];
+        boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+        for (int row = 0; row < rows; row++) {
+            int start = row * rowBytes;
+            for (int i = start + samplesPerPixel; i < start + rowBytes; i++) {
+                data[i] += data[i - samplesPerPixel];
+            }
+            System.arraycopy(data, start, tmp, 0, rowBytes);
+            for (int s = 0; s < samplesPerRow; s++) {
+                for (int b = 0; b < bytesPerSample; b++) {
+                    int plane = bigEndian ? b : bytesPerSample - 1 - b;
+                    data[start + s * bytesPerSample + b] = tmp[plane * samplesPerRow + s];
+                }
+            }
+        }
+    }
+
+    /**
+     * Compresses a strip or tile.
+     *
+     * @param compression NONE, LZW or DEFLATE.
+     * @param src the bytes of the strip or tile.
+     * @return the compressed bytes.
+     */
+    static byte[] compress(int compression, byte[] src) {
+        switch (compression) {
+            case NONE:
+                return src;
+            case LZW:
+                return lzwEncode(src);
+            case DEFLATE:
+            case DEFLATE_OBSOLETE:
+                return deflate(src);
+            default:
+                throw new IllegalArgumentException("Unsupported TIFF compression type " + compression + ".");
+        }
+    }
+
+    private static byte[] deflate(byte[] src) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(src);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(src.length / 2 + 64);
+            byte[] buf = new byte[65536];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Encodes TIFF LZW data. The code width grows one code early, and the
+     * table is cleared before it overflows 12-bit codes, as lzwDecode and
+     * other TIFF readers expect.
+     */
+    private static byte[] lzwEncode(byte[] src) {
+        LzwBitWriter out = new LzwBitWriter(src.length / 2 + 64);
+        // the table maps a prefix code and a following byte to a code
+        int[] keys = new int[LZW_HASH_SIZE];
+        int[] codes = new int[LZW_HASH_SIZE];
+        Arrays.fill(keys, -1);
+        int nextCode = 258;
+        int codeLength = 9;
+        out.write(LZW_CLEAR_CODE, codeLength);
+        if (src.length == 0) {
+            out.write(LZW_END_OF_INFORMATION, codeLength);
+            return out.toByteArray();
+        }
+
+        int prefix = src[0] & 0xFF;
+        for (int i = 1; i < src.length; i++) {
+            int b = src[i] & 0xFF;
+            int key = (prefix << 8) | b;
+            int h = key % LZW_HASH_SIZE;
+            while (keys[h] != -1 && keys[h] != key) {
+                h = h + 1 == LZW_HASH_SIZE ? 0 : h + 1;
+            }
+            if (keys[h] == key) {
+                prefix = codes[h];
+                continue;
+            }
+            out.write(prefix, codeLength);
+            keys[h] = key;
+            codes[h] = nextCode++;
+            if (nextCode == LZW_MAX_CODES - 2) {
+                out.write(LZW_CLEAR_CODE, codeLength);
+                Arrays.fill(keys, -1);
+                nextCode = 258;
+                codeLength = 9;
+            } else if (nextCode == (1 << codeLength)) {
+                codeLength++;
+            }
+            prefix = b;
+        }
+        out.write(prefix, codeLength);
+        // the reader adds a table entry for the last code too, which may
+        // widen the end-of-information code
+        nextCode++;
+        if (nextCode == (1 << codeLength) && codeLength < 12) {
+            codeLength++;
+        }
+        out.write(LZW_END_OF_INFORMATION, codeLength);
+        return out.toByteArray();
+    }
+
+    private static class LzwBitWriter {
+
+        private byte[] data;
+        private int size = 0;
+        private int bitBuffer = 0;
+        private int bitCount = 0;
+
+        LzwBitWriter(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void write(int code, int length) {
+            bitBuffer = (bitBuffer << length) | code;
+            bitCount += length;
+            while (bitCount >= 8) {
+                bitCount -= 8;
+                put((byte) (bitBuffer >>> bitCount));
+            }
+        }
+
+        private void put(byte b) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2 * data.length);
+            }
+            data[size++] = b;
+        }
+
+        byte[] toByteArray() {
+            if (bitCount > 0) {
+                put((byte) (bitBuffer << (8 - bitCount)));
+                bitCount = 0;
+            }
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    /**
+     * Applies the horizontal differencing predictor. This is the reverse of
+     * undoHorizontalPredictor, and takes the same arguments.
+     */
+    static void applyHorizontalPredictor(byte[] data, int rows, int samplesPerRow,
+            int samplesPerPixel, int bytesPerSample, ByteOrder byteOrder) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.order(byteOrder);
+        int rowBytes = samplesPerRow * bytesPerSample;
+        int stride = samplesPerPixel * bytesPerSample;
+        for (int row = 0; row < rows; row++) {
+            int start = row * rowBytes;
+            int end = start + rowBytes;
+            // work back to front, so that each difference uses an original value
+            switch (bytesPerSample) {
+                case 1:
+                    for (int i = end - 1; i >= start + stride; i--) {
+                        data[i] -= data[i - stride];
+                    }
+                    break;
+                case 2:
+                    for (int i = end - 2; i >= start + stride; i -= 2) {
+                        buf.putShort(i, (short) (buf.getShort(i) - buf.getShort(i - stride)));
+                    }
+                    break;
+                case 4:
+                    for (int i = end - 4; i >= start + stride; i -= 4) {
+                        buf.putInt(i, buf.getInt(i) - buf.getInt(i - stride));
+                    }
+                    break;
+                case 8:
+                    for (int i = end - 8; i >= start + stride; i -= 8) {
+                        buf.putLong(i, buf.getLong(i) - buf.getLong(i - stride));
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Applies the floating point predictor. This is the reverse of
+     * undoFloatingPointPredictor, and takes the same arguments.
+     */
+    static void applyFloatingPointPredictor(byte[] data, int rows, int samplesPerRow,
+            int samplesPerPixel, int bytesPerSample, ByteOrder byteOrder) {
+        int rowBytes = samplesPerRow * bytesPerSample;
+        byte[] tmp = new byte[rowBytes];
+        boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+        for (int row = 0; row < rows; row++) {
+            int start = row * rowBytes;
+            for (int s = 0; s < samplesPerRow; s++) {
+                for (int b = 0; b < bytesPerSample; b++) {
+                    int plane = bigEndian ? b : bytesPerSample - 1 - b;
+                    tmp[plane * samplesPerRow + s] = data[start + s * bytesPerSample + b];
+                }
+            }
+            for (int i = rowBytes - 1; i >= samplesPerPixel; i--) {
+                tmp[i] -= tmp[i - samplesPerPixel];
+            }
+            System.arraycopy(tmp, 0, data, start, rowBytes);
+        }
+    }
+}
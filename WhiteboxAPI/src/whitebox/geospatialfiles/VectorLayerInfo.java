@@ -45,6 +45,8 @@ import whitebox.utilities.StringUtilities;
 public class VectorLayerInfo implements MapLayer {
 
     public final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+    // the size of .shp file above which the records are not read into memory
+    private static final long LAZY_LOADING_FILE_SIZE = 256L << 20;
     private String fileName;
     private ShapeFile shapefile;
     private int overlayNumber;
@@ -102,7 +104,9 @@ public class VectorLayerInfo implements MapLayer {
         this.overlayNumber = overlayNumber;
 
         try {
-            shapefile = new ShapeFile(fileName);
+            // large files are opened in lazy mode, so that only the records
+            // in the mapped area are decoded
+            shapefile = new ShapeFile(fileName, file.length() < LAZY_LOADING_FILE_SIZE);
         } catch (IOException e) {
             // The files doesn't exist
             throw new IllegalArgumentException();
@@ -649,10 +653,11 @@ public class VectorLayerInfo implements MapLayer {
                 if (datatype == 'N' || datatype == 'F') {
                     minimumValue = Double.POSITIVE_INFINITY;
                     maximumValue = Double.NEGATIVE_INFINITY;
-                    int numRecords = table.getNumberOfRecords();
-                    double[] data = new double[numRecords];
-                    for (int r = 0; r < numRecords; r++) {
-                        data[r] = (double) table.getValue(r, attribute);
+                    double[] data = table.getNumericColumn(attribute);
+                    for (double value : data) {
+                        if (Double.isNaN(value)) {
+                            return null;
+                        }
                     }
                     displayMinValue = minimumValue;
                     displayMaxValue = maximumValue;
@@ -867,7 +872,7 @@ public class VectorLayerInfo implements MapLayer {
 //            if (colouringAttribute.toLowerCase().contains("feature z") ||
 //                    colouringAttribute.toLowerCase().contains("feature measure")) {
             numRecords = 0;
-            for (ShapeFileRecord rec : shapefile.records) {
+            for (ShapeFileRecord rec : shapefile.getRecordIterable()) {
                 numRecords += rec.getGeometry().getPoints().length;
             }
 //            }
@@ -1019,11 +1024,10 @@ public class VectorLayerInfo implements MapLayer {
 
                     // read the records
 //                    Object[][] data = new Object[numRecords][3];
-                    Object val;
+                    Object[] values = table.getColumn(fieldNum);
                     for (a = 0; a < numRecords; a++) {
                         data[a][0] = a;
-                        val = table.getValue(a, fieldNum);
-                        data[a][1] = val;
+                        data[a][1] = a < values.length ? values[a] : null;
                     }
                 }
 //                Object[] rec;
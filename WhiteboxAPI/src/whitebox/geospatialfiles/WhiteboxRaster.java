@@ -17,12 +17,12 @@
 package whitebox.geospatialfiles;
 
 import java.io.File;
-import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
-import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 /**
@@ -37,11 +37,17 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     // Fields
     // ************************
     private double[] grid;
+    private float[] floatGrid;
+    private short[] shortGrid;
+    private byte[] byteGrid;
+    private DataType blockDataType = DataType.DOUBLE;
     private int blockSize = 0;
     private long blockStartingCell = 0;
     private long blockEndingCell = -1;
     private double initialValue;
     private boolean isDirty = false;
+    private RasterTileCache tileCache = null;
+    private SharedRasterReader sharedReader = null;
     /**
      * Set to false if the header and data files (.dep and .tas) should be
      * deleted when the object is closed.
@@ -228,6 +234,9 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
      * @return long stating the number of reads.
      */
     public long getNumberOfDataFileReads() {
+        if (tileCache != null) {
+            return numberOfDataFileReads + tileCache.getNumberOfTileReads();
+        }
         return numberOfDataFileReads;
     }
     private long numberOfDataFileWrites = 0;
@@ -239,6 +248,9 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
      * @return long stating the number of reads.
      */
     public long getNumberOfDataFileWrites() {
+        if (tileCache != null) {
+            return numberOfDataFileWrites + tileCache.getNumberOfTileWrites();
+        }
         return numberOfDataFileWrites;
     }
 
@@ -383,83 +395,42 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
             minimumValue = min;
         }
 
-        RandomAccessFile rOut = null;
-        FileChannel outChannel = null;
-        ByteBuffer buf = null;
+        if (tileCache != null) {
+            tileCache.setRowValues(row, vals);
+            return;
+        }
+
         try {
             // See if the data file exists.
-            File file = new File(dataFile);
-            if (!file.exists()) {
+            if (!isDataFileAvailable()) {
                 createNewDataFile();
             }
-            long startingCell = row * numberColumns;
-            long endingCell = startingCell + numberColumns - 1;
-
-            rOut = new RandomAccessFile(dataFile, "rw");
-            outChannel = rOut.getChannel();
-            outChannel.position(startingCell * cellSizeInBytes);
-            int writeLengthInCells = (int) (endingCell - startingCell + 1);
+            long startingCell = (long) row * numberColumns;
 
+            ByteBuffer buf = getRowBuffer();
             if (dataType == DataType.DOUBLE) { //.equals("double")) {
-                buf = ByteBuffer.allocateDirect(cellSizeInBytes * writeLengthInCells);
-                buf.order(byteOrder);
-                DoubleBuffer db = buf.asDoubleBuffer();
-                db.put(vals);
-                db = null;
-                outChannel.write(buf);
+                buf.asDoubleBuffer().put(vals);
             } else if (dataType == DataType.FLOAT) { //.equals("float")) {
-                float[] fa = new float[writeLengthInCells];
-                for (int j = 0; j < writeLengthInCells; j++) {
-                    fa[j] = (float) vals[j];
-                }
-                buf = ByteBuffer.allocateDirect(cellSizeInBytes * writeLengthInCells);
-                buf.order(byteOrder);
                 FloatBuffer fb = buf.asFloatBuffer();
-                fb.put(fa);
-                fb = null;
-                fa = null;
-                outChannel.write(buf);
-            } else if (dataType == DataType.INTEGER) { //.equals("integer")) {
-                short[] ia = new short[writeLengthInCells];
-                for (int j = 0; j < writeLengthInCells; j++) {
-                    ia[j] = (short) vals[j];
+                for (int j = 0; j < numberColumns; j++) {
+                    fb.put(j, (float) vals[j]);
                 }
-                buf = ByteBuffer.allocateDirect(cellSizeInBytes * writeLengthInCells);
-                buf.order(byteOrder);
+            } else if (dataType == DataType.INTEGER) { //.equals("integer")) {
                 ShortBuffer ib = buf.asShortBuffer();
-                ib.put(ia);
-                ib = null;
-                ia = null;
-                outChannel.write(buf);
+                for (int j = 0; j < numberColumns; j++) {
+                    ib.put(j, (short) vals[j]);
+                }
             } else if (dataType == DataType.BYTE) { //.equals("byte")) {
-                byte[] ba = new byte[writeLengthInCells];
-                for (int j = 0; j < writeLengthInCells; j++) {
-                    ba[j] = (byte) vals[j];
+                for (int j = 0; j < numberColumns; j++) {
+                    buf.put(j, (byte) vals[j]);
                 }
-                buf = ByteBuffer.wrap(ba);
-                ba = null;
-                outChannel.write(buf);
             }
-            //outChannel.close();
+            writeFully(buf, startingCell * cellSizeInBytes);
 
         } catch (Exception e) {
             System.err.println("Caught exception: " + e.toString());
             System.err.println(e.getStackTrace());
         } finally {
-            buf = null;
-            if (rOut != null) {
-                try {
-                    rOut.close();
-                } catch (Exception e) {
-                }
-            }
-            if (outChannel != null) {
-                try {
-                    outChannel.force(false);
-                    outChannel.close();
-                } catch (Exception e) {
-                }
-            }
             numberOfDataFileWrites++;
         }
     }
@@ -484,10 +455,18 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
         //try {
         if (column >= 0 && column < numberColumns && row >= 0 && row < numberRows) {
 
+            if (sharedReader != null) {
+                return sharedReader.getValue(row, column);
+            }
+
+            if (tileCache != null) {
+                return tileCache.getValue(row, column);
+            }
+
             if (blockEndingCell < 0) {
                 readDataBlock();
             }
-            if (grid == null) {
+            if (!isBlockLoaded()) {
                 readDataBlock();
             }
 
@@ -530,7 +509,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
 
                 readDataBlock();
             }
-            return grid[(int) (cellNum - blockStartingCell)];
+            return getBlockValue((int) (cellNum - blockStartingCell));
         } else {
             if (!isReflectedAtEdges) {
                 return noDataValue;
@@ -564,6 +543,40 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
 //        }
     }
 
+    /**
+     * Retrieves the value contained at a specified cell as an int. When the
+     * raster's data are held in their native data type, the value is read
+     * without being widened to a double, which makes this method suitable for
+     * categorical (INTEGER and BYTE) rasters.
+     *
+     * @param row The zero-based row number.
+     * @param column The zero-based column number.
+     * @return The value contained in the raster grid at the specified grid
+     * cell, truncated to an int.
+     */
+    public int getValueAsInt(int row, int column) {
+        if (sharedReader != null || tileCache != null || column < 0 || column >= numberColumns
+                || row < 0 || row >= numberRows) {
+            return (int) getValue(row, column);
+        }
+        long cellNum = (long) (row) * numberColumns + column;
+        if (!isBlockLoaded() || (cellNum > blockEndingCell) || (cellNum < blockStartingCell)) {
+            // let getValue reposition the block.
+            return (int) getValue(row, column);
+        }
+        int i = (int) (cellNum - blockStartingCell);
+        switch (blockDataType) {
+            case FLOAT:
+                return (int) floatGrid[i];
+            case INTEGER:
+                return shortGrid[i];
+            case BYTE:
+                return byteGrid[i] & 0xff;
+            default:
+                return (int) grid[i];
+        }
+    }
+
     /**
      * Sets the value of a specified cell in the raster grid.
      *
@@ -578,6 +591,10 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
             if (Double.isNaN(value)) {
                 value = noDataValue;
             }
+            if (tileCache != null) {
+                tileCache.setValue(row, column, value);
+                return;
+            }
             // what is the cell number?
             long cellNum = (long) (row) * numberColumns + column;
 
@@ -614,10 +631,10 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 }
                 readDataBlock();
             }
-            if (grid == null) {
+            if (!isBlockLoaded()) {
                 setBlockData();
             }
-            grid[(int) (cellNum - blockStartingCell)] = value;
+            setBlockValue((int) (cellNum - blockStartingCell), value);
             isDirty = true;
         }
 //        } catch (Exception e) {
@@ -637,6 +654,10 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public void incrementValue(int row, int column, double value) {
         if (saveChanges && column >= 0 && column < this.numberColumns
                 && row >= 0 && row < this.numberRows) {
+            if (tileCache != null) {
+                tileCache.incrementValue(row, column, value);
+                return;
+            }
             // what is the cell number?
             long cellNum = (long) (row) * numberColumns + column;
 
@@ -674,7 +695,8 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 readDataBlock();
             }
 
-            grid[(int) (cellNum - blockStartingCell)] += value;
+            int i = (int) (cellNum - blockStartingCell);
+            setBlockValue(i, getBlockValue(i) + value);
             isDirty = true;
         }
     }
@@ -688,6 +710,10 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public void incrementValue(int row, int column) {
         if (saveChanges && column >= 0 && column < this.numberColumns
                 && row >= 0 && row < this.numberRows) {
+            if (tileCache != null) {
+                tileCache.incrementValue(row, column, 1);
+                return;
+            }
             // what is the cell number?
             long cellNum = (long) (row) * numberColumns + column;
 
@@ -725,7 +751,8 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 readDataBlock();
             }
 
-            grid[(int) (cellNum - blockStartingCell)]++;
+            int i = (int) (cellNum - blockStartingCell);
+            setBlockValue(i, getBlockValue(i) + 1);
             isDirty = true;
         }
     }
@@ -740,6 +767,10 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public void decrementValue(int row, int column, double value) {
         if (saveChanges && column >= 0 && column < this.numberColumns
                 && row >= 0 && row < this.numberRows) {
+            if (tileCache != null) {
+                tileCache.incrementValue(row, column, -value);
+                return;
+            }
             // what is the cell number?
             long cellNum = (long) (row) * numberColumns + column;
 
@@ -777,7 +808,8 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 readDataBlock();
             }
 
-            grid[(int) (cellNum - blockStartingCell)] -= value;
+            int i = (int) (cellNum - blockStartingCell);
+            setBlockValue(i, getBlockValue(i) - value);
             isDirty = true;
         }
     }
@@ -791,6 +823,10 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public void decrementValue(int row, int column) {
         if (saveChanges && column >= 0 && column < this.numberColumns
                 && row >= 0 && row < this.numberRows) {
+            if (tileCache != null) {
+                tileCache.incrementValue(row, column, -1);
+                return;
+            }
             // what is the cell number?
             long cellNum = (long) (row) * numberColumns + column;
 
@@ -828,11 +864,296 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 readDataBlock();
             }
 
-            grid[(int) (cellNum - blockStartingCell)]--;
+            int i = (int) (cellNum - blockStartingCell);
+            setBlockValue(i, getBlockValue(i) - 1);
             isDirty = true;
         }
     }
     
+    /**
+     * Switches between the default single sliding block and a memory-mapped,
+     * tile-based backing store. The tiled store keeps fixed square tiles of
+     * the raster in a least-recently-used cache and is better suited to
+     * algorithms that access the grid in a random order, e.g. flow-path
+     * tracing or priority-flood operations, where the sliding block would
+     * otherwise be reloaded constantly. The data file is opened only once
+     * while the tiled store is in use.
+     *
+     * @param value Set to true to use the tiled backing store.
+     */
+    public void setTiledCache(boolean value) {
+        if (sharedReader != null || value == (tileCache != null)) {
+            return;
+        }
+        try {
+            if (value) {
+                if (saveChanges && isDirty && isBlockLoaded()) {
+                    writeDataBlock();
+                }
+                releaseBlock();
+                if (!isDataFileAvailable()) {
+                    createNewDataFile();
+                }
+                tileCache = new RasterTileCache(this,
+                        RasterTileCache.DEFAULT_TILE_SIZE, bufferSize);
+            } else {
+                tileCache.close(saveChanges);
+                numberOfDataFileReads += tileCache.getNumberOfTileReads();
+                numberOfDataFileWrites += tileCache.getNumberOfTileWrites();
+                tileCache = null;
+            }
+        } catch (IOException e) {
+            tileCache = null;
+            if (communicator != null) {
+                communicator.logException("WhiteboxRaster error", e);
+            } else {
+                System.out.println(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the memory-mapped, tile-based backing store is used.
+     *
+     * @return boolean
+     */
+    public boolean isTiledCache() {
+        return tileCache != null;
+    }
+
+    /**
+     * Opens an existing raster in a read-only mode that may be shared by
+     * several worker threads. The getValue, getValueAsInt, and getRowValues
+     * methods of the returned object do not modify any of its state; values
+     * are read directly from a memory-mapped view of the data file rather
+     * than through the sliding block, so one instance can serve all of the
+     * threads of a parallel plugin. The data file read and write counters are
+     * not updated in this mode and setTiledCache has no effect. The raster
+     * should be closed once all of the threads have finished with it.
+     *
+     * @param HeaderFile The name of the WhiteboxRaster header file.
+     * @return A read-only WhiteboxRaster that is safe for concurrent reads.
+     * @throws IOException if the data file cannot be mapped.
+     */
+    public static WhiteboxRaster openShared(String HeaderFile) throws IOException {
+        WhiteboxRaster raster = new WhiteboxRaster(HeaderFile, "r");
+        if (!raster.isDataFileAvailable()) {
+            throw new IOException("WhiteboxRaster data file not found: " + raster.dataFile);
+        }
+        // these are computed lazily; compute them now so that concurrent
+        // callers never race to initialize them.
+        raster.getCellSizeX();
+        raster.getCellSizeY();
+        raster.getXCoordinateFromColumn(0);
+        raster.getYCoordinateFromRow(0);
+        raster.releaseBlock();
+        raster.sharedReader = new SharedRasterReader(raster);
+        return raster;
+    }
+
+    /**
+     * Indicates whether this raster was opened for shared, concurrent reading
+     * using openShared.
+     *
+     * @return boolean
+     */
+    public boolean isShared() {
+        return sharedReader != null;
+    }
+
+    /**
+     * Overrides the base class method so that rows read while the tiled
+     * backing store is in use reflect any unsaved changes, and so that rows
+     * of a shared raster are read without modifying its state.
+     *
+     * @param row An int stating the zero-based row to be returned.
+     * @param stack An int stating the zero-based stack in which the row is
+     * located.
+     * @return An array of doubles containing the values store in the
+     * specified row.
+     */
+    @Override
+    public double[] getRowValues(int row, int stack) {
+        if (sharedReader != null && stack == 0 && row >= 0 && row < numberRows) {
+            return sharedReader.getRowValues(row);
+        }
+        if (tileCache != null && stack == 0 && row >= 0 && row < numberRows) {
+            return tileCache.getRowValues(row);
+        }
+        return super.getRowValues(row, stack);
+    }
+
+    /**
+     * Overrides the base class method so that the row reflects any unsaved
+     * changes, in either the data block or the tiled backing store.
+     *
+     * @param row An int stating the zero-based row to be returned.
+     * @return An array of floats containing the values stored in the
+     * specified row.
+     */
+    @Override
+    public float[] getFloatRow(int row) {
+        double[] values = getCachedRowValues(row);
+        if (values == null) {
+            writeDirtyBlock();
+            return super.getFloatRow(row);
+        }
+        float[] retVals = new float[numberColumns];
+        for (int j = 0; j < numberColumns; j++) {
+            retVals[j] = (float) values[j];
+        }
+        return retVals;
+    }
+
+    /**
+     * Overrides the base class method so that the row reflects any unsaved
+     * changes, in either the data block or the tiled backing store.
+     *
+     * @param row An int stating the zero-based row to be returned.
+     * @return An array of shorts containing the values stored in the
+     * specified row.
+     */
+    @Override
+    public short[] getShortRow(int row) {
+        double[] values = getCachedRowValues(row);
+        if (values == null) {
+            writeDirtyBlock();
+            return super.getShortRow(row);
+        }
+        short[] retVals = new short[numberColumns];
+        for (int j = 0; j < numberColumns; j++) {
+            retVals[j] = (short) values[j];
+        }
+        return retVals;
+    }
+
+    /**
+     * Overrides the base class method so that the row reflects any unsaved
+     * changes, in either the data block or the tiled backing store.
+     *
+     * @param row An int stating the zero-based row to be returned.
+     * @return An array of bytes containing the values stored in the specified
+     * row.
+     */
+    @Override
+    public byte[] getByteRow(int row) {
+        double[] values = getCachedRowValues(row);
+        if (values == null) {
+            writeDirtyBlock();
+            return super.getByteRow(row);
+        }
+        byte[] retVals = new byte[numberColumns];
+        for (int j = 0; j < numberColumns; j++) {
+            retVals[j] = (byte) values[j];
+        }
+        return retVals;
+    }
+
+    /**
+     * Returns a row from the shared reader or the tiled backing store, or
+     * null if neither is in use and the row must be read from the data file.
+     */
+    private double[] getCachedRowValues(int row) {
+        if (row < 0 || row >= numberRows) {
+            return null;
+        }
+        if (sharedReader != null) {
+            return sharedReader.getRowValues(row);
+        }
+        if (tileCache != null) {
+            return tileCache.getRowValues(row);
+        }
+        return null;
+    }
+
+    /**
+     * Writes the data block to the data file if it holds unsaved changes, so
+     * that rows read directly from the file are up to date.
+     */
+    private void writeDirtyBlock() {
+        if (saveChanges && isDirty && isBlockLoaded()) {
+            writeDataBlock();
+        }
+    }
+
+    private boolean nativeDataTypeStorage = false;
+    private boolean nativeDataTypeStorageSet = false;
+
+    /**
+     * Determines whether the block of data held in memory is stored in the
+     * raster's native data type (e.g. one byte per cell for a BYTE raster)
+     * rather than being widened to doubles. Native storage is used by default
+     * for read-only rasters. For writable rasters it is off by default because
+     * values set into an INTEGER or BYTE raster are then truncated immediately
+     * rather than when the block is written to disk.
+     *
+     * @param value Set to true to keep the in-memory block in the native data
+     * type.
+     */
+    public void setNativeDataTypeStorage(boolean value) {
+        nativeDataTypeStorage = value;
+        nativeDataTypeStorageSet = true;
+        if (isBlockLoaded() && saveChanges && isDirty) {
+            writeDataBlock();
+        }
+        releaseBlock();
+        setBlockData();
+    }
+
+    public boolean isNativeDataTypeStorage() {
+        return nativeDataTypeStorageSet ? nativeDataTypeStorage : !saveChanges;
+    }
+
+    private boolean isBlockLoaded() {
+        switch (blockDataType) {
+            case FLOAT:
+                return floatGrid != null;
+            case INTEGER:
+                return shortGrid != null;
+            case BYTE:
+                return byteGrid != null;
+            default:
+                return grid != null;
+        }
+    }
+
+    private void releaseBlock() {
+        grid = null;
+        floatGrid = null;
+        shortGrid = null;
+        byteGrid = null;
+        blockEndingCell = -1;
+    }
+
+    private double getBlockValue(int i) {
+        switch (blockDataType) {
+            case FLOAT:
+                return floatGrid[i];
+            case INTEGER:
+                return shortGrid[i];
+            case BYTE:
+                return byteGrid[i] & 0xff;
+            default:
+                return grid[i];
+        }
+    }
+
+    private void setBlockValue(int i, double value) {
+        switch (blockDataType) {
+            case FLOAT:
+                floatGrid[i] = (float) value;
+                break;
+            case INTEGER:
+                shortGrid[i] = (short) value;
+                break;
+            case BYTE:
+                byteGrid[i] = (byte) value;
+                break;
+            default:
+                grid[i] = value;
+        }
+    }
+
     private boolean forceAllDataInMemory = false;
     public void setForceAllDataInMemory(boolean value) {
         forceAllDataInMemory = value;
@@ -846,10 +1167,12 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     private void setBlockData() {
         try {
             // see if the data can be comfortably contained in memory, keeping in
-            // mind that it is always stored as doubles.
+            // mind that it is stored as doubles unless the native data type is used.
             //System.gc();
+            blockDataType = isNativeDataTypeStorage() ? dataType : DataType.DOUBLE;
+            int bytesPerCell = blockDataType == DataType.DOUBLE ? 8 : cellSizeInBytes;
             long availableMemory = Runtime.getRuntime().freeMemory();
-            long gridMemoryRequirements = (long) numberRows * (long) numberColumns * 8L;
+            long gridMemoryRequirements = (long) numberRows * (long) numberColumns * bytesPerCell;
             if ((availableMemory / 3) > gridMemoryRequirements || forceAllDataInMemory) {
                 // store the entire grid in memory.
                 blockSize = numberRows * numberColumns;
@@ -857,10 +1180,10 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
             } else if (((double) gridMemoryRequirements / (availableMemory / 3)) > 2) {
                 // the data doesn't come close to fitting in the available memory.
                 bufferSize = 100 * 1048576;
-                blockSize = (int) (Math.round(Math.floor(bufferSize / 8))) / 3;
+                blockSize = (int) (Math.round(Math.floor(bufferSize / bytesPerCell))) / 3;
             } else {
                 blockSize = (numberRows * numberColumns) / 2;
-                bufferSize = ((numberRows * numberColumns) / 2) * 8;
+                bufferSize = ((long) numberRows * numberColumns / 2) * bytesPerCell;
             }
 
             halfBlockSize = blockSize / 2;
@@ -878,17 +1201,34 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public void reinitialize(double initialValue) {
         this.initialValue = initialValue;
 
+        boolean tiled = isTiledCache();
+        if (tiled) {
+            try {
+                tileCache.close(false);
+            } catch (IOException e) {
+                if (communicator != null) {
+                    communicator.logException("WhiteboxRaster error", e);
+                }
+                throw new UncheckedIOException(e);
+            } finally {
+                tileCache = null;
+            }
+        }
+
         // See if the data file exists.
+        closeDataChannel();
         File file = new File(dataFile);
         file.delete();
         createNewDataFile();
 
+        if (tiled) {
+            setTiledCache(true);
+        }
+
     }
 
     public void createNewDataFile() {
-        RandomAccessFile rOut = null;
         ByteBuffer buf = null;
-        FileChannel outChannel = null;
         try {
             long numberCells = (long) ((long) (numberRows) * numberColumns);
             int writeLength = 2000000;
@@ -897,11 +1237,6 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
             }
             long numCellsWritten = 0;
 
-            rOut = new RandomAccessFile(dataFile, "rws");
-
-            outChannel = rOut.getChannel();
-            outChannel.position(0);
-
             buf = ByteBuffer.allocateDirect(cellSizeInBytes * writeLength);
             buf.order(byteOrder);
 
@@ -924,7 +1259,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                     buf.clear();
                     db.clear();
                     db.put(da);
-                    outChannel.write(buf);
+                    writeFully(buf, numCellsWritten * cellSizeInBytes);
                     numCellsWritten += writeLength;
                 } while (numCellsWritten < numberCells);
                 db = null;
@@ -951,7 +1286,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                     buf.clear();
                     fb.clear();
                     fb.put(fa);
-                    outChannel.write(buf);
+                    writeFully(buf, numCellsWritten * cellSizeInBytes);
                     numCellsWritten += writeLength;
                 } while (numCellsWritten < numberCells);
                 fb = null;
@@ -976,7 +1311,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                     buf.clear();
                     ib.clear();
                     ib.put(ia);
-                    outChannel.write(buf);
+                    writeFully(buf, numCellsWritten * cellSizeInBytes);
                     numCellsWritten += writeLength;
                 } while (numCellsWritten < numberCells);
                 ib = null;
@@ -995,8 +1330,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                         Arrays.fill(ba, (byte) initialValue);
                     }
                     buf = ByteBuffer.wrap(ba);
-                    buf.flip();
-                    outChannel.write(buf);
+                    writeFully(buf, numCellsWritten * cellSizeInBytes);
                     numCellsWritten += writeLength;
                 } while (numCellsWritten < numberCells);
                 ba = null;
@@ -1005,34 +1339,17 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
         } catch (Exception e) {
             System.out.println(e.getMessage());
         } finally {
-            if (outChannel != null) {
-                try {
-                    outChannel.force(false);
-                    outChannel.close();
-                } catch (Exception e) {
-                    System.out.println(e.getMessage());
-                }
-            }
             buf = null;
-            if (rOut != null) {
-                try {
-                    rOut.close();
-                } catch (Exception e) {
-                }
-            }
         }
 
     }
 
     private void readDataBlock() {
-        RandomAccessFile rIn = null;
-        FileChannel inChannel = null;
         ByteBuffer buf = null;
         try {
 
             // See if the data file exists.
-            File file = new File(dataFile);
-            if (!file.exists()) {
+            if (!isDataFileAvailable()) {
                 createNewDataFile();
             }
 
@@ -1045,19 +1362,37 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
             blockEndingCell = endCell;
 
             int readLengthInCells = (int) (blockEndingCell - blockStartingCell + 1);
-            buf = ByteBuffer.allocate((int) (readLengthInCells * cellSizeInBytes));
-
-            rIn = new RandomAccessFile(dataFile, "r");
-
-            inChannel = rIn.getChannel();
-
-            inChannel.position(blockStartingCell * cellSizeInBytes);
-            inChannel.read(buf);
-
-            // Check the byte order.
-            buf.order(byteOrder);
+            buf = getBlockBuffer(readLengthInCells);
+            readFully(buf, blockStartingCell * cellSizeInBytes);
+            buf.rewind();
+            if (blockDataType != DataType.DOUBLE) {
+                // keep the block in the native data type; no conversion needed.
+                switch (blockDataType) {
+                    case FLOAT:
+                        if (floatGrid == null || floatGrid.length != readLengthInCells) {
+                            floatGrid = new float[readLengthInCells];
+                        }
+                        buf.asFloatBuffer().get(floatGrid);
+                        break;
+                    case INTEGER:
+                        if (shortGrid == null || shortGrid.length != readLengthInCells) {
+                            shortGrid = new short[readLengthInCells];
+                        }
+                        buf.asShortBuffer().get(shortGrid);
+                        break;
+                    case BYTE:
+                        if (byteGrid == null || byteGrid.length != readLengthInCells) {
+                            byteGrid = new byte[readLengthInCells];
+                        }
+                        buf.get(byteGrid);
+                        break;
+                }
+                return;
+            }
 
-            grid = new double[readLengthInCells];
+            if (grid == null || grid.length != readLengthInCells) {
+                grid = new double[readLengthInCells];
+            }
 
             if (dataType == DataType.DOUBLE) {
                 buf.rewind();
@@ -1099,27 +1434,43 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 System.err.println(t.getMessage());
             }
         } finally {
-            if (rIn != null) {
-                try {
-                    rIn.close();
-                } catch (Exception e) {
-                }
-            }
-            if (inChannel != null) {
-                try {
-                    inChannel.close();
-                } catch (Exception e) {
-                }
-            }
             numberOfDataFileReads++;
         }
 
     }
 
+    private ByteBuffer blockBuffer = null;
+
+    /**
+     * Returns a reusable direct buffer for reading and writing data blocks,
+     * cleared, limited to the requested number of cells and set to the file
+     * byte order.
+     */
+    private ByteBuffer getBlockBuffer(int numCells) {
+        int size = numCells * cellSizeInBytes;
+        if (blockBuffer == null || blockBuffer.capacity() < size) {
+            blockBuffer = ByteBuffer.allocateDirect(size);
+        }
+        blockBuffer.clear();
+        blockBuffer.limit(size);
+        blockBuffer.order(byteOrder);
+        return blockBuffer;
+    }
+
     /**
      * Used to dump any data contained in memory to disk.
      */
     public void flush() {
+        if (tileCache != null) {
+            try {
+                tileCache.flush();
+            } catch (IOException e) {
+                if (communicator != null) {
+                    communicator.logException("WhiteboxRaster error", e);
+                }
+            }
+            return;
+        }
         writeDataBlock();
     }
 
@@ -1128,18 +1479,21 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
      */
     private void writeDataBlock() {
         try {
-            if (!saveChanges) {
+            if (!saveChanges || !isBlockLoaded()) {
                 return;
             }
             // update the minimum and maximum values
             double min = Double.MAX_VALUE;
             double max = Double.MIN_VALUE;
-            for (int i = 0; i < grid.length; i++) {
-                if (grid[i] < min && grid[i] != noDataValue) {
-                    min = grid[i];
+            int blockLength = (int) (blockEndingCell - blockStartingCell + 1);
+            double z;
+            for (int i = 0; i < blockLength; i++) {
+                z = getBlockValue(i);
+                if (z < min && z != noDataValue) {
+                    min = z;
                 }
-                if (grid[i] > max && grid[i] != noDataValue) {
-                    max = grid[i];
+                if (z > max && z != noDataValue) {
+                    max = z;
                 }
             }
             if (max > maximumValue) {
@@ -1149,91 +1503,53 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 minimumValue = min;
             }
 
-            RandomAccessFile rOut = null;
-            ByteBuffer buf = null;
-            FileChannel outChannel = null;
             try {
 
                 // See if the data file exists.
-                File file = new File(dataFile);
-                if (!file.exists()) {
+                if (!isDataFileAvailable()) {
                     createNewDataFile();
                 }
 
-                rOut = new RandomAccessFile(dataFile, "rw");
-                outChannel = rOut.getChannel();
-                outChannel.position(blockStartingCell * cellSizeInBytes);
                 int writeLengthInCells = (int) (blockEndingCell - blockStartingCell + 1);
-
-                /*long startPos = blockStartingCell * cellSizeInBytes;
-                 FileChannel fc = new RandomAccessFile(dataFile, "rw").getChannel();
-                 FloatBuffer fb = fc.map(FileChannel.MapMode.READ_WRITE, startPos, 
-                 writeLengthInCells).asFloatBuffer();
-                 for(int j = 0; j < writeLengthInCells; j++) {
-                 fb.put((float)grid[j]);
-                 }
-                 fc.force(true);
-                 fc.close();*/
-
-                if (dataType == DataType.DOUBLE) { //.equals("double")) {
-                    buf = ByteBuffer.allocate(cellSizeInBytes * writeLengthInCells);
-                    buf.order(byteOrder);
-                    DoubleBuffer db = buf.asDoubleBuffer();
-                    db.put(grid);
-                    db = null;
-                    outChannel.write(buf);
-                } else if (dataType == DataType.FLOAT) { //.equals("float")) {
-                    float[] fa = new float[writeLengthInCells];
-                    for (int j = 0; j < writeLengthInCells; j++) {
-                        fa[j] = (float) grid[j];
-                    }
-                    buf = ByteBuffer.allocateDirect(cellSizeInBytes * writeLengthInCells);
-                    buf.order(byteOrder);
-                    FloatBuffer fb = buf.asFloatBuffer();
-                    fb.put(fa);
-                    fb = null;
-                    fa = null;
-                    outChannel.write(buf);
-                } else if (dataType == DataType.INTEGER) { //.equals("integer")) {
-                    short[] ia = new short[writeLengthInCells];
-                    for (int j = 0; j < writeLengthInCells; j++) {
-                        ia[j] = (short) grid[j];
-                    }
-                    buf = ByteBuffer.allocate(cellSizeInBytes * writeLengthInCells);
-                    buf.order(byteOrder);
-                    ShortBuffer ib = buf.asShortBuffer();
-                    ib.put(ia);
-                    ib = null;
-                    ia = null;
-                    outChannel.write(buf);
-                } else if (dataType == DataType.BYTE) { //.equals("byte")) {
-                    byte[] ba = new byte[writeLengthInCells];
-                    for (int j = 0; j < writeLengthInCells; j++) {
-                        ba[j] = (byte) grid[j];
-                    }
-                    buf = ByteBuffer.wrap(ba);
-                    ba = null;
-                    outChannel.write(buf);
+                ByteBuffer buf = getBlockBuffer(writeLengthInCells);
+
+                switch (blockDataType) {
+                    case FLOAT:
+                        // the block is already in the native data type.
+                        buf.asFloatBuffer().put(floatGrid, 0, writeLengthInCells);
+                        break;
+                    case INTEGER:
+                        buf.asShortBuffer().put(shortGrid, 0, writeLengthInCells);
+                        break;
+                    case BYTE:
+                        buf.put(byteGrid, 0, writeLengthInCells);
+                        buf.rewind();
+                        break;
+                    default:
+                        if (dataType == DataType.DOUBLE) { //.equals("double")) {
+                            buf.asDoubleBuffer().put(grid, 0, writeLengthInCells);
+                        } else if (dataType == DataType.FLOAT) { //.equals("float")) {
+                            FloatBuffer fb = buf.asFloatBuffer();
+                            for (int j = 0; j < writeLengthInCells; j++) {
+                                fb.put(j, (float) grid[j]);
+                            }
+                        } else if (dataType == DataType.INTEGER) { //.equals("integer")) {
+                            ShortBuffer ib = buf.asShortBuffer();
+                            for (int j = 0; j < writeLengthInCells; j++) {
+                                ib.put(j, (short) grid[j]);
+                            }
+                        } else if (dataType == DataType.BYTE) { //.equals("byte")) {
+                            for (int j = 0; j < writeLengthInCells; j++) {
+                                buf.put(j, (byte) grid[j]);
+                            }
+                        }
                 }
+                writeFully(buf, blockStartingCell * cellSizeInBytes);
 
             } catch (Exception e) {
                 System.err.println("Caught exception: " + e.toString());
                 System.err.println(e.getStackTrace());
             } finally {
-                buf = null;
-                if (rOut != null) {
-                    try {
-                        rOut.close();
-                    } catch (Exception e) {
-                    }
-                }
-                if (outChannel != null) {
-                    try {
-                        outChannel.force(false);
-                        outChannel.close();
-                    } catch (Exception e) {
-                    }
-                }
                 isDirty = false;
                 numberOfDataFileWrites++;
             }
@@ -1250,7 +1566,21 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
      */
     @Override
     public void close() {
+        sharedReader = null;
+        if (tileCache != null) {
+            try {
+                tileCache.close(saveChanges && !isTemporaryFile);
+            } catch (IOException e) {
+                if (communicator != null) {
+                    communicator.logException("WhiteboxRaster error", e);
+                }
+            }
+            numberOfDataFileReads += tileCache.getNumberOfTileReads();
+            numberOfDataFileWrites += tileCache.getNumberOfTileWrites();
+            tileCache = null;
+        }
         if (this.isTemporaryFile) {
+            closeDataChannel();
             File f1 = new File(this.headerFile);
             f1.delete();
             f1 = new File(this.dataFile);
@@ -1263,7 +1593,9 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 findMinAndMaxVals();
                 writeHeaderFile();
             }
+            closeDataChannel();
         }
-        grid = null;
+        releaseBlock();
+        blockBuffer = null;
     }
 }
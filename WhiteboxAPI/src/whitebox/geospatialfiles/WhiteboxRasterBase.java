@@ -20,6 +20,7 @@ import java.io.*;
 import java.nio.*;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import whitebox.interfaces.Communicator;
 
 /**
@@ -740,19 +741,26 @@ public class WhiteboxRasterBase {
         double z;
         containsFractionalDataChecked = true;
         containsFractionalData = false;
-        for (int stack = 0; stack < numberStacks; stack++) {
-            for (int row = 0; row < numberRows; row++) {
-                data = getRowValues(row, stack);
-                for (int col = 0; col < numberColumns; col++) {
-                    if (data[col] != noDataValue) {
-                        z = Math.floor(data[col]);
-                        if ((data[col] - z) > 0.001) { // you have to deal with rounding issues
-                            containsFractionalData = true;
-                            return;
+        boolean wasOpen = isDataChannelOpen();
+        try {
+            for (int stack = 0; stack < numberStacks; stack++) {
+                for (int row = 0; row < numberRows; row++) {
+                    data = getRowValues(row, stack);
+                    for (int col = 0; col < numberColumns; col++) {
+                        if (data[col] != noDataValue) {
+                            z = Math.floor(data[col]);
+                            if ((data[col] - z) > 0.001) { // you have to deal with rounding issues
+                                containsFractionalData = true;
+                                return;
+                            }
                         }
                     }
                 }
             }
+        } finally {
+            if (!wasOpen) {
+                closeDataChannel();
+            }
         }
     }
 
@@ -1121,85 +1129,192 @@ public class WhiteboxRasterBase {
             return retVals;
         }
 
-        RandomAccessFile rIn = null;
-        ByteBuffer buf = null;
-
         try {
 
             // See if the data file exists.
-            File file = new File(dataFile);
-            if (!file.exists()) {
+            if (!isDataFileAvailable()) {
                 return null;
             }
 
-            // what is the starting and ending cell?
+            // what is the starting cell?
             long startingCell = (long) (row) * numberColumns;
-            long endingCell = (long) (startingCell) + numberColumns - 1;
-            
-            int readLengthInCells = (int) (endingCell - startingCell + 1);
-            buf = ByteBuffer.allocate((int) (readLengthInCells * cellSizeInBytes));
+            long numCellsPerStack = (long) numberColumns * numberRows;
 
-            rIn = new RandomAccessFile(dataFile, "r");
-
-            FileChannel inChannel = rIn.getChannel();
-
-            long numCellsPerStack = numberColumns * numberRows;
-            inChannel.position(startingCell * cellSizeInBytes + (numCellsPerStack * stack));
-            inChannel.read(buf);
-
-            // Check the byte order.
-            buf.order(byteOrder);
+            ByteBuffer buf = getRowBuffer();
+            readFully(buf, startingCell * cellSizeInBytes + (numCellsPerStack * stack));
+            buf.rewind();
 
             if (dataType == DataType.DOUBLE) { //.equals("double")) {
-                buf.rewind();
-                DoubleBuffer db = buf.asDoubleBuffer();
-                retVals = new double[readLengthInCells];
-                db.get(retVals);
-                db = null;
-                buf = null;
+                buf.asDoubleBuffer().get(retVals);
             } else if (dataType == DataType.FLOAT) { //.equals("float")) {
-                buf.rewind();
                 FloatBuffer fb = buf.asFloatBuffer();
-                float[] fa = new float[readLengthInCells];
-                fb.get(fa);
-                fb = null;
-                buf = null;
-                retVals = new double[readLengthInCells];
-                for (int j = 0; j < readLengthInCells; j++) {
-                    retVals[j] = fa[j];
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = fb.get(j);
                 }
-                fa = null;
             } else if (dataType == DataType.INTEGER) { //.equals("integer")) {
-                buf.rewind();
                 ShortBuffer ib = buf.asShortBuffer();
-                short[] ia = new short[readLengthInCells];
-                ib.get(ia);
-                ib = null;
-                buf = null;
-                retVals = new double[readLengthInCells];
-                for (int j = 0; j < readLengthInCells; j++) {
-                    retVals[j] = ia[j];
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = ib.get(j);
                 }
-                ia = null;
             } else if (dataType == DataType.BYTE) { //.equals("byte")) {
-                buf.rewind();
-                retVals = new double[readLengthInCells];
-                for (int j = 0; j < readLengthInCells; j++) {
-                    retVals[j] = whitebox.utilities.Unsigned.getUnsignedByte(buf, j); //ba[j]);
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = buf.get(j) & 0xff;
                 }
             }
 
         } catch (IOException e) {
             System.err.println("Caught exception: " + e.toString());
             System.err.println(e.getStackTrace());
-        } finally {
-            if (rIn != null) {
-                try {
-                    rIn.close();
-                } catch (IOException e) {
+        }
+        return retVals;
+    }
+
+    /**
+     * Retrieves an entire row of data as floats. For FLOAT rasters the values
+     * are copied directly from the data file without being widened to doubles.
+     *
+     * @param row An int stating the zero-based row to be returned.
+     * @return An array of floats containing the values stored in the
+     * specified row.
+     */
+    public float[] getFloatRow(int row) {
+        float[] retVals = new float[numberColumns];
+        ByteBuffer buf = readRowBuffer(row);
+        if (buf == null) {
+            Arrays.fill(retVals, (float) noDataValue);
+            return retVals;
+        }
+        switch (dataType) {
+            case DOUBLE:
+                DoubleBuffer db = buf.asDoubleBuffer();
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = (float) db.get(j);
+                }
+                break;
+            case FLOAT:
+                buf.asFloatBuffer().get(retVals);
+                break;
+            case INTEGER:
+                ShortBuffer sb = buf.asShortBuffer();
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = sb.get(j);
+                }
+                break;
+            case BYTE:
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = buf.get(j) & 0xff;
+                }
+                break;
+        }
+        return retVals;
+    }
+
+    /**
+     * Retrieves an entire row of data as shorts. For INTEGER rasters the
+     * values are copied directly from the data file without being widened to
+     * doubles. Values of DOUBLE and FLOAT rasters are truncated.
+     *
+     * @param row An int stating the zero-based row to be returned.
+     * @return An array of shorts containing the values stored in the
+     * specified row.
+     */
+    public short[] getShortRow(int row) {
+        short[] retVals = new short[numberColumns];
+        ByteBuffer buf = readRowBuffer(row);
+        if (buf == null) {
+            Arrays.fill(retVals, (short) noDataValue);
+            return retVals;
+        }
+        switch (dataType) {
+            case DOUBLE:
+                DoubleBuffer db = buf.asDoubleBuffer();
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = (short) db.get(j);
+                }
+                break;
+            case FLOAT:
+                FloatBuffer fb = buf.asFloatBuffer();
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = (short) fb.get(j);
+                }
+                break;
+            case INTEGER:
+                buf.asShortBuffer().get(retVals);
+                break;
+            case BYTE:
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = (short) (buf.get(j) & 0xff);
+                }
+                break;
+        }
+        return retVals;
+    }
+
+    /**
+     * Retrieves an entire row of data as bytes. For BYTE rasters the values
+     * are copied directly from the data file. Notice that Java bytes are
+     * signed; use (value &amp; 0xff) to recover the unsigned cell value.
+     *
+     * @param row An int stating the zero-based row to be returned.
+     * @return An array of bytes containing the values stored in the specified
+     * row.
+     */
+    public byte[] getByteRow(int row) {
+        byte[] retVals = new byte[numberColumns];
+        ByteBuffer buf = readRowBuffer(row);
+        if (buf == null) {
+            Arrays.fill(retVals, (byte) noDataValue);
+            return retVals;
+        }
+        switch (dataType) {
+            case DOUBLE:
+                DoubleBuffer db = buf.asDoubleBuffer();
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = (byte) db.get(j);
                 }
+                break;
+            case FLOAT:
+                FloatBuffer fb = buf.asFloatBuffer();
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = (byte) fb.get(j);
+                }
+                break;
+            case INTEGER:
+                ShortBuffer sb = buf.asShortBuffer();
+                for (int j = 0; j < numberColumns; j++) {
+                    retVals[j] = (byte) sb.get(j);
+                }
+                break;
+            case BYTE:
+                buf.get(retVals);
+                break;
+        }
+        return retVals;
+    }
+
+    /**
+     * Reads the raw bytes of a row from the data file. The returned buffer is
+     * reused by subsequent row reads.
+     *
+     * @param row The zero-based row.
+     * @return A rewound buffer in the file byte order, or null if the row is
+     * outside of the grid or the data file cannot be read.
+     */
+    private ByteBuffer readRowBuffer(int row) {
+        if (row < 0 || row >= numberRows) {
+            return null;
+        }
+        try {
+            if (!isDataFileAvailable()) {
+                return null;
             }
-            return retVals.clone();
+            ByteBuffer buf = getRowBuffer();
+            readFully(buf, (long) row * numberColumns * cellSizeInBytes);
+            buf.rewind();
+            return buf;
+        } catch (IOException e) {
+            System.err.println("Caught exception: " + e.toString());
+            return null;
         }
     }
 
@@ -1223,78 +1338,42 @@ public class WhiteboxRasterBase {
             return retVals;
         }
 
-        RandomAccessFile rIn = null;
-        ByteBuffer buf = null;
-
         try {
 
             // See if the data file exists.
-            File file = new File(dataFile);
-            if (!file.exists()) {
+            if (!isDataFileAvailable()) {
                 return null;
             }
 
-            rIn = new RandomAccessFile(dataFile, "r");
-
-            buf = ByteBuffer.allocate((int) (cellSizeInBytes));
-            FileChannel inChannel = rIn.getChannel();
-
-            long pos;
-
-            // Check the byte order.
+            ByteBuffer buf = ByteBuffer.allocateDirect(cellSizeInBytes);
             buf.order(byteOrder);
 
-            switch (dataType) {
-                case DOUBLE:
-                    for (int i = 0; i < numberRows; i++) {
-                        pos = i * cellSizeInBytes * numberColumns + cellSizeInBytes * col;
-                        inChannel.read(buf, pos);
-                        buf.rewind();
-                        DoubleBuffer db = buf.asDoubleBuffer();
-                        retVals[i] = db.get(0);
-                    }
-                    break;
-                case FLOAT:
-                    for (int i = 0; i < numberRows; i++) {
-                        pos = i * cellSizeInBytes * numberColumns + cellSizeInBytes * col;
-                        inChannel.read(buf, pos);
-                        buf.rewind();
-                        FloatBuffer fb = buf.asFloatBuffer();
-                        retVals[i] = (double) fb.get(0);
-                    }
-                    break;
-                case INTEGER:
-                    for (int i = 0; i < numberRows; i++) {
-                        pos = i * cellSizeInBytes * numberColumns + cellSizeInBytes * col;
-                        inChannel.read(buf, pos);
-                        buf.rewind();
-                        ShortBuffer sb = buf.asShortBuffer();
-                        retVals[i] = (double) sb.get(0);
-                    }
-                    break;
-                case BYTE:
-                    for (int i = 0; i < numberRows; i++) {
-                        pos = i * cellSizeInBytes * numberColumns + cellSizeInBytes * col;
-                        inChannel.position(pos);
-                        inChannel.read(buf);
-                        buf.rewind();
-                        retVals[i] = whitebox.utilities.Unsigned.getUnsignedByte(buf, 0);
-                    }
-                    break;
+            long pos;
+            for (int i = 0; i < numberRows; i++) {
+                pos = ((long) i * numberColumns + col) * cellSizeInBytes;
+                buf.clear();
+                readFully(buf, pos);
+                switch (dataType) {
+                    case DOUBLE:
+                        retVals[i] = buf.getDouble(0);
+                        break;
+                    case FLOAT:
+                        retVals[i] = buf.getFloat(0);
+                        break;
+                    case INTEGER:
+                        retVals[i] = buf.getShort(0);
+                        break;
+                    case BYTE:
+                        retVals[i] = buf.get(0) & 0xff;
+                        break;
+                }
             }
 
         } catch (Exception e) {
             System.err.println("Caught exception: " + e.toString());
             System.err.println(e.getStackTrace());
-        } finally {
-            if (rIn != null) {
-                try {
-                    rIn.close();
-                } catch (Exception e) {
-                }
-            }
-            return retVals.clone();
         }
+        return retVals;
     }
     
     /**
@@ -1313,87 +1392,45 @@ public class WhiteboxRasterBase {
      */
     public double[] getPixelValues(int stack) {
         double[] retVals = new double[numberRows * numberColumns];
-        
-        RandomAccessFile rIn = null;
-        ByteBuffer buf = null;
 
         try {
 
             // See if the data file exists.
-            File file = new File(dataFile);
-            if (!file.exists()) {
+            if (!isDataFileAvailable()) {
                 return null;
             }
 
-            // what is the starting and ending cell?
-            long startingCell = 0;
-            long endingCell = (long) numberRows * numberColumns - 1;
-            
-            int readLengthInCells = (int) (endingCell - startingCell + 1);
-            buf = ByteBuffer.allocate((int) (readLengthInCells * cellSizeInBytes));
-
-            rIn = new RandomAccessFile(dataFile, "r");
-
-            FileChannel inChannel = rIn.getChannel();
-
-            long numCellsPerStack = numberColumns * numberRows;
-            inChannel.position(startingCell * cellSizeInBytes + (numCellsPerStack * stack));
-            inChannel.read(buf);
-
-            // Check the byte order.
+            int readLengthInCells = numberRows * numberColumns;
+            ByteBuffer buf = ByteBuffer.allocate(readLengthInCells * cellSizeInBytes);
             buf.order(byteOrder);
 
+            long numCellsPerStack = (long) numberColumns * numberRows;
+            readFully(buf, numCellsPerStack * stack);
+            buf.rewind();
+
             if (dataType == DataType.DOUBLE) { //.equals("double")) {
-                buf.rewind();
-                DoubleBuffer db = buf.asDoubleBuffer();
-                retVals = new double[readLengthInCells];
-                db.get(retVals);
-                db = null;
-                buf = null;
+                buf.asDoubleBuffer().get(retVals);
             } else if (dataType == DataType.FLOAT) { //.equals("float")) {
-                buf.rewind();
                 FloatBuffer fb = buf.asFloatBuffer();
-                float[] fa = new float[readLengthInCells];
-                fb.get(fa);
-                fb = null;
-                buf = null;
-                retVals = new double[readLengthInCells];
                 for (int j = 0; j < readLengthInCells; j++) {
-                    retVals[j] = fa[j];
+                    retVals[j] = fb.get(j);
                 }
-                fa = null;
             } else if (dataType == DataType.INTEGER) { //.equals("integer")) {
-                buf.rewind();
                 ShortBuffer ib = buf.asShortBuffer();
-                short[] ia = new short[readLengthInCells];
-                ib.get(ia);
-                ib = null;
-                buf = null;
-                retVals = new double[readLengthInCells];
                 for (int j = 0; j < readLengthInCells; j++) {
-                    retVals[j] = ia[j];
+                    retVals[j] = ib.get(j);
                 }
-                ia = null;
             } else if (dataType == DataType.BYTE) { //.equals("byte")) {
-                buf.rewind();
-                retVals = new double[readLengthInCells];
                 for (int j = 0; j < readLengthInCells; j++) {
-                    retVals[j] = whitebox.utilities.Unsigned.getUnsignedByte(buf, j); //ba[j]);
+                    retVals[j] = buf.get(j) & 0xff;
                 }
             }
 
         } catch (IOException e) {
             System.err.println("Caught exception: " + e.toString());
             System.err.println(e.getStackTrace());
-        } finally {
-            if (rIn != null) {
-                try {
-                    rIn.close();
-                } catch (IOException e) {
-                }
-            }
-            return retVals.clone();
         }
+        return retVals;
     }
 
     /**
@@ -1421,65 +1458,24 @@ public class WhiteboxRasterBase {
             writeHeaderFile();
         }
 
-        RandomAccessFile rOut = null;
-        ByteBuffer buf = null;
-        FileChannel outChannel = null;
         try {
-
-            rOut = new RandomAccessFile(dataFile, "rw");
-            outChannel = rOut.getChannel();
-            long cellNum = (long) (row) * numberColumns + column;
-            outChannel.position(cellNum * cellSizeInBytes);
-            int writeLengthInCells = 1;
-
+            ByteBuffer buf = ByteBuffer.allocate(cellSizeInBytes);
+            buf.order(byteOrder);
             if (dataType == DataType.DOUBLE) {
-                buf = ByteBuffer.allocate(cellSizeInBytes);
-                buf.order(byteOrder);
-                DoubleBuffer db = buf.asDoubleBuffer();
-                db.put(value);
-                db = null;
-                outChannel.write(buf);
+                buf.putDouble(0, value);
             } else if (dataType == DataType.FLOAT) {
-                float fa = (float) value;
-                buf = ByteBuffer.allocateDirect(cellSizeInBytes);
-                buf.order(byteOrder);
-                FloatBuffer fb = buf.asFloatBuffer();
-                fb.put(fa);
-                fb = null;
-                outChannel.write(buf);
+                buf.putFloat(0, (float) value);
             } else if (dataType == DataType.INTEGER) {
-                short ia = (short) value;
-                buf = ByteBuffer.allocate(cellSizeInBytes);
-                buf.order(byteOrder);
-                ShortBuffer ib = buf.asShortBuffer();
-                ib.put(ia);
-                ib = null;
-                outChannel.write(buf);
+                buf.putShort(0, (short) value);
             } else if (dataType == DataType.BYTE) {
-                byte[] ba = {(byte) value};
-                buf = ByteBuffer.wrap(ba);
-                ba = null;
-                outChannel.write(buf);
+                buf.put(0, (byte) value);
             }
+            long cellNum = (long) (row) * numberColumns + column;
+            writeFully(buf, cellNum * cellSizeInBytes);
 
         } catch (Exception e) {
             System.err.println("Caught exception: " + e.toString());
             System.err.println(e.getStackTrace());
-        } finally {
-            buf = null;
-            if (rOut != null) {
-                try {
-                    rOut.close();
-                } catch (Exception e) {
-                }
-            }
-            if (outChannel != null) {
-                try {
-                    outChannel.force(false);
-                    outChannel.close();
-                } catch (Exception e) {
-                }
-            }
         }
     }
 
@@ -1493,6 +1489,7 @@ public class WhiteboxRasterBase {
         double min = Double.MAX_VALUE;
         double max = -Double.MAX_VALUE;
         double z;
+        boolean wasOpen = isDataChannelOpen();
         for (int stack = 0; stack < numberStacks; stack++) {
             for (int row = 0; row < numberRows; row++) {
                 data = getRowValues(row, stack);
@@ -1509,6 +1506,10 @@ public class WhiteboxRasterBase {
                 }
             }
         }
+        if (!wasOpen) {
+            // don't hold on to a file that was only opened for this scan.
+            closeDataChannel();
+        }
         maximumValue = max;
         minimumValue = min;
     }
@@ -1681,6 +1682,7 @@ public class WhiteboxRasterBase {
         binWidth = 0;
         int binNum = 0;
         int numberOfBins = 0;
+        boolean wasOpen = isDataChannelOpen();
 
         if (dataScale != DataScale.RGB) { //DATA_SCALE_RGB) {
 
@@ -1744,6 +1746,10 @@ public class WhiteboxRasterBase {
                 }
             }
 
+            if (!wasOpen) {
+                closeDataChannel();
+            }
+
             stdDeviation = Math.sqrt(imageTotalDeviation / (n - 1));
 
             long highestVal = 0;
@@ -1888,5 +1894,163 @@ public class WhiteboxRasterBase {
                 writeHeaderFile();
             }
         }
+        closeDataChannel();
+    }
+
+    // ***********************************
+    // Data file access
+    // ***********************************
+    private RandomAccessFile dataFileAccess = null;
+    private FileChannel dataChannel = null;
+    private boolean dataChannelWritable = false;
+    private ByteBuffer rowBuffer = null;
+    protected long numberOfDataFileOpens = 0;
+    protected long numberOfBytesRead = 0;
+    protected long numberOfBytesWritten = 0;
+
+    /**
+     * The number of times that the data file (.tas) has been opened by this
+     * object. The data file is kept open between reads and writes and is
+     * only released when the object is closed.
+     *
+     * @return long stating the number of times the file was opened.
+     */
+    public long getNumberOfDataFileOpens() {
+        return numberOfDataFileOpens;
+    }
+
+    /**
+     * The number of bytes that have been read from the data file (.tas).
+     *
+     * @return long stating the number of bytes read.
+     */
+    public long getNumberOfBytesRead() {
+        return numberOfBytesRead;
+    }
+
+    /**
+     * The number of bytes that have been written to the data file (.tas).
+     *
+     * @return long stating the number of bytes written.
+     */
+    public long getNumberOfBytesWritten() {
+        return numberOfBytesWritten;
+    }
+
+    /**
+     * Returns the channel of the data file, opening the file if necessary.
+     * The same channel is reused for the lifetime of the object.
+     *
+     * @param forWriting Set to true if the channel will be written to. A
+     * channel opened only for reading is reopened for read/write access.
+     * @return The data file channel.
+     * @throws IOException
+     */
+    protected FileChannel getDataChannel(boolean forWriting) throws IOException {
+        if (dataChannel != null && dataChannel.isOpen()
+                && (dataChannelWritable || !forWriting)) {
+            return dataChannel;
+        }
+        closeDataChannel();
+        dataFileAccess = new RandomAccessFile(dataFile, forWriting ? "rw" : "r");
+        dataChannel = dataFileAccess.getChannel();
+        dataChannelWritable = forWriting;
+        numberOfDataFileOpens++;
+        return dataChannel;
+    }
+
+    protected boolean isDataChannelOpen() {
+        return dataChannel != null && dataChannel.isOpen();
+    }
+
+    /**
+     * Releases the data file. Any writes are forced to the storage device.
+     */
+    protected void closeDataChannel() {
+        if (dataChannel != null) {
+            try {
+                if (dataChannelWritable && dataChannel.isOpen()) {
+                    dataChannel.force(false);
+                }
+                dataChannel.close();
+            } catch (IOException e) {
+            }
+        }
+        if (dataFileAccess != null) {
+            try {
+                dataFileAccess.close();
+            } catch (IOException e) {
+            }
+        }
+        dataChannel = null;
+        dataFileAccess = null;
+        dataChannelWritable = false;
+        // the direct row buffer is only needed while the file is open.
+        rowBuffer = null;
+    }
+
+    protected boolean isDataFileAvailable() {
+        return isDataChannelOpen() || new File(dataFile).exists();
+    }
+
+    /**
+     * Returns a reusable direct buffer large enough to hold one row, cleared
+     * and set to the file byte order.
+     *
+     * @return ByteBuffer
+     */
+    protected ByteBuffer getRowBuffer() {
+        int size = numberColumns * cellSizeInBytes;
+        if (rowBuffer == null || rowBuffer.capacity() != size) {
+            rowBuffer = ByteBuffer.allocateDirect(size);
+        }
+        rowBuffer.clear();
+        rowBuffer.order(byteOrder);
+        return rowBuffer;
+    }
+
+    /**
+     * Fills the remaining space of a buffer from the data file using
+     * positional reads, i.e. without moving the channel's file position.
+     *
+     * @param buf The buffer to fill.
+     * @param position The file position of the first byte.
+     * @return The number of bytes read.
+     * @throws IOException
+     */
+    protected int readFully(ByteBuffer buf, long position) throws IOException {
+        FileChannel channel = getDataChannel(false);
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + total);
+            if (n < 0) {
+                // past the end of the file; the buffer may be reused, so
+                // don't leave stale data in it.
+                while (buf.hasRemaining()) {
+                    buf.put((byte) 0);
+                }
+                break;
+            }
+            total += n;
+        }
+        numberOfBytesRead += total;
+        return total;
+    }
+
+    /**
+     * Writes the remaining contents of a buffer to the data file using
+     * positional writes.
+     *
+     * @param buf The buffer to write.
+     * @param position The file position of the first byte.
+     * @throws IOException
+     */
+    protected void writeFully(ByteBuffer buf, long position) throws IOException {
+        FileChannel channel = getDataChannel(true);
+        int total = 0;
+        while (buf.hasRemaining()) {
+            total += channel.write(buf, position + total);
+        }
+        numberOfBytesWritten += total;
     }
 }
@@ -24,6 +24,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 import static whitebox.geospatialfiles.shapefile.attributes.AttributeTable.SIG_DBASE_III;
@@ -460,334 +461,20 @@ public class AttributeTable {
             return null;
         }
 
-        Object recordObjects[] = new Object[this.fieldArray.length];
-
-        RandomAccessFile rIn = null;
-        ByteBuffer buf;
-        FileChannel inChannel = null;
-
-        try {
-            buf = ByteBuffer.allocate(this.recordLength);
-
-            rIn = new RandomAccessFile(this.fileName, "r");
-
-            inChannel = rIn.getChannel();
-
-            int pos = (32 + (32 * this.fieldArray.length)) + 1 + recNum * this.recordLength;
-            inChannel.position(pos);
-            inChannel.read(buf);
-
-            buf.order(ByteOrder.LITTLE_ENDIAN);
-            buf.rewind();
-
-            if (buf.get() == END_OF_DATA) {
-                return null;
-            } // record has been deleted
-
-            for (int i = 0; i < this.fieldArray.length; i++) {
-
-                switch (this.fieldArray[i].getDataType()) {
-
-                    case STRING:
-
-                        byte b_array[] = new byte[this.fieldArray[i].getFieldLength()];
-                        //dataInputStream.read(b_array);
-                        buf.get(b_array);
-                        String str = new String(b_array, characterSetName);
-                        recordObjects[i] = str.trim();
-                        break;
-
-                    case DATE:
-
-                        byte t_byte_year[] = new byte[4];
-                        //dataInputStream.read(t_byte_year);
-                        buf.get(t_byte_year);
-
-                        byte t_byte_month[] = new byte[2];
-                        //dataInputStream.read(t_byte_month);
-                        buf.get(t_byte_month);
-
-                        byte t_byte_day[] = new byte[2];
-                        //dataInputStream.read(t_byte_day);
-                        buf.get(t_byte_day);
-
-                        try {
-
-                            GregorianCalendar calendar = new GregorianCalendar(
-                                    Integer.parseInt(new String(t_byte_year)),
-                                    Integer.parseInt(new String(t_byte_month)) - 1,
-                                    Integer.parseInt(new String(t_byte_day)));
-
-                            recordObjects[i] = calendar.getTime();
-                        } catch (NumberFormatException e) {
-                            /*
-                             * this field may be empty or may have improper
-                             * value set
-                             */
-                            recordObjects[i] = null;
-                        }
-
-                        break;
-
-                    case FLOAT:
-
-                        try {
-
-                            byte t_float[] = new byte[this.fieldArray[i].getFieldLength()];
-                            //dataInputStream.read(t_float);
-                            buf.get(t_float);
-
-                            t_float = Utils.trimLeftSpaces(t_float);
-                            if (t_float.length > 0 && !Utils.contains(t_float, (byte) '?')) {
-
-                                recordObjects[i] = new Double(new String(t_float)); //Float(new String(t_float));
-                            } else {
-
-                                recordObjects[i] = null;
-                            }
-                        } catch (NumberFormatException e) {
-
-                            throw new DBFException("Failed to parse Float: " + e.getMessage());
-                        }
-
-                        break;
-
-                    case NUMERIC:
-
-                        try {
-
-                            byte t_numeric[] = new byte[this.fieldArray[i].getFieldLength()];
-                            //dataInputStream.read(t_numeric);
-                            buf.get(t_numeric);
-
-                            t_numeric = Utils.trimLeftSpaces(t_numeric);
-
-                            if (t_numeric.length > 0 && !Utils.contains(t_numeric, (byte) '?')) {
-
-                                recordObjects[i] = new Double(new String(t_numeric));
-                            } else {
-
-                                recordObjects[i] = null;
-                            }
-                        } catch (NumberFormatException e) {
-
-                            throw new DBFException("Failed to parse Number: " + e.getMessage());
-                        }
-
-                        break;
-
-                    case BOOLEAN:
-
-                        byte t_logical = buf.get();
-                        if (t_logical == 'Y' || t_logical == 't' || t_logical == 'T' || t_logical == 't') {
-
-                            recordObjects[i] = Boolean.TRUE;
-                        } else {
-
-                            recordObjects[i] = Boolean.FALSE;
-                        }
-                        break;
-
-                    case MEMO:
-                        // TODO Later
-                        recordObjects[i] = "null";
-                        break;
-
-                    default:
-                        recordObjects[i] = "null";
-                }
-            }
-        } catch (EOFException e) {
+        Object[] recordObjects = readRecord(recNum);
+        if (recordObjects == null) {
             return null;
-        } catch (IOException e) {
-            throw new DBFException(e.getMessage());
-        } finally {
-            if (rIn != null) {
-                try {
-                    rIn.close();
-                } catch (Exception e) {
-                }
-            }
-            if (inChannel != null) {
-                try {
-                    inChannel.close();
-                } catch (Exception e) {
-                }
-            }
         }
-
-        return recordObjects[fieldNum];
+        Object value = recordObjects[fieldNum];
+        if (value instanceof String) {
+            return ((String) value).trim();
+        }
+        return value;
     }
 
     public Object getValue(int recNum, String fieldName) throws DBFException {
-        currentRecord = recNum;
-
         int fieldNum = fieldMap.get(fieldName);
-
-        if (currentRecord < 0) {
-            throw new DBFException("Record number is out of bounds.");
-        }
-        if (currentRecord >= this.numberOfRecords) {
-            return null;
-        }
-
-        Object recordObjects[] = new Object[this.fieldArray.length];
-
-        RandomAccessFile rIn = null;
-        ByteBuffer buf;
-        FileChannel inChannel = null;
-
-        try {
-            buf = ByteBuffer.allocate(this.recordLength);
-
-            rIn = new RandomAccessFile(this.fileName, "r");
-
-            inChannel = rIn.getChannel();
-
-            int pos = (32 + (32 * this.fieldArray.length)) + 1 + recNum * this.recordLength;
-            inChannel.position(pos);
-            inChannel.read(buf);
-
-            buf.order(ByteOrder.LITTLE_ENDIAN);
-            buf.rewind();
-
-            if (buf.get() == END_OF_DATA) {
-                return null;
-            } // record has been deleted
-
-            for (int i = 0; i < this.fieldArray.length; i++) {
-
-                switch (this.fieldArray[i].getDataType()) {
-
-                    case STRING:
-
-                        byte b_array[] = new byte[this.fieldArray[i].getFieldLength()];
-                        //dataInputStream.read(b_array);
-                        buf.get(b_array);
-                        String str = new String(b_array, characterSetName);
-                        recordObjects[i] = str.trim();
-                        break;
-
-                    case DATE:
-
-                        byte t_byte_year[] = new byte[4];
-                        //dataInputStream.read(t_byte_year);
-                        buf.get(t_byte_year);
-
-                        byte t_byte_month[] = new byte[2];
-                        //dataInputStream.read(t_byte_month);
-                        buf.get(t_byte_month);
-
-                        byte t_byte_day[] = new byte[2];
-                        //dataInputStream.read(t_byte_day);
-                        buf.get(t_byte_day);
-
-                        try {
-
-                            GregorianCalendar calendar = new GregorianCalendar(
-                                    Integer.parseInt(new String(t_byte_year)),
-                                    Integer.parseInt(new String(t_byte_month)) - 1,
-                                    Integer.parseInt(new String(t_byte_day)));
-
-                            recordObjects[i] = calendar.getTime();
-                        } catch (NumberFormatException e) {
-                            /*
-                             * this field may be empty or may have improper
-                             * value set
-                             */
-                            recordObjects[i] = null;
-                        }
-
-                        break;
-
-                    case FLOAT:
-
-                        try {
-
-                            byte t_float[] = new byte[this.fieldArray[i].getFieldLength()];
-                            //dataInputStream.read(t_float);
-                            buf.get(t_float);
-
-                            t_float = Utils.trimLeftSpaces(t_float);
-                            if (t_float.length > 0 && !Utils.contains(t_float, (byte) '?')) {
-
-                                recordObjects[i] = new Double(new String(t_float)); //Float(new String(t_float));
-                            } else {
-
-                                recordObjects[i] = null;
-                            }
-                        } catch (NumberFormatException e) {
-
-                            throw new DBFException("Failed to parse Float: " + e.getMessage());
-                        }
-
-                        break;
-
-                    case NUMERIC:
-
-                        try {
-
-                            byte t_numeric[] = new byte[this.fieldArray[i].getFieldLength()];
-                            //dataInputStream.read(t_numeric);
-                            buf.get(t_numeric);
-
-                            t_numeric = Utils.trimLeftSpaces(t_numeric);
-
-                            if (t_numeric.length > 0 && !Utils.contains(t_numeric, (byte) '?')) {
-
-                                recordObjects[i] = new Double(new String(t_numeric));
-                            } else {
-
-                                recordObjects[i] = null;
-                            }
-                        } catch (NumberFormatException e) {
-
-                            throw new DBFException("Failed to parse Number: " + e.getMessage());
-                        }
-
-                        break;
-
-                    case BOOLEAN:
-
-                        byte t_logical = buf.get();
-                        if (t_logical == 'Y' || t_logical == 't' || t_logical == 'T' || t_logical == 't') {
-
-                            recordObjects[i] = Boolean.TRUE;
-                        } else {
-
-                            recordObjects[i] = Boolean.FALSE;
-                        }
-                        break;
-
-                    case MEMO:
-                        // TODO Later
-                        recordObjects[i] = "null";
-                        break;
-
-                    default:
-                        recordObjects[i] = "null";
-                }
-            }
-        } catch (EOFException e) {
-            return null;
-        } catch (IOException e) {
-            throw new DBFException(e.getMessage());
-        } finally {
-            if (rIn != null) {
-                try {
-                    rIn.close();
-                } catch (Exception e) {
-                }
-            }
-            if (inChannel != null) {
-                try {
-                    inChannel.close();
-                } catch (Exception e) {
-                }
-            }
-        }
-
-        return recordObjects[fieldNum];
+        return getValue(recNum, fieldNum);
     }
 
     public void setValue(int recordNumber, int fieldNum, Object data) throws DBFException {
@@ -833,164 +520,9 @@ public class AttributeTable {
             return null;
         }
 
-        Object recordObjects[] = new Object[this.fieldArray.length];
-
-        RandomAccessFile rIn = null;
-        ByteBuffer buf;
-        FileChannel inChannel = null;
-
-        try {
-            buf = ByteBuffer.allocate(this.recordLength);
-
-            rIn = new RandomAccessFile(this.fileName, "r");
-
-            inChannel = rIn.getChannel();
-
-            int pos = (32 + (32 * this.fieldArray.length)) + 1 + n * this.recordLength;
-            inChannel.position(pos);
-            inChannel.read(buf);
-
-            buf.order(ByteOrder.LITTLE_ENDIAN);
-            buf.rewind();
-
-            if (buf.get() == END_OF_DATA) {
-                return null;
-            } // record has been deleted
-
-            for (int i = 0; i < this.fieldArray.length; i++) {
-
-                switch (this.fieldArray[i].getDataType()) {
-
-                    case STRING:
-
-                        byte b_array[] = new byte[this.fieldArray[i].getFieldLength()];
-                        //dataInputStream.read(b_array);
-                        buf.get(b_array);
-                        recordObjects[i] = new String(b_array, characterSetName);
-                        break;
-
-                    case DATE:
-
-                        byte t_byte_year[] = new byte[4];
-                        //dataInputStream.read(t_byte_year);
-                        buf.get(t_byte_year);
-
-                        byte t_byte_month[] = new byte[2];
-                        //dataInputStream.read(t_byte_month);
-                        buf.get(t_byte_month);
-
-                        byte t_byte_day[] = new byte[2];
-                        //dataInputStream.read(t_byte_day);
-                        buf.get(t_byte_day);
-
-                        try {
-
-                            GregorianCalendar calendar = new GregorianCalendar(
-                                    Integer.parseInt(new String(t_byte_year)),
-                                    Integer.parseInt(new String(t_byte_month)) - 1,
-                                    Integer.parseInt(new String(t_byte_day)));
-
-                            recordObjects[i] = calendar.getTime();
-                        } catch (NumberFormatException e) {
-                            /*
-                             * this field may be empty or may have improper
-                             * value set
-                             */
-                            recordObjects[i] = null;
-                        }
-
-                        break;
-
-                    case FLOAT:
-
-                        try {
-
-                            byte t_float[] = new byte[this.fieldArray[i].getFieldLength()];
-                            //dataInputStream.read(t_float);
-                            buf.get(t_float);
-
-                            t_float = Utils.trimLeftSpaces(t_float);
-                            if (t_float.length > 0 && !Utils.contains(t_float, (byte) '?') 
-                                    && !Utils.contains(t_float, (byte) '*')) {
-
-                                recordObjects[i] = new Double(new String(t_float)); //Float(new String(t_float));
-                            } else {
-
-                                recordObjects[i] = null;
-                            }
-                        } catch (NumberFormatException e) {
-
-                            throw new DBFException("Failed to parse Float: " + e.getMessage());
-                        }
-
-                        break;
-
-                    case NUMERIC:
-
-                        try {
-
-                            byte t_numeric[] = new byte[this.fieldArray[i].getFieldLength()];
-                            //dataInputStream.read(t_numeric);
-                            buf.get(t_numeric);
-
-                            t_numeric = Utils.trimLeftSpaces(t_numeric);
-
-                            if (t_numeric.length > 0 && !Utils.contains(t_numeric, (byte) '?') 
-                                    && !Utils.contains(t_numeric, (byte) '*')) {
-
-                                recordObjects[i] = new Double(new String(t_numeric));
-                            } else {
-
-                                recordObjects[i] = null;
-                            }
-                        } catch (NumberFormatException e) {
-
-                            throw new DBFException("Failed to parse Number: " + e.getMessage());
-                        }
-
-                        break;
-
-                    case BOOLEAN:
-
-                        byte t_logical = buf.get();
-                        if (t_logical == 'Y' || t_logical == 't' || t_logical == 'T' || t_logical == 't') {
-
-                            recordObjects[i] = Boolean.TRUE;
-                        } else {
-
-                            recordObjects[i] = Boolean.FALSE;
-                        }
-                        break;
-
-                    case MEMO:
-                        // TODO Later
-                        recordObjects[i] = "null";
-                        break;
-
-                    default:
-                        recordObjects[i] = "null";
-                }
-            }
-        } catch (EOFException e) {
-            return null;
-        } catch (IOException e) {
-            throw new DBFException(e.getMessage());
-        } finally {
-            if (rIn != null) {
-                try {
-                    rIn.close();
-                } catch (Exception e) {
-                }
-            }
-            if (inChannel != null) {
-                try {
-                    inChannel.close();
-                } catch (Exception e) {
-                }
-            }
-        }
-
-        return recordObjects;
+        Object[] recordObjects = readRecord(n);
+        // the caller may modify the returned array, but not the cached one
+        return recordObjects == null ? null : recordObjects.clone();
     }
 
     /**
@@ -1017,169 +549,392 @@ public class AttributeTable {
         int numRecsRead = endingRecord - startingRecord + 1;
 
         Object returnRecords[] = new Object[numRecsRead];
+        Object[][] rows = new Object[numRecsRead][];
+        if (getRecords(startingRecord, rows) < numRecsRead) {
+            return null;
+        }
+        for (int n = 0; n < numRecsRead; n++) {
+            if (rows[n] == null) {
+                return null;
+            } // record has been deleted
+            returnRecords[n] = rows[n];
+        }
 
-        RandomAccessFile rIn = null;
-        ByteBuffer buf;
-        FileChannel inChannel = null;
-
-        try {
-            int numBytesToRead = this.recordLength * numRecsRead;
-
-            buf = ByteBuffer.allocate(numBytesToRead);
-
-            rIn = new RandomAccessFile(this.fileName, "r");
-
-            inChannel = rIn.getChannel();
-
-            int pos = (32 + (32 * this.fieldArray.length)) + 1 + startingRecord * this.recordLength;
-            inChannel.position(pos);
-            inChannel.read(buf);
-
-            buf.order(ByteOrder.LITTLE_ENDIAN);
-            buf.rewind();
-
-            for (int n = startingRecord; n <= endingRecord; n++) {
-
-                if (buf.get() == END_OF_DATA) {
-                    return null;
-                } // record has been deleted
-
-                Object recordObjects[] = new Object[this.fieldArray.length];
-
-                for (int i = 0; i < this.fieldArray.length; i++) {
-
-                    switch (this.fieldArray[i].getDataType()) {
-
-                        case STRING:
-
-                            byte b_array[] = new byte[this.fieldArray[i].getFieldLength()];
-                            //dataInputStream.read(b_array);
-                            buf.get(b_array);
-                            recordObjects[i] = new String(b_array, characterSetName);
-                            break;
-
-                        case DATE:
-
-                            byte t_byte_year[] = new byte[4];
-                            //dataInputStream.read(t_byte_year);
-                            buf.get(t_byte_year);
-
-                            byte t_byte_month[] = new byte[2];
-                            //dataInputStream.read(t_byte_month);
-                            buf.get(t_byte_month);
-
-                            byte t_byte_day[] = new byte[2];
-                            //dataInputStream.read(t_byte_day);
-                            buf.get(t_byte_day);
+        return returnRecords;
+    }
 
-                            try {
+    /**
+     * Reads a batch of consecutive records into an array of rows. The row
+     * arrays that are already in the array, and have the right length, are
+     * reused, so that a table can be read in batches without allocating a
+     * new array for each record. The record data are read from the file in
+     * blocks of records rather than one record at a time.
+     *
+     * @param startingRecord the first record read (zero-based).
+     * @param rows the array into which the records are read; rows.length
+     * records are read, or fewer at the end of the table. The row of a
+     * deleted record is set to null.
+     * @return the number of records read.
+     * @throws DBFException
+     */
+    public synchronized int getRecords(int startingRecord, Object[][] rows) throws DBFException {
+        if (startingRecord < 0) {
+            throw new DBFException("Record number is out of bounds.");
+        }
+        int numRecsRead = Math.max(0, Math.min(rows.length, this.numberOfRecords - startingRecord));
+        for (int n = 0; n < numRecsRead; n++) {
+            int offset = getRecordOffset(startingRecord + n);
+            if (offset < 0 || recordBlock[offset] == END_OF_DATA) {
+                rows[n] = null;
+                continue;
+            }
+            if (rows[n] == null || rows[n].length != this.fieldArray.length) {
+                rows[n] = new Object[this.fieldArray.length];
+            }
+            decodeRecord(recordBlock, offset, rows[n]);
+        }
+        currentRecord = startingRecord + numRecsRead - 1;
+        return numRecsRead;
+    }
 
-                                GregorianCalendar calendar = new GregorianCalendar(
-                                        Integer.parseInt(new String(t_byte_year)),
-                                        Integer.parseInt(new String(t_byte_month)) - 1,
-                                        Integer.parseInt(new String(t_byte_day)));
+    /**
+     * Reads the values of a numeric field for every record in the table, in
+     * one sequential pass over the file. The values are parsed directly from
+     * the record bytes, without creating an object for each one.
+     *
+     * @param fieldNum the field number (zero-based).
+     * @return the values of the field, with NaN for null values and deleted
+     * records.
+     * @throws DBFException if the field is not a NUMERIC or FLOAT field, or
+     * if a value cannot be parsed.
+     */
+    public double[] getNumericColumn(int fieldNum) throws DBFException {
+        DBFField field = this.fieldArray[fieldNum];
+        if (field.getDataType() != NUMERIC && field.getDataType() != FLOAT) {
+            throw new DBFException("Field " + field.getName() + " is not numeric.");
+        }
+        int fieldOffset = getFieldOffset(fieldNum);
+        int fieldLength = field.getFieldLength();
+        double[] values = new double[this.numberOfRecords];
+        byte[] block = new byte[getBlockSize(COLUMN_BLOCK_SIZE)];
+        int recordsPerBlock = block.length / this.recordLength;
+        try (RandomAccessFile raf = new RandomAccessFile(this.fileName, "r")) {
+            for (int start = 0; start < this.numberOfRecords; start += recordsPerBlock) {
+                int n = readRecordBlock(raf, start, recordsPerBlock, block);
+                for (int r = 0; r < recordsPerBlock && start + r < this.numberOfRecords; r++) {
+                    int offset = r * this.recordLength;
+                    if (r >= n || block[offset] == END_OF_DATA) {
+                        values[start + r] = Double.NaN;
+                    } else {
+                        values[start + r] = parseNumber(block, offset + fieldOffset, fieldLength);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new DBFException(e.getMessage());
+        }
+        return values;
+    }
 
-                                recordObjects[i] = calendar.getTime();
-                            } catch (NumberFormatException e) {
-                                /*
-                                 * this field may be empty or may have improper
-                                 * value set
-                                 */
-                                recordObjects[i] = null;
-                            }
+    public double[] getNumericColumn(String fieldName) throws DBFException {
+        int fieldNum = getFieldColumnNumberFromName(fieldName);
+        if (fieldNum == -1) {
+            throw new DBFException("Field name not found.");
+        }
+        return getNumericColumn(fieldNum);
+    }
 
-                            break;
+    /**
+     * Reads the values of a field for every record in the table, in one
+     * sequential pass over the file. The values are the same as those
+     * returned by getValue.
+     *
+     * @param fieldNum the field number (zero-based).
+     * @return the values of the field, with null for deleted records.
+     * @throws DBFException
+     */
+    public Object[] getColumn(int fieldNum) throws DBFException {
+        int fieldOffset = getFieldOffset(fieldNum);
+        Object[] values = new Object[this.numberOfRecords];
+        byte[] block = new byte[getBlockSize(COLUMN_BLOCK_SIZE)];
+        int recordsPerBlock = block.length / this.recordLength;
+        try (RandomAccessFile raf = new RandomAccessFile(this.fileName, "r")) {
+            for (int start = 0; start < this.numberOfRecords; start += recordsPerBlock) {
+                int n = readRecordBlock(raf, start, recordsPerBlock, block);
+                for (int r = 0; r < n; r++) {
+                    int offset = r * this.recordLength;
+                    if (block[offset] != END_OF_DATA) {
+                        Object value = decodeField(this.fieldArray[fieldNum], block, offset + fieldOffset);
+                        if (value instanceof String) {
+                            value = ((String) value).trim();
+                        }
+                        values[start + r] = value;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new DBFException(e.getMessage());
+        }
+        return values;
+    }
 
-                        case FLOAT:
+    public Object[] getColumn(String fieldName) throws DBFException {
+        int fieldNum = getFieldColumnNumberFromName(fieldName);
+        if (fieldNum == -1) {
+            throw new DBFException("Field name not found.");
+        }
+        return getColumn(fieldNum);
+    }
 
-                            try {
+    private static final int RECORD_BLOCK_SIZE = 1 << 16;
+    private static final int COLUMN_BLOCK_SIZE = 1 << 20;
+    private static final int ROW_CACHE_SIZE = 64;
+    private static final double[] POWERS_OF_TEN = new double[23];
 
-                                byte t_float[] = new byte[this.fieldArray[i].getFieldLength()];
-                                //dataInputStream.read(t_float);
-                                buf.get(t_float);
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
 
-                                t_float = Utils.trimLeftSpaces(t_float);
-                                if (t_float.length > 0 && !Utils.contains(t_float, (byte) '?')) {
+    // A block of consecutive records read from the file. The file is not
+    // held open, or memory-mapped, between reads because addField and
+    // deleteField replace it, which some platforms won't allow while it is
+    // open or mapped.
+    private byte[] recordBlock;
+    private int recordBlockStart = -1;
+    private int recordBlockCount = 0;
+    // the most recently decoded rows, indexed by record number modulo the
+    // cache size
+    private final int[] cachedRowNumbers = new int[ROW_CACHE_SIZE];
+    private final Object[][] cachedRows = new Object[ROW_CACHE_SIZE][];
+
+    {
+        Arrays.fill(cachedRowNumbers, -1);
+    }
 
-                                    recordObjects[i] = new Float(new String(t_float));
-                                } else {
+    /**
+     * Discards the record data read from the file. It must be called whenever
+     * the file is modified.
+     */
+    private synchronized void invalidateReadCache() {
+        recordBlockStart = -1;
+        recordBlockCount = 0;
+        Arrays.fill(cachedRowNumbers, -1);
+        Arrays.fill(cachedRows, null);
+    }
 
-                                    recordObjects[i] = null;
-                                }
-                            } catch (NumberFormatException e) {
+    private int getBlockSize(int targetSize) {
+        return Math.max(1, targetSize / this.recordLength) * this.recordLength;
+    }
 
-                                throw new DBFException("Failed to parse Float: " + e.getMessage());
-                            }
+    private long getRecordPosition(int recNum) {
+        return (32 + (32 * this.fieldArray.length)) + 1 + (long) recNum * this.recordLength;
+    }
 
-                            break;
+    private int getFieldOffset(int fieldNum) {
+        int offset = 1; // the deletion flag
+        for (int i = 0; i < fieldNum; i++) {
+            offset += this.fieldArray[i].getFieldLength();
+        }
+        return offset;
+    }
 
-                        case NUMERIC:
+    /**
+     * Reads up to count whole records, beginning with record start, into
+     * block.
+     *
+     * @return the number of records read.
+     */
+    private int readRecordBlock(RandomAccessFile raf, int start, int count, byte[] block) throws IOException {
+        FileChannel channel = raf.getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(block, 0, count * this.recordLength);
+        long pos = getRecordPosition(start);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+            pos += n;
+        }
+        return buf.position() / this.recordLength;
+    }
 
-                            try {
+    /**
+     * Finds a record in the record block, reading the block of records that
+     * begins with it if it is not already there.
+     *
+     * @return the offset of the record within recordBlock, or -1 if the
+     * record is beyond the end of the file.
+     */
+    private int getRecordOffset(int recNum) throws DBFException {
+        if (recNum < recordBlockStart || recNum >= recordBlockStart + recordBlockCount) {
+            int blockSize = getBlockSize(RECORD_BLOCK_SIZE);
+            if (recordBlock == null || recordBlock.length != blockSize) {
+                recordBlock = new byte[blockSize];
+            }
+            int count = Math.min(blockSize / this.recordLength, this.numberOfRecords - recNum);
+            try (RandomAccessFile raf = new RandomAccessFile(this.fileName, "r")) {
+                recordBlockCount = readRecordBlock(raf, recNum, count, recordBlock);
+                recordBlockStart = recNum;
+            } catch (IOException e) {
+                recordBlockStart = -1;
+                recordBlockCount = 0;
+                throw new DBFException(e.getMessage());
+            }
+            if (recordBlockCount == 0) {
+                return -1;
+            }
+        }
+        return (recNum - recordBlockStart) * this.recordLength;
+    }
 
-                                byte t_numeric[] = new byte[this.fieldArray[i].getFieldLength()];
-                                //dataInputStream.read(t_numeric);
-                                buf.get(t_numeric);
+    /**
+     * Returns the decoded record, from the row cache if it is there. The
+     * returned array is shared and must not be modified.
+     *
+     * @return the record, or null if it has been deleted.
+     */
+    private synchronized Object[] readRecord(int recNum) throws DBFException {
+        int slot = recNum % ROW_CACHE_SIZE;
+        if (cachedRowNumbers[slot] == recNum) {
+            return cachedRows[slot];
+        }
+        int offset = getRecordOffset(recNum);
+        if (offset < 0 || recordBlock[offset] == END_OF_DATA) {
+            return null;
+        } // record has been deleted
+        Object[] recordObjects = new Object[this.fieldArray.length];
+        decodeRecord(recordBlock, offset, recordObjects);
+        cachedRowNumbers[slot] = recNum;
+        cachedRows[slot] = recordObjects;
+        return recordObjects;
+    }
 
-                                t_numeric = Utils.trimLeftSpaces(t_numeric);
+    private void decodeRecord(byte[] data, int offset, Object[] recordObjects) throws DBFException {
+        int pos = offset + 1;
+        for (int i = 0; i < this.fieldArray.length; i++) {
+            recordObjects[i] = decodeField(this.fieldArray[i], data, pos);
+            pos += this.fieldArray[i].getFieldLength();
+        }
+    }
 
-                                if (t_numeric.length > 0 && !Utils.contains(t_numeric, (byte) '?')) {
+    private Object decodeField(DBFField field, byte[] data, int pos) throws DBFException {
+        switch (field.getDataType()) {
 
-                                    recordObjects[i] = new Double(new String(t_numeric));
-                                } else {
+            case STRING:
+                try {
+                    return new String(data, pos, field.getFieldLength(), characterSetName);
+                } catch (UnsupportedEncodingException e) {
+                    throw new DBFException(e.getMessage());
+                }
 
-                                    recordObjects[i] = null;
-                                }
-                            } catch (NumberFormatException e) {
+            case DATE:
+                try {
+                    GregorianCalendar calendar = new GregorianCalendar(
+                            Integer.parseInt(new String(data, pos, 4)),
+                            Integer.parseInt(new String(data, pos + 4, 2)) - 1,
+                            Integer.parseInt(new String(data, pos + 6, 2)));
+
+                    return calendar.getTime();
+                } catch (NumberFormatException e) {
+                    /*
+                     * this field may be empty or may have improper
+                     * value set
+                     */
+                    return null;
+                }
 
-                                throw new DBFException("Failed to parse Number: " + e.getMessage());
-                            }
+            case FLOAT:
+            case NUMERIC:
+                double value = parseNumber(data, pos, field.getFieldLength());
+                if (!Double.isNaN(value)) {
+                    return value;
+                }
+                return parseNumberObject(data, pos, field.getFieldLength());
+
+            case BOOLEAN:
+                byte t_logical = data[pos];
+                if (t_logical == 'Y' || t_logical == 't' || t_logical == 'T') {
+                    return Boolean.TRUE;
+                } else {
+                    return Boolean.FALSE;
+                }
 
-                            break;
+            case MEMO:
+                // TODO Later
+                return "null";
 
-                        case BOOLEAN:
+            default:
+                return "null";
+        }
+    }
 
-                            byte t_logical = buf.get();
-                            if (t_logical == 'Y' || t_logical == 't' || t_logical == 'T' || t_logical == 't') {
+    /**
+     * Parses a numeric field. Plain decimal numbers, which are nearly all of
+     * the values found in DBF files, are parsed directly from the bytes, and
+     * the result is exact because both the digits and the power of ten are
+     * exactly representable. Anything else is left to parseNumberObject.
+     *
+     * @return the value of the field, or NaN if it is null.
+     */
+    private double parseNumber(byte[] data, int pos, int length) throws DBFException {
+        int end = pos + length;
+        int i = pos;
+        while (i < end && data[i] <= ' ') {
+            i++;
+        }
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int numDigits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = data[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                numDigits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        while (i < end && data[i] <= ' ') {
+            i++;
+        }
+        if (i == end && numDigits > 0 && numDigits <= 18 && mantissa <= (1L << 53)
+                && fractionDigits < POWERS_OF_TEN.length) {
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        Double value = parseNumberObject(data, pos, length);
+        return value == null ? Double.NaN : value;
+    }
 
-                                recordObjects[i] = Boolean.TRUE;
-                            } else {
+    private Double parseNumberObject(byte[] data, int pos, int length) throws DBFException {
+        try {
+            byte[] t_numeric = Utils.trimLeftSpaces(Arrays.copyOfRange(data, pos, pos + length));
 
-                                recordObjects[i] = Boolean.FALSE;
-                            }
-                            break;
+            if (t_numeric.length > 0 && !Utils.contains(t_numeric, (byte) '?')
+                    && !Utils.contains(t_numeric, (byte) '*')) {
 
-                        case MEMO:
-                            // TODO Later
-                            recordObjects[i] = new String("null");
-                            break;
+                return new Double(new String(t_numeric));
+            } else {
 
-                        default:
-                            recordObjects[i] = new String("null");
-                    }
-                }
-                returnRecords[n - startingRecord] = recordObjects;
-            }
-        } catch (EOFException e) {
-            return null;
-        } catch (IOException e) {
-            throw new DBFException(e.getMessage());
-        } finally {
-            if (rIn != null) {
-                try {
-                    rIn.close();
-                } catch (Exception e) {
-                }
-            }
-            if (inChannel != null) {
-                try {
-                    inChannel.close();
-                } catch (Exception e) {
-                }
+                return null;
             }
-        }
+        } catch (NumberFormatException e) {
 
-        return returnRecords;
+            throw new DBFException("Failed to parse Number: " + e.getMessage());
+        }
     }
 
     /**
@@ -1407,6 +1162,7 @@ public class AttributeTable {
             throw new DBFException(e.getMessage());
         } finally {
             isDirty = true;
+            invalidateReadCache();
             if (raf != null) {
                 try {
                     raf.close();
@@ -1433,6 +1189,7 @@ public class AttributeTable {
 
     // private methods
     private void initialize() throws IOException {
+        invalidateReadCache();
         readHeader();
         fieldCount = this.fieldArray.length;
         initializeFieldMap();
@@ -1559,6 +1316,7 @@ public class AttributeTable {
 
     public final void write() throws DBFException {
 
+        invalidateReadCache();
         try (RandomAccessFile raf = new RandomAccessFile(this.fileName, "rw")) {
 
             if (!recordData.isEmpty()) {
@@ -236,7 +236,7 @@ public class DBFField {
             i++;
         }
 
-        this.nameNullIndex = this.fieldName.length;
+        this.nameNullIndex = i;
     }
     
     /**
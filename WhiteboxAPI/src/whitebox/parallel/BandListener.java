@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.parallel;
+
+/**
+ * Receives notice of each band completed by a RowBandExecutor, e.g. to update
+ * a plugin's progress bar. Calls are never made concurrently.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public interface BandListener {
+
+    /**
+     * Called after a band of rows has been written to the output.
+     *
+     * @param rowsCompleted The total number of rows completed so far.
+     * @param numberRows The number of rows in the raster.
+     * @return false if the operation should be cancelled.
+     */
+    boolean bandCompleted(int rowsCompleted, int numberRows);
+}
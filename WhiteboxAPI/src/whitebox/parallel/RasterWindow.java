@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.parallel;
+
+import java.util.Arrays;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.structures.IntegralImage;
+
+/**
+ * A primitive buffer holding a band of rows of an input raster together with
+ * a halo of extra rows above and below the band and extra columns on either
+ * side. Cells in the halo that lie beyond the edges of the raster hold either
+ * the nodata value or, if the input raster is reflected at its edges, the
+ * reflected value, so that kernels never need to test for the grid edges.
+ * Values are addressed using the raster's own row and column numbers.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public final class RasterWindow {
+
+    private final int haloRows;
+    private final int haloColumns;
+    private final int numberColumns;
+    private final int stride;
+    private final double noData;
+    private double[] data = new double[0];
+    private int firstRow;
+    private int lastRow;
+    private IntegralImage integralImage = null;
+    private boolean integralImageCurrent = false;
+
+    RasterWindow(int numberColumns, int haloRows, int haloColumns, double noData) {
+        this.numberColumns = numberColumns;
+        this.haloRows = haloRows;
+        this.haloColumns = haloColumns;
+        this.stride = numberColumns + 2 * haloColumns;
+        this.noData = noData;
+    }
+
+    /**
+     * Fills the window with the input rows needed by the band of rows from
+     * startRow to endRow (exclusive).
+     */
+    void load(WhiteboxRaster input, int startRow, int endRow) {
+        int numberRows = input.getNumberRows();
+        boolean reflected = input.isReflectedAtEdges;
+        boolean shared = input.isShared();
+        integralImageCurrent = false;
+        firstRow = startRow - haloRows;
+        lastRow = endRow + haloRows - 1;
+        int size = (lastRow - firstRow + 1) * stride;
+        if (data.length < size) {
+            data = new double[size];
+        }
+        for (int r = firstRow; r <= lastRow; r++) {
+            int offset = (r - firstRow) * stride;
+            int sourceRow = reflected ? reflect(r, numberRows) : r;
+            if (sourceRow < 0 || sourceRow >= numberRows) {
+                Arrays.fill(data, offset, offset + stride, noData);
+                continue;
+            }
+            double[] values;
+            if (shared) {
+                values = input.getRowValues(sourceRow);
+            } else {
+                synchronized (input) {
+                    values = input.getRowValues(sourceRow);
+                }
+            }
+            System.arraycopy(values, 0, data, offset + haloColumns, numberColumns);
+            for (int c = 1; c <= haloColumns; c++) {
+                int left = reflected ? reflect(-c, numberColumns) : -1;
+                int right = reflected ? reflect(numberColumns - 1 + c, numberColumns) : -1;
+                data[offset + haloColumns - c] = left >= 0 ? values[left] : noData;
+                data[offset + haloColumns + numberColumns - 1 + c] = right >= 0 ? values[right] : noData;
+            }
+        }
+    }
+
+    /**
+     * Reflects an index that lies beyond the edge of the grid in the same way
+     * as WhiteboxRaster.getValue, returning -1 if it is too far off the grid.
+     */
+    private static int reflect(int i, int n) {
+        if (i < 0) {
+            i = -i - 1;
+        }
+        if (i >= n) {
+            i = n - (i - n) - 1;
+        }
+        return (i >= 0 && i < n) ? i : -1;
+    }
+
+    /**
+     * Retrieves an input value. The cell must lie within the band or its halo.
+     *
+     * @param row The zero-based row number.
+     * @param column The zero-based column number.
+     * @return The input value at the cell.
+     */
+    public double getValue(int row, int column) {
+        return data[(row - firstRow) * stride + column + haloColumns];
+    }
+
+    /**
+     * Returns the underlying buffer, for kernels that compute their own
+     * offsets. Consecutive rows are getStride() elements apart.
+     *
+     * @return The buffer.
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the index of a cell within the buffer returned by getData.
+     *
+     * @param row The zero-based row number.
+     * @param column The zero-based column number.
+     * @return The index of the cell.
+     */
+    public int getIndex(int row, int column) {
+        return (row - firstRow) * stride + column + haloColumns;
+    }
+
+    /**
+     * Returns a summed-area table of the window, which is built the first
+     * time that it is requested for each band. The table's rows and columns
+     * are relative to the window, i.e. raster cell (row, column) is found at
+     * table cell (row - getFirstRow(), column + getHaloColumns()).
+     *
+     * @return The summed-area table of the window.
+     */
+    public IntegralImage getIntegralImage() {
+        if (!integralImageCurrent) {
+            if (integralImage == null) {
+                integralImage = new IntegralImage();
+            }
+            integralImage.build(data, 0, stride, getNumberOfRows(), stride, noData);
+            integralImageCurrent = true;
+        }
+        return integralImage;
+    }
+
+    /**
+     * Converts a filter's row and column offsets into offsets within the
+     * buffer returned by getData, such that the neighbour of the cell at index
+     * i is found at i + offsets[a].
+     *
+     * @param dX The column offsets of the filter cells.
+     * @param dY The row offsets of the filter cells.
+     * @return The buffer offsets of the filter cells.
+     */
+    public int[] getOffsets(int[] dX, int[] dY) {
+        int[] offsets = new int[dX.length];
+        for (int a = 0; a < dX.length; a++) {
+            offsets[a] = dY[a] * stride + dX[a];
+        }
+        return offsets;
+    }
+
+    /**
+     * Returns the raster row held in the first row of the buffer, i.e. the
+     * first row of the band less the halo.
+     *
+     * @return The first row of the window.
+     */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * Returns the number of rows held in the buffer, including the halo.
+     *
+     * @return The number of rows in the window.
+     */
+    public int getNumberOfRows() {
+        return lastRow - firstRow + 1;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int getHaloRows() {
+        return haloRows;
+    }
+
+    public int getHaloColumns() {
+        return haloColumns;
+    }
+
+    public int getNumberColumns() {
+        return numberColumns;
+    }
+
+    public double getNoDataValue() {
+        return noData;
+    }
+}
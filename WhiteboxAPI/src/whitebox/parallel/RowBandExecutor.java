@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.parallel;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import whitebox.geospatialfiles.WhiteboxRaster;
+
+/**
+ * Runs a neighbourhood operation over a raster using all of the processors
+ * made available to plugins. The output grid is split into bands of rows that
+ * are handed out to worker threads as they become free. Each worker loads its
+ * band, plus a halo of the rows and columns needed by the kernel, into a
+ * primitive RasterWindow, computes the output rows, and then writes the whole
+ * band to the output raster.
+ *
+ * The input raster should ideally be opened with WhiteboxRaster.openShared,
+ * in which case the workers read it concurrently; any other input raster is
+ * read one row at a time under a lock. The output raster is only ever written
+ * by one thread at a time.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class RowBandExecutor {
+
+    private static final int MAX_BAND_ROWS = 128;
+
+    private final WhiteboxRaster input;
+    private final WhiteboxRaster output;
+    private final int haloRows;
+    private final int haloColumns;
+    private int bandRows = -1;
+    private BandListener listener = null;
+
+    /**
+     * Class constructor.
+     *
+     * @param input The input raster.
+     * @param output The output raster, which must have the same dimensions as
+     * the input.
+     * @param haloRows The number of rows above and below each cell needed by
+     * the kernel, e.g. half the filter height.
+     * @param haloColumns The number of columns to the left and right of each
+     * cell needed by the kernel, e.g. half the filter width.
+     */
+    public RowBandExecutor(WhiteboxRaster input, WhiteboxRaster output,
+            int haloRows, int haloColumns) {
+        if (input.getNumberRows() != output.getNumberRows()
+                || input.getNumberColumns() != output.getNumberColumns()) {
+            throw new IllegalArgumentException("The input and output rasters must have the same dimensions.");
+        }
+        this.input = input;
+        this.output = output;
+        this.haloRows = Math.max(0, haloRows);
+        this.haloColumns = Math.max(0, haloColumns);
+    }
+
+    /**
+     * Sets the number of rows in each band. By default the band size is
+     * chosen so that there are several bands for every worker thread.
+     *
+     * @param bandRows The number of rows in each band.
+     */
+    public void setBandRows(int bandRows) {
+        this.bandRows = bandRows;
+    }
+
+    public void setBandListener(BandListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Runs the kernel over every row of the raster.
+     *
+     * @param kernel The kernel to run.
+     * @return false if the operation was cancelled by the band listener.
+     */
+    public boolean execute(final RowKernel kernel) {
+        final int rows = input.getNumberRows();
+        final int cols = input.getNumberColumns();
+        final double noData = input.getNoDataValue();
+        final double outputNoData = output.getNoDataValue();
+        int numThreads = Math.max(1, Parallel.getPluginProcessors());
+
+        final int band;
+        if (bandRows > 0) {
+            band = bandRows;
+        } else {
+            // aim for at least four bands per thread for load balancing, but
+            // don't let the halo dominate the rows that are read.
+            int b = (rows + 4 * numThreads - 1) / (4 * numThreads);
+            b = Math.max(b, 2 * haloRows);
+            band = Math.max(1, Math.min(b, Math.max(MAX_BAND_ROWS, 2 * haloRows)));
+        }
+        final int numBands = (rows + band - 1) / band;
+        numThreads = Math.min(numThreads, numBands);
+
+        final AtomicInteger nextBand = new AtomicInteger(0);
+        final AtomicInteger rowsCompleted = new AtomicInteger(0);
+        final boolean[] cancelled = new boolean[1];
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    RasterWindow window = new RasterWindow(cols, haloRows, haloColumns, noData);
+                    double[][] outRows = new double[band][cols];
+                    int b;
+                    while ((b = nextBand.getAndIncrement()) < numBands) {
+                        synchronized (cancelled) {
+                            if (cancelled[0]) {
+                                return;
+                            }
+                        }
+                        int startRow = b * band;
+                        int endRow = Math.min(rows, startRow + band);
+                        window.load(input, startRow, endRow);
+                        for (int row = startRow; row < endRow; row++) {
+                            double[] outRow = outRows[row - startRow];
+                            kernel.processRow(window, row, outRow);
+                            // as in setValue, a NaN is written as nodata
+                            for (int col = 0; col < cols; col++) {
+                                if (Double.isNaN(outRow[col])) {
+                                    outRow[col] = outputNoData;
+                                }
+                            }
+                        }
+                        synchronized (output) {
+                            for (int row = startRow; row < endRow; row++) {
+                                output.setRowValues(row, outRows[row - startRow]);
+                            }
+                        }
+                        int completed = rowsCompleted.addAndGet(endRow - startRow);
+                        if (listener != null) {
+                            synchronized (cancelled) {
+                                if (!cancelled[0] && !listener.bandCompleted(completed, rows)) {
+                                    cancelled[0] = true;
+                                }
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    synchronized (cancelled) {
+                        cancelled[0] = true;
+                    }
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                } catch (InterruptedException e) {
+                    synchronized (cancelled) {
+                        cancelled[0] = true;
+                    }
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        synchronized (cancelled) {
+            return !cancelled[0];
+        }
+    }
+}
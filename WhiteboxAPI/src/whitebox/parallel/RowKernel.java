@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.parallel;
+
+/**
+ * The body of a neighbourhood operation that is run by a RowBandExecutor. A
+ * kernel is called concurrently by several worker threads, each with its own
+ * window, and so it must not modify any shared state; scratch arrays should
+ * be allocated within processRow or held per thread.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public interface RowKernel {
+
+    /**
+     * Computes one row of the output raster.
+     *
+     * @param window The input values surrounding the row, including the halo.
+     * @param row The zero-based row number of the output raster.
+     * @param output The array to fill with the row's output values.
+     */
+    void processRow(RasterWindow window, int row, double[] output);
+}
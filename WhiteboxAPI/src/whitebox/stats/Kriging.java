@@ -25,8 +25,14 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.text.DecimalFormat;
@@ -66,10 +72,14 @@ import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
 import whitebox.geospatialfiles.shapefile.attributes.DBFException;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
 import whitebox.structures.KdTree;
+import whitebox.structures.StaticKdTree;
 import java.util.Random;
 import jmetal.util.JMException;
 import whitebox.geospatialfiles.shapefile.attributes.DBFWriter;
+import whitebox.algorithms.PriorityFlood;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.Parallel;
+import whitebox.utilities.NamedThreadFactory;
 
 /**
  *
@@ -110,7 +120,7 @@ public class Kriging {
     public double LagSize;
     //public double 
     public KdTree<Double> pointsTree;      //This is the point tree which will be filled in the calcPair method
-    public Matrix DistanceMatrix;   //The matrix that contains the distance of each known point to all other known points
+    public double PairSamplingRate = 1;    //The fraction of the point pairs used to estimate the semivariogram
     public int nKown;               //Number of known points
     //public double[][] Points;       //Array of points location x=0, y = 1, z = 2
     public double MaximumDistance;
@@ -130,17 +140,6 @@ public class Kriging {
 //    }
     public List<KrigingPoint> points = new ArrayList();
 
-    public class pair {
-
-        int FirstP;
-        int SecondP;
-        double Distance;
-        double Direction;
-        double MomentI;             //Moment of Inertia
-        double VerDistance;         //Vertical Distance (Y Axes)
-        double HorDistance;         //Horizontal Distance (X Axes)
-    }
-
     //List<bin> bins = new ArrayList();
     public bin[][] bins; // = new bin[]      
 
@@ -155,9 +154,7 @@ public class Kriging {
         double Weight;
         int Size;
     }
-    public List<pair> Pairs = new ArrayList();
-
-    private KdTree<Double> PairsTree;
+    private SemivariogramEstimator estimator;
 
     public SemivariogramType SemiVariogramModel;
 
@@ -239,35 +236,8 @@ public class Kriging {
      * @param Range
      */
     void calcBins4Sec(double Range) {
-        int ad = 0;
-        if (Range % this.LagSize == 0) {
-            ad = 0;
-        }
-
         if (!this.Anisotropic) {
-            bins = new bin[(int) Math.ceil(Range / this.LagSize) + ad][1];
-            int r = 0;
-            for (int i = 0; i < Pairs.size(); i++) {
-                if (Pairs.get(i).Distance < Range && Pairs.get(i).HorDistance >= 0) {
-                    r = (int) Math.floor(Pairs.get(i).Distance / LagSize);
-                    if (bins[r][0] == null) {
-                        bin bb = new bin();
-                        bins[r][0] = bb;
-                    }
-
-                    bins[r][0].Distance += Pairs.get(i).Distance;
-                    bins[r][0].Value += Pairs.get(i).MomentI;
-                    bins[r][0].Size++;
-                }
-            }
-            for (int i = 0; i < bins.length; i++) {
-                if (bins[i][0] == null) {
-                    bin bb = new bin();
-                    bins[i][0] = bb;
-                }
-                bins[i][0].Distance = bins[i][0].Distance / bins[i][0].Size;
-                bins[i][0].Value = bins[i][0].Value / bins[i][0].Size;
-            }
+            setBins(estimator.estimateLags(this.LagSize, Range));
         }
     }
 
@@ -281,80 +251,23 @@ public class Kriging {
      * @param BandWidth
      */
     void calcBins4Sec(double Range, double Angle, double Tolerance, double BandWidth) {
-        int ad = 0;
-        if (Range % this.LagSize == 0) {
-            ad = 0;
-        }
-        double width = 0;
-
         if (this.Anisotropic) {
-
-            bins = new bin[(int) Math.ceil(Range / this.LagSize) + ad][1];
-            int r = 0;
-            for (int i = 0; i < Pairs.size(); i++) {
-                boolean tt = Between(Angle, Tolerance, Pairs.get(i).Direction);
-                width = Pairs.get(i).Distance * Math.cos((Math.PI / 2) - Angle + Pairs.get(i).Direction);
-                if (tt && Pairs.get(i).Distance < Range && Math.abs(width) <= BandWidth) {
-
-                    r = (int) Math.floor(Pairs.get(i).Distance / LagSize);
-                    if (bins[r][0] == null) {
-                        bin bb = new bin();
-                        bins[r][0] = bb;
-                    }
-
-                    bins[r][0].Distance += Pairs.get(i).Distance;
-                    bins[r][0].Value += Pairs.get(i).MomentI;
-                    bins[r][0].Size++;
-                }
-            }
-            for (int i = 0; i < bins.length; i++) {
-                if (bins[i][0] == null) {
-                    bin bb = new bin();
-                    bins[i][0] = bb;
-                }
-                bins[i][0].Distance = bins[i][0].Distance / bins[i][0].Size;
-                bins[i][0].Value = bins[i][0].Value / bins[i][0].Size;
-            }
+            setBins(estimator.estimateLags(this.LagSize, Range, Angle, Tolerance, BandWidth));
         }
-        //==========================
-
     }
 
     /**
-     * Checks to see if a pair is located in a sector of interest or not
-     *
-     * @param Angle
-     * @param Tolerance
-     * @param Direction
-     * @return
+     * Converts the totals of the lag bins into the averages of the bins.
+     * Empty bins have NaN values, which are left out of the fitting.
      */
-    private boolean Between(double Angle, double Tolerance, double Direction) {
-
-        boolean flag = false;
-        double la = (Angle - Tolerance);
-        if (la < 0) {
-            la = 2 * Math.PI + la;
-            flag = true;
-        }
-
-        double ha = (Angle + Tolerance);
-        if (ha >= 2 * Math.PI) {
-            ha = ha - 2 * Math.PI;
-            flag = true;
-        }
-
-        if (flag) {
-            if (Direction >= ha && Direction <= la) {
-                return false;
-            } else {
-                return true;
-            }
-        } else {
-            if (Direction >= la && Direction <= ha) {
-                return true;
-            } else {
-                return false;
-            }
+    private void setBins(SemivariogramEstimator.Bins totals) {
+        bins = new bin[totals.getNumberOfBins()][1];
+        for (int i = 0; i < bins.length; i++) {
+            bin bb = new bin();
+            bb.Size = (int) totals.count[i];
+            bb.Distance = totals.distance[i] / totals.count[i];
+            bb.Value = totals.value[i] / totals.count[i];
+            bins[i][0] = bb;
         }
     }
 
@@ -364,196 +277,42 @@ public class Kriging {
      * @param Range
      */
     void CalcBins4Map(double Range) {
-
-        //bins = new bin[this.NumberOfLags][this.NumberOfLags];
         //bins Category on the axies 
         //2 . 1
         //3   4         //Only 1 and 4 are calculated the rest are mirror
-        int ad = 0;
-        if (Range % this.LagSize == 0) {
-            ad = 0;
-        }
-        bin[][] bins1 = new bin[(int) Math.ceil(Range / this.LagSize) + ad][(int) Math.ceil(Range / this.LagSize + ad)];
-        bin[][] bins4 = new bin[(int) Math.ceil(Range / this.LagSize) + ad][(int) Math.ceil(Range / this.LagSize + ad)];
-
-        bin[][] bins1c = new bin[(int) Math.ceil(Range / this.LagSize) + ad][(int) Math.ceil(Range / this.LagSize + ad)];
-        bin[][] bins4c = new bin[(int) Math.ceil(Range / this.LagSize) + ad][(int) Math.ceil(Range / this.LagSize + ad)];
-
-        BinSurface = new bin[2 * ((int) Math.ceil(Range / this.LagSize) + ad)][2 * ((int) Math.ceil(Range / this.LagSize + ad))];
-        //double radious =Math.sqrt(2*this.LagSize*this.LagSize);
-        double radious = this.LagSize * 2 / Math.sqrt(2);
-        double halfLagSize = this.LagSize;
-        List<pair> prs = new ArrayList();
-        double w = 0;
-        for (int r = 0; r < bins1.length; r++) {
-            for (int c = 0; c < bins1[r].length; c++) {
-
-                if (bins1[r][c] == null) {
-                    bin bb = new bin();
-                    bin bbc = new bin();
-
-                    bins1[r][c] = bb;
-                    bins1c[r][c] = bbc;
-                }
-
-                bins1[r][c].GridHorDistance = 0.5 * this.LagSize + c * this.LagSize;
-                bins1[r][c].GridVerDistance = 0.5 * this.LagSize + r * this.LagSize;
-
-                bins1c[r][c].GridHorDistance = -0.5 * this.LagSize - c * this.LagSize;
-                bins1c[r][c].GridVerDistance = -0.5 * this.LagSize - r * this.LagSize;
-
-                double[] center = new double[]{bins1[r][c].GridVerDistance, bins1[r][c].GridHorDistance};
-                prs = getBinNNPairs4Map(PairsTree, center, halfLagSize, radious);
-
-                for (int n = 0; n < prs.size(); n++) {
-                    bins1[r][c].HorDistance += prs.get(n).HorDistance;
-                    bins1[r][c].VerDistance += prs.get(n).VerDistance;
-                    w = (1 - (Math.abs(bins1[r][c].GridHorDistance - prs.get(n).HorDistance) / this.LagSize))
-                            * (1 - (Math.abs(bins1[r][c].GridVerDistance - prs.get(n).VerDistance) / this.LagSize));
-
-                    bins1[r][c].Weight += w;
-                    bins1[r][c].Value += prs.get(n).MomentI * w;
-                    bins1[r][c].Size += 1;
-
-                    bins1c[r][c].HorDistance += prs.get(n).HorDistance;
-                    bins1c[r][c].VerDistance += prs.get(n).VerDistance;
-                    bins1c[r][c].Weight += w;
-
-                    bins1c[r][c].Value += prs.get(n).MomentI * w;
-                    bins1c[r][c].Size += 1;
-
-                }
-            }
-        }
-
-        for (int i = 0; i < bins1.length; i++) {
-            for (int j = 0; j < bins1[i].length; j++) {
-                if (bins1[i][j] == null) {
+        int numLags = (int) Math.ceil(Range / this.LagSize);
+        SemivariogramEstimator.Bins totals = estimator.estimateSurface(this.LagSize, numLags);
+        BinSurface = new bin[2 * numLags][2 * numLags];
+        int st = numLags;
+        for (int q = 0; q < 2; q++) {
+            for (int r = 0; r < numLags; r++) {
+                for (int c = 0; c < numLags; c++) {
+                    int i = q * numLags * numLags + r * numLags + c;
                     bin bb = new bin();
-                    bins1[i][j] = bb;
-                    bins1[i][j].HorDistance = i * this.LagSize;
-                    bins1[i][j].VerDistance = j * this.LagSize;
-                    bins1[i][j].Value = -1;
-
                     bin bbc = new bin();
-                    bins1c[i][j] = bbc;
-                    bins1c[i][j].HorDistance = -i * this.LagSize;
-                    bins1c[i][j].VerDistance = -j * this.LagSize;
-                    bins1c[i][j].Value = -1;
-                } else {
-                    bins1[i][j].HorDistance = bins1[i][j].HorDistance / bins1[i][j].Size;
-                    bins1[i][j].VerDistance = bins1[i][j].VerDistance / bins1[i][j].Size;
-                    bins1[i][j].Value = bins1[i][j].Value / bins1[i][j].Weight;
-
-                    bins1c[i][j].HorDistance = bins1c[i][j].HorDistance / bins1c[i][j].Size;
-                    bins1c[i][j].VerDistance = bins1c[i][j].VerDistance / bins1c[i][j].Size;
-                    bins1c[i][j].Value = bins1c[i][j].Value / bins1c[i][j].Weight;
-                }
-
-                //System.out.println( (0.5*this.LagSize + j*this.LagSize) + " , " + (0.5*this.LagSize+i*this.LagSize) + " , " +
-                //        Bins1[i][j].HorDistance + " , " + Bins1[i][j].VerDistance + " , " + Bins1[i][j].Value);
-            }
-        }
-        //==========================
-
-        for (int r = 0; r < bins4.length; r++) {
-            for (int c = 0; c < bins4[r].length; c++) {
-
-                if (bins4[r][c] == null) {
-                    bin bb = new bin();
-                    bin bbc = new bin();
-
-                    bins4[r][c] = bb;
-                    bins4c[r][c] = bbc;
-                }
-
-                bins4[r][c].GridHorDistance = 0.5 * this.LagSize + c * this.LagSize;
-                bins4[r][c].GridVerDistance = -0.5 * this.LagSize - r * this.LagSize;
-
-                bins4c[r][c].GridHorDistance = -0.5 * this.LagSize - c * this.LagSize;
-                bins4c[r][c].GridVerDistance = 0.5 * this.LagSize + r * this.LagSize;
-
-                double[] center = new double[]{bins4[r][c].GridVerDistance, bins4[r][c].GridHorDistance};
-                prs = getBinNNPairs4Map(PairsTree, center, halfLagSize, radious);
-
-                for (int n = 0; n < prs.size(); n++) {
-                    bins4[r][c].HorDistance += prs.get(n).HorDistance;
-                    bins4[r][c].VerDistance += prs.get(n).VerDistance;
-                    w = (1 - (Math.abs(bins4[r][c].GridHorDistance - prs.get(n).HorDistance) / this.LagSize))
-                            * (1 - (Math.abs(bins4[r][c].GridVerDistance - prs.get(n).VerDistance) / this.LagSize));
-
-                    bins4[r][c].Weight += w;
-                    bins4[r][c].Value += prs.get(n).MomentI * w;
-                    bins4[r][c].Size += 1;
-
-                    bins4c[r][c].HorDistance += prs.get(n).HorDistance;
-                    bins4c[r][c].VerDistance += prs.get(n).VerDistance;
-                    bins4c[r][c].Weight += w;
-
-                    bins4c[r][c].Value += prs.get(n).MomentI * w;
-                    bins4c[r][c].Size += 1;
-
-                }
-            }
-        }
-
-        for (int i = 0; i < bins4.length; i++) {
-            for (int j = 0; j < bins4[i].length; j++) {
-                if (bins4[i][j] == null) {
-                    bin bb = new bin();
-                    bins4[i][j] = bb;
-                    bins4[i][j].HorDistance = i * this.LagSize;
-                    bins4[i][j].VerDistance = j * this.LagSize;
-                    bins4[i][j].Value = -1;
-
-                    bin bbc = new bin();
-                    bins4c[i][j] = bbc;
-                    bins4c[i][j].HorDistance = -i * this.LagSize;
-                    bins4c[i][j].VerDistance = -j * this.LagSize;
-                    bins4c[i][j].Value = -1;
-                } else {
-                    bins4[i][j].HorDistance = bins4[i][j].HorDistance / bins4[i][j].Size;
-                    bins4[i][j].VerDistance = bins4[i][j].VerDistance / bins4[i][j].Size;
-                    bins4[i][j].Value = bins4[i][j].Value / bins4[i][j].Weight;
-
-                    bins4c[i][j].HorDistance = bins4c[i][j].HorDistance / bins4c[i][j].Size;
-                    bins4c[i][j].VerDistance = bins4c[i][j].VerDistance / bins4c[i][j].Size;
-                    bins4c[i][j].Value = bins4c[i][j].Value / bins4c[i][j].Weight;
+                    for (bin b : new bin[]{bb, bbc}) {
+                        b.Size = (int) totals.count[i];
+                        b.Weight = totals.weight[i];
+                        b.HorDistance = totals.horDistance[i] / totals.count[i];
+                        b.VerDistance = totals.verDistance[i] / totals.count[i];
+                        b.Value = totals.value[i] / totals.weight[i];
+                    }
+                    bb.GridHorDistance = 0.5 * this.LagSize + c * this.LagSize;
+                    bbc.GridHorDistance = -0.5 * this.LagSize - c * this.LagSize;
+                    if (q == 0) {
+                        bb.GridVerDistance = 0.5 * this.LagSize + r * this.LagSize;
+                        bbc.GridVerDistance = -0.5 * this.LagSize - r * this.LagSize;
+                        BinSurface[st + r][st + c] = bb;
+                        BinSurface[st - 1 - r][st - 1 - c] = bbc;
+                    } else {
+                        bb.GridVerDistance = -0.5 * this.LagSize - r * this.LagSize;
+                        bbc.GridVerDistance = 0.5 * this.LagSize + r * this.LagSize;
+                        BinSurface[st - 1 - r][st + c] = bb;
+                        BinSurface[st + r][st - 1 - c] = bbc;
+                    }
                 }
-
-                //System.out.println( (0.5*this.LagSize + j*this.LagSize) + " , " + (0.5*this.LagSize+i*this.LagSize) + " , " +
-                //        bins1[i][j].HorDistance + " , " + bins1[i][j].VerDistance + " , " + bins1[i][j].Value);
-            }
-        }
-
-        int stI = BinSurface.length / 2;
-        int stJ = BinSurface[0].length / 2;
-
-        //bins1c = bins1.clone();
-        for (int i = 0; i < bins1.length; i++) {
-            for (int j = 0; j < bins1[i].length; j++) {
-                BinSurface[stI + i][stJ + j] = bins1[i][j];
-                BinSurface[stI - 1 - i][stJ - 1 - j] = bins1c[i][j];
-            }
-        }
-
-        stI = BinSurface.length / 2;
-        stJ = BinSurface[0].length / 2;
-        for (int i = 0; i < bins4.length; i++) {
-            for (int j = 0; j < bins4[i].length; j++) {
-                BinSurface[stI - 1 - i][stJ + j] = bins4[i][j];
-                BinSurface[stI + i][stJ - 1 - j] = bins4c[i][j];
             }
         }
-
-//        for (int i = 0; i < BinSurface.length; i++) {
-//            for (int j = 0; j < BinSurface[i].length; j++) {
-//                System.out.println(BinSurface[i][j].GridHorDistance + " , " + BinSurface[i][j].GridVerDistance
-//                        + " , " + BinSurface[i][j].HorDistance+ " , " + BinSurface[i][j].VerDistance
-//                        + " , " + BinSurface[i][j].Value);
-//            }
-//        }
-        int resd = 0;
     }
 
     /**
@@ -1388,177 +1147,396 @@ public class Kriging {
         return outPnts;
     }
 
+    /**
+     * Interpolates a raster by ordinary kriging, writing either the estimated
+     * values or the kriging variance.
+     *
+     * @param variogram The semivariogram model.
+     * @param numberOfNearestPoints The number of known points used for each
+     * cell.
+     * @param raster The output raster.
+     * @param mapError true to write the kriging variance rather than the
+     * estimates.
+     */
     public void interpolateRaster(Variogram variogram, int numberOfNearestPoints, WhiteboxRaster raster, boolean mapError) {
-        int row, col;
-        int rows = raster.getNumberRows();
-        int cols = raster.getNumberColumns();
-        double easting, northing;
-        double e;
+        if (!mapError) {
+            interpolateRaster(variogram, numberOfNearestPoints, raster, null, raster);
+        } else {
+            interpolateRaster(variogram, numberOfNearestPoints, null, raster, raster);
+        }
+    }
+    
+    /**
+     * Interpolates a raster by ordinary kriging, writing the estimated values
+     * to one raster and the kriging variance to another.
+     *
+     * @param variogram The semivariogram model.
+     * @param numberOfNearestPoints The number of known points used for each
+     * cell.
+     * @param raster The raster of estimates.
+     * @param errorRaster The raster of kriging variance, which must have the
+     * same dimensions as the raster of estimates.
+     */
+    public void interpolateRaster(Variogram variogram, int numberOfNearestPoints, WhiteboxRaster raster, WhiteboxRaster errorRaster) {
+        interpolateRaster(variogram, numberOfNearestPoints, raster, errorRaster, raster);
+    }
 
-        double[][] D = new double[numberOfNearestPoints + 1][1];
+    /**
+     * Interpolates the rows of the output in bands that are shared among
+     * worker threads. Each thread has its own KrigingSolver, and the known
+     * points are found with a StaticKdTree, which can be searched by several
+     * threads at once.
+     */
+    private void interpolateRaster(final Variogram variogram, final int numberOfNearestPoints,
+            final WhiteboxRaster estimateRaster, final WhiteboxRaster varianceRaster, 
+            WhiteboxRaster grid) {
+        final int rows = grid.getNumberRows();
+        final int cols = grid.getNumberColumns();
+        final double[] xs = new double[cols];
+        for (int col = 0; col < cols; col++) {
+            xs[col] = grid.getXCoordinateFromColumn(col);
+        }
+        final double[] ys = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            ys[row] = grid.getYCoordinateFromRow(row);
+        }
 
-        List<KrigingPoint> nnPoints = new ArrayList();
-        int progress;
-        int oldProgress = -1;
-        for (row = 0; row < rows; row++) {
-            for (col = 0; col < cols; col++) {
-                easting = raster.getXCoordinateFromColumn(col);
-                northing = raster.getYCoordinateFromRow(row);
-                KrigingPoint pnt = new KrigingPoint(easting, northing, 0.0d);
-
-                nnPoints = getNNpoints(this.pointsTree, pnt, numberOfNearestPoints);
-
-                double[][] C = CalcConstantCoef(variogram, nnPoints);
-                double[] tm = CalcVariableCoef(variogram, pnt, nnPoints);
-                for (int i = 0; i < tm.length; i++) {
-                    D[i][0] = tm[i];
+        int numPoints = points.size();
+        final double[] pointsX = new double[numPoints];
+        final double[] pointsY = new double[numPoints];
+        final double[] pointsZ = new double[numPoints];
+        double[] coordinates = new double[2 * numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            KrigingPoint p = points.get(i);
+            pointsX[i] = p.x;
+            pointsY[i] = p.y;
+            pointsZ[i] = p.z;
+            coordinates[2 * i] = p.x;
+            coordinates[2 * i + 1] = p.y;
+        }
+        final StaticKdTree tree = new StaticKdTree(2, coordinates, null);
+        coordinates = null;
+
+        int numThreads = Math.max(1, Parallel.getPluginProcessors());
+        // each cell is expensive, so the bands are kept small enough that
+        // there are several for every thread
+        final int band = Math.max(1, Math.min(32, (rows + 4 * numThreads - 1) / (4 * numThreads)));
+        final int numBands = (rows + band - 1) / band;
+        numThreads = Math.min(numThreads, numBands);
+
+        final AtomicInteger nextBand = new AtomicInteger(0);
+        final AtomicInteger rowsCompleted = new AtomicInteger(0);
+        final int[] oldProgress = {-1};
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+                new NamedThreadFactory("Kriging"));
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    KrigingSolver solver = new KrigingSolver(variogram, tree,
+                            pointsX, pointsY, pointsZ, numberOfNearestPoints);
+                    double[][] estimates = new double[band][cols];
+                    double[][] variances = new double[band][cols];
+                    int b;
+                    while ((b = nextBand.getAndIncrement()) < numBands) {
+                        int startRow = b * band;
+                        int endRow = Math.min(rows, startRow + band);
+                        for (int row = startRow; row < endRow; row++) {
+                            double[] estimate = estimates[row - startRow];
+                            double[] variance = variances[row - startRow];
+                            for (int col = 0; col < cols; col++) {
+                                if (solver.solve(xs[col], ys[row])) {
+                                    estimate[col] = solver.estimate;
+                                    variance[col] = solver.variance;
+                                } else {
+                                    estimate[col] = estimateRaster != null ? estimateRaster.getNoDataValue() : 0;
+                                    variance[col] = varianceRaster != null ? varianceRaster.getNoDataValue() : 0;
+                                }
+                            }
+                        }
+                        if (estimateRaster != null) {
+                            synchronized (estimateRaster) {
+                                for (int row = startRow; row < endRow; row++) {
+                                    estimateRaster.setRowValues(row, estimates[row - startRow]);
+                                }
+                            }
+                        }
+                        if (varianceRaster != null) {
+                            synchronized (varianceRaster) {
+                                for (int row = startRow; row < endRow; row++) {
+                                    varianceRaster.setRowValues(row, variances[row - startRow]);
+                                }
+                            }
+                        }
+                        int completed = rowsCompleted.addAndGet(endRow - startRow);
+                        synchronized (oldProgress) {
+                            int progress = (int) (100f * completed / rows);
+                            if (progress > oldProgress[0]) {
+                                changes.firePropertyChange("progress", oldProgress[0], progress);
+                                if (host != null) {
+                                    host.updateProgress("Interpolating Data:", progress);
+                                }
+                                oldProgress[0] = progress;
+                            }
+                        }
+                    }
                 }
-                Matrix tmp = Matrix.constructWithCopy(C);
-                Matrix VariableCoef = Matrix.constructWithCopy(D);
-                Matrix w = null;
-                //boolean flag = false;
+            }));
+        }
+
+        try {
+            for (Future<?> f : futures) {
                 try {
-                    double vs = 0;
-                    w = tmp.solve(VariableCoef);
-                    double[][] Wi = w.getArray();
-                    double s = 0;
-                    for (int i = 0; i < Wi.length - 1; i++) {
-                        s = s + Wi[i][0] * nnPoints.get(i).z;
-                        vs = vs + Wi[i][0] * D[i][0];
-                    }
-                    e = vs + Wi[Wi.length - 1][0];
-                    if (!mapError) {
-                        raster.setValue(row, col, s);
-                    } else {
-                        raster.setValue(row, col, e);
+                    f.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
                     }
+                    throw new IllegalStateException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                } catch (Exception ex) {
-                    SingularValueDecomposition svd = tmp.svd();
-                    Matrix u = svd.getU();
-                    Matrix s = svd.getS();
-                    Matrix v = svd.getV();
-
-                    int rrr = svd.rank();
-                    double[][] stemp = s.getArray();
-                    for (int nn = 0; nn < stemp.length; nn++) {
-                        if (stemp[nn][nn] > 0.003) {
-                            stemp[nn][nn] = 1 / stemp[nn][nn];
-                        } else {
-                            stemp[nn][nn] = 0;
-                        }
-                    }
-                    Matrix sp = new Matrix(stemp);
-                    w = v.times(sp).times(u.transpose()).times(VariableCoef);
-                    //Matrix test = tmp.times(w).minus(VariableCoef);
-                    double[][] Wi = w.getArray();
-                    double ss = 0;
-                    double vs = 0;
-                    for (int i = 0; i < Wi.length - 1; i++) {
-                        ss = ss + Wi[i][0] * nnPoints.get(i).z;
-                        vs = vs + Wi[i][0] * D[i][0];
-                    }
-                    e = vs + Wi[Wi.length - 1][0];
-                    if (!mapError) {
-                        raster.setValue(row, col, ss);
-                    } else {
-                        raster.setValue(row, col, e);
+    /**
+     * Solves the ordinary kriging system for one location after another,
+     * reusing its arrays from one location to the next, and so it must only
+     * be used by one thread. The system is solved by LU decomposition with
+     * partial pivoting on primitive arrays. The semivariance matrix is not
+     * positive definite, because of the row and column of the Lagrange
+     * multiplier, so it cannot be solved with a Cholesky decomposition.
+     * Neighbouring cells often have the same known points, in which case the
+     * decomposition of the previous location is used again and only the
+     * right-hand side of the system is new.
+     */
+    private class KrigingSolver {
+
+        private final Variogram variogram;
+        private final StaticKdTree tree;
+        private final double[] pointsX, pointsY, pointsZ;
+        private final int maxPoints;
+        private final StaticKdTree.Neighbours neighbours;
+        private final double[] location = new double[2];
+        private final int[] nnPoints;
+        // the known points of the current decomposition, or -1 if none
+        private final int[] factoredPoints;
+        private int numFactored = -1;
+        private final double[][] lu;
+        private final int[] pivots;
+        private boolean singular;
+        private Matrix pseudoInverse;
+        private final double[] gamma;
+        private final double[] weights;
+        double estimate;
+        double variance;
+
+        KrigingSolver(Variogram variogram, StaticKdTree tree, double[] pointsX,
+                double[] pointsY, double[] pointsZ, int maxPoints) {
+            this.variogram = variogram;
+            this.tree = tree;
+            this.pointsX = pointsX;
+            this.pointsY = pointsY;
+            this.pointsZ = pointsZ;
+            this.maxPoints = maxPoints;
+            neighbours = new StaticKdTree.Neighbours(maxPoints);
+            nnPoints = new int[maxPoints];
+            factoredPoints = new int[maxPoints];
+            lu = new double[maxPoints + 1][maxPoints + 1];
+            pivots = new int[maxPoints + 1];
+            gamma = new double[maxPoints + 1];
+            weights = new double[maxPoints + 1];
+        }
+
+        /**
+         * Finds the estimate and kriging variance at a location.
+         *
+         * @return false if there are no known points.
+         */
+        boolean solve(double x, double y) {
+            location[0] = x;
+            location[1] = y;
+            int n = tree.findNearest(location, maxPoints, neighbours);
+            if (n == 0) {
+                return false;
+            }
+            // the points are sorted so that the same set of points always 
+            // gives the same system
+            for (int i = 0; i < n; i++) {
+                nnPoints[i] = neighbours.getValue(i);
+            }
+            Arrays.sort(nnPoints, 0, n);
+            boolean sameSystem = n == numFactored;
+            for (int i = 0; sameSystem && i < n; i++) {
+                sameSystem = nnPoints[i] == factoredPoints[i];
+            }
+            if (!sameSystem) {
+                factor(n);
+            }
+
+            for (int i = 0; i < n; i++) {
+                int p = nnPoints[i];
+                double dist = Math.sqrt((pointsX[p] - x) * (pointsX[p] - x)
+                        + (pointsY[p] - y) * (pointsY[p] - y));
+                gamma[i] = getTheoreticalSVValue(dist, variogram);
+            }
+            gamma[n] = 1;
+
+            if (!singular) {
+                backSubstitute(n);
+            } else {
+                double[][] w = pseudoInverse.getArray();
+                for (int i = 0; i <= n; i++) {
+                    double s = 0;
+                    for (int j = 0; j <= n; j++) {
+                        s += w[i][j] * gamma[j];
                     }
+                    weights[i] = s;
                 }
             }
 
-            progress = (int) (100f * row / (rows - 1.0));
-            if (progress > oldProgress) {
-                changes.firePropertyChange("progress", oldProgress, progress);
-                if (host != null) {
-                    host.updateProgress("Interpolating Data:", progress);
-                }
-                oldProgress = progress;
+            double s = 0;
+            double vs = 0;
+            for (int i = 0; i < n; i++) {
+                s += weights[i] * pointsZ[nnPoints[i]];
+                vs += weights[i] * gamma[i];
             }
+            estimate = s;
+            variance = vs + weights[n];
+            return true;
         }
-    }
-    
-    public void interpolateRaster(Variogram variogram, int numberOfNearestPoints, WhiteboxRaster raster, WhiteboxRaster errorRaster) {
-        int row, col;
-        int rows = raster.getNumberRows();
-        int cols = raster.getNumberColumns();
-        double easting, northing;
-        double e;
 
-        double[][] D = new double[numberOfNearestPoints + 1][1];
-
-        List<KrigingPoint> nnPoints = new ArrayList();
-        int progress;
-        int oldProgress = -1;
-        for (row = 0; row < rows; row++) {
-            for (col = 0; col < cols; col++) {
-                easting = raster.getXCoordinateFromColumn(col);
-                northing = raster.getYCoordinateFromRow(row);
-                KrigingPoint pnt = new KrigingPoint(easting, northing, 0.0d);
-
-                nnPoints = getNNpoints(this.pointsTree, pnt, numberOfNearestPoints);
-
-                double[][] C = CalcConstantCoef(variogram, nnPoints);
-                double[] tm = CalcVariableCoef(variogram, pnt, nnPoints);
-                for (int i = 0; i < tm.length; i++) {
-                    D[i][0] = tm[i];
+        /**
+         * Builds the semivariance matrix of the known points and decomposes
+         * it in place.
+         */
+        private void factor(int n) {
+            int size = n + 1;
+            for (int i = 0; i < n; i++) {
+                int pi = nnPoints[i];
+                lu[i][i] = getTheoreticalSVValue(0, variogram);
+                for (int j = i + 1; j < n; j++) {
+                    int pj = nnPoints[j];
+                    double dist = Math.sqrt((pointsX[pi] - pointsX[pj]) * (pointsX[pi] - pointsX[pj])
+                            + (pointsY[pi] - pointsY[pj]) * (pointsY[pi] - pointsY[pj]));
+                    lu[i][j] = getTheoreticalSVValue(dist, variogram);
+                    lu[j][i] = lu[i][j];
                 }
-                Matrix tmp = Matrix.constructWithCopy(C);
-                Matrix VariableCoef = Matrix.constructWithCopy(D);
-                Matrix w = null;
-                //boolean flag = false;
-                try {
-                    double vs = 0;
-                    w = tmp.solve(VariableCoef);
-                    double[][] Wi = w.getArray();
-                    double s = 0;
-                    for (int i = 0; i < Wi.length - 1; i++) {
-                        s = s + Wi[i][0] * nnPoints.get(i).z;
-                        vs = vs + Wi[i][0] * D[i][0];
+                lu[i][n] = 1;
+                lu[n][i] = 1;
+            }
+            lu[n][n] = 0;
+            System.arraycopy(nnPoints, 0, factoredPoints, 0, n);
+            numFactored = n;
+
+            // pivots that are tiny relative to the matrix mean that points
+            // coincide, and the system is then solved with a pseudo-inverse
+            double tolerance = 0;
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    tolerance = Math.max(tolerance, Math.abs(lu[i][j]));
+                }
+            }
+            tolerance *= 1e-12;
+            singular = false;
+            for (int k = 0; k < size; k++) {
+                int p = k;
+                for (int i = k + 1; i < size; i++) {
+                    if (Math.abs(lu[i][k]) > Math.abs(lu[p][k])) {
+                        p = i;
                     }
-                    e = vs + Wi[Wi.length - 1][0];
-                    raster.setValue(row, col, s);
-                    errorRaster.setValue(row, col, e);
-
-                } catch (Exception ex) {
-                    SingularValueDecomposition svd = tmp.svd();
-                    Matrix u = svd.getU();
-                    Matrix s = svd.getS();
-                    Matrix v = svd.getV();
-
-                    int rrr = svd.rank();
-                    double[][] stemp = s.getArray();
-                    for (int nn = 0; nn < stemp.length; nn++) {
-                        if (stemp[nn][nn] > 0.003) {
-                            stemp[nn][nn] = 1 / stemp[nn][nn];
-                        } else {
-                            stemp[nn][nn] = 0;
+                }
+                pivots[k] = p;
+                if (p != k) {
+                    double[] tmp = lu[p];
+                    lu[p] = lu[k];
+                    lu[k] = tmp;
+                }
+                if (!(Math.abs(lu[k][k]) > tolerance)) {
+                    singular = true;
+                    break;
+                }
+                double[] rowK = lu[k];
+                for (int i = k + 1; i < size; i++) {
+                    double[] rowI = lu[i];
+                    double f = rowI[k] / rowK[k];
+                    rowI[k] = f;
+                    if (f != 0) {
+                        for (int j = k + 1; j < size; j++) {
+                            rowI[j] -= f * rowK[j];
                         }
                     }
-                    Matrix sp = new Matrix(stemp);
-                    w = v.times(sp).times(u.transpose()).times(VariableCoef);
-                    //Matrix test = tmp.times(w).minus(VariableCoef);
-                    double[][] Wi = w.getArray();
-                    double ss = 0;
-                    double vs = 0;
-                    for (int i = 0; i < Wi.length - 1; i++) {
-                        ss = ss + Wi[i][0] * nnPoints.get(i).z;
-                        vs = vs + Wi[i][0] * D[i][0];
-                    }
-                    e = vs + Wi[Wi.length - 1][0];
-                    raster.setValue(row, col, ss);
-                    errorRaster.setValue(row, col, e);
                 }
             }
+            if (singular) {
+                pseudoInverse = pseudoInverse(n);
+            } else {
+                pseudoInverse = null;
+            }
+        }
+
+        private void backSubstitute(int n) {
+            int size = n + 1;
+            System.arraycopy(gamma, 0, weights, 0, size);
+            for (int k = 0; k < size; k++) {
+                int p = pivots[k];
+                if (p != k) {
+                    double tmp = weights[p];
+                    weights[p] = weights[k];
+                    weights[k] = tmp;
+                }
+            }
+            for (int i = 1; i < size; i++) {
+                double[] row = lu[i];
+                double s = weights[i];
+                for (int j = 0; j < i; j++) {
+                    s -= row[j] * weights[j];
+                }
+                weights[i] = s;
+            }
+            for (int i = size - 1; i >= 0; i--) {
+                double[] row = lu[i];
+                double s = weights[i];
+                for (int j = i + 1; j < size; j++) {
+                    s -= row[j] * weights[j];
+                }
+                weights[i] = s / row[i];
+            }
+        }
 
-            progress = (int) (100f * row / (rows - 1.0));
-            if (progress > oldProgress) {
-                changes.firePropertyChange("progress", oldProgress, progress);
-                if (host != null) {
-                    host.updateProgress("Interpolating Data:", progress);
+        /**
+         * Finds a pseudo-inverse of a singular system by SVD, ignoring the
+         * small singular values, as interpolatePoints does.
+         */
+        private Matrix pseudoInverse(int n) {
+            List<KrigingPoint> pnts = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int p = nnPoints[i];
+                pnts.add(new KrigingPoint(pointsX[p], pointsY[p], pointsZ[p]));
+            }
+            Matrix tmp = new Matrix(CalcConstantCoef(variogram, pnts));
+            SingularValueDecomposition svd = tmp.svd();
+            Matrix u = svd.getU();
+            Matrix s = svd.getS();
+            Matrix v = svd.getV();
+            double[][] stemp = s.getArray();
+            for (int nn = 0; nn < stemp.length; nn++) {
+                if (stemp[nn][nn] > 0.003) {
+                    stemp[nn][nn] = 1 / stemp[nn][nn];
+                } else {
+                    stemp[nn][nn] = 0;
                 }
-                oldProgress = progress;
             }
+            return v.times(new Matrix(stemp)).times(u.transpose());
         }
     }
     
@@ -1671,33 +1649,6 @@ public class Kriging {
         return outPnts;
     }
 
-    /**
-     * Returns the list of Pairs which are in the Nearest Neighborhood of the
-     * bin center point
-     *
-     * @param Tree
-     * @param entry (y,x)
-     * @param HalfBinSize
-     * @param Range is the search radius
-     * @return
-     */
-    private List<pair> getBinNNPairs4Map(KdTree<Double> Tree, double[] entry, double BinSize, double Range) {
-
-        List<KdTree.Entry<Double>> results;
-        results = Tree.neighborsWithinRange(entry, Range);
-        List<pair> res = new ArrayList();
-        double xd = 0;
-        double yd = 0;
-        for (int i = 0; i < results.size(); i++) {
-            xd = Math.sqrt(Math.pow((Pairs.get(results.get(i).value.intValue()).HorDistance - entry[1]), 2));
-            yd = Math.sqrt(Math.pow((Pairs.get(results.get(i).value.intValue()).VerDistance - entry[0]), 2));
-            if (xd <= BinSize && yd <= BinSize) {
-                res.add(Pairs.get(results.get(i).value.intValue()));
-            }
-        }
-        return res;
-    }
-
     /**
      * Returns the list of nearest neighbor points
      *
@@ -1801,207 +1752,58 @@ public class Kriging {
     }
 
     /**
-     * Creates the pairs list based on sector classification. calcs the distance
-     * and moment of inertia for each pair It also calculates the min and max
-     * points and boundary It also build the KDTree object to be used with the
-     * Kriging
+     * Prepares the semivariogram estimator for the points. It also calculates
+     * the min and max points, the boundary and the maximum distance between
+     * points, and builds the KDTree object to be used with the Kriging
      */
-    void calPairs4Sec() throws FileNotFoundException {
-        MaximumDistance = 0;
+    void calPairs4Sec() {
         MinX = Double.POSITIVE_INFINITY;
         MinY = Double.POSITIVE_INFINITY;
         MaxX = Double.NEGATIVE_INFINITY;
         MaxY = Double.NEGATIVE_INFINITY;
-        pointsTree = new KdTree.SqrEuclid<>(2, new Integer(this.points.size()));
-        //PairsTree = new KdTree.SqrEuclid<Double>(2, new Integer(this.Points.size()*(this.Points.size()-1)/2));
-        PairsTree = new KdTree.SqrEuclid<>(2, new Integer(this.points.size() * (this.points.size())));
+        int numPoints = this.points.size();
+        pointsTree = new KdTree.SqrEuclid<>(2, new Integer(numPoints));
+        double[] xs = new double[numPoints];
+        double[] ys = new double[numPoints];
+        double[] zs = new double[numPoints];
         double[] entry;
-        double[] pairentry;
-
-//        String s = new String();
-        double dx = 0;
-        double dy = 0;
-        for (int i = 0; i < this.points.size(); i++) {
-
-            if (this.points.get(i).x < MinX) {
-                MinX = this.points.get(i).x;
-            }
-            if (this.points.get(i).y < MinY) {
-                MinY = this.points.get(i).y;
-            }
-            if (this.points.get(i).x > MaxX) {
-                MaxX = this.points.get(i).x;
-            }
-            if (this.points.get(i).y > MaxY) {
-                MaxY = this.points.get(i).y;
-            }
-
-            entry = new double[]{this.points.get(i).y, this.points.get(i).x};
+        for (int i = 0; i < numPoints; i++) {
+            KrigingPoint p = this.points.get(i);
+            MinX = Math.min(MinX, p.x);
+            MinY = Math.min(MinY, p.y);
+            MaxX = Math.max(MaxX, p.x);
+            MaxY = Math.max(MaxY, p.y);
+
+            entry = new double[]{p.y, p.x};
             pointsTree.addPoint(entry, (double) i);
 
-            for (int j = 0; j < this.points.size(); j++) {
-                pair pr = new pair();
-
-                if (i != j) {
-
-                    pr.FirstP = i;
-                    pr.SecondP = j;
-                    pr.Distance = Math.sqrt(Math.pow((points.get(i).x - points.get(j).x), 2)
-                            + Math.pow((points.get(i).y - points.get(j).y), 2));
-
-                    pr.HorDistance = (points.get(j).x - points.get(i).x);
-                    pr.VerDistance = (points.get(j).y - points.get(i).y);
-
-                    if (MaximumDistance < pr.Distance) {
-                        MaximumDistance = pr.Distance;
-                    }
-
-                    dx = points.get(j).x - points.get(i).x;
-                    dy = points.get(j).y - points.get(i).y;
-
-                    if (dx != 0) {
-                        if ((dx > 0 && dy >= 0)) {
-                            pr.Direction = Math.atan(dy / dx);
-                        }
-                        if (dx < 0 && dy >= 0) {
-                            pr.Direction = Math.atan(dy / dx) + Math.PI;
-                        }
-                        if (dx > 0 && dy < 0) {
-                            pr.Direction = Math.atan(dy / dx) + 2 * Math.PI;
-                        }
-                        if (dx < 0 && dy < 0) {
-                            pr.Direction = Math.atan(dy / dx) + Math.PI;;
-                        }
-                    } else {
-                        if (dy >= 0) {
-                            pr.Direction = Math.PI / 2;
-                        } else {
-                            pr.Direction = 3 * Math.PI / 2;
-                        }
-                    }
-                    pr.MomentI = Math.pow((points.get(i).z - points.get(j).z), 2) / 2;
-                    Pairs.add(pr);
-
-                    pairentry = new double[]{pr.VerDistance, pr.HorDistance};
-                    PairsTree.addPoint(pairentry, (double) Pairs.size() - 1.0);
-
-                }
-            }
+            xs[i] = p.x;
+            ys[i] = p.y;
+            zs[i] = p.z;
         }
 
-//        pw.close();
-        //LagSize  = MaximumDistance/NumberOfLags;
-        bMaxX = MaxX;
-        bMaxY = MaxY;
-        bMinX = MinX;
-        bMinY = MinY;
-    }
-
-    /**
-     * Creates the pairs list based for Map classification
-     *
-     * @throws FileNotFoundException
-     */
-    void CalPairs4Map() throws FileNotFoundException {
-        MaximumDistance = 0;
-        MinX = Double.POSITIVE_INFINITY;
-        MinY = Double.POSITIVE_INFINITY;
-        MaxX = Double.NEGATIVE_INFINITY;
-        MaxY = Double.NEGATIVE_INFINITY;
-        pointsTree = new KdTree.SqrEuclid<Double>(2, new Integer(this.points.size()));
-        PairsTree = new KdTree.SqrEuclid<Double>(2, new Integer(this.points.size() * (this.points.size() - 1) / 2));
-        double[] entry;
-        double[] pairentry;
-
-//        String s= new String();
-//        PrintWriter pw ;
-//        pw = new PrintWriter("G:\\test.txt");
-        double dx = 0;
-        double dy = 0;
-        for (int i = 0; i < this.points.size(); i++) {
-
-            if (this.points.get(i).x < MinX) {
-                MinX = this.points.get(i).x;
-            }
-            if (this.points.get(i).y < MinY) {
-                MinY = this.points.get(i).y;
-            }
-            if (this.points.get(i).x > MaxX) {
-                MaxX = this.points.get(i).x;
-            }
-            if (this.points.get(i).y > MaxY) {
-                MaxY = this.points.get(i).y;
-            }
-
-            entry = new double[]{this.points.get(i).y, this.points.get(i).x};
-            pointsTree.addPoint(entry, (double) i);
-
-            for (int j = 0; j < this.points.size(); j++) {
-                pair pr = new pair();
-
-                if (points.get(i).x <= points.get(j).x && i != j) {
-
-                    pr.FirstP = i;
-                    pr.SecondP = j;
-                    pr.Distance = Math.sqrt(Math.pow((points.get(i).x - points.get(j).x), 2)
-                            + Math.pow((points.get(i).y - points.get(j).y), 2));
-
-                    pr.HorDistance = (points.get(j).x - points.get(i).x);
-                    pr.VerDistance = (points.get(j).y - points.get(i).y);
-
-                    if (MaximumDistance < pr.Distance) {
-                        MaximumDistance = pr.Distance;
-                    }
-                    dx = points.get(j).x - points.get(i).x;
-                    dy = points.get(j).y - points.get(i).y;
-
-                    if (dx != 0) {
-                        if ((dx > 0 && dy >= 0)) {
-                            pr.Direction = Math.atan(dy / dx);
-                        }
-                        if (dx < 0 && dy >= 0) {
-                            pr.Direction = Math.atan(dy / dx) + Math.PI;
-                        }
-                        if (dx > 0 && dy < 0) {
-                            pr.Direction = Math.atan(dy / dx) + 2 * Math.PI;
-                        }
-                        if (dx < 0 && dy < 0) {
-                            pr.Direction = Math.atan(dy / dx) + Math.PI;;
-                        }
-                    } else {
-                        if (dy >= 0) {
-                            pr.Direction = Math.PI / 2;
-                        } else {
-                            pr.Direction = 3 * Math.PI / 2;
-                        }
-                    }
-
-                    pr.MomentI = Math.pow((points.get(i).z - points.get(j).z), 2) / 2;
-                    Pairs.add(pr);
-
-                    pairentry = new double[]{pr.VerDistance, pr.HorDistance};
-                    PairsTree.addPoint(pairentry, (double) Pairs.size() - 1.0);
-
-//                    s =  Double.toString(pr.Distance) + "," + Double.toString(pr.Direction)+
-//                            "," + Double.toString(pr.MomentI)+
-//                            "," + Double.toString(pr.HorDistance)+
-//                            ","+Double.toString(pr.VerDistance)+
-//                            "," + Integer.toString(pr.FirstP)+
-//                            "," + Integer.toString(pr.SecondP);
-//
-//                    pw.println(s);
+        // the pairs of points are binned as they are found by the estimator
+        // rather than stored
+        estimator = new SemivariogramEstimator(xs, ys, zs);
+        if (PairSamplingRate < 1) {
+            estimator.setPairSamplingRate(PairSamplingRate, 0);
+        }
+        estimator.setProgressListener(new PriorityFlood.ProgressListener() {
+            @Override
+            public boolean progressMade(int percent) {
+                if (host != null) {
+                    host.updateProgress("Calculating Semivariogram:", percent);
                 }
-
+                return true;
             }
-        }
+        });
+        MaximumDistance = estimator.getMaximumDistance();
 
-//        pw.close();
         //LagSize  = MaximumDistance/NumberOfLags;
         bMaxX = MaxX;
         bMaxY = MaxY;
         bMinX = MinX;
         bMinY = MinY;
-
     }
 
     /**
@@ -2081,11 +1883,7 @@ public class Kriging {
     public void calcBinSurface(SemivariogramType Type, double DistanseRatio, int NumberOfLags,
             boolean Anisotropic) {
         this.NumberOfLags = NumberOfLags;
-        try {
-            CalPairs4Map();
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(Kriging.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        calPairs4Sec();
         if (this.LagSize == 0) {
             this.LagSize = (this.MaximumDistance * DistanseRatio) / this.NumberOfLags;
         }
@@ -2110,11 +1908,7 @@ public class Kriging {
     public Variogram getSemivariogram(SemivariogramType type, double distanceRatio, int numberOfLags,
             boolean anisotropic, boolean useNSGA) {
         this.NumberOfLags = numberOfLags;
-        try {
-            calPairs4Sec();
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(Kriging.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        calPairs4Sec();
         if (this.LagSize == 0) {
             this.LagSize = (this.MaximumDistance * distanceRatio) / this.NumberOfLags;
         }
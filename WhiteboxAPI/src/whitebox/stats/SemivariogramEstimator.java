@@ -0,0 +1,497 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.stats;
+
+import com.vividsolutions.jts.algorithm.ConvexHull;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import whitebox.algorithms.PriorityFlood;
+import whitebox.parallel.Parallel;
+import whitebox.structures.StaticKdTree;
+import whitebox.utilities.NamedThreadFactory;
+
+/**
+ * Estimates the experimental semivariogram of a set of sample points by
+ * binning the semivariances of pairs of points by their lag. The pairs are
+ * never stored. Instead, the pairs of each point are found with a radius
+ * search of a StaticKdTree and added to the bins as they are found, so that
+ * the memory used depends on the number of bins and not the number of pairs.
+ * The points are divided among worker threads, each of which fills its own
+ * bins, and the bins are added together at the end. For very large samples a
+ * random subset of the pairs may be used instead of all of them.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class SemivariogramEstimator {
+
+    private static final int POINTS_PER_TASK = 64;
+
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final StaticKdTree tree;
+    private double samplingRate = 1;
+    private long seed = 0;
+    private int numThreads = Parallel.getPluginProcessors();
+    private PriorityFlood.ProgressListener listener = null;
+
+    /**
+     * The totals of the pairs of points that fall in each bin.
+     */
+    public static class Bins {
+
+        /**
+         * The number of pairs in each bin.
+         */
+        public final long[] count;
+        /**
+         * The sum of the distances between the points of each pair.
+         */
+        public final double[] distance;
+        /**
+         * The sum of the x (horizontal) lags of the pairs.
+         */
+        public final double[] horDistance;
+        /**
+         * The sum of the y (vertical) lags of the pairs.
+         */
+        public final double[] verDistance;
+        /**
+         * The sum of the weights of the pairs, which is the number of pairs
+         * unless the pairs are weighted.
+         */
+        public final double[] weight;
+        /**
+         * The sum of the weighted semivariances of the pairs.
+         */
+        public final double[] value;
+
+        Bins(int numBins) {
+            count = new long[numBins];
+            distance = new double[numBins];
+            horDistance = new double[numBins];
+            verDistance = new double[numBins];
+            weight = new double[numBins];
+            value = new double[numBins];
+        }
+
+        void add(int bin, double dist, double dx, double dy, double w, double semivariance) {
+            count[bin]++;
+            distance[bin] += dist;
+            horDistance[bin] += dx;
+            verDistance[bin] += dy;
+            weight[bin] += w;
+            value[bin] += w * semivariance;
+        }
+
+        void add(Bins other) {
+            for (int i = 0; i < count.length; i++) {
+                count[i] += other.count[i];
+                distance[i] += other.distance[i];
+                horDistance[i] += other.horDistance[i];
+                verDistance[i] += other.verDistance[i];
+                weight[i] += other.weight[i];
+                value[i] += other.value[i];
+            }
+        }
+
+        public int getNumberOfBins() {
+            return count.length;
+        }
+    }
+
+    /**
+     * Class constructor. The arrays are not copied.
+     *
+     * @param x The x coordinates of the points.
+     * @param y The y coordinates of the points.
+     * @param z The values of the points.
+     */
+    public SemivariogramEstimator(double[] x, double[] y, double[] z) {
+        if (x.length != y.length || x.length != z.length) {
+            throw new IllegalArgumentException("The coordinate and value arrays must have the same length.");
+        }
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        double[] coordinates = new double[2 * x.length];
+        for (int i = 0; i < x.length; i++) {
+            coordinates[2 * i] = x[i];
+            coordinates[2 * i + 1] = y[i];
+        }
+        tree = new StaticKdTree(2, coordinates, null);
+    }
+
+    /**
+     * Sets the fraction of the pairs that are used. Each pair is either used
+     * or not depending on a hash of its two points and the seed, so the same
+     * pairs are used whatever the number of threads. The default is 1, i.e.
+     * every pair is used.
+     *
+     * @param samplingRate The fraction of pairs used, between 0 and 1.
+     * @param seed The seed of the random selection.
+     */
+    public void setPairSamplingRate(double samplingRate, long seed) {
+        if (!(samplingRate > 0) || samplingRate > 1) {
+            throw new IllegalArgumentException("The sampling rate must be greater than 0 and no more than 1.");
+        }
+        this.samplingRate = samplingRate;
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the number of threads. The default is the number of processors
+     * available to plugins.
+     *
+     * @param numThreads The number of threads.
+     */
+    public void setNumberOfThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Sets the listener that is told of the percentage of the points whose
+     * pairs have been binned and that can cancel the estimation.
+     *
+     * @param listener The listener.
+     */
+    public void setProgressListener(PriorityFlood.ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the greatest distance between any two of the points, which is
+     * found among the vertices of their convex hull.
+     *
+     * @return The maximum distance.
+     */
+    public double getMaximumDistance() {
+        int n = x.length;
+        if (n < 2) {
+            return 0;
+        }
+        Coordinate[] coords = new Coordinate[n];
+        for (int i = 0; i < n; i++) {
+            coords[i] = new Coordinate(x[i], y[i]);
+        }
+        Coordinate[] hull = new ConvexHull(coords, new GeometryFactory())
+                .getConvexHull().getCoordinates();
+        double max = 0;
+        for (int i = 0; i < hull.length; i++) {
+            for (int j = i + 1; j < hull.length; j++) {
+                double dx = hull[j].x - hull[i].x;
+                double dy = hull[j].y - hull[i].y;
+                max = Math.max(max, Math.sqrt(dx * dx + dy * dy));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Bins the pairs of points by their separation distance, in every
+     * direction. Each pair of points is counted once, as the pair whose
+     * second point is to the east of the first.
+     *
+     * @param lagSize The width of each bin.
+     * @param range Pairs at this distance or more are not counted.
+     * @return The bins, or null if the estimation was cancelled.
+     */
+    public Bins estimateLags(final double lagSize, final double range) {
+        final int numBins = (int) Math.ceil(range / lagSize);
+        return run(numBins, range, new PairBinner() {
+            @Override
+            public void addPair(Bins bins, double dist, double dx, double dy, double semivariance) {
+                if (dist < range && dx >= 0) {
+                    int bin = (int) Math.floor(dist / lagSize);
+                    if (bin < numBins) {
+                        bins.add(bin, dist, dx, dy, 1, semivariance);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Bins the pairs of points by their separation distance, counting only
+     * the pairs whose direction falls within a sector. Each pair of points is
+     * counted in both of its directions.
+     *
+     * @param lagSize The width of each bin.
+     * @param range Pairs at this distance or more are not counted.
+     * @param angle The direction of the sector, in radians counter-clockwise
+     * from east.
+     * @param tolerance The half-width of the sector, in radians.
+     * @param bandWidth The greatest distance that a pair's lag may be from
+     * the centre line of the sector.
+     * @return The bins, or null if the estimation was cancelled.
+     */
+    public Bins estimateLags(final double lagSize, final double range,
+            final double angle, final double tolerance, final double bandWidth) {
+        final int numBins = (int) Math.ceil(range / lagSize);
+        return run(numBins, range, new PairBinner() {
+            @Override
+            public void addPair(Bins bins, double dist, double dx, double dy, double semivariance) {
+                if (!(dist < range)) {
+                    return;
+                }
+                double direction = getDirection(dx, dy);
+                double width = dist * Math.cos((Math.PI / 2) - angle + direction);
+                if (isInSector(angle, tolerance, direction) && Math.abs(width) <= bandWidth) {
+                    int bin = (int) Math.floor(dist / lagSize);
+                    if (bin < numBins) {
+                        bins.add(bin, dist, dx, dy, 1, semivariance);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Bins the pairs of points by their x and y lags, for a semivariogram
+     * surface. The bins are squares of the lag size, centred at odd multiples
+     * of half the lag size. Each pair is counted once, as the pair whose
+     * second point is to the east of the first, so only the two eastern
+     * quadrants of the surface are estimated; the western quadrants mirror
+     * them. A pair is added to each bin whose centre is within one lag size
+     * of its lag in both x and y, weighted bilinearly by its distance from
+     * the centre.
+     *
+     * @param lagSize The width of each bin.
+     * @param numLags The number of bins from the origin to the edge of the
+     * surface.
+     * @return The bins, or null if the estimation was cancelled. The bins of
+     * the north-east quadrant come first, followed by those of the south-east
+     * quadrant. Within each, bin r * numLags + c is centred at a lag of
+     * (0.5 + c) lag sizes east and (0.5 + r) lag sizes north or south.
+     */
+    public Bins estimateSurface(final double lagSize, final int numLags) {
+        final int quadrantBins = numLags * numLags;
+        double radius = Math.sqrt(2) * (numLags + 0.5) * lagSize;
+        return run(2 * quadrantBins, radius, new PairBinner() {
+            @Override
+            public void addPair(Bins bins, double dist, double dx, double dy, double semivariance) {
+                if (dx < 0) {
+                    return;
+                }
+                int firstCol = Math.max(0, (int) Math.floor(dx / lagSize - 1.5));
+                int lastCol = Math.min(numLags - 1, (int) Math.ceil(dx / lagSize + 0.5));
+                double ady = Math.abs(dy);
+                int firstRow = Math.max(0, (int) Math.floor(ady / lagSize - 1.5));
+                int lastRow = Math.min(numLags - 1, (int) Math.ceil(ady / lagSize + 0.5));
+                for (int c = firstCol; c <= lastCol; c++) {
+                    double gridHor = 0.5 * lagSize + c * lagSize;
+                    double wx = Math.abs(gridHor - dx);
+                    if (wx > lagSize) {
+                        continue;
+                    }
+                    for (int r = firstRow; r <= lastRow; r++) {
+                        for (int q = 0; q < 2; q++) {
+                            double gridVer = q == 0 ? 0.5 * lagSize + r * lagSize
+                                    : -0.5 * lagSize - r * lagSize;
+                            double wy = Math.abs(gridVer - dy);
+                            if (wy <= lagSize) {
+                                double w = (1 - wx / lagSize) * (1 - wy / lagSize);
+                                bins.add(q * quadrantBins + r * numLags + c, dist, dx, dy, w, semivariance);
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a pair of points to the bins that it falls in.
+     */
+    private interface PairBinner {
+
+        /**
+         * @param bins The bins of the current thread.
+         * @param dist The distance between the points.
+         * @param dx The x lag from the first point to the second.
+         * @param dy The y lag from the first point to the second.
+         * @param semivariance Half of the squared difference of the values.
+         */
+        void addPair(Bins bins, double dist, double dx, double dy, double semivariance);
+    }
+
+    /**
+     * Offers every ordered pair of points that are within a search radius of
+     * each other to a binner.
+     */
+    private Bins run(final int numBins, final double radius, final PairBinner binner) {
+        final int n = x.length;
+        final int numTasks = (n + POINTS_PER_TASK - 1) / POINTS_PER_TASK;
+        final AtomicInteger nextTask = new AtomicInteger(0);
+        final AtomicInteger tasksCompleted = new AtomicInteger(0);
+        final boolean[] cancelled = new boolean[1];
+        final int[] oldProgress = {-1};
+        int threads = Math.max(1, Math.min(numThreads, numTasks));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new NamedThreadFactory("SemivariogramEstimator"));
+        List<Future<Bins>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(new Callable<Bins>() {
+                @Override
+                public Bins call() {
+                    Bins bins = new Bins(numBins);
+                    StaticKdTree.Neighbours neighbours = new StaticKdTree.Neighbours();
+                    double[] location = new double[2];
+                    int task;
+                    while ((task = nextTask.getAndIncrement()) < numTasks) {
+                        synchronized (cancelled) {
+                            if (cancelled[0]) {
+                                return bins;
+                            }
+                        }
+                        int last = Math.min(n, (task + 1) * POINTS_PER_TASK);
+                        for (int i = task * POINTS_PER_TASK; i < last; i++) {
+                            location[0] = x[i];
+                            location[1] = y[i];
+                            int numFound = tree.findWithinRadius(location, radius, neighbours);
+                            for (int k = 0; k < numFound; k++) {
+                                int j = neighbours.getValue(k);
+                                if (j == i || (samplingRate < 1 && !isSampled(i, j))) {
+                                    continue;
+                                }
+                                double dx = x[j] - x[i];
+                                double dy = y[j] - y[i];
+                                double dist = Math.sqrt(dx * dx + dy * dy);
+                                double dz = z[i] - z[j];
+                                binner.addPair(bins, dist, dx, dy, dz * dz / 2);
+                            }
+                        }
+                        int completed = tasksCompleted.incrementAndGet();
+                        if (listener != null) {
+                            synchronized (cancelled) {
+                                int progress = (int) (100L * completed / numTasks);
+                                if (progress > oldProgress[0]) {
+                                    oldProgress[0] = progress;
+                                    if (!cancelled[0] && !listener.progressMade(progress)) {
+                                        cancelled[0] = true;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    return bins;
+                }
+            }));
+        }
+
+        Bins result = new Bins(numBins);
+        try {
+            for (Future<Bins> f : futures) {
+                try {
+                    result.add(f.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        synchronized (cancelled) {
+            return cancelled[0] ? null : result;
+        }
+    }
+
+    /**
+     * Decides whether a pair is in the sample, the same way for both orders
+     * of its points.
+     */
+    private boolean isSampled(int i, int j) {
+        long key = (long) Math.min(i, j) * x.length + Math.max(i, j);
+        // the splitmix64 finalizer
+        long h = key + seed + 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h = h ^ (h >>> 31);
+        return (h >>> 11) * 0x1.0p-53 < samplingRate;
+    }
+
+    /**
+     * Returns the direction of a lag, in radians counter-clockwise from east,
+     * between 0 and 2 pi.
+     */
+    static double getDirection(double dx, double dy) {
+        double direction = 0;
+        if (dx != 0) {
+            if (dx > 0 && dy >= 0) {
+                direction = Math.atan(dy / dx);
+            }
+            if (dx < 0 && dy >= 0) {
+                direction = Math.atan(dy / dx) + Math.PI;
+            }
+            if (dx > 0 && dy < 0) {
+                direction = Math.atan(dy / dx) + 2 * Math.PI;
+            }
+            if (dx < 0 && dy < 0) {
+                direction = Math.atan(dy / dx) + Math.PI;
+            }
+        } else {
+            if (dy >= 0) {
+                direction = Math.PI / 2;
+            } else {
+                direction = 3 * Math.PI / 2;
+            }
+        }
+        return direction;
+    }
+
+    /**
+     * Checks whether a direction falls within a sector.
+     */
+    static boolean isInSector(double angle, double tolerance, double direction) {
+        boolean flag = false;
+        double la = (angle - tolerance);
+        if (la < 0) {
+            la = 2 * Math.PI + la;
+            flag = true;
+        }
+
+        double ha = (angle + tolerance);
+        if (ha >= 2 * Math.PI) {
+            ha = ha - 2 * Math.PI;
+            flag = true;
+        }
+
+        if (flag) {
+            return !(direction >= ha && direction <= la);
+        } else {
+            return direction >= la && direction <= ha;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.structures;
+
+import java.util.Arrays;
+
+/**
+ * A bucketed priority queue of grid cells for integer priorities within a
+ * known range, e.g. the elevations of an integer DEM. Cells are added to and
+ * removed from the bucket of their priority in constant time. The order in
+ * which cells of equal priority are removed is unspecified.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class CellBucketQueue implements CellQueue {
+
+    private final double minimum;
+    private final long[][] buckets;
+    private final int[] bucketSizes;
+    private int lowestBucket;
+    private long size = 0;
+
+    /**
+     * Class constructor.
+     *
+     * @param minimum The lowest priority that will be added to the queue.
+     * @param maximum The highest priority that will be added to the queue.
+     */
+    public CellBucketQueue(double minimum, double maximum) {
+        double range = Math.floor(maximum) - Math.ceil(minimum) + 1;
+        if (!(range >= 1) || range > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The priority range cannot be bucketed.");
+        }
+        this.minimum = Math.ceil(minimum);
+        buckets = new long[(int) range][];
+        bucketSizes = new int[(int) range];
+        lowestBucket = buckets.length;
+    }
+
+    /**
+     * Adds a cell to the queue. The priority must be a whole number within
+     * the range given to the constructor.
+     *
+     * @param priority The priority of the cell.
+     * @param cell The index of the cell.
+     */
+    @Override
+    public void add(double priority, long cell) {
+        int b = (int) (priority - minimum);
+        if (b < 0 || b >= buckets.length || minimum + b != priority) {
+            throw new IllegalArgumentException("Priority " + priority + " is not a whole number in the range of the queue.");
+        }
+        long[] bucket = buckets[b];
+        int n = bucketSizes[b];
+        if (bucket == null) {
+            bucket = new long[16];
+            buckets[b] = bucket;
+        } else if (n == bucket.length) {
+            bucket = Arrays.copyOf(bucket, n + (n >> 1));
+            buckets[b] = bucket;
+        }
+        bucket[n] = cell;
+        bucketSizes[b] = n + 1;
+        if (b < lowestBucket) {
+            lowestBucket = b;
+        }
+        size++;
+    }
+
+    @Override
+    public long poll() {
+        if (size == 0) {
+            throw new IllegalStateException("The priority queue is empty.");
+        }
+        findLowestBucket();
+        int n = --bucketSizes[lowestBucket];
+        long cell = buckets[lowestBucket][n];
+        if (n == 0) {
+            // release the memory of emptied buckets as the queue rises
+            buckets[lowestBucket] = null;
+        }
+        size--;
+        return cell;
+    }
+
+    @Override
+    public double peekPriority() {
+        if (size == 0) {
+            throw new IllegalStateException("The priority queue is empty.");
+        }
+        findLowestBucket();
+        return minimum + lowestBucket;
+    }
+
+    private void findLowestBucket() {
+        while (bucketSizes[lowestBucket] == 0) {
+            lowestBucket++;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(buckets, null);
+        Arrays.fill(bucketSizes, 0);
+        lowestBucket = buckets.length;
+        size = 0;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.structures;
+
+/**
+ * A first-in-first-out queue of grid cell indices, held in a growable ring
+ * buffer of primitive longs.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class CellFifoQueue {
+
+    private long[] cells;
+    private int head = 0;
+    private int size = 0;
+
+    public CellFifoQueue() {
+        this(1024);
+    }
+
+    public CellFifoQueue(int initialCapacity) {
+        cells = new long[Math.max(16, initialCapacity)];
+    }
+
+    public void add(long cell) {
+        if (size == cells.length) {
+            int capacity = cells.length + (cells.length >> 1);
+            if (capacity < 0 || capacity > Integer.MAX_VALUE - 8) {
+                capacity = Integer.MAX_VALUE - 8;
+                if (size == capacity) {
+                    throw new IllegalStateException("The queue is full.");
+                }
+            }
+            long[] grown = new long[capacity];
+            int firstPart = Math.min(size, cells.length - head);
+            System.arraycopy(cells, head, grown, 0, firstPart);
+            System.arraycopy(cells, 0, grown, firstPart, size - firstPart);
+            cells = grown;
+            head = 0;
+        }
+        int tail = head + size;
+        if (tail >= cells.length) {
+            tail -= cells.length;
+        }
+        cells[tail] = cell;
+        size++;
+    }
+
+    public long poll() {
+        if (size == 0) {
+            throw new IllegalStateException("The queue is empty.");
+        }
+        long cell = cells[head];
+        head++;
+        if (head == cells.length) {
+            head = 0;
+        }
+        size--;
+        return cell;
+    }
+
+    public long peek() {
+        if (size == 0) {
+            throw new IllegalStateException("The queue is empty.");
+        }
+        return cells[head];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.structures;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of grid cells, keyed on a double priority. Cells of equal
+ * priority are removed in order of their index, i.e. in row-major order when
+ * the index is row * columns + column, which is the same order as the
+ * comparator of GridCell.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class CellPriorityQueue implements CellQueue {
+
+    private double[] priorities;
+    private long[] cells;
+    private int size = 0;
+
+    public CellPriorityQueue() {
+        this(1024);
+    }
+
+    public CellPriorityQueue(int initialCapacity) {
+        initialCapacity = Math.max(16, initialCapacity);
+        priorities = new double[initialCapacity];
+        cells = new long[initialCapacity];
+    }
+
+    @Override
+    public void add(double priority, long cell) {
+        if (size == cells.length) {
+            int capacity = cells.length + (cells.length >> 1);
+            if (capacity < 0 || capacity > Integer.MAX_VALUE - 8) {
+                capacity = Integer.MAX_VALUE - 8;
+                if (size == capacity) {
+                    throw new IllegalStateException("The priority queue is full.");
+                }
+            }
+            priorities = Arrays.copyOf(priorities, capacity);
+            cells = Arrays.copyOf(cells, capacity);
+        }
+        // sift up
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            double p = priorities[parent];
+            if (p < priority || (p == priority && cells[parent] < cell)) {
+                break;
+            }
+            priorities[i] = p;
+            cells[i] = cells[parent];
+            i = parent;
+        }
+        priorities[i] = priority;
+        cells[i] = cell;
+    }
+
+    @Override
+    public long poll() {
+        if (size == 0) {
+            throw new IllegalStateException("The priority queue is empty.");
+        }
+        long result = cells[0];
+        size--;
+        if (size > 0) {
+            // sift the last element down from the root
+            double priority = priorities[size];
+            long cell = cells[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                int right = child + 1;
+                if (right < size && (priorities[right] < priorities[child]
+                        || (priorities[right] == priorities[child] && cells[right] < cells[child]))) {
+                    child = right;
+                }
+                double p = priorities[child];
+                if (priority < p || (priority == p && cell < cells[child])) {
+                    break;
+                }
+                priorities[i] = p;
+                cells[i] = cells[child];
+                i = child;
+            }
+            priorities[i] = priority;
+            cells[i] = cell;
+        }
+        return result;
+    }
+
+    @Override
+    public double peekPriority() {
+        if (size == 0) {
+            throw new IllegalStateException("The priority queue is empty.");
+        }
+        return priorities[0];
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.structures;
+
+/**
+ * A priority queue of grid cells held in primitive arrays. Each cell is
+ * identified by a long index, usually row * columns + column, and the cell
+ * with the lowest priority is removed first. Unlike a
+ * java.util.PriorityQueue of GridCell objects, no object is created for each
+ * cell that is added, which matters for grids of hundreds of millions of
+ * cells.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public interface CellQueue {
+
+    /**
+     * Adds a cell to the queue.
+     *
+     * @param priority The priority of the cell, e.g. its elevation.
+     * @param cell The index of the cell.
+     */
+    void add(double priority, long cell);
+
+    /**
+     * Removes the cell with the lowest priority.
+     *
+     * @return The index of the removed cell.
+     */
+    long poll();
+
+    /**
+     * Returns the lowest priority in the queue without removing its cell.
+     *
+     * @return The lowest priority.
+     */
+    double peekPriority();
+
+    boolean isEmpty();
+
+    long size();
+
+    void clear();
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.structures;
+
+/**
+ * A summed-area table (integral image) of a grid of values, together with
+ * companion tables of the sum of squares and of the number of valid cells.
+ * Once built, the count, sum, and sum of squares of the valid (non-nodata)
+ * cells in any rectangle can be found in constant time, regardless of the
+ * size of the rectangle. This makes mean, total, and standard deviation
+ * filters independent of the filter size.
+ *
+ * The table is built from a primitive buffer and may be rebuilt many times,
+ * e.g. once for each band of rows of a large raster, so that memory use is
+ * bounded by the size of the band rather than the size of the raster. To
+ * limit round-off in the sums of squares, the values are stored relative to
+ * the first valid value in the grid.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class IntegralImage {
+
+    private int rows;
+    private int columns;
+    private int width; // columns + 1
+    private double shift;
+    private double[] sum = new double[0];
+    private double[] sumSqr = new double[0];
+    private int[] count = new int[0];
+
+    /**
+     * Builds the tables from a grid of values held in a one-dimensional array
+     * in row-major order.
+     *
+     * @param data The grid values.
+     * @param offset The index of the first cell of the grid within data.
+     * @param stride The distance within data between consecutive rows.
+     * @param rows The number of rows in the grid.
+     * @param columns The number of columns in the grid.
+     * @param noData The nodata value, which is excluded from the sums.
+     */
+    public void build(double[] data, int offset, int stride, int rows, int columns, double noData) {
+        this.rows = rows;
+        this.columns = columns;
+        this.width = columns + 1;
+        int size = (rows + 1) * width;
+        if (sum.length < size) {
+            sum = new double[size];
+            sumSqr = new double[size];
+            count = new int[size];
+        }
+
+        shift = 0;
+        search:
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                double z = data[offset + r * stride + c];
+                if (z != noData) {
+                    shift = z;
+                    break search;
+                }
+            }
+        }
+
+        // the first row and column of the tables are zero.
+        for (int c = 0; c < width; c++) {
+            sum[c] = 0;
+            sumSqr[c] = 0;
+            count[c] = 0;
+        }
+        for (int r = 0; r < rows; r++) {
+            int i = (r + 1) * width;
+            sum[i] = 0;
+            sumSqr[i] = 0;
+            count[i] = 0;
+            double rowSum = 0;
+            double rowSumSqr = 0;
+            int rowCount = 0;
+            int d = offset + r * stride;
+            for (int c = 0; c < columns; c++, d++) {
+                double z = data[d];
+                if (z != noData) {
+                    z -= shift;
+                    rowSum += z;
+                    rowSumSqr += z * z;
+                    rowCount++;
+                }
+                i++;
+                sum[i] = sum[i - width] + rowSum;
+                sumSqr[i] = sumSqr[i - width] + rowSumSqr;
+                count[i] = count[i - width] + rowCount;
+            }
+        }
+    }
+
+    public int getNumberRows() {
+        return rows;
+    }
+
+    public int getNumberColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of valid cells in a rectangle. The rectangle is
+     * clipped to the grid.
+     *
+     * @param row1 The first row of the rectangle.
+     * @param col1 The first column of the rectangle.
+     * @param row2 The last row of the rectangle (inclusive).
+     * @param col2 The last column of the rectangle (inclusive).
+     * @return The number of valid cells.
+     */
+    public int getCount(int row1, int col1, int row2, int col2) {
+        if (row1 < 0) {
+            row1 = 0;
+        }
+        if (col1 < 0) {
+            col1 = 0;
+        }
+        if (row2 >= rows) {
+            row2 = rows - 1;
+        }
+        if (col2 >= columns) {
+            col2 = columns - 1;
+        }
+        if (row1 > row2 || col1 > col2) {
+            return 0;
+        }
+        int a = row1 * width + col1;
+        int b = (row2 + 1) * width + col1;
+        int w = col2 - col1 + 1;
+        return count[b + w] - count[a + w] - count[b] + count[a];
+    }
+
+    /**
+     * Returns the sum of the valid cells in a rectangle. The rectangle is
+     * clipped to the grid.
+     *
+     * @param row1 The first row of the rectangle.
+     * @param col1 The first column of the rectangle.
+     * @param row2 The last row of the rectangle (inclusive).
+     * @param col2 The last column of the rectangle (inclusive).
+     * @return The sum of the valid cells.
+     */
+    public double getSum(int row1, int col1, int row2, int col2) {
+        int n = getCount(row1, col1, row2, col2);
+        if (n == 0) {
+            return 0;
+        }
+        return rectangle(sum, row1, col1, row2, col2) + n * shift;
+    }
+
+    /**
+     * Returns the sum of the squares of the valid cells in a rectangle. The
+     * rectangle is clipped to the grid.
+     *
+     * @param row1 The first row of the rectangle.
+     * @param col1 The first column of the rectangle.
+     * @param row2 The last row of the rectangle (inclusive).
+     * @param col2 The last column of the rectangle (inclusive).
+     * @return The sum of the squares of the valid cells.
+     */
+    public double getSumOfSquares(int row1, int col1, int row2, int col2) {
+        int n = getCount(row1, col1, row2, col2);
+        if (n == 0) {
+            return 0;
+        }
+        return rectangle(sumSqr, row1, col1, row2, col2)
+                + 2 * shift * rectangle(sum, row1, col1, row2, col2)
+                + n * shift * shift;
+    }
+
+    /**
+     * Returns the sum of the squared deviations from the mean of the valid
+     * cells in a rectangle, i.e. the count multiplied by the population
+     * variance. This is more accurate than combining getSum and
+     * getSumOfSquares because the large terms cancel before the values are
+     * shifted back.
+     *
+     * @param row1 The first row of the rectangle.
+     * @param col1 The first column of the rectangle.
+     * @param row2 The last row of the rectangle (inclusive).
+     * @param col2 The last column of the rectangle (inclusive).
+     * @return The sum of the squared deviations from the mean.
+     */
+    public double getSumOfSquaredDeviations(int row1, int col1, int row2, int col2) {
+        int n = getCount(row1, col1, row2, col2);
+        if (n == 0) {
+            return 0;
+        }
+        double s = rectangle(sum, row1, col1, row2, col2);
+        return Math.max(0, rectangle(sumSqr, row1, col1, row2, col2) - s * s / n);
+    }
+
+    /**
+     * Returns the sum of the squared deviations from the mean of the valid
+     * cells in a window made of one span of columns per row, e.g. a rounded
+     * filter. As with the rectangular version, the sums are combined before
+     * the values are shifted back.
+     *
+     * @param row The centre row of the window.
+     * @param col The centre column of the window.
+     * @param rowHalfWidths The half-width of the span in each row of the
+     * window, which is centred on row, or -1 if the row has no cells.
+     * @return The sum of the squared deviations from the mean.
+     */
+    public double getSumOfSquaredDeviations(int row, int col, int[] rowHalfWidths) {
+        int midPoint = rowHalfWidths.length / 2;
+        int n = 0;
+        double s = 0;
+        double sSqr = 0;
+        for (int k = 0; k < rowHalfWidths.length; k++) {
+            int w = rowHalfWidths[k];
+            if (w < 0) {
+                continue;
+            }
+            int y = row + k - midPoint;
+            int nk = getCount(y, col - w, y, col + w);
+            if (nk > 0) {
+                n += nk;
+                s += rectangle(sum, y, col - w, y, col + w);
+                sSqr += rectangle(sumSqr, y, col - w, y, col + w);
+            }
+        }
+        if (n == 0) {
+            return 0;
+        }
+        return Math.max(0, sSqr - s * s / n);
+    }
+
+    private double rectangle(double[] table, int row1, int col1, int row2, int col2) {
+        if (row1 < 0) {
+            row1 = 0;
+        }
+        if (col1 < 0) {
+            col1 = 0;
+        }
+        if (row2 >= rows) {
+            row2 = rows - 1;
+        }
+        if (col2 >= columns) {
+            col2 = columns - 1;
+        }
+        int a = row1 * width + col1;
+        int b = (row2 + 1) * width + col1;
+        int w = col2 - col1 + 1;
+        return table[b + w] - table[a + w] - table[b] + table[a];
+    }
+}
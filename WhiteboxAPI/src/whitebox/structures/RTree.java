@@ -1,538 +1,407 @@
-//package whitebox.structures;
-//
-//import java.util.Arrays;
-//import java.util.HashSet;
-//import java.util.LinkedList;
-//import java.util.List;
-//import java.util.ListIterator;
-//import java.util.Set;
-//
-///**
-// * Implementation of an arbitrary-dimension RTree. Based on R-Trees: A Dynamic
-// * Index Structure for Spatial Searching (Antonn Guttmann, 1984)
-// *
-// * This class is not thread-safe.
-// *
-// * Copyright 2010 Russ Weeks rweeks@newbrightidea.com Licensed under the GNU
-// * LGPL License details here: http://www.gnu.org/licenses/lgpl-3.0.txt
-// *
-// * @param <T> the type of entry to store in this RTree.
-// */
-//public class RTree<T> {
-//
-//    private final int maxEntries;
-//    private final int minEntries;
-//    private final int numDims;
-//    private Node root;
-//    private volatile int size;
-//
-//    /**
-//     * Creates a new RTree.
-//     *
-//     * @param maxEntries maximum number of entries per node
-//     * @param minEntries minimum number of entries per node (except for the root
-//     * node)
-//     * @param numDims the number of dimensions of the RTree.
-//     */
-//    public RTree(int maxEntries, int minEntries, int numDims) {
-//        assert (minEntries <= (maxEntries / 2));
-//        this.numDims = numDims;
-//        this.maxEntries = maxEntries;
-//        this.minEntries = minEntries;
-//        root = buildRoot(true);
-//    }
-//
-//    private Node buildRoot(boolean asLeaf) {
-//        float[] initCoords = new float[numDims];
-//        float[] initDimensions = new float[numDims];
-//        for (int i = 0; i < this.numDims; i++) {
-//            initCoords[i] = (float) Math.sqrt(Float.MAX_VALUE);
-//            initDimensions[i] = -2.0f * (float) Math.sqrt(Float.MAX_VALUE);
-//        }
-//        return new Node(initCoords, initDimensions, asLeaf);
-//    }
-//
-//    /**
-//     * Builds a new RTree using default parameters: maximum 50 entries per node
-//     * minimum 2 entries per node 2 dimensions
-//     */
-//    public RTree() {
-//        this(50, 2, 2);
-//    }
-//
-//    /**
-//     * @return the maximum number of entries per node
-//     */
-//    public int getMaxEntries() {
-//        return maxEntries;
-//    }
-//
-//    /**
-//     * @return the minimum number of entries per node for all nodes except the
-//     * root.
-//     */
-//    public int getMinEntries() {
-//        return minEntries;
-//    }
-//
-//    /**
-//     * @return the number of dimensions of the tree
-//     */
-//    public int getNumDims() {
-//        return numDims;
-//    }
-//
-//    /**
-//     * @return the number of items in this tree.
-//     */
-//    public int size() {
-//        return size;
-//    }
-//
-//    /**
-//     * Searches the RTree for objects overlapping with the given rectangle.
-//     *
-//     * @param coords the corner of the rectangle that is the lower bound of
-//     * every dimension (eg. the top-left corner)
-//     * @param dimensions the dimensions of the rectangle.
-//     * @return a list of objects whose rectangles overlap with the given
-//     * rectangle.
-//     */
-//    public List<T> search(float[] coords, float[] dimensions) {
-//        assert (coords.length == numDims);
-//        assert (dimensions.length == numDims);
-//        LinkedList<T> results = new LinkedList<T>();
-//        search(coords, dimensions, root, results);
-//        return results;
-//    }
-//
-//    private void search(float[] coords, float[] dimensions, Node n,
-//            LinkedList<T> results) {
-//        if (n.leaf) {
-//            for (Node e : n.children) {
-//                if (isOverlap(coords, dimensions, e.coords, e.dimensions)) {
-//                    results.add(((Entry) e).entry);
-//                }
-//            }
-//        } else {
-//            for (Node c : n.children) {
-//                if (isOverlap(coords, dimensions, c.coords, c.dimensions)) {
-//                    search(coords, dimensions, c, results);
-//                }
-//            }
-//        }
-//    }
-//
-//    /**
-//     * Deletes the entry associated with the given rectangle from the RTree
-//     *
-//     * @param coords the corner of the rectangle that is the lower bound in
-//     * every dimension
-//     * @param dimensions the dimensions of the rectangle
-//     * @param entry the entry to delete
-//     * @return true iff the entry was deleted from the RTree.
-//     */
-//    public boolean delete(float[] coords, float[] dimensions, T entry) {
-//        assert (coords.length == numDims);
-//        assert (dimensions.length == numDims);
-//        Node l = findLeaf(root, coords, dimensions, entry);
-//        assert (l.leaf);
-//        ListIterator<Node> li = l.children.listIterator();
-//        T removed = null;
-//        while (li.hasNext()) {
-//            @SuppressWarnings("unchecked")
-//            Entry e = (Entry) li.next();
-//            if (e.entry.equals(entry)) {
-//                removed = e.entry;
-//                li.remove();
-//                break;
-//            }
-//        }
-//        if (removed != null) {
-//            condenseTree(l);
-//            size--;
-//        }
-//        if (size == 0) {
-//            root = buildRoot(true);
-//        }
-//        return (removed != null);
-//    }
-//
-//    private Node findLeaf(Node n, float[] coords, float[] dimensions, T entry) {
-//        if (n.leaf) {
-//            for (Node c : n.children) {
-//                if (((Entry) c).entry.equals(entry)) {
-//                    return n;
-//                }
-//            }
-//            return null;
-//        } else {
-//            for (Node c : n.children) {
-//                if (isOverlap(c.coords, c.dimensions, coords, dimensions)) {
-//                    Node result = findLeaf(c, coords, dimensions, entry);
-//                    if (result != null) {
-//                        return result;
-//                    }
-//                }
-//            }
-//            return null;
-//        }
-//    }
-//
-//    private void condenseTree(Node n) {
-//        Set<Node> q = new HashSet<Node>();
-//        while (n != root) {
-//            if (n.leaf && (n.children.size() < minEntries)) {
-//                q.addAll(n.children);
-//                n.parent.children.remove(n);
-//            } else if (!n.leaf && (n.children.size() < minEntries)) {
-//                // probably a more efficient way to do this...
-//                LinkedList<Node> toVisit = new LinkedList<Node>(n.children);
-//                while (!toVisit.isEmpty()) {
-//                    Node c = toVisit.pop();
-//                    if (c.leaf) {
-//                        q.addAll(c.children);
-//                    } else {
-//                        toVisit.addAll(c.children);
-//                    }
-//                }
-//                n.parent.children.remove(n);
-//            } else {
-//                tighten(n);
-//            }
-//            n = n.parent;
-//        }
-//        for (Node ne : q) {
-//            @SuppressWarnings("unchecked")
-//            Entry e = (Entry) ne;
-//            insert(e.coords, e.dimensions, e.entry);
-//        }
-//    }
-//
-//    /**
-//     * Inserts the given entry into the RTree, associated with the given
-//     * rectangle.
-//     *
-//     * @param coords the corner of the rectangle that is the lower bound in
-//     * every dimension
-//     * @param dimensions the dimensions of the rectangle
-//     * @param entry the entry to insert
-//     */
-//    public void insert(float[] coords, float[] dimensions, T entry) {
-//        assert (coords.length == numDims);
-//        assert (dimensions.length == numDims);
-//        Entry e = new Entry(coords, dimensions, entry);
-//        Node l = chooseLeaf(root, e);
-//        l.children.add(e);
-//        size++;
-//        e.parent = l;
-//        if (l.children.size() > maxEntries) {
-//            Node[] splits = splitNode(l);
-//            adjustTree(splits[0], splits[1]);
-//        } else {
-//            adjustTree(l, null);
-//        }
-//    }
-//
-//    /**
-//     * Empties the RTree
-//     */
-//    public void clear() {
-//        root = buildRoot(true);
-//        // let the GC take care of the rest.
-//    }
-//
-//    private void adjustTree(Node n, Node nn) {
-//        if (n == root) {
-//            if (nn != null) {
-//                // build new root and add children.
-//                root = buildRoot(false);
-//                root.children.add(n);
-//                n.parent = root;
-//                root.children.add(nn);
-//                nn.parent = root;
-//            }
-//            tighten(root);
-//            return;
-//        }
-//        tighten(n);
-//        if (nn != null) {
-//            tighten(nn);
-//            if (n.parent.children.size() > maxEntries) {
-//                Node[] splits = splitNode(n.parent);
-//                adjustTree(splits[0], splits[1]);
-//            }
-//        } else if (n.parent != null) {
-//            adjustTree(n.parent, null);
-//        }
-//    }
-//
-//    private Node[] splitNode(Node n) {
-//        @SuppressWarnings("unchecked")
-//        Node[] nn = new RTree.Node[]{n, new Node(n.coords, n.dimensions, n.leaf)};
-//        nn[1].parent = n.parent;
-//        if (nn[1].parent != null) {
-//            nn[1].parent.children.add(nn[1]);
-//        }
-//        LinkedList<Node> cc = new LinkedList<Node>(n.children);
-//        n.children.clear();
-//        Node[] ss = pickSeeds(cc);
-//        nn[0].children.add(ss[0]);
-//        nn[1].children.add(ss[1]);
-//        while (!cc.isEmpty()) {
-//            if ((nn[0].children.size() >= minEntries)
-//                    && (nn[1].children.size() + cc.size() == minEntries)) {
-//                nn[1].children.addAll(cc);
-//                cc.clear();
-//                return nn;
-//            } else if ((nn[1].children.size() >= minEntries)
-//                    && (nn[0].children.size() + cc.size() == minEntries)) {
-//                nn[0].children.addAll(cc);
-//                cc.clear();
-//                return nn;
-//            }
-//            Node c = cc.pop();
-//            Node preferred;
-//            // Implementation of linear PickNext
-//            float e0 = getRequiredExpansion(nn[0].coords, nn[0].dimensions, c);
-//            float e1 = getRequiredExpansion(nn[1].coords, nn[1].dimensions, c);
-//            if (e0 < e1) {
-//                preferred = nn[0];
-//            } else if (e0 > e1) {
-//                preferred = nn[1];
-//            } else {
-//                float a0 = getArea(nn[0].dimensions);
-//                float a1 = getArea(nn[1].dimensions);
-//                if (a0 < a1) {
-//                    preferred = nn[0];
-//                } else if (e0 > a1) {
-//                    preferred = nn[1];
-//                } else {
-//                    if (nn[0].children.size() < nn[1].children.size()) {
-//                        preferred = nn[0];
-//                    } else if (nn[0].children.size() > nn[1].children.size()) {
-//                        preferred = nn[1];
-//                    } else {
-//                        preferred = nn[(int) Math.round(Math.random())];
-//                    }
-//                }
-//            }
-//            preferred.children.add(c);
-//        }
-//        tighten(nn[0]);
-//        tighten(nn[1]);
-//        return nn;
-//    }
-//
-//    // Implementation of LinearPickSeeds
-//    private RTree<T>.Node[] pickSeeds(LinkedList<Node> nn) {
-//        RTree<T>.Node[] bestPair = null;
-//        float bestSep = 0.0f;
-//        for (int i = 0; i < numDims; i++) {
-//            float dimLb = Float.MAX_VALUE, dimMinUb = Float.MAX_VALUE;
-//            float dimUb = -1.0f * Float.MAX_VALUE, dimMaxLb = -1.0f * Float.MAX_VALUE;
-//            Node nMaxLb = null, nMinUb = null;
-//            for (Node n : nn) {
-//                if (n.coords[i] < dimLb) {
-//                    dimLb = n.coords[i];
-//                }
-//                if (n.dimensions[i] + n.coords[i] > dimUb) {
-//                    dimUb = n.dimensions[i] + n.coords[i];
-//                }
-//                if (n.coords[i] > dimMaxLb) {
-//                    dimMaxLb = n.coords[i];
-//                    nMaxLb = n;
-//                }
-//                if (n.dimensions[i] + n.coords[i] < dimMinUb) {
-//                    dimMinUb = n.dimensions[i] + n.coords[i];
-//                    nMinUb = n;
-//                }
-//            }
-//            float sep = (nMaxLb == nMinUb) ? -1.0f
-//                    : Math.abs((dimMinUb - dimMaxLb) / (dimUb - dimLb));
-//            if (sep >= bestSep) {
-//                bestPair = new RTree.Node[]{nMaxLb, nMinUb};
-//                bestSep = sep;
-//            }
-//        }
-//        // In the degenerate case where all points are the same, the above
-//        // algorithm does not find a best pair.  Just pick the first 2
-//        // children.
-//        if (bestPair == null) {
-//            bestPair = new RTree.Node[]{nn.get(0), nn.get(1)};
-//        }
-//        nn.remove(bestPair[0]);
-//        nn.remove(bestPair[1]);
-//        return bestPair;
-//    }
-//
-//    private void tighten(Node n) {
-//        float[] minCoords = new float[n.coords.length];
-//        float[] maxDimensions = new float[n.dimensions.length];
-//        for (int i = 0; i < minCoords.length; i++) {
-//            minCoords[i] = Float.MAX_VALUE;
-//            maxDimensions[i] = 0.0f;
-//
-//            for (Node c : n.children) {
-//                // we may have bulk-added a bunch of children to a node (eg. in
-//                // splitNode)
-//                // so here we just enforce the child->parent relationship.
-//                c.parent = n;
-//                if (c.coords[i] < minCoords[i]) {
-//                    minCoords[i] = c.coords[i];
-//                }
-//                if ((c.coords[i] + c.dimensions[i]) > maxDimensions[i]) {
-//                    maxDimensions[i] = (c.coords[i] + c.dimensions[i]);
-//                }
-//            }
-//        }
-//        System.arraycopy(minCoords, 0, n.coords, 0, minCoords.length);
-//        System.arraycopy(maxDimensions, 0, n.dimensions, 0, maxDimensions.length);
-//    }
-//
-//    private RTree<T>.Node chooseLeaf(RTree<T>.Node n, RTree<T>.Entry e) {
-//        if (n.leaf) {
-//            return n;
-//        }
-//        float minInc = Float.MAX_VALUE;
-//        Node next = null;
-//        for (RTree<T>.Node c : n.children) {
-//            float inc = getRequiredExpansion(c.coords, c.dimensions, e);
-//            if (inc < minInc) {
-//                minInc = inc;
-//                next = c;
-//            } else if (inc == minInc) {
-//                float curArea = 1.0f;
-//                float thisArea = 1.0f;
-//                for (int i = 0; i < c.dimensions.length; i++) {
-//                    curArea *= next.dimensions[i];
-//                    thisArea *= c.dimensions[i];
-//                }
-//                if (thisArea < curArea) {
-//                    next = c;
-//                }
-//            }
-//        }
-//        return chooseLeaf(next, e);
-//    }
-//
-//    /**
-//     * Returns the increase in area necessary for the given rectangle to cover
-//     * the given entry.
-//     */
-//    private float getRequiredExpansion(float[] coords, float[] dimensions, Node e) {
-//        float area = getArea(dimensions);
-//        float[] deltas = new float[dimensions.length];
-//        for (int i = 0; i < deltas.length; i++) {
-//            if (coords[i] + dimensions[i] < e.coords[i] + e.dimensions[i]) {
-//                deltas[i] = e.coords[i] + e.dimensions[i] - coords[i] - dimensions[i];
-//            } else if (coords[i] + dimensions[i] > e.coords[i] + e.dimensions[i]) {
-//                deltas[i] = coords[i] - e.coords[i];
-//            }
-//        }
-//        float expanded = 1.0f;
-//        for (int i = 0; i < dimensions.length; i++) {
-//            area *= dimensions[i] + deltas[i];
-//        }
-//        return (expanded - area);
-//    }
-//
-//    private float getArea(float[] dimensions) {
-//        float area = 1.0f;
-//        for (int i = 0; i < dimensions.length; i++) {
-//            area *= dimensions[i];
-//        }
-//        return area;
-//    }
-//
-//    private boolean isOverlap(float[] scoords, float[] sdimensions,
-//            float[] coords, float[] dimensions) {
-//        for (int i = 0; i < scoords.length; i++) {
-//            boolean overlapInThisDimension = false;
-//            if (scoords[i] == coords[i]) {
-//                overlapInThisDimension = true;
-//            } else if (scoords[i] < coords[i]) {
-//                if (scoords[i] + sdimensions[i] >= coords[i]) {
-//                    overlapInThisDimension = true;
-//                }
-//            } else if (scoords[i] > coords[i]) {
-//                if (coords[i] + dimensions[i] >= scoords[i]) {
-//                    overlapInThisDimension = true;
-//                }
-//            }
-//            if (!overlapInThisDimension) {
-//                return false;
-//            }
-//        }
-//        return true;
-//    }
-//
-//    private class Node {
-//
-//        final float[] coords;
-//        final float[] dimensions;
-//        final LinkedList<Node> children;
-//        final boolean leaf;
-//        Node parent;
-//
-//        private Node(float[] coords, float[] dimensions, boolean leaf) {
-//            this.coords = new float[coords.length];
-//            this.dimensions = new float[dimensions.length];
-//            System.arraycopy(coords, 0, this.coords, 0, coords.length);
-//            System.arraycopy(dimensions, 0, this.dimensions, 0, dimensions.length);
-//            this.leaf = leaf;
-//            children = new LinkedList<Node>();
-//        }
-//    }
-//
-//    private class Entry extends Node {
-//
-//        final T entry;
-//
-//        public Entry(float[] coords, float[] dimensions, T entry) {
-//            // an entry isn't actually a leaf (its parent is a leaf)
-//            // but all the algorithms should stop at the first leaf they encounter,
-//            // so this little hack shouldn't be a problem.
-//            super(coords, dimensions, true);
-//            this.entry = entry;
-//        }
-//
-//        public String toString() {
-//            return "Entry: " + entry;
-//        }
-//    }
-//    // The methods below this point can be used to create an HTML rendering
-//    // of the RTree.  Maybe useful for debugging?
-//    private static final int elemWidth = 150;
-//    private static final int elemHeight = 120;
-//
-//    public String visualize() {
-//        int ubDepth = (int) Math.ceil(Math.log(size) / Math.log(minEntries)) * elemHeight;
-//        int ubWidth = size * elemWidth;
-//        java.io.StringWriter sw = new java.io.StringWriter();
-//        java.io.PrintWriter pw = new java.io.PrintWriter(sw);
-//        pw.println("<html><head></head><body>");
-//        visualize(root, pw, 0, 0, ubWidth, ubDepth);
-//        pw.println("</body>");
-//        pw.flush();
-//        return sw.toString();
-//    }
-//
-//    private void visualize(Node n, java.io.PrintWriter pw, int x0, int y0, int w, int h) {
-//        pw.printf("<div style=\"position:absolute; left: %d; top: %d; width: %d; height: %d; border: 1px dashed\">\n",
-//                x0, y0, w, h);
-//        pw.println("<pre>");
-//        pw.println("Node: " + n.toString() + " (root==" + (n == root) + ") \n");
-//        pw.println("Coords: " + Arrays.toString(n.coords) + "\n");
-//        pw.println("Dimensions: " + Arrays.toString(n.dimensions) + "\n");
-//        pw.println("# Children: " + ((n.children == null) ? 0 : n.children.size()) + "\n");
-//        pw.println("isLeaf: " + n.leaf + "\n");
-//        pw.println("</pre>");
-//        int numChildren = (n.children == null) ? 0 : n.children.size();
-//        for (int i = 0; i < numChildren; i++) {
-//            visualize(n.children.get(i), pw, (int) (x0 + (i * w / (float) numChildren)),
-//                    y0 + elemHeight, (int) (w / (float) numChildren), h - elemHeight);
-//        }
-//        pw.println("</div>");
-//    }
-//}
\ No newline at end of file
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.structures;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A two-dimensional R-tree of bounding boxes that is bulk loaded with the
+ * Sort-Tile-Recursive (STR) method and then only queried. The entries are
+ * sorted into vertical slices by the x coordinates of their centres, and
+ * each slice is sorted by the y coordinates of the centres, so that runs of
+ * NODE_CAPACITY consecutive entries form compact leaf nodes. Each upper level
+ * is formed by grouping NODE_CAPACITY consecutive nodes of the level below.
+ *
+ * The boxes of the entries and of the nodes are held in flat primitive
+ * arrays, with the entries first followed by each level of nodes in turn, so
+ * the tree needs no node objects and can be written to and read from a
+ * buffer directly. Each entry carries an int value, which is the index of its
+ * box in the array that the tree was built from.
+ *
+ * The tree is never modified after it is built and may be searched by
+ * several threads at once.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class RTree {
+
+    private static final int NODE_CAPACITY = 16;
+
+    private final int size;
+    // the boxes of level l occupy positions levelStarts[l] to
+    // levelStarts[l + 1] - 1; level 0 holds the entries and the last level
+    // holds the root.
+    private final int[] levelStarts;
+    private final double[] minX;
+    private final double[] minY;
+    private final double[] maxX;
+    private final double[] maxY;
+    private final int[] values;
+
+    /**
+     * Class constructor. Boxes that are null or null boxes (i.e. with a
+     * maximum less than their minimum) are not added to the tree.
+     *
+     * @param boxes The bounding boxes. The value of each entry is the index
+     * of its box in this array.
+     */
+    public RTree(BoundingBox[] boxes) {
+        int n = 0;
+        for (BoundingBox bb : boxes) {
+            if (bb != null && !bb.isNull()) {
+                n++;
+            }
+        }
+        size = n;
+        levelStarts = getLevelStarts(n);
+        int total = levelStarts[levelStarts.length - 1];
+        minX = new double[total];
+        minY = new double[total];
+        maxX = new double[total];
+        maxY = new double[total];
+        values = new int[n];
+
+        // sort the entries by the x coordinates of their centres, then sort
+        // each slice by the y coordinates of their centres.
+        double[] keys = new double[n];
+        n = 0;
+        for (int i = 0; i < boxes.length; i++) {
+            BoundingBox bb = boxes[i];
+            if (bb != null && !bb.isNull()) {
+                values[n] = i;
+                keys[n] = bb.getMinX() + bb.getMaxX();
+                n++;
+            }
+        }
+        sort(keys, values, 0, size);
+        int numLeaves = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int numSlices = (int) Math.ceil(Math.sqrt(numLeaves));
+        int sliceSize = numSlices * NODE_CAPACITY;
+        for (int i = 0; i < size; i++) {
+            BoundingBox bb = boxes[values[i]];
+            keys[i] = bb.getMinY() + bb.getMaxY();
+        }
+        for (int start = 0; start < size; start += sliceSize) {
+            sort(keys, values, start, Math.min(start + sliceSize, size));
+        }
+
+        for (int i = 0; i < size; i++) {
+            BoundingBox bb = boxes[values[i]];
+            minX[i] = bb.getMinX();
+            minY[i] = bb.getMinY();
+            maxX[i] = bb.getMaxX();
+            maxY[i] = bb.getMaxY();
+        }
+        computeNodeBoxes();
+    }
+
+    private RTree(int size, double[] minX, double[] minY, double[] maxX,
+            double[] maxY, int[] values) {
+        this.size = size;
+        this.levelStarts = getLevelStarts(size);
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.values = values;
+    }
+
+    /**
+     * Works out where each level begins in the box arrays of a tree with a
+     * given number of entries. The last element is the length of the arrays.
+     */
+    private static int[] getLevelStarts(int numEntries) {
+        int numLevels = 1;
+        int n = numEntries;
+        while (n > 1) {
+            n = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            numLevels++;
+        }
+        int[] starts = new int[numLevels + 1];
+        n = numEntries;
+        for (int l = 0; l < numLevels; l++) {
+            starts[l + 1] = starts[l] + n;
+            n = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        }
+        return starts;
+    }
+
+    private void computeNodeBoxes() {
+        for (int l = 1; l < levelStarts.length - 1; l++) {
+            int childStart = levelStarts[l - 1];
+            int childEnd = levelStarts[l];
+            for (int node = levelStarts[l]; node < levelStarts[l + 1]; node++) {
+                int first = childStart + (node - levelStarts[l]) * NODE_CAPACITY;
+                int last = Math.min(first + NODE_CAPACITY, childEnd);
+                double x0 = Double.POSITIVE_INFINITY;
+                double y0 = Double.POSITIVE_INFINITY;
+                double x1 = Double.NEGATIVE_INFINITY;
+                double y1 = Double.NEGATIVE_INFINITY;
+                for (int c = first; c < last; c++) {
+                    x0 = Math.min(x0, minX[c]);
+                    y0 = Math.min(y0, minY[c]);
+                    x1 = Math.max(x1, maxX[c]);
+                    y1 = Math.max(y1, maxY[c]);
+                }
+                minX[node] = x0;
+                minY[node] = y0;
+                maxX[node] = x1;
+                maxY[node] = y1;
+            }
+        }
+    }
+
+    /**
+     * Sorts a range of keys into ascending order, carrying the values along.
+     */
+    private static void sort(double[] keys, int[] values, int start, int end) {
+        while (end - start > 16) {
+            int mid = (start + end) >>> 1;
+            // median of three
+            if (keys[mid] < keys[start]) {
+                swap(keys, values, mid, start);
+            }
+            if (keys[end - 1] < keys[start]) {
+                swap(keys, values, end - 1, start);
+            }
+            if (keys[end - 1] < keys[mid]) {
+                swap(keys, values, end - 1, mid);
+            }
+            double pivot = keys[mid];
+            int i = start;
+            int j = end - 1;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller part and loop on the larger one
+            if (j + 1 - start < end - i) {
+                sort(keys, values, start, j + 1);
+                start = i;
+            } else {
+                sort(keys, values, i, end);
+                end = j + 1;
+            }
+        }
+        for (int i = start + 1; i < end; i++) {
+            for (int j = i; j > start && keys[j] < keys[j - 1]; j--) {
+                swap(keys, values, j, j - 1);
+            }
+        }
+    }
+
+    private static void swap(double[] keys, int[] values, int i, int j) {
+        double k = keys[i];
+        keys[i] = keys[j];
+        keys[j] = k;
+        int v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+    }
+
+    /**
+     * Returns the number of entries in the tree.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the entries whose boxes overlap a bounding box. Boxes that only
+     * touch along an edge or at a corner are considered to overlap, as with
+     * BoundingBox.overlaps.
+     *
+     * @param box The bounding box.
+     * @return The values of the entries, in ascending order.
+     */
+    public int[] search(BoundingBox box) {
+        if (box.isNull()) {
+            return new int[0];
+        }
+        return search(box.getMinX(), box.getMinY(), box.getMaxX(), box.getMaxY());
+    }
+
+    /**
+     * Finds the entries whose boxes contain a point, including points on the
+     * edges of the boxes.
+     *
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The values of the entries, in ascending order.
+     */
+    public int[] search(double x, double y) {
+        return search(x, y, x, y);
+    }
+
+    /**
+     * Finds the entries whose boxes overlap a bounding box, given by its
+     * coordinates.
+     *
+     * @return The values of the entries, in ascending order.
+     */
+    public int[] search(double x0, double y0, double x1, double y1) {
+        int[] found = new int[16];
+        int numFound = 0;
+        if (size == 0) {
+            return new int[0];
+        }
+        int[] stack = new int[NODE_CAPACITY * levelStarts.length];
+        int top = 0;
+        stack[top++] = levelStarts[levelStarts.length - 2];
+        while (top > 0) {
+            int node = stack[--top];
+            if (maxX[node] < x0 || minX[node] > x1 || maxY[node] < y0 || minY[node] > y1) {
+                continue;
+            }
+            if (node < size) {
+                if (numFound == found.length) {
+                    found = Arrays.copyOf(found, 2 * numFound);
+                }
+                found[numFound++] = values[node];
+            } else {
+                int level = getLevel(node);
+                int first = levelStarts[level - 1] + (node - levelStarts[level]) * NODE_CAPACITY;
+                int last = Math.min(first + NODE_CAPACITY, levelStarts[level]);
+                for (int c = first; c < last; c++) {
+                    stack[top++] = c;
+                }
+            }
+        }
+        found = Arrays.copyOf(found, numFound);
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * Indicates whether any entry's box overlaps a bounding box. This is
+     * quicker than a search because it stops at the first overlapping entry.
+     *
+     * @param box The bounding box.
+     * @return true if at least one entry overlaps the box.
+     */
+    public boolean intersects(BoundingBox box) {
+        if (size == 0 || box.isNull()) {
+            return false;
+        }
+        double x0 = box.getMinX();
+        double y0 = box.getMinY();
+        double x1 = box.getMaxX();
+        double y1 = box.getMaxY();
+        int[] stack = new int[NODE_CAPACITY * levelStarts.length];
+        int top = 0;
+        stack[top++] = levelStarts[levelStarts.length - 2];
+        while (top > 0) {
+            int node = stack[--top];
+            if (maxX[node] < x0 || minX[node] > x1 || maxY[node] < y0 || minY[node] > y1) {
+                continue;
+            }
+            if (node < size) {
+                return true;
+            }
+            int level = getLevel(node);
+            int first = levelStarts[level - 1] + (node - levelStarts[level]) * NODE_CAPACITY;
+            int last = Math.min(first + NODE_CAPACITY, levelStarts[level]);
+            for (int c = first; c < last; c++) {
+                stack[top++] = c;
+            }
+        }
+        return false;
+    }
+
+    private int getLevel(int node) {
+        int level = 1;
+        while (node >= levelStarts[level + 1]) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Returns the number of bytes that write puts into a buffer.
+     *
+     * @return The size of the tree, in bytes.
+     */
+    public int getByteSize() {
+        return 8 + 4 * size + 32 * minX.length;
+    }
+
+    /**
+     * Writes the tree into a buffer, at the buffer's position and in the
+     * buffer's byte order.
+     *
+     * @param buf The buffer, which must have at least getByteSize() bytes
+     * remaining.
+     */
+    public void write(ByteBuffer buf) {
+        buf.putInt(NODE_CAPACITY);
+        buf.putInt(size);
+        for (int i = 0; i < size; i++) {
+            buf.putInt(values[i]);
+        }
+        for (double[] a : new double[][]{minX, minY, maxX, maxY}) {
+            for (int i = 0; i < a.length; i++) {
+                buf.putDouble(a[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a tree that was saved with write, from the buffer's position and
+     * in the buffer's byte order.
+     *
+     * @param buf The buffer.
+     * @return The tree, or null if the buffer does not hold a tree with the
+     * same node capacity as this class.
+     */
+    public static RTree read(ByteBuffer buf) {
+        if (buf.remaining() < 8 || buf.getInt() != NODE_CAPACITY) {
+            return null;
+        }
+        int n = buf.getInt();
+        if (n < 0 || n > buf.remaining() / 36) {
+            return null;
+        }
+        int[] levelStarts = getLevelStarts(n);
+        int total = levelStarts[levelStarts.length - 1];
+        if (buf.remaining() < 4L * n + 32L * total) {
+            return null;
+        }
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = buf.getInt();
+        }
+        double[][] boxes = new double[4][total];
+        for (double[] a : boxes) {
+            for (int i = 0; i < total; i++) {
+                a[i] = buf.getDouble();
+            }
+        }
+        return new RTree(n, boxes[0], boxes[1], boxes[2], boxes[3], values);
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.structures;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of the values within a moving filter window, used to find the
+ * median, rank, and mode of the window without sorting it. As the window
+ * slides one column to the right along a row of the grid (Huang's method),
+ * only the cells that leave on the left edge and enter on the right edge of
+ * each filter row are removed and added, so the cost of an update grows with
+ * the filter height rather than its area.
+ *
+ * Values are quantized to numberOfBins levels, minimum + bin * binWidth, and
+ * each value is counted in its nearest level. Integer data with a bin width
+ * of one are therefore represented exactly, while decimal data are
+ * approximated to within half a bin width. The bins are grouped into blocks
+ * of roughly the square root of the number of bins, and the counts of each
+ * block are maintained as well, so that rank and mode queries visit only one
+ * block's worth of bins.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class SlidingHistogram {
+
+    private final double minimum;
+    private final double binWidth;
+    private final int numberOfBins;
+    private final int blockShift;
+    private final int blockSize;
+    private final int[] counts;
+    private final int[] blockCounts;
+    private final int[] blockMaxima;
+    private int total = 0;
+
+    /**
+     * Class constructor.
+     *
+     * @param minimum The value of the lowest bin.
+     * @param binWidth The difference in value between adjacent bins.
+     * @param numberOfBins The number of bins.
+     */
+    public SlidingHistogram(double minimum, double binWidth, int numberOfBins) {
+        if (numberOfBins < 1 || !(binWidth > 0)) {
+            throw new IllegalArgumentException("The histogram must have at least one bin of positive width.");
+        }
+        this.minimum = minimum;
+        this.binWidth = binWidth;
+        this.numberOfBins = numberOfBins;
+        int shift = 0;
+        while ((1 << (2 * shift)) < numberOfBins) {
+            shift++;
+        }
+        this.blockShift = shift;
+        this.blockSize = 1 << shift;
+        int numberOfBlocks = (numberOfBins + blockSize - 1) / blockSize;
+        counts = new int[numberOfBins];
+        blockCounts = new int[numberOfBlocks];
+        blockMaxima = new int[numberOfBlocks];
+    }
+
+    /**
+     * Returns the number of bins needed to hold integer data between minimum
+     * and maximum exactly, with a bin width of one.
+     *
+     * @param minimum The minimum data value.
+     * @param maximum The maximum data value.
+     * @return The number of bins, or -1 if the range is too large to index.
+     */
+    public static int getNumberOfIntegerBins(double minimum, double maximum) {
+        double range = Math.floor(maximum) - Math.ceil(minimum) + 1;
+        if (!(range >= 1) || range > Integer.MAX_VALUE) {
+            return -1;
+        }
+        return (int) range;
+    }
+
+    public int getNumberOfBins() {
+        return numberOfBins;
+    }
+
+    public double getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * Returns the number of values currently held in the histogram.
+     *
+     * @return The number of values.
+     */
+    public int getCount() {
+        return total;
+    }
+
+    /**
+     * Returns the bin that a value is counted in. Values beyond either end of
+     * the histogram are counted in the end bins.
+     *
+     * @param value The value.
+     * @return The bin number.
+     */
+    public int getBin(double value) {
+        double b = Math.floor((value - minimum) / binWidth + 0.5);
+        if (b < 0) {
+            return 0;
+        }
+        if (b >= numberOfBins) {
+            return numberOfBins - 1;
+        }
+        return (int) b;
+    }
+
+    /**
+     * Returns the value that is represented by a bin.
+     *
+     * @param bin The bin number.
+     * @return The value of the bin.
+     */
+    public double getBinValue(int bin) {
+        return minimum + bin * binWidth;
+    }
+
+    public void add(double value) {
+        int bin = getBin(value);
+        int n = ++counts[bin];
+        int block = bin >> blockShift;
+        blockCounts[block]++;
+        if (n > blockMaxima[block]) {
+            blockMaxima[block] = n;
+        }
+        total++;
+    }
+
+    public void remove(double value) {
+        int bin = getBin(value);
+        int n = counts[bin]--;
+        int block = bin >> blockShift;
+        blockCounts[block]--;
+        total--;
+        if (n == blockMaxima[block]) {
+            // the bin may have been the only one at the block maximum
+            int max = 0;
+            int end = Math.min(numberOfBins, (block + 1) << blockShift);
+            for (int i = block << blockShift; i < end; i++) {
+                if (counts[i] > max) {
+                    max = counts[i];
+                }
+            }
+            blockMaxima[block] = max;
+        }
+    }
+
+    /**
+     * Empties the histogram.
+     */
+    public void clear() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(blockCounts, 0);
+        Arrays.fill(blockMaxima, 0);
+        total = 0;
+    }
+
+    /**
+     * Adds the valid cells of a filter window to the histogram. The window is
+     * described by the half-width of each of its rows, which are centred on
+     * the cell at index centre in data; a negative half-width is an empty
+     * filter row.
+     *
+     * @param data The grid values, in row-major order.
+     * @param centre The index of the centre cell of the window within data.
+     * @param stride The distance within data between consecutive rows.
+     * @param rowHalfWidths The half-width of each row of the window.
+     * @param noData The nodata value, which is not counted.
+     */
+    public void addWindow(double[] data, int centre, int stride,
+            int[] rowHalfWidths, double noData) {
+        int midPoint = rowHalfWidths.length / 2;
+        for (int k = 0; k < rowHalfWidths.length; k++) {
+            int w = rowHalfWidths[k];
+            int i = centre + (k - midPoint) * stride;
+            for (int j = i - w; j <= i + w; j++) {
+                if (data[j] != noData) {
+                    add(data[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves a filter window that was centred on the cell at index centre one
+     * column to the right, removing the cells that leave the window and adding
+     * those that enter it.
+     *
+     * @param data The grid values, in row-major order.
+     * @param centre The index of the centre cell of the window before the
+     * move.
+     * @param stride The distance within data between consecutive rows.
+     * @param rowHalfWidths The half-width of each row of the window.
+     * @param noData The nodata value, which is not counted.
+     */
+    public void slideRight(double[] data, int centre, int stride,
+            int[] rowHalfWidths, double noData) {
+        int midPoint = rowHalfWidths.length / 2;
+        for (int k = 0; k < rowHalfWidths.length; k++) {
+            int w = rowHalfWidths[k];
+            if (w >= 0) {
+                int i = centre + (k - midPoint) * stride;
+                double z = data[i - w];
+                if (z != noData) {
+                    remove(z);
+                }
+                z = data[i + w + 1];
+                if (z != noData) {
+                    add(z);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the value with a given rank, i.e. the value that would be found
+     * at position rank if the values in the histogram were sorted.
+     *
+     * @param rank The zero-based rank, which must be less than getCount().
+     * @return The value of the bin holding the rank.
+     */
+    public double getValueAtRank(int rank) {
+        int block = 0;
+        while (rank >= blockCounts[block]) {
+            rank -= blockCounts[block];
+            block++;
+        }
+        int bin = block << blockShift;
+        while (rank >= counts[bin]) {
+            rank -= counts[bin];
+            bin++;
+        }
+        return getBinValue(bin);
+    }
+
+    /**
+     * Returns the median of the values in the histogram. When there is an
+     * even number of values, the median is the average of the two middle
+     * values.
+     *
+     * @return The median value.
+     */
+    public double getMedian() {
+        if (total % 2 == 1) {
+            return getValueAtRank(total / 2);
+        }
+        return (getValueAtRank(total / 2 - 1) + getValueAtRank(total / 2)) / 2.0;
+    }
+
+    /**
+     * Returns the number of values that are counted in bins below the bin of
+     * a given value. For exactly represented data this is the number of
+     * values that are less than the value.
+     *
+     * @param value The value.
+     * @return The number of values in lower bins.
+     */
+    public int getCountBelow(double value) {
+        int bin = getBin(value);
+        int block = bin >> blockShift;
+        int n = 0;
+        for (int b = 0; b < block; b++) {
+            n += blockCounts[b];
+        }
+        for (int i = block << blockShift; i < bin; i++) {
+            n += counts[i];
+        }
+        return n;
+    }
+
+    /**
+     * Returns the most frequently occurring value in the histogram. Where two
+     * or more bins are equally frequent, the lowest is returned.
+     *
+     * @return The modal value.
+     */
+    public double getMode() {
+        int max = 0;
+        int modalBlock = 0;
+        for (int b = 0; b < blockMaxima.length; b++) {
+            if (blockMaxima[b] > max) {
+                max = blockMaxima[b];
+                modalBlock = b;
+            }
+        }
+        int bin = modalBlock << blockShift;
+        while (counts[bin] < max) {
+            bin++;
+        }
+        return getBinValue(bin);
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.structures;
+
+import java.util.Arrays;
+
+/**
+ * A kd-tree that is built once from a complete set of points and then only
+ * queried. Unlike KdTree, the points are held in flat primitive arrays: the
+ * coordinates are packed into a single array, which is reordered so that each
+ * node's median point sits in the middle of the node's range of points, and
+ * each point carries an int value, usually the index of the point in the
+ * caller's own arrays. The tree therefore needs no node objects, and its
+ * shape is implied by the point ranges.
+ *
+ * Searches write their results into a Neighbours buffer that is supplied by
+ * the caller and reused from one search to the next, so that searching does
+ * not allocate. The tree is never modified after it is built and may be
+ * searched by several threads at once, provided each thread uses its own
+ * Neighbours.
+ *
+ * Distances are squared Euclidean distances.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class StaticKdTree {
+
+    private static final int LEAF_SIZE = 16;
+
+    private final int dimensions;
+    private final int size;
+    private final double[] coordinates;
+    private final int[] values;
+    // the split dimension of the node whose median point is point i
+    private final byte[] splitDimensions;
+
+    /**
+     * Class constructor. The arrays are copied, so the caller may reuse them.
+     *
+     * @param dimensions The number of dimensions of the points.
+     * @param coordinates The coordinates of the points, packed so that the
+     * coordinates of point i start at coordinates[i * dimensions].
+     * @param values The value of each point, or null to use the number of
+     * each point, i.e. its position in the coordinates array.
+     */
+    public StaticKdTree(int dimensions, double[] coordinates, int[] values) {
+        this(dimensions, coordinates.length / Math.max(dimensions, 1), coordinates, values);
+    }
+
+    /**
+     * Class constructor for a tree of the first numPoints points held in
+     * larger arrays. The arrays are copied, so the caller may reuse them.
+     *
+     * @param dimensions The number of dimensions of the points.
+     * @param numPoints The number of points.
+     * @param coordinates The coordinates of the points, packed so that the
+     * coordinates of point i start at coordinates[i * dimensions].
+     * @param values The value of each point, or null to use the number of
+     * each point, i.e. its position in the coordinates array.
+     */
+    public StaticKdTree(int dimensions, int numPoints, double[] coordinates, int[] values) {
+        if (dimensions < 1 || dimensions > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported number of dimensions.");
+        }
+        if (numPoints < 0 || (long) numPoints * dimensions > coordinates.length
+                || (values != null && values.length < numPoints)) {
+            throw new IllegalArgumentException("There are fewer coordinates or values than points.");
+        }
+        this.dimensions = dimensions;
+        this.size = numPoints;
+        this.coordinates = Arrays.copyOf(coordinates, size * dimensions);
+        if (values != null) {
+            this.values = Arrays.copyOf(values, size);
+        } else {
+            this.values = new int[size];
+            for (int i = 0; i < size; i++) {
+                this.values[i] = i;
+            }
+        }
+        this.splitDimensions = new byte[size];
+        build(0, size);
+    }
+
+    /**
+     * Get the number of points in the tree
+     *
+     * @return The number of points.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Finds the points that are closest to a location. The points are
+     * returned in order of increasing distance.
+     *
+     * @param location The location, with one coordinate for each dimension.
+     * @param count The greatest number of points to find.
+     * @param result Receives the points that are found.
+     * @return The number of points found.
+     */
+    public int findNearest(double[] location, int count, Neighbours result) {
+        return findNearest(location, count, Double.POSITIVE_INFINITY, result);
+    }
+
+    /**
+     * Finds the points that are closest to a location and closer than a
+     * maximum distance. The points are returned in order of increasing
+     * distance.
+     *
+     * @param location The location, with one coordinate for each dimension.
+     * @param count The greatest number of points to find.
+     * @param maxDistance The maximum distance, which may be infinite.
+     * @param result Receives the points that are found.
+     * @return The number of points found.
+     */
+    public int findNearest(double[] location, int count, double maxDistance,
+            Neighbours result) {
+        result.clear();
+        if (count <= 0 || size == 0 || !(maxDistance > 0)) {
+            return 0;
+        }
+        result.ensureCapacity(Math.min(count, size));
+        result.location = location;
+        result.count = count;
+        result.bound = maxDistance * maxDistance;
+        searchNearest(0, size, result);
+        result.location = null;
+        result.sortHeap();
+        return result.size;
+    }
+
+    /**
+     * Finds all of the points within a radius of a location, including those
+     * at exactly the radius. The points are not in any particular order.
+     *
+     * @param location The location, with one coordinate for each dimension.
+     * @param radius The search radius, which may be infinite.
+     * @param result Receives the points that are found.
+     * @return The number of points found.
+     */
+    public int findWithinRadius(double[] location, double radius, Neighbours result) {
+        result.clear();
+        if (size == 0 || !(radius >= 0)) {
+            return 0;
+        }
+        result.location = location;
+        result.bound = radius * radius;
+        searchRadius(0, size, result);
+        result.location = null;
+        return result.size;
+    }
+
+    /**
+     * Arranges the points from start to end - 1 into a subtree. The points
+     * lie within the box given by min and max, which is narrowed at each
+     * split, and each node splits the dimension in which the box is widest.
+     */
+    private void build(int start, int end) {
+        double[] min = new double[dimensions];
+        double[] max = new double[dimensions];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < end; i++) {
+            for (int d = 0; d < dimensions; d++) {
+                double c = coordinates[i * dimensions + d];
+                if (c < min[d]) {
+                    min[d] = c;
+                }
+                if (c > max[d]) {
+                    max[d] = c;
+                }
+            }
+        }
+        build(start, end, min, max);
+    }
+
+    private void build(int start, int end, double[] min, double[] max) {
+        while (end - start > LEAF_SIZE) {
+            int dim = 0;
+            for (int d = 1; d < dimensions; d++) {
+                if (max[d] - min[d] > max[dim] - min[dim]) {
+                    dim = d;
+                }
+            }
+            int median = (start + end) >>> 1;
+            select(start, end - 1, median, dim);
+            splitDimensions[median] = (byte) dim;
+            double split = coordinates[median * dimensions + dim];
+            // build the smaller side first so that the recursion stays shallow
+            if (median - start < end - median - 1) {
+                double[] sideMax = max.clone();
+                sideMax[dim] = split;
+                build(start, median, min, sideMax);
+                min = min.clone();
+                min[dim] = split;
+                start = median + 1;
+            } else {
+                double[] sideMin = min.clone();
+                sideMin[dim] = split;
+                build(median + 1, end, sideMin, max);
+                max = max.clone();
+                max[dim] = split;
+                end = median;
+            }
+        }
+    }
+
+    /**
+     * Partially sorts the points from left to right along a dimension so
+     * that point k is in its sorted position, with no greater point before it
+     * and no smaller point after it.
+     */
+    private void select(int left, int right, int k, int dim) {
+        while (right > left) {
+            // median of three pivot
+            int mid = (left + right) >>> 1;
+            if (key(mid, dim) < key(left, dim)) {
+                swap(mid, left);
+            }
+            if (key(right, dim) < key(left, dim)) {
+                swap(right, left);
+            }
+            if (key(right, dim) < key(mid, dim)) {
+                swap(right, mid);
+            }
+            double pivot = key(mid, dim);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (key(i, dim) < pivot) {
+                    i++;
+                }
+                while (key(j, dim) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double key(int i, int dim) {
+        return coordinates[i * dimensions + dim];
+    }
+
+    private void swap(int i, int j) {
+        int a = i * dimensions;
+        int b = j * dimensions;
+        for (int d = 0; d < dimensions; d++) {
+            double c = coordinates[a + d];
+            coordinates[a + d] = coordinates[b + d];
+            coordinates[b + d] = c;
+        }
+        int v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+    }
+
+    private double sqrDistance(int i, double[] location) {
+        int a = i * dimensions;
+        double dist = 0;
+        for (int d = 0; d < dimensions; d++) {
+            double diff = coordinates[a + d] - location[d];
+            dist += diff * diff;
+        }
+        return dist;
+    }
+
+    private void searchNearest(int start, int end, Neighbours result) {
+        double[] location = result.location;
+        while (end - start > LEAF_SIZE) {
+            int median = (start + end) >>> 1;
+            int dim = splitDimensions[median];
+            double diff = location[dim] - coordinates[median * dimensions + dim];
+            result.offer(sqrDistance(median, location), values[median]);
+            if (diff < 0) {
+                searchNearest(start, median, result);
+                if (diff * diff >= result.bound) {
+                    return;
+                }
+                start = median + 1;
+            } else {
+                searchNearest(median + 1, end, result);
+                if (diff * diff >= result.bound) {
+                    return;
+                }
+                end = median;
+            }
+        }
+        for (int i = start; i < end; i++) {
+            result.offer(sqrDistance(i, location), values[i]);
+        }
+    }
+
+    private void searchRadius(int start, int end, Neighbours result) {
+        double[] location = result.location;
+        double sqrRadius = result.bound;
+        while (end - start > LEAF_SIZE) {
+            int median = (start + end) >>> 1;
+            int dim = splitDimensions[median];
+            double diff = location[dim] - coordinates[median * dimensions + dim];
+            double dist = sqrDistance(median, location);
+            if (dist <= sqrRadius) {
+                result.add(dist, values[median]);
+            }
+            if (diff < 0) {
+                searchRadius(start, median, result);
+                if (diff * diff > sqrRadius) {
+                    return;
+                }
+                start = median + 1;
+            } else {
+                searchRadius(median + 1, end, result);
+                if (diff * diff > sqrRadius) {
+                    return;
+                }
+                end = median;
+            }
+        }
+        for (int i = start; i < end; i++) {
+            double dist = sqrDistance(i, location);
+            if (dist <= sqrRadius) {
+                result.add(dist, values[i]);
+            }
+        }
+    }
+
+    /**
+     * Holds the points found by a search of a StaticKdTree. A Neighbours may
+     * be reused for any number of searches but must not be shared between
+     * threads.
+     */
+    public static final class Neighbours {
+
+        private int[] values;
+        private double[] sqrDistances;
+        private int size = 0;
+        // the state of the current search
+        private double[] location;
+        private int count;
+        private double bound;
+
+        public Neighbours() {
+            this(16);
+        }
+
+        /**
+         * Class constructor.
+         *
+         * @param capacity The number of points that can be held before the
+         * buffer needs to grow.
+         */
+        public Neighbours(int capacity) {
+            capacity = Math.max(capacity, 1);
+            values = new int[capacity];
+            sqrDistances = new double[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the value of a point found by the last search.
+         *
+         * @param k The number of the point within the search results.
+         * @return The point's value.
+         */
+        public int getValue(int k) {
+            return values[k];
+        }
+
+        /**
+         * Returns the squared distance to a point found by the last search.
+         *
+         * @param k The number of the point within the search results.
+         * @return The squared distance.
+         */
+        public double getSqrDistance(int k) {
+            return sqrDistances[k];
+        }
+
+        private void clear() {
+            size = 0;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > values.length) {
+                capacity = Math.max(capacity, values.length + (values.length >> 1));
+                values = Arrays.copyOf(values, capacity);
+                sqrDistances = Arrays.copyOf(sqrDistances, capacity);
+            }
+        }
+
+        private void add(double dist, int value) {
+            if (size == values.length) {
+                ensureCapacity(size + 1);
+            }
+            values[size] = value;
+            sqrDistances[size] = dist;
+            size++;
+        }
+
+        /**
+         * Offers a point to a nearest-neighbour search, in which the points
+         * are held in a max-heap on distance and bound is the distance that a
+         * point must beat.
+         */
+        private void offer(double dist, int value) {
+            if (!(dist < bound)) {
+                return;
+            }
+            if (size < count) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >> 1;
+                    if (sqrDistances[parent] >= dist) {
+                        break;
+                    }
+                    sqrDistances[i] = sqrDistances[parent];
+                    values[i] = values[parent];
+                    i = parent;
+                }
+                sqrDistances[i] = dist;
+                values[i] = value;
+            } else {
+                siftDown(0, size, dist, value);
+            }
+            if (size == count) {
+                bound = sqrDistances[0];
+            }
+        }
+
+        private void siftDown(int i, int n, double dist, int value) {
+            int child;
+            while ((child = 2 * i + 1) < n) {
+                if (child + 1 < n && sqrDistances[child + 1] > sqrDistances[child]) {
+                    child++;
+                }
+                if (sqrDistances[child] <= dist) {
+                    break;
+                }
+                sqrDistances[i] = sqrDistances[child];
+                values[i] = values[child];
+                i = child;
+            }
+            sqrDistances[i] = dist;
+            values[i] = value;
+        }
+
+        /**
+         * Sorts the heap of a nearest-neighbour search into increasing order
+         * of distance.
+         */
+        private void sortHeap() {
+            for (int n = size - 1; n > 0; n--) {
+                double dist = sqrDistances[n];
+                int value = values[n];
+                sqrDistances[n] = sqrDistances[0];
+                values[n] = values[0];
+                siftDown(0, n, dist, value);
+            }
+        }
+    }
+}
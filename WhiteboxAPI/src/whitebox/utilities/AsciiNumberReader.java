@@ -0,0 +1,472 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.utilities;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads numbers from a text file, such as the data block of an ASCII grid,
+ * without creating a String for each line or value. The numbers are parsed
+ * directly from the bytes of the file, which is read in large windows; each
+ * window is split into chunks at delimiters and the chunks are parsed in
+ * parallel. Spaces, tabs, commas and line endings all separate values.
+ *
+ * A file usually begins with a few header lines, which are read as Strings
+ * with readLine before the values are read with readValues. Files of
+ * delimited records, one per line, can instead be read with readRecord.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class AsciiNumberReader {
+
+    private static final int WINDOW_SIZE = 1 << 22;
+    // windows smaller than this are parsed on the calling thread
+    private static final int MIN_PARALLEL_SIZE = 1 << 18;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    // the position of the first byte that has not been read or buffered
+    private long position = 0;
+    private final byte[] window;
+    private int windowPos = 0;
+    private int windowEnd = 0;
+
+    // the values of the current window, by chunk
+    private final int numChunks;
+    private final double[][] chunkValues;
+    private final int[] chunkCounts;
+    private int currentChunk = 0;
+    private int chunkPos = 0;
+    private boolean readingValues = false;
+
+    private boolean nonNumericAllowed = false;
+    private double nonNumericValue = Double.NaN;
+    private ExecutorService parser;
+
+    /**
+     * Class constructor.
+     *
+     * @param fileName the name of the text file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public AsciiNumberReader(String fileName) throws IOException {
+        file = new RandomAccessFile(fileName, "r");
+        channel = file.getChannel();
+        fileSize = channel.size();
+        window = new byte[(int) Math.min(WINDOW_SIZE, Math.max(fileSize, 1))];
+        int procs = Runtime.getRuntime().availableProcessors();
+        numChunks = fileSize < MIN_PARALLEL_SIZE ? 1 : Math.max(1, procs);
+        chunkValues = new double[numChunks][];
+        chunkCounts = new int[numChunks];
+    }
+
+    /**
+     * Sets the value given to a token that isn't a number, such as the '*'
+     * that GRASS uses for nodata. By default, a non-numeric token causes a
+     * NumberFormatException.
+     *
+     * @param value the value of non-numeric tokens.
+     */
+    public void setNonNumericValue(double value) {
+        nonNumericAllowed = true;
+        nonNumericValue = value;
+    }
+
+    /**
+     * Reads the next line of text, which is usually part of a header. Lines
+     * cannot be read once values have been read.
+     *
+     * @return the line, without its line terminator, or null at the end of
+     * the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public String readLine() throws IOException {
+        int end = findLineEnd();
+        if (end < 0) {
+            return null;
+        }
+        String line = decodeLine(end);
+        skipLine(end);
+        return line;
+    }
+
+    /**
+     * Returns the next line of text without reading it, so that the next
+     * call to readLine or readValues starts at the same line.
+     *
+     * @return the line, without its line terminator, or null at the end of
+     * the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public String peekLine() throws IOException {
+        int end = findLineEnd();
+        return end < 0 ? null : decodeLine(end);
+    }
+
+    /**
+     * Reads the fields of the next line that isn't empty. Lines cannot be
+     * read once values have been read.
+     *
+     * @param fields receives the values of the fields. Fields beyond its
+     * length are ignored.
+     * @return the number of fields on the line, or -1 at the end of the file.
+     * @throws IOException if the file cannot be read.
+     * @throws NumberFormatException if one of the fields isn't a number.
+     */
+    public int readRecord(double[] fields) throws IOException {
+        while (true) {
+            int end = findLineEnd();
+            if (end < 0) {
+                return -1;
+            }
+            int n = 0;
+            int i = windowPos;
+            while (i < end) {
+                while (i < end && isDelimiter(window[i])) {
+                    i++;
+                }
+                if (i == end) {
+                    break;
+                }
+                int start = i;
+                while (i < end && !isDelimiter(window[i])) {
+                    i++;
+                }
+                if (n < fields.length) {
+                    fields[n] = parseToken(window, start, i);
+                }
+                n++;
+            }
+            skipLine(end);
+            if (n > 0) {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Reads the next values.
+     *
+     * @param values receives the values.
+     * @param offset the index of values at which the first value is stored.
+     * @param length the number of values to read.
+     * @return the number of values read, which is less than length only at
+     * the end of the file.
+     * @throws IOException if the file cannot be read.
+     * @throws NumberFormatException if a token isn't a number and no
+     * non-numeric value has been set.
+     */
+    public int readValues(double[] values, int offset, int length) throws IOException {
+        if (!readingValues) {
+            readingValues = true;
+            // the rest of the current window is parsed along with the next
+            position -= windowEnd - windowPos;
+            windowPos = windowEnd = 0;
+            currentChunk = numChunks;
+        }
+        int count = 0;
+        while (count < length) {
+            while (currentChunk < numChunks && chunkPos == chunkCounts[currentChunk]) {
+                currentChunk++;
+                chunkPos = 0;
+            }
+            if (currentChunk == numChunks) {
+                if (!parseNextWindow()) {
+                    break;
+                }
+                continue;
+            }
+            int n = Math.min(length - count, chunkCounts[currentChunk] - chunkPos);
+            System.arraycopy(chunkValues[currentChunk], chunkPos, values, offset + count, n);
+            chunkPos += n;
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    public void close() throws IOException {
+        if (parser != null) {
+            parser.shutdown();
+        }
+        channel.close();
+        file.close();
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b <= ' ' || b == ',';
+    }
+
+    /**
+     * Finds the end of the next line in the window, reading more of the file
+     * into it if needed. The window is only refilled when it no longer holds
+     * a complete line.
+     *
+     * @return the index in the window of the line's terminator, or of the
+     * end of the file, or -1 at the end of the file.
+     */
+    private int findLineEnd() throws IOException {
+        if (readingValues) {
+            throw new IllegalStateException("Lines cannot be read after values have been read.");
+        }
+        for (int i = windowPos; i < windowEnd; i++) {
+            if (window[i] == '\n') {
+                return i;
+            }
+        }
+        // move the partial line to the front of the window and refill it
+        int remaining = windowEnd - windowPos;
+        System.arraycopy(window, windowPos, window, 0, remaining);
+        windowPos = 0;
+        windowEnd = remaining;
+        windowEnd += read(window, windowEnd, window.length - windowEnd);
+        for (int i = remaining; i < windowEnd; i++) {
+            if (window[i] == '\n') {
+                return i;
+            }
+        }
+        if (windowEnd == window.length && position < fileSize) {
+            throw new IOException("A line is longer than " + window.length + " bytes.");
+        }
+        return windowEnd > 0 ? windowEnd : -1;
+    }
+
+    private String decodeLine(int end) {
+        int lineEnd = end > windowPos && window[end - 1] == '\r' ? end - 1 : end;
+        return new String(window, windowPos, lineEnd - windowPos, StandardCharsets.ISO_8859_1);
+    }
+
+    private void skipLine(int end) {
+        windowPos = Math.min(end + 1, windowEnd);
+    }
+
+    private int read(byte[] dst, int offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(dst, offset, length);
+        while (buf.hasRemaining() && position < fileSize) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                break;
+            }
+            position += n;
+        }
+        return buf.position() - offset;
+    }
+
+    /**
+     * Reads the next window of the file, ending it at the last delimiter so
+     * that no token is split, and parses its chunks.
+     */
+    private boolean parseNextWindow() throws IOException {
+        int length = read(window, 0, window.length);
+        if (length == 0) {
+            return false;
+        }
+        if (position < fileSize) {
+            int end = length;
+            while (end > 0 && !isDelimiter(window[end - 1])) {
+                end--;
+            }
+            if (end == 0) {
+                throw new IOException("A value is longer than " + window.length + " bytes.");
+            }
+            position -= length - end;
+            length = end;
+        }
+
+        // split the window into chunks that also end at delimiters
+        final int[] starts = new int[numChunks + 1];
+        starts[numChunks] = length;
+        for (int c = 1; c < numChunks; c++) {
+            int s = Math.max(starts[c - 1], (int) ((long) length * c / numChunks));
+            while (s < length && !isDelimiter(window[s])) {
+                s++;
+            }
+            starts[c] = s;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int c = 0; c < numChunks; c++) {
+            final int chunk = c;
+            int capacity = (starts[c + 1] - starts[c] + 1) / 2;
+            if (chunkValues[c] == null || chunkValues[c].length < capacity) {
+                chunkValues[c] = new double[capacity];
+            }
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    chunkCounts[chunk] = parseChunk(window, starts[chunk], starts[chunk + 1],
+                            chunkValues[chunk]);
+                    return null;
+                }
+            });
+        }
+        if (numChunks == 1) {
+            chunkCounts[0] = parseChunk(window, 0, length, chunkValues[0]);
+        } else {
+            if (parser == null) {
+                parser = Executors.newFixedThreadPool(numChunks,
+                        new NamedThreadFactory("AsciiNumberReader"));
+            }
+            try {
+                for (Future<Void> f : parser.invokeAll(tasks)) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Reading the file was interrupted.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        currentChunk = 0;
+        chunkPos = 0;
+        return true;
+    }
+
+    private int parseChunk(byte[] data, int start, int end, double[] values) {
+        int n = 0;
+        int i = start;
+        while (i < end) {
+            while (i < end && isDelimiter(data[i])) {
+                i++;
+            }
+            if (i == end) {
+                break;
+            }
+            int tokenStart = i;
+            while (i < end && !isDelimiter(data[i])) {
+                i++;
+            }
+            values[n++] = parseToken(data, tokenStart, i);
+        }
+        return n;
+    }
+
+    private double parseToken(byte[] data, int start, int end) {
+        try {
+            return parseDouble(data, start, end);
+        } catch (NumberFormatException e) {
+            if (nonNumericAllowed) {
+                return nonNumericValue;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a number from a range of bytes. Plain decimal numbers are parsed
+     * directly from the bytes, and the result is exact because both the
+     * digits and the power of ten are exactly representable. Anything else
+     * is left to Double.parseDouble.
+     *
+     * @param data the bytes.
+     * @param start the index of the first byte of the number.
+     * @param end the index after the last byte of the number.
+     * @return the number.
+     * @throws NumberFormatException if the bytes aren't a number.
+     */
+    public static double parseDouble(byte[] data, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int numDigits = 0;
+        int fractionDigits = -1;
+        boolean anyDigits = false;
+        for (; i < end; i++) {
+            byte b = data[i];
+            if (b >= '0' && b <= '9') {
+                anyDigits = true;
+                if (mantissa != 0 || b != '0') {
+                    mantissa = mantissa * 10 + (b - '0');
+                    numDigits++;
+                }
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+                if (numDigits > 15) {
+                    break;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        int exponent = 0;
+        if (anyDigits && i < end && (data[i] == 'e' || data[i] == 'E') && numDigits <= 15) {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < end && (data[j] == '-' || data[j] == '+')) {
+                negativeExponent = data[j] == '-';
+                j++;
+            }
+            int expDigits = 0;
+            while (j < end && data[j] >= '0' && data[j] <= '9' && expDigits < 4) {
+                exponent = exponent * 10 + (data[j] - '0');
+                expDigits++;
+                j++;
+            }
+            if (expDigits > 0) {
+                i = j;
+                exponent = negativeExponent ? -exponent : exponent;
+            }
+        }
+        if (i == end && anyDigits && numDigits <= 15) {
+            int scale = exponent - Math.max(fractionDigits, 0);
+            if (mantissa == 0) {
+                return negative ? -0.0 : 0.0;
+            }
+            if (scale >= -22 && scale <= 22) {
+                double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale]
+                        : mantissa * POWERS_OF_TEN[scale];
+                return negative ? -value : value;
+            }
+        }
+        return Double.parseDouble(new String(data, start, end - start, StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.utilities;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes rows of numbers to a text file, such as the data block of an ASCII
+ * grid. Rows are gathered into batches, the rows of each batch are formatted
+ * into bytes in parallel and the batches are written in order. Floating
+ * point values are written exactly as String.valueOf((float) value) would
+ * write them. Integers, and floats written in plain decimal notation (those
+ * with magnitudes from 0.001 up to 10^7), are formatted without creating
+ * Strings.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class AsciiNumberWriter {
+
+    private static final int BATCH_CELLS = 1 << 20;
+    private static final double[] POWERS_OF_TEN = {1.0e0, 1.0e1, 1.0e2,
+        1.0e3, 1.0e4, 1.0e5, 1.0e6, 1.0e7, 1.0e8, 1.0e9, 1.0e10, 1.0e11,
+        1.0e12};
+    private static final byte[] LINE_SEPARATOR
+            = System.lineSeparator().getBytes(StandardCharsets.ISO_8859_1);
+
+    private final OutputStream out;
+    private boolean writeIntegers = false;
+    private boolean hasNoData = false;
+    private double noData;
+    private byte[] noDataText;
+    private byte[] delimiter = {' '};
+
+    private final List<double[]> batch = new ArrayList<>();
+    private int batchCells = 0;
+    private ExecutorService formatter;
+
+    /**
+     * Class constructor. The file is overwritten if it exists.
+     *
+     * @param fileName the name of the text file.
+     * @throws IOException if the file cannot be created.
+     */
+    public AsciiNumberWriter(String fileName) throws IOException {
+        out = new FileOutputStream(fileName, false);
+    }
+
+    /**
+     * Sets whether values are written as integers, truncating any fraction,
+     * rather than as floating point numbers. The default is false.
+     *
+     * @param writeIntegers true to write integers.
+     */
+    public void setWriteIntegers(boolean writeIntegers) {
+        this.writeIntegers = writeIntegers;
+    }
+
+    /**
+     * Sets the text written in place of nodata values.
+     *
+     * @param noData the nodata value.
+     * @param text the text written for it.
+     */
+    public void setNoData(double noData, String text) {
+        this.hasNoData = true;
+        this.noData = noData;
+        this.noDataText = text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Sets the text written between the values of a row. The default is a
+     * single space.
+     *
+     * @param delimiter the delimiter.
+     */
+    public void setDelimiter(String delimiter) {
+        this.delimiter = delimiter.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Writes a line of text, such as part of a header, after any rows that
+     * have already been written.
+     *
+     * @param line the line, without a line terminator.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeLine(String line) throws IOException {
+        flushRows();
+        out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * Writes a row of values as one line.
+     *
+     * @param values the values, which are copied.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeRow(double[] values) throws IOException {
+        batch.add(values.clone());
+        batchCells += Math.max(values.length, 1);
+        if (batchCells >= BATCH_CELLS) {
+            flushRows();
+        }
+    }
+
+    /**
+     * Writes any rows that are waiting to be written and closes the file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void close() throws IOException {
+        try {
+            flushRows();
+        } finally {
+            if (formatter != null) {
+                formatter.shutdown();
+            }
+            out.close();
+        }
+    }
+
+    private void flushRows() throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int numRows = batch.size();
+        int procs = Runtime.getRuntime().availableProcessors();
+        int numGroups = Math.min(procs, numRows);
+        if (numGroups <= 1) {
+            TextBuffer text = new TextBuffer(16 * batchCells);
+            for (double[] row : batch) {
+                formatRow(row, text);
+            }
+            out.write(text.bytes, 0, text.length);
+        } else {
+            if (formatter == null) {
+                formatter = Executors.newFixedThreadPool(procs,
+                        new NamedThreadFactory("AsciiNumberWriter"));
+            }
+            List<Callable<TextBuffer>> tasks = new ArrayList<>();
+            for (int g = 0; g < numGroups; g++) {
+                final int first = (int) ((long) numRows * g / numGroups);
+                final int last = (int) ((long) numRows * (g + 1) / numGroups);
+                tasks.add(new Callable<TextBuffer>() {
+
+                    @Override
+                    public TextBuffer call() {
+                        TextBuffer text = new TextBuffer(16 * batchCells / numGroups);
+                        for (int r = first; r < last; r++) {
+                            formatRow(batch.get(r), text);
+                        }
+                        return text;
+                    }
+                });
+            }
+            try {
+                for (Future<TextBuffer> f : formatter.invokeAll(tasks)) {
+                    TextBuffer text = f.get();
+                    out.write(text.bytes, 0, text.length);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Writing the file was interrupted.");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        batch.clear();
+        batchCells = 0;
+    }
+
+    private void formatRow(double[] values, TextBuffer text) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                text.append(delimiter);
+            }
+            double z = values[i];
+            if (hasNoData && z == noData) {
+                text.append(noDataText);
+            } else if (writeIntegers) {
+                text.appendInteger((int) z);
+            } else {
+                float f = (float) z;
+                if (f == (int) f && f != 0 && Math.abs(f) < 1.0e7f) {
+                    // written by Float.toString as the integer and ".0"
+                    text.appendInteger((int) f);
+                    text.append((byte) '.');
+                    text.append((byte) '0');
+                } else if (!text.appendFloat(f)) {
+                    text.append(Float.toString(f));
+                }
+            }
+        }
+        text.append(LINE_SEPARATOR);
+    }
+
+    /**
+     * A growable array of bytes.
+     */
+    private static class TextBuffer {
+
+        byte[] bytes;
+        int length = 0;
+
+        TextBuffer(int capacity) {
+            bytes = new byte[Math.max(capacity, 64)];
+        }
+
+        private void ensureCapacity(int n) {
+            if (length + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + n));
+            }
+        }
+
+        void append(byte b) {
+            ensureCapacity(1);
+            bytes[length++] = b;
+        }
+
+        void append(byte[] b) {
+            ensureCapacity(b.length);
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        void append(String s) {
+            ensureCapacity(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                bytes[length++] = (byte) s.charAt(i);
+            }
+        }
+
+        void appendInteger(int value) {
+            ensureCapacity(11);
+            long v = value;
+            if (v < 0) {
+                bytes[length++] = '-';
+                v = -v;
+            }
+            int numDigits = 1;
+            for (long p = 10; p <= v; p *= 10) {
+                numDigits++;
+            }
+            for (int i = numDigits - 1; i >= 0; i--) {
+                bytes[length + i] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            length += numDigits;
+        }
+
+        /**
+         * Appends a float as Float.toString would, if it is written in plain
+         * decimal notation. That is the shortest decimal with at least one
+         * fractional digit that reads back as the same float, with ties
+         * between two such decimals going to the even one.
+         *
+         * @return false, with nothing appended, if the float's magnitude is
+         * outside [0.001, 10^7).
+         */
+        boolean appendFloat(float f) {
+            double d = Math.abs((double) f);
+            if (!(d >= 1.0e-3 && d < 1.0e7)) {
+                return false;
+            }
+            // a float never needs more than 9 significant digits
+            int maxFractionDigits = 9;
+            if (d >= 1) {
+                for (double p = 1; p <= d; p *= 10) {
+                    maxFractionDigits--;
+                }
+            } else {
+                for (double p = 0.1; d < p; p /= 10) {
+                    maxFractionDigits++;
+                }
+            }
+            for (int q = 1; q <= maxFractionDigits; q++) {
+                double scale = POWERS_OF_TEN[q];
+                double scaled = d * scale;
+                long m = Math.round(scaled);
+                if (m - scaled == 0.5 && (m & 1) != 0) {
+                    m--;
+                }
+                if ((float) (m / scale) == (float) d) {
+                    ensureCapacity(21);
+                    if (f < 0) {
+                        bytes[length++] = '-';
+                    }
+                    long intPart = m / (long) scale;
+                    long fraction = m % (long) scale;
+                    int numDigits = 1;
+                    for (long p = 10; p <= intPart; p *= 10) {
+                        numDigits++;
+                    }
+                    for (int i = numDigits - 1; i >= 0; i--) {
+                        bytes[length + i] = (byte) ('0' + intPart % 10);
+                        intPart /= 10;
+                    }
+                    length += numDigits;
+                    bytes[length++] = '.';
+                    for (int i = q - 1; i >= 0; i--) {
+                        bytes[length + i] = (byte) ('0' + fraction % 10);
+                        fraction /= 10;
+                    }
+                    length += q;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
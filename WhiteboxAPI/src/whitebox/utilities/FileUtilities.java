@@ -156,6 +156,24 @@ public class FileUtilities {
         return filename.substring(0, extensionIndex);
     }
 
+    /**
+     * Replaces the extension of a file name, i.e. everything from the last
+     * '.' in the name of the file itself, with a new ending. Directory names
+     * are left unchanged and a name without an extension is simply extended.
+     *
+     * @param fileName The file name, which may include a path.
+     * @param newEnding The text that replaces the extension, e.g. "_1.dep".
+     * @return The new file name.
+     */
+    public static String replaceFileExtension(String fileName, String newEnding) {
+        int separatorIndex = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+        int extensionIndex = fileName.lastIndexOf('.');
+        if (extensionIndex <= separatorIndex) {
+            return fileName + newEnding;
+        }
+        return fileName.substring(0, extensionIndex) + newEnding;
+    }
+
     public static String getShortFileName(String fileName) {
         int idx = fileName.replaceAll("\\\\", "/").lastIndexOf("/");
         return idx >= 0 ? fileName.substring(idx + 1) : fileName;
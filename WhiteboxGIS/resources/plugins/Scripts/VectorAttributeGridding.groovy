@@ -22,7 +22,7 @@ import whitebox.geospatialfiles.shapefile.attributes.*
 import whitebox.geospatialfiles.shapefile.attributes.DBFField.DBFDataType
 import whitebox.geospatialfiles.shapefile.ShapeFileRecord
 import whitebox.utilities.Topology
-import whitebox.structures.KdTree
+import whitebox.structures.StaticKdTree
 import groovy.transform.CompileStatic
 
 // The following four variables are required for this 
@@ -321,7 +321,7 @@ public class VectorAttributeGridding implements ActionListener {
 			
 	    	double[][] retData = new double[nRows][cols]
 
-	       	KdTree tree = input.getKdTree()
+	       	StaticKdTree tree = input.getStaticKdTree()
 
 	       	int numFeatures = input.getNumberOfRecords()
 	       	AttributeTable table = input.getAttributeTable()
@@ -331,23 +331,22 @@ public class VectorAttributeGridding implements ActionListener {
 	       		fieldData[rec] = val
 	       	}
 			
-			List<KdTree.Entry<Integer>> results
+			StaticKdTree.Neighbours neighbours = new StaticKdTree.Neighbours()
+			double[] entry = new double[2]
 			double x, y
 			for (int row in 0..<nRows) {
 				y = north - halfCellSizeY - (startingRow + row) * cellSizeY
 				for (int col in 0..<cols) {
 					x = west + halfCellSizeX + col * cellSizeX;
-			        double[] entry = new double[2]
 			        entry[0] = x
 			        entry[1] = y
 			        
-			        results = tree.neighborsWithinRange(entry, searchDist)
-			        if (results.size() > 0) {
+			        int numFound = tree.findWithinRadius(entry, searchDist, neighbours)
+			        if (numFound > 0) {
 				        HashSet<Integer> hs = new HashSet() 
-				        for (int j = 0; j < results.size(); j++) {
-				        	KdTree.Entry result = results.get(j)
-							if (result.distance > 0) {
-								int k = result.value
+				        for (int j = 0; j < numFound; j++) {
+							if (neighbours.getSqrDistance(j) > 0) {
+								int k = neighbours.getValue(j)
 								hs.add(k)
 							}
 				        }